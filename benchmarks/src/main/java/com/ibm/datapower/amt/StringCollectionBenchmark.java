@@ -0,0 +1,150 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibm.datapower.amt.benchmarks.Fixtures;
+
+/**
+ * Compare feature and license lists the way firmware compatibility checks
+ * and device queries do: the same names in another order, and a subset.
+ * The fresh variants build the collections in the operation, so the set each
+ * collection keeps for comparisons is built every time. The scan variants do
+ * what the comparisons did before FeatureSet; 22 is the size of a license
+ * set reported by a fully licensed device.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StringCollectionBenchmark {
+
+    @Param({ "8", "22", "64" })
+    public int size;
+
+    private String[] names = null;
+    private String[] shuffled = null;
+    private String[] subset = null;
+    private StringCollection collection = null;
+    private StringCollection reordered = null;
+    private StringCollection smaller = null;
+
+    @Setup
+    public void setUp() {
+        this.names = Fixtures.features(this.size, Fixtures.SEED);
+        List<String> list = Arrays.asList(this.names.clone());
+        Collections.shuffle(list, new Random(Fixtures.SEED));
+        this.shuffled = list.toArray(new String[list.size()]);
+        this.subset = Arrays.copyOf(this.shuffled, this.size / 2);
+        this.collection = new StringCollection(this.names);
+        this.reordered = new StringCollection(this.shuffled);
+        this.smaller = new StringCollection(this.subset);
+    }
+
+    @Benchmark
+    public boolean equals() {
+        return(this.collection.equals(this.reordered));
+    }
+
+    @Benchmark
+    public boolean isSupersetOf() {
+        return(this.collection.isSupersetOf(this.smaller));
+    }
+
+    @Benchmark
+    public boolean contains() {
+        return(this.collection.contains(this.shuffled[this.size - 1]));
+    }
+
+    @Benchmark
+    public boolean equalsFresh() {
+        return(new StringCollection(this.names).equals(new StringCollection(this.shuffled)));
+    }
+
+    @Benchmark
+    public boolean isSupersetOfFresh() {
+        return(new StringCollection(this.names).isSupersetOf(new StringCollection(this.subset)));
+    }
+
+    @Benchmark
+    public boolean equalsScan() {
+        return(scanEquals(this.collection, this.reordered));
+    }
+
+    @Benchmark
+    public boolean isSupersetOfScan() {
+        return(scanSuperset(this.collection, this.smaller));
+    }
+
+    @Benchmark
+    public boolean containsScan() {
+        return(scanContains(this.collection, this.shuffled[this.size - 1]));
+    }
+
+    /*
+     * What StringCollection.equals did before FeatureSet.
+     */
+    private static boolean scanEquals(StringCollection first, StringCollection second) {
+        if (first.size() != second.size()) {
+            return(false);
+        }
+        for (int i = 0; i < first.size(); i++) {
+            if (!scanContains(second, first.get(i))) {
+                return(false);
+            }
+        }
+        return(true);
+    }
+
+    private static boolean scanSuperset(StringCollection first, StringCollection second) {
+        for (int i = 0; i < second.size(); i++) {
+            if (!scanContains(first, second.get(i))) {
+                return(false);
+            }
+        }
+        return(true);
+    }
+
+    private static boolean scanContains(StringCollection collection, String target) {
+        for (int i = 0; i < collection.size(); i++) {
+            if (collection.get(i).equals(target)) {
+                return(true);
+            }
+        }
+        return(false);
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.amp;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.codec.binary.Base64;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibm.datapower.amt.benchmarks.Fixtures;
+
+/**
+ * Compare two base64 encoded domain exports on the manager, as
+ * DomainVersion.getDifferences does: two exports of the same configuration,
+ * and two exports in which every object was modified.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DomainDiffEngineBenchmark {
+
+    private static final String DOMAIN_NAME = "domain0"; //$NON-NLS-1$
+
+    @Param({ "64", "4096" })
+    public int objects;
+
+    private byte[] image = null;
+    private byte[] sameImage = null;
+    private byte[] changedImage = null;
+
+    @Setup
+    public void setUp() {
+        this.image = Base64.encodeBase64(Fixtures.domainExport(DOMAIN_NAME, this.objects, Fixtures.SEED));
+        this.sameImage = Base64.encodeBase64(Fixtures.domainExport(DOMAIN_NAME, this.objects, Fixtures.SEED));
+        this.changedImage = Base64.encodeBase64(Fixtures.domainExport(DOMAIN_NAME, this.objects, Fixtures.SEED + 1));
+    }
+
+    @Benchmark
+    public DomainDifferences compareSame() throws AMPException {
+        return(DomainDiffEngine.compare(this.image, this.sameImage));
+    }
+
+    @Benchmark
+    public DomainDifferences compareChanged() throws AMPException {
+        return(DomainDiffEngine.compare(this.image, this.changedImage));
+    }
+}
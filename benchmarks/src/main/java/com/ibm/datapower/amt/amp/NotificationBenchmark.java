@@ -0,0 +1,68 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.amp;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibm.datapower.amt.benchmarks.Fixtures;
+
+/**
+ * Parse the CBE notifications the NotificationCatcher receives, one message
+ * per operation, cycling through a fixed set of messages from several
+ * devices.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NotificationBenchmark {
+
+    private String[] messages = null;
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        this.messages = Fixtures.notifications(256, 16, Fixtures.SEED);
+    }
+
+    @Benchmark
+    public Notification parse() {
+        String message = this.messages[this.next];
+        this.next = (this.next + 1) % this.messages.length;
+        Notification notification = new Notification(new BufferedReader(new StringReader(message)));
+        if (notification.getDeviceSerialNumber() == null) {
+            throw new IllegalStateException("not parsed: " + message); //$NON-NLS-1$
+        }
+        return(notification);
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.amp;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.ibm.datapower.amt.benchmarks.Fixtures;
+import com.ibm.datapower.amt.clientAPI.Blob;
+
+/**
+ * Read the metadata in the header of a firmware image file, the way the
+ * Manager does when a firmware version is added. The header is at the start
+ * of the file, so the time should not grow with the size of the image.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UtilitiesBenchmark {
+
+    @Param({ "1048576", "67108864" })
+    public int imageSize;
+
+    private File file = null;
+    private Blob image = null;
+
+    @Setup
+    public void setUp() throws IOException {
+        this.file = Fixtures.newFile("firmware", Fixtures.firmwareImage(this.imageSize, Fixtures.SEED)); //$NON-NLS-1$
+        this.image = new Blob(this.file);
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.file.delete();
+    }
+
+    @Benchmark
+    public String getFirmwareLevel() throws IOException, AMPException {
+        return(Utilities.getFirmwareLevel(this.image));
+    }
+
+    /*
+     * Everything Firmware and FirmwareVersion read from a new image.
+     */
+    @Benchmark
+    public void getFirmwareMetadata(Blackhole blackhole) throws IOException, AMPException {
+        blackhole.consume(Utilities.getFirmwareScryptVersion(this.image));
+        blackhole.consume(Utilities.getFirmwareLevel(this.image));
+        blackhole.consume(Utilities.getFirmwareManufactureDate(this.image));
+        blackhole.consume(Utilities.getFirmwareDeviceType(this.image));
+        blackhole.consume(Utilities.getFirmwareModelType(this.image));
+        blackhole.consume(Utilities.getStrictFirmwareFeatures(this.image));
+        blackhole.consume(Utilities.getNonStrictFirmwareFeatures(this.image));
+    }
+}
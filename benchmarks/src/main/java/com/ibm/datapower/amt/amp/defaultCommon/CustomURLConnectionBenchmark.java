@@ -0,0 +1,273 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.amp.defaultCommon;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLServerSocket;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibm.datapower.amt.benchmarks.Fixtures;
+
+/**
+ * Connect to a local HTTPS stub the way the SOAPHelpers connect to a device,
+ * from as many threads as the default heartbeat thread pool, so that every
+ * thread keeps a connect in progress as during a heartbeat sweep of a fleet.
+ * <code>connect</code> goes through {@link CustomURLConnection},
+ * <code>threadPerConnect</code> does what it did before: start a thread for
+ * the connect and poll it every 100 ms. The threads started per connect are
+ * printed after each iteration; the stub serves from threads it started
+ * before the measurement. On Java 8 the HTTPS client itself starts a thread
+ * to announce each completed handshake, so <code>connect</code> starts one
+ * thread per connect and <code>threadPerConnect</code> two. A full handshake
+ * takes most of the CPU a connect uses, so with more threads than processors
+ * the connects queue for the CPU and the 100 ms poll matters less.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(5)
+public class CustomURLConnectionBenchmark {
+
+    private static final String PASSWORD = "password"; //$NON-NLS-1$
+    private static final int LIMIT = 10000;
+    private static final int POLL = 100;
+    private static final int STUB_THREADS = 8;
+
+    private File directory = null;
+    private SSLServerSocket stub = null;
+    private ExecutorService handshakes = null;
+    private Thread acceptor = null;
+    private SSLSocketFactory socketFactory = null;
+    private URL url = null;
+    private final AtomicLong connects = new AtomicLong();
+    private long threadsStarted = 0;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.directory = Fixtures.newDirectory("stub"); //$NON-NLS-1$
+        KeyStore keyStore = KeyStore.getInstance("JKS"); //$NON-NLS-1$
+        InputStream in = new FileInputStream(Fixtures.keyStore(this.directory, PASSWORD));
+        try {
+            keyStore.load(in, PASSWORD.toCharArray());
+        } finally {
+            in.close();
+        }
+        KeyManagerFactory keyManagers = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagers.init(keyStore, PASSWORD.toCharArray());
+        SSLContext server = SSLContext.getInstance("TLS"); //$NON-NLS-1$
+        server.init(keyManagers.getKeyManagers(), null, null);
+        this.stub = (SSLServerSocket) server.getServerSocketFactory().createServerSocket(0, 64,
+                InetAddress.getByName("127.0.0.1")); //$NON-NLS-1$
+
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(STUB_THREADS, STUB_THREADS, 0, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        pool.prestartAllCoreThreads();
+        this.handshakes = pool;
+        this.acceptor = new Thread("stub") { //$NON-NLS-1$
+            public void run() {
+                try {
+                    while (true) {
+                        final Socket socket = stub.accept();
+                        handshakes.execute(new Runnable() {
+                            public void run() {
+                                try {
+                                    socket.setTcpNoDelay(true);
+                                    ((SSLSocket) socket).startHandshake();
+                                    // the client disconnects after the connect
+                                    socket.getInputStream().read();
+                                } catch (IOException e) {
+                                    // the client went away
+                                } finally {
+                                    try {
+                                        socket.close();
+                                    } catch (IOException e) {
+                                        // closed anyway
+                                    }
+                                }
+                            }
+                        });
+                    }
+                } catch (IOException e) {
+                    // closed by tearDown
+                }
+            }
+        };
+        this.acceptor.setDaemon(true);
+        this.acceptor.start();
+
+        // the SOAPHelpers trust the certificate a device presents
+        SSLContext client = SSLContext.getInstance("TLS"); //$NON-NLS-1$
+        client.init(null, new TrustManager[] { new X509TrustManager() {
+            public void checkClientTrusted(X509Certificate[] chain, String authType) {
+                // trusted
+            }
+
+            public void checkServerTrusted(X509Certificate[] chain, String authType) {
+                // trusted
+            }
+
+            public X509Certificate[] getAcceptedIssuers() {
+                return(new X509Certificate[0]);
+            }
+        } }, null);
+        this.socketFactory = client.getSocketFactory();
+        this.url = new URL("https", "127.0.0.1", this.stub.getLocalPort(), "/service/mgmt/amp/3.0"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        this.stub.close();
+        this.acceptor.join();
+        this.handshakes.shutdownNow();
+        Fixtures.delete(this.directory);
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpIteration() {
+        this.connects.set(0);
+        this.threadsStarted = threads().getTotalStartedThreadCount();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDownIteration() {
+        long started = threads().getTotalStartedThreadCount() - this.threadsStarted;
+        System.out.println(this.connects.get() + " connects, " + started + " threads started"); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    @Benchmark
+    public int connect() throws Exception {
+        CustomURLConnection custom = new CustomURLConnection(this.url);
+        custom.setConnectLimit(LIMIT);
+        HttpsURLConnection connection = this.open(custom);
+        try {
+            custom.connect();
+        } finally {
+            connection.disconnect();
+        }
+        this.connects.incrementAndGet();
+        return(custom.getConnectElapsed());
+    }
+
+    /*
+     * What CustomURLConnection.connect did before.
+     */
+    @Benchmark
+    public int threadPerConnect() throws Exception {
+        CustomURLConnection custom = new CustomURLConnection(this.url);
+        final HttpsURLConnection connection = this.open(custom);
+        final IOException[] error = new IOException[1];
+        final boolean[] connected = new boolean[1];
+        Thread thread = new Thread() {
+            public void run() {
+                try {
+                    connection.connect();
+                    synchronized (connected) {
+                        connected[0] = true;
+                    }
+                } catch (IOException e) {
+                    synchronized (connected) {
+                        error[0] = e;
+                    }
+                }
+            }
+        };
+        thread.start();
+        int elapsed = 0;
+        try {
+            while (true) {
+                synchronized (connected) {
+                    if (connected[0]) {
+                        break;
+                    }
+                    if (error[0] != null) {
+                        throw error[0];
+                    }
+                }
+                Thread.sleep(POLL);
+                elapsed += POLL;
+                if (elapsed > LIMIT) {
+                    throw new InterruptedIOException("Connect timeout after " + (elapsed - POLL) + " ms"); //$NON-NLS-1$ //$NON-NLS-2$
+                }
+            }
+        } finally {
+            thread.join();
+            connection.disconnect();
+        }
+        this.connects.incrementAndGet();
+        return(elapsed);
+    }
+
+    private HttpsURLConnection open(CustomURLConnection custom) throws IOException {
+        URLConnection connection = custom.openConnection();
+        HttpsURLConnection https = (HttpsURLConnection) connection;
+        https.setSSLSocketFactory(this.socketFactory);
+        https.setHostnameVerifier(new HostnameVerifier() {
+            public boolean verify(String hostname, SSLSession session) {
+                return(true);
+            }
+        });
+        return(https);
+    }
+
+    private static ThreadMXBean threads() {
+        return(ManagementFactory.getThreadMXBean());
+    }
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.amp.defaultV3Provider;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.xmlbeans.XmlOptions;
+import org.apache.xmlbeans.impl.util.Base64;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+
+import com.ibm.datapower.amt.amp.AMPException;
+import com.ibm.datapower.amt.amp.AMPIOException;
+import com.ibm.datapower.amt.amp.DeviceContext;
+import com.ibm.datapower.amt.amp.InvalidCredentialsException;
+import com.ibm.datapower.amt.amp.SOAPHelper;
+
+/**
+ * A SOAPHelper that answers every AMP 3.0 request of an operation with the
+ * same prepared response, so that a benchmark of the CommandsImpl measures
+ * how the request is written and the response is read, not the network or a
+ * device. The responses are parsed once, when the helper is created or the
+ * domain export is set.
+ */
+public class CannedSOAPHelper implements SOAPHelper {
+
+    static final String NAMESPACE = "http://www.datapower.com/schemas/appliance/management/3.0"; //$NON-NLS-1$
+
+    private final XmlOptions options;
+    private final Map<String, Node> responses = new HashMap<String, Node>();
+
+    public CannedSOAPHelper() throws AMPException {
+        this.options = new XmlOptions();
+        this.options.setSavePrettyPrint();
+        Map<String, String> suggestedPrefixes = new HashMap<String, String>();
+        suggestedPrefixes.put(NAMESPACE, "amp"); //$NON-NLS-1$
+        this.options.setSaveSuggestedPrefixes(suggestedPrefixes);
+
+        this.put("SetDomainExport", "<amp:Status>ok</amp:Status>"); //$NON-NLS-1$ //$NON-NLS-2$
+        this.put("SetFirmware", "<amp:Status>ok</amp:Status>"); //$NON-NLS-1$ //$NON-NLS-2$
+        this.put("GetDomainStatus", "<amp:Domain name=\"domain0\"><amp:AdminState>enabled</amp:AdminState>" //$NON-NLS-1$ //$NON-NLS-2$
+                + "<amp:OpState>up</amp:OpState><amp:ConfigState>saved</amp:ConfigState><amp:DebugState>false</amp:DebugState>" //$NON-NLS-1$
+                + "<amp:CurrentCommand></amp:CurrentCommand><amp:QuiesceState></amp:QuiesceState></amp:Domain>"); //$NON-NLS-1$
+        this.put("GetDeviceInfo", "<amp:DeviceName>device0</amp:DeviceName><amp:DeviceSerialNo>BENCH100000</amp:DeviceSerialNo>" //$NON-NLS-1$ //$NON-NLS-2$
+                + "<amp:DeviceID>7199-XI52-0</amp:DeviceID><amp:DeviceType>XI52</amp:DeviceType>" //$NON-NLS-1$
+                + "<amp:FirmwareVersion>XI52.5.0.0.0</amp:FirmwareVersion><amp:FailureDetected>false</amp:FailureDetected>" //$NON-NLS-1$
+                + "<amp:CurrentAMPVersion>3.0</amp:CurrentAMPVersion><amp:ManagementInterface type=\"web-mgmt\">9090</amp:ManagementInterface>" //$NON-NLS-1$
+                + "<amp:SecureBackup>disabled</amp:SecureBackup><amp:DeviceFeature>MQ</amp:DeviceFeature><amp:DeviceFeature>TAM</amp:DeviceFeature>"); //$NON-NLS-1$
+        this.setDomainExport("domain0", new byte[0]); //$NON-NLS-1$
+    }
+
+    /**
+     * Set the export the GetDomainExport response carries.
+     */
+    public void setDomainExport(String domainName, byte[] export) throws AMPException {
+        try {
+            String encoded = new String(Base64.encode(export), "US-ASCII"); //$NON-NLS-1$
+            this.put("GetDomainExport", "<amp:Config domain=\"" + domainName + "\">" + encoded + "</amp:Config>"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+        } catch (UnsupportedEncodingException e) {
+            throw new AMPException(e);
+        }
+    }
+
+    public XmlOptions getOptions() {
+        return(this.options);
+    }
+
+    public Node call(DeviceContext device, StringBuffer requestDocument)
+            throws AMPIOException, InvalidCredentialsException, AMPException {
+        // the request element is the first one, amp:<operation>Request
+        int start = requestDocument.indexOf("<amp:") + "<amp:".length(); //$NON-NLS-1$ //$NON-NLS-2$
+        int end = requestDocument.indexOf("Request", start); //$NON-NLS-1$
+        String operation = requestDocument.substring(start, end);
+        Node response = this.responses.get(operation);
+        if (response == null) {
+            throw new AMPException("No response for " + operation); //$NON-NLS-1$
+        }
+        return(response);
+    }
+
+    public Node call(DeviceContext device, byte[] header, byte[] footer, InputStream requestDocument)
+            throws AMPIOException, InvalidCredentialsException, AMPException {
+        try {
+            byte[] buffer = new byte[65536];
+            while (requestDocument.read(buffer) >= 0) {
+                // the image is not kept
+            }
+        } catch (IOException e) {
+            throw new AMPIOException(e);
+        }
+        return(this.responses.get("SetFirmware")); //$NON-NLS-1$
+    }
+
+    private void put(String operation, String content) throws AMPException {
+        String xml = "<amp:" + operation + "Response xmlns:amp=\"" + NAMESPACE + "\">" //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                + content + "</amp:" + operation + "Response>"; //$NON-NLS-1$ //$NON-NLS-2$
+        try {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            this.responses.put(operation, factory.newDocumentBuilder().parse(new InputSource(new StringReader(xml))).getDocumentElement());
+        } catch (Exception e) {
+            throw new AMPException(e);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.amp.defaultV3Provider;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.xmlbeans.impl.util.Base64;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibm.datapower.amt.amp.DeviceContext;
+import com.ibm.datapower.amt.amp.DeviceMetaInfo;
+import com.ibm.datapower.amt.amp.DomainStatus;
+import com.ibm.datapower.amt.amp.SOAPHelperFactory;
+import com.ibm.datapower.amt.benchmarks.Fixtures;
+
+/**
+ * Build and write the XMLBeans request documents of the AMP 3.0 CommandsImpl,
+ * and read the responses, with a {@link CannedSOAPHelper} in place of the
+ * network. setDomain and getDomain carry a domain export of the given number
+ * of objects.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommandsImplBenchmark {
+
+    private static final String DOMAIN_NAME = "domain0"; //$NON-NLS-1$
+
+    @Param({"16", "4096"})
+    public int objects;
+
+    private CommandsImpl commands = null;
+    private DeviceContext device = null;
+    private byte[] encodedExport = null;
+
+    @Setup
+    public void setUp() throws Exception {
+        byte[] export = Fixtures.domainExport(DOMAIN_NAME, this.objects, Fixtures.SEED);
+        this.encodedExport = Base64.encode(export);
+        String helperClassName = CannedSOAPHelper.class.getName();
+        CannedSOAPHelper helper = (CannedSOAPHelper) SOAPHelperFactory.getSOAPHelper(helperClassName);
+        helper.setDomainExport(DOMAIN_NAME, export);
+        this.commands = new CommandsImpl(helperClassName);
+        this.device = new DeviceContext("localhost", 5550, "admin", "admin"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    }
+
+    @Benchmark
+    public void setDomain() throws Exception {
+        this.commands.setDomain(this.device, DOMAIN_NAME, this.encodedExport, null);
+    }
+
+    @Benchmark
+    public byte[] getDomain() throws Exception {
+        return(this.commands.getDomain(this.device, DOMAIN_NAME));
+    }
+
+    @Benchmark
+    public DomainStatus getDomainStatus() throws Exception {
+        return(this.commands.getDomainStatus(this.device, DOMAIN_NAME));
+    }
+
+    @Benchmark
+    public DeviceMetaInfo getDeviceMetaInfo() throws Exception {
+        return(this.commands.getDeviceMetaInfo(this.device));
+    }
+}
@@ -0,0 +1,306 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import com.ibm.datapower.amt.Credential;
+import com.ibm.datapower.amt.DMgrException;
+import com.ibm.datapower.amt.clientAPI.Manager;
+
+/**
+ * The synthetic inputs of the benchmarks. Every fixture is built from a seed,
+ * so the same parameters give the same bytes on every run and every machine,
+ * and nothing is read from a device or from the network.
+ */
+public final class Fixtures {
+
+    /** The seed the benchmarks use unless they measure several inputs. */
+    public static final long SEED = 20140101L;
+
+    /** AMP event codes, as in the msgId of a notification. */
+    public static final String EVENT_CONFIG_MODIFIED = "0x8100003f"; //$NON-NLS-1$
+    public static final String EVENT_CONFIG_SAVED = "0x81000040"; //$NON-NLS-1$
+    public static final String EVENT_OP_STATE_DOWN = "0x8100006a"; //$NON-NLS-1$
+    public static final String EVENT_OP_STATE_UP = "0x8100006b"; //$NON-NLS-1$
+    public static final String EVENT_FIRMWARE_CHANGE = "0x8100006c"; //$NON-NLS-1$
+
+    private static final String[] EVENTS = new String[] {
+        EVENT_CONFIG_MODIFIED, EVENT_CONFIG_SAVED, EVENT_OP_STATE_DOWN, EVENT_OP_STATE_UP, EVENT_FIRMWARE_CHANGE };
+
+    private static final String[] LIBRARIES = new String[] {
+        "MQ", "TAM", "DataGlue", "JAXP-API", "PKCS7-SMIME", "HSM", "XG4", "Compact-Flash", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$
+        "iSCSI", "RaidVolume", "LocateLED", "AppOpt", "WebSphere-JMS", "Tibco-EMS", "ODBC", "SQL-Oracle" }; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$
+
+    private Fixtures() {
+        // static methods only
+    }
+
+    /**
+     * @return the serial number of device <code>index</code> of a fleet
+     */
+    public static String serialNumber(int index) {
+        return("BENCH" + (100000 + index)); //$NON-NLS-1$
+    }
+
+    /**
+     * A CBE notification in the SOAP envelope an appliance posts to the
+     * NotificationCatcher.
+     *
+     * @param serialNumber the serial number of the device that sends it
+     * @param sequenceNumber the sequence number of the subscription
+     * @param eventCode the msgId, one of the EVENT constants
+     * @param domainName the object the event is about
+     * @return the message
+     */
+    public static String notification(String serialNumber, int sequenceNumber, String eventCode, String domainName) {
+        StringBuilder event = new StringBuilder(1024);
+        event.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"); //$NON-NLS-1$
+        event.append("<env:Envelope xmlns:env=\"http://schemas.xmlsoap.org/soap/envelope/\">\n<env:Body>\n"); //$NON-NLS-1$
+        event.append("<CommonBaseEvent creationTime=\"2014-01-01T00:00:00Z\" sequenceNumber=\"").append(sequenceNumber); //$NON-NLS-1$
+        event.append("\" version=\"1.0.1\" globalInstanceId=\"").append(serialNumber).append('-').append(sequenceNumber).append("\">\n"); //$NON-NLS-1$ //$NON-NLS-2$
+        event.append("<extendedDataElements name=\"ClientIP\" type=\"string\"><values>192.0.2.10</values></extendedDataElements>\n"); //$NON-NLS-1$
+        event.append("<extendedDataElements name=\"User\" type=\"string\"><values>admin</values></extendedDataElements>\n"); //$NON-NLS-1$
+        event.append("<sourceComponentId component=\"DataPower\" componentIdType=\"ProductName\" location=\"").append(serialNumber); //$NON-NLS-1$
+        event.append("\" locationType=\"SNA\" subComponent=\"").append(domainName).append("\" componentType=\"Domain\"/>\n"); //$NON-NLS-1$ //$NON-NLS-2$
+        event.append("<situation categoryName=\"ReportSituation\"><situationType reasoningScope=\"EXTERNAL\" reportCategory=\"STATUS\"/></situation>\n"); //$NON-NLS-1$
+        event.append("<msgDataElement msgLocale=\"en-US\"><msgCatalogId>").append(eventCode).append("</msgCatalogId><msgId>"); //$NON-NLS-1$ //$NON-NLS-2$
+        event.append(eventCode).append("</msgId><msgIdType>Unknown</msgIdType></msgDataElement>\n"); //$NON-NLS-1$
+        event.append("</CommonBaseEvent>\n</env:Body>\n</env:Envelope>\n"); //$NON-NLS-1$
+        return(event.toString());
+    }
+
+    /**
+     * @return <code>count</code> notifications from <code>devices</code>
+     *         devices, each device numbering its own from 1, with the event
+     *         codes drawn from the seed
+     */
+    public static String[] notifications(int count, int devices, long seed) {
+        Random random = new Random(seed);
+        int[] sequenceNumbers = new int[devices];
+        String[] result = new String[count];
+        for (int i = 0; i < count; i++) {
+            int device = i % devices;
+            result[i] = notification(serialNumber(device), ++sequenceNumbers[device],
+                    EVENTS[random.nextInt(EVENTS.length)], "domain" + random.nextInt(8)); //$NON-NLS-1$
+        }
+        return(result);
+    }
+
+    /**
+     * A domain export in the format an appliance produces, not encoded.
+     *
+     * @param domainName the domain of the export
+     * @param objects the number of configuration objects
+     * @param seed selects the settings of the objects
+     * @return the export
+     */
+    public static byte[] domainExport(String domainName, int objects, long seed) {
+        Random random = new Random(seed ^ domainName.hashCode());
+        StringBuilder config = new StringBuilder(objects * 400);
+        config.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"); //$NON-NLS-1$
+        config.append("<datapower-configuration version=\"3\">\n"); //$NON-NLS-1$
+        config.append("  <export-details><description>Benchmark export</description><domain>"); //$NON-NLS-1$
+        config.append(domainName).append("</domain></export-details>\n"); //$NON-NLS-1$
+        config.append("  <configuration domain=\"").append(domainName).append("\">\n"); //$NON-NLS-1$ //$NON-NLS-2$
+        for (int i = 0; i < objects; i++) {
+            config.append("    <XMLFirewallService name=\"fw").append(i).append("\">\n"); //$NON-NLS-1$ //$NON-NLS-2$
+            config.append("      <mAdminState>enabled</mAdminState>\n"); //$NON-NLS-1$
+            config.append("      <LocalAddress>0.0.0.0</LocalAddress>\n"); //$NON-NLS-1$
+            config.append("      <LocalPort>").append(2000 + random.nextInt(6000)).append("</LocalPort>\n"); //$NON-NLS-1$ //$NON-NLS-2$
+            config.append("      <RequestType>").append(random.nextBoolean() ? "soap" : "xml").append("</RequestType>\n"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+            config.append("      <StylePolicy class=\"StylePolicy\">policy").append(random.nextInt(objects)).append("</StylePolicy>\n"); //$NON-NLS-1$ //$NON-NLS-2$
+            config.append("      <UserSummary>").append(Long.toHexString(random.nextLong())).append("</UserSummary>\n"); //$NON-NLS-1$ //$NON-NLS-2$
+            config.append("    </XMLFirewallService>\n"); //$NON-NLS-1$
+        }
+        config.append("  </configuration>\n  <files/>\n</datapower-configuration>\n"); //$NON-NLS-1$
+        return(bytes(config.toString()));
+    }
+
+    /**
+     * A firmware image with the scrypt2 header that
+     * {@link com.ibm.datapower.amt.amp.Utilities} reads, followed by random
+     * bytes up to <code>size</code>.
+     *
+     * @param size the size of the image in bytes
+     * @param seed selects the features and the body
+     * @return the image
+     */
+    public static byte[] firmwareImage(int size, long seed) {
+        Random random = new Random(seed);
+        StringBuilder header = new StringBuilder();
+        header.append("<scrypt2>\n<version>2.0</version>\n"); //$NON-NLS-1$
+        header.append("<firmwareRev>XI52.5.0.0.").append(random.nextInt(10)).append("</firmwareRev>\n"); //$NON-NLS-1$ //$NON-NLS-2$
+        header.append("<buildDate>2012/06/01 10:00:00</buildDate>\n"); //$NON-NLS-1$
+        header.append("<product>XI52:9005:"); //$NON-NLS-1$
+        appendFeatures(header, random, 4);
+        header.append(':');
+        appendFeatures(header, random, 6);
+        header.append("</product>\n</scrypt2>\n-----BEGIN SCRYPT2 BODY-----\n"); //$NON-NLS-1$
+        byte[] headerBytes = bytes(header.toString());
+        byte[] image = new byte[Math.max(size, headerBytes.length)];
+        System.arraycopy(headerBytes, 0, image, 0, headerBytes.length);
+        byte[] body = new byte[image.length - headerBytes.length];
+        random.nextBytes(body);
+        System.arraycopy(body, 0, image, headerBytes.length, body.length);
+        return(image);
+    }
+
+    /**
+     * @return <code>count</code> distinct license names in an order drawn
+     *         from the seed
+     */
+    public static String[] features(int count, long seed) {
+        Random random = new Random(seed);
+        String[] features = new String[count];
+        for (int i = 0; i < count; i++) {
+            features[i] = LIBRARIES[i % LIBRARIES.length] + ((i < LIBRARIES.length) ? "" : "-" + (i / LIBRARIES.length)); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        for (int i = count - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            String swap = features[i];
+            features[i] = features[j];
+            features[j] = swap;
+        }
+        return(features);
+    }
+
+    /**
+     * The options of a Manager for a benchmark: a repository in the
+     * directory, a NotificationCatcher without SSL on a free port, and no
+     * heartbeats, so that nothing but the benchmark calls the devices.
+     *
+     * @param repositoryDirectory the directory of the repository
+     * @return the options, which the caller may add to
+     */
+    public static Map<String, Object> managerOptions(File repositoryDirectory) {
+        Credential credential = new Credential();
+        credential.setProperty("RepositoryDirectory", repositoryDirectory.getPath()); //$NON-NLS-1$
+        Map<String, Object> options = new HashMap<String, Object>();
+        options.put(Manager.OPTION_CREDENTIAL, credential);
+        options.put(Manager.OPTION_NOTIFICATION_CATCHER_NO_SSL, "true"); //$NON-NLS-1$
+        options.put(Manager.OPTION_NOTIFICATION_CATCHER_PORT, "0"); //$NON-NLS-1$
+        options.put(Manager.OPTION_DEBUG_DISABLE_HEARTBEAT, Boolean.TRUE);
+        return(options);
+    }
+
+    /**
+     * @return a Manager started with {@link #managerOptions(File)}, which the
+     *         caller shuts down
+     */
+    public static Manager startManager(File repositoryDirectory) throws DMgrException {
+        return(Manager.getInstance(managerOptions(repositoryDirectory)));
+    }
+
+    /**
+     * @return a new empty directory under java.io.tmpdir, deleted when the
+     *         JVM exits if it is empty by then
+     */
+    public static File newDirectory(String prefix) throws IOException {
+        File directory = File.createTempFile(prefix, ""); //$NON-NLS-1$
+        if (!directory.delete() || !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory); //$NON-NLS-1$
+        }
+        directory.deleteOnExit();
+        return(directory);
+    }
+
+    /**
+     * @return a new file with the contents, deleted when the JVM exits
+     */
+    public static File newFile(String prefix, byte[] contents) throws IOException {
+        File file = File.createTempFile(prefix, ".bin"); //$NON-NLS-1$
+        file.deleteOnExit();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(contents);
+        } finally {
+            out.close();
+        }
+        return(file);
+    }
+
+    /**
+     * A JKS key store with a self-signed RSA key for 127.0.0.1, made by the
+     * keytool of the running JVM, for stub servers that speak SSL.
+     *
+     * @param directory where the key store is written
+     * @param password of the store and of the key
+     * @return the key store
+     */
+    public static File keyStore(File directory, String password) throws IOException, InterruptedException {
+        File keyStore = new File(directory, "stub.jks"); //$NON-NLS-1$
+        File keytool = new File(new File(System.getProperty("java.home"), "bin"), "keytool"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        Process process = new ProcessBuilder(keytool.getPath(), "-genkeypair", "-alias", "stub", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                "-keyalg", "RSA", "-keysize", "2048", "-validity", "3650", "-dname", "CN=127.0.0.1", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$
+                "-storetype", "JKS", "-keystore", keyStore.getPath(), "-storepass", password, "-keypass", password) //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+                .redirectErrorStream(true).start();
+        InputStream output = process.getInputStream();
+        try {
+            while (output.read() != -1) {
+                // drained so that keytool cannot block on a full pipe
+            }
+        } finally {
+            output.close();
+        }
+        if (process.waitFor() != 0) {
+            throw new IOException("keytool failed with exit code " + process.exitValue()); //$NON-NLS-1$
+        }
+        return(keyStore);
+    }
+
+    /**
+     * Delete a directory made by {@link #newDirectory(String)} and what is in
+     * it.
+     */
+    public static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    private static void appendFeatures(StringBuilder header, Random random, int count) {
+        String[] features = features(count, random.nextLong());
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                header.append(',');
+            }
+            header.append(features[i]).append("=\"").append(1 + random.nextInt(3)).append(".0\""); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+    }
+
+    private static byte[] bytes(String text) {
+        try {
+            return(text.getBytes("UTF-8")); //$NON-NLS-1$
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.clientAPI;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibm.datapower.amt.benchmarks.Fixtures;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Read and encode the contents of a Blob backed by each kind of source, at
+ * the size of a domain export and of a firmware image. A url Blob reads from
+ * an HTTP server on the loopback interface, in this JVM.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx1g")
+public class BlobBenchmark {
+
+    @Param({ "1048576", "33554432" })
+    public int size;
+
+    @Param({ "bytes", "file", "url" })
+    public String source;
+
+    private File file = null;
+    private HttpServer server = null;
+    private ExecutorService executor = null;
+    private Blob blob = null;
+
+    @Setup
+    public void setUp() throws IOException {
+        final byte[] contents = Fixtures.firmwareImage(this.size, Fixtures.SEED);
+        if (this.source.equals("bytes")) { //$NON-NLS-1$
+            this.blob = new Blob(contents);
+        } else if (this.source.equals("file")) { //$NON-NLS-1$
+            this.file = Fixtures.newFile("blob", contents); //$NON-NLS-1$
+            this.blob = new Blob(this.file);
+        } else {
+            // Blob only reads http URLs
+            this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+            this.server.createContext("/image.scrypt2", new HttpHandler() { //$NON-NLS-1$
+                public void handle(HttpExchange exchange) throws IOException {
+                    exchange.sendResponseHeaders(200, contents.length);
+                    OutputStream out = exchange.getResponseBody();
+                    try {
+                        out.write(contents);
+                    } finally {
+                        out.close();
+                    }
+                }
+            });
+            // a connection left open by an earlier read must not hold up the next
+            this.executor = Executors.newCachedThreadPool();
+            this.server.setExecutor(this.executor);
+            this.server.start();
+            this.blob = new Blob(new URL("http", "127.0.0.1", this.server.getAddress().getPort(), "/image.scrypt2")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (this.file != null) {
+            this.file.delete();
+        }
+        if (this.server != null) {
+            this.server.stop(0);
+            this.executor.shutdown();
+        }
+    }
+
+    @Benchmark
+    public byte[] getByteArray() throws IOException {
+        return(this.blob.getByteArray());
+    }
+
+    @Benchmark
+    public byte[] getBase64Encoded() throws IOException {
+        return(this.blob.getBase64Encoded().getByteArray());
+    }
+}
@@ -0,0 +1,199 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.clientAPI;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibm.datapower.amt.Credential;
+import com.ibm.datapower.amt.DeviceType;
+import com.ibm.datapower.amt.ModelType;
+import com.ibm.datapower.amt.StringCollection;
+import com.ibm.datapower.amt.amp.AMPConstants;
+import com.ibm.datapower.amt.benchmarks.Fixtures;
+import com.ibm.datapower.amt.dataAPI.Repository;
+import com.ibm.datapower.amt.dataAPI.RepositoryFactory;
+import com.ibm.datapower.amt.dataAPI.StoredDevice;
+import com.ibm.datapower.amt.dataAPI.StoredManagedSet;
+import com.ibm.datapower.amt.dataAPI.local.filesystem.RepositoryImpl;
+
+/**
+ * Answer device queries over a fleet of devices of several types, models,
+ * feature licenses and ManagedSet memberships, through the
+ * {@link DeviceIndex} and through the scan of every Device that
+ * {@link Manager#getUnmanagedDevices(DeviceType, ModelType, StringCollection)}
+ * made before it. The fleet is written to a repository that the Manager
+ * loads; the devices point at a closed port on the loopback interface, so
+ * nothing answers them. The Manager's AMP providers need javax.xml.soap, so
+ * run this one on a Java 8 runtime.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeviceQueryBenchmark {
+
+    private static final int DEVICES_PER_SET = 10;
+    private static final int QUERIES = 256;
+
+    private static final String[][] MODELS = {
+        { "XI50", "9001" }, { "XI50", "9002" }, { "XS40", "9003" }, //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+        { "XI52", "7199" }, { "XB62", "7199" }, { "XG45", "7198" }, //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+    };
+
+    @Param({ "200", "5000" })
+    public int devices;
+
+    private File directory = null;
+    private Manager manager = null;
+    private DeviceType[] deviceTypes = new DeviceType[QUERIES];
+    private ModelType[] modelTypes = new ModelType[QUERIES];
+    private StringCollection[] features = new StringCollection[QUERIES];
+    private int next = 0;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.directory = Fixtures.newDirectory("fleet"); //$NON-NLS-1$
+        Credential credential = new Credential();
+        credential.setProperty("RepositoryDirectory", this.directory.getPath()); //$NON-NLS-1$
+        ServerSocket closed = new ServerSocket(0);
+        int port = closed.getLocalPort();
+        closed.close();
+
+        Random random = new Random(Fixtures.SEED);
+        String[] licenses = Fixtures.features(6, Fixtures.SEED);
+        Repository repository = RepositoryFactory.getRepository(RepositoryImpl.class.getName(), credential);
+        repository.startup();
+        StoredManagedSet managedSet = null;
+        for (int i = 0; i < this.devices; i++) {
+            String[] model = MODELS[i % MODELS.length];
+            StoredDevice device = repository.createDevice(model[1] + "-" + model[0] + "-" + i, //$NON-NLS-1$ //$NON-NLS-2$
+                    Fixtures.serialNumber(i), "device" + i, DeviceType.fromString(model[0]), //$NON-NLS-1$
+                    ModelType.fromString(model[1]), "127.0.0.1", "admin", "password", port, 9090, //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                    AMPConstants.AMP_V3_0);
+            device.setFeatureLicenses(randomFeatures(random, licenses));
+            // every third device is managed
+            if ((i % 3) == 0) {
+                if (((i / 3) % DEVICES_PER_SET) == 0) {
+                    managedSet = repository.createManagedSet("set" + (i / 3 / DEVICES_PER_SET)); //$NON-NLS-1$
+                }
+                managedSet.add(device);
+            }
+        }
+        repository.save(true);
+        repository.shutdown();
+
+        Map<String, Object> options = Fixtures.managerOptions(this.directory);
+        options.put(Manager.OPTION_COLLECT_DAEMON_PROGRESSES, Boolean.TRUE);
+        this.manager = Manager.getInstance(options);
+        // the managed devices are subscribed in the background after the load,
+        // let that fail for every device before measuring
+        Queue progresses = this.manager.getNotificationProgresses();
+        while (!progresses.isEmpty()) {
+            ((MacroProgressContainer) progresses.removeWait()).waitForEnd();
+        }
+        if (this.manager.getAllDevices().length != this.devices) {
+            throw new IllegalStateException("loaded " + this.manager.getAllDevices().length + " devices"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+
+        for (int i = 0; i < QUERIES; i++) {
+            String[] model = MODELS[random.nextInt(MODELS.length)];
+            this.deviceTypes[i] = random.nextInt(4) == 0 ? null : DeviceType.fromString(model[0]);
+            this.modelTypes[i] = random.nextInt(4) == 0 ? null : ModelType.fromString(model[1]);
+            this.features[i] = random.nextInt(4) == 0 ? null : randomFeatures(random, licenses);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.manager.shutdown();
+        Fixtures.delete(this.directory);
+    }
+
+    @Benchmark
+    public Device[] indexUnmanaged() throws Exception {
+        int i = this.advance();
+        return(this.manager.getUnmanagedDevices(this.deviceTypes[i], this.modelTypes[i], this.features[i]));
+    }
+
+    @Benchmark
+    public Device[] indexAll() {
+        int i = this.advance();
+        return(this.manager.getDevices(this.deviceTypes[i], this.modelTypes[i], this.features[i]));
+    }
+
+    /*
+     * What getUnmanagedDevices did before the index.
+     */
+    @Benchmark
+    public Device[] scanUnmanaged() throws Exception {
+        int i = this.advance();
+        List<Device> result = new ArrayList<Device>();
+        for (Device device : this.manager.getAllDevices()) {
+            if ((device.getManagedSet() == null) &&
+                    ((this.deviceTypes[i] == null) || device.getDeviceType().isCompatibleWith(this.deviceTypes[i])) &&
+                    ((this.modelTypes[i] == null) || device.getModelType().isCompatibleWith(this.modelTypes[i])) &&
+                    ((this.features[i] == null) || device.getFeatureLicenses().equals(this.features[i]))) {
+                result.add(device);
+            }
+        }
+        return(result.toArray(new Device[result.size()]));
+    }
+
+    @Benchmark
+    public Device[] indexSerialNumber() throws Exception {
+        int i = this.advance();
+        return(this.manager.getDevicesBySerialNumber(Fixtures.serialNumber(i % this.devices)));
+    }
+
+    private int advance() {
+        int i = this.next;
+        this.next = (i + 1) % QUERIES;
+        return(i);
+    }
+
+    private static StringCollection randomFeatures(Random random, String[] licenses) {
+        StringCollection result = new StringCollection();
+        for (int i = 0; i < 3; i++) {
+            if (random.nextBoolean()) {
+                result.add(licenses[i]);
+            }
+        }
+        return(result);
+    }
+}
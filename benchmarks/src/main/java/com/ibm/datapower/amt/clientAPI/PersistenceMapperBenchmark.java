@@ -0,0 +1,123 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.clientAPI;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibm.datapower.amt.benchmarks.Fixtures;
+import com.ibm.datapower.amt.dataAPI.StoredManagedSet;
+
+/**
+ * Look objects up in the {@link PersistenceMapper} from 64 threads, alone and
+ * while one more thread removes and adds entries, as the heartbeat, queue
+ * and user threads do. The entries are ManagedSets of a running Manager with
+ * an empty repository.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PersistenceMapperBenchmark {
+
+    private static final int STABLE = 256;
+    private static final int CHURNED = 16;
+
+    @State(Scope.Benchmark)
+    public static class Mapped {
+        File directory = null;
+        Manager manager = null;
+        PersistenceMapper mapper = null;
+        ManagedSet[] stableSets = new ManagedSet[STABLE];
+        StoredManagedSet[] stableKeys = new StoredManagedSet[STABLE];
+        ManagedSet[] churnedSets = new ManagedSet[CHURNED];
+        StoredManagedSet[] churnedKeys = new StoredManagedSet[CHURNED];
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            this.directory = Fixtures.newDirectory("mapper"); //$NON-NLS-1$
+            this.manager = Fixtures.startManager(this.directory);
+            this.mapper = PersistenceMapper.getInstance();
+            for (int i = 0; i < STABLE; i++) {
+                this.stableSets[i] = new ManagedSet("stable" + i); //$NON-NLS-1$
+                this.stableKeys[i] = this.stableSets[i].getStoredInstance();
+            }
+            for (int i = 0; i < CHURNED; i++) {
+                this.churnedSets[i] = new ManagedSet("churned" + i); //$NON-NLS-1$
+                this.churnedKeys[i] = this.churnedSets[i].getStoredInstance();
+            }
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            this.manager.shutdown();
+            Fixtures.delete(this.directory);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Cursor {
+        int next = 0;
+    }
+
+    @Benchmark
+    @Group("readOnly")
+    @GroupThreads(64)
+    public ManagedSet read(Mapped mapped, Cursor cursor) throws DeletedException {
+        return(lookUp(mapped, cursor));
+    }
+
+    @Benchmark
+    @Group("readWhileChurning")
+    @GroupThreads(63)
+    public ManagedSet readChurned(Mapped mapped, Cursor cursor) throws DeletedException {
+        return(lookUp(mapped, cursor));
+    }
+
+    @Benchmark
+    @Group("readWhileChurning")
+    @GroupThreads(1)
+    public void churn(Mapped mapped, Cursor cursor) {
+        int index = cursor.next;
+        cursor.next = (index + 1) % CHURNED;
+        mapped.mapper.remove(mapped.churnedKeys[index]);
+        mapped.mapper.add(mapped.churnedKeys[index], mapped.churnedSets[index]);
+    }
+
+    private static ManagedSet lookUp(Mapped mapped, Cursor cursor) throws DeletedException {
+        int index = cursor.next;
+        cursor.next = (index + 1) % STABLE;
+        return(mapped.mapper.getVia(mapped.stableKeys[index]));
+    }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.clientAPI;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibm.datapower.amt.amp.Notification;
+import com.ibm.datapower.amt.benchmarks.Fixtures;
+
+/**
+ * Put a burst of notifications from a fleet into the notification queues and
+ * take them out again, the way WorkArea and QueueProcessor use them. Within a
+ * device a few neighbouring notifications arrive swapped, which the queues
+ * put back in order. Everything has arrived before the queues are drained,
+ * so the reordering window never has to expire. The time is per
+ * notification.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class QueueCollectionBenchmark {
+
+    private static final int NOTIFICATIONS = 4096;
+
+    @Param({ "1", "64", "512" })
+    public int devices;
+
+    private Notification[] arrivals = null;
+
+    @SuppressWarnings("deprecation")
+    @Setup
+    public void setUp() {
+        Random random = new Random(Fixtures.SEED);
+        int[] sequenceNumbers = new int[this.devices];
+        this.arrivals = new Notification[NOTIFICATIONS];
+        for (int i = 0; i < NOTIFICATIONS; i++) {
+            int device = random.nextInt(this.devices);
+            this.arrivals[i] = new Notification(Fixtures.serialNumber(device), ++sequenceNumbers[device],
+                    "Domain", "domain" + (i % 8), "2014-01-01T00:00:00Z", "192.0.2.10", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+                    Fixtures.EVENT_CONFIG_MODIFIED);
+        }
+        // swap about one in ten with the next one from the same device
+        for (int i = 0; i < NOTIFICATIONS; i++) {
+            if (random.nextInt(10) == 0) {
+                for (int j = i + 1; j < NOTIFICATIONS; j++) {
+                    if (this.arrivals[j].getDeviceSerialNumber().equals(this.arrivals[i].getDeviceSerialNumber())) {
+                        Notification swap = this.arrivals[i];
+                        this.arrivals[i] = this.arrivals[j];
+                        this.arrivals[j] = swap;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NOTIFICATIONS)
+    public int addAndDrain() {
+        QueueCollection queues = new QueueCollection();
+        for (Notification notification : this.arrivals) {
+            queues.add(notification.getSequenceNumber(), notification, notification.getDeviceSerialNumber());
+        }
+        int drained = 0;
+        ReorderableQueue.SequencedObject item;
+        while ((item = queues.removeQuick()) != null) {
+            QueueCollection.finished(item);
+            drained++;
+        }
+        if (drained != NOTIFICATIONS) {
+            throw new IllegalStateException("drained " + drained + " of " + NOTIFICATIONS); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        return(drained);
+    }
+
+    /*
+     * One device queue, added to and drained in turn, as when the Manager
+     * keeps up with a single device.
+     */
+    @Benchmark
+    @OperationsPerInvocation(NOTIFICATIONS)
+    public int addAndRemoveInTurn() {
+        ReorderableQueue queue = new ReorderableQueue(Fixtures.serialNumber(0));
+        int removed = 0;
+        for (int i = 1; i <= NOTIFICATIONS; i++) {
+            queue.add(i, this.arrivals[i - 1]);
+            if (queue.removeIfReady() != null) {
+                removed++;
+            }
+        }
+        return(removed);
+    }
+}
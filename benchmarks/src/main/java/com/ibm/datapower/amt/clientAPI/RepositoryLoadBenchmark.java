@@ -0,0 +1,190 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.clientAPI;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.ServerSocket;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibm.datapower.amt.Credential;
+import com.ibm.datapower.amt.DeviceType;
+import com.ibm.datapower.amt.ModelType;
+import com.ibm.datapower.amt.StringCollection;
+import com.ibm.datapower.amt.amp.AMPConstants;
+import com.ibm.datapower.amt.benchmarks.Fixtures;
+import com.ibm.datapower.amt.dataAPI.StoredDeploymentPolicy;
+import com.ibm.datapower.amt.dataAPI.StoredDevice;
+import com.ibm.datapower.amt.dataAPI.StoredDomain;
+import com.ibm.datapower.amt.dataAPI.StoredManagedSet;
+import com.ibm.datapower.amt.dataAPI.local.filesystem.RepositoryImpl;
+
+/**
+ * Start on a repository with long version histories: 40 managed devices with
+ * two domains each, tens of thousands of DomainVersions in all, one whole
+ * load per operation. <code>repositoryLoad</code> only reads the repository
+ * file, <code>managerStartup</code> starts a Manager on it, which creates the
+ * Devices and Domains but leaves the versions until they are used. The peak
+ * heap of each iteration is printed after it, with the heap still in use
+ * after a full collection while the result is loaded. The setup saves the
+ * whole repository at once, so the fork cannot run in a small heap the way
+ * ExportImportBenchmark does. The devices point at a closed port on the
+ * loopback interface and the Manager's AMP providers need javax.xml.soap, so
+ * run this one on a Java 8 runtime.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class RepositoryLoadBenchmark {
+
+    private static final int DEVICES = 40;
+    private static final int DEVICES_PER_SET = 10;
+    private static final int DOMAINS_PER_DEVICE = 2;
+    private static final int POLICY_VERSIONS = 5;
+
+    @Param({ "80000" })
+    public int versions;
+
+    private File directory = null;
+    private Credential credential = null;
+    private Manager manager = null;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.directory = Fixtures.newDirectory("history"); //$NON-NLS-1$
+        this.credential = new Credential();
+        this.credential.setProperty("RepositoryDirectory", this.directory.getPath()); //$NON-NLS-1$
+        ServerSocket closed = new ServerSocket(0);
+        int port = closed.getLocalPort();
+        closed.close();
+
+        int perDomain = this.versions / (DEVICES * DOMAINS_PER_DEVICE);
+        RepositoryImpl repository = RepositoryImpl.getInstance(this.credential);
+        repository.startup();
+        // nothing is trimmed at startup
+        repository.setMaxVersionsToStore(perDomain);
+        byte[] image = Fixtures.domainExport("domain", 2, Fixtures.SEED); //$NON-NLS-1$
+        StoredManagedSet managedSet = null;
+        for (int i = 0; i < DEVICES; i++) {
+            if ((i % DEVICES_PER_SET) == 0) {
+                managedSet = repository.createManagedSet("set" + (i / DEVICES_PER_SET)); //$NON-NLS-1$
+            }
+            StoredDevice device = repository.createDevice("7199-XI52-" + i, Fixtures.serialNumber(i), //$NON-NLS-1$
+                    "device" + i, DeviceType.fromString("XI52"), ModelType.fromString("7199"), "127.0.0.1", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+                    "admin", "password", port, 9090, AMPConstants.AMP_V3_0); //$NON-NLS-1$ //$NON-NLS-2$
+            device.setFeatureLicenses(StringCollection.EMPTY);
+            managedSet.add(device);
+            for (int d = 0; d < DOMAINS_PER_DEVICE; d++) {
+                StoredDomain domain = repository.createDomain(device, "domain" + d); //$NON-NLS-1$
+                StoredDeploymentPolicy policy = repository.createDeploymentPolicy(domain, null, null, null,
+                        DeploymentPolicyType.NONE);
+                for (int v = 0; v < perDomain; v++) {
+                    repository.createDomainVersion(domain, new Blob(image), "version " + v, //$NON-NLS-1$
+                            new Date(1388534400000L + v * 60000L));
+                }
+                for (int v = 0; v < POLICY_VERSIONS; v++) {
+                    repository.createDeploymentPolicyVersion(policy, new Blob(image), "policy " + v, //$NON-NLS-1$
+                            new Date(1388534400000L + v * 60000L));
+                }
+            }
+        }
+        repository.save(true);
+        repository.shutdown();
+    }
+
+    @TearDown
+    public void tearDown() {
+        Fixtures.delete(this.directory);
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpIteration() {
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDownIteration() throws Exception {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        // what the loaded repository or Manager keeps, without the garbage of loading it
+        System.gc();
+        long retained = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                retained += pool.getUsage().getUsed();
+            }
+        }
+        System.out.println("peak heap " + (peak >> 20) + "MB, retained " + (retained >> 20) + "MB"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        if (this.manager != null) {
+            // let the background subscriptions fail before the next start
+            Queue progresses = this.manager.getNotificationProgresses();
+            while (!progresses.isEmpty()) {
+                ((MacroProgressContainer) progresses.removeWait()).waitForEnd();
+            }
+            this.manager.shutdown();
+            this.manager = null;
+        } else {
+            RepositoryImpl.getInstance(this.credential).shutdown();
+        }
+    }
+
+    @Benchmark
+    public int repositoryLoad() throws Exception {
+        RepositoryImpl repository = RepositoryImpl.getInstance(this.credential);
+        repository.startup();
+        return(repository.getDevices().length);
+    }
+
+    @Benchmark
+    public int managerStartup() throws Exception {
+        Map<String, Object> options = Fixtures.managerOptions(this.directory);
+        options.put(Manager.OPTION_COLLECT_DAEMON_PROGRESSES, Boolean.TRUE);
+        this.manager = Manager.getInstance(options);
+        return(this.manager.getAllDevices().length);
+    }
+}
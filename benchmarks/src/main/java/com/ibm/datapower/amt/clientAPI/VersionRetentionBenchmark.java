@@ -0,0 +1,137 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.clientAPI;
+
+import java.io.File;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibm.datapower.amt.Credential;
+import com.ibm.datapower.amt.DeviceType;
+import com.ibm.datapower.amt.ModelType;
+import com.ibm.datapower.amt.StringCollection;
+import com.ibm.datapower.amt.amp.AMPConstants;
+import com.ibm.datapower.amt.benchmarks.Fixtures;
+import com.ibm.datapower.amt.dataAPI.StoredDevice;
+import com.ibm.datapower.amt.dataAPI.StoredDomain;
+import com.ibm.datapower.amt.dataAPI.StoredVersion;
+import com.ibm.datapower.amt.dataAPI.local.filesystem.RepositoryImpl;
+
+/**
+ * Find the versions to trim from a domain history that has grown past the
+ * limit, as trimExcessVersions does before it removes them, with every other
+ * version number missing where earlier trims or removals left gaps.
+ * <code>excess</code> orders the history once through
+ * {@link VersionRetention}, <code>probe</code> does what trimExcessVersions
+ * did before: look up each number from 1 up, where each lookup copied and
+ * scanned the whole history. Neither removes anything or saves the
+ * repository, which the old loop also did once per removed version.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VersionRetentionBenchmark {
+
+    private static final int ALLOWED = 30;
+
+    // finds the versions without removing them
+    private static final VersionRetention.Trimmer FIND_ONLY = new VersionRetention.Trimmer() {
+        public boolean trim(StoredVersion version) {
+            return(true);
+        }
+    };
+
+    @Param({ "200", "2000" })
+    public int versions;
+
+    private File directory = null;
+    private RepositoryImpl repository = null;
+    private StoredDomain domain = null;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.directory = Fixtures.newDirectory("retention"); //$NON-NLS-1$
+        Credential credential = new Credential();
+        credential.setProperty("RepositoryDirectory", this.directory.getPath()); //$NON-NLS-1$
+        this.repository = RepositoryImpl.getInstance(credential);
+        this.repository.startup();
+        StoredDevice device = this.repository.createDevice("7199-XI52-0", Fixtures.serialNumber(0), "device0", //$NON-NLS-1$ //$NON-NLS-2$
+                DeviceType.XI52, ModelType.TYPE_7199, "127.0.0.1", "admin", "password", 5550, 9090, //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                AMPConstants.AMP_V3_0);
+        device.setFeatureLicenses(StringCollection.EMPTY);
+        this.domain = this.repository.createDomain(device, "domain"); //$NON-NLS-1$
+        // the blobs are not looked at, so the versions have none
+        for (int v = 1; v <= this.versions * 2; v++) {
+            StoredVersion version = this.repository.createDomainVersion(this.domain, null, "version " + v, //$NON-NLS-1$
+                    new Date(1388534400000L + v * 60000L));
+            if ((v % 2) == 1) {
+                version.delete();
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        this.repository.shutdown();
+        Fixtures.delete(this.directory);
+    }
+
+    @Benchmark
+    public int excess() {
+        return(VersionRetention.trim(this.domain.getVersions(), ALLOWED, FIND_ONLY));
+    }
+
+    /*
+     * What trimExcessVersions did before VersionRetention, without the
+     * removals.
+     */
+    @Benchmark
+    public int probe() {
+        int have = this.domain.getVersions().length;
+        int highest = this.domain.getHighestVersionNumber();
+        int found = 0;
+        for (int i = 1; (i <= highest) && (have > ALLOWED); i++) {
+            // what Domain.getVersion(int) did
+            StoredVersion[] storedVersions = this.domain.getVersions();
+            for (int j = 0; j < storedVersions.length; j++) {
+                if (storedVersions[j].getVersionNumber() == i) {
+                    found++;
+                    have--;
+                    break;
+                }
+            }
+        }
+        return(found);
+    }
+}
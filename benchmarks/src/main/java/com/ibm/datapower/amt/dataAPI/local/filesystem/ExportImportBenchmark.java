@@ -0,0 +1,165 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.dataAPI.local.filesystem;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibm.datapower.amt.Credential;
+import com.ibm.datapower.amt.DeviceType;
+import com.ibm.datapower.amt.ModelType;
+import com.ibm.datapower.amt.StringCollection;
+import com.ibm.datapower.amt.benchmarks.Fixtures;
+import com.ibm.datapower.amt.clientAPI.Blob;
+import com.ibm.datapower.amt.dataAPI.StoredFirmware;
+
+/**
+ * Export a repository with thousands of firmware versions to a zip file and
+ * import that file into an empty repository, one whole export or import per
+ * operation. The fork runs with a heap smaller than the images together, so
+ * a run only completes if neither side holds the archive in memory; the peak
+ * heap of each iteration is printed after it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx64m")
+public class ExportImportBenchmark {
+
+    private static final int IMAGE_SIZE = 20 * 1024;
+
+    @Param({ "4000" })
+    public int versions;
+
+    private File source = null;
+    private File archive = null;
+    private File target = null;
+    private RepositoryImpl repository = null;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.source = Fixtures.newDirectory("export"); //$NON-NLS-1$
+        this.repository = open(this.source);
+        StoredFirmware firmware = this.repository.createFirmware(DeviceType.fromString("XI52"), //$NON-NLS-1$
+                ModelType.fromString("9005"), StringCollection.EMPTY, StringCollection.EMPTY); //$NON-NLS-1$
+        for (int i = 0; i < this.versions; i++) {
+            Date date = new Date(1388534400000L + i * 60000L);
+            this.repository.createFirmwareVersion(firmware,
+                    new Blob(Fixtures.firmwareImage(IMAGE_SIZE, Fixtures.SEED + i)),
+                    "5.0.0." + i, date, "version " + i, date); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        this.repository.save(true);
+
+        this.archive = new File(Fixtures.newDirectory("archive"), "export.zip"); //$NON-NLS-1$ //$NON-NLS-2$
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(this.archive));
+        try {
+            this.repository.exportAll(out);
+        } finally {
+            out.close();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        Fixtures.delete(this.source);
+        Fixtures.delete(this.archive.getParentFile());
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpIteration() throws Exception {
+        this.target = Fixtures.newDirectory("import"); //$NON-NLS-1$
+        System.gc();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDownIteration() throws Exception {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        System.out.println("peak heap " + (peak >> 20) + "MB"); //$NON-NLS-1$ //$NON-NLS-2$
+        // the singleton goes back to the exported repository for the next iteration
+        this.repository = open(this.source);
+        Fixtures.delete(this.target);
+    }
+
+    @Benchmark
+    public long exportAll() throws Exception {
+        File file = new File(this.target, "export.zip"); //$NON-NLS-1$
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            this.repository.exportAll(out);
+        } finally {
+            out.close();
+        }
+        return(file.length());
+    }
+
+    @Benchmark
+    public int importAll() throws Exception {
+        RepositoryImpl imported = open(this.target);
+        InputStream in = new BufferedInputStream(new FileInputStream(this.archive));
+        try {
+            imported.importAll(in);
+        } finally {
+            in.close();
+        }
+        return(imported.getFirmwares()[0].getVersions().length);
+    }
+
+    private static RepositoryImpl open(File directory) throws Exception {
+        Credential credential = new Credential();
+        credential.setProperty("RepositoryDirectory", directory.getPath()); //$NON-NLS-1$
+        RepositoryImpl repository = RepositoryImpl.getInstance(credential);
+        repository.startup();
+        return(repository);
+    }
+}
@@ -0,0 +1,120 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.dataAPI.local.filesystem;
+
+import java.io.File;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.ibm.datapower.amt.Credential;
+import com.ibm.datapower.amt.DeviceType;
+import com.ibm.datapower.amt.ModelType;
+import com.ibm.datapower.amt.amp.AMPConstants;
+import com.ibm.datapower.amt.benchmarks.Fixtures;
+import com.ibm.datapower.amt.clientAPI.Blob;
+import com.ibm.datapower.amt.clientAPI.DeploymentPolicyType;
+import com.ibm.datapower.amt.dataAPI.StoredDevice;
+import com.ibm.datapower.amt.dataAPI.StoredDomain;
+import com.ibm.datapower.amt.dataAPI.StoredManagedSet;
+
+/**
+ * Write the repository file and read it back, for a repository of managed
+ * sets of devices with a few domains and versions each. The version images
+ * are written once when the repository is built, a save or a load only
+ * touches the repository file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RepositoryImplBenchmark {
+
+    private static final int DEVICES_PER_SET = 10;
+    private static final int DOMAINS_PER_DEVICE = 4;
+    private static final int VERSIONS_PER_DOMAIN = 5;
+    private static final String REPOSITORY_FILE_NAME = "WAMT.repository.xml"; //$NON-NLS-1$
+
+    @Param({ "10", "200" })
+    public int devices;
+
+    private File directory = null;
+    private RepositoryImpl repository = null;
+
+    @Setup
+    public void setUp() throws Exception {
+        this.directory = Fixtures.newDirectory("repository"); //$NON-NLS-1$
+        Credential credential = new Credential();
+        credential.setProperty("RepositoryDirectory", this.directory.getPath()); //$NON-NLS-1$
+        this.repository = RepositoryImpl.getInstance(credential);
+        this.repository.startup();
+
+        Date timeStamp = new Date(1388534400000L);
+        StoredManagedSet managedSet = null;
+        for (int i = 0; i < this.devices; i++) {
+            if ((i % DEVICES_PER_SET) == 0) {
+                managedSet = this.repository.createManagedSet("set" + (i / DEVICES_PER_SET)); //$NON-NLS-1$
+            }
+            String serialNumber = Fixtures.serialNumber(i);
+            StoredDevice device = this.repository.createDevice("7199-XI52-" + i, serialNumber, "device" + i, //$NON-NLS-1$ //$NON-NLS-2$
+                    DeviceType.fromString("XI52"), ModelType.fromString("9005"), "host" + i + ".example.com", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+                    "admin", "password" + i, 5550, 9090, AMPConstants.AMP_V3_0); //$NON-NLS-1$ //$NON-NLS-2$
+            managedSet.add(device);
+            for (int d = 0; d < DOMAINS_PER_DEVICE; d++) {
+                StoredDomain domain = this.repository.createDomain(device, "domain" + d); //$NON-NLS-1$
+                // a managed domain always has a policy, if only an empty one
+                this.repository.createDeploymentPolicy(domain, null, null, null, DeploymentPolicyType.NONE);
+                for (int v = 0; v < VERSIONS_PER_DOMAIN; v++) {
+                    this.repository.createDomainVersion(domain,
+                            new Blob(Fixtures.domainExport("domain" + d, 8, Fixtures.SEED + v)), //$NON-NLS-1$
+                            "version " + v, new Date(timeStamp.getTime() + v * 60000L)); //$NON-NLS-1$
+                }
+            }
+        }
+        this.repository.save(false);
+    }
+
+    @TearDown
+    public void tearDown() {
+        Fixtures.delete(this.directory);
+    }
+
+    @Benchmark
+    public void save() throws Exception {
+        this.repository.save(false);
+    }
+
+    @Benchmark
+    public void load() throws Exception {
+        this.repository.load(new File(this.directory, REPOSITORY_FILE_NAME).getPath());
+    }
+}
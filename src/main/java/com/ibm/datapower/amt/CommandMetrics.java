@@ -0,0 +1,496 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency and size counters for the SOAP commands sent to one device, kept
+ * per operation. The operation is the name of the request element, such as
+ * <code>GetDomainListRequest</code>, so it matches the method of the
+ * Commands implementation that sent it. All methods are thread-safe and never
+ * block.
+ * <p>
+ * Collection is off until {@link #setEnabled(boolean)} turns it on. A SOAP
+ * helper measures each command with a {@link Call} from {@link #begin(CharSequence)};
+ * while collection is off that is a shared instance that does nothing, so the
+ * only cost is reading a volatile field.
+ * <p>
+ * Latencies are counted in a histogram of power-of-two millisecond buckets,
+ * so the percentiles are upper bounds that are at most twice the real value.
+ */
+public class CommandMetrics {
+    public static final String COPYRIGHT_2009_2013 = Constants.COPYRIGHT_2009_2013;
+
+    /* bucket i counts latencies below 2^i ms, the last one everything longer */
+    private static final int BUCKETS = 24;
+
+    private static volatile boolean enabled = false;
+
+    private static final ConcurrentMap<String, CommandMetrics> all =
+        new ConcurrentHashMap<String, CommandMetrics>();
+
+    private final String operation;
+    private final String device;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong bytesSent = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+    private CommandMetrics(String operation, String device) {
+        this.operation = operation;
+        this.device = device;
+    }
+
+    /**
+     * Turn collection on or off. Counters already collected are kept.
+     *
+     * @param enable true to collect command metrics
+     */
+    public static void setEnabled(boolean enable) {
+        enabled = enable;
+    }
+
+    /**
+     * @return true if command metrics are being collected
+     */
+    public static boolean isEnabled() {
+        return(enabled);
+    }
+
+    /**
+     * Get the timestamp to pass to
+     * {@link #record(String, String, long, long, long, boolean)} when the
+     * command completes.
+     *
+     * @return the current time in nanoseconds, or 0 if collection is off
+     */
+    public static long start() {
+        return(enabled ? System.nanoTime() : 0);
+    }
+
+    /**
+     * Record a completed command.
+     *
+     * @param operation the name of the request element, see
+     *        {@link #getOperation(CharSequence)}
+     * @param device the host and port of the device
+     * @param startedAt the value returned by {@link #start()}. If it is 0,
+     *        nothing is recorded.
+     * @param sent the number of bytes sent, including the SOAP envelope
+     * @param received the number of bytes received
+     * @param failed true if the command failed
+     */
+    public static void record(String operation, String device, long startedAt,
+            long sent, long received, boolean failed) {
+        if (startedAt == 0) {
+            return;
+        }
+        long elapsed = System.nanoTime() - startedAt;
+        String key = operation + '@' + device;
+        CommandMetrics metrics = all.get(key);
+        if (metrics == null) {
+            CommandMetrics created = new CommandMetrics(operation, device);
+            metrics = all.putIfAbsent(key, created);
+            if (metrics == null) {
+                metrics = created;
+            }
+        }
+        metrics.add(elapsed, sent, received, failed);
+    }
+
+    /**
+     * Start measuring a command that is about to be sent.
+     *
+     * @param request the request document, see {@link #getOperation(CharSequence)}
+     * @return the measurement to update while the command is sent and its
+     *         response read
+     */
+    public static Call begin(CharSequence request) {
+        long startedAt = start();
+        return((startedAt == 0) ? Call.OFF : new Call(getOperation(request), startedAt));
+    }
+
+    /**
+     * Start measuring a command whose request is sent as a stream.
+     *
+     * @param header the start of the request document, see
+     *        {@link #getOperation(byte[])}
+     * @return the measurement to update while the command is sent and its
+     *         response read
+     */
+    public static Call begin(byte[] header) {
+        long startedAt = start();
+        return((startedAt == 0) ? Call.OFF : new Call(getOperation(header), startedAt));
+    }
+
+    /**
+     * Get the counters of every operation and device that has been recorded,
+     * sorted by device and then operation.
+     *
+     * @return the counters, which keep being updated
+     */
+    public static CommandMetrics[] listAll() {
+        CommandMetrics[] result = all.values().toArray(new CommandMetrics[0]);
+        Arrays.sort(result, new Comparator<CommandMetrics>() {
+            public int compare(CommandMetrics a, CommandMetrics b) {
+                int byDevice = a.device.compareTo(b.device);
+                return(byDevice != 0 ? byDevice : a.operation.compareTo(b.operation));
+            }
+        });
+        return(result);
+    }
+
+    /**
+     * Discard all the counters.
+     */
+    public static void reset() {
+        all.clear();
+    }
+
+    /**
+     * Get the operation of a SOAP request, which is the local name of its
+     * first element. A SOMA request wraps the operation in a
+     * <code>request</code> element, so for it the name of the next element,
+     * such as <code>get-status</code>, is used.
+     *
+     * @param request the request document, or the start of it
+     * @return the operation name, or "unknown" if there is no element
+     */
+    public static String getOperation(CharSequence request) {
+        int length = request.length();
+        int i = 0;
+        while (i < length) {
+            if (request.charAt(i++) != '<') {
+                continue;
+            }
+            if ((i < length) && ((request.charAt(i) == '?') || (request.charAt(i) == '!'))) {
+                continue;
+            }
+            int start = i;
+            while ((i < length) && isNameChar(request.charAt(i))) {
+                if (request.charAt(i) == ':') {
+                    start = i + 1;
+                }
+                i++;
+            }
+            if (i > start) {
+                String name = request.subSequence(start, i).toString();
+                if (!"request".equals(name)) { //$NON-NLS-1$
+                    return(name);
+                }
+            }
+        }
+        return("unknown"); //$NON-NLS-1$
+    }
+
+    /**
+     * Get the operation of a SOAP request from its leading bytes.
+     *
+     * @param header the start of the request document
+     * @return the operation name, or "unknown" if there is no element
+     * @see #getOperation(CharSequence)
+     */
+    public static String getOperation(byte[] header) {
+        StringBuilder ascii = new StringBuilder(Math.min(header.length, 512));
+        for (int i = 0; (i < header.length) && (i < 512); i++) {
+            ascii.append((char) (header[i] & 0x7f));
+        }
+        return(getOperation(ascii));
+    }
+
+    private static boolean isNameChar(char c) {
+        return(Character.isLetterOrDigit(c) || (c == ':') || (c == '_') || (c == '-') || (c == '.'));
+    }
+
+    private void add(long elapsedNanos, long sent, long received, boolean failed) {
+        this.count.incrementAndGet();
+        if (failed) {
+            this.failures.incrementAndGet();
+        }
+        this.bytesSent.addAndGet(sent);
+        this.bytesReceived.addAndGet(received);
+        this.totalNanos.addAndGet(elapsedNanos);
+        long current = this.maxNanos.get();
+        while ((elapsedNanos > current) && !this.maxNanos.compareAndSet(current, elapsedNanos)) {
+            current = this.maxNanos.get();
+        }
+        long ms = elapsedNanos / 1000000L;
+        int bucket = (ms == 0) ? 0 : (64 - Long.numberOfLeadingZeros(ms));
+        this.histogram.incrementAndGet(Math.min(bucket, BUCKETS - 1));
+    }
+
+    /**
+     * @return the name of the request element
+     */
+    public String getOperation() {
+        return(this.operation);
+    }
+
+    /**
+     * @return the host and port of the device
+     */
+    public String getDevice() {
+        return(this.device);
+    }
+
+    /**
+     * @return the number of commands sent
+     */
+    public long getCount() {
+        return(this.count.get());
+    }
+
+    /**
+     * @return the number of commands that failed
+     */
+    public long getFailureCount() {
+        return(this.failures.get());
+    }
+
+    /**
+     * @return the number of bytes sent, including the SOAP envelopes
+     */
+    public long getBytesSent() {
+        return(this.bytesSent.get());
+    }
+
+    /**
+     * @return the number of bytes received
+     */
+    public long getBytesReceived() {
+        return(this.bytesReceived.get());
+    }
+
+    /**
+     * @return the average latency in milliseconds, or 0 if no command was
+     *         sent
+     */
+    public long getAverageLatencyMS() {
+        long n = this.count.get();
+        return(n == 0 ? 0 : this.totalNanos.get() / n / 1000000L);
+    }
+
+    /**
+     * @return the longest latency in milliseconds
+     */
+    public long getMaxLatencyMS() {
+        return(this.maxNanos.get() / 1000000L);
+    }
+
+    /**
+     * @return the upper bound of the median latency in milliseconds
+     */
+    public long getLatencyP50MS() {
+        return(this.getLatencyPercentileMS(50));
+    }
+
+    /**
+     * @return the upper bound of the 90th percentile latency in milliseconds
+     */
+    public long getLatencyP90MS() {
+        return(this.getLatencyPercentileMS(90));
+    }
+
+    /**
+     * @return the upper bound of the 99th percentile latency in milliseconds
+     */
+    public long getLatencyP99MS() {
+        return(this.getLatencyPercentileMS(99));
+    }
+
+    /**
+     * Get an upper bound of a latency percentile.
+     *
+     * @param percent the percentile, from 0 to 100
+     * @return the upper bound in milliseconds of the histogram bucket that
+     *         holds the percentile, but no more than the longest latency
+     */
+    public long getLatencyPercentileMS(double percent) {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = this.histogram.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return(0);
+        }
+        long wanted = (long) Math.ceil(total * percent / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS - 1; i++) {
+            seen += counts[i];
+            if (seen >= wanted) {
+                return(Math.min(1L << i, this.getMaxLatencyMS()));
+            }
+        }
+        return(this.getMaxLatencyMS());
+    }
+
+    public String toString() {
+        return(this.operation + "@" + this.device + //$NON-NLS-1$
+                "[count=" + getCount() + //$NON-NLS-1$
+                ", failures=" + getFailureCount() + //$NON-NLS-1$
+                ", sent=" + getBytesSent() + //$NON-NLS-1$
+                ", received=" + getBytesReceived() + //$NON-NLS-1$
+                ", avgMS=" + getAverageLatencyMS() + //$NON-NLS-1$
+                ", p90MS=" + getLatencyP90MS() + //$NON-NLS-1$
+                ", maxMS=" + getMaxLatencyMS() + "]"); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    /**
+     * The measurement of one command, from {@link #begin(CharSequence)} until
+     * {@link #end(String, int)}, which a SOAP helper uses like this:
+     * <pre>
+     * CommandMetrics.Call metrics = CommandMetrics.begin(requestDocument);
+     * try {
+     *     // write the request
+     *     metrics.sent(bytes);
+     *     InputStream in = metrics.receive(connection.getInputStream());
+     *     // parse the response
+     *     metrics.succeeded();
+     * } finally {
+     *     metrics.end(hostname, port);
+     * }
+     * </pre>
+     * A command that does not reach {@link #succeeded()} is recorded as
+     * failed. It is meant to be used by one thread.
+     */
+    public static final class Call {
+        static final Call OFF = new Call(null, 0);
+
+        private final String operation;
+        private final long startedAt;
+        private long sent = 0;
+        private CountingInputStream received = null;
+        private long receivedBytes = 0;
+        private boolean failed = true;
+
+        Call(String operation, long startedAt) {
+            this.operation = operation;
+            this.startedAt = startedAt;
+        }
+
+        /**
+         * Add to the size of the request.
+         *
+         * @param bytes the number of bytes written, including the SOAP
+         *        envelope
+         */
+        public void sent(long bytes) {
+            this.sent += bytes;
+        }
+
+        /**
+         * Count the bytes of the response as it is read.
+         *
+         * @param in the response stream
+         * @return the stream to read the response from
+         */
+        public InputStream receive(InputStream in) {
+            if (this.startedAt == 0) {
+                return(in);
+            }
+            this.received = new CountingInputStream(in);
+            return(this.received);
+        }
+
+        /**
+         * Add to the size of a response that is not read through
+         * {@link #receive(InputStream)}.
+         *
+         * @param bytes the number of bytes received
+         */
+        public void received(long bytes) {
+            this.receivedBytes += bytes;
+        }
+
+        /**
+         * Mark the command as successful.
+         */
+        public void succeeded() {
+            this.failed = false;
+        }
+
+        /**
+         * Record the command. Call it once, when the command has completed or
+         * failed.
+         *
+         * @param hostname the host name of the device
+         * @param port the port of the device that was called
+         */
+        public void end(String hostname, int port) {
+            if (this.startedAt != 0) {
+                long received = this.receivedBytes + ((this.received == null) ? 0 : this.received.getCount());
+                record(this.operation, hostname + ":" + port, this.startedAt, this.sent, received, this.failed); //$NON-NLS-1$
+            }
+        }
+    }
+
+    /**
+     * An InputStream that counts the bytes read through it, used to measure
+     * the size of a SOAP response as it is parsed.
+     */
+    public static class CountingInputStream extends FilterInputStream {
+        private long count = 0;
+
+        public CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                this.count++;
+            }
+            return(b);
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                this.count += n;
+            }
+            return(n);
+        }
+
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            this.count += skipped;
+            return(skipped);
+        }
+
+        /**
+         * @return the number of bytes read or skipped so far
+         */
+        public long getCount() {
+            return(this.count);
+        }
+    }
+}
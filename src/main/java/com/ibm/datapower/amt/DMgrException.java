@@ -50,6 +50,10 @@ public class DMgrException extends Exception {
 
     private Object[] msgParms = null;
 
+    private boolean deferredMessage = false;
+
+    private transient volatile String formattedMessage = null;
+
     /**
      * Create an exception with no message and no cause. Please use one of the
      * other constructors to provide as much information about the exception as
@@ -205,6 +209,51 @@ public class DMgrException extends Exception {
         super(cause);
     }
     
+    /**
+     * Create an exception for an expected, frequently occurring condition
+     * that callers usually handle without looking at it, such as a busy lock
+     * or an empty queue. The message is not looked up and formatted until
+     * {@link #getMessage()} is called, and no stack trace is recorded unless
+     * <code>writableStackTrace</code> is true.
+     * 
+     * @param msgKey a string giving the key of the NLS enabled message to be
+     *        used with the exception.
+     * @param msgParms an Object[] that gives the attributes to be used with
+     *        msgKey, may be null
+     * @param writableStackTrace whether the stack trace should be filled in
+     * @see #getMessage(Locale)
+     */
+    protected DMgrException(String msgKey, Object[] msgParms, boolean writableStackTrace) {
+        super(null, null, false, writableStackTrace);
+        this.msgKey = msgKey;
+        if ( msgParms != null )
+        	this.msgParms = msgParms.clone();
+        this.deferredMessage = true;
+    }
+
+    /**
+     * Return the message for this exception. For an exception created with
+     * {@link #DMgrException(String, Object[], boolean)} the message is
+     * formatted from the NLS attributes the first time it is requested.
+     * 
+     * @return the message for this exception in the jvm's locale
+     */
+    public String getMessage() {
+        String message = super.getMessage();
+        if ((message == null) && this.deferredMessage) {
+            message = this.formattedMessage;
+            if (message == null) {
+                if (this.msgParms != null) {
+                    message = Messages.getString(this.msgKey, this.msgParms);
+                } else {
+                    message = Messages.getString(this.msgKey);
+                }
+                this.formattedMessage = message;
+            }
+        }
+        return message;
+    }
+
     /**
      * Return a message for this exception based on locale. If the NLS
      * attributes (msgKey and msgParms) aren't set, this method will return
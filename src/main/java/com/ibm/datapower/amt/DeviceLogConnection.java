@@ -0,0 +1,530 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.ibm.datapower.amt.logging.LoggerHelper;
+
+/**
+ * One appliance connection to the {@link DeviceLogger}. The HTTP requests on
+ * the connection are parsed incrementally as bytes arrive, so a slow appliance
+ * never holds a thread. The connection is kept open between requests unless
+ * the appliance asks for it to be closed.
+ * <p>
+ * A request body is either written straight to the rolling file of the
+ * appliance, when a {@link DeviceLogFiles} is configured, or collected and
+ * logged as one message to the target logger, as the DeviceLogger always did.
+ * Bodies may be sent with a Content-Length, chunked, or until the appliance
+ * closes the connection.
+ * <p>
+ * All methods are called from the selector thread of the DeviceLogger.
+ */
+class DeviceLogConnection {
+    public static final String COPYRIGHT_2009_2013 = Constants.COPYRIGHT_2009_2013;
+    protected final static String CLASS_NAME = DeviceLogConnection.class.getName();
+    protected final static Logger logger = Logger.getLogger(CLASS_NAME);
+    static
+    {
+        LoggerHelper.addLoggerToGroup(logger, "WAMT"); //$NON-NLS-1$
+    }
+
+    private static final int BUFFER_SIZE = 8192;
+    private static final int MAX_HEADER_SIZE = 16384;
+    private static final int MAX_LINE_SIZE = 1024;
+
+    // what is expected next from the appliance
+    private static final int STATE_HEADERS = 0;
+    private static final int STATE_BODY = 1;
+    private static final int STATE_BODY_UNTIL_CLOSE = 2;
+    private static final int STATE_CHUNK_SIZE = 3;
+    private static final int STATE_CHUNK_DATA = 4;
+    private static final int STATE_CHUNK_END = 5;
+    private static final int STATE_TRAILERS = 6;
+
+    private static final byte[] RESPONSE_KEEP_ALIVE = bytes(
+            "HTTP/1.1 200 OK\r\nContent-Type: text/xml\r\nContent-Length: 0\r\n\r\n"); //$NON-NLS-1$
+    private static final byte[] RESPONSE_CLOSE = bytes(
+            "HTTP/1.1 200 OK\r\nContent-Type: text/xml\r\nContent-Length: 0\r\nConnection: close\r\n\r\n"); //$NON-NLS-1$
+    private static final byte[] RESPONSE_CLOSE_1_0 = bytes(
+            "HTTP/1.0 200\r\nContent-Type: text/xml\r\n\r\n"); //$NON-NLS-1$
+    private static final byte[] RESPONSE_BAD_REQUEST = bytes(
+            "HTTP/1.1 400 Bad Request\r\nContent-Length: 0\r\nConnection: close\r\n\r\n"); //$NON-NLS-1$
+
+    private final DeviceLogger server;
+    private final SocketChannel channel;
+    private final SelectionKey key;
+    private final String device;
+    private final DeviceLogFiles files;
+    private final Logger targetLogger;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+    private int state = STATE_HEADERS;
+    private final ByteArrayOutputStream header = new ByteArrayOutputStream(512);
+    private int headerTail = 0;
+    private final StringBuffer line = new StringBuffer(32);
+    private long remaining = 0;
+    private boolean keepAlive = false;
+    private boolean http11 = false;
+    private boolean holdsFile = false;
+    private boolean waitingForFile = false;
+    private byte lastBodyByte = '\n';
+    private ByteArrayOutputStream body = null;
+    private ByteBuffer response = null;
+    private boolean closeAfterResponse = false;
+    private boolean open = true;
+    private boolean endOfStream = false;
+    private long lastActivity = System.currentTimeMillis();
+
+    DeviceLogConnection(DeviceLogger server, SocketChannel channel, SelectionKey key,
+            DeviceLogFiles files, Logger targetLogger) {
+        this.server = server;
+        this.channel = channel;
+        this.key = key;
+        this.files = files;
+        this.targetLogger = targetLogger;
+        this.device = channel.socket().getInetAddress().getHostAddress();
+        // the buffer is kept ready for reading what it holds
+        this.buffer.flip();
+    }
+
+    boolean isOpen() {
+        return(this.open);
+    }
+
+    long getLastActivity() {
+        return(this.lastActivity);
+    }
+
+    /**
+     * Note that the connection is still in use although nothing was read,
+     * because it waits for the file of its appliance.
+     */
+    void touch(long now) {
+        this.lastActivity = now;
+    }
+
+    boolean isWaitingForFile() {
+        return(this.waitingForFile);
+    }
+
+    /**
+     * Read what the appliance has sent and process as much of it as possible.
+     */
+    void readable() {
+        final String METHOD_NAME = "readable"; //$NON-NLS-1$
+        int count = 0;
+        try {
+            this.buffer.compact();
+            try {
+                count = this.channel.read(this.buffer);
+            } finally {
+                this.buffer.flip();
+            }
+        } catch (IOException e) {
+            logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME, "error reading from " + this.device, e); //$NON-NLS-1$
+            this.close();
+            return;
+        }
+        this.lastActivity = System.currentTimeMillis();
+        if (count < 0) {
+            this.endOfStream = true;
+        }
+        this.process();
+    }
+
+    /**
+     * Send the rest of a response that did not fit in the socket buffer.
+     */
+    void writable() {
+        this.flushResponse();
+        if (this.open && this.response == null) {
+            this.process();
+        }
+    }
+
+    /**
+     * Continue after the file of the appliance was released to this
+     * connection.
+     */
+    void resume() {
+        if (!this.open) {
+            return;
+        }
+        this.waitingForFile = false;
+        this.holdsFile = true;
+        // the idle time starts again when the connection can go on
+        this.lastActivity = System.currentTimeMillis();
+        this.process();
+    }
+
+    /*
+     * An empty body is complete as soon as its headers are, even though there
+     * are no more bytes to process.
+     */
+    private boolean bodyComplete() {
+        return(this.state == STATE_BODY && this.remaining == 0);
+    }
+
+    /*
+     * Consume the buffered bytes until they run out, or until the connection
+     * has to wait for its file or for a response to be written.
+     */
+    private void process() {
+        final String METHOD_NAME = "process"; //$NON-NLS-1$
+        try {
+            while (this.open && !this.waitingForFile && this.response == null && 
+                    (this.buffer.hasRemaining() || this.bodyComplete())) {
+                String text = null;
+                switch (this.state) {
+                case STATE_HEADERS:
+                    this.readHeaders();
+                    break;
+                case STATE_BODY:
+                    this.readBody(this.remaining);
+                    if (this.remaining == 0) {
+                        this.endRequest();
+                    }
+                    break;
+                case STATE_BODY_UNTIL_CLOSE:
+                    this.readBody(this.buffer.remaining());
+                    break;
+                case STATE_CHUNK_SIZE:
+                    text = this.readLine();
+                    if (text != null) {
+                        this.startChunk(text);
+                    }
+                    break;
+                case STATE_CHUNK_DATA:
+                    this.readBody(this.remaining);
+                    if (this.remaining == 0) {
+                        this.state = STATE_CHUNK_END;
+                    }
+                    break;
+                case STATE_CHUNK_END:
+                    if (this.readLine() != null) {
+                        this.state = STATE_CHUNK_SIZE;
+                    }
+                    break;
+                case STATE_TRAILERS:
+                    text = this.readLine();
+                    if (text != null && text.length() == 0) {
+                        this.endRequest();
+                    }
+                    break;
+                }
+            }
+            if (this.endOfStream && this.open && !this.waitingForFile && this.response == null) {
+                this.endOfStream();
+            }
+        } catch (IOException e) {
+            logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME, "Error Processing Request from " + this.device, e); //$NON-NLS-1$
+            this.close();
+            return;
+        } catch (NumberFormatException e) {
+            this.badRequest(e.getMessage());
+            return;
+        }
+        this.updateInterest();
+    }
+
+    private void readHeaders() throws IOException {
+        while (this.buffer.hasRemaining()) {
+            byte b = this.buffer.get();
+            this.header.write(b);
+            this.headerTail = (this.headerTail << 8) | (b & 0xff);
+            if ((this.headerTail & 0xffff) == 0x0a0a || this.headerTail == 0x0d0a0d0a) {
+                String text = this.header.toString("ISO-8859-1"); //$NON-NLS-1$
+                this.header.reset();
+                this.headerTail = 0;
+                if (text.trim().length() == 0) {
+                    // stray line ending between requests
+                    continue;
+                }
+                this.startRequest(text);
+                return;
+            }
+            if (this.header.size() > MAX_HEADER_SIZE) {
+                this.badRequest("request headers too long"); //$NON-NLS-1$
+                return;
+            }
+        }
+    }
+
+    private void startRequest(String headers) throws IOException {
+        final String METHOD_NAME = "startRequest"; //$NON-NLS-1$
+        String[] lines = headers.split("\r?\n"); //$NON-NLS-1$
+        this.http11 = lines[0].trim().endsWith("HTTP/1.1"); //$NON-NLS-1$
+        this.keepAlive = this.http11;
+        long contentLength = -1;
+        boolean chunked = false;
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            String name = lines[i].substring(0, colon).trim();
+            String value = lines[i].substring(colon + 1).trim();
+            if (name.equalsIgnoreCase("Content-Length")) { //$NON-NLS-1$
+                contentLength = Long.parseLong(value);
+            } else if (name.equalsIgnoreCase("Transfer-Encoding")) { //$NON-NLS-1$
+                chunked = value.toLowerCase().indexOf("chunked") >= 0; //$NON-NLS-1$
+            } else if (name.equalsIgnoreCase("Connection")) { //$NON-NLS-1$
+                if (value.equalsIgnoreCase("close")) { //$NON-NLS-1$
+                    this.keepAlive = false;
+                } else if (value.equalsIgnoreCase("keep-alive")) { //$NON-NLS-1$
+                    this.keepAlive = true;
+                }
+            }
+        }
+        if (logger.isLoggable(Level.FINER)) {
+            logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME, "request from " + this.device + //$NON-NLS-1$
+                    ": " + lines[0] + ", contentLength=" + contentLength + //$NON-NLS-1$ //$NON-NLS-2$
+                    ", chunked=" + chunked + ", keepAlive=" + this.keepAlive); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        if (chunked) {
+            this.state = STATE_CHUNK_SIZE;
+        } else if (contentLength >= 0) {
+            this.state = STATE_BODY;
+            this.remaining = contentLength;
+        } else if (!this.keepAlive) {
+            // the body runs until the appliance closes the connection
+            this.state = STATE_BODY_UNTIL_CLOSE;
+        } else {
+            this.state = STATE_BODY;
+            this.remaining = 0;
+        }
+        this.startBody();
+    }
+
+    private void startBody() {
+        this.lastBodyByte = '\n';
+        if (this.files == null) {
+            this.body = new ByteArrayOutputStream(1024);
+        } else if (this.files.acquire(this.device, this)) {
+            this.holdsFile = true;
+        } else {
+            this.waitingForFile = true;
+        }
+    }
+
+    /*
+     * Pass up to max bytes of body from the buffer to the file or the
+     * collected message, without copying them into a String.
+     */
+    private void readBody(long max) throws IOException {
+        int count = (int) Math.min(max, this.buffer.remaining());
+        if (count == 0) {
+            return;
+        }
+        int end = this.buffer.position() + count;
+        this.lastBodyByte = this.buffer.get(end - 1);
+        if (this.files == null) {
+            this.body.write(this.buffer.array(), this.buffer.arrayOffset() + this.buffer.position(), count);
+            this.buffer.position(end);
+        } else {
+            int limit = this.buffer.limit();
+            this.buffer.limit(end);
+            try {
+                this.files.write(this.device, this.buffer);
+            } finally {
+                this.buffer.limit(limit);
+            }
+        }
+        if (this.state != STATE_BODY_UNTIL_CLOSE) {
+            this.remaining -= count;
+        }
+    }
+
+    private void startChunk(String size) {
+        int semicolon = size.indexOf(';');
+        if (semicolon >= 0) {
+            size = size.substring(0, semicolon);
+        }
+        this.remaining = Long.parseLong(size.trim(), 16);
+        this.state = (this.remaining == 0) ? STATE_TRAILERS : STATE_CHUNK_DATA;
+    }
+
+    /*
+     * Collect one line of the chunked encoding. Returns null until the line is
+     * complete.
+     */
+    private String readLine() throws IOException {
+        while (this.buffer.hasRemaining()) {
+            char c = (char) (this.buffer.get() & 0xff);
+            if (c == '\n') {
+                int length = this.line.length();
+                if (length > 0 && this.line.charAt(length - 1) == '\r') {
+                    this.line.setLength(length - 1);
+                }
+                String result = this.line.toString();
+                this.line.setLength(0);
+                return(result);
+            }
+            this.line.append(c);
+            if (this.line.length() > MAX_LINE_SIZE) {
+                throw new IOException("line too long from " + this.device); //$NON-NLS-1$
+            }
+        }
+        return(null);
+    }
+
+    private void endRequest() throws IOException {
+        final String METHOD_NAME = "endRequest"; //$NON-NLS-1$
+        if (this.files == null) {
+            String message = this.body.toString();
+            this.body = null;
+            logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME, "Request logged\n" + message); //$NON-NLS-1$
+            this.targetLogger.logp(Level.INFO, CLASS_NAME, METHOD_NAME, "Request logged\n" + message); //$NON-NLS-1$
+        } else if (this.holdsFile) {
+            this.endLine();
+            this.holdsFile = false;
+            this.files.release(this.device, this, this.server);
+        }
+        this.state = STATE_HEADERS;
+        this.line.setLength(0);
+        if (this.keepAlive) {
+            this.respond(RESPONSE_KEEP_ALIVE, false);
+        } else {
+            this.respond(this.http11 ? RESPONSE_CLOSE : RESPONSE_CLOSE_1_0, true);
+        }
+    }
+
+    /*
+     * Keep the next push on a line of its own.
+     */
+    private void endLine() throws IOException {
+        if (this.lastBodyByte != '\n') {
+            this.files.write(this.device, ByteBuffer.wrap(new byte[] { '\n' }));
+            this.lastBodyByte = '\n';
+        }
+    }
+
+    private void endOfStream() {
+        final String METHOD_NAME = "endOfStream"; //$NON-NLS-1$
+        if (this.state == STATE_BODY_UNTIL_CLOSE) {
+            try {
+                // the appliance only closed its side, it may still read the response
+                this.keepAlive = false;
+                this.endRequest();
+                this.flushResponse();
+            } catch (IOException e) {
+                logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME, "Error Processing Request from " + this.device, e); //$NON-NLS-1$
+            }
+        }
+        this.close();
+    }
+
+    private void badRequest(String reason) {
+        final String METHOD_NAME = "badRequest"; //$NON-NLS-1$
+        logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME, "bad request from " + this.device + ": " + reason); //$NON-NLS-1$ //$NON-NLS-2$
+        this.respond(RESPONSE_BAD_REQUEST, true);
+        this.updateInterest();
+    }
+
+    private void respond(byte[] bytes, boolean close) {
+        this.response = ByteBuffer.wrap(bytes);
+        this.closeAfterResponse = close;
+        this.flushResponse();
+    }
+
+    private void flushResponse() {
+        final String METHOD_NAME = "flushResponse"; //$NON-NLS-1$
+        if (this.response == null) {
+            return;
+        }
+        try {
+            this.channel.write(this.response);
+        } catch (IOException e) {
+            logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME, "Error Processing Response", e); //$NON-NLS-1$
+            this.close();
+            return;
+        }
+        if (!this.response.hasRemaining()) {
+            this.response = null;
+            if (this.closeAfterResponse) {
+                this.close();
+            }
+        }
+    }
+
+    private void updateInterest() {
+        if (!this.open) {
+            return;
+        }
+        int ops = 0;
+        if (this.response != null) {
+            ops = SelectionKey.OP_WRITE;
+        } else if (!this.waitingForFile) {
+            ops = SelectionKey.OP_READ;
+        }
+        this.key.interestOps(ops);
+    }
+
+    /**
+     * Close the connection, giving up the file of the appliance if this
+     * connection holds it or waits for it. A body cut off in the middle of a
+     * line is ended with a line break, so that the line is not joined to the
+     * next push.
+     */
+    void close() {
+        final String METHOD_NAME = "close"; //$NON-NLS-1$
+        if (!this.open) {
+            return;
+        }
+        this.open = false;
+        if (this.files != null && this.holdsFile) {
+            try {
+                this.endLine();
+            } catch (IOException e) {
+                logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME, "Error ending the log of " + this.device, e); //$NON-NLS-1$
+            }
+        }
+        if (this.files != null && (this.holdsFile || this.waitingForFile)) {
+            this.holdsFile = false;
+            this.waitingForFile = false;
+            this.files.release(this.device, this, this.server);
+        }
+        this.key.cancel();
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME, "Error closing Request ", e); //$NON-NLS-1$
+        }
+        this.server.closed(this);
+    }
+
+    private static byte[] bytes(String text) {
+        try {
+            return(text.getBytes("ISO-8859-1")); //$NON-NLS-1$
+        } catch (UnsupportedEncodingException e) {
+            return(text.getBytes());
+        }
+    }
+
+    public String toString() {
+        return("DeviceLogConnection[" + this.device + "]"); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+}
@@ -0,0 +1,213 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.ibm.datapower.amt.logging.LoggerHelper;
+
+/**
+ * The rolling log files written by {@link DeviceLogger}, one per appliance.
+ * Request bodies are written straight from the network buffers to the file of
+ * the appliance that sent them.
+ * <p>
+ * Only one connection at a time may write a body to the file of an appliance,
+ * so that the log messages of two pushes from the same appliance are never
+ * mixed. A connection that finds the file busy waits, without reading any more
+ * from its socket, until the file is released.
+ * <p>
+ * All methods are called from the selector thread of the DeviceLogger, so
+ * there is no locking.
+ */
+class DeviceLogFiles {
+    public static final String COPYRIGHT_2009_2013 = Constants.COPYRIGHT_2009_2013;
+    protected final static String CLASS_NAME = DeviceLogFiles.class.getName();
+    protected final static Logger logger = Logger.getLogger(CLASS_NAME);
+    static
+    {
+        LoggerHelper.addLoggerToGroup(logger, "WAMT"); //$NON-NLS-1$
+    }
+
+    private final File directory;
+    private final long maxFileSize;
+    private final int fileCount;
+    private final Map<String, RollingFile> files = new HashMap<String, RollingFile>();
+
+    /**
+     * @param directory where to create the files
+     * @param maxFileSize the size in bytes at which a file is rolled over
+     * @param fileCount the number of rolled over files to keep per appliance
+     */
+    DeviceLogFiles(File directory, long maxFileSize, int fileCount) {
+        this.directory = directory;
+        this.maxFileSize = maxFileSize;
+        this.fileCount = fileCount;
+        this.directory.mkdirs();
+    }
+
+    /**
+     * Claim the file of an appliance for writing one request body.
+     *
+     * @param device the address of the appliance
+     * @param connection the connection that has a body to write
+     * @return true if the connection may write now. If false, the connection
+     *         has been queued and is passed to
+     *         {@link DeviceLogger#schedule(DeviceLogConnection)} when the file
+     *         is released to it.
+     */
+    boolean acquire(String device, DeviceLogConnection connection) {
+        RollingFile file = this.files.get(device);
+        if (file == null) {
+            file = new RollingFile(device);
+            this.files.put(device, file);
+        }
+        if (file.owner != null && file.owner != connection) {
+            file.waiters.add(connection);
+            return(false);
+        }
+        file.owner = connection;
+        return(true);
+    }
+
+    /**
+     * Write part of a request body. The connection must hold the file.
+     *
+     * @param device the address of the appliance
+     * @param data the bytes to write, from position to limit
+     * @throws IOException the file could not be written
+     */
+    void write(String device, ByteBuffer data) throws IOException {
+        RollingFile file = this.files.get(device);
+        file.write(data);
+    }
+
+    /**
+     * Give up the file after a request body has been written or the connection
+     * was closed. The next waiting connection, if any, gets the file.
+     *
+     * @param device the address of the appliance
+     * @param connection the connection that held or was waiting for the file
+     * @param server to schedule the connection that gets the file
+     */
+    void release(String device, DeviceLogConnection connection, DeviceLogger server) {
+        RollingFile file = this.files.get(device);
+        if (file == null) {
+            return;
+        }
+        file.waiters.remove(connection);
+        if (file.owner != connection) {
+            return;
+        }
+        file.owner = null;
+        file.inBody = false;
+        while (!file.waiters.isEmpty()) {
+            DeviceLogConnection next = file.waiters.removeFirst();
+            if (next.isOpen()) {
+                file.owner = next;
+                server.schedule(next);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Close all the files.
+     */
+    void close() {
+        Iterator<RollingFile> iterator = this.files.values().iterator();
+        while (iterator.hasNext()) {
+            iterator.next().close();
+        }
+        this.files.clear();
+    }
+
+    private class RollingFile {
+        private final String device;
+        private final File file;
+        private FileChannel channel = null;
+        private long size = 0;
+        private boolean inBody = false;
+        private DeviceLogConnection owner = null;
+        private final LinkedList<DeviceLogConnection> waiters = new LinkedList<DeviceLogConnection>();
+
+        RollingFile(String device) {
+            this.device = device;
+            // IPv6 addresses contain characters that are not valid in file names
+            String name = device.replace(':', '_').replace('%', '_') + ".log"; //$NON-NLS-1$
+            this.file = new File(DeviceLogFiles.this.directory, name);
+        }
+
+        void write(ByteBuffer data) throws IOException {
+            if (this.channel == null) {
+                this.open();
+            }
+            // roll over only between bodies, so one push stays in one file
+            if (!this.inBody && this.size >= DeviceLogFiles.this.maxFileSize) {
+                this.roll();
+            }
+            this.inBody = true;
+            while (data.hasRemaining()) {
+                this.size += this.channel.write(data);
+            }
+        }
+
+        private void open() throws IOException {
+            this.channel = new FileOutputStream(this.file, true).getChannel();
+            this.size = this.channel.size();
+        }
+
+        private void roll() throws IOException {
+            final String METHOD_NAME = "roll"; //$NON-NLS-1$
+            logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME, "rolling over log file of " + this.device); //$NON-NLS-1$
+            this.close();
+            int count = DeviceLogFiles.this.fileCount;
+            String path = this.file.getPath();
+            new File(path + "." + count).delete(); //$NON-NLS-1$
+            for (int i = count - 1; i >= 1; i--) {
+                new File(path + "." + i).renameTo(new File(path + "." + (i + 1))); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+            if (count > 0) {
+                this.file.renameTo(new File(path + ".1")); //$NON-NLS-1$
+            } else {
+                this.file.delete();
+            }
+            this.open();
+        }
+
+        void close() {
+            if (this.channel != null) {
+                try {
+                    this.channel.close();
+                } catch (IOException e) {
+                    // nothing more to do with it
+                }
+                this.channel = null;
+            }
+        }
+    }
+}
@@ -17,8 +17,17 @@
 
 package com.ibm.datapower.amt;
 
-import java.net.ServerSocket;
-import java.net.Socket;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -30,8 +39,17 @@ import com.ibm.datapower.amt.logging.LoggerHelper;
  * appropriate (specified) logger. It is intended to be a centralized log
  * for trace events coming from DataPower appliances deployed in a managed 
  * set. DataPower appliances would set up log targets to point to this 
- * host/port. It spawns 10 worker threads
- * to catch and log events.
+ * host/port.
+ * <p>
+ * All connections are served by this one thread with a {@link Selector}, so
+ * hundreds of appliances can push at the same time without a thread each.
+ * Connections are kept open between pushes when the appliance asks for
+ * keep-alive. If {@link Configuration#KEY_DEVICE_LOG_DIRECTORY} is set, each
+ * push is written as it arrives to a rolling file for the appliance that sent
+ * it, see {@link DeviceLogFiles}; otherwise it is logged to the specified
+ * logger. No more than {@link Configuration#KEY_DEVICE_LOG_MAX_CONNECTIONS}
+ * connections are open at a time; further appliances wait in the listen
+ * backlog until a connection is closed.
  * <p>
  * 
  * @version SCM ID: $Id: DeviceLogger.java,v 1.4 2010/09/02 16:24:52 wjong Exp $
@@ -48,9 +66,19 @@ public class DeviceLogger extends Thread {
     }
     private static DeviceLogger singleton = null;
 
-    ServerSocket serverSocket;    
-    static int threads = 10;
+    private static final long SELECT_TIMEOUT_MS = 1000;
+    static final long IDLE_TIMEOUT_MS = 120000;
+    private static final int BACKLOG = 1024;
+
+    ServerSocketChannel serverChannel;
+    private Selector selector;
+    private SelectionKey serverKey;
     private Logger targetLogger;
+    private DeviceLogFiles files = null;
+    private int maxConnections;
+    private int openConnections = 0;
+    private long idleTimeout = IDLE_TIMEOUT_MS;
+    private final LinkedList<DeviceLogConnection> scheduled = new LinkedList<DeviceLogConnection>();
 
    /**
      * Create a new DeviceLogger.
@@ -59,18 +87,54 @@ public class DeviceLogger extends Thread {
      * @param myLogger the Logger to which received events will be logged
      */
     public DeviceLogger(int port, Logger myLogger) {
+        this(port, myLogger, Configuration.getAsInteger(Configuration.KEY_DEVICE_LOG_MAX_CONNECTIONS).intValue(),
+                createFiles());
+    }
+
+    /**
+     * Create a new DeviceLogger that does not read the configuration.
+     * 
+     * @param port the listening TCP (HTTP) port, or 0 for any free port
+     * @param myLogger the Logger to which received events will be logged when
+     *        there are no files
+     * @param maxConnections the most connections open at a time
+     * @param files the per-appliance files to write to, or null to log to
+     *        <code>myLogger</code>
+     */
+    DeviceLogger(int port, Logger myLogger, int maxConnections, DeviceLogFiles files) {
         final String METHOD_NAME = "DeviceLogger"; //$NON-NLS-1$
         logger.entering(CLASS_NAME, METHOD_NAME);
+        this.maxConnections = Math.max(1, maxConnections);
         try {
-            serverSocket = new ServerSocket(port);
-            logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME, "DeviceLogger created serverSocket on " + serverSocket.getInetAddress() + ", port=" + port); //$NON-NLS-1$ //$NON-NLS-2$
+            selector = Selector.open();
+            serverChannel = ServerSocketChannel.open();
+            // appliances that connect at the same time wait in the backlog
+            // until the selector thread accepts them
+            serverChannel.socket().bind(new InetSocketAddress(port), Math.max(BACKLOG, maxConnections));
+            serverChannel.configureBlocking(false);
+            serverKey = serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME, "DeviceLogger created serverSocket on " + serverChannel.socket().getInetAddress() + ", port=" + port); //$NON-NLS-1$ //$NON-NLS-2$
         } catch (Exception e) {
             logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME, "DeviceLogger; error creating ServerserverSocket ", e); //$NON-NLS-1$
         }
         targetLogger = myLogger;
+        this.files = files;
         logger.exiting(CLASS_NAME, METHOD_NAME);
     }
 
+    private static DeviceLogFiles createFiles() {
+        final String METHOD_NAME = "createFiles"; //$NON-NLS-1$
+        DeviceLogFiles result = null;
+        String directory = Configuration.get(Configuration.KEY_DEVICE_LOG_DIRECTORY);
+        if (directory != null && directory.length() > 0) {
+            long fileSize = Configuration.getAsInteger(Configuration.KEY_DEVICE_LOG_FILE_SIZE).longValue();
+            int fileCount = Configuration.getAsInteger(Configuration.KEY_DEVICE_LOG_FILE_COUNT).intValue();
+            result = new DeviceLogFiles(new File(directory), fileSize, fileCount);
+            logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME, "DeviceLogger writing to files in " + directory); //$NON-NLS-1$
+        }
+        return(result);
+    }
+
     /**
      * Return the singleton instance of a DeviceLogger given a trace logger.
      * 
@@ -99,36 +163,140 @@ public class DeviceLogger extends Thread {
     }
     
    /**
-     * Run the accept thread that will listen for new connections. 
-     * This will send this off to a client thread for processing. 
+     * Run the selector loop that accepts new connections and reads from the
+     * open ones. 
      * 
-     * @see DeviceLogger_ClientThread
+     * @see DeviceLogConnection
      */
     public void run() {
         final String METHOD_NAME = "run"; //$NON-NLS-1$
         logger.entering(CLASS_NAME, METHOD_NAME);
-        logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME, "DeviceLogger starting"); //$NON-NLS-1$
-        //create the Threads
-        for (int i = 0; i < threads; i++) {
-            Thread t = new Thread(new DeviceLogger_ClientThread(targetLogger), "DeviceLogger Client # " + i); //$NON-NLS-1$
-            t.setName("DeviceLogger Client # " + i); //$NON-NLS-1$
-            t.setDaemon(true);
-            t.start();
+        if (serverKey == null) {
+            logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME, "DeviceLogger not listening, exiting"); //$NON-NLS-1$
+            return;
         }
-
-        logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME, "Started " + threads + " client threads."); //$NON-NLS-1$ //$NON-NLS-2$
         logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME, "DeviceLogger init complete.  Listening for requests...\n\n"); //$NON-NLS-1$
 
-        //Listen for connections
+        long lastSweep = System.currentTimeMillis();
         try {
             while (true) {
-                Socket clientSocket = serverSocket.accept();
-                logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME, "DeviceLogger accepted connection on port " + serverSocket.getLocalPort()); //$NON-NLS-1$
-                DeviceLogger_ClientThread.processRequest(clientSocket);
+                selector.select(SELECT_TIMEOUT_MS);
+                Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+                while (iterator.hasNext()) {
+                    SelectionKey key = iterator.next();
+                    iterator.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key == serverKey) {
+                        accept();
+                        continue;
+                    }
+                    DeviceLogConnection connection = (DeviceLogConnection) key.attachment();
+                    try {
+                        int ready = key.readyOps();
+                        if ((ready & SelectionKey.OP_WRITE) != 0) {
+                            connection.writable();
+                        } else if ((ready & SelectionKey.OP_READ) != 0) {
+                            connection.readable();
+                        }
+                    } catch (RuntimeException e) {
+                        logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME, "Error Processing Request ", e); //$NON-NLS-1$
+                        connection.close();
+                    }
+                }
+                // connections that were given the file of their appliance
+                while (!scheduled.isEmpty()) {
+                    DeviceLogConnection connection = scheduled.removeFirst();
+                    try {
+                        connection.resume();
+                    } catch (RuntimeException e) {
+                        logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME, "Error Processing Request ", e); //$NON-NLS-1$
+                        connection.close();
+                    }
+                }
+                long now = System.currentTimeMillis();
+                if (now - lastSweep >= SELECT_TIMEOUT_MS) {
+                    closeIdle(now);
+                    lastSweep = now;
+                }
             }
         } catch (Exception e) {
             logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME, "DeviceLogger; error accepting from ServerSocket;", e); //$NON-NLS-1$
+        } finally {
+            if (files != null) {
+                files.close();
+            }
         }
         logger.exiting(CLASS_NAME, METHOD_NAME);
     }
+
+    private void accept() throws IOException {
+        final String METHOD_NAME = "accept"; //$NON-NLS-1$
+        while (openConnections < maxConnections) {
+            SocketChannel channel = serverChannel.accept();
+            if (channel == null) {
+                return;
+            }
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            key.attach(new DeviceLogConnection(this, channel, key, files, targetLogger));
+            openConnections++;
+            logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME, "DeviceLogger accepted connection on port " + serverChannel.socket().getLocalPort()); //$NON-NLS-1$
+        }
+        // leave the rest in the listen backlog until a connection closes
+        logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME, "DeviceLogger has " + openConnections + //$NON-NLS-1$
+                " connections open, not accepting more"); //$NON-NLS-1$
+        serverKey.interestOps(0);
+    }
+
+    private void closeIdle(long now) {
+        List<SelectionKey> keys = new ArrayList<SelectionKey>(selector.keys());
+        for (int i = 0; i < keys.size(); i++) {
+            Object attachment = keys.get(i).attachment();
+            if (attachment instanceof DeviceLogConnection) {
+                DeviceLogConnection connection = (DeviceLogConnection) attachment;
+                if (connection.isWaitingForFile()) {
+                    // it reads nothing while a slow push to the same file goes on
+                    connection.touch(now);
+                } else if (now - connection.getLastActivity() > idleTimeout) {
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Change how long a connection may be idle before it is closed. Must be
+     * called before the thread is started.
+     * 
+     * @param idleTimeout the idle time in milliseconds
+     */
+    void setIdleTimeout(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Called by {@link DeviceLogFiles} when a waiting connection is given the
+     * file of its appliance. The connection continues on the next pass of the
+     * selector loop.
+     * 
+     * @param connection the connection that can continue
+     */
+    void schedule(DeviceLogConnection connection) {
+        scheduled.add(connection);
+    }
+
+    /**
+     * Called by a connection when it has been closed.
+     * 
+     * @param connection the connection that was closed
+     */
+    void closed(DeviceLogConnection connection) {
+        openConnections--;
+        if (serverKey.isValid() && serverKey.interestOps() == 0 && openConnections < maxConnections) {
+            serverKey.interestOps(SelectionKey.OP_ACCEPT);
+        }
+    }
 }
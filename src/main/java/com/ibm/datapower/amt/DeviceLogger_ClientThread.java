@@ -25,8 +25,8 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.net.Socket;
-import java.util.LinkedList;
-import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -36,18 +36,31 @@ import com.ibm.datapower.amt.logging.LoggerHelper;
  * A thread that will read events from an accepted socket and log them. All
  * new sockets get put on a shared pool from which client threads pull.
  * <p>
+ * {@link DeviceLogger} no longer uses this class: it serves log pushes from a
+ * selector, see {@link DeviceLogConnection}. The class is kept for callers
+ * that hand accepted sockets to {@link #processRequest(Socket)} themselves.
+ * The first such call starts the client threads, and the events they read
+ * are logged to this class's logger.
+ * <p>
  * 
+ * @deprecated Use {@link DeviceLogger}, which accepts and reads the
+ *             connections itself.
  * @version SCM ID: $Id: DeviceLogger_ClientThread.java,v 1.5 2010/09/02 16:24:52 wjong Exp $
  * <p>
  */
+@Deprecated
 public class DeviceLogger_ClientThread extends Thread {
     static final String SCM_REVISION = "$Revision: 1.5 $"; //$NON-NLS-1$
     public static final String COPYRIGHT_2009_2013 = Constants.COPYRIGHT_2009_2013;
     protected final static String CLASS_NAME = DeviceLogger_ClientThread.class.getName();
     protected final static Logger logger = Logger.getLogger(CLASS_NAME);
     protected int threadNbr = 0;
-    protected final static List pool = new LinkedList();
+    protected final static BlockingQueue<Socket> pool = new LinkedBlockingQueue<Socket>();
     private Logger targetLogger = null;
+
+    // the number of client threads started by the first processRequest()
+    private static final int THREADS = 10;
+    private static boolean started = false;
     
     static
     {
@@ -76,42 +89,49 @@ public class DeviceLogger_ClientThread extends Thread {
         final String METHOD_NAME = "run"; //$NON-NLS-1$
         logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME, Thread.currentThread().getName() + " starting"); //$NON-NLS-1$
 
-        Socket clientSocket;
+        while (true) {
+            Socket clientSocket;
+            try {
+                clientSocket = pool.take();
+            } catch (InterruptedException ignored) {
+                continue;
+            }
+            logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME, "ClientThread " + Thread.currentThread().getName() + " got new request"); //$NON-NLS-1$ //$NON-NLS-2$
+            this.handle(clientSocket);
+        }
+    }
+
+    /**
+     * Read one event from an accepted socket, log it and send the response.
+     * The socket is processed without holding the shared pool, so several
+     * client threads can read from devices at the same time.
+     * 
+     * @param clientSocket the Socket that has just been accepted
+     */
+    void handle(Socket clientSocket) {
+        final String METHOD_NAME = "handle"; //$NON-NLS-1$
         int contentLength = 0;
         boolean keepAlive = false;
-        while (true) {
-            synchronized (pool) {
-                while (pool.isEmpty()) {
-                    try {
-                        pool.wait();
-                    } catch (InterruptedException ignored) {
-                    }
-                }
-                clientSocket = (Socket) pool.remove(0);
-                logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME, "ClientThread " + Thread.currentThread().getName() + " got new request"); //$NON-NLS-1$ //$NON-NLS-2$
-					
-                try {
-                    BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-                    String reqHeaders = getRequestHeaders(in);
-                    contentLength = getContentLength(reqHeaders);
-                    keepAlive = getKeepAlive(reqHeaders);
-                    String reqBody = getRequestBody(in, contentLength);
-						
-                    DeviceLogger_ClientThread.processResponse(clientSocket, reqBody);
-                } catch (Exception e) {
-                    logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME, "Error Processing Request ", e); //$NON-NLS-1$
-                } finally {
-                    try {
-                        logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME, "keepAlive = " + keepAlive); //$NON-NLS-1$
-                        if (!keepAlive) {
-                            logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME, "Closing clientSocket"); //$NON-NLS-1$
-                            clientSocket.close();
-                        }
-                        logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME, "Request Done"); //$NON-NLS-1$
-                    } catch (IOException e1) {
-                        logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME, "Error closing Request ", e1); //$NON-NLS-1$
-                    }
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
+            String reqHeaders = getRequestHeaders(in);
+            contentLength = getContentLength(reqHeaders);
+            keepAlive = getKeepAlive(reqHeaders);
+            String reqBody = getRequestBody(in, contentLength);
+				
+            DeviceLogger_ClientThread.processResponse(clientSocket, reqBody);
+        } catch (Exception e) {
+            logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME, "Error Processing Request ", e); //$NON-NLS-1$
+        } finally {
+            try {
+                logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME, "keepAlive = " + keepAlive); //$NON-NLS-1$
+                if (!keepAlive) {
+                    logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME, "Closing clientSocket"); //$NON-NLS-1$
+                    clientSocket.close();
                 }
+                logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME, "Request Done"); //$NON-NLS-1$
+            } catch (IOException e1) {
+                logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME, "Error closing Request ", e1); //$NON-NLS-1$
             }
         }
     }
@@ -126,18 +146,25 @@ public class DeviceLogger_ClientThread extends Thread {
 
         logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME, Thread.currentThread().getName()+ " recieved request"); //$NON-NLS-1$
 
-        synchronized (pool) {
-            try {
-                pool.add(pool.size(), clientSocket);
-                logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME, "request added to pool"); //$NON-NLS-1$
-                pool.notifyAll();
-            } catch (IndexOutOfBoundsException e) {
-                logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME, Thread.currentThread().getName() + " IndexOOB adding " + pool.size()); //$NON-NLS-1$
-            }
-        }
+        startThreads();
+        pool.add(clientSocket);
+        logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME, "request added to pool"); //$NON-NLS-1$
     }
 
 
+    private static synchronized void startThreads() {
+        if (started) {
+            return;
+        }
+        started = true;
+        for (int i = 0; i < THREADS; i++) {
+            Thread t = new DeviceLogger_ClientThread(logger);
+            t.setName("DeviceLogger Client # " + i); //$NON-NLS-1$
+            t.setDaemon(true);
+            t.start();
+        }
+    }
+
     /**
      * Send a response to the client that the event was logged
      * 
@@ -0,0 +1,194 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt;
+
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.WeakHashMap;
+
+/**
+ * An immutable set of Strings, such as the feature licenses of a device or
+ * the features of a firmware. Unlike a {@link StringCollection} it has set
+ * semantics: duplicates and order are ignored.
+ * <p>
+ * The Strings are kept sorted and the hash code is computed once, so sets
+ * can be used as hash keys and compared without locking. Instances are
+ * interned, so equal sets are usually the same object and compare with
+ * <code>==</code>. Use {@link StringCollection#toFeatureSet()} to get the set
+ * for a collection; the collection remembers it until it is modified.
+ * <p>
+ * WARNING: THIS CLASS IS NOT NLS ENABLED, for the same reason as
+ * StringCollection.
+ */
+public final class FeatureSet {
+    private final String[] features;
+    private final int hashCode;
+
+    /**
+     * The empty set.
+     */
+    public static final FeatureSet EMPTY = new FeatureSet(new String[0]);
+
+    public static final String COPYRIGHT_2009_2013 = Constants.COPYRIGHT_2009_2013;
+
+    /* the interned sets, which go away when nothing else references them */
+    private static final Map<FeatureSet, WeakReference<FeatureSet>> interned =
+        new WeakHashMap<FeatureSet, WeakReference<FeatureSet>>();
+
+    private FeatureSet(String[] sortedFeatures) {
+        this.features = sortedFeatures;
+        this.hashCode = Arrays.hashCode(sortedFeatures);
+    }
+
+    /**
+     * Get the set of the Strings in the array. Null and empty Strings are
+     * skipped, the same as in {@link StringCollection#StringCollection(String[])}.
+     *
+     * @param array the members of the set, in any order
+     * @return the interned set
+     */
+    public static FeatureSet valueOf(String[] array) {
+        if (array == null) {
+            return(EMPTY);
+        }
+        TreeSet<String> sorted = new TreeSet<String>();
+        for (int i = 0; i < array.length; i++) {
+            if ((array[i] != null) && (array[i].length() > 0)) {
+                sorted.add(array[i]);
+            }
+        }
+        return(intern(sorted.toArray(new String[sorted.size()])));
+    }
+
+    /**
+     * Get the set of the Strings in the collection.
+     *
+     * @param collection the collection, may be null
+     * @return the interned set, which is empty if the collection is null
+     * @see StringCollection#toFeatureSet()
+     */
+    public static FeatureSet valueOf(StringCollection collection) {
+        return((collection == null) ? EMPTY : collection.toFeatureSet());
+    }
+
+    private static FeatureSet intern(String[] sortedFeatures) {
+        if (sortedFeatures.length == 0) {
+            return(EMPTY);
+        }
+        FeatureSet candidate = new FeatureSet(sortedFeatures);
+        synchronized (interned) {
+            WeakReference<FeatureSet> reference = interned.get(candidate);
+            FeatureSet existing = (reference == null) ? null : reference.get();
+            if (existing != null) {
+                return(existing);
+            }
+            interned.put(candidate, new WeakReference<FeatureSet>(candidate));
+        }
+        return(candidate);
+    }
+
+    /**
+     * Get the number of Strings in the set.
+     *
+     * @return the number of Strings in the set
+     */
+    public int size() {
+        return(this.features.length);
+    }
+
+    /**
+     * Get the String at the specified index, in sorted order.
+     *
+     * @param index the index into the set
+     * @return the String at that index
+     */
+    public String get(int index) {
+        return(this.features[index]);
+    }
+
+    /**
+     * Check if the set contains the specified String.
+     *
+     * @param target the String to look for
+     * @return true if the set contains a String equal to target
+     */
+    public boolean contains(String target) {
+        if (target == null) {
+            return(false);
+        }
+        return(Arrays.binarySearch(this.features, target) >= 0);
+    }
+
+    /**
+     * Check if this set contains every String of another set. A set contains
+     * all of itself and of the empty set. Both sets are sorted, so this is a
+     * single pass over the two.
+     *
+     * @param that the set that may be a subset of this one
+     * @return true if this set is a superset of <code>that</code>
+     */
+    public boolean containsAll(FeatureSet that) {
+        if ((this == that) || (that.features.length == 0)) {
+            return(true);
+        }
+        if (that.features.length > this.features.length) {
+            return(false);
+        }
+        int i = 0;
+        for (int j = 0; j < that.features.length; j++) {
+            String wanted = that.features[j];
+            int comparison = -1;
+            while ((i < this.features.length) &&
+                   ((comparison = this.features[i].compareTo(wanted)) < 0)) {
+                i++;
+            }
+            if (comparison != 0) {
+                return(false);
+            }
+            i++;
+        }
+        return(true);
+    }
+
+    public boolean equals(Object that) {
+        if (this == that) {
+            return(true);
+        }
+        if (!(that instanceof FeatureSet)) {
+            return(false);
+        }
+        FeatureSet other = (FeatureSet) that;
+        return((this.hashCode == other.hashCode) && Arrays.equals(this.features, other.features));
+    }
+
+    public int hashCode() {
+        return(this.hashCode);
+    }
+
+    /**
+     * Create a human-readable representation of this set. This is intended
+     * more for debugging than consumption by end users.
+     *
+     * @return a human-readable representation of this set
+     */
+    public String toString() {
+        return(Arrays.toString(this.features));
+    }
+}
@@ -21,6 +21,7 @@ import java.text.MessageFormat;
 import java.util.Locale;
 import java.util.MissingResourceException;
 import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -44,7 +45,8 @@ public class Messages {
     protected static final String CLASS_NAME = Messages.class.getName();
 
     protected final static Logger logger = Logger.getLogger(CLASS_NAME);
-    private static String prefix = "WAMT";
+    private static volatile String prefix = "WAMT";
+    private static volatile Templates templates = new Templates(null, null);
     static {
         LoggerHelper.addLoggerToGroup(logger, "WAMT"); //$NON-NLS-1$
     }
@@ -88,7 +90,43 @@ public class Messages {
 	 *         is not found in the bundle.
 	 */
     public static String getString(String key) {
-        return getString(ResourceBundle.getBundle(BUNDLE_NAME),key);
+        String METHOD_NAME = "getString(String key)"; //$NON-NLS-1$
+        String msg = ""; //$NON-NLS-1$
+        try {
+            msg = prefix + getTemplate(key);
+        } catch (MissingResourceException e) {
+            logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
+                    "Exception caught", e); //$NON-NLS-1$
+            msg = "!" + key + "!"; //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        return msg;
+    }
+
+    /*
+     * Get a string from the message bundle for the default locale. Strings
+     * are kept after the first lookup, so exceptions that are created often
+     * do not repeat the bundle lookup.
+     */
+    private static String getTemplate(String key) throws MissingResourceException {
+        return getTemplates().getTemplate(key);
+    }
+
+    /*
+     * The cache for the current default locale and message prefix. When
+     * either changes a new, empty cache replaces the old one in a single
+     * write, so a thread still working with the old cache cannot put its
+     * strings into the new one.
+     */
+    private static Templates getTemplates() {
+        Templates current = templates;
+        Locale locale = Locale.getDefault();
+        String currentPrefix = prefix;
+        if (!locale.equals(current.locale) ||
+                ((currentPrefix == null) ? (current.prefix != null) : !currentPrefix.equals(current.prefix))) {
+            current = new Templates(locale, currentPrefix);
+            templates = current;
+        }
+        return current;
     }
 
     /**
@@ -139,8 +177,14 @@ public class Messages {
 	 */
     public static final String getString(String key, 
             Object[] args) {
-        String msg = getString(key);
-        return MessageFormat.format(msg, args);
+        MessageFormat format = null;
+        try {
+            format = getTemplates().getFormat(key);
+        } catch (MissingResourceException e) {
+            // getString(String) logs it and returns the error text
+            return MessageFormat.format(getString(key), args);
+        }
+        return format.format(args);
     }
 
     /**
@@ -334,4 +378,44 @@ public class Messages {
         return msg;
     }
 
+    /*
+     * The message strings of one locale and message prefix, and the
+     * MessageFormats parsed from them.
+     */
+    private static final class Templates {
+        final Locale locale;
+        final String prefix;
+        private final ConcurrentHashMap<String, String> strings = new ConcurrentHashMap<String, String>();
+        private final ConcurrentHashMap<String, MessageFormat> formats = new ConcurrentHashMap<String, MessageFormat>();
+
+        Templates(Locale locale, String prefix) {
+            this.locale = locale;
+            this.prefix = prefix;
+        }
+
+        String getTemplate(String key) throws MissingResourceException {
+            String template = this.strings.get(key);
+            if (template == null) {
+                template = ResourceBundle.getBundle(BUNDLE_NAME, this.locale).getString(key);
+                this.strings.put(key, template);
+            }
+            return template;
+        }
+
+        /*
+         * A MessageFormat is not safe for concurrent use, so the parsed one
+         * stays here and each caller formats with a copy of it.
+         */
+        MessageFormat getFormat(String key) throws MissingResourceException {
+            MessageFormat format = this.formats.get(key);
+            if (format == null) {
+                format = new MessageFormat(this.prefix + this.getTemplate(key));
+                MessageFormat existing = this.formats.putIfAbsent(key, format);
+                if (existing != null) {
+                    format = existing;
+                }
+            }
+            return (MessageFormat) format.clone();
+        }
+    }
 }
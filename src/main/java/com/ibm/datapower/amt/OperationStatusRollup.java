@@ -0,0 +1,161 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt;
+
+/**
+ * An incrementally maintained rollup of many lower-level
+ * {@link OperationStatus} values. Instead of keeping the lower-level values and
+ * calling {@link OperationStatus#rollupFrom(OperationStatus[])} on each read,
+ * the owner reports every value that is added, removed or replaced, and this
+ * object keeps a count per {@link OperationStatus.Enumerated} value. The
+ * aggregated value is then derived from the counts without looking at the
+ * lower-level items, using the same rules as <code>rollupFrom</code>.
+ * <p>
+ * All methods are thread-safe. The owner is responsible for reporting each
+ * change exactly once, typically while holding the lock that guards its own
+ * collection of lower-level items.
+ */
+public class OperationStatusRollup {
+    public static final String COPYRIGHT_2009_2013 = Constants.COPYRIGHT_2009_2013;
+
+    private static final OperationStatus.Enumerated[] VALUES = new OperationStatus.Enumerated[] {
+        OperationStatus.Enumerated.UP, OperationStatus.Enumerated.PARTIAL,
+        OperationStatus.Enumerated.UNKNOWN, OperationStatus.Enumerated.DOWN };
+
+    private final OperationStatus.Enumerated emptyStatus;
+    private final int[] counts = new int[VALUES.length];
+    private int total = 0;
+
+    /**
+     * Create an empty rollup.
+     *
+     * @param emptyStatus the aggregated value to report when there are no
+     *        lower-level items. A device with no managed domains is considered
+     *        up, while a managed set with no devices is unknown.
+     */
+    public OperationStatusRollup(OperationStatus.Enumerated emptyStatus) {
+        this.emptyStatus = emptyStatus;
+    }
+
+    /**
+     * Count a lower-level item.
+     *
+     * @param status the value of the new item. A null value is ignored.
+     */
+    public synchronized void add(OperationStatus.Enumerated status) {
+        int index = indexOf(status);
+        if (index >= 0) {
+            this.counts[index]++;
+            this.total++;
+        }
+    }
+
+    /**
+     * Stop counting a lower-level item.
+     *
+     * @param status the value the item was last counted with. A null value is
+     *        ignored.
+     */
+    public synchronized void remove(OperationStatus.Enumerated status) {
+        int index = indexOf(status);
+        if (index >= 0 && this.counts[index] > 0) {
+            this.counts[index]--;
+            this.total--;
+        }
+    }
+
+    /**
+     * Record that a lower-level item changed its value.
+     *
+     * @param oldStatus the value the item was last counted with, or null if it
+     *        was not counted yet
+     * @param newStatus the new value of the item, or null if it should no
+     *        longer be counted
+     */
+    public synchronized void replace(OperationStatus.Enumerated oldStatus, OperationStatus.Enumerated newStatus) {
+        this.remove(oldStatus);
+        this.add(newStatus);
+    }
+
+    /**
+     * Forget all the lower-level items.
+     */
+    public synchronized void clear() {
+        for (int i = 0; i < this.counts.length; i++) {
+            this.counts[i] = 0;
+        }
+        this.total = 0;
+    }
+
+    /**
+     * @return the number of lower-level items being counted
+     */
+    public synchronized int size() {
+        return(this.total);
+    }
+
+    /**
+     * @param status one of the <code>OperationStatus.Enumerated</code> values
+     * @return the number of lower-level items that have the value
+     */
+    public synchronized int getCount(OperationStatus.Enumerated status) {
+        int index = indexOf(status);
+        return(index < 0 ? 0 : this.counts[index]);
+    }
+
+    /**
+     * Get the aggregated value of the lower-level items. If they all have the
+     * same value of up, down or unknown, that is the result. Any other mix is
+     * partial.
+     *
+     * @return the aggregated value
+     */
+    public synchronized OperationStatus.Enumerated getStatus() {
+        if (this.total == 0) {
+            return(this.emptyStatus);
+        }
+        for (int i = 0; i < VALUES.length; i++) {
+            if (this.counts[i] == this.total && VALUES[i] != OperationStatus.Enumerated.PARTIAL) {
+                return(VALUES[i]);
+            }
+        }
+        return(OperationStatus.Enumerated.PARTIAL);
+    }
+
+    public synchronized String toString() {
+        StringBuffer result = new StringBuffer("[OperationStatusRollup "); //$NON-NLS-1$
+        result.append(this.getStatus());
+        for (int i = 0; i < VALUES.length; i++) {
+            result.append(" ").append(VALUES[i]).append("=").append(this.counts[i]); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        result.append("]"); //$NON-NLS-1$
+        return(result.toString());
+    }
+
+    private static int indexOf(OperationStatus.Enumerated status) {
+        if (status == null) {
+            return(-1);
+        }
+        for (int i = 0; i < VALUES.length; i++) {
+            if (VALUES[i].equals(status)) {
+                return(i);
+            }
+        }
+        return(-1);
+    }
+}
@@ -45,24 +45,31 @@ class PackageInfo extends AbstractPackageInfo {
     	return(instance);
     }
 
+	@SuppressWarnings("deprecation")
 	private PackageInfo() {
 		super();
 		// make sure this list is complete for this package
 		this.add(AbstractFactory.class);
 		this.add(AbstractPackageInfo.class);
+		this.add(CommandMetrics.class);
 		this.add(ComponentInfo.class);
 		this.add(Constants.class);
 		this.add(Credential.class);
-        this.add(DeviceLogger_ClientThread.class);
+        this.add(DeviceLogConnection.class);
+        this.add(DeviceLogFiles.class);
         this.add(DeviceLogger.class);
+        this.add(DeviceLogger_ClientThread.class);
 		this.add(DeviceType.class);
 		this.add(DMgrException.class);
+		this.add(FeatureSet.class);
         this.add(Messages.class);
 		this.add(ModelType.class);
 		this.add(OperationStatus.class);
+		this.add(OperationStatusRollup.class);
 		this.add(PackageInfo.class);
 		this.add(StringCollection.class);
-		// TODO: need to add DeviceLogger_ClientThread and DeviceLogger
+		this.add(TaskMetrics.class);
+		this.add(ThreadExecutionMode.class);
 	}
 
 	protected Field getDeclaredField(String fieldName, Class cl) 
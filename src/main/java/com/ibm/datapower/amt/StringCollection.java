@@ -16,6 +16,7 @@
 
 package com.ibm.datapower.amt;
 
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Vector;
 
@@ -33,7 +34,9 @@ import java.util.Vector;
  */
 //* Created on Aug 16, 2006
 public class StringCollection {
-    private Vector list = null;
+    private Vector<String> list = null;
+    /* the contents as a FeatureSet, made when needed and dropped on each change */
+    private FeatureSet featureSet = null;
 
     /**
      * A representation of any empty collection. This member is available
@@ -52,7 +55,7 @@ public class StringCollection {
      * Create a new collection of Strings. The collection is empty.
      */
     public StringCollection() {
-        this.list = new Vector();
+        this.list = new Vector<String>();
     }
 
     /**
@@ -62,7 +65,7 @@ public class StringCollection {
      * @param array the initial contents for the collection.
      */
     public StringCollection(String[] array) {
-        this.list = new Vector();
+        this.list = new Vector<String>();
         if (array != null) {
             for (int i = 0; i < array.length; i++) {
                 if (array[i] == null) {
@@ -83,7 +86,7 @@ public class StringCollection {
      * @param clonable the original collection to make a copy (clone) of.
      */
     public StringCollection(StringCollection clonable) {
-        this.list = new Vector();
+        this.list = new Vector<String>();
         this.list.addAll(clonable.list);
     }
 
@@ -100,22 +103,17 @@ public class StringCollection {
      */
     public StringCollection(StringCollection collection1,
             StringCollection collection2) {
-        this.list = new Vector();
-        if (collection1 != null) {
-            Iterator iterator = collection1.list.iterator();
-            while (iterator.hasNext()) {
-                String element = (String) iterator.next();
-                if (!this.contains(element)) {
-                    this.add(element);
-                }
-            }
-        }
-        if (collection2 != null) {
-            Iterator iterator = collection2.list.iterator();
-            while (iterator.hasNext()) {
-                String element = (String) iterator.next();
-                if (!this.contains(element)) {
-                    this.add(element);
+        this.list = new Vector<String>();
+        HashSet<String> seen = new HashSet<String>();
+        StringCollection[] collections = { collection1, collection2 };
+        for (int c = 0; c < collections.length; c++) {
+            if (collections[c] != null) {
+                Iterator<String> iterator = collections[c].list.iterator();
+                while (iterator.hasNext()) {
+                    String element = iterator.next();
+                    if (seen.add(element)) {
+                        this.list.add(element);
+                    }
                 }
             }
         }
@@ -138,7 +136,7 @@ public class StringCollection {
      * @return the String at the specified index in the collection
      */
     public synchronized String get(int index) {
-        return ((String) this.list.get(index));
+        return (this.list.get(index));
     }
 
     /**
@@ -155,7 +153,7 @@ public class StringCollection {
         String ret_s = ""; //$NON-NLS-1$
         StringBuffer buf = new StringBuffer("");
         for (int i = 0; i < this.list.size(); i++) {
-            String s = (String) this.list.get(i);
+            String s = this.list.get(i);
             if (s.indexOf(delimiter) < 0) {
             	buf.append(s + delimiter); //ret_s = ret_s + s + delimiter;
             } else {
@@ -198,6 +196,7 @@ public class StringCollection {
                 return;
             }
             this.list.add(string);
+            this.featureSet = null;
         }
     }
 
@@ -211,6 +210,7 @@ public class StringCollection {
         if (this != EMPTY) {
             if (this.contains(string)) {
                 this.list.remove(string);
+                this.featureSet = null;
             }
         }
     }
@@ -226,6 +226,10 @@ public class StringCollection {
      * @return true if the same contents were found, false otherwise
      */
     public synchronized boolean contains(String target) {
+        if (this.featureSet != null) {
+            return (this.featureSet.contains(target));
+        }
+        // don't make the set here, callers often add after a miss
         boolean result = false;
         for (int i = 0; i < this.list.size(); i++) {
             if (this.list.get(i).equals(target)) {
@@ -236,6 +240,20 @@ public class StringCollection {
         return (result);
     }
 
+    /**
+     * Get the contents of this collection as an immutable set. The set is
+     * remembered until this collection is next modified, so repeated
+     * comparisons of an unchanged collection do not scan it again.
+     * 
+     * @return the Strings of this collection as a set, without duplicates
+     */
+    public synchronized FeatureSet toFeatureSet() {
+        if (this.featureSet == null) {
+            this.featureSet = FeatureSet.valueOf(this.list.toArray(new String[this.list.size()]));
+        }
+        return (this.featureSet);
+    }
+
     /**
      * Check if the two collections have the same content. It will walk through
      * each each String in this collection and verify that the exact String is
@@ -251,31 +269,40 @@ public class StringCollection {
      *            <code>this</code>.
      * @return true if the two collections are equivalent, false otherwise.
      */
-    public synchronized boolean equals(Object that) {
+    public boolean equals(Object that) {
     	if(!(that instanceof StringCollection)) return false;
     	
     	StringCollection otherStringCollection = (StringCollection) that;
         /*
-         * This method is synchronized because we don't want other threads
-         * adding Strings to the collection in the middle of this comparison.
+         * Each collection's size and set are read together under its own
+         * monitor, so other threads can't add Strings in the middle. The
+         * monitors are taken one after the other: holding this one while
+         * waiting for the other deadlocks when another thread compares the
+         * same two collections the other way around.
          */
-        if (this.size() != otherStringCollection.size()) {
-            return (false);
+        int size = 0;
+        FeatureSet features = null;
+        synchronized (this) {
+            size = this.list.size();
+            features = this.toFeatureSet();
         }
-        Iterator iterator = this.list.iterator();
-        while (iterator.hasNext()) {
-            String value = (String) iterator.next();
-            if (!otherStringCollection.contains(value)) {
-                return (false);
-            }
+        int otherSize = 0;
+        FeatureSet otherFeatures = null;
+        synchronized (otherStringCollection) {
+            otherSize = otherStringCollection.list.size();
+            otherFeatures = otherStringCollection.toFeatureSet();
         }
-        return (true);
+        if (size != otherSize) {
+            return (false);
+        }
+        // every String in this collection must be in the other one
+        return (otherFeatures.containsAll(features));
     }
     
     // Added for Findbugs
     public int hashCode(){
     	int hashCode = 0;
-    	for (Object entry : list)
+    	for (String entry : list)
 		{
 			hashCode += entry.hashCode();
 		}
@@ -295,16 +322,11 @@ public class StringCollection {
      * @return true if the first collection is a superset of the second
      *         collection, false otherwise.
      */
-    public synchronized boolean isSupersetOf(StringCollection that) {
+    public boolean isSupersetOf(StringCollection that) {
+        // one monitor at a time, as in equals(Object)
+        FeatureSet features = this.toFeatureSet();
         // make sure all elements of that are in this
-        Iterator iterator = that.list.iterator();
-        while (iterator.hasNext()) {
-            String value = (String) iterator.next();
-            if (!this.contains(value)) {
-                return (false);
-            }
-        }
-        return (true);
+        return (features.containsAll(that.toFeatureSet()));
     }
 
     /**
@@ -317,7 +339,7 @@ public class StringCollection {
     public synchronized String toString() {
         StringBuffer buf = new StringBuffer("StringCollection["); //String result = "StringCollection["; //$NON-NLS-1$
         for (int i = 0; i < this.list.size(); i++) {
-            String s = (String) this.list.get(i);
+            String s = this.list.get(i);
             if (s != null) {
                 if (s.length() == 0) {
                     buf.append("(empty)");// result += "(empty)"; //$NON-NLS-1$
@@ -350,7 +372,7 @@ public class StringCollection {
         String result = ""; //$NON-NLS-1$
         StringBuffer buf = new StringBuffer("");
         for (int i = 0; i < this.list.size(); i++) {
-            String element = (String) this.list.get(i);
+            String element = this.list.get(i);
             if (buf.length() > 0) {
             	buf.append(getDisplayName_SEPARATOR); //result += getDisplayName_SEPARATOR;
             }
@@ -0,0 +1,221 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latency counters for a stream of background tasks, such as heartbeats or
+ * domain synchronizations. For each task the time spent waiting to start
+ * (queue latency) and the time spent running are recorded. All methods are
+ * thread-safe and never block.
+ * <p>
+ * A producer calls {@link #taskSubmitted()} and keeps the returned timestamp
+ * with the task. The thread that runs the task passes it to
+ * {@link #taskStarted(long)}, and the returned timestamp to
+ * {@link #taskFinished(long)} when the task is done.
+ */
+public class TaskMetrics {
+    public static final String COPYRIGHT_2009_2013 = Constants.COPYRIGHT_2009_2013;
+
+    private final String name;
+    private final AtomicLong submitted = new AtomicLong();
+    private final AtomicLong started = new AtomicLong();
+    private final AtomicLong discarded = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong totalQueueNanos = new AtomicLong();
+    private final AtomicLong maxQueueNanos = new AtomicLong();
+    private final AtomicLong totalRunNanos = new AtomicLong();
+    private final AtomicLong maxRunNanos = new AtomicLong();
+
+    /**
+     * Create a new set of counters.
+     *
+     * @param name a short description of the tasks being measured, used by
+     *        {@link #toString()}
+     */
+    public TaskMetrics(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Record that a task was queued.
+     *
+     * @return the timestamp to pass to {@link #taskStarted(long)}
+     */
+    public long taskSubmitted() {
+        this.submitted.incrementAndGet();
+        return(System.nanoTime());
+    }
+
+    /**
+     * Record that a task started running.
+     *
+     * @param submittedAt the value returned by {@link #taskSubmitted()}
+     * @return the timestamp to pass to {@link #taskFinished(long)}
+     */
+    public long taskStarted(long submittedAt) {
+        long now = System.nanoTime();
+        this.started.incrementAndGet();
+        long waited = now - submittedAt;
+        this.totalQueueNanos.addAndGet(waited);
+        updateMax(this.maxQueueNanos, waited);
+        return(now);
+    }
+
+    /**
+     * Record that a queued task was thrown away without being started.
+     */
+    public void taskDiscarded() {
+        this.discarded.incrementAndGet();
+    }
+
+    /**
+     * Record that a task was not queued because the queue was full. It is not
+     * counted as submitted.
+     */
+    public void taskRejected() {
+        this.rejected.incrementAndGet();
+    }
+
+    /**
+     * Record that a task was not queued because an equal task was already
+     * waiting, which will run in its place. It is not counted as submitted.
+     */
+    public void taskCoalesced() {
+        this.coalesced.incrementAndGet();
+    }
+
+    /**
+     * Record that a task finished, successfully or not.
+     *
+     * @param startedAt the value returned by {@link #taskStarted(long)}
+     */
+    public void taskFinished(long startedAt) {
+        long ran = System.nanoTime() - startedAt;
+        this.completed.incrementAndGet();
+        this.totalRunNanos.addAndGet(ran);
+        updateMax(this.maxRunNanos, ran);
+    }
+
+    /**
+     * @return the number of tasks queued since these counters were created
+     */
+    public long getSubmittedCount() {
+        return(this.submitted.get());
+    }
+
+    /**
+     * @return the number of tasks that have completed
+     */
+    public long getCompletedCount() {
+        return(this.completed.get());
+    }
+
+    /**
+     * @return the number of tasks queued but not yet started
+     */
+    public long getWaitingCount() {
+        return(Math.max(0, this.submitted.get() - this.started.get() - this.discarded.get()));
+    }
+
+    /**
+     * @return the number of tasks that were queued but thrown away without
+     *         being started
+     */
+    public long getDiscardedCount() {
+        return(this.discarded.get());
+    }
+
+    /**
+     * @return the number of tasks that were refused because the queue was full
+     */
+    public long getRejectedCount() {
+        return(this.rejected.get());
+    }
+
+    /**
+     * @return the number of tasks that were folded into an equal task already
+     *         waiting
+     */
+    public long getCoalescedCount() {
+        return(this.coalesced.get());
+    }
+
+    /**
+     * @return the number of tasks currently running
+     */
+    public long getRunningCount() {
+        return(Math.max(0, this.started.get() - this.completed.get()));
+    }
+
+    /**
+     * @return the average time in milliseconds a task waited before it
+     *         started, or 0 if no task has started
+     */
+    public long getAverageQueueLatencyMS() {
+        long count = this.started.get();
+        return(count == 0 ? 0 : this.totalQueueNanos.get() / count / 1000000L);
+    }
+
+    /**
+     * @return the longest time in milliseconds a task waited before it started
+     */
+    public long getMaxQueueLatencyMS() {
+        return(this.maxQueueNanos.get() / 1000000L);
+    }
+
+    /**
+     * @return the average time in milliseconds a task ran, or 0 if no task has
+     *         completed
+     */
+    public long getAverageRunTimeMS() {
+        long count = this.completed.get();
+        return(count == 0 ? 0 : this.totalRunNanos.get() / count / 1000000L);
+    }
+
+    /**
+     * @return the longest time in milliseconds a task ran
+     */
+    public long getMaxRunTimeMS() {
+        return(this.maxRunNanos.get() / 1000000L);
+    }
+
+    public String toString() {
+        return(this.name + "[submitted=" + getSubmittedCount() + //$NON-NLS-1$
+                ", waiting=" + getWaitingCount() + //$NON-NLS-1$
+                ", running=" + getRunningCount() + //$NON-NLS-1$
+                ", completed=" + getCompletedCount() + //$NON-NLS-1$
+                ", discarded=" + getDiscardedCount() + //$NON-NLS-1$
+                ", rejected=" + getRejectedCount() + //$NON-NLS-1$
+                ", coalesced=" + getCoalescedCount() + //$NON-NLS-1$
+                ", avgQueueMS=" + getAverageQueueLatencyMS() + //$NON-NLS-1$
+                ", maxQueueMS=" + getMaxQueueLatencyMS() + //$NON-NLS-1$
+                ", avgRunMS=" + getAverageRunTimeMS() + //$NON-NLS-1$
+                ", maxRunMS=" + getMaxRunTimeMS() + "]"); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.ibm.datapower.amt.clientAPI.Configuration;
+import com.ibm.datapower.amt.logging.LoggerHelper;
+
+/**
+ * Creates the threads that run heartbeat, domain synchronization and device
+ * event handling work, according to
+ * {@link Configuration#KEY_THREAD_EXECUTION_MODE}.
+ * <p>
+ * In <code>platform</code> mode ordinary daemon threads are created, as they
+ * always have been. In <code>virtual</code> mode each task gets its own virtual
+ * thread. Virtual threads are looked up reflectively so that this code still
+ * compiles and runs on JDKs that do not have them. On such a JDK
+ * <code>virtual</code> falls back to <code>platform</code>, and a warning is
+ * logged the first time that happens.
+ */
+public final class ThreadExecutionMode {
+    public static final String COPYRIGHT_2009_2013 = Constants.COPYRIGHT_2009_2013;
+    protected final static String CLASS_NAME = ThreadExecutionMode.class.getName();
+    protected final static Logger logger = Logger.getLogger(CLASS_NAME);
+    static
+    {
+        LoggerHelper.addLoggerToGroup(logger, "WAMT"); //$NON-NLS-1$
+    }
+
+    /**
+     * Value of {@link Configuration#KEY_THREAD_EXECUTION_MODE} that selects
+     * ordinary (platform) threads.
+     */
+    public static final String MODE_PLATFORM = "platform"; //$NON-NLS-1$
+
+    /**
+     * Value of {@link Configuration#KEY_THREAD_EXECUTION_MODE} that selects
+     * virtual threads.
+     */
+    public static final String MODE_VIRTUAL = "virtual"; //$NON-NLS-1$
+
+    /* the class of the platform threads that run virtual threads */
+    private static final String CARRIER_THREAD_CLASS = "jdk.internal.misc.CarrierThread"; //$NON-NLS-1$
+
+    private static final Method OF_VIRTUAL;
+    private static final Method BUILDER_NAME;
+    private static final Method BUILDER_UNSTARTED;
+    static {
+        Method ofVirtual = null;
+        Method name = null;
+        Method unstarted = null;
+        try {
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder"); //$NON-NLS-1$
+            ofVirtual = Thread.class.getMethod("ofVirtual"); //$NON-NLS-1$
+            name = builderClass.getMethod("name", String.class); //$NON-NLS-1$
+            unstarted = builderClass.getMethod("unstarted", Runnable.class); //$NON-NLS-1$
+        } catch (Exception e) {
+            // this JDK has no virtual threads
+            ofVirtual = null;
+        }
+        OF_VIRTUAL = ofVirtual;
+        BUILDER_NAME = name;
+        BUILDER_UNSTARTED = unstarted;
+    }
+
+    private static volatile boolean warnedUnsupported = false;
+
+    private ThreadExecutionMode() {
+        // static methods only
+    }
+
+    /**
+     * Check if the running JDK can create virtual threads.
+     *
+     * @return true if virtual threads are available
+     */
+    public static boolean isVirtualThreadSupported() {
+        return(OF_VIRTUAL != null);
+    }
+
+    /**
+     * Check if new tasks should be run on virtual threads. This is true only
+     * when the configuration asks for <code>virtual</code> and the JDK
+     * supports it.
+     *
+     * @return true if {@link #newThread(Runnable, String)} will create virtual
+     *         threads
+     */
+    public static boolean isVirtual() {
+        final String METHOD_NAME = "isVirtual"; //$NON-NLS-1$
+        String mode = Configuration.get(Configuration.KEY_THREAD_EXECUTION_MODE);
+        if (!MODE_VIRTUAL.equalsIgnoreCase(mode)) {
+            return(false);
+        }
+        if (!isVirtualThreadSupported()) {
+            if (!warnedUnsupported) {
+                warnedUnsupported = true;
+                logger.logp(Level.WARNING, CLASS_NAME, METHOD_NAME,
+                        "Virtual threads were requested but are not available in this JDK, using platform threads"); //$NON-NLS-1$
+            }
+            return(false);
+        }
+        return(true);
+    }
+
+    /**
+     * Create an unstarted thread for a task. The caller is responsible for
+     * invoking {@link Thread#start()}.
+     *
+     * @param task the work the thread will run
+     * @param name the name of the thread
+     * @return a virtual thread if {@link #isVirtual()} is true, otherwise a
+     *         platform daemon thread
+     */
+    public static Thread newThread(Runnable task, String name) {
+        final String METHOD_NAME = "newThread"; //$NON-NLS-1$
+        if (isVirtual()) {
+            try {
+                Object builder = OF_VIRTUAL.invoke(null);
+                builder = BUILDER_NAME.invoke(builder, new Object[] {name});
+                return((Thread) BUILDER_UNSTARTED.invoke(builder, new Object[] {task}));
+            } catch (Exception e) {
+                logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
+                        "Unable to create a virtual thread, using a platform thread", e); //$NON-NLS-1$
+            }
+        }
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return(thread);
+    }
+
+    /**
+     * Change the size of a pool of platform threads whose core and maximum
+     * sizes are the same. The core size may never exceed the maximum size, so
+     * a growing pool gets its new maximum first and a shrinking pool its new
+     * core size first. Idle threads above the new size stop right away, busy
+     * ones when their current task ends.
+     *
+     * @param pool the pool to resize
+     * @param size the new number of threads, at least 1
+     */
+    public static void resizePool(ThreadPoolExecutor pool, int size) {
+        if (size > pool.getMaximumPoolSize()) {
+            pool.setMaximumPoolSize(size);
+            pool.setCorePoolSize(size);
+        } else {
+            pool.setCorePoolSize(size);
+            pool.setMaximumPoolSize(size);
+        }
+    }
+
+    /**
+     * Get the number of carrier threads the JDK has started to run virtual
+     * threads. The JDK starts them as virtual threads need them, up to its
+     * <code>jdk.virtualThreadScheduler.parallelism</code>, so the live ones
+     * are counted rather than that setting reported.
+     *
+     * @return the number of live carrier threads, or 0 when tasks do not run
+     *         on virtual threads
+     */
+    public static int getCarrierThreadCount() {
+        if (!isVirtual()) {
+            return(0);
+        }
+        ThreadGroup root = Thread.currentThread().getThreadGroup();
+        while (root.getParent() != null) {
+            root = root.getParent();
+        }
+        Thread[] threads = new Thread[root.activeCount() + 16];
+        int live = root.enumerate(threads, true);
+        int result = 0;
+        for (int i = 0; i < live; i++) {
+            if (CARRIER_THREAD_CLASS.equals(threads[i].getClass().getName())) {
+                result++;
+            }
+        }
+        return(result);
+    }
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.amp;
+
+import java.util.concurrent.Future;
+
+import com.ibm.datapower.amt.Constants;
+import com.ibm.datapower.amt.clientAPI.DeploymentPolicy;
+
+/**
+ * An asynchronous view of the most frequently used {@link Commands}. Each
+ * method returns immediately with a {@link Future}; the device call itself is
+ * run on a small pool of threads shared by all devices. The caller is never
+ * blocked while a request waits for a free thread or for its device.
+ * <p>
+ * Two limits are applied to every call:
+ * <ul>
+ * <li>No more than
+ * {@link com.ibm.datapower.amt.clientAPI.Configuration#KEY_ASYNC_COMMANDS_MAX_PER_DEVICE}
+ * calls are in flight against the same device. Further calls for that device
+ * are held in a FIFO and started in submission order.</li>
+ * <li>A running call that exceeds
+ * {@link com.ibm.datapower.amt.clientAPI.Configuration#KEY_ASYNC_COMMANDS_TIMEOUT}
+ * completes its <code>Future</code> with an {@link AMPIOException}.</li>
+ * </ul>
+ * <p>
+ * When a call fails, {@link Future#get()} throws an
+ * {@link java.util.concurrent.ExecutionException} whose cause is the exception
+ * that the matching method in <code>Commands</code> would have thrown.
+ * <p>
+ * Get an instance using {@link CommandFactory#getAsyncCommands(Commands)}.
+ *
+ * @see Commands
+ */
+public interface AsyncCommands {
+    public static final String COPYRIGHT_2009_2013 = Constants.COPYRIGHT_2009_2013;
+
+    /**
+     * Get the synchronous implementation that this object dispatches to.
+     *
+     * @return the wrapped <code>Commands</code> implementation
+     */
+    public Commands getCommands();
+
+    /**
+     * @see Commands#pingDevice(DeviceContext, String)
+     */
+    public Future<PingResponse> pingDevice(DeviceContext device, String subscriptionID);
+
+    /**
+     * @see Commands#getDeviceMetaInfo(DeviceContext)
+     */
+    public Future<DeviceMetaInfo> getDeviceMetaInfo(DeviceContext device);
+
+    /**
+     * @see Commands#getDomainList(DeviceContext)
+     */
+    public Future<String[]> getDomainList(DeviceContext device);
+
+    /**
+     * @see Commands#getDomain(DeviceContext, String)
+     */
+    public Future<byte[]> getDomain(DeviceContext device, String domainName);
+
+    /**
+     * @see Commands#getDomainStatus(DeviceContext, String)
+     */
+    public Future<DomainStatus> getDomainStatus(DeviceContext device, String domainName);
+
+    /**
+     * The value of the returned <code>Future</code> is always
+     * <code>null</code>.
+     *
+     * @see Commands#setDomain(DeviceContext, String, byte[], DeploymentPolicy)
+     */
+    public Future<Void> setDomain(DeviceContext device, String domainName,
+                                  byte[] domainImage, DeploymentPolicy policy);
+
+    /**
+     * The value of the returned <code>Future</code> is always
+     * <code>null</code>.
+     *
+     * @see Commands#setFirmware(DeviceContext, byte[], boolean)
+     */
+    public Future<Void> setFirmware(DeviceContext device, byte[] firmwareImage,
+                                    boolean acceptLicense);
+
+    /**
+     * @see Commands#isDomainDifferent(String, byte[], byte[], DeviceContext)
+     */
+    public Future<Boolean> isDomainDifferent(String domainName, byte[] configImage1,
+                                             byte[] configImage2, DeviceContext device);
+
+    /**
+     * Get the number of calls that have been submitted but not yet started,
+     * summed over all devices.
+     *
+     * @return the number of queued calls
+     */
+    public int getQueuedCount();
+
+    /**
+     * Get the number of calls currently running, summed over all devices.
+     *
+     * @return the number of running calls
+     */
+    public int getRunningCount();
+}
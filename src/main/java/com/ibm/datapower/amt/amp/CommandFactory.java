@@ -16,12 +16,15 @@
 
 package com.ibm.datapower.amt.amp;
 
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import com.ibm.datapower.amt.AbstractFactory;
 import com.ibm.datapower.amt.Constants;
 import com.ibm.datapower.amt.DMgrException;
 import com.ibm.datapower.amt.Messages;
+import com.ibm.datapower.amt.amp.defaultCommon.AsyncCommandsImpl;
 import com.ibm.datapower.amt.logging.LoggerHelper;
 
 /**
@@ -53,6 +56,9 @@ public class CommandFactory extends AbstractFactory {
         LoggerHelper.addLoggerToGroup(logger, "WAMT"); //$NON-NLS-1$
     }
 
+    private static final Map<Commands, AsyncCommands> asyncInstances = 
+        new IdentityHashMap<Commands, AsyncCommands>();
+
     private CommandFactory() throws DMgrException {
         super();
     }
@@ -100,4 +106,37 @@ public class CommandFactory extends AbstractFactory {
         return(instance);
     }
     
+    /**
+     * Get the asynchronous facade for a <code>Commands</code> implementation.
+     * 
+     * @param commands the synchronous implementation, typically obtained from
+     *        {@link #getCommands(String, String)}
+     * @return an <code>AsyncCommands</code> that dispatches to
+     *         <code>commands</code>. The return value is cached, so additional
+     *         calls with the same <code>commands</code> instance return the same
+     *         facade and share its per-device limits.
+     */
+    public static AsyncCommands getAsyncCommands(Commands commands) {
+        final String METHOD_NAME = "getAsyncCommands"; //$NON-NLS-1$
+        logger.entering(CLASS_NAME, METHOD_NAME);
+        AsyncCommands instance = null;
+        synchronized (asyncInstances) {
+            instance = asyncInstances.get(commands);
+            if (instance == null) {
+                instance = new AsyncCommandsImpl(commands);
+                asyncInstances.put(commands, instance);
+            }
+        }
+        logger.exiting(CLASS_NAME, METHOD_NAME);
+        return(instance);
+    }
+    
+    /**
+     * Stop the threads used by all <code>AsyncCommands</code> instances. This
+     * is invoked during {@link com.ibm.datapower.amt.clientAPI.Manager#shutdown()}.
+     */
+    public static void shutdownAsyncCommands() {
+        AsyncCommandsImpl.shutdownSharedPool();
+    }
+    
 }
@@ -0,0 +1,465 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.amp;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.commons.codec.binary.Base64InputStream;
+
+import com.ibm.datapower.amt.Constants;
+import com.ibm.datapower.amt.Messages;
+import com.ibm.datapower.amt.logging.LoggerHelper;
+
+/**
+ * Compares two exported configuration images of a domain on the manager,
+ * without sending them to a device. The images are the exports returned by
+ * {@link Commands#getDomain(String, DeviceContext)}, which are base64 encoded,
+ * as they are kept in the Blob of a DomainVersion. Plain XML is read as is.
+ * <p>
+ * The images are streamed, never loaded whole. Configuration objects (the
+ * children of <code>configuration</code>) are indexed by class and name, and
+ * files (the children of <code>files</code>) by file name. The first pass keeps
+ * one fingerprint per object of the first image. The second pass streams the
+ * second image and keeps the properties only of objects whose fingerprint
+ * differs. A third pass over the first image, made only if something was
+ * modified, collects the old properties of those objects. Memory use is
+ * therefore bounded by the number of objects and the size of the changed
+ * objects, not by the size of the images; file contents in particular are only
+ * fingerprinted.
+ * <p>
+ * The <code>export-details</code> section and any other top-level section
+ * describe when and where the export was made rather than the configuration,
+ * and are ignored.
+ */
+public class DomainDiffEngine {
+    public static final String COPYRIGHT_2009_2013 = Constants.COPYRIGHT_2009_2013;
+
+    protected final static String CLASS_NAME = DomainDiffEngine.class.getName();
+    protected final static Logger logger = Logger.getLogger(CLASS_NAME);
+    static {
+        LoggerHelper.addLoggerToGroup(logger, "WAMT"); //$NON-NLS-1$
+    }
+
+    private static final String CONFIGURATION_ELEMENT = "configuration"; //$NON-NLS-1$
+    private static final String FILES_ELEMENT = "files"; //$NON-NLS-1$
+    private static final String NAME_ATTRIBUTE = "name"; //$NON-NLS-1$
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /**
+     * A configuration image that can be read more than once.
+     */
+    public interface ImageSource {
+        /**
+         * Open a new stream positioned at the start of the image. The caller
+         * closes it.
+         *
+         * @return a stream of the image
+         * @throws IOException the image could not be opened
+         */
+        InputStream open() throws IOException;
+    }
+
+    private DomainDiffEngine() {
+        // static methods only
+    }
+
+    /**
+     * Compare two configuration images held in memory.
+     *
+     * @param configImage1 the first (older) image
+     * @param configImage2 the second (newer) image
+     * @return the changes that turn the first image into the second
+     * @throws AMPException one of the images is not an XML configuration export
+     */
+    public static DomainDifferences compare(final byte[] configImage1, final byte[] configImage2) throws AMPException {
+        try {
+            return(compare(new ImageSource() {
+                public InputStream open() {
+                    return(new ByteArrayInputStream(configImage1));
+                }
+            }, new ImageSource() {
+                public InputStream open() {
+                    return(new ByteArrayInputStream(configImage2));
+                }
+            }));
+        } catch (IOException e) {
+            // not possible with byte arrays
+            throw new AMPException(e);
+        }
+    }
+
+    /**
+     * Compare two configuration images, streaming each from its source.
+     *
+     * @param image1 the first (older) image, read twice if any object was
+     *        modified
+     * @param image2 the second (newer) image, read once
+     * @return the changes that turn the first image into the second
+     * @throws IOException one of the images could not be read
+     * @throws AMPException one of the images is not an XML configuration export
+     */
+    public static DomainDifferences compare(ImageSource image1, ImageSource image2) throws IOException, AMPException {
+        final String METHOD_NAME = "compare"; //$NON-NLS-1$
+        logger.entering(CLASS_NAME, METHOD_NAME);
+        DomainDifferences result = new DomainDifferences();
+
+        // pass 1: fingerprint every object of the first image
+        final Map<String, Long> index1 = new LinkedHashMap<String, Long>();
+        int count1 = read(image1, new ObjectHandler() {
+            public void object(String className, String name, long fingerprint, Map<String, String> properties) {
+                String key = key(className, name);
+                if (!index1.containsKey(key)) {
+                    index1.put(key, Long.valueOf(fingerprint));
+                }
+            }
+        });
+
+        // pass 2: stream the second image, keeping only what differs
+        final List<String[]> order = new ArrayList<String[]>();
+        final Map<String, Map<String, String>> modified = new HashMap<String, Map<String, String>>();
+        final Set<String> seen = new HashSet<String>();
+        int count2 = read(image2, new ObjectHandler() {
+            public void object(String className, String name, long fingerprint, Map<String, String> properties) {
+                String key = key(className, name);
+                if (!seen.add(key)) {
+                    return;
+                }
+                Long fingerprint1 = index1.get(key);
+                if (fingerprint1 == null) {
+                    order.add(new String[] {className, name, null});
+                } else if (fingerprint1.longValue() != fingerprint) {
+                    order.add(new String[] {className, name, key});
+                    modified.put(key, properties);
+                }
+            }
+        });
+
+        // pass 3: collect the old properties of the modified objects
+        final Map<String, Map<String, String>> original = new HashMap<String, Map<String, String>>();
+        if (!modified.isEmpty()) {
+            read(image1, new ObjectHandler() {
+                public void object(String className, String name, long fingerprint, Map<String, String> properties) {
+                    String key = key(className, name);
+                    if (modified.containsKey(key) && !original.containsKey(key)) {
+                        original.put(key, properties);
+                    }
+                }
+            });
+        }
+
+        for (int i = 0; i < order.size(); i++) {
+            String[] entry = order.get(i);
+            if (entry[2] == null) {
+                result.add(new DomainDifferences.ObjectChange(DomainDifferences.ADDED, entry[0], entry[1],
+                        new ArrayList<DomainDifferences.PropertyChange>()));
+            } else {
+                result.add(new DomainDifferences.ObjectChange(DomainDifferences.MODIFIED, entry[0], entry[1],
+                        diffProperties(original.get(entry[2]), modified.get(entry[2]))));
+            }
+        }
+        Iterator<String> keys = index1.keySet().iterator();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            if (!seen.contains(key)) {
+                int separator = key.indexOf('\u0000');
+                result.add(new DomainDifferences.ObjectChange(DomainDifferences.REMOVED, key.substring(0, separator),
+                        key.substring(separator + 1), new ArrayList<DomainDifferences.PropertyChange>()));
+            }
+        }
+        result.setObjectCounts(count1, count2);
+
+        logger.exiting(CLASS_NAME, METHOD_NAME, result);
+        return(result);
+    }
+
+    /**
+     * Write the plain text report of a change set to a temporary file, see
+     * {@link DomainDifferences#writeReportFile(String)}.
+     *
+     * @param domainName the domain that was compared, used as the title
+     * @param differences the result of a comparison
+     * @return the URL of the report file
+     * @throws AMPIOException the file could not be written
+     */
+    public static URL writeReport(String domainName, DomainDifferences differences) throws AMPIOException {
+        final String METHOD_NAME = "writeReport"; //$NON-NLS-1$
+        try {
+            return(differences.writeReportFile(domainName));
+        } catch (IOException e) {
+            String message = Messages.getString("wamt.amp.DomainDiffEngine.reportErr", domainName); //$NON-NLS-1$
+            AMPIOException ampException = new AMPIOException(message, e, "wamt.amp.DomainDiffEngine.reportErr", domainName); //$NON-NLS-1$
+            logger.throwing(CLASS_NAME, METHOD_NAME, ampException);
+            throw ampException;
+        }
+    }
+
+    private static String key(String className, String name) {
+        return(className + '\u0000' + name);
+    }
+
+    private static List<DomainDifferences.PropertyChange> diffProperties(Map<String, String> properties1,
+            Map<String, String> properties2) {
+        List<DomainDifferences.PropertyChange> result = new ArrayList<DomainDifferences.PropertyChange>();
+        if (properties1 == null) {
+            properties1 = new HashMap<String, String>();
+        }
+        Iterator<Map.Entry<String, String>> iterator = properties2.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, String> entry = iterator.next();
+            String value1 = properties1.get(entry.getKey());
+            if (!entry.getValue().equals(value1)) {
+                result.add(new DomainDifferences.PropertyChange(entry.getKey(), value1, entry.getValue()));
+            }
+        }
+        iterator = properties1.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, String> entry = iterator.next();
+            if (!properties2.containsKey(entry.getKey())) {
+                result.add(new DomainDifferences.PropertyChange(entry.getKey(), entry.getValue(), null));
+            }
+        }
+        return(result);
+    }
+
+    private interface ObjectHandler {
+        void object(String className, String name, long fingerprint, Map<String, String> properties);
+    }
+
+    /*
+     * Stream one image and report each object to the handler. Only the
+     * properties of the object currently being read are held in memory.
+     */
+    private static int read(ImageSource image, ObjectHandler handler) throws IOException, AMPException {
+        final String METHOD_NAME = "read"; //$NON-NLS-1$
+        int count = 0;
+        InputStream inputStream = decode(image.open());
+        XMLStreamReader reader = null;
+        try {
+            XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+            factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+            reader = factory.createXMLStreamReader(inputStream);
+
+            int depth = 0;
+            String section = null;
+            while (reader.hasNext()) {
+                int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    depth++;
+                    if (depth == 2) {
+                        section = reader.getLocalName();
+                    } else if (depth == 3) {
+                        if (CONFIGURATION_ELEMENT.equals(section)) {
+                            readObject(reader, reader.getLocalName(), handler);
+                            count++;
+                            depth--;
+                        } else if (FILES_ELEMENT.equals(section)) {
+                            readFile(reader, handler);
+                            count++;
+                            depth--;
+                        }
+                    }
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    depth--;
+                }
+            }
+        } catch (XMLStreamException e) {
+            Object[] args = new Object[] {e.getMessage()};
+            String message = Messages.getString("wamt.amp.DomainDiffEngine.parseErr", args); //$NON-NLS-1$
+            AMPException ampException = new AMPException(message, e, "wamt.amp.DomainDiffEngine.parseErr", args); //$NON-NLS-1$
+            logger.throwing(CLASS_NAME, METHOD_NAME, ampException);
+            throw ampException;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    // ignore, the stream itself is closed below
+                }
+            }
+            inputStream.close();
+        }
+        logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME, "read " + count + " objects"); //$NON-NLS-1$ //$NON-NLS-2$
+        return(count);
+    }
+
+    /*
+     * An image that starts with a base64 character, rather than markup or a
+     * byte order mark, is decoded as it streams.
+     */
+    private static InputStream decode(InputStream inputStream) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(inputStream);
+        buffered.mark(1024);
+        int first = buffered.read();
+        for (int i = 1; (i < 1024) && (first >= 0) && Character.isWhitespace(first); i++) {
+            first = buffered.read();
+        }
+        buffered.reset();
+        boolean base64 = ((first >= 'A') && (first <= 'Z')) || ((first >= 'a') && (first <= 'z'))
+                || ((first >= '0') && (first <= '9')) || (first == '+') || (first == '/');
+        return(base64 ? new Base64InputStream(buffered) : buffered);
+    }
+
+    /*
+     * The reader is on the start element of a configuration object. On return
+     * it is on the matching end element.
+     */
+    private static void readObject(XMLStreamReader reader, String className, ObjectHandler handler) throws XMLStreamException {
+        String name = reader.getAttributeValue(null, NAME_ATTRIBUTE);
+        Map<String, String> properties = new LinkedHashMap<String, String>();
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String attribute = reader.getAttributeLocalName(i);
+            if (!NAME_ATTRIBUTE.equals(attribute)) {
+                properties.put("@" + attribute, reader.getAttributeValue(i)); //$NON-NLS-1$
+            }
+        }
+
+        // one frame per open property element
+        List<String> paths = new ArrayList<String>();
+        List<Map<String, Integer>> siblings = new ArrayList<Map<String, Integer>>();
+        List<StringBuilder> texts = new ArrayList<StringBuilder>();
+        List<boolean[]> hasChildren = new ArrayList<boolean[]>();
+        siblings.add(new HashMap<String, Integer>());
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                int top = paths.size();
+                if (top > 0) {
+                    hasChildren.get(top - 1)[0] = true;
+                }
+                String localName = reader.getLocalName();
+                Map<String, Integer> counts = siblings.get(top);
+                Integer previous = counts.get(localName);
+                int position = (previous == null) ? 1 : previous.intValue() + 1;
+                counts.put(localName, Integer.valueOf(position));
+                String path = (top == 0) ? localName : paths.get(top - 1) + "/" + localName; //$NON-NLS-1$
+                if (position > 1) {
+                    path += "[" + position + "]"; //$NON-NLS-1$ //$NON-NLS-2$
+                }
+                for (int i = 0; i < reader.getAttributeCount(); i++) {
+                    properties.put(path + "/@" + reader.getAttributeLocalName(i), reader.getAttributeValue(i)); //$NON-NLS-1$
+                }
+                paths.add(path);
+                siblings.add(new HashMap<String, Integer>());
+                texts.add(new StringBuilder());
+                hasChildren.add(new boolean[] {false});
+            } else if ((event == XMLStreamConstants.CHARACTERS) || (event == XMLStreamConstants.CDATA)) {
+                if (!texts.isEmpty()) {
+                    texts.get(texts.size() - 1).append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                }
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                int top = paths.size();
+                if (top == 0) {
+                    break;
+                }
+                String text = texts.remove(top - 1).toString().trim();
+                if (!hasChildren.remove(top - 1)[0] || (text.length() > 0)) {
+                    properties.put(paths.get(top - 1), text);
+                }
+                paths.remove(top - 1);
+                siblings.remove(top);
+            }
+        }
+        handler.object(className, (name == null) ? "" : name, fingerprint(properties), properties); //$NON-NLS-1$
+    }
+
+    /*
+     * The reader is on the start element of a file. Its contents are hashed
+     * as they stream past instead of being kept.
+     */
+    private static void readFile(XMLStreamReader reader, ObjectHandler handler) throws XMLStreamException {
+        String name = reader.getAttributeValue(null, NAME_ATTRIBUTE);
+        Map<String, String> properties = new LinkedHashMap<String, String>();
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            String attribute = reader.getAttributeLocalName(i);
+            if (!NAME_ATTRIBUTE.equals(attribute)) {
+                properties.put("@" + attribute, reader.getAttributeValue(i)); //$NON-NLS-1$
+            }
+        }
+        long contentHash = FNV_OFFSET_BASIS;
+        long contentLength = 0;
+        int depth = 0;
+        while (reader.hasNext()) {
+            int event = reader.next();
+            if (event == XMLStreamConstants.START_ELEMENT) {
+                depth++;
+            } else if (event == XMLStreamConstants.END_ELEMENT) {
+                if (depth == 0) {
+                    break;
+                }
+                depth--;
+            } else if ((event == XMLStreamConstants.CHARACTERS) || (event == XMLStreamConstants.CDATA)) {
+                char[] characters = reader.getTextCharacters();
+                int end = reader.getTextStart() + reader.getTextLength();
+                for (int i = reader.getTextStart(); i < end; i++) {
+                    char c = characters[i];
+                    // base64 content may be wrapped differently in each export
+                    if (!Character.isWhitespace(c)) {
+                        contentHash = (contentHash ^ c) * FNV_PRIME;
+                        contentLength++;
+                    }
+                }
+            }
+        }
+        properties.put(DomainDifferences.FILE_CONTENT_PROPERTY,
+                Long.toHexString(contentHash) + "/" + contentLength); //$NON-NLS-1$
+        handler.object(DomainDifferences.FILE_CLASS_NAME, (name == null) ? "" : name, //$NON-NLS-1$
+                fingerprint(properties), properties);
+    }
+
+    private static long fingerprint(Map<String, String> properties) {
+        long hash = FNV_OFFSET_BASIS;
+        Iterator<Map.Entry<String, String>> iterator = properties.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<String, String> entry = iterator.next();
+            hash = fingerprint(hash, entry.getKey());
+            hash = (hash ^ '=') * FNV_PRIME;
+            hash = fingerprint(hash, entry.getValue());
+            hash = (hash ^ '\n') * FNV_PRIME;
+        }
+        return(hash);
+    }
+
+    private static long fingerprint(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+        }
+        return(hash);
+    }
+}
@@ -0,0 +1,291 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.amp;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.ibm.datapower.amt.Constants;
+
+/**
+ * The change set between two configuration images of a domain, as computed by
+ * {@link DomainDiffEngine}. Each configuration object that was added, removed
+ * or modified is listed once. A modified object also lists the properties that
+ * changed, with their old and new values.
+ * <p>
+ * Objects are identified by their class and name. Files in the image are
+ * listed with the class {@link #FILE_CLASS_NAME} and their file name; a change
+ * to a file's contents is reported as a change of its
+ * {@link #FILE_CONTENT_PROPERTY} property, whose values are fingerprints
+ * rather than the contents themselves.
+ */
+public class DomainDifferences {
+    public static final String COPYRIGHT_2009_2013 = Constants.COPYRIGHT_2009_2013;
+
+    /**
+     * The class name used for files in the configuration image.
+     */
+    public static final String FILE_CLASS_NAME = "file"; //$NON-NLS-1$
+
+    /**
+     * The property name used for the contents of a file in the configuration
+     * image.
+     */
+    public static final String FILE_CONTENT_PROPERTY = "content"; //$NON-NLS-1$
+
+    /**
+     * The object exists only in the second image.
+     */
+    public static final int ADDED = 1;
+
+    /**
+     * The object exists only in the first image.
+     */
+    public static final int REMOVED = 2;
+
+    /**
+     * The object exists in both images with different properties.
+     */
+    public static final int MODIFIED = 3;
+
+    private final List<ObjectChange> changes = new ArrayList<ObjectChange>();
+    private int objectCount1 = 0;
+    private int objectCount2 = 0;
+
+    DomainDifferences() {
+    }
+
+    void add(ObjectChange change) {
+        this.changes.add(change);
+    }
+
+    void setObjectCounts(int objectCount1, int objectCount2) {
+        this.objectCount1 = objectCount1;
+        this.objectCount2 = objectCount2;
+    }
+
+    /**
+     * Check if the two images contain the same configuration.
+     *
+     * @return true if no object was added, removed or modified
+     */
+    public boolean isEmpty() {
+        return(this.changes.isEmpty());
+    }
+
+    /**
+     * Get the changed objects, in the order they appear in the images.
+     *
+     * @return an unmodifiable list of changes
+     */
+    public List<ObjectChange> getChanges() {
+        return(Collections.unmodifiableList(this.changes));
+    }
+
+    /**
+     * @return the number of objects in the first image
+     */
+    public int getObjectCount1() {
+        return(this.objectCount1);
+    }
+
+    /**
+     * @return the number of objects in the second image
+     */
+    public int getObjectCount2() {
+        return(this.objectCount2);
+    }
+
+    /**
+     * Get the number of changes of one kind.
+     *
+     * @param changeType one of {@link #ADDED}, {@link #REMOVED} or
+     *        {@link #MODIFIED}
+     * @return the number of objects with that kind of change
+     */
+    public int getCount(int changeType) {
+        int result = 0;
+        for (int i = 0; i < this.changes.size(); i++) {
+            if (this.changes.get(i).getChangeType() == changeType) {
+                result++;
+            }
+        }
+        return(result);
+    }
+
+    /**
+     * Write a plain text report of the changes, one line per object followed
+     * by one indented line per changed property.
+     *
+     * @param title a heading for the report, for example the domain name
+     * @param writer where to write the report. It is flushed but not closed.
+     */
+    public void writeReport(String title, Writer writer) {
+        PrintWriter out = new PrintWriter(writer);
+        if (title != null) {
+            out.println(title);
+        }
+        out.println("added=" + getCount(ADDED) + ", removed=" + getCount(REMOVED) + //$NON-NLS-1$ //$NON-NLS-2$
+                ", modified=" + getCount(MODIFIED) + ", objects=" + this.objectCount1 + //$NON-NLS-1$ //$NON-NLS-2$
+                "/" + this.objectCount2); //$NON-NLS-1$
+        for (int i = 0; i < this.changes.size(); i++) {
+            ObjectChange change = this.changes.get(i);
+            out.println(change.toString());
+            List<PropertyChange> properties = change.getPropertyChanges();
+            for (int j = 0; j < properties.size(); j++) {
+                out.println("    " + properties.get(j).toString()); //$NON-NLS-1$
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Write the report from {@link #writeReport(String, Writer)} to a new
+     * temporary file, so that it can be opened in a browser.
+     *
+     * @param title a heading for the report, for example the domain name
+     * @return the URL of the report file
+     * @throws IOException the file could not be written
+     */
+    public URL writeReportFile(String title) throws IOException {
+        File file = File.createTempFile("domainDiff", ".txt"); //$NON-NLS-1$ //$NON-NLS-2$
+        file.deleteOnExit();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8"); //$NON-NLS-1$
+        try {
+            this.writeReport(title, writer);
+        } finally {
+            writer.close();
+        }
+        return(file.toURI().toURL());
+    }
+
+    public String toString() {
+        return("DomainDifferences[added=" + getCount(ADDED) + //$NON-NLS-1$
+                ", removed=" + getCount(REMOVED) + //$NON-NLS-1$
+                ", modified=" + getCount(MODIFIED) + "]"); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    /**
+     * One configuration object that differs between the two images.
+     */
+    public static class ObjectChange {
+        private final int changeType;
+        private final String className;
+        private final String name;
+        private final List<PropertyChange> propertyChanges;
+
+        ObjectChange(int changeType, String className, String name, List<PropertyChange> propertyChanges) {
+            this.changeType = changeType;
+            this.className = className;
+            this.name = name;
+            this.propertyChanges = propertyChanges;
+        }
+
+        /**
+         * @return one of {@link DomainDifferences#ADDED},
+         *         {@link DomainDifferences#REMOVED} or
+         *         {@link DomainDifferences#MODIFIED}
+         */
+        public int getChangeType() {
+            return(this.changeType);
+        }
+
+        /**
+         * @return the configuration class of the object, or
+         *         {@link DomainDifferences#FILE_CLASS_NAME} for a file
+         */
+        public String getClassName() {
+            return(this.className);
+        }
+
+        /**
+         * @return the name of the object, or the name of the file
+         */
+        public String getName() {
+            return(this.name);
+        }
+
+        /**
+         * Get the properties that changed. This is empty for objects that were
+         * added or removed.
+         *
+         * @return an unmodifiable list of property changes
+         */
+        public List<PropertyChange> getPropertyChanges() {
+            return(Collections.unmodifiableList(this.propertyChanges));
+        }
+
+        public String toString() {
+            String prefix = (this.changeType == ADDED) ? "+ " : (this.changeType == REMOVED) ? "- " : "* "; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            return(prefix + this.className + " " + this.name); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * One property of a modified object. Nested properties are named by their
+     * path, separated by <code>/</code>. Repeated properties have their
+     * position appended, for example <code>Handler[2]</code>, and attributes
+     * are prefixed with <code>@</code>.
+     */
+    public static class PropertyChange {
+        private final String name;
+        private final String oldValue;
+        private final String newValue;
+
+        PropertyChange(String name, String oldValue, String newValue) {
+            this.name = name;
+            this.oldValue = oldValue;
+            this.newValue = newValue;
+        }
+
+        /**
+         * @return the path of the property within its object
+         */
+        public String getName() {
+            return(this.name);
+        }
+
+        /**
+         * @return the value in the first image, or null if the property is
+         *         not present there
+         */
+        public String getOldValue() {
+            return(this.oldValue);
+        }
+
+        /**
+         * @return the value in the second image, or null if the property is
+         *         not present there
+         */
+        public String getNewValue() {
+            return(this.newValue);
+        }
+
+        public String toString() {
+            return(this.name + ": " + this.oldValue + " -> " + this.newValue); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+    }
+}
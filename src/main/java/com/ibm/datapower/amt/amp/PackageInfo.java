@@ -45,11 +45,14 @@ public class PackageInfo extends AbstractPackageInfo {
 		// make sure this list is complete for this package
 		this.add(AMPException.class);
 		this.add(AMPIOException.class);
+		this.add(AsyncCommands.class);
 		this.add(CommandFactory.class);
 		this.add(Commands.class);
 		this.add(DeviceContext.class);
 		this.add(DeviceExecutionException.class);
 		this.add(DeviceMetaInfo.class);
+		this.add(DomainDiffEngine.class);
+		this.add(DomainDifferences.class);
 		this.add(DomainStatus.class);
 		this.add(ErrorReport.class);
 		this.add(InvalidCredentialsException.class);
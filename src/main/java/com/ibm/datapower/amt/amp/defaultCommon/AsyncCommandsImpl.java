@@ -0,0 +1,462 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.amp.defaultCommon;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.ibm.datapower.amt.Constants;
+import com.ibm.datapower.amt.Messages;
+import com.ibm.datapower.amt.ThreadExecutionMode;
+import com.ibm.datapower.amt.amp.AMPIOException;
+import com.ibm.datapower.amt.amp.AsyncCommands;
+import com.ibm.datapower.amt.amp.Commands;
+import com.ibm.datapower.amt.amp.DeviceContext;
+import com.ibm.datapower.amt.amp.DeviceMetaInfo;
+import com.ibm.datapower.amt.amp.DomainStatus;
+import com.ibm.datapower.amt.amp.PingResponse;
+import com.ibm.datapower.amt.clientAPI.Configuration;
+import com.ibm.datapower.amt.clientAPI.DeploymentPolicy;
+import com.ibm.datapower.amt.logging.LoggerHelper;
+
+/**
+ * The default {@link AsyncCommands} implementation. It wraps any
+ * {@link Commands} provider (AMP v1, v2, v3 or non-AMP), so there is a single
+ * place where per-device limits and timeouts are enforced regardless of the
+ * protocol version a device speaks.
+ * <p>
+ * All instances share one pool of worker threads sized by
+ * {@link Configuration#KEY_ASYNC_COMMANDS_THREAD_POOL_SIZE}. Each device
+ * (identified by hostname and AMP port) has a lane that lets at most
+ * {@link Configuration#KEY_ASYNC_COMMANDS_MAX_PER_DEVICE} calls reach the pool
+ * at once; the rest wait in the lane and are handed to the pool as earlier
+ * calls for the same device complete. A busy or unreachable device therefore
+ * cannot occupy every worker thread. Calls waiting in a lane or for the pool
+ * take no thread, but the providers are blocking, so no more calls are on the
+ * network at once than the pool has threads.
+ * <p>
+ * When a running call times out, its <code>Future</code> is completed with an
+ * {@link AMPIOException} and the worker thread is interrupted. The lane slot
+ * is released only when the underlying call actually returns, because the
+ * socket it is blocked on is bounded by the transport timeouts, not by the
+ * interrupt. {@link CustomURLConnection} uses the same timeout as its read
+ * limit, so a device that stops answering releases the slot about when the
+ * call times out.
+ */
+public class AsyncCommandsImpl implements AsyncCommands {
+    public static final String COPYRIGHT_2009_2013 = Constants.COPYRIGHT_2009_2013;
+
+    protected final static String CLASS_NAME = AsyncCommandsImpl.class.getName();
+    protected final static Logger logger = Logger.getLogger(CLASS_NAME);
+    static {
+        LoggerHelper.addLoggerToGroup(logger, "WAMT"); //$NON-NLS-1$
+    }
+
+    private static ThreadPoolExecutor workers = null;
+    private static ScheduledThreadPoolExecutor timer = null;
+    // the instances whose lanes shutdownSharedPool() empties, guarded by
+    // the class lock
+    private static final Set<AsyncCommandsImpl> instances =
+        Collections.newSetFromMap(new WeakHashMap<AsyncCommandsImpl, Boolean>());
+
+    // resizes the shared worker pool when the configured size changes
+    private static final Configuration.Listener configurationListener = new Configuration.Listener() {
+        public void configurationChanged(Configuration.Snapshot previous, Configuration.Snapshot current) {
+            if (current.isChanged(previous, Configuration.KEY_ASYNC_COMMANDS_THREAD_POOL_SIZE)) {
+                resizeWorkers(current.getAsInt(Configuration.KEY_ASYNC_COMMANDS_THREAD_POOL_SIZE, 0));
+            }
+        }
+    };
+
+    private final Commands commands;
+    private final Map<String, Lane> lanes = new HashMap<String, Lane>();
+    private final AtomicInteger queuedCount = new AtomicInteger();
+    private final AtomicInteger runningCount = new AtomicInteger();
+
+    /**
+     * Create an asynchronous facade over the given provider. Use
+     * {@link com.ibm.datapower.amt.amp.CommandFactory#getAsyncCommands(Commands)}
+     * instead of invoking this directly, so that one facade is shared per
+     * provider.
+     *
+     * @param commands the synchronous provider to dispatch to
+     */
+    public AsyncCommandsImpl(Commands commands) {
+        if (commands == null) {
+            throw new NullPointerException("commands"); //$NON-NLS-1$
+        }
+        this.commands = commands;
+        synchronized (AsyncCommandsImpl.class) {
+            instances.add(this);
+        }
+    }
+
+    public Commands getCommands() {
+        return this.commands;
+    }
+
+    public Future<PingResponse> pingDevice(final DeviceContext device, final String subscriptionID) {
+        return submit(device, "pingDevice", new Callable<PingResponse>() { //$NON-NLS-1$
+            public PingResponse call() throws Exception {
+                return commands.pingDevice(device, subscriptionID);
+            }
+        });
+    }
+
+    public Future<DeviceMetaInfo> getDeviceMetaInfo(final DeviceContext device) {
+        return submit(device, "getDeviceMetaInfo", new Callable<DeviceMetaInfo>() { //$NON-NLS-1$
+            public DeviceMetaInfo call() throws Exception {
+                return commands.getDeviceMetaInfo(device);
+            }
+        });
+    }
+
+    public Future<String[]> getDomainList(final DeviceContext device) {
+        return submit(device, "getDomainList", new Callable<String[]>() { //$NON-NLS-1$
+            public String[] call() throws Exception {
+                return commands.getDomainList(device);
+            }
+        });
+    }
+
+    public Future<byte[]> getDomain(final DeviceContext device, final String domainName) {
+        return submit(device, "getDomain", new Callable<byte[]>() { //$NON-NLS-1$
+            public byte[] call() throws Exception {
+                return commands.getDomain(device, domainName);
+            }
+        });
+    }
+
+    public Future<DomainStatus> getDomainStatus(final DeviceContext device, final String domainName) {
+        return submit(device, "getDomainStatus", new Callable<DomainStatus>() { //$NON-NLS-1$
+            public DomainStatus call() throws Exception {
+                return commands.getDomainStatus(device, domainName);
+            }
+        });
+    }
+
+    public Future<Void> setDomain(final DeviceContext device, final String domainName,
+                                  final byte[] domainImage, final DeploymentPolicy policy) {
+        return submit(device, "setDomain", new Callable<Void>() { //$NON-NLS-1$
+            public Void call() throws Exception {
+                commands.setDomain(device, domainName, domainImage, policy);
+                return null;
+            }
+        });
+    }
+
+    public Future<Void> setFirmware(final DeviceContext device, final byte[] firmwareImage,
+                                    final boolean acceptLicense) {
+        return submit(device, "setFirmware", new Callable<Void>() { //$NON-NLS-1$
+            public Void call() throws Exception {
+                commands.setFirmware(device, firmwareImage, acceptLicense);
+                return null;
+            }
+        });
+    }
+
+    public Future<Boolean> isDomainDifferent(final String domainName, final byte[] configImage1,
+                                             final byte[] configImage2, final DeviceContext device) {
+        return submit(device, "isDomainDifferent", new Callable<Boolean>() { //$NON-NLS-1$
+            public Boolean call() throws Exception {
+                return Boolean.valueOf(commands.isDomainDifferent(domainName, configImage1, configImage2, device));
+            }
+        });
+    }
+
+    public int getQueuedCount() {
+        return this.queuedCount.get();
+    }
+
+    public int getRunningCount() {
+        return this.runningCount.get();
+    }
+
+    /**
+     * Stop the worker and timer threads shared by all instances. Calls that
+     * are waiting in a device lane or for a worker thread are cancelled, and
+     * running calls are interrupted. The threads are recreated on the next
+     * submission, so this is safe to invoke from
+     * {@link com.ibm.datapower.amt.clientAPI.Manager#shutdown()} even if the
+     * Manager is later restarted.
+     */
+    public static synchronized void shutdownSharedPool() {
+        final String METHOD_NAME = "shutdownSharedPool"; //$NON-NLS-1$
+        // before the pool goes, so that a call finishing meanwhile finds no
+        // pending call to start on a new pool
+        for (AsyncCommandsImpl instance : instances) {
+            instance.cancelPending();
+        }
+        if (workers != null) {
+            logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
+                    "Shutting down asynchronous command threads"); //$NON-NLS-1$
+            for (Runnable r : workers.shutdownNow()) {
+                ((Future<?>) r).cancel(false);
+            }
+            workers = null;
+            Configuration.removeListener(configurationListener);
+        }
+        if (timer != null) {
+            timer.shutdownNow();
+            timer = null;
+        }
+    }
+
+    /*
+     * Cancel the calls waiting in the lanes and start over with new lanes.
+     * Calls that are running or queued in the pool finish on their old lane.
+     */
+    private void cancelPending() {
+        List<Call<?>> cancelled = new ArrayList<Call<?>>();
+        synchronized (this.lanes) {
+            for (Lane lane : this.lanes.values()) {
+                synchronized (lane) {
+                    cancelled.addAll(lane.pending);
+                    this.queuedCount.addAndGet(-lane.pending.size());
+                    lane.pending.clear();
+                }
+            }
+            this.lanes.clear();
+        }
+        for (Call<?> call : cancelled) {
+            call.cancel(false);
+        }
+    }
+
+    private static synchronized ThreadPoolExecutor getWorkers() {
+        if (workers == null) {
+            int size = Configuration.getAsInteger(Configuration.KEY_ASYNC_COMMANDS_THREAD_POOL_SIZE).intValue();
+            if (size < 1) {
+                size = Integer.parseInt(Configuration.DEFAULT_ASYNC_COMMANDS_THREAD_POOL_SIZE);
+            }
+            workers = new ThreadPoolExecutor(size, size, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory("AsyncCommands")); //$NON-NLS-1$
+            workers.allowCoreThreadTimeOut(true);
+            Configuration.addListener(configurationListener);
+        }
+        return workers;
+    }
+
+    private static synchronized void resizeWorkers(int size) {
+        final String METHOD_NAME = "resizeWorkers"; //$NON-NLS-1$
+        if ((workers == null) || (size < 1) || (size == workers.getMaximumPoolSize())) {
+            return;
+        }
+        logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
+                "Asynchronous command thread pool size changed to " + size); //$NON-NLS-1$
+        ThreadExecutionMode.resizePool(workers, size);
+    }
+
+    /**
+     * @return the number of threads the shared pool is sized for, or 0 when
+     *         no call has created it yet
+     */
+    static synchronized int getPoolSize() {
+        return((workers == null) ? 0 : workers.getCorePoolSize());
+    }
+
+    private static synchronized ScheduledThreadPoolExecutor getTimer() {
+        if (timer == null) {
+            timer = new ScheduledThreadPoolExecutor(1, new DaemonThreadFactory("AsyncCommandsTimer")); //$NON-NLS-1$
+            timer.setRemoveOnCancelPolicy(true);
+        }
+        return timer;
+    }
+
+    private <T> Future<T> submit(DeviceContext device, String commandName, Callable<T> callable) {
+        final String METHOD_NAME = "submit"; //$NON-NLS-1$
+        String key = device.getHostname() + ":" + device.getAMPPort(); //$NON-NLS-1$
+        Call<T> call = null;
+        boolean startNow = false;
+        // admit the call under the same lock that removes idle lanes, so it
+        // cannot land on a lane that is no longer in the map
+        synchronized (this.lanes) {
+            Lane lane = this.lanes.get(key);
+            if (lane == null) {
+                lane = new Lane(key);
+                this.lanes.put(key, lane);
+            }
+            call = new Call<T>(lane, commandName, callable);
+            startNow = lane.admit(call);
+        }
+        logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME,
+                "submitting " + commandName + " for " + key); //$NON-NLS-1$ //$NON-NLS-2$
+        if (startNow) {
+            getWorkers().execute(call);
+        }
+        return call;
+    }
+
+    /*
+     * The per-device FIFO. A call is either handed to the worker pool
+     * immediately, or parked here until a running call for the same device
+     * completes. No caller thread ever waits on a lane.
+     */
+    private class Lane {
+        private final String key;
+        private final LinkedList<Call<?>> pending = new LinkedList<Call<?>>();
+        private int running = 0;
+
+        Lane(String key) {
+            this.key = key;
+        }
+
+        /*
+         * Take a slot for the call, or park it. The caller holds the lock on
+         * lanes and hands the call to the pool if this returns true.
+         */
+        synchronized boolean admit(Call<?> call) {
+            int limit = Configuration.getAsInteger(Configuration.KEY_ASYNC_COMMANDS_MAX_PER_DEVICE).intValue();
+            if (this.running < Math.max(limit, 1)) {
+                this.running++;
+                return true;
+            }
+            this.pending.add(call);
+            queuedCount.incrementAndGet();
+            return false;
+        }
+
+        void finished() {
+            Call<?> next = null;
+            synchronized (this) {
+                next = this.pending.poll();
+                if (next == null) {
+                    this.running--;
+                } else {
+                    queuedCount.decrementAndGet();
+                }
+            }
+            if (next != null) {
+                getWorkers().execute(next);
+            } else {
+                removeIfIdle();
+            }
+        }
+
+        private void removeIfIdle() {
+            synchronized (lanes) {
+                synchronized (this) {
+                    // after shutdownSharedPool() the key may belong to a new lane
+                    if (this.running == 0 && this.pending.isEmpty() && lanes.get(this.key) == this) {
+                        lanes.remove(this.key);
+                    }
+                }
+            }
+        }
+    }
+
+    /*
+     * A FutureTask that knows its lane, arms a timeout when it starts, and
+     * releases its lane slot when the wrapped call returns.
+     */
+    private class Call<T> extends FutureTask<T> {
+        private final Lane lane;
+        private final String commandName;
+        // the thread running this call, guarded by runnerLock so that
+        // expire() never interrupts the thread once it has moved on
+        private final Object runnerLock = new Object();
+        private Thread runner = null;
+
+        Call(Lane lane, String commandName, Callable<T> callable) {
+            super(callable);
+            this.lane = lane;
+            this.commandName = commandName;
+        }
+
+        public void run() {
+            ScheduledFuture<?> timeout = null;
+            synchronized (this.runnerLock) {
+                this.runner = Thread.currentThread();
+            }
+            runningCount.incrementAndGet();
+            try {
+                final int limitMS = Configuration.getAsInteger(Configuration.KEY_ASYNC_COMMANDS_TIMEOUT).intValue();
+                if (limitMS > 0 && !isDone()) {
+                    timeout = getTimer().schedule(new Runnable() {
+                        public void run() {
+                            expire(limitMS);
+                        }
+                    }, limitMS, TimeUnit.MILLISECONDS);
+                }
+                super.run();
+            } finally {
+                if (timeout != null) {
+                    timeout.cancel(false);
+                }
+                synchronized (this.runnerLock) {
+                    this.runner = null;
+                }
+                // expire() can no longer reach this thread, so clear an
+                // interrupt it sent before the thread is reused
+                Thread.interrupted();
+                runningCount.decrementAndGet();
+                this.lane.finished();
+            }
+        }
+
+        private void expire(int limitMS) {
+            final String METHOD_NAME = "expire"; //$NON-NLS-1$
+            if (isDone()) {
+                return;
+            }
+            Object[] args = new Object[] {this.commandName, this.lane.key, Integer.valueOf(limitMS)};
+            String message = Messages.getString("wamt.amp.AsyncCommands.timeout", args); //$NON-NLS-1$
+            AMPIOException e = new AMPIOException(message, "wamt.amp.AsyncCommands.timeout", args); //$NON-NLS-1$
+            logger.logp(Level.WARNING, CLASS_NAME, METHOD_NAME, message);
+            setException(e);
+            synchronized (this.runnerLock) {
+                if (this.runner != null) {
+                    this.runner.interrupt();
+                }
+            }
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger count = new AtomicInteger();
+
+        DaemonThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, this.prefix + "-" + this.count.incrementAndGet()); //$NON-NLS-1$
+            t.setDaemon(true);
+            return t;
+        }
+    }
+}
@@ -17,10 +17,16 @@
 
 package com.ibm.datapower.amt.amp.defaultCommon;
 
+import java.net.HttpURLConnection;
 import java.net.URL;
 import java.net.URLConnection;
 import java.io.IOException;
 import java.io.InterruptedIOException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.ibm.datapower.amt.clientAPI.Configuration;
 
@@ -31,14 +37,26 @@ import com.ibm.datapower.amt.clientAPI.Configuration;
  * hang, the CustomURLConnection will timeout with InterrupedIOException.
  * Invoke #setConnectLimit(int milliseconds) followed by #connect() and the
  * connection request will be timed out after the connect limit is reached.
+ * <p>
+ * The connect runs on the calling thread. The TCP connect is bounded by the
+ * socket connect timeout, and the rest of the connect (the SSL handshake) by
+ * a deadline on a timer shared by all connections, which closes the
+ * connection if it is reached.
+ * <p>
+ * Reads from the connection are bounded by a read limit, the
+ * {@link Configuration#KEY_ASYNC_COMMANDS_TIMEOUT}, so a call that the
+ * {@link AsyncCommandsImpl} timed out does not stay blocked on a device that
+ * never answers. The interrupt it sends does not unblock socket I/O.
  *  
  */
 public class CustomURLConnection extends URLConnection {
 
     private URLConnection conn        = null;
-    private int msPoll                = 100;  // default to 100 ms
     private int msLimit               = -1;
     private int msElapsed             = 0;
+    private int msReadLimit           = 0;
+
+    private static ScheduledThreadPoolExecutor timer = null;
 
     /**
      * Construct a CustomURLConnection, taking a URL as input. This is necessary in
@@ -48,25 +66,27 @@ public class CustomURLConnection extends URLConnection {
     public CustomURLConnection(URL inUrl) {
     	super(inUrl);
     	setConnectLimit(Configuration.getAsInteger(Configuration.KEY_AMP_CONNECT_TIMEOUT));    
+    	setReadLimit(Configuration.getAsInteger(Configuration.KEY_ASYNC_COMMANDS_TIMEOUT));
     }
 
     /**
      * Used the base class URL to get an open connection and return the URLConnection.
      * The returned URLConnection should be used to set options before the call to connect().
+     * The connect limit is set as its connect timeout, so it also applies when the
+     * URLConnection connects implicitly, and the read limit as its read timeout.
      * 
      */
     public URLConnection openConnection() throws IOException {
-    	try {
-        	conn = url.openConnection();
-    	} catch (IOException e) {
-    		throw e;
+    	conn = url.openConnection();
+    	if (conn != null) {
+    		conn.setConnectTimeout(msLimit);
+    		conn.setReadTimeout(msReadLimit);
     	}
     	return conn;
     }
     
     /**
      * Set a time limit on the connection. The input value is in milliseconds.
-     * Make sure that the poll value is less than the connect limit.
      * 
      */
     public void setConnectLimit(int inTime) {
@@ -74,13 +94,33 @@ public class CustomURLConnection extends URLConnection {
             msLimit = inTime;
         }
         else {
-        	msLimit = new Integer(Configuration.DEFAULT_AMP_CONNECT_TIMEOUT);
+        	msLimit = Integer.parseInt(Configuration.DEFAULT_AMP_CONNECT_TIMEOUT);
+        }
+        if (conn != null) {
+        	conn.setConnectTimeout(msLimit);
         }
-        if (msLimit < msPoll) { // adjust msPoll to be less than msLimit
-            msPoll = (msLimit > 1 ? msLimit - 1 : 1);
+    }
+    
+    /**
+     * Set a time limit on each read from the connection. The input value is in
+     * milliseconds, a value less than 1 means no limit.
+     * 
+     */
+    public void setReadLimit(int inTime) {
+        msReadLimit = (inTime > 0) ? inTime : 0;
+        if (conn != null) {
+        	conn.setReadTimeout(msReadLimit);
         }
     }
     
+    /**
+     * Get the time limit set for each read, 0 if there is none.
+     * 
+     */
+    public int getReadLimit() {
+    	return msReadLimit;
+    }
+    
     /**
      * Get the time limit set for connect.
      * 
@@ -92,88 +132,74 @@ public class CustomURLConnection extends URLConnection {
     /**
      * Return the amount of time that the connect request has been monitored.
      * If the connect completes, this will be the time it took to complete the
-     * connect (to a granularity of msPoll). If the connect does not complete,
-     * it is effectively the connect timeout value.
+     * connect. If the connect does not complete, it is effectively the connect
+     * timeout value.
      * 
      */
     public int getConnectElapsed() { return msElapsed; }
 
     /**
-     * Request a connect on the URLConnection and monitor for it to complete.
+     * Request a connect on the URLConnection and wait for it to complete.
      * 
-     * The actual connect request is passed to the (private) ConnectionThread thread.
-     * Then loop to monitor for (a) the connect to complete, or (b) the connect
-     * request takes an IOException. An IOException is passed on to the caller.
-     * If neither of these events occurs before the connect limit is reached,
-     * throw InterruptedIOException.
+     * An IOException from the connect is passed on to the caller. If the connect
+     * does not complete before the connect limit is reached, the connection is
+     * closed and InterruptedIOException is thrown.
      * 
      */
     public void connect() throws InterruptedIOException, IOException {
-    	
-        ConnectionThread thd = new ConnectionThread(conn);
-        thd.start();
-
-        // Loop to watch for thd.isConnected().
-        // If msElapsed time is exceeded, throw InterruptedIOException.
-        while (!thd.isConnected()) {
-        	if (thd.hasError()) {
-        		throw thd.getError();
-        	}
-        	else {
-        		try {
-           			Thread.sleep(msPoll);
-        		} catch (InterruptedException ex) {
-        			throw new InterruptedIOException("Connect timeout failed at " + (msElapsed - msPoll) + " ms");
-       			}
-        		
-        		msElapsed += msPoll;
-        		if (msElapsed > msLimit) {
-        			throw new InterruptedIOException("Connect timeout after " + (msElapsed - msPoll) + " ms");
-        		}
-        	}
+        final AtomicBoolean expired = new AtomicBoolean(false);
+        final URLConnection target = conn;
+        long start = System.nanoTime();
+        ScheduledFuture<?> deadline = getTimer().schedule(new Runnable() {
+            public void run() {
+                expired.set(true);
+                if (target instanceof HttpURLConnection) {
+                    ((HttpURLConnection) target).disconnect();
+                }
+            }
+        }, msLimit, TimeUnit.MILLISECONDS);
+        try {
+            conn.connect();
+        } catch (IOException ex) {
+            if (!expired.get() && !(ex instanceof InterruptedIOException)) {
+                throw ex;
+            }
+            msElapsed = elapsedSince(start);
+            InterruptedIOException timeout = new InterruptedIOException("Connect timeout after " + msElapsed + " ms"); //$NON-NLS-1$ //$NON-NLS-2$
+            timeout.initCause(ex);
+            throw timeout;
+        } finally {
+            deadline.cancel(false);
+        }
+        msElapsed = elapsedSince(start);
+        if (expired.get()) {
+            // the deadline closed the connection just as the connect completed
+            throw new InterruptedIOException("Connect timeout after " + msElapsed + " ms"); //$NON-NLS-1$ //$NON-NLS-2$
         }
 
         // All is well, the connect succeeded.
         return;
     }
 
-    /**
-     * Private class to do the actual connect, in case it blocks.
-     * This thread is monitored (polled) by the owning CustomURLConnection class.
-     */
-    static class ConnectionThread extends Thread {
-
-        volatile URLConnection conn = null;
-        volatile boolean connected = false;
-        volatile IOException excep = null;
-
-        public ConnectionThread(URLConnection inConn) {
-            conn = inConn;
-        }
-
-        public boolean isConnected() {
-            return connected;
-        }
-
-        public boolean hasError() {
-            return (excep != null);
-        }
+    private static int elapsedSince(long start) {
+        return (int) TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
 
-        public IOException getError() {
-            return excep;
+    private static synchronized ScheduledThreadPoolExecutor getTimer() {
+        if (timer == null) {
+            timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "CustomURLConnectionTimer"); //$NON-NLS-1$
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            timer.setRemoveOnCancelPolicy(true);
+            // the timer thread goes away when no connects are in progress
+            timer.setKeepAliveTime(60, TimeUnit.SECONDS);
+            timer.allowCoreThreadTimeOut(true);
         }
-
-        public void run() {
-        	int msElapsed = 0;
-            try {
-                conn.connect();
-                connected = true;
-            } catch (IOException ex) {
-                excep = ex;
-            }
-            return;
-        }        
-
-    } // end, ConnectionThread class
+        return timer;
+    }
 
 } // end, CustomURLConnection class
@@ -45,6 +45,7 @@ import org.apache.xmlbeans.XmlOptions;
 import org.w3c.dom.Node;
 
 import com.datapower.schemas.appliance.management.x10.FaultDocument;
+import com.ibm.datapower.amt.CommandMetrics;
 import com.ibm.datapower.amt.Constants;
 import com.ibm.datapower.amt.Messages;
 import com.ibm.datapower.amt.amp.AMPConstants;
@@ -144,6 +145,7 @@ public class SOAPHelperImpl implements SOAPHelper{
         logger.entering(CLASS_NAME, METHOD_NAME);
                     
         HttpURLConnection httpConnection = null;
+        CommandMetrics.Call metrics = CommandMetrics.begin(requestDocument);
         try{
             
             httpConnection = createConnection(device);
@@ -161,9 +163,11 @@ public class SOAPHelperImpl implements SOAPHelper{
                         
             out.write(SOAP_TOP_BYTES);
             
-            out.write(requestDocument.toString().getBytes());
+            byte[] request = requestDocument.toString().getBytes();
+            out.write(request);
             
             out.write(SOAP_BOTTOM_BYTES);
+            metrics.sent(SOAP_TOP_BYTES.length + request.length + SOAP_BOTTOM_BYTES.length);
                         
             //this could potentially be a huge object; we're done with it, lets get rid of it
             //GC can now get rid of it!
@@ -176,7 +180,7 @@ public class SOAPHelperImpl implements SOAPHelper{
             checkResponse(httpConnection);
             
             // read in the HTTP response
-            InputStream in = httpConnection.getInputStream();
+            InputStream in = metrics.receive(httpConnection.getInputStream());
             
             Node body = parseResponse(in, device);
             
@@ -186,6 +190,7 @@ public class SOAPHelperImpl implements SOAPHelper{
             logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME, "removed SOAP envelope from response document"); //$NON-NLS-1$
                        
             logger.exiting(CLASS_NAME, METHOD_NAME);
+            metrics.succeeded();
             return body;
         }
         catch (IOException e){
@@ -195,6 +200,9 @@ public class SOAPHelperImpl implements SOAPHelper{
             logger.throwing(CLASS_NAME, METHOD_NAME, ex);
             throw ex;
         }
+        finally {
+            metrics.end(device.getHostname(), device.getAMPPort());
+        }
     }
     
     /**
@@ -227,6 +235,7 @@ public class SOAPHelperImpl implements SOAPHelper{
         logger.entering(CLASS_NAME, METHOD_NAME);
                     
         HttpURLConnection httpConnection = null;
+        CommandMetrics.Call metrics = CommandMetrics.begin(header);
         try{
             
             httpConnection = createConnection(device);
@@ -251,6 +260,7 @@ public class SOAPHelperImpl implements SOAPHelper{
                         int bytesRead = requestDocument.read(b);
                         if (bytesRead == -1) break;
                         out.write(b,0,bytesRead);
+                        metrics.sent(bytesRead);
                     }
                 }
             }
@@ -259,6 +269,7 @@ public class SOAPHelperImpl implements SOAPHelper{
             out.write(footer,0,footer.length);
             
             out.write(SOAP_BOTTOM_BYTES);
+            metrics.sent(SOAP_TOP_BYTES.length + header.length + footer.length + SOAP_BOTTOM_BYTES.length);
             
             out.flush();
             out.close();
@@ -268,7 +279,7 @@ public class SOAPHelperImpl implements SOAPHelper{
             checkResponse(httpConnection);
             
             // read in the HTTP response
-            InputStream in = httpConnection.getInputStream();
+            InputStream in = metrics.receive(httpConnection.getInputStream());
         
             Node body = parseResponse(in, device);
             
@@ -284,6 +295,7 @@ public class SOAPHelperImpl implements SOAPHelper{
             logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME, "removed SOAP envelope from response document"); //$NON-NLS-1$
 
             logger.exiting(CLASS_NAME, METHOD_NAME);
+            metrics.succeeded();
             return body;
         }
         catch (IOException e){
@@ -293,6 +305,9 @@ public class SOAPHelperImpl implements SOAPHelper{
             logger.throwing(CLASS_NAME, METHOD_NAME, ex);
             throw ex;
         }
+        finally {
+            metrics.end(device.getHostname(), device.getAMPPort());
+        }
     }
        
     /**
@@ -148,6 +148,8 @@ import com.ibm.datapower.amt.amp.DeleteObjectResult;
 import com.ibm.datapower.amt.amp.DeviceContext;
 import com.ibm.datapower.amt.amp.DeviceExecutionException;
 import com.ibm.datapower.amt.amp.DeviceMetaInfo;
+import com.ibm.datapower.amt.amp.DomainDiffEngine;
+import com.ibm.datapower.amt.amp.DomainDifferences;
 import com.ibm.datapower.amt.amp.DomainStatus;
 import com.ibm.datapower.amt.amp.ErrorReport;
 import com.ibm.datapower.amt.amp.InterDependentServiceCollection;
@@ -2342,11 +2344,13 @@ public class CommandsImpl implements Commands {
 		logger.entering(CLASS_NAME, METHOD_NAME);
 		// new Object[]{domainName, configImage1, configImage2, device});
 
-		logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME, "getDomainDifferences is not implemented!!!"); //$NON-NLS-1$
+		// the device has no operation for this, so compare the images here
+		DomainDifferences differences = DomainDiffEngine.compare(configImage1, configImage2);
+		logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME, "Differences in domain " + domainName + ": " + differences); //$NON-NLS-1$ //$NON-NLS-2$
+		URL result = DomainDiffEngine.writeReport(domainName, differences);
 
-		
-		logger.exiting(CLASS_NAME, METHOD_NAME);
-		return null;
+		logger.exiting(CLASS_NAME, METHOD_NAME, result);
+		return result;
 	}
 
 	/*
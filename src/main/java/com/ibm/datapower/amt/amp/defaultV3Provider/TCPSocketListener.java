@@ -29,6 +29,7 @@ import javax.net.ssl.SSLServerSocketFactory;
 
 import com.ibm.datapower.amt.Constants;
 import com.ibm.datapower.amt.Messages;
+import com.ibm.datapower.amt.ThreadExecutionMode;
 import com.ibm.datapower.amt.amp.AMPException;
 import com.ibm.datapower.amt.amp.NotificationCatcher;
 import com.ibm.datapower.amt.amp.NotificationCatcherResourceException;
@@ -157,9 +158,9 @@ public class TCPSocketListener implements Runnable {
                             ":" + socket.getPort()); //$NON-NLS-1$
 
                 // for now, just create a thread request, afr to fix
+                // a virtual thread when configured, otherwise a daemon thread
                 HttpHandler request = new HttpHandler(socket);
-                Thread thread = new Thread(request);
-                thread.setDaemon(true);
+                Thread thread = ThreadExecutionMode.newThread(request, "AMP HttpHandler"); //$NON-NLS-1$
                 thread.start();
             }
             catch(Exception e) {
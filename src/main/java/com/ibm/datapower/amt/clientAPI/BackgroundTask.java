@@ -19,7 +19,9 @@ package com.ibm.datapower.amt.clientAPI;
 
 import java.io.OutputStream;
 import java.net.URI;
+import java.util.ArrayList;
 import java.util.Hashtable;
+import java.util.List;
 
 import com.ibm.datapower.amt.Constants;
 
@@ -114,6 +116,16 @@ public abstract class BackgroundTask implements Task {
     
     protected volatile ProgressContainer progressContainer = null;
     protected volatile String fromThread = null;
+    private volatile TaskPriority priority = TaskPriority.INTERACTIVE;
+    
+    /*
+     * Maintained by the BackgroundTaskQueue while this task is queued and read
+     * by the QueueProcessor after it has been removed: the TaskMetrics
+     * timestamps, and the redundant tasks that will take this one's outcome.
+     */
+    long submittedAt = 0;
+    long startedAt = 0;
+    private List<BackgroundTask> coalesced = null;
     
     public static final String COPYRIGHT_2009_2010 = Constants.COPYRIGHT_2009_2010;
     
@@ -243,6 +255,69 @@ public abstract class BackgroundTask implements Task {
     ProgressContainer getProgressContainer() {
         return(this.progressContainer);
     }
+    
+    /**
+     * Get the class this task is queued in. Unless it is changed with
+     * {@link #setPriority(TaskPriority)} before the task is queued, it is
+     * {@link TaskPriority#INTERACTIVE}.
+     * 
+     * @return the priority of this task
+     */
+    TaskPriority getPriority() {
+        return(this.priority);
+    }
+    
+    void setPriority(TaskPriority priority) {
+        this.priority = priority;
+    }
+    
+    /**
+     * Get a key that is equal for tasks that would do the same thing, so that
+     * a task does not need to be queued if an equal one is already waiting.
+     * Instead the waiting task runs once and its result or error is copied
+     * into the ProgressContainer of the redundant one. Only tasks that depend
+     * on nothing but their target, and that complete or fail their
+     * ProgressContainer before {@link #execute()} returns, should return a
+     * key.
+     * 
+     * @return the key, or null if this task is never redundant
+     */
+    Object getCoalescingKey() {
+        return(null);
+    }
+    
+    synchronized void addCoalesced(BackgroundTask redundant) {
+        if (this.coalesced == null) {
+            this.coalesced = new ArrayList<BackgroundTask>();
+        }
+        this.coalesced.add(redundant);
+    }
+    
+    /**
+     * Copy the outcome of this task into the ProgressContainers of the tasks
+     * that were coalesced into it. Call it after this task has completed or
+     * failed.
+     * 
+     * @return the number of coalesced tasks
+     */
+    int mergeCoalesced() {
+        List<BackgroundTask> redundant = null;
+        synchronized (this) {
+            redundant = this.coalesced;
+            this.coalesced = null;
+        }
+        if (redundant == null) {
+            return(0);
+        }
+        for (BackgroundTask task : redundant) {
+            ProgressContainer progressContainer = task.getProgressContainer();
+            if ((progressContainer != null) && (this.progressContainer != null)) {
+                progressContainer.merge(this.progressContainer);
+            }
+            task.cleanup();
+        }
+        return(redundant.size());
+    }
 
 //    /**
 //     * Determine if this task will affect the firmware on device(s). This method
@@ -0,0 +1,283 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.clientAPI;
+
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.ibm.datapower.amt.Constants;
+import com.ibm.datapower.amt.Messages;
+import com.ibm.datapower.amt.TaskMetrics;
+import com.ibm.datapower.amt.logging.LoggerHelper;
+
+/**
+ * The queue of BackgroundTasks of one WorkArea. It keeps a FIFO per
+ * {@link TaskPriority} and hands out the oldest task of the highest priority,
+ * so user requests are not stuck behind a burst of tasks the Manager queued
+ * on its own.
+ * <p>
+ * Admission works like this:
+ * <ul>
+ * <li>A task whose {@link BackgroundTask#getCoalescingKey()} matches a task
+ * that is already waiting is not queued. The waiting task takes on the
+ * redundant one, and is moved up to its priority if that is higher.</li>
+ * <li>Otherwise, if the queue holds <code>maxSize</code> tasks,
+ * {@link #offer(BackgroundTask, long)} waits up to the given time for the
+ * QueueProcessor to take one, then throws a FullException.</li>
+ * <li>{@link #privilegedAdd(BackgroundTask)} ignores the size limit.</li>
+ * </ul>
+ * The counters for each priority are shared by the queues of all the
+ * WorkAreas.
+ * <p>
+ * Internal note: see <code>WorkArea</code> and <code>QueueProcessor</code>
+ */
+class BackgroundTaskQueue {
+    private final Map<TaskPriority, LinkedList<BackgroundTask>> queues =
+        new EnumMap<TaskPriority, LinkedList<BackgroundTask>>(TaskPriority.class);
+    private final Integer maxSize;
+    private int size = 0;
+
+    private static final Map<TaskPriority, TaskMetrics> metrics =
+        new EnumMap<TaskPriority, TaskMetrics>(TaskPriority.class);
+    static {
+        for (TaskPriority priority : TaskPriority.values()) {
+            metrics.put(priority, new TaskMetrics(priority.name()));
+        }
+    }
+
+    public static final String COPYRIGHT_2009_2013 = Constants.COPYRIGHT_2009_2013;
+
+    protected static final String CLASS_NAME = BackgroundTaskQueue.class.getName();
+    protected final static Logger logger = Logger.getLogger(CLASS_NAME);
+    static {
+        LoggerHelper.addLoggerToGroup(logger, Manager.getLoggerGroupName());
+    }
+
+    /**
+     * @param maxSize the number of tasks that may wait at one time, or null
+     *        for no limit
+     */
+    BackgroundTaskQueue(Integer maxSize) {
+        this.maxSize = maxSize;
+        for (TaskPriority priority : TaskPriority.values()) {
+            this.queues.put(priority, new LinkedList<BackgroundTask>());
+        }
+    }
+
+    /**
+     * Queue a task, waiting for room if the queue is full.
+     *
+     * @param task the task to queue
+     * @param timeoutMS how long to wait for room. If it is 0 or less, a full
+     *        queue fails right away.
+     * @throws FullException the queue was still full when the time ran out,
+     *         or the wait was interrupted
+     */
+    synchronized void offer(BackgroundTask task, long timeoutMS) throws FullException {
+        final String METHOD_NAME = "offer"; //$NON-NLS-1$
+        if (this.coalesce(task)) {
+            return;
+        }
+        long deadline = System.currentTimeMillis() + timeoutMS;
+        boolean interrupted = false;
+        try {
+            while ((this.maxSize != null) && (this.size >= this.maxSize.intValue())) {
+                long remaining = deadline - System.currentTimeMillis();
+                if ((remaining <= 0) || interrupted) {
+                    metrics.get(task.getPriority()).taskRejected();
+                    Object[] params = {Integer.toString(this.size), this.maxSize};
+                    String message = Messages.getString("wamt.clientAPI.Queue.full", params); //$NON-NLS-1$
+                    FullException e = new FullException(message, "wamt.clientAPI.Queue.full", params); //$NON-NLS-1$
+                    logger.throwing(CLASS_NAME, METHOD_NAME, e);
+                    logger.logp(Level.INFO, CLASS_NAME, METHOD_NAME, message);
+                    throw(e);
+                }
+                try {
+                    this.wait(remaining);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+                // an equal task may have been queued while this one waited
+                if (this.coalesce(task)) {
+                    return;
+                }
+            }
+            this.internalAdd(task);
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Queue a task even if the queue is full.
+     *
+     * @param task the task to queue
+     */
+    synchronized void privilegedAdd(BackgroundTask task) {
+        if (!this.coalesce(task)) {
+            this.internalAdd(task);
+        }
+    }
+
+    private void internalAdd(BackgroundTask task) {
+        final String METHOD_NAME = "internalAdd"; //$NON-NLS-1$
+        task.submittedAt = metrics.get(task.getPriority()).taskSubmitted();
+        this.queues.get(task.getPriority()).add(task);
+        this.size++;
+        if (logger.isLoggable(Level.FINER)) {
+            logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME,
+                    "queued " + task.getPriority() + //$NON-NLS-1$
+                    " task from thread " + Thread.currentThread().getName() + //$NON-NLS-1$
+                    ", size now " + this.size + ": " + task); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+    }
+
+    /**
+     * If an equal task is waiting, fold this task into it.
+     *
+     * @return true if the task was coalesced and must not be queued
+     */
+    private boolean coalesce(BackgroundTask task) {
+        final String METHOD_NAME = "coalesce"; //$NON-NLS-1$
+        Object key = task.getCoalescingKey();
+        if (key == null) {
+            return(false);
+        }
+        for (TaskPriority priority : TaskPriority.values()) {
+            Iterator<BackgroundTask> iterator = this.queues.get(priority).iterator();
+            while (iterator.hasNext()) {
+                BackgroundTask waiting = iterator.next();
+                if (key.equals(waiting.getCoalescingKey())) {
+                    if (task.getPriority().compareTo(priority) < 0) {
+                        // a user is now waiting for it, so move it up
+                        iterator.remove();
+                        this.queues.get(task.getPriority()).add(waiting);
+                        waiting.setPriority(task.getPriority());
+                        /*
+                         * It is started and finished in the counters of its
+                         * new priority, so it leaves the waiting count of the
+                         * old one. The submit time stays, so that the queue
+                         * latency covers the whole wait.
+                         */
+                        metrics.get(priority).taskDiscarded();
+                        metrics.get(task.getPriority()).taskSubmitted();
+                    }
+                    waiting.addCoalesced(task);
+                    metrics.get(task.getPriority()).taskCoalesced();
+                    if (logger.isLoggable(Level.FINER)) {
+                        logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME,
+                                "coalesced " + task + " into " + waiting); //$NON-NLS-1$ //$NON-NLS-2$
+                    }
+                    return(true);
+                }
+            }
+        }
+        return(false);
+    }
+
+    /**
+     * Remove the oldest task of the highest priority, and wake a thread that
+     * waits for room.
+     *
+     * @return the task, or null if the queue is empty
+     */
+    synchronized BackgroundTask poll() {
+        for (TaskPriority priority : TaskPriority.values()) {
+            BackgroundTask task = this.queues.get(priority).poll();
+            if (task != null) {
+                this.size--;
+                task.startedAt = metrics.get(task.getPriority()).taskStarted(task.submittedAt);
+                this.notifyAll();
+                return(task);
+            }
+        }
+        return(null);
+    }
+
+    /**
+     * Record that a task returned by {@link #poll()} has finished, or was
+     * thrown away at shutdown, and pass its outcome to the tasks coalesced
+     * into it.
+     *
+     * @param task the task, which has completed or failed
+     */
+    static void finished(BackgroundTask task) {
+        task.mergeCoalesced();
+        if (task.startedAt != 0) {
+            metrics.get(task.getPriority()).taskFinished(task.startedAt);
+        }
+    }
+
+    synchronized boolean isEmpty() {
+        return(this.size == 0);
+    }
+
+    synchronized int getSize() {
+        return(this.size);
+    }
+
+    synchronized int getSize(TaskPriority priority) {
+        return(this.queues.get(priority).size());
+    }
+
+    /**
+     * Get the task at a place in the order in which they will be run.
+     *
+     * @param index the place in the queue. The next task is index 0.
+     * @return the task, or null if there is no task at that place
+     */
+    synchronized BackgroundTask peek(int index) {
+        if (index >= 0) {
+            for (TaskPriority priority : TaskPriority.values()) {
+                LinkedList<BackgroundTask> queue = this.queues.get(priority);
+                if (index < queue.size()) {
+                    return(queue.get(index));
+                }
+                index -= queue.size();
+            }
+        }
+        return(null);
+    }
+
+    /**
+     * Get the queue latency and run time counters of the tasks of one
+     * priority in all the WorkAreas.
+     *
+     * @param priority the class of tasks
+     * @return the metrics
+     */
+    static TaskMetrics getMetrics(TaskPriority priority) {
+        return(metrics.get(priority));
+    }
+
+    synchronized public String toString() {
+        StringBuffer buf = new StringBuffer("BackgroundTaskQueue[size=" + this.size); //$NON-NLS-1$
+        buf.append(", maxSize=" + this.maxSize); //$NON-NLS-1$
+        for (TaskPriority priority : TaskPriority.values()) {
+            buf.append(", " + priority + "=" + this.queues.get(priority)); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        buf.append("]"); //$NON-NLS-1$
+        return(buf.toString());
+    }
+}
@@ -19,6 +19,7 @@
 package com.ibm.datapower.amt.clientAPI;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -281,55 +282,68 @@ public class Blob {
 	                    "Creating byte array in Blob from url" + this.url.toString()); //$NON-NLS-1$
         	}
 
-        	InputStream inputStream = this.getInputStream();
-            
-            // read in 4k chunks until we determine the size
-            int totalBytes = 0;
-            int bytesRead = 0; 
-            byte[] buffer = new byte[4096];
-            while ((bytesRead = inputStream.read(buffer,0,4096)) > 0) {
-            	totalBytes += bytesRead;
-            }
-            inputStream.close();
-            
-            inputStream = this.getInputStream();
-            
-            // Read the blob into a byte array now that we know the size
-            result = new byte[totalBytes];
-            int increment = 4096;
-            if (totalBytes < increment) {
-            	increment = totalBytes;
-            }
-            int bufferIndex = 0;
-            while ((bytesRead = inputStream.read(result,bufferIndex,increment)) > 0) {
-            	bufferIndex += bytesRead;
-                if ((totalBytes - bufferIndex) < 4096) {
-                	increment = totalBytes - bufferIndex;
-                }
-            }
-            
-            inputStream.close();
+        	result = this.readContents();
         } else {
             // this should not happen
             logger.logp(Level.INFO, CLASS_NAME, METHOD_NAME,
                     Messages.getString("wamt.clientAPI.Blob.internalErr",this.toString())); //$NON-NLS-1$
         }
 
-        if ( result != null )
+        if ((result != null) && logger.isLoggable(Level.FINEST)) {
         	logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME,
         			"Returning byte array, length: " + result.length); //$NON-NLS-1$
-        String message = "First 20 bytes of Blob: "; //$NON-NLS-1$
-        StringBuffer buf = new StringBuffer(message);
-        for (int i=0; i<20 && i<result.length; i++) {
-            int a = result[i];
-            buf.append(Integer.toHexString(a & 0xff) + " "); //$NON-NLS-1$             
+            String message = "First 20 bytes of Blob: "; //$NON-NLS-1$
+            StringBuffer buf = new StringBuffer(message);
+            for (int i=0; i<20 && i<result.length; i++) {
+                int a = result[i];
+                buf.append(Integer.toHexString(a & 0xff) + " "); //$NON-NLS-1$             
+            }
+            message = buf.toString();
+            logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME, message);
         }
-        message = buf.toString();
-        logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME, message);
 
         return(result);
     }
     
+    /*
+     * Read the file or URL into a byte array in a single pass. The contents
+     * used to be read once to find the size and again to fill the array,
+     * which fetched a URL twice. A file's array is sized from its length; a
+     * URL is read into a growing buffer.
+     */
+    private byte[] readContents() throws IOException {
+        InputStream inputStream = this.getInputStream();
+        try {
+            if (this.file != null) {
+                long length = this.file.length();
+                if (length < Integer.MAX_VALUE) {
+                    byte[] result = new byte[(int) length];
+                    int bufferIndex = 0;
+                    int bytesRead = 0;
+                    while ((bufferIndex < result.length) &&
+                           ((bytesRead = inputStream.read(result, bufferIndex, result.length - bufferIndex)) > 0)) {
+                        bufferIndex += bytesRead;
+                    }
+                    // the file may have changed size since its length was taken
+                    if ((bufferIndex == result.length) && (inputStream.read() < 0)) {
+                        return(result);
+                    }
+                    inputStream.close();
+                    inputStream = this.getInputStream();
+                }
+            }
+            ByteArrayOutputStream outputStream = new ByteArrayOutputStream(8192);
+            byte[] buffer = new byte[8192];
+            int bytesRead = 0;
+            while ((bytesRead = inputStream.read(buffer)) > 0) {
+                outputStream.write(buffer, 0, bytesRead);
+            }
+            return(outputStream.toByteArray());
+        } finally {
+            inputStream.close();
+        }
+    }
+    
     /**
      * Get the contents of the blob as an InputStream.
      * <p>
@@ -366,7 +380,7 @@ public class Blob {
             
             HttpURLConnection httpConnection = (HttpURLConnection) connection;			
 			if ( httpConnection.getResponseCode() == HttpURLConnection.HTTP_OK ) {
-				result = url.openStream();
+				result = httpConnection.getInputStream();
 			}
 			else {
 				// fix for 13324: Firmware images reported as not real, when using URL behind some form of authentication        		
@@ -410,39 +424,9 @@ public class Blob {
      * @throws IOException
      *             there was a problem reading the original Blob
      */
-    //TODO - TCB - this seems inefficient, a blob created from a byte[] may get 
-    //             converted to an inputstream, back to byte[] then to a base64
-    //             encoded byte[]. Perhaps this method should be "smarter" ?
     public Blob getBase64Encoded() throws IOException {
-        // figure out how big the content is
-        InputStream inputStream = this.getInputStream();
-
-        // read in 4k chunks until we determine the size
-        int size = 0;
-        int bytesRead = 0; 
-        byte[] buffer = new byte[4096];
-        while ((bytesRead = inputStream.read(buffer,0,4096)) > 0) {
-        	size += bytesRead;
-        }
-        inputStream.close();
-        
-        // allocate memory for the content and read it in
-        byte[] content = new byte[size];
-        inputStream = this.getInputStream();
-        int increment = 4096;
-        if (size < increment) {
-        	increment = size;
-        }
-        int bufferIndex = 0;
-        while ((bytesRead = inputStream.read(content, bufferIndex, increment)) > 0) {
-        	bufferIndex += bytesRead;
-            if ((size - bufferIndex) < 4096) {
-            	increment = size - bufferIndex;
-            }
-        }
-        inputStream.close();
-        
-        // Base64.encode();
+        // a byte array is encoded directly, a file or URL is read only once
+        byte[] content = (this.bytes != null) ? this.bytes : this.readContents();
         byte[] encodedContent = Base64.encodeBase64(content);
         // release the reference to "content"
         content = null;
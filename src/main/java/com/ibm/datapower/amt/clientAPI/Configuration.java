@@ -22,11 +22,16 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -64,13 +69,12 @@ import com.ibm.datapower.amt.logging.LoggerHelper;
 // * When fetching a value via this class, there is a preference order. First it
 // * will check if a value was specified via the properties file, as that gives us
 // * opportunity in the field to override values without a recompile. The
-// * properties file is read only once, at startup. Subsequent changes to the
-// * properties file will not take effect until a restart. If there is not an
+// * properties file is read at startup, and again by reload() when the running
+// * Manager sees that it changed. If there is not an
 // * explicit property with a non-null value, it will then look in the Manager
-// * options. The Manager options are read only once, when the Manager singleton
-// * is instantiated. Subsequent changes to the Manager options Map will not take
-// * effect until a restart, at which time the clientAPI consumer would need to
-// * rebuild the options Map anyway. If there is not an explicit Manager option
+// * options. The Manager options are read when the Manager singleton
+// * is instantiated, and again by Manager.updateOptions(Map). Changes to the
+// * Map object itself are not seen. If there is not an explicit Manager option
 // * with a non-null value, it will then use a default value. (Note that a default
 // * value may be null.) This approach also enforces that the coverage of all the
 // * config spaces are equal - this means that a configuration item can be set by
@@ -123,13 +127,24 @@ import com.ibm.datapower.amt.logging.LoggerHelper;
 //END INTERNAL COMMENTS 
 /**
  * This class loads all of the configuration data for the manager. 
- * Configuration can be specified only at startup time, there are no 
- * setter methods in this class to change configuration values after the 
- * <code>Manager</code> object has been instantiated. All configuration properties
+ * There are no setter methods for single configuration values. Values are
+ * changed by editing the properties file, followed by {@link #reload()} if the
+ * <code>Manager</code> is not running, or by {@link Manager#updateOptions(Map)}.
+ * All configuration properties
  * have default values, which can be overridden by key/value pairs in a 
  * properties file, which may be overridden by key/value pairs in the <code>Map</code> 
  * object passed to the constructor for <code>Manager</code>.
  * <p>
+ * The resolved values are kept in an immutable {@link Snapshot}, with the
+ * integer values already parsed, so reading a value does not parse or lock.
+ * While the <code>Manager</code> is running the properties file is checked
+ * for changes every few seconds. A changed file, {@link #reload()} or
+ * {@link Manager#updateOptions(Map)} replaces the snapshot in one step, and
+ * the heartbeat and domain synchronization daemons and the asynchronous
+ * command threads pick up new pool sizes and intervals without a restart.
+ * Other values, such as ports and implementation class names, are still read
+ * only when the component that uses them starts.
+ * <p>
  * Configuration reads from all three "config spaces". The Map object takes priority 
  * over the properties file, and the properties file takes priority over the
  * default values, as shown in the list below:
@@ -158,6 +173,17 @@ public class Configuration {
     private static boolean isRootDirectoryEnvVarSet = false;
     private static boolean isPropertiesLoaded = false;
     private static boolean isOptionsLoaded = false;
+    
+    private static volatile Snapshot snapshot = null;
+    private static final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+    // guards the notification of the listeners, see notifyListeners()
+    private static final Object notifyLock = new Object();
+    private static Snapshot notified = null;
+    private static Timer watchTimer = null;
+    private static long propertiesFingerprint = 0;
+    
+    // how often the running Manager checks the properties file for changes
+    private static final long WATCH_INTERVAL_MS = 5000;
 
     protected final static String CLASS_NAME = Configuration.class.getName();
     protected final static Logger logger = Logger.getLogger(CLASS_NAME);
@@ -541,6 +567,18 @@ public class Configuration {
 //  * visibility: {@link Configuration#VISIBILITY_TASK_QUEUE_SIZE}
     public static final String KEY_TASK_QUEUE_SIZE = "taskQueueSize"; //$NON-NLS-1$
     
+    /**
+     * Number of milliseconds that {@link Manager#enqueue(BackgroundTask, WorkArea)}
+     * waits for room on a full background task queue before it throws a
+     * {@link FullException}. 0 means fail right away. It has no effect unless
+     * {@link #KEY_TASK_QUEUE_SIZE} sets a limit. <br>
+     * matching option key name: {@link Manager#OPTION_TASK_QUEUE_OFFER_TIMEOUT} <br>
+     * default value: {@link Configuration#DEFAULT_TASK_QUEUE_OFFER_TIMEOUT} <br>
+     * 
+     * @see Manager#enqueue(BackgroundTask, WorkArea, long)
+     */
+    public static final String KEY_TASK_QUEUE_OFFER_TIMEOUT = "taskQueueOfferTimeout"; //$NON-NLS-1$
+    
     /**
      * The daemons (QueueProcessor and HeartbeatDaemon) should create
      * ProgressContainers and place them on a queue for retrieval by the user
@@ -721,6 +759,94 @@ public class Configuration {
     
     // default Item values for each of the above keys
     
+    /**
+     * The number of threads shared by all asynchronous AMP command facades ({@link com.ibm.datapower.amt.amp.AsyncCommands}). Calls beyond this many wait in a queue without holding a caller thread. <br>
+     * matching option key name: {@link Manager#OPTION_ASYNC_COMMANDS_THREAD_POOL_SIZE} <br>
+     * default value: {@link Configuration#DEFAULT_ASYNC_COMMANDS_THREAD_POOL_SIZE} <br>
+     * 
+     */
+    public static final String KEY_ASYNC_COMMANDS_THREAD_POOL_SIZE = "AsyncCommandsThreadPoolSize"; //$NON-NLS-1$
+    
+    /**
+     * The maximum number of asynchronous AMP calls that may be in flight against one device at the same time. Additional calls for that device are held in a per-device FIFO. <br>
+     * matching option key name: {@link Manager#OPTION_ASYNC_COMMANDS_MAX_PER_DEVICE} <br>
+     * default value: {@link Configuration#DEFAULT_ASYNC_COMMANDS_MAX_PER_DEVICE} <br>
+     * 
+     */
+    public static final String KEY_ASYNC_COMMANDS_MAX_PER_DEVICE = "AsyncCommandsMaxPerDevice"; //$NON-NLS-1$
+    
+    /**
+     * The time in milliseconds after which a running asynchronous AMP call is failed with an {@link com.ibm.datapower.amt.amp.AMPIOException}. A value of 0 disables the timeout. <br>
+     * matching option key name: {@link Manager#OPTION_ASYNC_COMMANDS_TIMEOUT} <br>
+     * default value: {@link Configuration#DEFAULT_ASYNC_COMMANDS_TIMEOUT} <br>
+     * 
+     */
+    public static final String KEY_ASYNC_COMMANDS_TIMEOUT = "asyncCommandsTimeout"; //$NON-NLS-1$
+    
+    /**
+     * The kind of thread used to run heartbeat, domain synchronization and device event handling tasks. Valid values are <code>platform</code> (fixed pools of ordinary threads, the historical behavior) and <code>virtual</code> (one virtual thread per task, on a JDK that provides virtual threads). If <code>virtual</code> is requested on a JDK without virtual threads, <code>platform</code> is used. <br>
+     * matching option key name: {@link Manager#OPTION_THREAD_EXECUTION_MODE} <br>
+     * default value: {@link Configuration#DEFAULT_THREAD_EXECUTION_MODE} <br>
+     * 
+     */
+    public static final String KEY_THREAD_EXECUTION_MODE = "ThreadExecutionMode"; //$NON-NLS-1$
+    
+    /**
+     * When {@link #KEY_THREAD_EXECUTION_MODE} is <code>virtual</code>, the maximum number of heartbeat or domain synchronization tasks of each kind that may run against one device at the same time. <br>
+     * matching option key name: {@link Manager#OPTION_MAX_TASKS_PER_DEVICE} <br>
+     * default value: {@link Configuration#DEFAULT_MAX_TASKS_PER_DEVICE} <br>
+     * 
+     */
+    public static final String KEY_MAX_TASKS_PER_DEVICE = "MaxTasksPerDevice"; //$NON-NLS-1$
+    
+    /**
+     * The time in milliseconds that the signal dispatcher waits for more signals to the same third-party SOAP service before it sends them together on one connection. Signals are always delivered in the order they were raised. A value of 0 sends each signal as soon as it is raised <br>
+     * matching option key name: {@link Manager#OPTION_SIGNAL_BATCH_WINDOW} <br>
+     * default value: {@link Configuration#DEFAULT_SIGNAL_BATCH_WINDOW} <br>
+     * 
+     */
+    public static final String KEY_SIGNAL_BATCH_WINDOW = "signalBatchWindow"; //$NON-NLS-1$
+    
+    /**
+     * The directory in which {@link com.ibm.datapower.amt.DeviceLogger} writes one rolling log file per appliance, named after the address of the appliance. If this is not set, the log messages received from appliances are written to {@link Manager#getDeviceLogger()} <br>
+     * matching option key name: {@link Manager#OPTION_DEVICE_LOG_DIRECTORY} <br>
+     * default value: {@link Configuration#DEFAULT_DEVICE_LOG_DIRECTORY} <br>
+     * 
+     */
+    public static final String KEY_DEVICE_LOG_DIRECTORY = "DeviceLogDirectory"; //$NON-NLS-1$
+    
+    /**
+     * The size in bytes at which a per-appliance log file in {@link Configuration#KEY_DEVICE_LOG_DIRECTORY} is rolled over to a new file <br>
+     * matching option key name: {@link Manager#OPTION_DEVICE_LOG_FILE_SIZE} <br>
+     * default value: {@link Configuration#DEFAULT_DEVICE_LOG_FILE_SIZE} <br>
+     * 
+     */
+    public static final String KEY_DEVICE_LOG_FILE_SIZE = "DeviceLogFileSize"; //$NON-NLS-1$
+    
+    /**
+     * The number of rolled over log files kept for each appliance in {@link Configuration#KEY_DEVICE_LOG_DIRECTORY}, in addition to the current one <br>
+     * matching option key name: {@link Manager#OPTION_DEVICE_LOG_FILE_COUNT} <br>
+     * default value: {@link Configuration#DEFAULT_DEVICE_LOG_FILE_COUNT} <br>
+     * 
+     */
+    public static final String KEY_DEVICE_LOG_FILE_COUNT = "DeviceLogFileCount"; //$NON-NLS-1$
+    
+    /**
+     * The maximum number of appliance connections that {@link com.ibm.datapower.amt.DeviceLogger} keeps open at the same time. When it is reached, new connections wait in the listen backlog of the operating system until an open one is closed <br>
+     * matching option key name: {@link Manager#OPTION_DEVICE_LOG_MAX_CONNECTIONS} <br>
+     * default value: {@link Configuration#DEFAULT_DEVICE_LOG_MAX_CONNECTIONS} <br>
+     * 
+     */
+    public static final String KEY_DEVICE_LOG_MAX_CONNECTIONS = "DeviceLogMaxConnections"; //$NON-NLS-1$
+    
+    /**
+     * Whether the latency and size of each AMP and SOMA command are measured. The measurements are available from the {@link ManagerMetricsMXBean}, which is registered with the platform MBean server, along with the notification and repository save counters that are always kept. When set to <code>false</code> the commands are not timed at all. This can be changed while the Manager is running <br>
+     * matching option key name: {@link Manager#OPTION_METRICS_ENABLED} <br>
+     * default value: {@link Configuration#DEFAULT_METRICS_ENABLED} <br>
+     * 
+     */
+    public static final String KEY_METRICS_ENABLED = "MetricsEnabled"; //$NON-NLS-1$
+    
     /**
      * Default value for the configuration item specified by
      * {@link #KEY_HEARTBEAT_THREAD_POOL_SIZE} 
@@ -889,6 +1015,12 @@ public class Configuration {
      */
     public static final String DEFAULT_TASK_QUEUE_SIZE = null;                                                                          //$NON-NLS-1$
     
+    /**
+     * Default value for the configuration item specified by
+     * {@link #KEY_TASK_QUEUE_OFFER_TIMEOUT} 
+     */
+    public static final String DEFAULT_TASK_QUEUE_OFFER_TIMEOUT = "0"; //$NON-NLS-1$
+    
     /**
      * Default value for the configuration item specified by
      * {@link #KEY_COLLECT_DAEMON_PROGRESSES} 
@@ -974,6 +1106,72 @@ public class Configuration {
      */
     public static final String DEFAULT_TRUSTSTORE_PASSWORD = null; //$NON-NLS-1$
     
+    /**
+     * Default value for the configuration item specified by
+     * {@link #KEY_ASYNC_COMMANDS_THREAD_POOL_SIZE} 
+     */
+    public static final String DEFAULT_ASYNC_COMMANDS_THREAD_POOL_SIZE = "10"; //$NON-NLS-1$
+    
+    /**
+     * Default value for the configuration item specified by
+     * {@link #KEY_ASYNC_COMMANDS_MAX_PER_DEVICE} 
+     */
+    public static final String DEFAULT_ASYNC_COMMANDS_MAX_PER_DEVICE = "2"; //$NON-NLS-1$
+    
+    /**
+     * Default value for the configuration item specified by
+     * {@link #KEY_ASYNC_COMMANDS_TIMEOUT} 
+     */
+    public static final String DEFAULT_ASYNC_COMMANDS_TIMEOUT = "900000"; //$NON-NLS-1$
+    
+    /**
+     * Default value for the configuration item specified by
+     * {@link #KEY_THREAD_EXECUTION_MODE} 
+     */
+    public static final String DEFAULT_THREAD_EXECUTION_MODE = "platform"; //$NON-NLS-1$
+    
+    /**
+     * Default value for the configuration item specified by
+     * {@link #KEY_MAX_TASKS_PER_DEVICE} 
+     */
+    public static final String DEFAULT_MAX_TASKS_PER_DEVICE = "2"; //$NON-NLS-1$
+    
+    /**
+     * Default value for the configuration item specified by
+     * {@link #KEY_SIGNAL_BATCH_WINDOW} 
+     */
+    public static final String DEFAULT_SIGNAL_BATCH_WINDOW = "0"; //$NON-NLS-1$
+    
+    /**
+     * Default value for the configuration item specified by
+     * {@link #KEY_DEVICE_LOG_DIRECTORY} 
+     */
+    public static final String DEFAULT_DEVICE_LOG_DIRECTORY = null;
+    
+    /**
+     * Default value for the configuration item specified by
+     * {@link #KEY_DEVICE_LOG_FILE_SIZE} 
+     */
+    public static final String DEFAULT_DEVICE_LOG_FILE_SIZE = "10485760"; //$NON-NLS-1$
+    
+    /**
+     * Default value for the configuration item specified by
+     * {@link #KEY_DEVICE_LOG_FILE_COUNT} 
+     */
+    public static final String DEFAULT_DEVICE_LOG_FILE_COUNT = "5"; //$NON-NLS-1$
+    
+    /**
+     * Default value for the configuration item specified by
+     * {@link #KEY_DEVICE_LOG_MAX_CONNECTIONS} 
+     */
+    public static final String DEFAULT_DEVICE_LOG_MAX_CONNECTIONS = "512"; //$NON-NLS-1$
+    
+    /**
+     * Default value for the configuration item specified by
+     * {@link #KEY_METRICS_ENABLED} 
+     */
+    public static final String DEFAULT_METRICS_ENABLED = "false"; //$NON-NLS-1$
+    
     /**
      * Prefix to be added to the message numbers logged by the manager
      * {@link com.ibm.datapower.amt.amp.Commands} interface. <br>
@@ -1149,6 +1347,12 @@ public class Configuration {
      */
     private static final boolean VISIBILITY_TASK_QUEUE_SIZE = false;
     
+    /**
+     * Customer visibility of the configuration item specified by
+     * {@link #KEY_TASK_QUEUE_OFFER_TIMEOUT}.
+     */
+    private static final boolean VISIBILITY_TASK_QUEUE_OFFER_TIMEOUT = false;
+    
     /**
      * Customer visibility of the configuration item specified by
      * {@link #KEY_COLLECT_DAEMON_PROGRESSES}.
@@ -1232,6 +1436,72 @@ public class Configuration {
      */
     private static final boolean VISIBILITY_TRUSTSTORE_PASSWORD = true;
 
+    /**
+     * Customer visibility of the configuration item specified by
+     * {@link #KEY_ASYNC_COMMANDS_THREAD_POOL_SIZE}.
+     */
+    private static final boolean VISIBILITY_ASYNC_COMMANDS_THREAD_POOL_SIZE = true;
+
+    /**
+     * Customer visibility of the configuration item specified by
+     * {@link #KEY_ASYNC_COMMANDS_MAX_PER_DEVICE}.
+     */
+    private static final boolean VISIBILITY_ASYNC_COMMANDS_MAX_PER_DEVICE = true;
+
+    /**
+     * Customer visibility of the configuration item specified by
+     * {@link #KEY_ASYNC_COMMANDS_TIMEOUT}.
+     */
+    private static final boolean VISIBILITY_ASYNC_COMMANDS_TIMEOUT = true;
+
+    /**
+     * Customer visibility of the configuration item specified by
+     * {@link #KEY_THREAD_EXECUTION_MODE}.
+     */
+    private static final boolean VISIBILITY_THREAD_EXECUTION_MODE = true;
+
+    /**
+     * Customer visibility of the configuration item specified by
+     * {@link #KEY_MAX_TASKS_PER_DEVICE}.
+     */
+    private static final boolean VISIBILITY_MAX_TASKS_PER_DEVICE = true;
+
+    /**
+     * Customer visibility of the configuration item specified by
+     * {@link #KEY_SIGNAL_BATCH_WINDOW}.
+     */
+    private static final boolean VISIBILITY_SIGNAL_BATCH_WINDOW = false;
+
+    /**
+     * Customer visibility of the configuration item specified by
+     * {@link #KEY_DEVICE_LOG_DIRECTORY}.
+     */
+    private static final boolean VISIBILITY_DEVICE_LOG_DIRECTORY = false;
+
+    /**
+     * Customer visibility of the configuration item specified by
+     * {@link #KEY_DEVICE_LOG_FILE_SIZE}.
+     */
+    private static final boolean VISIBILITY_DEVICE_LOG_FILE_SIZE = false;
+
+    /**
+     * Customer visibility of the configuration item specified by
+     * {@link #KEY_DEVICE_LOG_FILE_COUNT}.
+     */
+    private static final boolean VISIBILITY_DEVICE_LOG_FILE_COUNT = false;
+
+    /**
+     * Customer visibility of the configuration item specified by
+     * {@link #KEY_DEVICE_LOG_MAX_CONNECTIONS}.
+     */
+    private static final boolean VISIBILITY_DEVICE_LOG_MAX_CONNECTIONS = false;
+
+    /**
+     * Customer visibility of the configuration item specified by
+     * {@link #KEY_METRICS_ENABLED}.
+     */
+    private static final boolean VISIBILITY_METRICS_ENABLED = true;
+
     private Configuration() {
         // don't call the constructor, everything is static
     }
@@ -1388,6 +1658,11 @@ public class Configuration {
                 Configuration.DEFAULT_TASK_QUEUE_SIZE,
                 Configuration.VISIBILITY_TASK_QUEUE_SIZE);
         
+        addNewItem(Configuration.KEY_TASK_QUEUE_OFFER_TIMEOUT,
+                Manager.OPTION_TASK_QUEUE_OFFER_TIMEOUT,
+                Configuration.DEFAULT_TASK_QUEUE_OFFER_TIMEOUT,
+                Configuration.VISIBILITY_TASK_QUEUE_OFFER_TIMEOUT);
+        
         addNewItem(Configuration.KEY_DEVICE_LOG_PORT,
                 Manager.OPTION_DEVICE_LOG_PORT,
                 Configuration.DEFAULT_DEVICE_LOG_PORT,
@@ -1463,6 +1738,61 @@ public class Configuration {
                 Configuration.DEFAULT_TRUSTSTORE_PASSWORD,
                 Configuration.VISIBILITY_TRUSTSTORE_PASSWORD);
 
+        addNewItem(Configuration.KEY_ASYNC_COMMANDS_THREAD_POOL_SIZE,
+                Manager.OPTION_ASYNC_COMMANDS_THREAD_POOL_SIZE,
+                Configuration.DEFAULT_ASYNC_COMMANDS_THREAD_POOL_SIZE,
+                Configuration.VISIBILITY_ASYNC_COMMANDS_THREAD_POOL_SIZE);
+
+        addNewItem(Configuration.KEY_ASYNC_COMMANDS_MAX_PER_DEVICE,
+                Manager.OPTION_ASYNC_COMMANDS_MAX_PER_DEVICE,
+                Configuration.DEFAULT_ASYNC_COMMANDS_MAX_PER_DEVICE,
+                Configuration.VISIBILITY_ASYNC_COMMANDS_MAX_PER_DEVICE);
+
+        addNewItem(Configuration.KEY_ASYNC_COMMANDS_TIMEOUT,
+                Manager.OPTION_ASYNC_COMMANDS_TIMEOUT,
+                Configuration.DEFAULT_ASYNC_COMMANDS_TIMEOUT,
+                Configuration.VISIBILITY_ASYNC_COMMANDS_TIMEOUT);
+
+        addNewItem(Configuration.KEY_THREAD_EXECUTION_MODE,
+                Manager.OPTION_THREAD_EXECUTION_MODE,
+                Configuration.DEFAULT_THREAD_EXECUTION_MODE,
+                Configuration.VISIBILITY_THREAD_EXECUTION_MODE);
+
+        addNewItem(Configuration.KEY_MAX_TASKS_PER_DEVICE,
+                Manager.OPTION_MAX_TASKS_PER_DEVICE,
+                Configuration.DEFAULT_MAX_TASKS_PER_DEVICE,
+                Configuration.VISIBILITY_MAX_TASKS_PER_DEVICE);
+
+        addNewItem(Configuration.KEY_SIGNAL_BATCH_WINDOW,
+                Manager.OPTION_SIGNAL_BATCH_WINDOW,
+                Configuration.DEFAULT_SIGNAL_BATCH_WINDOW,
+                Configuration.VISIBILITY_SIGNAL_BATCH_WINDOW);
+
+        addNewItem(Configuration.KEY_DEVICE_LOG_DIRECTORY,
+                Manager.OPTION_DEVICE_LOG_DIRECTORY,
+                Configuration.DEFAULT_DEVICE_LOG_DIRECTORY,
+                Configuration.VISIBILITY_DEVICE_LOG_DIRECTORY);
+
+        addNewItem(Configuration.KEY_DEVICE_LOG_FILE_SIZE,
+                Manager.OPTION_DEVICE_LOG_FILE_SIZE,
+                Configuration.DEFAULT_DEVICE_LOG_FILE_SIZE,
+                Configuration.VISIBILITY_DEVICE_LOG_FILE_SIZE);
+
+        addNewItem(Configuration.KEY_DEVICE_LOG_FILE_COUNT,
+                Manager.OPTION_DEVICE_LOG_FILE_COUNT,
+                Configuration.DEFAULT_DEVICE_LOG_FILE_COUNT,
+                Configuration.VISIBILITY_DEVICE_LOG_FILE_COUNT);
+
+        addNewItem(Configuration.KEY_DEVICE_LOG_MAX_CONNECTIONS,
+                Manager.OPTION_DEVICE_LOG_MAX_CONNECTIONS,
+                Configuration.DEFAULT_DEVICE_LOG_MAX_CONNECTIONS,
+                Configuration.VISIBILITY_DEVICE_LOG_MAX_CONNECTIONS);
+
+        addNewItem(Configuration.KEY_METRICS_ENABLED,
+                Manager.OPTION_METRICS_ENABLED,
+                Configuration.DEFAULT_METRICS_ENABLED,
+                Configuration.VISIBILITY_METRICS_ENABLED);
+
         // Credential is not included because it is not a String and
         // we don't want anyone else reading it
 
@@ -1487,7 +1817,8 @@ public class Configuration {
         }
 
         // load the properties file and merge the data into our ItemCollection
-        loadProperties();
+        loadProperties(true);
+        publish();
         
         // load the Manager options later, the Manager should give us that
     }
@@ -1499,11 +1830,12 @@ public class Configuration {
         itemCollection.add(item);
     }
     
-    private static void loadProperties() {
+    private static void loadProperties(boolean createIfMissing) {
         final String METHOD_NAME = "loadProperties"; //$NON-NLS-1$
         if (!isPropertiesLoaded) {
             Properties properties = new Properties();
             File propertiesFile = new File(rootDirectory + PROPERTIES_FILE_RELATIVE_NAME);
+            propertiesFingerprint = fingerprint(propertiesFile);
             // load from it if it exists
             if (propertiesFile.exists()) { 
             	InputStream inputStream = null;
@@ -1527,7 +1859,7 @@ public class Configuration {
                 }
             } else {
                 // create it if it doesn't exist
-                if (isRootDirectoryEnvVarSet) {
+                if (isRootDirectoryEnvVarSet && createIfMissing) {
                     logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME, 
                             "creating default properties file"); //$NON-NLS-1$
                     // only if environment variable was set...
@@ -1568,7 +1900,7 @@ public class Configuration {
                     // ten the value must be changed to 60 because the dvice will not respect a 
                     // value less than 60.
                     if (propertyKey.equals(KEY_DOMAIN_QUIESCE_TIMEOUT)) {
-                        int timeout = Configuration.getAsInteger(Configuration.KEY_DOMAIN_QUIESCE_TIMEOUT).intValue();
+                        int timeout = item.getPreferredInteger().intValue();
                         if (timeout > 0 && timeout < 60) {
                             logger.logp(Level.WARNING, CLASS_NAME, METHOD_NAME,
                                     "property " + propertyKey + //$NON-NLS-1$
@@ -1579,7 +1911,7 @@ public class Configuration {
                     }
 
                     if (propertyKey.equals(KEY_DEVICE_QUIESCE_TIMEOUT)) {
-                        int timeout = Configuration.getAsInteger(Configuration.KEY_DEVICE_QUIESCE_TIMEOUT).intValue();
+                        int timeout = item.getPreferredInteger().intValue();
                         if (timeout > 0 && timeout < 60) {
                             logger.logp(Level.WARNING, CLASS_NAME, METHOD_NAME,
                                     "property " + propertyKey + //$NON-NLS-1$
@@ -1599,6 +1931,168 @@ public class Configuration {
         }
     }
     
+    /*
+     * The size and modification time of the properties file, which change
+     * when it is edited. A missing file has a fingerprint of 0.
+     */
+    private static long fingerprint(File propertiesFile) {
+        return(31 * propertiesFile.lastModified() + propertiesFile.length());
+    }
+    
+    /**
+     * Read the properties file again and apply its values. Values from the
+     * <code>Manager</code> options are kept, but a value in the properties
+     * file still takes precedence over them. If the values changed, the
+     * {@link Snapshot} is replaced and the daemons resize their thread pools
+     * and reschedule their timers. While the <code>Manager</code> is running
+     * this happens by itself a few seconds after the file is saved.
+     * 
+     * @return true if any value changed
+     */
+    public static boolean reload() {
+        final String METHOD_NAME = "reload"; //$NON-NLS-1$
+        synchronized (Configuration.class) {
+            Iterator<?> iterator = itemCollection.canonicalMap.values().iterator();
+            while (iterator.hasNext()) {
+                ((Item) iterator.next()).propertyValue = null;
+            }
+            isPropertiesLoaded = false;
+            loadProperties(false);
+        }
+        boolean changed = publish();
+        logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
+                "reloaded properties file, changed: " + changed); //$NON-NLS-1$
+        return(changed);
+    }
+    
+    /*
+     * Check the properties file from a daemon timer while the Manager runs.
+     */
+    static synchronized void startWatching() {
+        if (watchTimer != null) {
+            return;
+        }
+        watchTimer = new Timer("ConfigurationWatcher", true); //$NON-NLS-1$
+        watchTimer.schedule(new TimerTask() {
+            public void run() {
+                reloadIfChanged();
+            }
+        }, WATCH_INTERVAL_MS, WATCH_INTERVAL_MS);
+    }
+    
+    static synchronized void stopWatching() {
+        if (watchTimer != null) {
+            watchTimer.cancel();
+            watchTimer = null;
+        }
+    }
+    
+    private static void reloadIfChanged() {
+        final String METHOD_NAME = "reloadIfChanged"; //$NON-NLS-1$
+        File propertiesFile = new File(rootDirectory + PROPERTIES_FILE_RELATIVE_NAME);
+        long current = fingerprint(propertiesFile);
+        synchronized (Configuration.class) {
+            if (current == propertiesFingerprint) {
+                return;
+            }
+        }
+        logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME,
+                "properties file changed: " + propertiesFile.getAbsolutePath()); //$NON-NLS-1$
+        try {
+            reload();
+        } catch (RuntimeException e) {
+            // keep the timer alive, the next change will be picked up
+            logger.logp(Level.WARNING, CLASS_NAME, METHOD_NAME,
+                    "Unable to reload the properties file", e); //$NON-NLS-1$
+        }
+    }
+    
+    /*
+     * Build a snapshot from the items and replace the current one if any
+     * value changed, then tell the listeners. The listeners are called
+     * outside the lock, on the thread that made the change.
+     */
+    private static boolean publish() {
+        Snapshot previous = null;
+        Snapshot current = null;
+        synchronized (Configuration.class) {
+            previous = snapshot;
+            current = new Snapshot(itemCollection, 
+                    (previous == null) ? 1 : previous.generation + 1);
+            if ((previous != null) && previous.values.equals(current.values)) {
+                return(false);
+            }
+            snapshot = current;
+        }
+        notifyListeners();
+        return(true);
+    }
+    
+    /*
+     * Tell the listeners about the latest snapshot. Only one thread notifies
+     * at a time, and it always passes the newest snapshot and the one the
+     * listeners were last told about, so two threads that publish at the same
+     * time cannot deliver their changes out of order. A thread that finds the
+     * latest snapshot already delivered has nothing to do. The first snapshot
+     * is not delivered, since nothing can have seen an earlier one.
+     */
+    private static void notifyListeners() {
+        final String METHOD_NAME = "notifyListeners"; //$NON-NLS-1$
+        synchronized (notifyLock) {
+            Snapshot previous = notified;
+            Snapshot current = snapshot;
+            notified = current;
+            if ((previous == null) || (previous == current)) {
+                return;
+            }
+            Iterator<Listener> iterator = listeners.iterator();
+            while (iterator.hasNext()) {
+                Listener listener = iterator.next();
+                try {
+                    listener.configurationChanged(previous, current);
+                } catch (RuntimeException e) {
+                    logger.logp(Level.WARNING, CLASS_NAME, METHOD_NAME,
+                            "A configuration listener failed: " + listener, e); //$NON-NLS-1$
+                }
+            }
+        }
+    }
+    
+    /**
+     * Get the current configuration. The snapshot does not change. When the
+     * configuration changes a new snapshot replaces this one, so read all the
+     * related values from the same snapshot.
+     * <p>
+     * This method is for internal use only.
+     * 
+     * @return the current configuration
+     */
+    public static Snapshot getSnapshot() {
+        return(snapshot);
+    }
+    
+    /**
+     * Be told when the configuration changes.
+     * <p>
+     * This method is for internal use only.
+     * 
+     * @param listener the listener to add
+     */
+    public static void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+    
+    /**
+     * Stop being told when the configuration changes.
+     * <p>
+     * This method is for internal use only.
+     * 
+     * @param listener the listener to remove
+     */
+    public static void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+    
     private static void createPropertiesFile(File file) {
         final String METHOD_NAME = "createPropertiesFile";  //$NON-NLS-1$ 
         // write out the properties file
@@ -1687,72 +2181,73 @@ public class Configuration {
 	 */
 	static public Integer getAsInteger(String canonicalKey) {
 	    final String METHOD_NAME = "getAsInteger"; //$NON-NLS-1$
-	    Integer result = null;
-	    Item item = itemCollection.getByCanonical(canonicalKey);
-	    if (item != null) {
-	        // put these values in the preferred order, we'll pick the 1st one that works
-	        String[] values = {item.propertyValue, item.optionValue, item.defaultValue};
-	        for (int i=0; (i<values.length) && (result==null); i++) {
-	            if (values[i] != null) {
-	                try {
-	                    result = new Integer(values[i]);
-	                } catch (NumberFormatException e) {
-	                    result = null;
-	                    logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME, 
-	                            "The configuration item named " + canonicalKey +       //$NON-NLS-1$
-	                            " had String value '" + values[i] + "'" +              //$NON-NLS-1$  //$NON-NLS-2$
-	                            " at level " + i +                                     //$NON-NLS-1$
-	                            " and the attempt to parse it as an Integer failed."); //$NON-NLS-1$
-	                }
-	            }
-	        }
-	    } else {
+	    Snapshot current = snapshot;
+	    if (!current.contains(canonicalKey)) {
 	        logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
 	                "warning: request for non-existing item with key " + canonicalKey); //$NON-NLS-1$
 	    }
-	    return(result);
+	    return(current.getAsInteger(canonicalKey));
 	}
 
 	static void loadFromManagerMap(Map managerMap) {
         // this should be invoked only by the Manager as the first thing it does
 
-        if (!isOptionsLoaded) {
-            // walk through each of the Map entries to find the matching Item
-            Set keys = managerMap.keySet();
-            Iterator iterator = keys.iterator();
-            while (iterator.hasNext()) {
-                Object object = iterator.next();
-                if (!(object instanceof String)) {
-                    // hey, what are you giving me here?
-                    continue;
-                }
-                String optionKey = (String) object;
-                if (optionKey.equals(Manager.OPTION_CREDENTIAL)) {
-                    // we don't want the credential to ever leave the Manager
-                    continue;
-                }
-                object = managerMap.get(optionKey);
-                if (object == null) {
-                    // don't bother with null values
-                    continue;
-                }
-                String value = null;
-                if (object instanceof Credential) {
-                    continue;
-                } else if (object instanceof String) {
-                    value = (String) object;
-                } else {
-                    value = object.toString();
-                }
-                // now set the optionValue
-                Item item = itemCollection.getByOption(optionKey);
-                if (item != null) {
-                    // accept only trusted key names
-                    item.optionValue = value;
-                }
+        synchronized (Configuration.class) {
+            if (isOptionsLoaded) {
+                return;
             }
+            mergeOptions(managerMap);
             isOptionsLoaded = true;
         }
+        publish();
+    }
+    
+    /*
+     * Apply Manager options that were changed after startup, see
+     * Manager.updateOptions(Map). Items not in the Map keep their option value.
+     */
+    static boolean updateFromManagerMap(Map<?, ?> managerMap) {
+        synchronized (Configuration.class) {
+            mergeOptions(managerMap);
+        }
+        return(publish());
+    }
+    
+    private static void mergeOptions(Map<?, ?> managerMap) {
+        // walk through each of the Map entries to find the matching Item
+        Set<?> keys = managerMap.keySet();
+        Iterator<?> iterator = keys.iterator();
+        while (iterator.hasNext()) {
+            Object object = iterator.next();
+            if (!(object instanceof String)) {
+                // hey, what are you giving me here?
+                continue;
+            }
+            String optionKey = (String) object;
+            if (optionKey.equals(Manager.OPTION_CREDENTIAL)) {
+                // we don't want the credential to ever leave the Manager
+                continue;
+            }
+            object = managerMap.get(optionKey);
+            if (object == null) {
+                // don't bother with null values
+                continue;
+            }
+            String value = null;
+            if (object instanceof Credential) {
+                continue;
+            } else if (object instanceof String) {
+                value = (String) object;
+            } else {
+                value = object.toString();
+            }
+            // now set the optionValue
+            Item item = itemCollection.getByOption(optionKey);
+            if (item != null) {
+                // accept only trusted key names
+                item.optionValue = value;
+            }
+        }
     }
     
     /**
@@ -1791,15 +2286,12 @@ public class Configuration {
      */
     static public String get(String canonicalKey) {
         final String METHOD_NAME = "get"; //$NON-NLS-1$
-        String result = null;
-        Item item = itemCollection.getByCanonical(canonicalKey);
-        if (item != null) {
-            result = item.getPreferredValue();
-        } else {
+        Snapshot current = snapshot;
+        if (!current.contains(canonicalKey)) {
             logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
                     "warning: request for non-existing item with key " + canonicalKey); //$NON-NLS-1$
         }
-        return(result);
+        return(current.get(canonicalKey));
     }
     
     /**
@@ -1821,7 +2313,10 @@ public class Configuration {
         final String METHOD_NAME = "set"; //$NON-NLS-1$
         Item item = itemCollection.getByCanonical(canonicalKey);
         if (item != null) {
-            item.optionValue = value;
+            synchronized (Configuration.class) {
+                item.optionValue = value;
+            }
+            publish();
             logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME,
                     "setting " + canonicalKey +     //$NON-NLS-1$
                     " option value to " + value);   //$NON-NLS-1$
@@ -1895,6 +2390,32 @@ public class Configuration {
             return(result);
         }
         
+        /*
+         * The first of the property, option and default values that parses
+         * as an Integer, or null if none does.
+         */
+        Integer getPreferredInteger() {
+            final String METHOD_NAME = "getPreferredInteger"; //$NON-NLS-1$
+            Integer result = null;
+            // put these values in the preferred order, we'll pick the 1st one that works
+            String[] values = {this.propertyValue, this.optionValue, this.defaultValue};
+            for (int i=0; (i<values.length) && (result==null); i++) {
+                if (values[i] != null) {
+                    try {
+                        result = Integer.valueOf(values[i]);
+                    } catch (NumberFormatException e) {
+                        result = null;
+                        logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME, 
+                                "The configuration item named " + this.canonicalKey +  //$NON-NLS-1$
+                                " had String value '" + values[i] + "'" +              //$NON-NLS-1$  //$NON-NLS-2$
+                                " at level " + i +                                     //$NON-NLS-1$
+                                " and the attempt to parse it as an Integer failed."); //$NON-NLS-1$
+                    }
+                }
+            }
+            return(result);
+        }
+        
         boolean getIsVisible() {
             return(this.isVisible);
         }
@@ -1925,4 +2446,118 @@ public class Configuration {
         }
         
     }
+    
+    /**
+     * The configuration at one point in time. Every value is resolved (property,
+     * then option, then default) and the integer values are parsed when the
+     * snapshot is made, so reading a value is a single map lookup. A snapshot
+     * never changes; see {@link Configuration#getSnapshot()}.
+     * <p>
+     * This class is for internal use only.
+     */
+    public static final class Snapshot {
+        private final Map<String, String> values;
+        private final Map<String, Integer> integers;
+        private final long generation;
+        
+        private Snapshot(ItemCollection items, long generation) {
+            Map<String, String> values = new HashMap<String, String>();
+            Map<String, Integer> integers = new HashMap<String, Integer>();
+            Iterator<?> iterator = items.canonicalMap.values().iterator();
+            while (iterator.hasNext()) {
+                Item item = (Item) iterator.next();
+                values.put(item.canonicalKey, item.getPreferredValue());
+                integers.put(item.canonicalKey, item.getPreferredInteger());
+            }
+            this.values = Collections.unmodifiableMap(values);
+            this.integers = Collections.unmodifiableMap(integers);
+            this.generation = generation;
+        }
+        
+        /**
+         * @param canonicalKey the canonical name of a configuration item
+         * @return true if there is an item with that name
+         */
+        public boolean contains(String canonicalKey) {
+            return(this.values.containsKey(canonicalKey));
+        }
+        
+        /**
+         * Get the preferred value, as {@link Configuration#get(String)} does.
+         * 
+         * @param canonicalKey the canonical name of a configuration item
+         * @return the value, which may be null
+         */
+        public String get(String canonicalKey) {
+            return(this.values.get(canonicalKey));
+        }
+        
+        /**
+         * Get the preferred value that parses as an Integer, as
+         * {@link Configuration#getAsInteger(String)} does.
+         * 
+         * @param canonicalKey the canonical name of a configuration item
+         * @return the value, which may be null
+         */
+        public Integer getAsInteger(String canonicalKey) {
+            return(this.integers.get(canonicalKey));
+        }
+        
+        /**
+         * Get the preferred value as an int.
+         * 
+         * @param canonicalKey the canonical name of a configuration item
+         * @param fallback the value to use if the item has no integer value
+         * @return the value, or <code>fallback</code>
+         */
+        public int getAsInt(String canonicalKey, int fallback) {
+            Integer result = this.integers.get(canonicalKey);
+            return((result == null) ? fallback : result.intValue());
+        }
+        
+        /**
+         * Get the preferred value as a boolean, the same way
+         * <code>Boolean.valueOf(Configuration.get(canonicalKey))</code> does.
+         * 
+         * @param canonicalKey the canonical name of a configuration item
+         * @return true if the value is "true", ignoring case
+         */
+        public boolean getAsBoolean(String canonicalKey) {
+            return(Boolean.valueOf(this.values.get(canonicalKey)).booleanValue());
+        }
+        
+        /**
+         * @return a number that goes up each time the configuration changes
+         */
+        public long getGeneration() {
+            return(this.generation);
+        }
+        
+        /**
+         * Check if an item has a different value in another snapshot.
+         * 
+         * @param that the other snapshot
+         * @param canonicalKey the canonical name of a configuration item
+         * @return true if the values differ
+         */
+        public boolean isChanged(Snapshot that, String canonicalKey) {
+            String mine = this.values.get(canonicalKey);
+            String theirs = that.values.get(canonicalKey);
+            return((mine == null) ? (theirs != null) : !mine.equals(theirs));
+        }
+    }
+    
+    /**
+     * Told when the configuration changes, with the snapshots before and
+     * after the change. It is called on the thread that made the change, so
+     * it should return quickly. Calls are made one at a time and in order:
+     * the <code>previous</code> snapshot of a call is the <code>current</code>
+     * one of the call before it. Changes made close together may be reported
+     * in a single call.
+     * <p>
+     * This interface is for internal use only.
+     */
+    public interface Listener {
+        void configurationChanged(Snapshot previous, Snapshot current);
+    }
 }
@@ -291,62 +291,62 @@ public class DeploymentPolicy implements Persistable, Versionable {
     	this.byteArray = byteArray;
     }
     
+    /*
+     * The oldest versions are removed together and the repository is saved
+     * once afterwards. See VersionRetention.
+     */
     void trimExcessVersions() {
         final String METHOD_NAME = "trimExcessVersions"; //$NON-NLS-1$
-        Manager manager = null;
         int allowed = 0;
-        Version[] versions = null;
-        int have = 0;
-        int highest = 0;
+        StoredVersion[] versions = null;
+        int excess = 0;
         try {
-            manager = Manager.internalGetInstance();
-            allowed = manager.getMaxVersionsToStore();
-            versions = this.getVersions();
-            have = versions.length;
-            highest = this.getHighestVersionNumber();
+            allowed = Manager.internalGetInstance().getMaxVersionsToStore();
+            versions = this.getStoredInstance().getVersions();
+            excess = VersionRetention.excess(versions, allowed);
         } catch (DeletedException e) {
             logger.logp(Level.INFO, CLASS_NAME, METHOD_NAME,
                     Messages.getString("CannotTrim"), e); //$NON-NLS-1$
             return;
         }
-        if (have > allowed) {
-            logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
-                    "need to trim, have " + have + //$NON-NLS-1$
-                    " > allowed " + allowed + //$NON-NLS-1$
-                    ", highest " + highest); //$NON-NLS-1$
-            // work from the oldest version to the newest
-            for (int i=1; (i<=highest) && (have>allowed); i++) {
-                Version version = null;
+        if (excess == 0) {
+            logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME,
+                    "no versions need to be trimmed, allowed " + allowed); //$NON-NLS-1$
+            return;
+        }
+        logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
+                "need to trim " + excess + //$NON-NLS-1$
+                " versions, allowed " + allowed); //$NON-NLS-1$
+        int trimmed = 0;
+        // as in remove(), locking the device is left to the Domain
+        final PersistenceMapper mapper = PersistenceMapper.getInstance();
+        trimmed = VersionRetention.trim(versions, allowed, new VersionRetention.Trimmer() {
+            public boolean trim(StoredVersion storedVersion) {
+                DeploymentPolicyVersion version = null;
                 try {
-                    version = this.getVersion(i);
-                } catch (DeletedException e) {
-                    // skip this one
-                    version = null;
-                    // if deleted then we don't really have it
-                    have--;
-                }
-                if (version != null) {
-                    try {
-//                        if (!version.isInUse()) {
-                            logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
-                                    "attempting to trim " + version); //$NON-NLS-1$
-                            this.remove(version);
-                            have--;
-//                        }
-                    } catch (DMgrException e) {
-                        // just skip this one
-                        logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
-                                "Unable to check/perform trimming of " + version, e); //$NON-NLS-1$
-                    }
+                    version = mapper.getVia((StoredDeploymentPolicyVersion) storedVersion);
+                    logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
+                            "attempting to trim " + version); //$NON-NLS-1$
+                    version.destroy();
+                    return(true);
+                } catch (DMgrException e) {
+                    // keep this one and try the next newer one
+                    logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
+                            "Unable to check/perform trimming of " + version, e); //$NON-NLS-1$
+                    return(false);
                 }
             }
-            logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME,
-                    "now have " + have + " versions"); //$NON-NLS-1$ //$NON-NLS-2$
-        } else {
-            logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME,
-                    "no versions need to be trimmed, have " + have + //$NON-NLS-1$
-                    " <= allowed " + allowed); //$NON-NLS-1$
+        });
+        if (trimmed > 0) {
+            try {
+                Manager.internalGetInstance().save(Manager.SAVE_UNFORCED);
+            } catch (DMgrException e) {
+                logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
+                        "Unable to save after trimming", e); //$NON-NLS-1$
+            }
         }
+        logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME,
+                "trimmed " + trimmed + " versions"); //$NON-NLS-1$ //$NON-NLS-2$
     }
 
     /**
@@ -551,14 +551,8 @@ public class DeploymentPolicy implements Persistable, Versionable {
     /* javadoc inherited from interface */
     public DeploymentPolicyVersion getVersion(int targetVersionNumber) throws DeletedException {
     	DeploymentPolicyVersion result = null;
-        StoredDeploymentPolicyVersion matchingStoredDeploymentPolicyVersion = null;
-        StoredVersion[] storedVersions = this.getStoredInstance().getVersions();
-        for (int i=0; i<storedVersions.length; i++) {
-            if (storedVersions[i].getVersionNumber() == targetVersionNumber) {
-                matchingStoredDeploymentPolicyVersion = (StoredDeploymentPolicyVersion) storedVersions[i];
-                break;
-            }
-        }
+        StoredDeploymentPolicyVersion matchingStoredDeploymentPolicyVersion = 
+            this.getStoredInstance().getVersion(targetVersionNumber);
         if (matchingStoredDeploymentPolicyVersion != null) {
             PersistenceMapper mapper = PersistenceMapper.getInstance();
             result = mapper.getVia(matchingStoredDeploymentPolicyVersion);
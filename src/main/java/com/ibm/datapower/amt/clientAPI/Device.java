@@ -63,13 +63,16 @@ import javax.net.ssl.X509TrustManager;
 import com.ibm.datapower.amt.Constants;
 import com.ibm.datapower.amt.DMgrException;
 import com.ibm.datapower.amt.DeviceType;
+import com.ibm.datapower.amt.FeatureSet;
 import com.ibm.datapower.amt.Messages;
 import com.ibm.datapower.amt.ModelType;
 import com.ibm.datapower.amt.OperationStatus;
+import com.ibm.datapower.amt.OperationStatusRollup;
 import com.ibm.datapower.amt.StringCollection;
 import com.ibm.datapower.amt.amp.AMPConstants;
 import com.ibm.datapower.amt.amp.AMPException;
 import com.ibm.datapower.amt.amp.AMPIOException;
+import com.ibm.datapower.amt.amp.AsyncCommands;
 import com.ibm.datapower.amt.amp.CommandFactory;
 import com.ibm.datapower.amt.amp.Commands;
 import com.ibm.datapower.amt.amp.DeviceContext;
@@ -80,6 +83,7 @@ import com.ibm.datapower.amt.amp.InvalidCredentialsException;
 import com.ibm.datapower.amt.amp.PingResponse;
 import com.ibm.datapower.amt.amp.SubscriptionResponseCode;
 import com.ibm.datapower.amt.clientAPI.util.KeyStoreInfo;
+import com.ibm.datapower.amt.clientAPI.util.SSLContextManager;
 import com.ibm.datapower.amt.dataAPI.AlreadyExistsInRepositoryException;
 import com.ibm.datapower.amt.dataAPI.DatastoreException;
 import com.ibm.datapower.amt.dataAPI.DirtySaveException;
@@ -164,6 +168,11 @@ public class Device implements Persistable, Taggable {
 //    private volatile Map managedDomainsManagementStatus = null; // with key domainName
     //private volatile Map managedDomainsOperationStatus = null;  // with key domainName
     private volatile Map<String, DomainStatus> managedDomainsStatus = null;  // with key domainName
+    // changes to managedDomainsStatus are made while holding domainStatusLock,
+    // so that domainStatusRollup always counts what is in the map
+    private final Object domainStatusLock = new Object();
+    private final OperationStatusRollup domainStatusRollup = 
+        new OperationStatusRollup(OperationStatus.Enumerated.UP);
     // next few are for firmware
     private volatile String actualFirmwareLevel = null;
     private volatile ManagementStatus firmwareManagementStatus = null;
@@ -188,6 +197,9 @@ public class Device implements Persistable, Taggable {
     // for AMP
     private volatile DeviceContext cachedDeviceContext = null;
     
+    // the resolved commands implementations, see getCommands()
+    private volatile CommandsDispatch commandsDispatch = null;
+    
     public static final String COPYRIGHT_2009_2013 = Constants.COPYRIGHT_2009_2013;
     
     static final String SCM_REVISION = "$Revision: 1.20 $"; //$NON-NLS-1$
@@ -924,6 +936,7 @@ public class Device implements Persistable, Taggable {
         	logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME,
                     "discovered updated feature licenses: " + featureLicenses); //$NON-NLS-1$
         	this.getStoredInstance().setFeatureLicenses(featureLicenses);
+        	PersistenceMapper.getInstance().getDeviceIndex().update(this);
         }
         
         // update guiPort
@@ -936,10 +949,12 @@ public class Device implements Persistable, Taggable {
         
         // update AMP version
         String ampVersion = metaInfo.getCurrentAMPVersion();
-        if (this.getCurrentAMPVersion() != ampVersion) {
+        String oldAMPVersion = this.getCurrentAMPVersion();
+        if ((ampVersion == null) ? (oldAMPVersion != null) : !ampVersion.equals(oldAMPVersion)) {
             logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME,
                         "discovered updated current AMP version: " + ampVersion); //$NON-NLS-1$
             this.getStoredInstance().setCurrentAMPVersion(ampVersion);
+            this.commandsDispatch = null;
         }
         
         // update actualFirmwareLevel
@@ -1600,6 +1615,7 @@ public class Device implements Persistable, Taggable {
                     "setting feature licenses on device " + this + " to " + featureLicenses); //$NON-NLS-1$ //$NON-NLS-2$
         // don't worry about locking on this field, it's simple
         this.getStoredInstance().setFeatureLicenses(featureLicenses);
+        PersistenceMapper.getInstance().getDeviceIndex().update(this);
 		Manager manager = Manager.internalGetInstance();         
 		manager.save(Manager.SAVE_UNFORCED);     
     }
@@ -1812,9 +1828,19 @@ public class Device implements Persistable, Taggable {
         if (!this.StatusIsTracked(domain)) {
             this.trackStatusOfDomain(domain);
         }
-        DomainStatus status = (DomainStatus) this.managedDomainsStatus.get(domain.getName());
-        status.setStatus(newStatus);
-        
+        synchronized (this.domainStatusLock) {
+            DomainStatus status = (DomainStatus) this.managedDomainsStatus.get(domain.getName());
+            if (status == null || status == DomainStatus.UNKNOWN_DOMAIN_STATUS) {
+                // never update the shared UNKNOWN_DOMAIN_STATUS in place
+                this.putDomainStatus(domain.getName(), 
+                        new DomainStatus(newStatus.getAdminStatus(), newStatus.getOperationStatus(),
+                                newStatus.getNeedsSave(), newStatus.getDebugState(), newStatus.getQuiesceStatus()));
+            } else {
+                OperationStatus.Enumerated oldValue = enumeratedOf(status);
+                status.setStatus(newStatus);
+                this.updateRollup(oldValue, enumeratedOf(status));
+            }
+        }
     }
     
     void trackStatusOfDomain(Domain domain) throws DeletedException {
@@ -1830,7 +1856,7 @@ public class Device implements Persistable, Taggable {
                         "adding DomainStatus object for domain " + domain + //$NON-NLS-1$
                         " in " + this); //$NON-NLS-1$
 
-            this.managedDomainsStatus.put(domain.getName(), DomainStatus.UNKNOWN_DOMAIN_STATUS);
+            this.putDomainStatus(domain.getName(), DomainStatus.UNKNOWN_DOMAIN_STATUS);
         } else {
             logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME, 
                         "already have DomainStatus object for domain " + domain + //$NON-NLS-1$
@@ -1844,7 +1870,10 @@ public class Device implements Persistable, Taggable {
         logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME, 
                     "removing OperationStatus object for domain " + domain + //$NON-NLS-1$
                     " in " + this); //$NON-NLS-1$
-        this.managedDomainsStatus.remove(domain.getName());
+        synchronized (this.domainStatusLock) {
+            DomainStatus oldStatus = this.managedDomainsStatus.remove(domain.getName());
+            this.updateRollup(enumeratedOf(oldStatus), null);
+        }
     }
     
     boolean StatusIsTracked(Domain domain) throws DeletedException {
@@ -1888,10 +1917,49 @@ public class Device implements Persistable, Taggable {
         	}
         }
         
-        this.managedDomainsStatus.put(domain.getName(), domainStatus);
+        this.putDomainStatus(domain.getName(), domainStatus);
         logger.exiting(CLASS_NAME, METHOD_NAME, domainStatus);
     }
 
+    private void putDomainStatus(String domainName, DomainStatus domainStatus) {
+        synchronized (this.domainStatusLock) {
+            DomainStatus oldStatus = this.managedDomainsStatus.put(domainName, domainStatus);
+            this.updateRollup(enumeratedOf(oldStatus), enumeratedOf(domainStatus));
+        }
+    }
+
+    /*
+     * Adjust the rollup counters for one domain whose status changed, and let
+     * the ManagedSet know if that changed the rollup of this device. The
+     * caller must hold domainStatusLock, so the ManagedSet sees the changes
+     * of this device in order.
+     */
+    private void updateRollup(OperationStatus.Enumerated oldValue, OperationStatus.Enumerated newValue) {
+        final String METHOD_NAME = "updateRollup"; //$NON-NLS-1$
+        OperationStatus.Enumerated before = this.domainStatusRollup.getStatus();
+        this.domainStatusRollup.replace(oldValue, newValue);
+        OperationStatus.Enumerated after = this.domainStatusRollup.getStatus();
+        if (!after.equals(before)) {
+            logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME, 
+                    "rollup of " + this + " changed from " + before + " to " + after); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            try {
+                ManagedSet managedSet = this.getManagedSet();
+                if (managedSet != null) {
+                    managedSet.deviceRollupChanged(this, after);
+                }
+            } catch (DeletedException e) {
+                // not in a ManagedSet any more, nothing to tell
+            }
+        }
+    }
+
+    private static OperationStatus.Enumerated enumeratedOf(DomainStatus domainStatus) {
+        if (domainStatus == null || domainStatus.getOperationStatus() == null) {
+            return(null);
+        }
+        return(domainStatus.getOperationStatus().getEnumerated());
+    }
+
     /**
      * Get the firmware level that is currently deployed to this device. In
      * general, all the devices in a managedSet should have the same level of
@@ -1937,7 +2005,12 @@ public class Device implements Persistable, Taggable {
         logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME,
                     "setting actualFirmwareLersion of " + this + //$NON-NLS-1$
                     " to " + newLevel); //$NON-NLS-1$
+        String oldLevel = this.actualFirmwareLevel;
         this.actualFirmwareLevel = newLevel;
+        if ((oldLevel != null) && !oldLevel.equals(newLevel)) {
+            // the firmware may speak another AMP version now
+            this.commandsDispatch = null;
+        }
 
     }
     
@@ -2075,7 +2148,8 @@ public class Device implements Persistable, Taggable {
     
     /**
      * Rollup the operation status of all the domains on this device, and return
-     * that aggregated value.
+     * that aggregated value. The rollup is kept up to date as the status of each
+     * domain changes, so this does not walk the managed domains.
      * 
      * @return the aggregated operation status of all the domains on this
      *         device. Firmware does not have an operation status. If
@@ -2094,6 +2168,63 @@ public class Device implements Persistable, Taggable {
 		} catch (DeletedException e) {
 		}    	
     	
+        OperationStatus result = new OperationStatus(this.domainStatusRollup.getStatus());
+        if (logger.isLoggable(Level.FINEST)) {
+            this.checkRollupOperationStatus();
+        }
+        return(result);
+    }
+
+    /**
+     * Compare the incrementally maintained rollup returned by
+     * {@link #getRollupOperationStatus()} with a rollup computed from scratch
+     * over all the managed domains. If they differ the counters are rebuilt
+     * from the domain status map. This is a consistency check, it is run on
+     * each read when FINEST tracing is enabled.
+     * 
+     * @return true if the maintained rollup was correct
+     */
+    boolean checkRollupOperationStatus() {
+        final String METHOD_NAME = "checkRollupOperationStatus"; //$NON-NLS-1$
+        synchronized (this.domainStatusLock) {
+            OperationStatus expected = this.recomputeRollupOperationStatus();
+            OperationStatus.Enumerated actual = this.domainStatusRollup.getStatus();
+            if (expected.getEnumerated().equals(actual)) {
+                return(true);
+            }
+            logger.logp(Level.WARNING, CLASS_NAME, METHOD_NAME, 
+                    "Rollup operation status of " + this + " was " + actual +  //$NON-NLS-1$ //$NON-NLS-2$
+                    " but the managed domains roll up to " + expected + ", rebuilding " + this.domainStatusRollup); //$NON-NLS-1$ //$NON-NLS-2$
+            this.domainStatusRollup.clear();
+            Iterator<DomainStatus> iter = this.managedDomainsStatus.values().iterator();
+            while (iter.hasNext()) {
+                this.domainStatusRollup.add(enumeratedOf(iter.next()));
+            }
+            try {
+                ManagedSet managedSet = this.getManagedSet();
+                if (managedSet != null) {
+                    managedSet.deviceRollupChanged(this, this.domainStatusRollup.getStatus());
+                }
+            } catch (DeletedException e) {
+                // not in a ManagedSet any more, nothing to tell
+            }
+            return(false);
+        }
+    }
+
+    /*
+     * The maintained rollup without the XC10 check or the consistency check,
+     * for the ManagedSet to read while it holds its own rollup lock.
+     */
+    OperationStatus.Enumerated getRollupEnumerated() {
+        return(this.domainStatusRollup.getStatus());
+    }
+
+    /*
+     * The full walk over the managed domains that getRollupOperationStatus()
+     * used before the rollup was maintained incrementally.
+     */
+    private OperationStatus recomputeRollupOperationStatus() {
     	// Try to get the operationStatus map
     	Map<String, OperationStatus> managedDomainsOperationStatus = new HashMap<String, OperationStatus>();
     	Iterator<Map.Entry<String, DomainStatus>> iter = this.managedDomainsStatus.entrySet().iterator();
@@ -2882,64 +3013,124 @@ public class Device implements Persistable, Taggable {
     }
 
     
+    /* All AMP versions supported */
+    private static final FeatureSet SUPPORTED_AMP_VERSIONS = FeatureSet.valueOf(new String[] {
+        AMPConstants.AMP_V3_0, AMPConstants.AMP_V2_0, AMPConstants.AMP_V1_0, AMPConstants.NONE_AMP});
+    
     /**
      * Get the commands implementation to use for this device. 
+     * <p>
+     * The implementation is resolved from the device's current AMP version
+     * and the configured implementation class names once, then reused until
+     * the device reports a different AMP version or firmware level, or the
+     * configuration changes.
+     * 
+     * @see #getNegotiatedAMPVersion()
      */
     public Commands getCommands() throws AMPException {
-        final String METHOD_NAME = "getCommands"; //$NON-NLS-1$
+        return(this.getCommandsDispatch().commands);
+    }
+    
+    /**
+     * Get the AMP version that {@link #getCommands()} speaks to this device.
+     * This is the device's current AMP version, except that a version this
+     * release does not know is spoken as {@link AMPConstants#AMP_V3_0}, and
+     * {@link AMPConstants#AMP_V1_0} is used when the device has been deleted.
+     * It is intended for diagnostics.
+     * 
+     * @return one of the AMP version constants in {@link AMPConstants}
+     * @see #getCurrentAMPVersion()
+     */
+    public String getNegotiatedAMPVersion() throws AMPException {
+        return(this.getCommandsDispatch().ampVersion);
+    }
+    
+    private CommandsDispatch getCommandsDispatch() throws AMPException {
+        final String METHOD_NAME = "getCommandsDispatch"; //$NON-NLS-1$
 
-        Commands commands = null;
-        
-        String[] AMPVersions = {AMPConstants.AMP_V3_0, AMPConstants.AMP_V2_0, AMPConstants.AMP_V1_0, AMPConstants.NONE_AMP}; // All AMP versions supported
-        StringCollection supportAMPVersion = new StringCollection(AMPVersions);
+        long generation = Configuration.getSnapshot().getGeneration();
+        CommandsDispatch dispatch = this.commandsDispatch;
+        if ((dispatch != null) && (dispatch.generation == generation)) {
+            return(dispatch);
+        }
         
+        String currentAMPVersion = null;
         try{
-        	String currentAMPVersion = this.getCurrentAMPVersion();
-        	if ( !supportAMPVersion.contains(currentAMPVersion) ) { 
-        		// unknown AMP version, set the currentAMPVersion to the latest one
-        		currentAMPVersion = AMPVersions[0];
-        	}        	
-        	
-        	if (currentAMPVersion.equalsIgnoreCase(AMPConstants.NONE_AMP)){
-        		// Not AMP
-        		// For now it's XC10
-        		commands = getXC10Commands();
-        	}
-        	else if (currentAMPVersion.equalsIgnoreCase(AMPConstants.AMP_V3_0)){
-                commands = getV3Commands();    		
-                
-                logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME,
-                        " using AMP version "  + AMPConstants.AMP_V3_0); //$NON-NLS-1$ //$NON-NLS-2$
-            }
-        	else if (currentAMPVersion.equalsIgnoreCase(AMPConstants.AMP_V2_0)){ // assume AMPv2
-                commands = getV2Commands();
-                
-                logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME,
-                        " using AMP version "  + AMPConstants.AMP_V2_0); //$NON-NLS-1$ //$NON-NLS-2$
-            }
-            else { // assume AMPv1
-                commands = getV1Commands();
-                
-                logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME,
-                        " using AMP version "  + AMPConstants.AMP_V1_0); //$NON-NLS-1$ //$NON-NLS-2$
-            }        	
+        	currentAMPVersion = this.getCurrentAMPVersion();
         } catch (DeletedException e){
-        	// assume AMPv1
-            commands = getV1Commands();
-      	
+        	// assume AMPv1, but do not remember it
             logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME,
                     " using AMP version "  + AMPConstants.AMP_V1_0); //$NON-NLS-1$ //$NON-NLS-2$
+            return(new CommandsDispatch(AMPConstants.AMP_V1_0, getV1Commands(), generation));
         }
-        return(commands);
+        if ( !SUPPORTED_AMP_VERSIONS.contains(currentAMPVersion) ) { 
+        	// unknown AMP version, set the currentAMPVersion to the latest one
+        	currentAMPVersion = AMPConstants.AMP_V3_0;
+        }        	
+        
+        if (currentAMPVersion.equalsIgnoreCase(AMPConstants.NONE_AMP)){
+        	// Not AMP
+        	// For now it's XC10
+        	dispatch = new CommandsDispatch(AMPConstants.NONE_AMP, getXC10Commands(), generation);
+        }
+        else if (currentAMPVersion.equalsIgnoreCase(AMPConstants.AMP_V3_0)){
+        	dispatch = new CommandsDispatch(AMPConstants.AMP_V3_0, getV3Commands(), generation);
+        }
+        else if (currentAMPVersion.equalsIgnoreCase(AMPConstants.AMP_V2_0)){ // assume AMPv2
+        	dispatch = new CommandsDispatch(AMPConstants.AMP_V2_0, getV2Commands(), generation);
+        }
+        else { // assume AMPv1
+        	dispatch = new CommandsDispatch(AMPConstants.AMP_V1_0, getV1Commands(), generation);
+        }
+        logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME,
+                " using AMP version "  + dispatch.ampVersion); //$NON-NLS-1$ //$NON-NLS-2$
+        this.commandsDispatch = dispatch;
+        return(dispatch);
+    }
+    
+    /**
+     * Get the asynchronous view of {@link #getCommands()} for this device.
+     * Calls made through it do not block the caller, and are subject to the
+     * per-device limit and timeout described in {@link AsyncCommands}.
+     */
+    public AsyncCommands getAsyncCommands() throws AMPException {
+        return(CommandFactory.getAsyncCommands(this.getCommands()));
     }
     
     /**
      * Get the SOMA commands implementation to use for this device. 
      */
     public SOMACommands getSOMACommands() throws SOMAException {
+        CommandsDispatch dispatch = this.commandsDispatch;
+        if ((dispatch != null) && (dispatch.somaCommands != null) &&
+                (dispatch.generation == Configuration.getSnapshot().getGeneration())) {
+            return(dispatch.somaCommands);
+        }
         String commandsClassNameImpl = Configuration.get(Configuration.KEY_COMMANDS_SOMA_IMPL);
         String soapHelperClassNameImpl = Configuration.get(Configuration.KEY_SOAP_HELPER_SOMA_IMPL);        
-        return (SOMACommandFactory.getCommands(commandsClassNameImpl, soapHelperClassNameImpl));
+        SOMACommands somaCommands = SOMACommandFactory.getCommands(commandsClassNameImpl, soapHelperClassNameImpl);
+        if ((dispatch != null) && (dispatch.generation == Configuration.getSnapshot().getGeneration())) {
+            dispatch.somaCommands = somaCommands;
+        }
+        return (somaCommands);
+    }
+    
+    /*
+     * The commands implementations resolved for this device, and the AMP
+     * version and configuration generation they were resolved for. It is
+     * dropped when the device reports another AMP version or firmware level.
+     */
+    private static final class CommandsDispatch {
+        final String ampVersion;
+        final Commands commands;
+        final long generation;
+        volatile SOMACommands somaCommands = null;
+        
+        CommandsDispatch(String ampVersion, Commands commands, long generation) {
+            this.ampVersion = ampVersion;
+            this.commands = commands;
+            this.generation = generation;
+        }
     }
     
     /*
@@ -2979,6 +3170,10 @@ public class Device implements Persistable, Taggable {
         this.lock.unlock();
     }
     
+    Lock getLock() {
+        return(this.lock);
+    }
+    
     /**
      * Set the Synchronization Mode for the all domains on device. Synchronization  mode defaults to DomainSynchronizationMode.MANUAL. 
      * Valid synchronization modes are DomainSynchronizationMode.MANUAL and DomainSynchronizationMode.AUTO
@@ -3938,7 +4133,7 @@ public class Device implements Persistable, Taggable {
 				// The domain is a managed domain, but not in the managedDomainsStatus Map.
 				// Return the unknown satus for the time being, the status will be updated once the probeStatusofDomain() is invoked. 
 				ds = DomainStatus.UNKNOWN_DOMAIN_STATUS;
-				this.managedDomainsStatus.put(domain.getName(), ds);				
+				this.putDomainStatus(domain.getName(), ds);				
 			}
 			else { 
 				// Not in the managedDomainsStatus Map, nor is the managed domain, meaning the domain could be removed				
@@ -4428,6 +4623,8 @@ public class Device implements Persistable, Taggable {
 	        out = new FileOutputStream(KeyStoreInfo.keyStoreFile);
 	        ks.store(out, KeyStoreInfo.keyStorePassword.toCharArray()); // Write to file
 	        out.close();
+	        // trust the new certificate without waiting for the file to be noticed
+	        SSLContextManager.getAMPInstance().reload();
         } catch (NoSuchAlgorithmException e1) {
         	logger.logp(Level.WARNING, CLASS_NAME, METHOD_NAME, "NoSuchAlgorithmException "+ errorMsg); //$NON-NLS-1$
 			logger.throwing(CLASS_NAME, METHOD_NAME,e1);
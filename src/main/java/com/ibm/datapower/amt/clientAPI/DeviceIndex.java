@@ -0,0 +1,368 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.clientAPI;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.ibm.datapower.amt.Constants;
+import com.ibm.datapower.amt.DeviceType;
+import com.ibm.datapower.amt.FeatureSet;
+import com.ibm.datapower.amt.ModelType;
+import com.ibm.datapower.amt.StringCollection;
+import com.ibm.datapower.amt.logging.LoggerHelper;
+
+/**
+ * An index of the Device objects in the manager by the attributes that
+ * {@link Manager#getUnmanagedDevices(DeviceType, ModelType, StringCollection)},
+ * {@link Manager#getDevices(DeviceType, ModelType, StringCollection)} and
+ * {@link Manager#getDevicesBySerialNumber(String)} filter on, so that those
+ * queries don't have to resolve and test every StoredDevice in the
+ * repository.
+ * <p>
+ * Devices are grouped by their exact device type and model type, which never
+ * change for a Device. As in {@link FirmwareCatalog}, a query tests each
+ * group's types for compatibility, since compatibility is not an
+ * equivalence. Within a group the Devices are split by ManagedSet membership
+ * and hashed by the canonical set of their feature licenses. Membership and
+ * feature licenses do change, so ManagedSet and Device call
+ * {@link #update(Device)} after changing them.
+ * <p>
+ * The index is maintained by {@link PersistenceMapper} as Device objects are
+ * added to it and removed from it. The index only narrows the candidates.
+ * Each candidate is still confirmed with the same checks that a full scan
+ * used, so the answers don't change.
+ */
+class DeviceIndex {
+
+    public static final String COPYRIGHT_2009_2013 = Constants.COPYRIGHT_2009_2013;
+
+    protected static final String CLASS_NAME = DeviceIndex.class.getName();
+    protected final static Logger logger = Logger.getLogger(CLASS_NAME);
+    static {
+        LoggerHelper.addLoggerToGroup(logger, Manager.getLoggerGroupName());
+    }
+
+    private final Map<String, Group> groups = new LinkedHashMap<String, Group>();
+    private final Map<Device, Entry> entries = new HashMap<Device, Entry>();
+    private final Map<String, List<Device>> bySerialNumber = new HashMap<String, List<Device>>();
+
+    DeviceIndex() {
+    }
+
+    /**
+     * Index a Device with its current membership and feature licenses.
+     */
+    synchronized void add(Device device) {
+        final String METHOD_NAME = "add"; //$NON-NLS-1$
+        if (this.entries.containsKey(device)) {
+            this.update(device);
+            return;
+        }
+        Entry entry = null;
+        try {
+            entry = new Entry(device);
+        } catch (DeletedException e) {
+            logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
+                        "not indexing deleted device " + device); //$NON-NLS-1$
+            return;
+        }
+        String groupKey = groupKey(entry.deviceType, entry.modelType);
+        Group group = this.groups.get(groupKey);
+        if (group == null) {
+            group = new Group(entry.deviceType, entry.modelType);
+            this.groups.put(groupKey, group);
+        }
+        group.add(entry);
+        this.entries.put(device, entry);
+        List<Device> devices = this.bySerialNumber.get(entry.serialNumber);
+        if (devices == null) {
+            devices = new ArrayList<Device>(1);
+            this.bySerialNumber.put(entry.serialNumber, devices);
+        }
+        devices.add(device);
+    }
+
+    /**
+     * Drop a Device from the index.
+     */
+    synchronized void remove(Device device) {
+        Entry entry = this.entries.remove(device);
+        if (entry == null) {
+            return;
+        }
+        String groupKey = groupKey(entry.deviceType, entry.modelType);
+        Group group = this.groups.get(groupKey);
+        if (group != null && group.remove(entry)) {
+            this.groups.remove(groupKey);
+        }
+        List<Device> devices = this.bySerialNumber.get(entry.serialNumber);
+        if (devices != null && devices.remove(device) && devices.isEmpty()) {
+            this.bySerialNumber.remove(entry.serialNumber);
+        }
+    }
+
+    /**
+     * Re-read the ManagedSet membership and feature licenses of an indexed
+     * Device after either has changed.
+     */
+    synchronized void update(Device device) {
+        final String METHOD_NAME = "update"; //$NON-NLS-1$
+        Entry entry = this.entries.get(device);
+        if (entry == null) {
+            return;
+        }
+        boolean managed;
+        FeatureSet features;
+        boolean exact;
+        try {
+            StringCollection licenses = device.getFeatureLicenses();
+            managed = isManaged(device);
+            features = FeatureSet.valueOf(licenses);
+            exact = isExact(features, licenses);
+        } catch (DeletedException e) {
+            logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
+                        "dropping deleted device " + device); //$NON-NLS-1$
+            this.remove(device);
+            return;
+        }
+        if (managed == entry.managed && exact == entry.exact && features.equals(entry.features)) {
+            return;
+        }
+        Group group = this.groups.get(groupKey(entry.deviceType, entry.modelType));
+        group.remove(entry);
+        entry.managed = managed;
+        entry.features = features;
+        entry.exact = exact;
+        group.add(entry);
+    }
+
+    /**
+     * Forget everything, for when the PersistenceMapper is destroyed.
+     */
+    synchronized void clear() {
+        this.groups.clear();
+        this.entries.clear();
+        this.bySerialNumber.clear();
+    }
+
+    /**
+     * Find the Devices that match a query. Any of the criteria may be null to
+     * match everything.
+     *
+     * @param deviceType only Devices whose type is compatible with this
+     * @param modelType only Devices whose model type is compatible with this
+     * @param features only Devices whose feature licenses equal these
+     * @param unmanagedOnly only Devices that are not in a ManagedSet
+     * @return the matching Devices
+     * @see Manager#getUnmanagedDevices(DeviceType, ModelType, StringCollection)
+     */
+    List<Device> find(DeviceType deviceType, ModelType modelType,
+                      StringCollection features, boolean unmanagedOnly) {
+        final String METHOD_NAME = "find"; //$NON-NLS-1$
+        List<Device> candidates = new ArrayList<Device>();
+        FeatureSet featureSet = (features == null) ? null : FeatureSet.valueOf(features);
+        synchronized (this) {
+            Iterator<Group> groupIterator = this.groups.values().iterator();
+            while (groupIterator.hasNext()) {
+                Group group = groupIterator.next();
+                if (((deviceType != null) && !group.deviceType.isCompatibleWith(deviceType)) ||
+                    ((modelType != null) && !group.modelType.isCompatibleWith(modelType))) {
+                    continue;
+                }
+                group.unmanaged.collect(featureSet, candidates);
+                if (!unmanagedOnly) {
+                    group.managed.collect(featureSet, candidates);
+                }
+            }
+        }
+
+        // confirm outside the lock, the stored state is the authority
+        List<Device> result = new ArrayList<Device>(candidates.size());
+        for (int i=0; i<candidates.size(); i++) {
+            Device device = candidates.get(i);
+            try {
+                if ((unmanagedOnly && (device.getManagedSet() != null)) ||
+                    ((deviceType != null) && !device.getDeviceType().isCompatibleWith(deviceType)) ||
+                    ((modelType != null) && !device.getModelType().isCompatibleWith(modelType)) ||
+                    ((features != null) && !device.getFeatureLicenses().equals(features))) {
+                    continue;
+                }
+            } catch (DeletedException e) {
+                logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME,
+                            "Came across a deleted device while looking up the index, continuing.", //$NON-NLS-1$
+                            e);
+                continue;
+            }
+            result.add(device);
+        }
+        return(result);
+    }
+
+    /**
+     * Find the Devices that have a hardware serial number.
+     *
+     * @return the matching Devices, possibly none
+     * @see Manager#getDevicesBySerialNumber(String)
+     */
+    synchronized List<Device> findBySerialNumber(String serialNumber) {
+        List<Device> devices = this.bySerialNumber.get(serialNumber);
+        if (devices == null) {
+            return(new ArrayList<Device>(0));
+        }
+        return(new ArrayList<Device>(devices));
+    }
+
+    /**
+     * @return the number of Devices in the index
+     */
+    synchronized int size() {
+        return(this.entries.size());
+    }
+
+    /*
+     * Read the membership from the stored layer, because while the repository
+     * is loaded a Device is indexed before its ManagedSet is in the mapper.
+     */
+    private static boolean isManaged(Device device) throws DeletedException {
+        return(device.getStoredInstance().getManagedSet() != null);
+    }
+
+    private static boolean isExact(FeatureSet features, StringCollection licenses) {
+        return((licenses != null) && (features.size() == licenses.size()));
+    }
+
+    private static String groupKey(DeviceType deviceType, ModelType modelType) {
+        return(deviceType.getDisplayName() + '\n' + modelType.getDisplayName());
+    }
+
+    /**
+     * The Devices of one exact device type and model type.
+     */
+    private static class Group {
+        final DeviceType deviceType;
+        final ModelType modelType;
+        final Bucket unmanaged = new Bucket();
+        final Bucket managed = new Bucket();
+
+        Group(DeviceType deviceType, ModelType modelType) {
+            this.deviceType = deviceType;
+            this.modelType = modelType;
+        }
+
+        void add(Entry entry) {
+            (entry.managed ? this.managed : this.unmanaged).add(entry);
+        }
+
+        /* return true if the group is now empty */
+        boolean remove(Entry entry) {
+            (entry.managed ? this.managed : this.unmanaged).remove(entry);
+            return(this.unmanaged.isEmpty() && this.managed.isEmpty());
+        }
+    }
+
+    /**
+     * Devices hashed by their feature licenses.
+     */
+    private static class Bucket {
+        final Map<FeatureSet, Set<Device>> byFeatures = new LinkedHashMap<FeatureSet, Set<Device>>();
+        /*
+         * StringCollection.equals compares sizes and then looks up each
+         * element, so a collection with duplicates can equal one whose set
+         * differs. Devices reporting duplicate licenses are rare and are
+         * always handed out as candidates.
+         */
+        final Set<Device> inexact = new LinkedHashSet<Device>();
+
+        void add(Entry entry) {
+            if (!entry.exact) {
+                this.inexact.add(entry.device);
+                return;
+            }
+            Set<Device> devices = this.byFeatures.get(entry.features);
+            if (devices == null) {
+                devices = new LinkedHashSet<Device>();
+                this.byFeatures.put(entry.features, devices);
+            }
+            devices.add(entry.device);
+        }
+
+        void remove(Entry entry) {
+            if (!entry.exact) {
+                this.inexact.remove(entry.device);
+                return;
+            }
+            Set<Device> devices = this.byFeatures.get(entry.features);
+            if (devices != null && devices.remove(entry.device) && devices.isEmpty()) {
+                this.byFeatures.remove(entry.features);
+            }
+        }
+
+        void collect(FeatureSet features, List<Device> candidates) {
+            if (features == null) {
+                Iterator<Set<Device>> iterator = this.byFeatures.values().iterator();
+                while (iterator.hasNext()) {
+                    candidates.addAll(iterator.next());
+                }
+            } else {
+                Set<Device> devices = this.byFeatures.get(features);
+                if (devices != null) {
+                    candidates.addAll(devices);
+                }
+            }
+            candidates.addAll(this.inexact);
+        }
+
+        boolean isEmpty() {
+            return(this.byFeatures.isEmpty() && this.inexact.isEmpty());
+        }
+    }
+
+    /**
+     * What the index knows about one Device.
+     */
+    private static class Entry {
+        final Device device;
+        final DeviceType deviceType;
+        final ModelType modelType;
+        final String serialNumber;
+        boolean managed;
+        FeatureSet features;
+        /* true if the feature licenses have no duplicates */
+        boolean exact;
+
+        Entry(Device device) throws DeletedException {
+            this.device = device;
+            this.deviceType = device.getDeviceType();
+            this.modelType = device.getModelType();
+            this.serialNumber = device.getSerialNumber();
+            this.managed = isManaged(device);
+            StringCollection licenses = device.getFeatureLicenses();
+            this.features = FeatureSet.valueOf(licenses);
+            this.exact = isExact(this.features, licenses);
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.clientAPI;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Semaphore;
+
+import com.ibm.datapower.amt.Constants;
+
+/**
+ * Caps the number of tasks of one kind that may run against the same device at
+ * the same time. This is used when tasks run on virtual threads, where there is
+ * no fixed-size pool to bound the load placed on a single device.
+ * <p>
+ * Waiting is done with a {@link Semaphore} rather than an object monitor, so a
+ * virtual thread that is waiting for a permit releases its carrier thread. The
+ * map of semaphores is only guarded for the lookup itself, and is weak so that
+ * deleted devices do not accumulate.
+ * <p>
+ * The limit is read from {@link Configuration#KEY_MAX_TASKS_PER_DEVICE} when a
+ * device is first seen.
+ */
+class DeviceTaskLimiter {
+
+    public static final String COPYRIGHT_2009_2013 = Constants.COPYRIGHT_2009_2013;
+
+    private final Map<Device, Semaphore> permits = new WeakHashMap<Device, Semaphore>();
+
+    DeviceTaskLimiter() {
+    }
+
+    /**
+     * Wait until the device has a free slot.
+     *
+     * @param device the device the task will run against
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    void acquire(Device device) throws InterruptedException {
+        this.getPermits(device).acquire();
+    }
+
+    /**
+     * Give back the slot taken by {@link #acquire(Device)}.
+     *
+     * @param device the device the task ran against
+     */
+    void release(Device device) {
+        this.getPermits(device).release();
+    }
+
+    private Semaphore getPermits(Device device) {
+        synchronized (this.permits) {
+            Semaphore semaphore = this.permits.get(device);
+            if (semaphore == null) {
+                int limit = Configuration.getAsInteger(Configuration.KEY_MAX_TASKS_PER_DEVICE).intValue();
+                semaphore = new Semaphore(Math.max(limit, 1), true);
+                this.permits.put(device, semaphore);
+            }
+            return(semaphore);
+        }
+    }
+}
@@ -62,6 +62,7 @@ import com.ibm.datapower.amt.dataAPI.StoredDomain;
 import com.ibm.datapower.amt.dataAPI.StoredDomainVersion;
 import com.ibm.datapower.amt.dataAPI.StoredTag;
 import com.ibm.datapower.amt.dataAPI.StoredVersion;
+import com.ibm.datapower.amt.dataAPI.local.filesystem.StoredDomainImpl;
 import com.ibm.datapower.amt.dataAPI.local.filesystem.StoredTagImpl;
 import com.ibm.datapower.amt.logging.LoggerHelper;
 import com.ibm.datapower.amt.soma.SOMACommands;
@@ -117,6 +118,7 @@ public class Domain implements Persistable, Versionable, Taggable {
     
     private boolean synchDeployFailed = false;
     private boolean compareDomainFailed = false;
+    private boolean synchDeferred = false;
     
     // For services
     private Map<String, RuntimeService> serviceMap = null; // Key=primaryKey(objectName:objectClassName) value=Service object
@@ -248,65 +250,74 @@ public class Domain implements Persistable, Versionable, Taggable {
     }
     
     /**
-     * Trim excess DomainVersions from peristence 
-     *  
+     * Trim excess DomainVersions from peristence. The oldest versions are
+     * removed together, under one lock of the device, and the repository is
+     * saved once afterwards.
      */
     void trimExcessVersions() {
         final String METHOD_NAME = "trimExcessVersions"; //$NON-NLS-1$
-        Manager manager = null;
         int allowed = 0;
-        Version[] versions = null;
-        int have = 0;
-        int highest = 0;
+        StoredVersion[] versions = null;
+        int excess = 0;
+        Device device = null;
         try {
-            manager = Manager.internalGetInstance();
-            allowed = manager.getMaxVersionsToStore();
-            versions = this.getVersions();
-            have = versions.length;
-            highest = this.getHighestVersionNumber();
+            allowed = Manager.internalGetInstance().getMaxVersionsToStore();
+            versions = this.getStoredInstance().getVersions();
+            excess = VersionRetention.excess(versions, allowed);
+            device = this.getDevice();
         } catch (DeletedException e) {
             logger.logp(Level.INFO, CLASS_NAME, METHOD_NAME,
                     Messages.getString("CannotTrim"), e); //$NON-NLS-1$
             return;
         }
-        if (have > allowed) {
+        if (excess == 0) {
+            logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME,
+                    "no versions need to be trimmed, allowed " + allowed); //$NON-NLS-1$
+            return;
+        }
+        logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
+                "need to trim " + excess + //$NON-NLS-1$
+                " versions, allowed " + allowed); //$NON-NLS-1$
+        try {
+            device.lockNoWait();
+        } catch (LockBusyException e) {
             logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
-                    "need to trim, have " + have + //$NON-NLS-1$
-                    " > allowed " + allowed + //$NON-NLS-1$
-                    ", highest " + highest); //$NON-NLS-1$
-            // work from the oldest version to the newest
-            for (int i=1; (i<=highest) && (have>allowed); i++) {
-                Version version = null;
-                try {
-                    version = this.getVersion(i);
-                } catch (DeletedException e) {
-                    // skip this one
-                    version = null;
-                    // if deleted then we don't really have it
-                    have--;
-                }
-                if (version != null) {
+                    "Unable to lock the device to trim versions", e); //$NON-NLS-1$
+            return;
+        }
+        int trimmed = 0;
+        try {
+            final PersistenceMapper mapper = PersistenceMapper.getInstance();
+            trimmed = VersionRetention.trim(versions, allowed, new VersionRetention.Trimmer() {
+                public boolean trim(StoredVersion storedVersion) {
+                    DomainVersion version = null;
                     try {
-//                        if (!version.isInUse()) {
-                            logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
-                                    "attempting to trim " + version); //$NON-NLS-1$
-                            this.remove(version);
-                            have--;
-//                        }
+                        version = mapper.getVia((StoredDomainVersion) storedVersion);
+                        logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
+                                "attempting to trim " + version); //$NON-NLS-1$
+                        Domain.this.destroyVersion(version);
+                        return(true);
                     } catch (DMgrException e) {
-                        // just skip this one
+                        // keep this one and try the next newer one
                         logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
                                 "Unable to check/perform trimming of " + version, e); //$NON-NLS-1$
+                        return(false);
                     }
                 }
+            });
+        } finally {
+            device.unlock();
+        }
+        if (trimmed > 0) {
+            try {
+                Manager.internalGetInstance().save(Manager.SAVE_UNFORCED);
+            } catch (DMgrException e) {
+                logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
+                        "Unable to save after trimming", e); //$NON-NLS-1$
             }
-            logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME,
-                    "now have " + have + " versions"); //$NON-NLS-1$ //$NON-NLS-2$
-        } else {
-            logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME,
-                    "no versions need to be trimmed, have " + have + //$NON-NLS-1$
-                    " <= allowed " + allowed); //$NON-NLS-1$
         }
+        logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME,
+                "trimmed " + trimmed + " versions"); //$NON-NLS-1$ //$NON-NLS-2$
     }
 
     /**
@@ -1248,6 +1259,8 @@ public class Domain implements Persistable, Versionable, Taggable {
         if (synchImmediately && getOutOfSynch()) {
             //queue a background task to *synch* the domain - synch allows retry logic to be used
         	enqueueSynch(true);
+        } else if (synchImmediately) {
+        	markSynchDirty(true);
         }
         
         logger.exiting(CLASS_NAME, METHOD_NAME);    	
@@ -1290,20 +1303,7 @@ public class Domain implements Persistable, Versionable, Taggable {
             // lock the device
         	device.lockNoWait();
 
-        	//Remove the corresponding deployment policy version too.
-        	int versionNumber = version.getVersionNumber();
-        	DeploymentPolicy dp = getDeploymentPolicy();
-        	DeploymentPolicyVersion dpv = dp.getVersion(versionNumber);
-        	if (dpv != null){        	   
-        	   dp.remove(dpv);        	   
-        	}else{
-        		// may have been removed by trimExcesses()		
-                logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME,
-                "Policy Version already deleted, version: " + versionNumber); //$NON-NLS-1$
-        	}
-        	
-            DomainVersion domainVersion = (DomainVersion) version;
-            domainVersion.destroy();
+            this.destroyVersion((DomainVersion) version);
             Manager manager = Manager.internalGetInstance();
             manager.save(Manager.SAVE_UNFORCED);
         } finally {
@@ -1311,6 +1311,26 @@ public class Domain implements Persistable, Versionable, Taggable {
         }
         logger.exiting(CLASS_NAME, METHOD_NAME);
     }
+
+    /*
+     * Destroy a DomainVersion and the corresponding DeploymentPolicyVersion,
+     * without saving the repository. The caller holds the device lock.
+     */
+    private void destroyVersion(DomainVersion domainVersion) 
+    throws DeletedException, LockBusyException, DatastoreException {
+        final String METHOD_NAME = "destroyVersion"; //$NON-NLS-1$
+        //Remove the corresponding deployment policy version too.
+        int versionNumber = domainVersion.getVersionNumber();
+        DeploymentPolicyVersion dpv = getDeploymentPolicy().getVersion(versionNumber);
+        if (dpv != null){
+            dpv.destroy();
+        }else{
+            // may have been removed by trimExcesses()
+            logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME,
+            "Policy Version already deleted, version: " + versionNumber); //$NON-NLS-1$
+        }
+        domainVersion.destroy();
+    }
     
     boolean isPresentOn(Device device) throws DeletedException, AMPException {
         final String METHOD_NAME = "isPresentOn"; //$NON-NLS-1$
@@ -1487,11 +1507,17 @@ public class Domain implements Persistable, Versionable, Taggable {
     public Version getVersion(int targetVersionNumber) throws DeletedException {
         DomainVersion result = null;
         StoredDomainVersion matchingStoredDomainVersion = null;
-        StoredVersion[] storedVersions = this.getStoredInstance().getVersions();
-        for (int i=0; i<storedVersions.length; i++) {
-            if (storedVersions[i].getVersionNumber() == targetVersionNumber) {
-                matchingStoredDomainVersion = (StoredDomainVersion) storedVersions[i];
-                break;
+        StoredDomain storedDomain = this.getStoredInstance();
+        if (storedDomain instanceof StoredDomainImpl) {
+            // the local repository indexes the versions by number
+            matchingStoredDomainVersion = ((StoredDomainImpl) storedDomain).getVersion(targetVersionNumber);
+        } else {
+            StoredVersion[] storedVersions = storedDomain.getVersions();
+            for (int i=0; i<storedVersions.length; i++) {
+                if (storedVersions[i].getVersionNumber() == targetVersionNumber) {
+                    matchingStoredDomainVersion = (StoredDomainVersion) storedVersions[i];
+                    break;
+                }
             }
         }
         if (matchingStoredDomainVersion != null) {
@@ -1699,6 +1725,9 @@ public class Domain implements Persistable, Versionable, Taggable {
 		}
         logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME,
         		"Domain save setOutOfSynch: " + value,this); 
+        if (value) {
+        	markSynchDirty(false);
+        }
         logger.exiting(CLASS_NAME, METHOD_NAME);    	
 	}
 	
@@ -1769,6 +1798,7 @@ public class Domain implements Persistable, Versionable, Taggable {
         checkIfManaged();
         
 	    boolean doDeployAction = false;
+	    synchDeferred = false;
 		
 		if (isSynchEnabled() &&!deviceRebootUnderway() && !firmwareUpdateUnderway()) {
 			
@@ -1843,6 +1873,7 @@ public class Domain implements Persistable, Versionable, Taggable {
 					//The device is busy getting an update, so don't update the retry
 					//count in this case, try after it is no longer busy.
 					logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME, " device busy, try again later");
+					synchDeferred = true;
 					
 					if (compareDomain || compareDomainFailed) {
 						logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME, " compareDomain --> setSynchFailed because of busy device");
@@ -2096,8 +2127,67 @@ public class Domain implements Persistable, Versionable, Taggable {
 	 */
 	protected void setSyncFailed(boolean syncFailed) {
 		this.synchDeployFailed = syncFailed;
+		if (syncFailed) {
+			markSynchDirty(false);
+		}
 	} 
 	
+	/**
+	 * Internal use only. Check if the last call to {@link #synch(boolean)} left 
+	 * this domain in need of another synchronization: the deploy or the compare
+	 * failed, the device was busy, or the device is being rebooted or having its
+	 * firmware updated.
+	 * 
+	 * @return true if the domain should be synchronized again later
+	 * @throws DeletedException
+	 */
+	boolean isSynchPending() throws DeletedException {
+		if (!isSynchEnabled()) {
+			return false;
+		}
+		return isSyncFailed() || compareDomainFailed || synchDeferred || 
+			deviceRebootUnderway() || firmwareUpdateUnderway();
+	}
+	
+	/**
+	 * Internal use only. Check if the configuration source or the deployment policy 
+	 * source have a different time stamp than the one that was last deployed. This 
+	 * is used by the DomainSynchronizationDaemon to detect source changes without 
+	 * locking the device.
+	 * 
+	 * @return true if one of the sources has changed since the last deploy 
+	 */
+	boolean isSourceChanged() {
+		final String METHOD_NAME = "isSourceChanged"; //$NON-NLS-1$
+		boolean changed = false;
+		try {
+			changed = isDomainSourceTimestampDifferent() || isDeploymentPolicySourceTimestampDifferent();
+		} catch (IOException e) {
+			logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME, "IOException thrown" ,e);
+		} catch (DeletedException e) {
+			logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME, "DeletedException thrown" ,e);
+		}
+		return changed;
+	}
+	
+	/**
+	 * Let the DomainSynchronizationScheduler know that this domain needs to be 
+	 * synchronized, if automatic synchronization is enabled.
+	 * 
+	 * @param compareMode true if the domain on the device should be compared with 
+	 *        the persisted domain configuration 
+	 */
+	private void markSynchDirty(boolean compareMode) {
+		Manager manager = Manager.internalGetInstance();
+		if (manager == null) {
+			return;
+		}
+		DomainSynchronizationScheduler scheduler = manager.internalGetDomainSynchronizationScheduler();
+		if ((scheduler != null) && isSynchEnabled()) {
+			scheduler.markDirty(this, compareMode);
+		}
+	}
+	
     /**
      * Get the persisted timeout value when Domain is quiesced.
      *   
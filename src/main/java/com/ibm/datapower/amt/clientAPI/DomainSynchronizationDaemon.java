@@ -18,7 +18,6 @@
 
 package com.ibm.datapower.amt.clientAPI;
 
-import java.util.ArrayList;
 import java.util.Date;
 import java.util.Timer;
 import java.util.TimerTask;
@@ -26,6 +25,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.ibm.datapower.amt.Constants;
+import com.ibm.datapower.amt.TaskMetrics;
 import com.ibm.datapower.amt.logging.LoggerHelper;
 
 /**
@@ -34,12 +34,24 @@ import com.ibm.datapower.amt.logging.LoggerHelper;
  * DomainSynchronizationMode has been
  * set to {@link DomainSynchronizationMode#AUTO}
  * 
- * <p>The daemon creates a new DomainSnchronization task for each managed domain and 
- * puts them on the DomainSynchronizationQueue.  Each DomainSynchronizationTask calls {@link Domain#synch(boolean)} to
+ * <p>The daemon does not create a DomainSynchronizationTask for every managed domain each time it fires. 
+ * Instead it checks the configuration source and deployment policy source time stamps of the managed 
+ * domains, and marks the domains whose sources changed as dirty on the {@link DomainSynchronizationScheduler}. 
+ * Domains are also marked dirty by the "set" methods of {@link Domain}, by notifications from the device 
+ * and by failed synchronizations. Only the dirty domains get a DomainSynchronizationTask put on the 
+ * DomainSynchronizationQueue. Each DomainSynchronizationTask calls {@link Domain#synch(boolean)} to
  * check for changes that may result in domain configuration deployment if the DomainSynchronizationMode has been
  * set to {@link DomainSynchronizationMode#AUTO}
  * 
+ * <p>The first time the daemon fires, all the managed domains are marked dirty so that the domains 
+ * on the devices are compared with the persisted domain configuration.
+ * 
  * <p>The DomainSynchronization threads remove the tasks and process them.
+ * 
+ * <p>The sweep that checks the sources runs on its own timer thread, not on the one that drives the 
+ * DomainSynchronizationScheduler, because checking an http source is network I/O. A source that is 
+ * slow to answer delays the rest of the sweep, bounded by the timeout of 
+ * {@link URLSource#getLastModified()}, but not the tasks the scheduler hands to the queue.
  *  
  */
 public class DomainSynchronizationDaemon {
@@ -47,7 +59,10 @@ public class DomainSynchronizationDaemon {
     private boolean taskIsScheduled = false;
     private DomainSynchronizationQueue domainSynchQueue = null;
     private Timer domainSynchTimer = null;
+    private Timer timerWheelTimer = null;
     private DomainSynchronizationTimerTask domainSynchtask = null;
+    private DomainSynchronizationScheduler domainSynchScheduler = null;
+    private TimerTask timerWheelTask = null;
     private boolean isDaemonFiringFirstTime = true;
     
     private static int threadPoolSize;
@@ -55,6 +70,13 @@ public class DomainSynchronizationDaemon {
 
     private static final boolean IS_DAEMON = true;
     
+    // resizes the pool and reschedules the timer when the configuration changes
+    private final Configuration.Listener configurationListener = new Configuration.Listener() {
+        public void configurationChanged(Configuration.Snapshot previous, Configuration.Snapshot current) {
+            applyConfiguration(previous, current);
+        }
+    };
+    
     public static final String COPYRIGHT_2009_2013 = Constants.COPYRIGHT_2009_2013;
     
     private static final String CLASS_NAME = DomainSynchronizationDaemon.class.getName();
@@ -83,7 +105,7 @@ public class DomainSynchronizationDaemon {
      * Initializes the timer and thread pool objects for the DomainSynchronizationDaemon 
      * mechanism.
      */
-    public void startup(){
+    public synchronized void startup(){
         
         final String METHOD_NAME = "startup"; //$NON-NLS-1$
         logger.entering(CLASS_NAME, METHOD_NAME);
@@ -91,8 +113,19 @@ public class DomainSynchronizationDaemon {
         this.manager = Manager.internalGetInstance();
         
         this.domainSynchQueue = new DomainSynchronizationQueue(DomainSynchronizationDaemon.threadPoolSize);
+        this.domainSynchScheduler = new DomainSynchronizationScheduler(this.domainSynchQueue, 
+        		DomainSynchronizationDaemon.sleepIntervalMS);
         this.domainSynchTimer = new Timer(IS_DAEMON);
+        this.timerWheelTimer = new Timer("DomainSynchronizationScheduler", IS_DAEMON); //$NON-NLS-1$
+        this.timerWheelTask = new TimerTask() {
+        	public void run() {
+        		domainSynchScheduler.tick();
+        	}
+        };
+        this.timerWheelTimer.scheduleAtFixedRate(this.timerWheelTask, 
+        		DomainSynchronizationScheduler.TICK_MS, DomainSynchronizationScheduler.TICK_MS);
         setIntervalMS(DomainSynchronizationDaemon.sleepIntervalMS);
+        Configuration.addListener(this.configurationListener);
         
         logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME,
                 "DomainSynchronizationDaemon started with " + threadPoolSize +  //$NON-NLS-1$
@@ -105,10 +138,11 @@ public class DomainSynchronizationDaemon {
      * Cancels all the scheduled tasks, timers, and stops all threads. Note that
      * any tasks currently being executed will complete before quitting for good.
      */
-    public void shutdown(){
+    public synchronized void shutdown(){
         final String METHOD_NAME = "shutdown"; //$NON-NLS-1$
         
         logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME, "Shutting down DomainSynchronizationt daemon"); //$NON-NLS-1$
+        Configuration.removeListener(this.configurationListener);
         if ((this.domainSynchtask != null) && (this.taskIsScheduled)) {
             this.domainSynchtask.cancel();
             this.taskIsScheduled = false;
@@ -116,28 +150,66 @@ public class DomainSynchronizationDaemon {
         if (this.domainSynchtask != null) {
             this.domainSynchtask = null;
         }
+        if (this.timerWheelTask != null) {
+            this.timerWheelTask.cancel();
+            this.timerWheelTask = null;
+        }
+        if (this.timerWheelTimer != null) {
+            this.timerWheelTimer.cancel();
+            this.timerWheelTimer = null;
+        }
         if (this.domainSynchTimer != null) {
             this.domainSynchTimer.cancel();
             this.domainSynchTimer = null;
         }
+        if (this.domainSynchScheduler != null) {
+        	this.domainSynchScheduler.clear();
+        }
         if (this.domainSynchQueue != null) { 
         	this.domainSynchQueue.stopAllThreads();
         	this.domainSynchQueue = null;
         }
     }
     
+    /**
+     * Get the scheduler that keeps track of the dirty managed domains.
+     * 
+     * @return the DomainSynchronizationScheduler of this daemon
+     */
+    DomainSynchronizationScheduler getScheduler() {
+        return(this.domainSynchScheduler);
+    }
+    
+    /**
+     * Get the latency counters of the queue that runs the synchronizations.
+     * 
+     * @return the task metrics, or null if the daemon has been shut down
+     */
+    TaskMetrics getMetrics() {
+        DomainSynchronizationQueue queue = this.domainSynchQueue;
+        return((queue == null) ? null : queue.getMetrics());
+    }
+    
     /**
      * Changes the scheduled interval between Domain Synchronizations. This change
      * is not persisted after the application exits.
      * 
      * @param newInterval the desired interval between Domain Synchronizations in milliseconds
      */
-    void setIntervalMS(long newInterval){
+    synchronized void setIntervalMS(long newInterval){
         final String METHOD_NAME = "changeDomainSynchronizationInterval"; //$NON-NLS-1$
         logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME,
                 "Changing interval between domain synchronizations to " + newInterval); //$NON-NLS-1$
 
         DomainSynchronizationDaemon.sleepIntervalMS = newInterval;
+        if (this.domainSynchScheduler != null) {
+            // failed synchronizations are retried at the same interval
+            this.domainSynchScheduler.setRetryIntervalMS(newInterval);
+        }
+        if (this.domainSynchTimer == null) {
+            // not running, the interval is used at the next startup
+            return;
+        }
         /*
          * We can keep the same Timer and schedule other TimerTasks on it. But
          * we can't reschedule the same TimerTask object that was previously
@@ -165,13 +237,41 @@ public class DomainSynchronizationDaemon {
         return(DomainSynchronizationDaemon.sleepIntervalMS);
     }
     
+    /*
+     * Apply a changed thread pool size or interval from the configuration.
+     * Values that did not change are left alone, so an interval set with
+     * setIntervalMS(long) is kept until the configured interval changes.
+     */
+    private synchronized void applyConfiguration(Configuration.Snapshot previous, Configuration.Snapshot current) {
+        final String METHOD_NAME = "applyConfiguration"; //$NON-NLS-1$
+        if (this.domainSynchQueue == null) {
+            return;
+        }
+        if (current.isChanged(previous, Configuration.KEY_DOMAIN_SYNCHRONIZATION_THREAD_POOL_SIZE)) {
+            int size = current.getAsInt(Configuration.KEY_DOMAIN_SYNCHRONIZATION_THREAD_POOL_SIZE, 0);
+            if (size > 0) {
+                logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
+                        "DomainSynchronization thread pool size changed to " + size); //$NON-NLS-1$
+                DomainSynchronizationDaemon.threadPoolSize = size;
+                this.domainSynchQueue.resize(size);
+            }
+        }
+        if (current.isChanged(previous, Configuration.KEY_DOMAIN_SYNCHRONIZATION_INTERVAL)) {
+            int interval = current.getAsInt(Configuration.KEY_DOMAIN_SYNCHRONIZATION_INTERVAL, 0);
+            if (interval > 0) {
+                this.setIntervalMS(interval);
+            }
+        }
+    }
+    
     /**
      * Implements a TimerTask that executes the following logic:
      * 
      * get all managed sets
      * get all devices in each managed set
-     * for each managed device get all domains
-     *   execute(new DomainSynchronizationTask(domain));
+     * for each managed device get all domains with automatic synchronization
+     *   first firing: mark the domain dirty, comparing it with the device
+     *   otherwise: mark the domain dirty if it is not already dirty and its sources have changed
      * 
      *
      * @version $Id: DomainSynchronizationDaemon.java,v 1.3 2010/09/02 16:24:52 wjong Exp $
@@ -186,9 +286,8 @@ public class DomainSynchronizationDaemon {
             logger.entering(CLASS_NAME, METHOD_NAME);
             Thread.currentThread().setName("DomainSynchronizationTimerTask"); 
          
-         
             ManagedSet[] set = manager.getManagedSets();
-            int countOfAllAUTOSyncedDomains = 0;
+            int countOfDirtyDomains = 0;
             
             if (set == null){
                 logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
@@ -196,66 +295,36 @@ public class DomainSynchronizationDaemon {
             }
             else{
                 for (int i = 0; i < set.length; i++){
-
-                	ArrayList<Domain>[] deviceList = null;
-					try {					
-						deviceList = new ArrayList[set[i].getDeviceMembers().length];
-	                    for(int j =0; j<set[i].getDeviceMembers().length; j++ ){ 
-	                    	deviceList[j] = new ArrayList<Domain>();
-	                    }
-						
-					} catch (DeletedException e1) {
-						// TODO Auto-generated catch block
-						logger.logp(Level.INFO, CLASS_NAME, METHOD_NAME, "Exception thrown" ,e1);
-					}
                     try{
-                    	
                     	Device [] device = set[i].getDeviceMembers();
-                    	int num = 0;
                     	for (Device dev: device){                    		
                     		Domain []domains = dev.getManagedDomains();
-                    		//allManagedDevices.add(dev);
-                  	        
                   	        for (Domain dom: domains){
-                  	        	//allManagedDomains.put(dom, dev);
-
-                  	        	if (dom.isSynchEnabled()){
-                  	        	    deviceList[num].add(dom);
-                      	        	countOfAllAUTOSyncedDomains ++;                  	        	    
+                  	        	if (!dom.isSynchEnabled()){
+                  	        		continue;
+                  	        	}
+                    			// If this is the first time daemon is firing, compare the difference in domain configuration
+                    			// between device and persisted domains
+                    			// Else, just check for out of synch due to Domain and Policy Source time differences.
+                  	        	// Changes from set methods, notifications and failed synchs mark the domain dirty directly.
+                  	        	if (isDaemonFiringFirstTime){
+                  	        		domainSynchScheduler.markDirty(dom, true);
+                  	        		countOfDirtyDomains ++;
+                  	        	}else if (!domainSynchScheduler.isDirty(dom) && dom.isSourceChanged()){
+                  	        		domainSynchScheduler.markDirty(dom, false);
+                  	        		countOfDirtyDomains ++;
                   	        	}
                   	        }               
-                            num ++;  
                     	}
                     } catch (DeletedException e) {
                         logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME, 
                                 "A managed domain has already been deleted.", e); //$NON-NLS-1$
-						//e.printStackTrace();
 					}
-                    boolean notDone = true;
-                    int domProcessed =0;
-                    while(notDone){
-                    	for(ArrayList list: deviceList){   
-                    		if(!list.isEmpty()){
-                    			Domain domain = (Domain)list.remove(0); domProcessed++;
-                    			// If this is the first time daemon is firing, compare the difference in domain configuration
-                    			// between device and persisted domains
-                    			// Else, just check for out of synch due to Domain and Policy Source time differences,call to set methods  
-                    			if (isDaemonFiringFirstTime){
-                     			   domainSynchQueue.execute(new DomainSynchronizationTask(domain, true));                    				
-                    			}else{
-                    			   domainSynchQueue.execute(new DomainSynchronizationTask(domain, false));
-                    			}
-                 			
-                    		}
-                    	}
-                    	if (domProcessed >= countOfAllAUTOSyncedDomains){
-                    		notDone=false;
-                    	}
-                    }
-                    
                 }                                           
-                
             }
+            logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME,
+                    "Marked " + countOfDirtyDomains + " domains dirty, backlog is " +  //$NON-NLS-1$ //$NON-NLS-2$
+                    domainSynchScheduler.getBacklog());
             isDaemonFiringFirstTime = false;
             logger.exiting(CLASS_NAME, METHOD_NAME);
         }
@@ -18,16 +18,27 @@
 
 package com.ibm.datapower.amt.clientAPI;
 
-import java.util.LinkedList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.ibm.datapower.amt.Constants;
+import com.ibm.datapower.amt.TaskMetrics;
+import com.ibm.datapower.amt.ThreadExecutionMode;
 import com.ibm.datapower.amt.logging.LoggerHelper;
 
 /**
  * Implements a queue for pending Domain Synchronizations that need to be processed. This
  * class contains a pool of threads that are used to perform the Domain Synchronization.  
+ * The pool can be resized while it runs, see {@link #resize(int)}.
+ * <p>
+ * When {@link Configuration#KEY_THREAD_EXECUTION_MODE} is <code>virtual</code>
+ * no pool is started. Each synchronization instead runs on its own virtual
+ * thread, and at most {@link Configuration#KEY_MAX_TASKS_PER_DEVICE}
+ * synchronizations run against the same device at once.
  * 
  */
 public class DomainSynchronizationQueue {
@@ -40,11 +51,12 @@ public class DomainSynchronizationQueue {
         LoggerHelper.addLoggerToGroup(logger, Manager.getLoggerGroupName());
     }
 
-    private final int numThreads;
-    private final PoolWorker[] threads;
-    private final LinkedList queue;
+    private final ThreadPoolExecutor pool;
+    private final boolean virtual;
+    private final DeviceTaskLimiter limiter = new DeviceTaskLimiter();
+    private final TaskMetrics metrics = new TaskMetrics("DomainSynchronization"); //$NON-NLS-1$
     private volatile static DomainSynchronizationQueue singleton = null;
-    private boolean shutdownStarted = false; 
+    private volatile boolean shutdownStarted = false; 
     
     // private function added to comply with the criteria of Findbugs
     private static void setSingleton(DomainSynchronizationQueue domainSynchronizationQueue) {
@@ -55,28 +67,55 @@ public class DomainSynchronizationQueue {
      * the queue for when a DomainSynchronizationTask arrives.  
      * 
      * @param numThreads The number of threads to create in the thread pool.
+     *        This is ignored when synchronizations run on virtual threads.
      * 
      **/
     public DomainSynchronizationQueue(int numThreads) {
         
         final String METHOD_NAME = "DomainSynchronizationQueue"; //$NON-NLS-1$
         
-        logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME, "Starting " + numThreads + " DomainSynchronization threads"); //$NON-NLS-1$ //$NON-NLS-2$
-        this.numThreads = numThreads;
-        queue = new LinkedList();
-        threads = new PoolWorker[numThreads];
+        this.virtual = ThreadExecutionMode.isVirtual();
 
-        this.startThreads(numThreads);
+        if (this.virtual) {
+            this.pool = null;
+            logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME, "Running DomainSynchronization on virtual threads"); //$NON-NLS-1$
+        } else {
+            int size = Math.max(numThreads, 1);
+            logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME, "Starting " + size + " DomainSynchronization threads"); //$NON-NLS-1$ //$NON-NLS-2$
+            this.pool = new ThreadPoolExecutor(size, size, 0, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new PoolWorkerFactory(),
+                    // tasks given after stopAllThreads() are dropped
+                    new ThreadPoolExecutor.DiscardPolicy());
+            this.pool.prestartAllCoreThreads();
+        }
         
         this.setSingleton(this); // DomainSynchronizationQueue.singleton = this;
     }
     
-    private void startThreads(int numThreads) {
-    	for (int i=0; i < numThreads; i++) {
-            threads[i] = new PoolWorker(i);
-            threads[i].setDaemon(true);
-            threads[i].start();
+    /**
+     * Change the number of threads in the pool. New threads start right away.
+     * When the pool shrinks, idle threads stop right away and busy threads
+     * stop after their current synchronization. This does nothing when
+     * synchronizations run on virtual threads.
+     * 
+     * @param numThreads the new number of threads, at least 1
+     */
+    synchronized void resize(int numThreads) {
+        final String METHOD_NAME = "resize"; //$NON-NLS-1$
+        if ((this.pool == null) || (numThreads < 1) || this.shutdownStarted) {
+            return;
         }
+        logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME, "Resizing to " + numThreads + " DomainSynchronization threads"); //$NON-NLS-1$ //$NON-NLS-2$
+        ThreadExecutionMode.resizePool(this.pool, numThreads);
+        this.pool.prestartAllCoreThreads();
+    }
+    
+    /**
+     * @return the number of threads the pool is sized for, or 0 when
+     *         synchronizations run on virtual threads
+     */
+    int getPoolSize() {
+        return((this.pool == null) ? 0 : this.pool.getCorePoolSize());
     }
     
     synchronized public static DomainSynchronizationQueue getDomainSynchronizationQueueInstance(){
@@ -99,9 +138,15 @@ public class DomainSynchronizationQueue {
         //logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME, 
         //            "stopping all threads for DomainSynchronization"); //$NON-NLS-1$
         
-        shutdownStarted = true;
+        synchronized (this) {
+            shutdownStarted = true;
+        }
+        if (this.pool == null) {
+            return;
+        }
         
-        queue.clear();
+        // the queued synchronizations are dropped
+        this.pool.shutdownNow();
         
 /*        Vector<DomainSynchronizationTask> tasks = Manager.internalGetInstance().getDomainSyncTasksStarted();                     
         boolean done = false;
@@ -118,27 +163,17 @@ public class DomainSynchronizationQueue {
         
         tasks.removeAllElements(); tasks = null;*/
         
-        for (int i = 0; i < numThreads; i++) {
-            threads[i].stopThread();
-            threads[i].interrupt();
-        }
         // fix for 59347
-        for (int i = 0; i < numThreads; i++) {
-            while (threads[i].isAlive()) {
+        try {
+            while (!this.pool.awaitTermination(100, TimeUnit.MILLISECONDS)) {
                 logger.log(Level.FINEST, 
-                           "waiting for thread to finish: " + threads[i].getName()); //$NON-NLS-1$ 
-                //System.out.println("Waiting for thread in Queue.stopAllThreads: " +threads[i].getName() );                
-                try {
-                    Thread.sleep(100);
-
-                } catch (InterruptedException e) {
-                    logger.log(Level.FINEST, "sleep interrupted"); //$NON-NLS-1$
-                    Thread.currentThread().interrupt();
-                    //System.out.println("Interrupted Exception in Queue.stopAllThreads: " +threads[i].getName() );
-                }
+                           "waiting for " + this.pool.getPoolSize() + " threads to finish"); //$NON-NLS-1$ //$NON-NLS-2$
             }
-            logger.log(Level.FINEST, "thread has finished " + threads[i].getName()); //$NON-NLS-1$
+        } catch (InterruptedException e) {
+            logger.log(Level.FINEST, "wait interrupted"); //$NON-NLS-1$
+            Thread.currentThread().interrupt();
         }
+        logger.log(Level.FINEST, "all threads have finished"); //$NON-NLS-1$
     }
     
     /**
@@ -160,72 +195,91 @@ public class DomainSynchronizationQueue {
         }  	
         
         logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME, "adding DomainSynchronizationTask to DomainSynchronizationQueue"); //$NON-NLS-1$        
-        synchronized(queue) {
-            queue.addLast(r);
-            queue.notify();
+        Submission submission = new Submission(r, this.metrics.taskSubmitted());
+        if (this.virtual) {
+            ThreadExecutionMode.newThread(submission, "DomainSynchronizationQueue task").start(); //$NON-NLS-1$
+        } else {
+            this.pool.execute(submission);
         }
     }
     
     /**
-     * Provides the necessary mechanisms for a thread to block waiting on a 
-     * task to be placed in the queue, so that it can remove it and run it.
+     * Get the latency counters for synchronizations run by this queue.
      * 
+     * @return the domain synchronization task metrics
      */
-    private final class PoolWorker extends Thread {
-        private int number = 0;
-        private boolean run = false;
+    TaskMetrics getMetrics() {
+        return(this.metrics);
+    }
+    
+    /**
+     * Wraps a DomainSynchronizationTask so that its queue latency and run time
+     * are recorded, and so that the per-device limit is applied on virtual
+     * threads.
+     */
+    private final class Submission implements Runnable {
+        private final BackgroundTask task;
+        private final long submittedAt;
         
-        public PoolWorker(int number) {
-            this.number = number;
-            this.run = true;
+        Submission(BackgroundTask task, long submittedAt) {
+            this.task = task;
+            this.submittedAt = submittedAt;
         }
         
-        /**
-         * Sets boolean flag that thread checks upon each iteration to see if
-         * it should stop. 
-         */
-        public void stopThread(){
-            run = false;
-        }
-        /**
-         * Thread executing this method will remove a DomainSynchronizationTAsk off of the 
-         * internal queue, and attempt to process it.
-         */
         public void run() {
-            BackgroundTask domainSynchronizationTask;
-            final String METHOD_NAME = "PoolWorker.run"; //$NON-NLS-1$
-            
-            Thread.currentThread().setName("DomainSynchronizationQueue PoolWorker " + this.number); //$NON-NLS-1$
-
-            //give flag to stop the thread if needed.
-            while (run) {
-                
-                synchronized(queue) {         	
-                    // while the queue is empty, wait for a notification
-                    // that something is placed on the queue
-                    while (queue.isEmpty() && run && !Thread.currentThread().isInterrupted()) {
-                        try {
-                            queue.wait();
-                        }
-                        catch (InterruptedException ignored){                        	
-                        	//System.out.println("**Thread interrupted while waiting. Queue size: " + queue.size());                     	
-                            Thread.currentThread().interrupt();    
-                        }
-                    }
-                    if (!run) {
-                        return;
+            final String METHOD_NAME = "Submission.run"; //$NON-NLS-1$
+            Device device = null;
+            if (virtual && (this.task instanceof DomainSynchronizationTask)) {
+                Domain domain = ((DomainSynchronizationTask) this.task).getDomain();
+                try {
+                    device = (domain == null) ? null : domain.getDevice();
+                } catch (DeletedException e) {
+                    // let the task itself report the deleted domain
+                    device = null;
+                }
+            }
+            if (device != null) {
+                try {
+                    limiter.acquire(device);
+                } catch (InterruptedException e) {
+                    logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME, "interrupted waiting for device"); //$NON-NLS-1$
+                    ((DomainSynchronizationTask) this.task).setStatus(true);
+                    return;
+                }
+            }
+            try {
+                if (shutdownStarted) {
+                    if (this.task instanceof DomainSynchronizationTask) {
+                        ((DomainSynchronizationTask) this.task).setStatus(true);
                     }
-                    // something's on the queue, lets get it and process it                    
-                    domainSynchronizationTask = (BackgroundTask) queue.removeFirst();
-                    logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME, "removing DomainSynchronizationTask from DomainSynchronization Queue"); //$NON-NLS-1$
+                    return;
+                }
+                long startedAt = metrics.taskStarted(this.submittedAt);
+                try {
+                    logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME, "running DomainSynchronizationTask " ); //$NON-NLS-1$
+                    this.task.execute();
+                } finally {
+                    metrics.taskFinished(startedAt);
+                }
+            } finally {
+                if (device != null) {
+                    limiter.release(device);
                 }
-                
-                // run the Domain Synchronization task
-//                logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME, "running DomainSynchronizationTask " + domainSynchronizationTask.getSingleAffectedDomain() ); //$NON-NLS-1$
-                logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME, "running DomainSynchronizationTask " ); //$NON-NLS-1$
-                domainSynchronizationTask.execute();              
             }
         }
     }
+    
+    /**
+     * Names the pool threads and makes them daemons, as the threads of the
+     * fixed pool were.
+     */
+    private static final class PoolWorkerFactory implements ThreadFactory {
+        private int number = 0;
+        
+        public synchronized Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "DomainSynchronizationQueue PoolWorker " + this.number++); //$NON-NLS-1$
+            thread.setDaemon(true);
+            return(thread);
+        }
+    }
 }
-
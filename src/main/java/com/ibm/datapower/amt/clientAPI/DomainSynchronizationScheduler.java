@@ -0,0 +1,543 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+
+package com.ibm.datapower.amt.clientAPI;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.ibm.datapower.amt.Constants;
+import com.ibm.datapower.amt.logging.LoggerHelper;
+
+/**
+ * <p>Schedules domain synchronizations only for the managed domains that are known
+ * to be dirty, instead of sweeping every domain of every managed set on each
+ * firing of the {@link DomainSynchronizationDaemon}.
+ *
+ * <p>A domain is marked dirty when a change is detected on its configuration
+ * source or deployment policy source, when a "set" method changes its desired
+ * configuration, when a device notification reports a modified configuration,
+ * or when a previous synchronization failed. Each dirty domain has at most one
+ * DomainSynchronizationTask queued or running at a time. If the domain is marked
+ * dirty again while its task is running, a new task is queued once the running
+ * one completes.
+ *
+ * <p>Tasks that need to be retried later (the device lock was busy, or the
+ * synchronization did not converge) are parked on a hashed timer wheel rather
+ * than sleeping on a DomainSynchronizationQueue thread. The wheel is advanced by
+ * the Timer of the DomainSynchronizationDaemon. A task that found the device
+ * lock busy also waits on the lock itself (see {@link Lock.Waiter}), so it is
+ * put back on the queue as soon as the lock is released; the wheel only
+ * bounds how long it waits.
+ *
+ * <p>The scheduler keeps simple metrics: the backlog of dirty domains, the number
+ * of tasks parked on the timer wheel, and the time it took dirty domains to
+ * converge (from the time they were first marked dirty to the time a
+ * synchronization completed with nothing left to do).
+ *
+ * @see DomainSynchronizationDaemon
+ * @see DomainSynchronizationTask
+ */
+public class DomainSynchronizationScheduler {
+
+    public static final String COPYRIGHT_2009_2013 = Constants.COPYRIGHT_2009_2013;
+
+    private static final String CLASS_NAME = DomainSynchronizationScheduler.class.getName();
+    protected final static Logger logger = Logger.getLogger(CLASS_NAME);
+    static {
+        LoggerHelper.addLoggerToGroup(logger, Manager.getLoggerGroupName());
+    }
+
+    /**
+     * Resolution of the timer wheel in milliseconds. Delays are rounded up to a
+     * multiple of this value.
+     */
+    static final long TICK_MS = 250;
+
+    /**
+     * Number of slots on the timer wheel. Delays longer than one revolution
+     * (TICK_MS * WHEEL_SIZE) are handled by counting remaining revolutions.
+     */
+    private static final int WHEEL_SIZE = 512;
+
+    /**
+     * Delay before retrying a task that could not get the device lock.
+     */
+    static final long LOCK_BUSY_RETRY_MS = 1000;
+
+    /**
+     * The longest time a task waits on a busy device lock before it is put
+     * back on the queue anyway.
+     */
+    static final long LOCK_WAIT_TIMEOUT_MS = 60000;
+
+    private static final int STATE_QUEUED = 0;
+    private static final int STATE_RUNNING = 1;
+    private static final int STATE_DELAYED = 2;
+
+    private final DomainSynchronizationQueue domainSynchQueue;
+    private final Map<String, DirtyDomain> dirtyDomains = new HashMap<String, DirtyDomain>();
+    private final List<LinkedList<WheelEntry>> wheel;
+    private int wheelCursor = 0;
+    private int wheelCount = 0;
+    private long retryIntervalMS;
+
+    private long convergedCount = 0;
+    private long totalConvergeMS = 0;
+    private long maxConvergeMS = 0;
+    private long lastConvergeMS = 0;
+
+    /**
+     * Create a scheduler that dispatches tasks to the specified queue.
+     *
+     * @param domainSynchQueue the queue whose threads run the DomainSynchronizationTasks
+     * @param retryIntervalMS the delay before retrying a synchronization that
+     *        did not converge
+     */
+    DomainSynchronizationScheduler(DomainSynchronizationQueue domainSynchQueue, long retryIntervalMS) {
+        this.domainSynchQueue = domainSynchQueue;
+        this.retryIntervalMS = retryIntervalMS;
+        this.wheel = new ArrayList<LinkedList<WheelEntry>>(WHEEL_SIZE);
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            this.wheel.add(new LinkedList<WheelEntry>());
+        }
+    }
+
+    synchronized void setRetryIntervalMS(long retryIntervalMS) {
+        this.retryIntervalMS = retryIntervalMS;
+    }
+
+    /**
+     * Mark the domain as dirty so that it is synchronized. If the domain is not
+     * already dirty, a DomainSynchronizationTask is queued immediately.
+     *
+     * @param domain the managed domain that needs synchronization
+     * @param compareMode true if the domain on the device should be compared
+     *        with the persisted domain configuration
+     */
+    void markDirty(Domain domain, boolean compareMode) {
+        final String METHOD_NAME = "markDirty"; //$NON-NLS-1$
+
+        String key = getKey(domain);
+        if (key == null) {
+            return;
+        }
+
+        DomainSynchronizationTask task = null;
+        synchronized (this) {
+            DirtyDomain dirty = this.dirtyDomains.get(key);
+            if (dirty == null) {
+                dirty = new DirtyDomain(domain, compareMode);
+                this.dirtyDomains.put(key, dirty);
+                task = this.createTask(dirty);
+            } else {
+                dirty.compareMode = dirty.compareMode || compareMode;
+                if (dirty.state == STATE_RUNNING) {
+                    dirty.dirtyAgain = true;
+                }
+            }
+        }
+
+        if (task != null) {
+            logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME,
+                    "Domain marked dirty: " + domain.getAbsoluteDisplayName()); //$NON-NLS-1$
+            this.domainSynchQueue.execute(task);
+        }
+    }
+
+    /**
+     * Check if the domain is already waiting for synchronization.
+     *
+     * @param domain the managed domain
+     * @return true if the domain has been marked dirty and has not converged yet
+     */
+    synchronized boolean isDirty(Domain domain) {
+        String key = getKey(domain);
+        return (key != null) && this.dirtyDomains.containsKey(key);
+    }
+
+    /**
+     * Park the task on the timer wheel and put it back on the
+     * DomainSynchronizationQueue once the delay has expired. The calling thread
+     * does not block.
+     *
+     * @param task the task to run again later
+     * @param delayMS the delay in milliseconds
+     */
+    void requeueLater(DomainSynchronizationTask task, long delayMS) {
+        this.park(task, delayMS, null);
+    }
+
+    /**
+     * Put the task back on the DomainSynchronizationQueue as soon as the lock
+     * is released, or after {@link #LOCK_WAIT_TIMEOUT_MS} if it is still busy
+     * then. If too many tasks are already waiting on the lock, the task is
+     * retried after {@link #LOCK_BUSY_RETRY_MS} instead. The calling thread
+     * does not block.
+     *
+     * @param task the task that found the lock busy
+     * @param lock the busy lock
+     */
+    void requeueWhenAvailable(DomainSynchronizationTask task, Lock lock) {
+        LockWaiter waiter = new LockWaiter(task, lock);
+        this.park(task, LOCK_WAIT_TIMEOUT_MS, waiter);
+        if (!lock.resumeWhenAvailable(waiter) && waiter.claim()) {
+            this.unpark(waiter);
+            this.requeueLater(task, LOCK_BUSY_RETRY_MS);
+        }
+    }
+
+    private synchronized void park(DomainSynchronizationTask task, long delayMS, LockWaiter waiter) {
+        DirtyDomain dirty = this.dirtyDomains.get(getKey(task.getDomain()));
+        if ((dirty != null) && (task.getScheduler() == this)) {
+            dirty.state = STATE_DELAYED;
+        }
+
+        long ticks = (delayMS + TICK_MS - 1) / TICK_MS;
+        if (ticks < 1) {
+            ticks = 1;
+        }
+        int slot = (int) ((this.wheelCursor + ticks) % WHEEL_SIZE);
+        long rounds = (ticks - 1) / WHEEL_SIZE;
+        WheelEntry entry = new WheelEntry(task, slot, rounds, waiter);
+        this.wheel.get(slot).add(entry);
+        this.wheelCount++;
+        if (waiter != null) {
+            waiter.entry = entry;
+        }
+    }
+
+    /*
+     * Take the timeout of a LockWaiter that was claimed by the lock off the
+     * wheel, so it is not counted as delayed until it would have expired. It
+     * is already gone if the wheel was cleared or tick() got there first.
+     */
+    private synchronized void unpark(LockWaiter waiter) {
+        WheelEntry entry = waiter.entry;
+        if ((entry != null) && this.wheel.get(entry.slot).remove(entry)) {
+            this.wheelCount--;
+        }
+    }
+
+    /*
+     * Invoked by a LockWaiter when the lock it waits on has been released.
+     */
+    private void resume(LockWaiter waiter) {
+        DomainSynchronizationTask task = waiter.task;
+        synchronized (this) {
+            this.unpark(waiter);
+            DirtyDomain dirty = this.dirtyDomains.get(getKey(task.getDomain()));
+            if ((dirty != null) && (task.getScheduler() == this)) {
+                dirty.state = STATE_QUEUED;
+            }
+        }
+        this.domainSynchQueue.execute(task);
+    }
+
+    /**
+     * Advance the timer wheel by one tick and dispatch all the tasks whose delay
+     * has expired. Invoked by the Timer of the DomainSynchronizationDaemon every
+     * {@link #TICK_MS} milliseconds.
+     */
+    void tick() {
+        LinkedList<DomainSynchronizationTask> expired = null;
+        synchronized (this) {
+            this.wheelCursor = (this.wheelCursor + 1) % WHEEL_SIZE;
+            LinkedList<WheelEntry> slot = this.wheel.get(this.wheelCursor);
+            Iterator<WheelEntry> iterator = slot.iterator();
+            while (iterator.hasNext()) {
+                WheelEntry entry = iterator.next();
+                if (entry.rounds > 0) {
+                    entry.rounds--;
+                    continue;
+                }
+                iterator.remove();
+                this.wheelCount--;
+                if (entry.waiter != null) {
+                    if (!entry.waiter.claim()) {
+                        // the lock was released and the task already resumed
+                        continue;
+                    }
+                    entry.waiter.lock.cancelWaiter(entry.waiter);
+                }
+                if (expired == null) {
+                    expired = new LinkedList<DomainSynchronizationTask>();
+                }
+                DirtyDomain dirty = this.dirtyDomains.get(getKey(entry.task.getDomain()));
+                if ((dirty != null) && (entry.task.getScheduler() == this)) {
+                    dirty.state = STATE_QUEUED;
+                }
+                expired.add(entry.task);
+            }
+        }
+
+        if (expired != null) {
+            for (DomainSynchronizationTask task : expired) {
+                this.domainSynchQueue.execute(task);
+            }
+        }
+    }
+
+    /**
+     * Invoked by a DomainSynchronizationTask created by this scheduler just
+     * before it calls {@link Domain#synch(boolean)}.
+     *
+     * @param domain the domain being synchronized
+     */
+    synchronized void taskStarted(Domain domain) {
+        DirtyDomain dirty = this.dirtyDomains.get(getKey(domain));
+        if (dirty != null) {
+            dirty.state = STATE_RUNNING;
+            dirty.dirtyAgain = false;
+            dirty.compareMode = false;
+        }
+    }
+
+    /**
+     * Invoked by a DomainSynchronizationTask created by this scheduler after
+     * {@link Domain#synch(boolean)} has returned.
+     *
+     * @param domain the domain that was synchronized
+     * @param compareMode the compare mode the task was run with
+     * @param pending true if the domain still needs synchronization, for example
+     *        because the deploy failed or the device was being rebooted
+     */
+    void taskFinished(Domain domain, boolean compareMode, boolean pending) {
+        final String METHOD_NAME = "taskFinished"; //$NON-NLS-1$
+
+        String key = getKey(domain);
+        DomainSynchronizationTask task = null;
+        synchronized (this) {
+            DirtyDomain dirty = this.dirtyDomains.get(key);
+            if (dirty == null) {
+                return;
+            }
+            if (!domain.isSynchEnabled()) {
+                // automatic synchronization was turned off, nothing to converge to
+                this.dirtyDomains.remove(key);
+            } else if (pending) {
+                dirty.compareMode = dirty.compareMode || compareMode;
+                this.requeueLater(this.createTask(dirty), this.retryIntervalMS);
+            } else if (dirty.dirtyAgain) {
+                task = this.createTask(dirty);
+            } else {
+                this.dirtyDomains.remove(key);
+                long convergeMS = System.currentTimeMillis() - dirty.dirtySince;
+                this.convergedCount++;
+                this.totalConvergeMS += convergeMS;
+                this.lastConvergeMS = convergeMS;
+                if (convergeMS > this.maxConvergeMS) {
+                    this.maxConvergeMS = convergeMS;
+                }
+                logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME,
+                        "Domain " + domain.getAbsoluteDisplayName() +  //$NON-NLS-1$
+                        " converged in " + convergeMS + "ms"); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+        }
+
+        if (task != null) {
+            this.domainSynchQueue.execute(task);
+        }
+    }
+
+    /**
+     * Stop tracking the domain, for example because its synchronization task
+     * failed with an unexpected exception or the domain was deleted.
+     *
+     * @param domain the domain to forget
+     */
+    synchronized void forget(Domain domain) {
+        String key = getKey(domain);
+        if (key != null) {
+            this.dirtyDomains.remove(key);
+        }
+    }
+
+    /**
+     * Forget all the dirty domains and all the tasks parked on the timer wheel.
+     * Used when the DomainSynchronizationDaemon shuts down.
+     */
+    synchronized void clear() {
+        this.dirtyDomains.clear();
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            for (WheelEntry entry : this.wheel.get(i)) {
+                if ((entry.waiter != null) && entry.waiter.claim()) {
+                    entry.waiter.lock.cancelWaiter(entry.waiter);
+                }
+            }
+            this.wheel.get(i).clear();
+        }
+        this.wheelCount = 0;
+    }
+
+    /**
+     * Get the number of managed domains that are marked dirty and have not
+     * converged yet. This includes domains whose task is queued, running or
+     * waiting on the timer wheel.
+     *
+     * @return the number of dirty domains
+     */
+    public synchronized int getBacklog() {
+        return this.dirtyDomains.size();
+    }
+
+    /**
+     * Get the number of tasks that are waiting on the timer wheel to be put back
+     * on the DomainSynchronizationQueue. This includes the tasks waiting for a
+     * device lock to be released, until the lock is released or their timeout
+     * expires.
+     *
+     * @return the number of delayed tasks
+     */
+    public synchronized int getDelayedTaskCount() {
+        return this.wheelCount;
+    }
+
+    /**
+     * Get the number of times a dirty domain has converged since the
+     * DomainSynchronizationDaemon was started.
+     *
+     * @return the number of converged domain synchronizations
+     */
+    public synchronized long getConvergedCount() {
+        return this.convergedCount;
+    }
+
+    /**
+     * Get the time it took the most recently converged domain to converge, from
+     * the time it was first marked dirty.
+     *
+     * @return the time to converge in milliseconds, or 0 if no domain has
+     *         converged yet
+     */
+    public synchronized long getLastTimeToConvergeMS() {
+        return this.lastConvergeMS;
+    }
+
+    /**
+     * Get the average time it took dirty domains to converge.
+     *
+     * @return the average time to converge in milliseconds, or 0 if no domain
+     *         has converged yet
+     */
+    public synchronized long getAverageTimeToConvergeMS() {
+        if (this.convergedCount == 0) {
+            return 0;
+        }
+        return this.totalConvergeMS / this.convergedCount;
+    }
+
+    /**
+     * Get the longest time it took a dirty domain to converge.
+     *
+     * @return the maximum time to converge in milliseconds
+     */
+    public synchronized long getMaxTimeToConvergeMS() {
+        return this.maxConvergeMS;
+    }
+
+    private DomainSynchronizationTask createTask(DirtyDomain dirty) {
+        DomainSynchronizationTask task = new DomainSynchronizationTask(dirty.domain, dirty.compareMode);
+        task.setScheduler(this);
+        dirty.state = STATE_QUEUED;
+        dirty.dirtyAgain = false;
+        return task;
+    }
+
+    private static String getKey(Domain domain) {
+        final String METHOD_NAME = "getKey"; //$NON-NLS-1$
+        String key = null;
+        try {
+            key = domain.getPrimaryKey();
+        } catch (DeletedException e) {
+            logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
+                    "A managed domain has already been deleted.", e); //$NON-NLS-1$
+        }
+        return key;
+    }
+
+    /**
+     * The synchronization state of a dirty domain.
+     */
+    private static class DirtyDomain {
+        final Domain domain;
+        final long dirtySince;
+        boolean compareMode;
+        boolean dirtyAgain = false;
+        int state = STATE_QUEUED;
+
+        DirtyDomain(Domain domain, boolean compareMode) {
+            this.domain = domain;
+            this.compareMode = compareMode;
+            this.dirtySince = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * A task parked in a slot of the timer wheel.
+     */
+    private static class WheelEntry {
+        final DomainSynchronizationTask task;
+        final int slot;
+        final LockWaiter waiter;
+        long rounds;
+
+        WheelEntry(DomainSynchronizationTask task, int slot, long rounds, LockWaiter waiter) {
+            this.task = task;
+            this.slot = slot;
+            this.rounds = rounds;
+            this.waiter = waiter;
+        }
+    }
+
+    /**
+     * A task waiting for a busy device lock. Either the release of the lock or
+     * the timeout on the wheel claims it, whichever comes first.
+     */
+    private class LockWaiter implements Lock.Waiter {
+        final DomainSynchronizationTask task;
+        final Lock lock;
+        private final AtomicBoolean claimed = new AtomicBoolean(false);
+        // the timeout on the wheel, guarded by the scheduler
+        WheelEntry entry = null;
+
+        LockWaiter(DomainSynchronizationTask task, Lock lock) {
+            this.task = task;
+            this.lock = lock;
+        }
+
+        boolean claim() {
+            return this.claimed.compareAndSet(false, true);
+        }
+
+        public boolean resume() {
+            if (!this.claim()) {
+                return false;
+            }
+            DomainSynchronizationScheduler.this.resume(this);
+            return true;
+        }
+    }
+}
@@ -47,6 +47,8 @@ public class DomainSynchronizationTask extends BackgroundTask { //implements Run
     // Indicates if the task is active
     private boolean isDone = false;
     private String uniqueTaskIdentifier = "";
+    // The scheduler that created this task, null if the task was created elsewhere
+    private DomainSynchronizationScheduler scheduler = null;
     
     public DomainSynchronizationTask(Domain domain, Boolean compareMode) { 
         String METHOD_NAME = "DomainSynchronizationTask";
@@ -89,7 +91,8 @@ public class DomainSynchronizationTask extends BackgroundTask { //implements Run
     /**
      * Lock the Device - lockNoWait()
      * Call domain.synch(CompareMode = false) 
-     * If LockBusyException is caught then wait for 1 sec and put the task back on the DomainSynchronizationQueue
+     * If LockBusyException is caught then the DomainSynchronizationScheduler puts the task 
+     * back on the DomainSynchronizationQueue when the device lock is released
      * 
      * If the manager is in the process of shutting down then, then stop putting new tasks on the DS queue
      */
@@ -110,7 +113,14 @@ public class DomainSynchronizationTask extends BackgroundTask { //implements Run
             args[0] = this.domain.getName();
             args[1] = this.domain.getDevice(); 
           
-            if(domain.synch(compareMode)){
+            if (this.scheduler != null) {
+            	this.scheduler.taskStarted(this.domain);
+            }
+            boolean deployed = domain.synch(compareMode);
+            if (this.scheduler != null) {
+            	this.scheduler.taskFinished(this.domain, compareMode, domain.isSynchPending());
+            }
+            if(deployed){
             	if (this.progressContainer != null){
           	       this.progressContainer.incrementCurrentStep(1, "wamt.clientAPI.DeployDomainConfigurationTask.deploySource", args);
             	}
@@ -132,15 +142,16 @@ public class DomainSynchronizationTask extends BackgroundTask { //implements Run
 				}
 			}
         }catch(LockBusyException e){
-
-        	logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME, 
-        			"Put the synchronization task back on the queue for domain " + domain + " with a delay of 1 sec");
+        	// the exception is stackless and its message is never formatted on this path
+        	if (logger.isLoggable(Level.FINE)) {
+        		logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME, 
+        			"Put the synchronization task back on the queue for domain " + domain + " when the device lock is released");
+        	}
       	
-     		
-        		//Put this task back on the queue	
-            	sleep(1000);        
-        		if (DomainSynchronizationQueue.getDomainSynchronizationQueueInstance()!= null){
-        			DomainSynchronizationQueue.getDomainSynchronizationQueueInstance().execute(this);
+        		//Put this task back on the queue once the device is unlocked, without blocking this thread
+        		DomainSynchronizationScheduler domainSynchScheduler = mn.internalGetDomainSynchronizationScheduler();
+        		if (domainSynchScheduler != null){
+        			domainSynchScheduler.requeueWhenAvailable(this, device.getLock());
         		}else{
         			logger.logp(Level.INFO, CLASS_NAME, METHOD_NAME,
         			"DomainSynchronizationQueue had not been instaniated when domain.sync() was called."); //TODO LS Message					
@@ -151,6 +162,10 @@ public class DomainSynchronizationTask extends BackgroundTask { //implements Run
             logger.logp(Level.INFO, CLASS_NAME, METHOD_NAME,
                     "Exceptions occurred when domain.sync() was called.", e); //TODO LS Message
 				//e.printStackTrace();
+				if (this.scheduler != null){
+					// don't leave the domain marked dirty forever, the next change will mark it again
+					this.scheduler.forget(this.domain);
+				}
 				if (progressContainer != null){
 					progressContainer.setError(e);
 				}											
@@ -183,6 +198,18 @@ public class DomainSynchronizationTask extends BackgroundTask { //implements Run
 		return name;
     }
     
+    Domain getDomain(){
+    	return this.domain;
+    }
+    
+    DomainSynchronizationScheduler getScheduler(){
+    	return this.scheduler;
+    }
+    
+    void setScheduler(DomainSynchronizationScheduler scheduler){
+    	this.scheduler = scheduler;
+    }
+    
     public boolean getStatus(){
 		return this.isDone;
     }
@@ -211,18 +238,6 @@ public class DomainSynchronizationTask extends BackgroundTask { //implements Run
 //    }
     
     
-    private void sleep(long time) {
-		final String METHOD_NAME = "sleep";    	
-    	try {
-			Thread.sleep(time);
-		} catch (InterruptedException e) {
-
-			// Auto-generated catch block - eat it
-            logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
-                    "Interrupted Exception may have been caused by Domain synchronization threads shutting down"); //TODO LS Message			
-		
-		}
-    }    
     
 
 
@@ -19,6 +19,7 @@
 package com.ibm.datapower.amt.clientAPI;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.Date;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -33,6 +34,8 @@ import com.ibm.datapower.amt.amp.AMPIOException;
 import com.ibm.datapower.amt.amp.Commands;
 import com.ibm.datapower.amt.amp.DeviceContext;
 import com.ibm.datapower.amt.amp.DeviceExecutionException;
+import com.ibm.datapower.amt.amp.DomainDiffEngine;
+import com.ibm.datapower.amt.amp.DomainDifferences;
 import com.ibm.datapower.amt.amp.DomainStatus;
 import com.ibm.datapower.amt.amp.InvalidCredentialsException;
 import com.ibm.datapower.amt.dataAPI.DatastoreException;
@@ -439,20 +442,19 @@ public class DomainVersion implements Version, Persistable {
     /**
      * Generate a background task to get a visual representation of the
      * differences of a domain between two versions. This DomainVersion will be
-     * compared to the DomainVersion parameter. The diff will be performed on
-     * the device, since the manager has no knowledge of the domain internals and
-     * instead treats the DomainVersions' Blob as opaque. Since the diff is
-     * performed on the device, this is considered a long-running task and is
-     * why it returns a ProgressContainer.
+     * compared to the DomainVersion parameter. The diff is performed on the
+     * manager by {@link #getDifferences(DomainVersion)}, and the result is
+     * written to a report file. Since the Blobs may be large, this is
+     * considered a long-running task and is why it returns a
+     * ProgressContainer.
      * 
      * @param that the other DomainVersion to be used for comparison to "this"
      * @return a ProgressContainer so you can monitor this progress of this
      *         long-running task. If the ProgressContainer indicates successful
      *         completion, you can retrieve a URL object from the
      *         ProgressContainer. It is expected that this URL can be opened in
-     *         an external web browser that will connect to a predefined point
-     *         on a DataPower device that will generate the diff content for the
-     *         browser.
+     *         an external web browser to display the report of the
+     *         differences.
      * @throws DeletedException this object has been deleted from the persisted
      *         repository. The referenced object is no longer valid. You should
      *         not be using a reference to this object.
@@ -478,6 +480,40 @@ public class DomainVersion implements Version, Persistable {
         return(result);
     }
 
+    /**
+     * Compare this DomainVersion to another version of the same domain on the
+     * manager, without contacting the device. Both Blobs are streamed, so the
+     * memory used depends on the number of configuration objects in the domain
+     * rather than on the size of the Blobs. See
+     * {@link DomainDiffEngine} for details.
+     * 
+     * @param that the other DomainVersion, which is treated as the newer one
+     * @return the configuration objects that were added, removed or modified
+     *         between this version and <code>that</code>
+     * @throws DeletedException this object has been deleted from the persisted
+     *         repository. The referenced object is no longer valid. You should
+     *         not be using a reference to this object.
+     * @throws IOException there was a problem reading one of the Blobs
+     * @throws AMPException one of the Blobs is not an XML configuration export
+     */
+    public DomainDifferences getDifferences(DomainVersion that) throws DeletedException, IOException, AMPException {
+        final String METHOD_NAME = "getDifferences"; //$NON-NLS-1$
+        logger.entering(CLASS_NAME, METHOD_NAME, new Object[] {this, that});
+        final Blob blob1 = this.getBlob();
+        final Blob blob2 = that.getBlob();
+        DomainDifferences result = DomainDiffEngine.compare(new DomainDiffEngine.ImageSource() {
+            public InputStream open() throws IOException {
+                return(blob1.getInputStream());
+            }
+        }, new DomainDiffEngine.ImageSource() {
+            public InputStream open() throws IOException {
+                return(blob2.getInputStream());
+            }
+        });
+        logger.exiting(CLASS_NAME, METHOD_NAME, result);
+        return(result);
+    }
+
     /* javadoc inherited from interface */
     public int getVersionNumber() throws DeletedException {
         return(this.getStoredInstance().getVersionNumber());
@@ -27,6 +27,7 @@ import com.ibm.datapower.amt.DMgrException;
 import com.ibm.datapower.amt.DeviceType;
 import com.ibm.datapower.amt.Messages;
 import com.ibm.datapower.amt.ModelType;
+import com.ibm.datapower.amt.FeatureSet;
 import com.ibm.datapower.amt.StringCollection;
 import com.ibm.datapower.amt.dataAPI.DatastoreException;
 import com.ibm.datapower.amt.dataAPI.NotEmptyInRepositoryException;
@@ -34,6 +35,7 @@ import com.ibm.datapower.amt.dataAPI.Repository;
 import com.ibm.datapower.amt.dataAPI.StoredFirmware;
 import com.ibm.datapower.amt.dataAPI.StoredFirmwareVersion;
 import com.ibm.datapower.amt.dataAPI.StoredVersion;
+import com.ibm.datapower.amt.dataAPI.local.filesystem.StoredFirmwareImpl;
 import com.ibm.datapower.amt.logging.LoggerHelper;
 
 /**
@@ -132,6 +134,9 @@ import com.ibm.datapower.amt.logging.LoggerHelper;
  */
 public class Firmware implements Persistable, Versionable {
     private volatile StoredFirmware persistence = null;
+    /* the features without versions, as compared with a device's licenses. Firmware features never change */
+    private volatile FeatureSet strippedStrictFeatures = null;
+    private volatile FeatureSet strippedAllFeatures = null;
     /*
      * All the attributes above this line will be persisted to the datastore.
      * Also see all the members in the parent class.
@@ -245,62 +250,66 @@ public class Firmware implements Persistable, Versionable {
         logger.exiting(CLASS_NAME, METHOD_NAME);
     }
     
+    /*
+     * The oldest versions are removed together, under one Firmware lock, and
+     * the repository is saved once afterwards. See VersionRetention.
+     */
     void trimExcessVersions() {
         final String METHOD_NAME = "trimExcessVersions"; //$NON-NLS-1$
-        Manager manager = null;
         int allowed = 0;
-        Version[] versions = null;
-        int have = 0;
-        int highest = 0;
+        StoredVersion[] versions = null;
+        int excess = 0;
         try {
-            manager = Manager.internalGetInstance();
-            allowed = manager.getMaxVersionsToStore();
-            versions = this.getVersions();
-            have = versions.length;
-            highest = this.getHighestVersionNumber();
+            allowed = Manager.internalGetInstance().getMaxVersionsToStore();
+            versions = this.getStoredInstance().getVersions();
+            excess = VersionRetention.excess(versions, allowed);
         } catch (DeletedException e) {
             logger.logp(Level.INFO, CLASS_NAME, METHOD_NAME,
                     Messages.getString("CannotTrim"), e); //$NON-NLS-1$
             return;
         }
-        if (have > allowed) {
-            logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
-                    "need to trim, have " + have + //$NON-NLS-1$
-                    " > allowed " + allowed + //$NON-NLS-1$
-                    ", highest " + highest); //$NON-NLS-1$
-            // work from the oldest version to the newest
-            for (int i=1; (i<=highest) && (have>allowed); i++) {
-                Version version = null;
-                try {
-                    version = this.getVersion(i);
-                } catch (DeletedException e) {
-                    // skip this one
-                    version = null;
-                    // if deleted then we don't really have it
-                    have--;
-                }
-                if (version != null) {
+        if (excess == 0) {
+            logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME,
+                    "no versions need to be trimmed, allowed " + allowed); //$NON-NLS-1$
+            return;
+        }
+        logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
+                "need to trim " + excess + //$NON-NLS-1$
+                " versions, allowed " + allowed); //$NON-NLS-1$
+        int trimmed = 0;
+        Firmware.lockWait();
+        try {
+            final PersistenceMapper mapper = PersistenceMapper.getInstance();
+            trimmed = VersionRetention.trim(versions, allowed, new VersionRetention.Trimmer() {
+                public boolean trim(StoredVersion storedVersion) {
+                    FirmwareVersion version = null;
                     try {
-//                        if (!version.isInUse()) {
-                            logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
-                                    "attempting to trim " + version); //$NON-NLS-1$
-                            this.remove(version);
-                            have--;
-//                        }
+                        version = mapper.getVia((StoredFirmwareVersion) storedVersion);
+                        logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
+                                "attempting to trim " + version); //$NON-NLS-1$
+                        version.destroy();
+                        return(true);
                     } catch (DMgrException e) {
-                        // just skip this one
+                        // keep this one and try the next newer one
                         logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
                                 "Unable to check/perform trimming of " + version, e); //$NON-NLS-1$
+                        return(false);
                     }
                 }
+            });
+        } finally {
+            Firmware.unlock();
+        }
+        if (trimmed > 0) {
+            try {
+                Manager.internalGetInstance().save(Manager.SAVE_UNFORCED);
+            } catch (DMgrException e) {
+                logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
+                        "Unable to save after trimming", e); //$NON-NLS-1$
             }
-            logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME,
-                    "now have " + have + " versions"); //$NON-NLS-1$ //$NON-NLS-2$
-        } else {
-            logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME,
-                    "no versions need to be trimmed, have " + have + //$NON-NLS-1$
-                    " <= allowed " + allowed); //$NON-NLS-1$
         }
+        logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME,
+                "trimmed " + trimmed + " versions"); //$NON-NLS-1$ //$NON-NLS-2$
     }
 
     /**
@@ -606,11 +615,17 @@ public class Firmware implements Persistable, Versionable {
     public Version getVersion(int targetVersionNumber) throws DeletedException {
         FirmwareVersion result = null;
         StoredFirmwareVersion matchingStoredFirmwareVersion = null;
-        StoredVersion[] storedVersions = this.getStoredInstance().getVersions();
-        for (int i=0; i<storedVersions.length; i++) {
-            if (storedVersions[i].getVersionNumber() == targetVersionNumber) {
-                matchingStoredFirmwareVersion = (StoredFirmwareVersion) storedVersions[i];
-                break;
+        StoredFirmware storedFirmware = this.getStoredInstance();
+        if (storedFirmware instanceof StoredFirmwareImpl) {
+            // the local repository indexes the versions by number
+            matchingStoredFirmwareVersion = ((StoredFirmwareImpl) storedFirmware).getVersion(targetVersionNumber);
+        } else {
+            StoredVersion[] storedVersions = storedFirmware.getVersions();
+            for (int i=0; i<storedVersions.length; i++) {
+                if (storedVersions[i].getVersionNumber() == targetVersionNumber) {
+                    matchingStoredFirmwareVersion = (StoredFirmwareVersion) storedVersions[i];
+                    break;
+                }
             }
         }
         if (matchingStoredFirmwareVersion != null) {
@@ -638,8 +653,14 @@ public class Firmware implements Persistable, Versionable {
      */
     public FirmwareVersion getLevel(String targetLevel) throws DeletedException {
         FirmwareVersion result = null;
+        StoredFirmware storedFirmware = this.getStoredInstance();
+        FirmwareCatalog catalog = PersistenceMapper.getInstance().getFirmwareCatalog();
+        if (catalog.contains(this)) {
+            // the catalog maps the levels of every Firmware in the mapper
+            return(catalog.getLevel(this, targetLevel));
+        }
         StoredFirmwareVersion matchingStoredFirmwareVersion = null;
-        StoredVersion[] storedVersions = this.getStoredInstance().getVersions();
+        StoredVersion[] storedVersions = storedFirmware.getVersions();
         for (int i=0; i<storedVersions.length; i++) {
             StoredFirmwareVersion storedFirmwareVersion = (StoredFirmwareVersion) storedVersions[i];
             if (storedFirmwareVersion.getLevel().equals(targetLevel)) {
@@ -903,13 +924,45 @@ public class Firmware implements Persistable, Versionable {
     private StringCollection removeVersionString(StringCollection features){
     	StringCollection temp = new StringCollection();
         for(int i=0;i<features.size();i++){
-      	  String feature = features.get(i);
-      	  int index = feature.indexOf('_');
-      	  temp.add(index>0 ? feature.substring(0, index) : feature);
+      	  temp.add(removeVersionString(features.get(i)));
         }
         return temp;
     }
     
+    /* also used by FirmwareCatalog, which must compare features the same way */
+    static FeatureSet removeVersionString(FeatureSet features){
+        String[] temp = new String[features.size()];
+        for(int i=0;i<temp.length;i++){
+            temp[i] = removeVersionString(features.get(i));
+        }
+        return FeatureSet.valueOf(temp);
+    }
+    
+    FeatureSet getStrippedStrictFeatures() throws DeletedException {
+        FeatureSet result = this.strippedStrictFeatures;
+        if (result == null) {
+            result = removeVersionString(this.getStrictFeatures().toFeatureSet());
+            this.strippedStrictFeatures = result;
+        }
+        return(result);
+    }
+    
+    private FeatureSet getStrippedAllFeatures() throws DeletedException {
+        FeatureSet result = this.strippedAllFeatures;
+        if (result == null) {
+            StringCollection all = new StringCollection(this.getStrictFeatures(), this.getNonstrictFeatures());
+            result = removeVersionString(all.toFeatureSet());
+            this.strippedAllFeatures = result;
+        }
+        return(result);
+    }
+    
+    /* also used by FirmwareCatalog, which must compare features the same way */
+    static String removeVersionString(String feature){
+    	int index = feature.indexOf('_');
+    	return (index>0 ? feature.substring(0, index) : feature);
+    }
+    
     /* this is where the real assertion testing takes place, the other methods are just wrappers */
     private void assertCompatibility(Device device, DeviceType deviceDeviceType,
             ModelType deviceModelType, StringCollection deviceFeatures, 
@@ -929,9 +982,8 @@ public class Firmware implements Persistable, Versionable {
 
             DeviceType firmwareDeviceType = this.getDeviceType();
             ModelType firmwareModelType = this.getModelType();
-            StringCollection firmwareStrictFeatures = removeVersionString(this.getStrictFeatures());
-            StringCollection firmwareNonstrictFeatures = removeVersionString(this.getNonstrictFeatures());
-            StringCollection firmwareAllFeatures = new StringCollection(firmwareStrictFeatures, firmwareNonstrictFeatures);
+            FeatureSet firmwareStrictFeatureSet = this.getStrippedStrictFeatures();
+            FeatureSet firmwareAllFeatureSet = this.getStrippedAllFeatures();
             
             if (!(firmwareDeviceType.isCompatibleWith(deviceDeviceType))) {
                 // device types need to be compatible
@@ -979,8 +1031,10 @@ public class Firmware implements Persistable, Versionable {
                 	logger.logp(Level.INFO, CLASS_NAME, METHOD_NAME, e.getMessage());
                 }
                 throw(e);
-            } else if (!isSupersetOf(firmwareAllFeatures, deviceFeatures)) {
+            } else if (!isSupersetOf(firmwareAllFeatureSet, deviceFeatures)) {
                 // firmware should supply everything the device needs when RequireSupportInScrypt() returns true
+            	StringCollection firmwareAllFeatures = new StringCollection(removeVersionString(this.getStrictFeatures()),
+            			removeVersionString(this.getNonstrictFeatures()));
             	String messageKey = null;
             	Object[] args = null;
             	if (device != null) {
@@ -1001,8 +1055,10 @@ public class Firmware implements Persistable, Versionable {
                 	logger.logp(Level.INFO, CLASS_NAME, METHOD_NAME, e.getMessage());
                 }
                 throw(e);
-            } else if (!(deviceFeatures.isSupersetOf(firmwareStrictFeatures))) {
+            } else if (!(deviceFeatures.toFeatureSet().containsAll(firmwareStrictFeatureSet))) {
                 // all strict features should be on device
+            	StringCollection firmwareStrictFeatures = removeVersionString(this.getStrictFeatures());
+            	StringCollection firmwareNonstrictFeatures = removeVersionString(this.getNonstrictFeatures());
             	StringCollection missing = new StringCollection();
             	for (int i=0; i<firmwareStrictFeatures.size(); i++) {
             		String feature = firmwareStrictFeatures.get(i);
@@ -1042,7 +1098,7 @@ public class Firmware implements Persistable, Versionable {
         logger.exiting(CLASS_NAME, METHOD_NAME, Boolean.TRUE);
     }
     
-    private boolean isSupersetOf(StringCollection firmwareAllFeatures, StringCollection deviceFeatures) {
+    private boolean isSupersetOf(FeatureSet firmwareAllFeatures, StringCollection deviceFeatures) {
     	final String METHOD_NAME = "isSupersetOf";
     	for ( int i=0; i < deviceFeatures.size(); i++ ) {
     		String deviceFeature = deviceFeatures.get(i);
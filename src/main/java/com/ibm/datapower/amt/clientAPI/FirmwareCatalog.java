@@ -0,0 +1,377 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.clientAPI;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.ibm.datapower.amt.Constants;
+import com.ibm.datapower.amt.DeviceType;
+import com.ibm.datapower.amt.FeatureSet;
+import com.ibm.datapower.amt.ModelType;
+import com.ibm.datapower.amt.StringCollection;
+import com.ibm.datapower.amt.logging.LoggerHelper;
+
+/**
+ * An index of the Firmware objects in the manager and the levels of their
+ * FirmwareVersions, so that
+ * {@link Manager#getFirmware(DeviceType, ModelType, StringCollection, StringCollection)}
+ * and
+ * {@link Manager#getBestFirmware(DeviceType, ModelType, StringCollection, String)}
+ * don't have to resolve and test every StoredFirmware in the repository.
+ * <p>
+ * Firmwares are grouped by their exact device type and model type. Because
+ * type compatibility is not an equivalence (an XI50 firmware fits an XI52,
+ * and several model types accept each other's firmware), a lookup tests each
+ * group's types for compatibility instead of hashing the requested types.
+ * There are only as many groups as there are distinct firmware profiles.
+ * Within a group the Firmwares are hashed by the canonical set of their strict
+ * features, which a device must hold all of. Each Firmware also maps its
+ * levels to its FirmwareVersions. The answer to each best-firmware question
+ * is remembered until the catalog next changes, because the devices being
+ * managed share a handful of profiles.
+ * <p>
+ * The catalog is maintained by {@link PersistenceMapper} as Firmware and
+ * FirmwareVersion objects are added to it and removed from it, so it always
+ * describes the objects that <code>getVia</code> would resolve. The index
+ * only narrows the candidates. Each candidate is still confirmed with the
+ * same checks that a full scan used, so the answers don't change, except
+ * which of several equally good Firmwares is returned. The scan took the first
+ * in the order of the repository's hash table, the catalog the first indexed.
+ */
+class FirmwareCatalog {
+
+    public static final String COPYRIGHT_2009_2013 = Constants.COPYRIGHT_2009_2013;
+
+    protected static final String CLASS_NAME = FirmwareCatalog.class.getName();
+    protected final static Logger logger = Logger.getLogger(CLASS_NAME);
+    static {
+        LoggerHelper.addLoggerToGroup(logger, Manager.getLoggerGroupName());
+    }
+
+    /*
+     * The answers are only dropped when the catalog changes, so cap them in
+     * case callers ask about an unbounded variety of levels.
+     */
+    private static final int MAX_REMEMBERED_ANSWERS = 1024;
+
+    private final Map<String, Group> groups = new LinkedHashMap<String, Group>();
+    private final Map<Firmware, Entry> entries = new HashMap<Firmware, Entry>();
+    private final Map<FirmwareVersion, Entry> versionEntries = new HashMap<FirmwareVersion, Entry>();
+    private final Map<String, Firmware> bestFirmwareAnswers = new HashMap<String, Firmware>();
+
+    FirmwareCatalog() {
+    }
+
+    /**
+     * Index a Firmware. Its types and features are immutable, so they are
+     * read only once here.
+     */
+    synchronized void add(Firmware firmware) {
+        final String METHOD_NAME = "add"; //$NON-NLS-1$
+        if (this.entries.containsKey(firmware)) {
+            return;
+        }
+        Entry entry = null;
+        try {
+            entry = new Entry(firmware);
+        } catch (DeletedException e) {
+            logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
+                        "not indexing deleted firmware " + firmware); //$NON-NLS-1$
+            return;
+        }
+        String groupKey = groupKey(entry.deviceType, entry.modelType);
+        Group group = this.groups.get(groupKey);
+        if (group == null) {
+            group = new Group(entry.deviceType, entry.modelType);
+            this.groups.put(groupKey, group);
+        }
+        group.add(entry);
+        this.entries.put(firmware, entry);
+        this.bestFirmwareAnswers.clear();
+    }
+
+    /**
+     * Drop a Firmware and any of its FirmwareVersions still in the index.
+     */
+    synchronized void remove(Firmware firmware) {
+        Entry entry = this.entries.remove(firmware);
+        if (entry == null) {
+            return;
+        }
+        String groupKey = groupKey(entry.deviceType, entry.modelType);
+        Group group = this.groups.get(groupKey);
+        if (group != null && group.remove(entry)) {
+            this.groups.remove(groupKey);
+        }
+        Iterator<Entry> iterator = this.versionEntries.values().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next() == entry) {
+                iterator.remove();
+            }
+        }
+        this.bestFirmwareAnswers.clear();
+    }
+
+    /**
+     * Index the level of a FirmwareVersion under its Firmware, which must
+     * already be in the catalog.
+     */
+    synchronized void addVersion(FirmwareVersion version) {
+        final String METHOD_NAME = "addVersion"; //$NON-NLS-1$
+        if (this.versionEntries.containsKey(version)) {
+            return;
+        }
+        Entry entry = null;
+        String level = null;
+        try {
+            entry = this.entries.get(version.getFirmware());
+            level = version.getLevel();
+        } catch (DeletedException e) {
+            entry = null;
+        }
+        if (entry == null || level == null) {
+            logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
+                        "not indexing version without an indexed firmware: " + version); //$NON-NLS-1$
+            return;
+        }
+        List<FirmwareVersion> versions = entry.levels.get(level);
+        if (versions == null) {
+            versions = new ArrayList<FirmwareVersion>(1);
+            entry.levels.put(level, versions);
+        }
+        versions.add(version);
+        this.versionEntries.put(version, entry);
+        this.bestFirmwareAnswers.clear();
+    }
+
+    /**
+     * Drop the level of a FirmwareVersion from the index.
+     */
+    synchronized void removeVersion(FirmwareVersion version) {
+        Entry entry = this.versionEntries.remove(version);
+        if (entry == null) {
+            return;
+        }
+        Iterator<List<FirmwareVersion>> iterator = entry.levels.values().iterator();
+        while (iterator.hasNext()) {
+            List<FirmwareVersion> versions = iterator.next();
+            if (versions.remove(version) && versions.isEmpty()) {
+                iterator.remove();
+            }
+        }
+        this.bestFirmwareAnswers.clear();
+    }
+
+    /**
+     * Forget everything, for when the PersistenceMapper is destroyed.
+     */
+    synchronized void clear() {
+        this.groups.clear();
+        this.entries.clear();
+        this.versionEntries.clear();
+        this.bestFirmwareAnswers.clear();
+    }
+
+    /**
+     * Find the Firmware for an exact device profile.
+     *
+     * @return the first matching Firmware, or null if there is none
+     * @see Manager#getFirmware(DeviceType, ModelType, StringCollection, StringCollection)
+     */
+    synchronized Firmware getFirmware(DeviceType deviceType, ModelType modelType,
+                                      StringCollection strictFeatures, StringCollection nonstrictFeatures) {
+        final String METHOD_NAME = "getFirmware"; //$NON-NLS-1$
+        FeatureSet strippedStrict = Firmware.removeVersionString(FeatureSet.valueOf(strictFeatures));
+        Iterator<Group> groupIterator = this.groups.values().iterator();
+        while (groupIterator.hasNext()) {
+            Group group = groupIterator.next();
+            if (!group.deviceType.isCompatibleWith(deviceType) ||
+                !group.modelType.isCompatibleWith(modelType)) {
+                continue;
+            }
+            List<Entry> candidates = group.byStrippedStrict.get(strippedStrict);
+            if (candidates == null) {
+                continue;
+            }
+            for (int i=0; i<candidates.size(); i++) {
+                Firmware firmware = candidates.get(i).firmware;
+                try {
+                    if (firmware.getStrictFeatures().equals(strictFeatures) &&
+                        firmware.getNonstrictFeatures().equals(nonstrictFeatures)) {
+                        return(firmware);
+                    }
+                } catch (DeletedException e) {
+                    logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME,
+                                "Came across a deleted firmware while looking up the catalog, continuing.", //$NON-NLS-1$
+                                e);
+                }
+            }
+        }
+        return(null);
+    }
+
+    /**
+     * Find the most suitable Firmware for a device.
+     *
+     * @param level if not null, only Firmwares that have a FirmwareVersion of
+     *        this level are considered
+     * @return the compatible Firmware with the most non-strict features, or
+     *         null if there is none
+     * @see Manager#getBestFirmware(DeviceType, ModelType, StringCollection, String)
+     */
+    synchronized Firmware getBestFirmware(DeviceType deviceType, ModelType modelType,
+                                          StringCollection deviceFeatures, String level) {
+        final String METHOD_NAME = "getBestFirmware"; //$NON-NLS-1$
+        FeatureSet features = FeatureSet.valueOf(deviceFeatures);
+        String answerKey = deviceType.getDisplayName() + '\n' + modelType.getDisplayName() +
+            '\n' + features + '\n' + level;
+        if (this.bestFirmwareAnswers.containsKey(answerKey)) {
+            return(this.bestFirmwareAnswers.get(answerKey));
+        }
+
+        Firmware result = null;
+        int resultNonstrictCount = -1;
+        int candidateCount = 0;
+        Iterator<Group> groupIterator = this.groups.values().iterator();
+        while (groupIterator.hasNext()) {
+            Group group = groupIterator.next();
+            if (!group.deviceType.isCompatibleWith(deviceType) ||
+                !group.modelType.isCompatibleWith(modelType)) {
+                continue;
+            }
+            Iterator<Map.Entry<FeatureSet, List<Entry>>> strictIterator =
+                group.byStrippedStrict.entrySet().iterator();
+            while (strictIterator.hasNext()) {
+                Map.Entry<FeatureSet, List<Entry>> strict = strictIterator.next();
+                // the device must hold every strict feature of the firmware
+                if (!features.containsAll(strict.getKey())) {
+                    continue;
+                }
+                List<Entry> candidates = strict.getValue();
+                for (int i=0; i<candidates.size(); i++) {
+                    Entry candidate = candidates.get(i);
+                    if ((level != null) && !candidate.levels.containsKey(level)) {
+                        continue;
+                    }
+                    if (!candidate.firmware.isCompatibleWith(deviceType, modelType, deviceFeatures)) {
+                        continue;
+                    }
+                    candidateCount++;
+                    // "best" is defined as the most non-strict features
+                    if (candidate.nonstrictCount > resultNonstrictCount) {
+                        result = candidate.firmware;
+                        resultNonstrictCount = candidate.nonstrictCount;
+                    }
+                }
+            }
+        }
+        logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME,
+                    "found " + candidateCount + " candidate(s)."); //$NON-NLS-1$ //$NON-NLS-2$
+
+        if (this.bestFirmwareAnswers.size() >= MAX_REMEMBERED_ANSWERS) {
+            this.bestFirmwareAnswers.clear();
+        }
+        this.bestFirmwareAnswers.put(answerKey, result);
+        return(result);
+    }
+
+    /**
+     * @return true if the Firmware is in the catalog
+     */
+    synchronized boolean contains(Firmware firmware) {
+        return(this.entries.containsKey(firmware));
+    }
+
+    /**
+     * Find a FirmwareVersion of an indexed Firmware by its level.
+     *
+     * @return the FirmwareVersion, or null if the Firmware does not have that
+     *         level or is not in the catalog
+     */
+    synchronized FirmwareVersion getLevel(Firmware firmware, String level) {
+        Entry entry = this.entries.get(firmware);
+        if (entry == null) {
+            return(null);
+        }
+        List<FirmwareVersion> versions = entry.levels.get(level);
+        return((versions == null) ? null : versions.get(0));
+    }
+
+    private static String groupKey(DeviceType deviceType, ModelType modelType) {
+        return(deviceType.getDisplayName() + '\n' + modelType.getDisplayName());
+    }
+
+    /**
+     * The Firmwares of one exact device type and model type.
+     */
+    private static class Group {
+        final DeviceType deviceType;
+        final ModelType modelType;
+        final Map<FeatureSet, List<Entry>> byStrippedStrict = new LinkedHashMap<FeatureSet, List<Entry>>();
+
+        Group(DeviceType deviceType, ModelType modelType) {
+            this.deviceType = deviceType;
+            this.modelType = modelType;
+        }
+
+        void add(Entry entry) {
+            List<Entry> list = this.byStrippedStrict.get(entry.strippedStrict);
+            if (list == null) {
+                list = new ArrayList<Entry>(1);
+                this.byStrippedStrict.put(entry.strippedStrict, list);
+            }
+            list.add(entry);
+        }
+
+        /* return true if the group is now empty */
+        boolean remove(Entry entry) {
+            List<Entry> list = this.byStrippedStrict.get(entry.strippedStrict);
+            if (list != null && list.remove(entry) && list.isEmpty()) {
+                this.byStrippedStrict.remove(entry.strippedStrict);
+            }
+            return(this.byStrippedStrict.isEmpty());
+        }
+    }
+
+    /**
+     * What the catalog knows about one Firmware.
+     */
+    private static class Entry {
+        final Firmware firmware;
+        final DeviceType deviceType;
+        final ModelType modelType;
+        final FeatureSet strippedStrict;
+        final int nonstrictCount;
+        final Map<String, List<FirmwareVersion>> levels = new HashMap<String, List<FirmwareVersion>>();
+
+        Entry(Firmware firmware) throws DeletedException {
+            this.firmware = firmware;
+            this.deviceType = firmware.getDeviceType();
+            this.modelType = firmware.getModelType();
+            this.strippedStrict = firmware.getStrippedStrictFeatures();
+            this.nonstrictCount = firmware.getNonstrictFeatures().size();
+        }
+    }
+}
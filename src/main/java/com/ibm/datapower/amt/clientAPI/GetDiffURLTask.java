@@ -26,15 +26,16 @@ import java.util.logging.Logger;
 import com.ibm.datapower.amt.Constants;
 import com.ibm.datapower.amt.DMgrException;
 import com.ibm.datapower.amt.Messages;
-import com.ibm.datapower.amt.amp.Commands;
-import com.ibm.datapower.amt.amp.DeviceContext;
+import com.ibm.datapower.amt.amp.DomainDiffEngine;
+import com.ibm.datapower.amt.amp.DomainDifferences;
 import com.ibm.datapower.amt.logging.LoggerHelper;
 
 /**
  * A BackgoundTask to get the URL of the content differences of two
  * DomainVersions. It is expected that the URL will be
- * opened in an external browser to display the version differences. This URL
- * should invoke the device's WebGUI.
+ * opened in an external browser to display the version differences. The
+ * versions are compared on the manager and the URL refers to a report file,
+ * see {@link DomainVersion#getDifferences(DomainVersion)}.
  * <p>
  * <p>
  * @version SCM ID: $Id: GetDiffURLTask.java,v 1.4 2010/09/02 16:24:52 wjong Exp $
@@ -105,8 +106,6 @@ public class GetDiffURLTask extends BackgroundTask {
         URL url = null;
         try {
             // don't need to lock since this is a read-only operation
-            Manager manager = Manager.internalGetInstance();
-            Commands commands = null;
             
             // check to see if this is a Domain diff
             if ((object1 instanceof DomainVersion) && (object2 instanceof DomainVersion)) {
@@ -122,17 +121,12 @@ public class GetDiffURLTask extends BackgroundTask {
                     throw(e);
                 }
                 logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME,
-                        "requesting URL for DomainVersion diff"); //$NON-NLS-1$
-                String domainName = domain1.getName();
-                Device device = domain1.getDevice();
-                DeviceContext deviceContext = device.getDeviceContext();
-                commands = device.getCommands();
-                url = commands.getDomainDifferences(domainName, 
-                        version1.getBlob().getByteArray(),
-                        version2.getBlob().getByteArray(),
-                        deviceContext);
+                        "comparing DomainVersions on the manager"); //$NON-NLS-1$
+                // streamed locally instead of sending both Blobs to the device
+                DomainDifferences differences = version1.getDifferences(version2);
+                url = DomainDiffEngine.writeReport(domain1.getName(), differences);
                 logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME,
-                        "received URL for diff: " + url); //$NON-NLS-1$
+                        "wrote " + differences + " to: " + url); //$NON-NLS-1$ //$NON-NLS-2$
                 
             } else {
             	Object[] args = new Object[] {this.object1.getClass().getName(), this.object2.getClass().getName()};
@@ -18,6 +18,7 @@
 
 package com.ibm.datapower.amt.clientAPI;
 
+import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -59,6 +60,10 @@ public class GetDomainsOperationStatusTask extends BackgroundTask {
         return(this.device);
     }
 
+    Object getCoalescingKey() {
+        return(Arrays.asList(GetDomainsOperationStatusTask.class, this.device));
+    }
+
     /**
      * Get a String representation of this BackgroundTask for the purpose of
      * debugging or tracing.
@@ -24,6 +24,7 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.ibm.datapower.amt.Constants;
+import com.ibm.datapower.amt.TaskMetrics;
 import com.ibm.datapower.amt.amp.AMPException;
 import com.ibm.datapower.amt.logging.LoggerHelper;
 
@@ -47,6 +48,13 @@ public class HeartbeatDaemon {
 
     private static final boolean IS_DAEMON = true;
     
+    // resizes the pool and reschedules the timer when the configuration changes
+    private final Configuration.Listener configurationListener = new Configuration.Listener() {
+        public void configurationChanged(Configuration.Snapshot previous, Configuration.Snapshot current) {
+            applyConfiguration(previous, current);
+        }
+    };
+    
     public static final String COPYRIGHT_2009_2013 = Constants.COPYRIGHT_2009_2013;
     
     private static final String CLASS_NAME = HeartbeatDaemon.class.getName();    
@@ -75,7 +83,7 @@ public class HeartbeatDaemon {
      * Initializes the timer and thread pool objects for the heartbeat 
      * mechanism.
      */
-    public void startup(){
+    public synchronized void startup(){
         
         final String METHOD_NAME = "startup"; //$NON-NLS-1$
         logger.entering(CLASS_NAME, METHOD_NAME);
@@ -85,6 +93,7 @@ public class HeartbeatDaemon {
         this.heartbeatQueue = new HeartbeatQueue(HeartbeatDaemon.threadPoolSize);
         this.heartbeatTimer = new Timer(IS_DAEMON);
         setIntervalMS(HeartbeatDaemon.sleepIntervalMS);
+        Configuration.addListener(this.configurationListener);
         
         logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME,
                 "Heartbeat Daemon started with " + threadPoolSize +  //$NON-NLS-1$
@@ -93,14 +102,35 @@ public class HeartbeatDaemon {
         logger.exiting(CLASS_NAME, METHOD_NAME);
     }
     
+    /**
+     * Get the latency counters of the queue that runs the heartbeats.
+     * 
+     * @return the task metrics, or null if the daemon has been shut down
+     */
+    TaskMetrics getMetrics() {
+        HeartbeatQueue queue = this.heartbeatQueue;
+        return((queue == null) ? null : queue.getMetrics());
+    }
+
+    /**
+     * @return the number of threads the heartbeat pool is sized for, or 0
+     *         if the daemon has been shut down or heartbeats run on virtual
+     *         threads
+     */
+    int getPoolSize() {
+        HeartbeatQueue queue = this.heartbeatQueue;
+        return((queue == null) ? 0 : queue.getPoolSize());
+    }
+
     /**
      * Cancels all the scheduled tasks, timers, and stops all threads. Note that
      * any tasks currently being executed will complete before quitting for good.
      */
-    public void shutdown(){
+    public synchronized void shutdown(){
         final String METHOD_NAME = "shutdown"; //$NON-NLS-1$
         
         logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME, "Shutting down heartbeat daemon"); //$NON-NLS-1$
+        Configuration.removeListener(this.configurationListener);
         if ((this.heartbeatTimerTask != null) && (this.taskIsScheduled)) {
             this.heartbeatTimerTask.cancel();
             this.taskIsScheduled = false;
@@ -124,12 +154,16 @@ public class HeartbeatDaemon {
      * 
      * @param newInterval the desired interval between heartbeats in milliseconds
      */
-    void setIntervalMS(long newInterval){
+    synchronized void setIntervalMS(long newInterval){
         final String METHOD_NAME = "setIntervalMS"; //$NON-NLS-1$
         logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME,
                 "Changing interval between heartbeats to " + newInterval); //$NON-NLS-1$
 
         HeartbeatDaemon.sleepIntervalMS = newInterval;
+        if (this.heartbeatTimer == null) {
+            // not running, the interval is used at the next startup
+            return;
+        }
         /*
          * We can keep the same Timer and schedule other TimerTasks on it. But
          * we can't reschedule the same TimerTask object that was previously
@@ -156,6 +190,33 @@ public class HeartbeatDaemon {
         return(HeartbeatDaemon.sleepIntervalMS);
     }
     
+    /*
+     * Apply a changed thread pool size or interval from the configuration.
+     * Values that did not change are left alone, so an interval set with
+     * setIntervalMS(long) is kept until the configured interval changes.
+     */
+    private synchronized void applyConfiguration(Configuration.Snapshot previous, Configuration.Snapshot current) {
+        final String METHOD_NAME = "applyConfiguration"; //$NON-NLS-1$
+        if (this.heartbeatQueue == null) {
+            return;
+        }
+        if (current.isChanged(previous, Configuration.KEY_HEARTBEAT_THREAD_POOL_SIZE)) {
+            int size = current.getAsInt(Configuration.KEY_HEARTBEAT_THREAD_POOL_SIZE, 0);
+            if (size > 0) {
+                logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
+                        "Heartbeat thread pool size changed to " + size); //$NON-NLS-1$
+                HeartbeatDaemon.threadPoolSize = size;
+                this.heartbeatQueue.resize(size);
+            }
+        }
+        if (current.isChanged(previous, Configuration.KEY_HEARTBEAT_INTERVAL)) {
+            int interval = current.getAsInt(Configuration.KEY_HEARTBEAT_INTERVAL, 0);
+            if (interval > 0) {
+                this.setIntervalMS(interval);
+            }
+        }
+    }
+    
     /**
      * Implements a TimerTask that executes the following logic:
      * 
@@ -18,16 +18,27 @@
 
 package com.ibm.datapower.amt.clientAPI;
 
-import java.util.LinkedList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.ibm.datapower.amt.Constants;
+import com.ibm.datapower.amt.TaskMetrics;
+import com.ibm.datapower.amt.ThreadExecutionMode;
 import com.ibm.datapower.amt.logging.LoggerHelper;
 
 /**
  * Implements a queue for pending heartbeats that need to be processed. This
  * class contains a pool of threads that are used to perform the heartbeats.
+ * The pool can be resized while it runs, see {@link #resize(int)}.
+ * <p>
+ * When {@link Configuration#KEY_THREAD_EXECUTION_MODE} is <code>virtual</code>
+ * no pool is started. Each heartbeat instead runs on its own virtual thread,
+ * and at most {@link Configuration#KEY_MAX_TASKS_PER_DEVICE} heartbeats run
+ * against the same device at once.
  * 
  * @version $Id: HeartbeatQueue.java,v 1.3 2010/09/02 16:24:51 wjong Exp $
  * 
@@ -42,35 +53,64 @@ public class HeartbeatQueue {
         LoggerHelper.addLoggerToGroup(logger, Manager.getLoggerGroupName());
     }
 
-    private final int numThreads;
-    private final PoolWorker[] threads;
-    private final LinkedList queue;
+    private final ThreadPoolExecutor pool;
+    private final boolean virtual;
+    private final DeviceTaskLimiter limiter = new DeviceTaskLimiter();
+    private final TaskMetrics metrics = new TaskMetrics("Heartbeat"); //$NON-NLS-1$
+    private volatile boolean stopped = false;
     
     /**
      * Constructor for HeartbeatQueue. This method creates and starts the actual threads which poll
      * the queue for when a HeartbeatTask arrives.  
      * 
      * @param numThreads The number of threads to create in the thread pool.
+     *        This is ignored when heartbeats run on virtual threads.
      **/
     
     public HeartbeatQueue(int numThreads) {
         
         final String METHOD_NAME = "HeartbeatQueue"; //$NON-NLS-1$
         
-        logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME, "Starting " + numThreads + " heartbeat threads"); //$NON-NLS-1$ //$NON-NLS-2$
-        this.numThreads = numThreads;
-        queue = new LinkedList();
-        threads = new PoolWorker[numThreads];
+        this.virtual = ThreadExecutionMode.isVirtual();
 
-        this.startThreads(numThreads);
+        if (this.virtual) {
+            this.pool = null;
+            logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME, "Running heartbeats on virtual threads"); //$NON-NLS-1$
+        } else {
+            int size = Math.max(numThreads, 1);
+            logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME, "Starting " + size + " heartbeat threads"); //$NON-NLS-1$ //$NON-NLS-2$
+            this.pool = new ThreadPoolExecutor(size, size, 0, TimeUnit.MILLISECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new PoolWorkerFactory(),
+                    // heartbeats given after stopAllThreads() are dropped
+                    new ThreadPoolExecutor.DiscardPolicy());
+            this.pool.prestartAllCoreThreads();
+        }
     }
     
-    private void startThreads(int numThreads) {
-    	for (int i=0; i < numThreads; i++) {
-            threads[i] = new PoolWorker(i);
-            threads[i].setDaemon(true);
-            threads[i].start();
+    /**
+     * Change the number of threads in the pool. New threads start right away.
+     * When the pool shrinks, idle threads stop right away and busy threads
+     * stop after their current heartbeat. This does nothing when heartbeats
+     * run on virtual threads.
+     * 
+     * @param numThreads the new number of threads, at least 1
+     */
+    synchronized void resize(int numThreads) {
+        final String METHOD_NAME = "resize"; //$NON-NLS-1$
+        if ((this.pool == null) || (numThreads < 1) || this.stopped) {
+            return;
         }
+        logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME, "Resizing to " + numThreads + " heartbeat threads"); //$NON-NLS-1$ //$NON-NLS-2$
+        ThreadExecutionMode.resizePool(this.pool, numThreads);
+        this.pool.prestartAllCoreThreads();
+    }
+    
+    /**
+     * @return the number of threads the pool is sized for, or 0 when
+     *         heartbeats run on virtual threads
+     */
+    int getPoolSize() {
+        return((this.pool == null) ? 0 : this.pool.getCorePoolSize());
     }
 
     /**
@@ -85,24 +125,24 @@ public class HeartbeatQueue {
         logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME, 
                     "stopping all threads for Heartbeats"); //$NON-NLS-1$
         
-        for (int i = 0; i < numThreads; i++) {
-            threads[i].stopThread();
-            threads[i].interrupt();
+        synchronized (this) {
+            this.stopped = true;
+        }
+        if (this.pool == null) {
+            return;
         }
+        this.pool.shutdownNow();
         // fix for 59347
-        for (int i = 0; i < numThreads; i++) {
-            while (threads[i].isAlive()) {
+        try {
+            while (!this.pool.awaitTermination(100, TimeUnit.MILLISECONDS)) {
                 logger.log(Level.FINEST, 
-                           "waiting for thread to finish: " + threads[i].getName()); //$NON-NLS-1$
-                try {
-                    Thread.sleep(100);
-                } catch (InterruptedException e) {
-                    logger.log(Level.FINEST, "sleep interrupted"); //$NON-NLS-1$
-                    Thread.currentThread().interrupt();
-                }
+                           "waiting for " + this.pool.getPoolSize() + " threads to finish"); //$NON-NLS-1$ //$NON-NLS-2$
             }
-            logger.log(Level.FINEST, "thread has finished " + threads[i].getName()); //$NON-NLS-1$
+        } catch (InterruptedException e) {
+            logger.log(Level.FINEST, "wait interrupted"); //$NON-NLS-1$
+            Thread.currentThread().interrupt();
         }
+        logger.log(Level.FINEST, "all threads have finished"); //$NON-NLS-1$
     }
     
     /**
@@ -117,70 +157,81 @@ public class HeartbeatQueue {
         
         logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME, "adding HeartbeatTask to HeartbeatQueue"); //$NON-NLS-1$
         
-        synchronized(queue) {
-            queue.addLast(r);
-            queue.notify();
+        Submission submission = new Submission(r, this.metrics.taskSubmitted());
+        if (this.virtual) {
+            ThreadExecutionMode.newThread(submission, "HeartbeatQueue task").start(); //$NON-NLS-1$
+        } else {
+            this.pool.execute(submission);
         }
     }
     
     /**
-     * Provides the necessary mechanisms for a thread to block waiting on a 
-     * task to be placed in the queue, so that it can remove it and run it.
+     * Get the latency counters for heartbeats run by this queue.
      * 
+     * @return the heartbeat task metrics
      */
-    private class PoolWorker extends Thread {
-        private int number = 0;
-        private boolean run = false;
+    TaskMetrics getMetrics() {
+        return(this.metrics);
+    }
+    
+    /**
+     * Wraps a HeartbeatTask so that its queue latency and run time are
+     * recorded, and so that the per-device limit is applied on virtual
+     * threads.
+     */
+    private class Submission implements Runnable {
+        private final Runnable task;
+        private final long submittedAt;
         
-        public PoolWorker(int number) {
-            this.number = number;
-            this.run = true;
+        Submission(Runnable task, long submittedAt) {
+            this.task = task;
+            this.submittedAt = submittedAt;
         }
         
-        /**
-         * Sets boolean flag that thread checks upon each iteration to see if
-         * it should stop. 
-         */
-        public void stopThread(){
-            run = false;
-        }
-        /**
-         * Thread executing this method will remove a HeartbeatTask off of the 
-         * internal queue, and attempt to process it.
-         */
         public void run() {
-            Runnable heartbeatTask;
-            final String METHOD_NAME = "PoolWorker.run"; //$NON-NLS-1$
-            
-            Thread.currentThread().setName("HeartbeatQueue PoolWorker " + this.number); //$NON-NLS-1$
-            
-            //give flag to stop the thread if needed.
-            while (run) {
-                
-                synchronized(queue) {
-                    // while the queue is empty, wait for a notification
-                    // that something is placed on the queue
-                    while (queue.isEmpty() && run && !Thread.currentThread().isInterrupted()) {
-                        try {
-                            queue.wait();
-                        }
-                        catch (InterruptedException ignored){ 
-                            Thread.currentThread().interrupt();    
-                        }
-                    }
-                    if (!run) {
-                        return;
-                    }
-                    // something's on the queue, lets get it and process it
-                    heartbeatTask = (Runnable) queue.removeFirst();
-                    logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME, "removing HeartbeatTask from Heartbeat Queue"); //$NON-NLS-1$
+            final String METHOD_NAME = "Submission.run"; //$NON-NLS-1$
+            Device device = null;
+            if (virtual && (this.task instanceof HeartbeatTask)) {
+                device = ((HeartbeatTask) this.task).getDevice();
+            }
+            if (device != null) {
+                try {
+                    limiter.acquire(device);
+                } catch (InterruptedException e) {
+                    logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME, "interrupted waiting for device"); //$NON-NLS-1$
+                    return;
+                }
+            }
+            try {
+                if (stopped) {
+                    return;
+                }
+                long startedAt = metrics.taskStarted(this.submittedAt);
+                try {
+                    logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME, "running HeartbeatTask"); //$NON-NLS-1$
+                    this.task.run();
+                } finally {
+                    metrics.taskFinished(startedAt);
+                }
+            } finally {
+                if (device != null) {
+                    limiter.release(device);
                 }
-
-                // run the heartbeat task
-                logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME, "running HeartbeatTask"); //$NON-NLS-1$
-                heartbeatTask.run();
             }
         }
     }
+    
+    /**
+     * Names the pool threads and makes them daemons, as the threads of the
+     * fixed pool were.
+     */
+    private static class PoolWorkerFactory implements ThreadFactory {
+        private int number = 0;
+        
+        public synchronized Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "HeartbeatQueue PoolWorker " + this.number++); //$NON-NLS-1$
+            thread.setDaemon(true);
+            return(thread);
+        }
+    }
 }
-
@@ -18,11 +18,14 @@
 
 package com.ibm.datapower.amt.clientAPI;
 
+import java.util.LinkedList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.ibm.datapower.amt.Constants;
-import com.ibm.datapower.amt.Messages;
 import com.ibm.datapower.amt.logging.LoggerHelper;
 
 /**
@@ -84,6 +87,12 @@ import com.ibm.datapower.amt.logging.LoggerHelper;
  * So this class needs to support both fail-fast acquisition and blocking
  * acquisition.]
  * <p>
+ * A background task that fails fast does not have to poll for the lock. It
+ * can register a {@link Waiter} with {@link #resumeWhenAvailable(Waiter)}.
+ * Waiters are kept in FIFO order, and when the lock is released the first
+ * one is handed the chance to run again. A thread that may block can use
+ * {@link #lockWait(long)} to wait for a bounded time.
+ * <p>
  * If the thread is unable to obtain all the locks it requires, it should fail
  * and release the locks it was able to obtain up until the failure point.
  * <p>
@@ -99,8 +108,11 @@ import com.ibm.datapower.amt.logging.LoggerHelper;
  * has a lot of persistence, a lot of the clientAPI methods will throw a
  * DeletedException.
  * <p>
- * All the Lock methods are <code>synchronized</code>, meaning that access is
- * serialized around the lock, not serializing around the work areas directly.
+ * All the Lock methods serialize on an internal <code>ReentrantLock</code>,
+ * meaning that access is serialized around the lock, not serializing around
+ * the work areas directly. A thread blocked in {@link #lockWait()} waits on a
+ * <code>Condition</code> rather than in <code>Object.wait()</code>, so a
+ * virtual thread that waits for a busy device does not pin its carrier thread.
  * <p>
  * 
  * @version SCM ID: $Id: Lock.java,v 1.4 2010/09/02 16:24:52 wjong Exp $
@@ -238,8 +250,9 @@ import com.ibm.datapower.amt.logging.LoggerHelper;
  * has a lot of persistence, a lot of the clientAPI methods will throw a
  * DeletedException.
  * <p>
- * All the Lock methods are <code>synchronized</code>, meaning that access is
- * serialized around the lock, not serializing around the work areas directly.
+ * All the Lock methods serialize on an internal <code>ReentrantLock</code>,
+ * meaning that access is serialized around the lock, not serializing around
+ * the work areas directly.
  * <p>
  * 
  * @version SCM ID: $Id: Lock.java,v 1.4 2010/09/02 16:24:52 wjong Exp $
@@ -247,11 +260,21 @@ import com.ibm.datapower.amt.logging.LoggerHelper;
  */
 
 public class Lock {
-    // don't need to mark these members as volatile because "synchronized" 
-    // is used to access them
+    // don't need to mark these members as volatile because the guard is
+    // held to access them
+    private final ReentrantLock guard = new ReentrantLock();
+    private final Condition released = this.guard.newCondition();
     private String name = null;
     private Thread owner = null; 
     private int count = 0;
+    private final LinkedList<Waiter> waiters = new LinkedList<Waiter>();
+    
+    /**
+     * The maximum number of {@link Waiter}s that can be registered on a lock.
+     * 
+     * @see #resumeWhenAvailable(Waiter)
+     */
+    public static final int MAX_WAITERS = 64;
     
     public static final String COPYRIGHT_2009_2013 = Constants.COPYRIGHT_2009_2013;
     
@@ -283,29 +306,20 @@ public class Lock {
      *         lock is reentrant, it will return true if the current thread
      *         already holds this lock.
      */
-    synchronized public boolean isAvailable() {
-        final String METHOD_NAME = "isAvailable (" + this + " on thread " + Thread.currentThread().getName() + ")"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-        logger.entering(CLASS_NAME, METHOD_NAME);
-        boolean result = false;
-        if (this.owner == null) {
-            logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME,
-                    "lock has no owner"); //$NON-NLS-1$
-            result = true;
-        } else {
-            Thread thisThread = Thread.currentThread();
-            if (this.owner == thisThread) {
+    public boolean isAvailable() {
+        final String METHOD_NAME = "isAvailable"; //$NON-NLS-1$
+        this.guard.lock();
+        try {
+            boolean result = (this.owner == null) || (this.owner == Thread.currentThread());
+            if (logger.isLoggable(Level.FINEST)) {
                 logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME,
-                        "lock is owned by this thread: " + //$NON-NLS-1$
-                        Thread.currentThread().getName());
-                result = true;
-            } else {
-                logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME, 
-                        "lock is owned by another thread: " + this.owner.getName() + //$NON-NLS-1$
-                        ": current thread: " + Thread.currentThread().getName()); //$NON-NLS-1$
+                        this + " available to thread " + Thread.currentThread().getName() + //$NON-NLS-1$
+                        ": " + result); //$NON-NLS-1$
             }
+            return(result);
+        } finally {
+            this.guard.unlock();
         }
-        logger.exiting(CLASS_NAME, METHOD_NAME);
-        return(result);
     }
 
     /**
@@ -317,31 +331,128 @@ public class Lock {
      * this blocking method, since background tasks aren't sensitive to being
      * long-running.
      */
-    synchronized public void lockWait() {
-        final String METHOD_NAME = "lockWait (" + this + " on thread " + Thread.currentThread().getName() + ")"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-        logger.entering(CLASS_NAME, METHOD_NAME);
-        boolean successful = false;
-        while (!successful) {
-            try {
-                while (!this.isAvailable()) {
-                    logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME, 
-                            Thread.currentThread().getName() + " waiting" + //$NON-NLS-1$
-                            " for lock " + this); //$NON-NLS-1$
-                    this.wait();
-                }
-                this.lockNoWait();
-                successful = true;
-            } catch (InterruptedException e) {
-                logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME,
-                        Thread.currentThread().getName() + " interrupted: " + e); //$NON-NLS-1$
-                Thread.currentThread().interrupt();
-            } catch (LockBusyException e) {
-                // just wait again until it is available
+    public void lockWait() {
+        final String METHOD_NAME = "lockWait"; //$NON-NLS-1$
+        logger.entering(CLASS_NAME, METHOD_NAME, this);
+        this.guard.lock();
+        try {
+            // an interrupt does not end the wait, it stays set for the caller
+            while (!this.tryLock()) {
+                logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME, 
+                        Thread.currentThread().getName() + " waiting" + //$NON-NLS-1$
+                        " for lock " + this); //$NON-NLS-1$
+                this.released.awaitUninterruptibly();
             }
+        } finally {
+            this.guard.unlock();
         }
         logger.exiting(CLASS_NAME, METHOD_NAME);
     }
 
+    /**
+     * Acquire the lock, blocking for at most the specified time until another
+     * thread releases it. This is the same as {@link #lockWait()}, except that
+     * it gives up when the timeout expires or the thread is interrupted.
+     * 
+     * @param timeoutMS the maximum time to wait in milliseconds. A value less
+     *        than 1 does not wait, the same as {@link #tryLock()}.
+     * @return true if the lock was acquired, false if the timeout expired or
+     *         the thread was interrupted first
+     */
+    public boolean lockWait(long timeoutMS) {
+        final String METHOD_NAME = "lockWait"; //$NON-NLS-1$
+        this.guard.lock();
+        try {
+            long deadline = System.currentTimeMillis() + timeoutMS;
+            long remaining = timeoutMS;
+            while (!this.isAvailable()) {
+                if (remaining <= 0) {
+                    logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME,
+                            "timed out waiting for lock " + this); //$NON-NLS-1$
+                    return(false);
+                }
+                try {
+                    this.released.await(remaining, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME,
+                            Thread.currentThread().getName() + " interrupted: " + e); //$NON-NLS-1$
+                    Thread.currentThread().interrupt();
+                    return(false);
+                }
+                remaining = deadline - System.currentTimeMillis();
+            }
+            return(this.tryLock());
+        } finally {
+            this.guard.unlock();
+        }
+    }
+
+    /**
+     * Register a waiter to be resumed when this lock is released, instead of
+     * polling for it. Waiters are resumed one at a time in the order they
+     * were registered: each time the lock is released, the first waiter is
+     * removed and resumed on the releasing thread, after the lock is free. A
+     * waiter that is resumed does not own the lock, it must still acquire it
+     * and may find it busy again. If the lock is not held when this is
+     * invoked, the waiter is resumed immediately on the current thread.
+     * <p>
+     * A waiter should also have its own timeout, after which it calls
+     * {@link #cancelWaiter(Waiter)}, so it is not left behind if the lock is
+     * held for a very long time.
+     * 
+     * @param waiter the waiter to resume
+     * @return true if the waiter was registered or resumed, false if
+     *         {@link #MAX_WAITERS} waiters are already registered. In that
+     *         case the caller has to retry some other way.
+     */
+    public boolean resumeWhenAvailable(Waiter waiter) {
+        this.guard.lock();
+        try {
+            if (this.owner != null) {
+                if (this.waiters.size() >= MAX_WAITERS) {
+                    return(false);
+                }
+                this.waiters.add(waiter);
+                return(true);
+            }
+        } finally {
+            this.guard.unlock();
+        }
+        waiter.resume();
+        return(true);
+    }
+
+    /**
+     * Remove a waiter that was registered with
+     * {@link #resumeWhenAvailable(Waiter)} and has not been resumed yet.
+     * 
+     * @param waiter the waiter to remove
+     * @return true if the waiter was removed, false if it was not registered
+     */
+    public boolean cancelWaiter(Waiter waiter) {
+        this.guard.lock();
+        try {
+            return(this.waiters.remove(waiter));
+        } finally {
+            this.guard.unlock();
+        }
+    }
+
+    /**
+     * Get the number of waiters registered with
+     * {@link #resumeWhenAvailable(Waiter)} that have not been resumed yet.
+     * 
+     * @return the number of waiters
+     */
+    public int getWaiterCount() {
+        this.guard.lock();
+        try {
+            return(this.waiters.size());
+        } finally {
+            this.guard.unlock();
+        }
+    }
+
     /**
      * Try to acquire the lock, but fail fast if the lock is held by another
      * thread. Since this lock is reentrant, this method will return immediately
@@ -352,46 +463,69 @@ public class Lock {
      * most clientAPI invocations from a user interface will use this method,
      * since the user interface is sensitive to long-running methods on its
      * threads.
+     * <p>
+     * A busy lock is an expected condition, so the exception carries no stack
+     * trace and its message is formatted only if it is read. Callers that
+     * would just retry should use {@link #tryLock()} instead.
      * 
      * @throws LockBusyException the lock is held by another thread. Since this
      *         method is fail-fast instead of blocking, this indicates failure
      *         to obtain the lock. You can try to acquire the lock again at any
      *         time using this method or {@link #lockWait()}.
      */
-    synchronized public void lockNoWait() throws LockBusyException {
-        final String METHOD_NAME = "lockNoWait (" + this + " on thread " + Thread.currentThread().getName() + ")"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-        logger.entering(CLASS_NAME, METHOD_NAME); 
-        if (this.isAvailable()) {
-            logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME,
-                    "lock is available"); //$NON-NLS-1$
-            Thread thisThread = Thread.currentThread();
-            if (this.owner != thisThread) {
-                logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME,
-                        "setting lock owner");  //$NON-NLS-1$
-                this.owner = thisThread;
-            } else {
-                logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME,
-                        "already own lock");  //$NON-NLS-1$
-            }
-            this.count++;
-            logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME,
-                    "new reentrant count: " + this.count);  //$NON-NLS-1$
-        } else {
+    public void lockNoWait() throws LockBusyException {
+        final String METHOD_NAME = "lockNoWait"; //$NON-NLS-1$
+        if (!this.tryLock()) {
         	Object[] args = new Object[] {Thread.currentThread().getName(), this.toString()};
-            String message = Messages.getString("wamt.clientAPI.Lock.lockBusy", args);   //$NON-NLS-1$ 
-            LockBusyException e = new LockBusyException(message,"wamt.clientAPI.Lock.lockBusy", args);
-            /*
-             * since the QueueProcessor is usually the one who has the lock when
-             * we get into this contention situation, it might be helpful for
-             * debug reasons to note what the QueueProcessor is currently doing.
-             */
-            Manager manager = Manager.internalGetInstance();
-            String queueProcessorActiveMethodName = manager.getQueueProcessorActiveMethodName();
-            logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME, 
-                    "Just created a LockBusyException and am about to throw it. FYI: QueueProcessor active method: " + queueProcessorActiveMethodName);
+            LockBusyException e = new LockBusyException("wamt.clientAPI.Lock.lockBusy", args, false); //$NON-NLS-1$
+            if (logger.isLoggable(Level.FINE)) {
+                /*
+                 * since the QueueProcessor is usually the one who has the lock when
+                 * we get into this contention situation, it might be helpful for
+                 * debug reasons to note what the QueueProcessor is currently doing.
+                 */
+                Manager manager = Manager.internalGetInstance();
+                String queueProcessorActiveMethodName = manager.getQueueProcessorActiveMethodName();
+                logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME, 
+                        "Just created a LockBusyException and am about to throw it. FYI: QueueProcessor active method: " + queueProcessorActiveMethodName);
+            }
             throw(e);
         }
-        logger.exiting(CLASS_NAME, METHOD_NAME);
+    }
+    
+    /**
+     * Try to acquire the lock without blocking and without throwing an
+     * exception. This is the same as {@link #lockNoWait()}, except that a
+     * busy lock is reported by the return value.
+     * 
+     * @return true if the lock was acquired (or the reentrant count of the
+     *         current thread was incremented), false if the lock is held by
+     *         another thread
+     */
+    public boolean tryLock() {
+        final String METHOD_NAME = "tryLock"; //$NON-NLS-1$
+        Thread thisThread = Thread.currentThread();
+        this.guard.lock();
+        try {
+            if ((this.owner != null) && (this.owner != thisThread)) {
+                if (logger.isLoggable(Level.FINEST)) {
+                    logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME, 
+                            this + " is owned by another thread: " + this.owner.getName() + //$NON-NLS-1$
+                            ": current thread: " + thisThread.getName()); //$NON-NLS-1$
+                }
+                return(false);
+            }
+            this.owner = thisThread;
+            this.count++;
+            if (logger.isLoggable(Level.FINEST)) {
+                logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME,
+                        this + " on thread " + thisThread.getName() + //$NON-NLS-1$
+                        " new reentrant count: " + this.count);  //$NON-NLS-1$
+            }
+            return(true);
+        } finally {
+            this.guard.unlock();
+        }
     }
     
     /**
@@ -402,35 +536,53 @@ public class Lock {
      * decrement the reentrancy counter by 1 and maintain ownership of this
      * lock. This method should never block.
      */
-    synchronized public void unlock() {
-        final String METHOD_NAME = "unlock (" + this + " on thread " + Thread.currentThread().getName() + ")";    //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-        logger.entering(CLASS_NAME, METHOD_NAME);
-        // do nothing if not locked
-        if (this.count == 0) {
-            logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
-                    "reentrant count is 0 before release: " + this);  //$NON-NLS-1$
-            return;
-        }
-        // check that you own it
-        Thread thisThread = Thread.currentThread();
-        if (this.owner != thisThread) {
-            logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME, 
-                    "incorrect ownernship: should be " + this.owner.getName() +  //$NON-NLS-1$
-                    " but you are " + thisThread.getName());  //$NON-NLS-1$
-            return;
-        }
-        if (this.count > 0) {
+    public void unlock() {
+        final String METHOD_NAME = "unlock"; //$NON-NLS-1$
+        Waiter next = null;
+        this.guard.lock();
+        try {
+            // do nothing if not locked
+            if (this.count == 0) {
+                logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
+                        "reentrant count is 0 before release: " + this);  //$NON-NLS-1$
+                return;
+            }
+            // check that you own it
+            Thread thisThread = Thread.currentThread();
+            if (this.owner != thisThread) {
+                logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME, 
+                        "incorrect ownernship: should be " + this.owner.getName() +  //$NON-NLS-1$
+                        " but you are " + thisThread.getName());  //$NON-NLS-1$
+                return;
+            }
             this.count--;
-            logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME, 
-                    "decrementing reentrant count, new value: " + this.count);  //$NON-NLS-1$
-        }
-        if (this.count == 0) {
-            logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME,
-                    "ownership released, notifying all");  //$NON-NLS-1$
+            if (this.count > 0) {
+                if (logger.isLoggable(Level.FINEST)) {
+                    logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME, 
+                            this + " decrementing reentrant count, new value: " + this.count);  //$NON-NLS-1$
+                }
+                return;
+            }
+            if (logger.isLoggable(Level.FINEST)) {
+                logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME,
+                        this + " ownership released by thread " + thisThread.getName() + //$NON-NLS-1$
+                        ", notifying all");  //$NON-NLS-1$
+            }
             this.owner = null;
-            this.notifyAll();
+            this.released.signalAll();
+            next = this.waiters.poll();
+        } finally {
+            this.guard.unlock();
+        }
+        // hand off outside the guard, skipping waiters that already gave up
+        while ((next != null) && !next.resume()) {
+            this.guard.lock();
+            try {
+                next = (this.owner == null) ? this.waiters.poll() : null;
+            } finally {
+                this.guard.unlock();
+            }
         }
-        logger.exiting(CLASS_NAME, METHOD_NAME);
     }
     
     /**
@@ -444,4 +596,20 @@ public class Lock {
         return("Lock[name=" + this.name + ", owner=" + owner +    //$NON-NLS-1$ //$NON-NLS-2$
                 ", reentrant_count=" + this.count + "]");   //$NON-NLS-1$ //$NON-NLS-2$
     }
+
+    /**
+     * Something that is waiting for a {@link Lock} to be released, see
+     * {@link Lock#resumeWhenAvailable(Waiter)}.
+     */
+    public interface Waiter {
+        /**
+         * Invoked once when the lock has been released. This runs on the
+         * thread that released the lock, so it should return quickly, usually
+         * by putting a task back on a queue.
+         * 
+         * @return true if the waiter took its turn, false if it had already
+         *         given up, in which case the next waiter is resumed instead
+         */
+        boolean resume();
+    }
 }
@@ -173,4 +173,18 @@ public class LockBusyException extends ClientAPIException {
         super(cause);
     }
 
+    /**
+     * Create an exception for an expected condition whose message is formatted
+     * only when it is read. See
+     * {@link ClientAPIException#ClientAPIException(String, Object[], boolean)}.
+     * 
+     * @param msgKey a string giving the key of the NLS enabled message to be
+     *        used with the exception.
+     * @param msgParms an Object[] that gives the attributes to be used with
+     *        msgKey, may be null
+     * @param writableStackTrace whether the stack trace should be filled in
+     */
+    LockBusyException(String msgKey, Object[] msgParms, boolean writableStackTrace) {
+        super(msgKey, msgParms, writableStackTrace);
+    }
 }
@@ -18,7 +18,9 @@
 package com.ibm.datapower.amt.clientAPI;
 
 import java.net.URISyntaxException;
+import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.Map;
 import java.util.Vector;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -27,6 +29,7 @@ import com.ibm.datapower.amt.Constants;
 import com.ibm.datapower.amt.DeviceType;
 import com.ibm.datapower.amt.Messages;
 import com.ibm.datapower.amt.OperationStatus;
+import com.ibm.datapower.amt.OperationStatusRollup;
 import com.ibm.datapower.amt.amp.AMPException;
 import com.ibm.datapower.amt.amp.DeviceContext;
 import com.ibm.datapower.amt.dataAPI.AlreadyExistsInRepositoryException;
@@ -64,6 +67,13 @@ public class ManagedSet extends WorkArea implements Persistable {
     
     private volatile Lock lock = null;
     
+    // the rollup of each non-XC10 member device, null until the first call
+    // to getOperationStatus(). Guarded by rollupLock.
+    private final Object rollupLock = new Object();
+    private Map<Device, OperationStatus.Enumerated> deviceRollups = null;
+    private final OperationStatusRollup deviceStatusRollup = 
+        new OperationStatusRollup(OperationStatus.Enumerated.UNKNOWN);
+    
     public static final String COPYRIGHT_2009_2013 = Constants.COPYRIGHT_2009_2013;
 
     protected static final String CLASS_NAME = ManagedSet.class.getName();    
@@ -399,6 +409,7 @@ public class ManagedSet extends WorkArea implements Persistable {
             StoredManagedSet storedManagedSet = this.getStoredInstance();
             StoredDevice storedDevice = device.getStoredInstance();
             storedManagedSet.add(storedDevice);
+            this.deviceAdded(device);
 
             // save the repository now. 
             manager.save(Manager.SAVE_UNFORCED);
@@ -420,6 +431,8 @@ public class ManagedSet extends WorkArea implements Persistable {
         		//  Put MacroProgressContainer
 
         		BackgroundTask backgroundTaskDomainStatus =	BackgroundTask.createGetDomainsOperationStatusTask(device);
+        		// a follow-up, so let the tasks users asked for go first
+        		backgroundTaskDomainStatus.setPriority(TaskPriority.AUTOMATIC);
         		ProgressContainer progressContainer = backgroundTaskDomainStatus.getProgressContainer();            
         		manager.enqueue(backgroundTaskDomainStatus, workArea);
         		MacroProgressContainer macroProgressContainer = new MacroProgressContainer(backgroundTaskDomainStatus);            
@@ -668,6 +681,7 @@ public class ManagedSet extends WorkArea implements Persistable {
                         "remove from persistence"); //$NON-NLS-1$
             StoredDevice storedDevice = device.getStoredInstance();
             this.getStoredInstance().remove(storedDevice);
+            this.deviceRemoved(device);
             
             // remove the device's Notification queue
             this.notificationQueue.clean(this);
@@ -773,6 +787,123 @@ public class ManagedSet extends WorkArea implements Persistable {
     public OperationStatus getOperationStatus() {
         final String METHOD_NAME = "getOperationStatus"; //$NON-NLS-1$
         logger.entering(CLASS_NAME, METHOD_NAME);
+        OperationStatus result = null;
+        synchronized (this.rollupLock) {
+            if (this.deviceRollups == null) {
+                this.rebuildRollup();
+            }
+            result = new OperationStatus(this.deviceStatusRollup.getStatus());
+        }
+        if (logger.isLoggable(Level.FINEST)) {
+            this.checkOperationStatus();
+        }
+        logger.exiting(CLASS_NAME, METHOD_NAME, result);
+        return(result);
+    }
+    
+    /**
+     * Compare the incrementally maintained rollup returned by
+     * {@link #getOperationStatus()} with a rollup computed from scratch over
+     * all the member devices. If they differ the per-device values are
+     * rebuilt. This is a consistency check, it is run on each read when FINEST
+     * tracing is enabled.
+     * 
+     * @return true if the maintained rollup was correct
+     */
+    boolean checkOperationStatus() {
+        final String METHOD_NAME = "checkOperationStatus"; //$NON-NLS-1$
+        OperationStatus expected = this.recomputeOperationStatus();
+        synchronized (this.rollupLock) {
+            OperationStatus.Enumerated actual = (this.deviceRollups == null) ? 
+                    null : this.deviceStatusRollup.getStatus();
+            if (actual == null || expected.getEnumerated().equals(actual)) {
+                return(true);
+            }
+            logger.logp(Level.WARNING, CLASS_NAME, METHOD_NAME, 
+                    "Operation status of " + this + " was " + actual +  //$NON-NLS-1$ //$NON-NLS-2$
+                    " but the member devices roll up to " + expected + ", rebuilding " + this.deviceStatusRollup); //$NON-NLS-1$ //$NON-NLS-2$
+            this.rebuildRollup();
+            return(false);
+        }
+    }
+    
+    /*
+     * Called by a member Device, while it holds its own domain status lock,
+     * each time its rollup operation status changes.
+     */
+    void deviceRollupChanged(Device device, OperationStatus.Enumerated newValue) {
+        synchronized (this.rollupLock) {
+            if (this.deviceRollups != null && this.deviceRollups.containsKey(device)) {
+                OperationStatus.Enumerated oldValue = this.deviceRollups.put(device, newValue);
+                this.deviceStatusRollup.replace(oldValue, newValue);
+            }
+        }
+    }
+    
+    /*
+     * Called after a Device has been added to or removed from the stored
+     * ManagedSet, to update the device index and the rollup.
+     */
+    private void deviceAdded(Device device) {
+        PersistenceMapper.getInstance().getDeviceIndex().update(device);
+        synchronized (this.rollupLock) {
+            if (this.deviceRollups != null && !isXC10(device)) {
+                OperationStatus.Enumerated newValue = device.getRollupEnumerated();
+                OperationStatus.Enumerated oldValue = this.deviceRollups.put(device, newValue);
+                this.deviceStatusRollup.replace(oldValue, newValue);
+            }
+        }
+    }
+    
+    void deviceRemoved(Device device) {
+        PersistenceMapper.getInstance().getDeviceIndex().update(device);
+        synchronized (this.rollupLock) {
+            if (this.deviceRollups != null) {
+                this.deviceStatusRollup.remove(this.deviceRollups.remove(device));
+            }
+        }
+    }
+    
+    /*
+     * Seed the per-device values from the current members. The caller must
+     * hold rollupLock. This reads the counters of each Device without taking
+     * its domain status lock, so it can not deadlock with deviceRollupChanged.
+     */
+    private void rebuildRollup() {
+        Device[] devices = null;
+        try {
+            devices = this.getDeviceMembers();
+        } catch (DeletedException e) {
+            // one or more Devices were deleted, shouldn't happen, assume no members
+            devices = new Device[0];
+        }
+        this.deviceRollups = new HashMap<Device, OperationStatus.Enumerated>();
+        this.deviceStatusRollup.clear();
+        for (int i=0; i<devices.length; i++) {
+            if (!isXC10(devices[i])) {
+                OperationStatus.Enumerated value = devices[i].getRollupEnumerated();
+                this.deviceRollups.put(devices[i], value);
+                this.deviceStatusRollup.add(value);
+            }
+        }
+    }
+    
+    private static boolean isXC10(Device device) {
+        DeviceType deviceType = null;
+        try {
+            deviceType = device.getDeviceType();
+        } catch (DeletedException e) {
+        }
+        return(deviceType == null || deviceType.equals(DeviceType.XC10));
+    }
+    
+    /*
+     * The full walk over the member devices that getOperationStatus() used
+     * before the rollup was maintained incrementally.
+     */
+    private OperationStatus recomputeOperationStatus() {
+        final String METHOD_NAME = "recomputeOperationStatus"; //$NON-NLS-1$
+        logger.entering(CLASS_NAME, METHOD_NAME);
         Vector collection = new Vector();
         Device[] devices = null;
         try {
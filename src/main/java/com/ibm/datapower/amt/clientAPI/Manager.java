@@ -32,6 +32,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
@@ -46,7 +47,10 @@ import com.ibm.datapower.amt.DeviceType;
 import com.ibm.datapower.amt.Messages;
 import com.ibm.datapower.amt.ModelType;
 import com.ibm.datapower.amt.StringCollection;
+import com.ibm.datapower.amt.TaskMetrics;
+import com.ibm.datapower.amt.ThreadExecutionMode;
 import com.ibm.datapower.amt.amp.AMPException;
+import com.ibm.datapower.amt.amp.CommandFactory;
 import com.ibm.datapower.amt.amp.Commands;
 import com.ibm.datapower.amt.amp.Notification;
 import com.ibm.datapower.amt.amp.NotificationCatcher;
@@ -57,7 +61,6 @@ import com.ibm.datapower.amt.dataAPI.DirtySaveException;
 import com.ibm.datapower.amt.dataAPI.Repository;
 import com.ibm.datapower.amt.dataAPI.RepositoryFactory;
 import com.ibm.datapower.amt.dataAPI.StoredDeploymentPolicy;
-import com.ibm.datapower.amt.dataAPI.StoredDeploymentPolicyVersion;
 import com.ibm.datapower.amt.dataAPI.StoredDevice;
 import com.ibm.datapower.amt.dataAPI.StoredDomain;
 import com.ibm.datapower.amt.dataAPI.StoredDomainVersion;
@@ -95,6 +98,8 @@ public class Manager extends WorkArea implements Persistable {
     private volatile QueueProcessor queueProcessor = null;
     private volatile HeartbeatDaemon heartbeatDaemon = null;
     private volatile DomainSynchronizationDaemon domainSynchDaemon = null;    
+    private volatile ManagerMetrics metrics = null;
+    private final TaskMetrics repositorySaveMetrics = new TaskMetrics("RepositorySave"); //$NON-NLS-1$
     private volatile Queue notificationProgresses = null;
     private volatile Queue heartbeatProgresses = null;
     private volatile Queue domainSyncProgresses = null;    
@@ -263,6 +268,15 @@ public class Manager extends WorkArea implements Persistable {
      * @see Configuration#KEY_TASK_QUEUE_SIZE
      */
     public static final String OPTION_TASK_QUEUE_SIZE = "taskQueueSize"; //$NON-NLS-1$
+
+    /**
+     * When first invoking {@link #getInstance(Map)}, use this as the option
+     * name when designating an Integer object that indicates how many
+     * milliseconds to wait for room on a full background task queue.
+     *
+     * @see Configuration#KEY_TASK_QUEUE_OFFER_TIMEOUT
+     */
+    public static final String OPTION_TASK_QUEUE_OFFER_TIMEOUT = "taskQueueOfferTimeout"; //$NON-NLS-1$
     
     /**
      * When first invoking {@link #getInstance(Map)}, use this as the option
@@ -507,6 +521,94 @@ public class Manager extends WorkArea implements Persistable {
      */
     public static final String OPTION_SIGNAL_DELAY_TIME = "signalDelayTime"; //$NON-NLS-1$
 
+    /**
+     * When first invoking {@link #getInstance(Map)}, use this as the option
+     * name when designating the number of threads shared by the asynchronous AMP command facades.
+     * 
+     * @see Configuration#KEY_ASYNC_COMMANDS_THREAD_POOL_SIZE
+     */
+    public static final String OPTION_ASYNC_COMMANDS_THREAD_POOL_SIZE = "asyncCommandsThreadPoolSize"; //$NON-NLS-1$
+
+    /**
+     * When first invoking {@link #getInstance(Map)}, use this as the option
+     * name when designating the maximum number of asynchronous AMP calls in flight per device.
+     * 
+     * @see Configuration#KEY_ASYNC_COMMANDS_MAX_PER_DEVICE
+     */
+    public static final String OPTION_ASYNC_COMMANDS_MAX_PER_DEVICE = "asyncCommandsMaxPerDevice"; //$NON-NLS-1$
+
+    /**
+     * When first invoking {@link #getInstance(Map)}, use this as the option
+     * name when designating the timeout in milliseconds for a running asynchronous AMP call.
+     * 
+     * @see Configuration#KEY_ASYNC_COMMANDS_TIMEOUT
+     */
+    public static final String OPTION_ASYNC_COMMANDS_TIMEOUT = "asyncCommandsTimeout"; //$NON-NLS-1$
+
+    /**
+     * When first invoking {@link #getInstance(Map)}, use this as the option
+     * name when designating the kind of thread used for heartbeat, synchronization and event tasks, either platform or virtual.
+     * 
+     * @see Configuration#KEY_THREAD_EXECUTION_MODE
+     */
+    public static final String OPTION_THREAD_EXECUTION_MODE = "threadExecutionMode"; //$NON-NLS-1$
+
+    /**
+     * When first invoking {@link #getInstance(Map)}, use this as the option
+     * name when designating the maximum number of concurrently running tasks per device in virtual thread mode.
+     * 
+     * @see Configuration#KEY_MAX_TASKS_PER_DEVICE
+     */
+    public static final String OPTION_MAX_TASKS_PER_DEVICE = "maxTasksPerDevice"; //$NON-NLS-1$
+
+    /**
+     * When first invoking {@link #getInstance(Map)}, use this as the option
+     * name when designating the time in milliseconds to wait for more signals before sending them together to the third-party SOAP service
+     * 
+     * @see Configuration#KEY_SIGNAL_BATCH_WINDOW
+     */
+    public static final String OPTION_SIGNAL_BATCH_WINDOW = "signalBatchWindow"; //$NON-NLS-1$
+
+    /**
+     * When first invoking {@link #getInstance(Map)}, use this as the option
+     * name when designating the directory in which to write one rolling log file per appliance for the log messages received on {@link #OPTION_DEVICE_LOG_PORT}
+     * 
+     * @see Configuration#KEY_DEVICE_LOG_DIRECTORY
+     */
+    public static final String OPTION_DEVICE_LOG_DIRECTORY = "DeviceLogDirectory"; //$NON-NLS-1$
+
+    /**
+     * When first invoking {@link #getInstance(Map)}, use this as the option
+     * name when designating the size in bytes at which a per-appliance log file is rolled over
+     * 
+     * @see Configuration#KEY_DEVICE_LOG_FILE_SIZE
+     */
+    public static final String OPTION_DEVICE_LOG_FILE_SIZE = "DeviceLogFileSize"; //$NON-NLS-1$
+
+    /**
+     * When first invoking {@link #getInstance(Map)}, use this as the option
+     * name when designating the number of rolled over log files to keep for each appliance
+     * 
+     * @see Configuration#KEY_DEVICE_LOG_FILE_COUNT
+     */
+    public static final String OPTION_DEVICE_LOG_FILE_COUNT = "DeviceLogFileCount"; //$NON-NLS-1$
+
+    /**
+     * When first invoking {@link #getInstance(Map)}, use this as the option
+     * name when designating the maximum number of appliance log connections to keep open at the same time
+     * 
+     * @see Configuration#KEY_DEVICE_LOG_MAX_CONNECTIONS
+     */
+    public static final String OPTION_DEVICE_LOG_MAX_CONNECTIONS = "DeviceLogMaxConnections"; //$NON-NLS-1$
+
+    /**
+     * When first invoking {@link #getInstance(Map)}, use this as the option
+     * name when designating whether the latency and size of AMP and SOMA commands are measured, either true or false
+     * 
+     * @see Configuration#KEY_METRICS_ENABLED
+     */
+    public static final String OPTION_METRICS_ENABLED = "metricsEnabled"; //$NON-NLS-1$
+
     /**
      * When first invoking {@link #getInstance(Map)}, use this as an option 
      * to specify the filename of the key store for the manager to use in it's truststore.
@@ -792,6 +894,14 @@ public class Manager extends WorkArea implements Persistable {
             logger.logp(Level.SEVERE, CLASS_NAME, METHOD_NAME, message);
             throw(e);
         }
+        if ((options.get(OPTION_TASK_QUEUE_OFFER_TIMEOUT) != null) &&
+                (!(options.get(OPTION_TASK_QUEUE_OFFER_TIMEOUT) instanceof Integer))) {
+            String message = Messages.getString("wamt.clientAPI.Manager.optNotInteger",OPTION_TASK_QUEUE_OFFER_TIMEOUT); //$NON-NLS-1$
+            InvalidParameterException e = new InvalidParameterException(message,"wamt.clientAPI.Manager.optNotInteger",OPTION_TASK_QUEUE_OFFER_TIMEOUT); //$NON-NLS-1$
+            logger.throwing(CLASS_NAME, METHOD_NAME, e);
+            logger.logp(Level.SEVERE, CLASS_NAME, METHOD_NAME, message);
+            throw(e);
+        }
         if ((options.get(OPTION_COLLECT_DAEMON_PROGRESSES) != null) &&
                 (!(options.get(OPTION_COLLECT_DAEMON_PROGRESSES) instanceof Boolean))) {
             String message = Messages.getString("wamt.clientAPI.Manager.optNotBoolean",OPTION_COLLECT_DAEMON_PROGRESSES); //$NON-NLS-1$
@@ -921,6 +1031,94 @@ public class Manager extends WorkArea implements Persistable {
             logger.logp(Level.SEVERE, CLASS_NAME, METHOD_NAME, message);
             throw(e);
         }
+        if ((options.get(OPTION_ASYNC_COMMANDS_THREAD_POOL_SIZE) != null) &&
+                (!(options.get(OPTION_ASYNC_COMMANDS_THREAD_POOL_SIZE) instanceof String))) {
+            String message = Messages.getString("wamt.clientAPI.Manager.OptNotInstOfString",OPTION_ASYNC_COMMANDS_THREAD_POOL_SIZE); //$NON-NLS-1$$
+            InvalidParameterException e = new InvalidParameterException(message,"wamt.clientAPI.Manager.OptNotInstOfString",OPTION_ASYNC_COMMANDS_THREAD_POOL_SIZE); //$NON-NLS-1$
+            logger.throwing(CLASS_NAME, METHOD_NAME, e);
+            logger.logp(Level.SEVERE, CLASS_NAME, METHOD_NAME, message);
+            throw(e);
+        }
+        if ((options.get(OPTION_ASYNC_COMMANDS_MAX_PER_DEVICE) != null) &&
+                (!(options.get(OPTION_ASYNC_COMMANDS_MAX_PER_DEVICE) instanceof String))) {
+            String message = Messages.getString("wamt.clientAPI.Manager.OptNotInstOfString",OPTION_ASYNC_COMMANDS_MAX_PER_DEVICE); //$NON-NLS-1$$
+            InvalidParameterException e = new InvalidParameterException(message,"wamt.clientAPI.Manager.OptNotInstOfString",OPTION_ASYNC_COMMANDS_MAX_PER_DEVICE); //$NON-NLS-1$
+            logger.throwing(CLASS_NAME, METHOD_NAME, e);
+            logger.logp(Level.SEVERE, CLASS_NAME, METHOD_NAME, message);
+            throw(e);
+        }
+        if ((options.get(OPTION_ASYNC_COMMANDS_TIMEOUT) != null) &&
+                (!(options.get(OPTION_ASYNC_COMMANDS_TIMEOUT) instanceof String))) {
+            String message = Messages.getString("wamt.clientAPI.Manager.OptNotInstOfString",OPTION_ASYNC_COMMANDS_TIMEOUT); //$NON-NLS-1$$
+            InvalidParameterException e = new InvalidParameterException(message,"wamt.clientAPI.Manager.OptNotInstOfString",OPTION_ASYNC_COMMANDS_TIMEOUT); //$NON-NLS-1$
+            logger.throwing(CLASS_NAME, METHOD_NAME, e);
+            logger.logp(Level.SEVERE, CLASS_NAME, METHOD_NAME, message);
+            throw(e);
+        }
+        if ((options.get(OPTION_THREAD_EXECUTION_MODE) != null) &&
+                (!(options.get(OPTION_THREAD_EXECUTION_MODE) instanceof String))) {
+            String message = Messages.getString("wamt.clientAPI.Manager.OptNotInstOfString",OPTION_THREAD_EXECUTION_MODE); //$NON-NLS-1$$
+            InvalidParameterException e = new InvalidParameterException(message,"wamt.clientAPI.Manager.OptNotInstOfString",OPTION_THREAD_EXECUTION_MODE); //$NON-NLS-1$
+            logger.throwing(CLASS_NAME, METHOD_NAME, e);
+            logger.logp(Level.SEVERE, CLASS_NAME, METHOD_NAME, message);
+            throw(e);
+        }
+        if ((options.get(OPTION_MAX_TASKS_PER_DEVICE) != null) &&
+                (!(options.get(OPTION_MAX_TASKS_PER_DEVICE) instanceof String))) {
+            String message = Messages.getString("wamt.clientAPI.Manager.OptNotInstOfString",OPTION_MAX_TASKS_PER_DEVICE); //$NON-NLS-1$$
+            InvalidParameterException e = new InvalidParameterException(message,"wamt.clientAPI.Manager.OptNotInstOfString",OPTION_MAX_TASKS_PER_DEVICE); //$NON-NLS-1$
+            logger.throwing(CLASS_NAME, METHOD_NAME, e);
+            logger.logp(Level.SEVERE, CLASS_NAME, METHOD_NAME, message);
+            throw(e);
+        }
+        if ((options.get(OPTION_SIGNAL_BATCH_WINDOW) != null) &&
+                (!(options.get(OPTION_SIGNAL_BATCH_WINDOW) instanceof String))) {
+            String message = Messages.getString("wamt.clientAPI.Manager.OptNotInstOfString",OPTION_SIGNAL_BATCH_WINDOW); //$NON-NLS-1$$
+            InvalidParameterException e = new InvalidParameterException(message,"wamt.clientAPI.Manager.OptNotInstOfString",OPTION_SIGNAL_BATCH_WINDOW); //$NON-NLS-1$
+            logger.throwing(CLASS_NAME, METHOD_NAME, e);
+            logger.logp(Level.SEVERE, CLASS_NAME, METHOD_NAME, message);
+            throw(e);
+        }
+        if ((options.get(OPTION_DEVICE_LOG_DIRECTORY) != null) &&
+                (!(options.get(OPTION_DEVICE_LOG_DIRECTORY) instanceof String))) {
+            String message = Messages.getString("wamt.clientAPI.Manager.OptNotInstOfString",OPTION_DEVICE_LOG_DIRECTORY); //$NON-NLS-1$$
+            InvalidParameterException e = new InvalidParameterException(message,"wamt.clientAPI.Manager.OptNotInstOfString",OPTION_DEVICE_LOG_DIRECTORY); //$NON-NLS-1$
+            logger.throwing(CLASS_NAME, METHOD_NAME, e);
+            logger.logp(Level.SEVERE, CLASS_NAME, METHOD_NAME, message);
+            throw(e);
+        }
+        if ((options.get(OPTION_DEVICE_LOG_FILE_SIZE) != null) &&
+                (!(options.get(OPTION_DEVICE_LOG_FILE_SIZE) instanceof String))) {
+            String message = Messages.getString("wamt.clientAPI.Manager.OptNotInstOfString",OPTION_DEVICE_LOG_FILE_SIZE); //$NON-NLS-1$$
+            InvalidParameterException e = new InvalidParameterException(message,"wamt.clientAPI.Manager.OptNotInstOfString",OPTION_DEVICE_LOG_FILE_SIZE); //$NON-NLS-1$
+            logger.throwing(CLASS_NAME, METHOD_NAME, e);
+            logger.logp(Level.SEVERE, CLASS_NAME, METHOD_NAME, message);
+            throw(e);
+        }
+        if ((options.get(OPTION_DEVICE_LOG_FILE_COUNT) != null) &&
+                (!(options.get(OPTION_DEVICE_LOG_FILE_COUNT) instanceof String))) {
+            String message = Messages.getString("wamt.clientAPI.Manager.OptNotInstOfString",OPTION_DEVICE_LOG_FILE_COUNT); //$NON-NLS-1$$
+            InvalidParameterException e = new InvalidParameterException(message,"wamt.clientAPI.Manager.OptNotInstOfString",OPTION_DEVICE_LOG_FILE_COUNT); //$NON-NLS-1$
+            logger.throwing(CLASS_NAME, METHOD_NAME, e);
+            logger.logp(Level.SEVERE, CLASS_NAME, METHOD_NAME, message);
+            throw(e);
+        }
+        if ((options.get(OPTION_DEVICE_LOG_MAX_CONNECTIONS) != null) &&
+                (!(options.get(OPTION_DEVICE_LOG_MAX_CONNECTIONS) instanceof String))) {
+            String message = Messages.getString("wamt.clientAPI.Manager.OptNotInstOfString",OPTION_DEVICE_LOG_MAX_CONNECTIONS); //$NON-NLS-1$$
+            InvalidParameterException e = new InvalidParameterException(message,"wamt.clientAPI.Manager.OptNotInstOfString",OPTION_DEVICE_LOG_MAX_CONNECTIONS); //$NON-NLS-1$
+            logger.throwing(CLASS_NAME, METHOD_NAME, e);
+            logger.logp(Level.SEVERE, CLASS_NAME, METHOD_NAME, message);
+            throw(e);
+        }
+        if ((options.get(OPTION_METRICS_ENABLED) != null) &&
+                (!(options.get(OPTION_METRICS_ENABLED) instanceof String))) {
+            String message = Messages.getString("wamt.clientAPI.Manager.OptNotInstOfString",OPTION_METRICS_ENABLED); //$NON-NLS-1$$
+            InvalidParameterException e = new InvalidParameterException(message,"wamt.clientAPI.Manager.OptNotInstOfString",OPTION_METRICS_ENABLED); //$NON-NLS-1$
+            logger.throwing(CLASS_NAME, METHOD_NAME, e);
+            logger.logp(Level.SEVERE, CLASS_NAME, METHOD_NAME, message);
+            throw(e);
+        }
         
         logger.exiting(CLASS_NAME, METHOD_NAME);
     }
@@ -1059,6 +1257,13 @@ public class Manager extends WorkArea implements Persistable {
         /* flag the mapper as initialised - defect 13242 */
         mapper.setInitialised();
 
+        // pick up changes to the properties file while the Manager runs
+        Configuration.startWatching();
+
+        // publish the metrics over JMX
+        this.metrics = new ManagerMetrics(this);
+        this.metrics.startup();
+
         managerStatus.setStatus(Enumerated.UP);
         
         logger.exiting(CLASS_NAME, METHOD_NAME);
@@ -1298,45 +1503,22 @@ public class Manager extends WorkArea implements Persistable {
                 logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME, 
                             "loading Domain: " + storedDomains[domainIndex]); //$NON-NLS-1$
                 Domain domain = new Domain(storedDomains[domainIndex]);
-               
-               
-                // load DomainVersions
-                StoredVersion[] storedVersions = storedDomains[domainIndex].getVersions();
-                logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME, 
-                            storedVersions.length + " StoredDomainVersions"); //$NON-NLS-1$
-                for (int versionIndex=0; versionIndex<storedVersions.length; versionIndex++) {
-                    logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME, 
-                                "loading DomainVersion: " + storedVersions[versionIndex]); //$NON-NLS-1$
-                    StoredDomainVersion storedDomainVersion =
-                        (StoredDomainVersion) storedVersions[versionIndex];
-                    DomainVersion domainVersion = new DomainVersion(storedDomainVersion);
-                    if (domainVersion == null) {
-                        // debug statement
-                    }
-                }
                 
+                /*
+                 * The DomainVersions, the DeploymentPolicy and its versions
+                 * are created by the PersistenceMapper when they are first
+                 * used, so a long history costs nothing until it is looked
+                 * at. Only a history that needs trimming is created now.
+                 */
                 StoredDeploymentPolicy deploymentPolicy = storedDomains[domainIndex].getDeploymentPolicy();
-                DeploymentPolicy dp = new DeploymentPolicy(deploymentPolicy);
-                //load DeploymentPolicyVersion
-                StoredDeploymentPolicyVersion [] storedPolicyVersions = deploymentPolicy.getVersions();
-                logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME, 
-                            storedVersions.length + " StoredPolicyVersions"); //$NON-NLS-1$
-                for (int versionIndex=0; versionIndex<storedPolicyVersions.length; versionIndex++) {
-                    logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME, 
-                                "loading DomainVersion: " + storedPolicyVersions[versionIndex]); //$NON-NLS-1$
-                    StoredDeploymentPolicyVersion storedDeploymentPolicyVersion =
-                        (StoredDeploymentPolicyVersion) storedPolicyVersions[versionIndex];
-                    DeploymentPolicyVersion deploymentPolicyVersion = new DeploymentPolicyVersion(storedDeploymentPolicyVersion);
-                    if (deploymentPolicyVersion == null) {
-                        logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME, 
-                                "deploymentPolicyVersion is NULL"); //$NON-NLS-1$
- 
-                    }
-                }                
-                
-                dp.trimExcessVersions();
+                int allowed = this.getMaxVersionsToStore();
+                if ((deploymentPolicy != null) && (deploymentPolicy.getVersions().length > allowed)) {
+                    PersistenceMapper.getInstance().getVia(deploymentPolicy).trimExcessVersions();
+                }
                 // do the trim after everything is loaded
-                domain.trimExcessVersions();
+                if (storedDomains[domainIndex].getVersions().length > allowed) {
+                    domain.trimExcessVersions();
+                }
             }
         }
         
@@ -1372,6 +1554,7 @@ public class Manager extends WorkArea implements Persistable {
             		// get the operation status of managed domains on the device
             		BackgroundTask backgroundTask =
             			BackgroundTask.createGetDomainsOperationStatusTask(devices[deviceIndex]);
+            		backgroundTask.setPriority(TaskPriority.AUTOMATIC);
             		WorkArea workArea = managedSets[managedSetIndex];
             		this.privilegedEnqueue(backgroundTask, workArea);
             		ProgressContainer progressContainer = backgroundTask.getProgressContainer();
@@ -1381,6 +1564,7 @@ public class Manager extends WorkArea implements Persistable {
                 
             		// subscribe to device
             		backgroundTask = BackgroundTask.createSubscribeTask(device);
+            		backgroundTask.setPriority(TaskPriority.AUTOMATIC);
             		workArea = managedSets[managedSetIndex];
             		this.privilegedEnqueue(backgroundTask, workArea);
             		progressContainer = backgroundTask.getProgressContainer();
@@ -1514,6 +1698,13 @@ public class Manager extends WorkArea implements Persistable {
         if (doItNow) {
             managerStatus.setStatus(Enumerated.STOPPING);
 
+            Configuration.stopWatching();
+
+            if (this.metrics != null) {
+                this.metrics.shutdown();
+                this.metrics = null;
+            }
+
             // shutdown the heartbeat daemon
             if (this.heartbeatDaemon == null) {
                 logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME, 
@@ -1536,6 +1727,16 @@ public class Manager extends WorkArea implements Persistable {
                 this.domainSynchDaemon = null;
             }           
             
+            // stop the threads behind the asynchronous AMP commands
+            logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
+                    "Shutting down asynchronous commands"); //$NON-NLS-1$
+            CommandFactory.shutdownAsyncCommands();
+            
+            // deliver the signals that are still queued
+            logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
+                    "Shutting down signal dispatcher"); //$NON-NLS-1$
+            SignalDispatcher.shutdown();
+            
             /*
              * Shutdown the notification catcher. We do this before the
              * queueProcessor so the catcher won't be trying to add
@@ -1852,7 +2053,12 @@ public class Manager extends WorkArea implements Persistable {
          * method a long-running task. Just go with what we have now.
          */
 
-        this.repository.save(force);
+        long startedAt = this.repositorySaveMetrics.taskStarted(this.repositorySaveMetrics.taskSubmitted());
+        try {
+            this.repository.save(force);
+        } finally {
+            this.repositorySaveMetrics.taskFinished(startedAt);
+        }
 
         logger.exiting(CLASS_NAME, METHOD_NAME);
     }
@@ -2109,26 +2315,40 @@ public class Manager extends WorkArea implements Persistable {
     public Device[] getUnmanagedDevices(DeviceType desiredDeviceType,
             ModelType desiredModelType, StringCollection desiredFeatures) 
     throws DeletedException {
-        Device[] allDevices = this.getAllDevices();
-        Vector unmanagedDevices = new Vector();
-        for (int i=0; i<allDevices.length; i++) {
-            Device device = allDevices[i];
-            if (device.getManagedSet() == null) {
-                if (((desiredDeviceType == null) || (device.getDeviceType().isCompatibleWith(desiredDeviceType))) &&
-                        ((desiredModelType == null) || (device.getModelType().isCompatibleWith(desiredModelType))) &&
-                        ((desiredFeatures == null) || device.getFeatureLicenses().equals(desiredFeatures))) {
-                    unmanagedDevices.add(device);
-                }
-            }
-        }
-        
-        Device[] result = new Device[unmanagedDevices.size()];
-        Iterator iterator = unmanagedDevices.iterator();
-        for (int i=0; iterator.hasNext(); i++) {
-            Device device = (Device) iterator.next();
-            result[i] = device;
-        }
-        return(result);
+        // the index visits only the unmanaged devices of compatible types
+        DeviceIndex index = PersistenceMapper.getInstance().getDeviceIndex();
+        List<Device> devices = index.find(desiredDeviceType, desiredModelType, desiredFeatures, true);
+        return(devices.toArray(new Device[devices.size()]));
+    }
+
+    /**
+     * Gets the list of known devices in the manager that match the desired
+     * DeviceType, ModelType, and/or feature list, whether or not they are
+     * assigned to a ManagedSet. Unlike filtering the result of
+     * {@link #getAllDevices()}, only the devices that can match are visited.
+     * 
+     * @param desiredDeviceType
+     *            if set to null, devices of any DeviceType are returned.
+     *            Otherwise only devices that are compatible with this
+     *            DeviceType are returned, see
+     *            {@link DeviceType#isCompatibleWith(DeviceType)}.
+     * @param desiredModelType
+     *            if set to null, devices of any ModelType are returned.
+     *            Otherwise only devices that are compatible with this
+     *            ModelType are returned, see
+     *            {@link ModelType#isCompatibleWith(ModelType)}.
+     * @param desiredFeatures
+     *            if set to null, devices with any feature list are returned.
+     *            Otherwise only devices with exactly this feature list are
+     *            returned.
+     * @return a list of the matching Devices
+     * @see #getUnmanagedDevices(DeviceType, ModelType, StringCollection)
+     */
+    public Device[] getDevices(DeviceType desiredDeviceType,
+            ModelType desiredModelType, StringCollection desiredFeatures) {
+        DeviceIndex index = PersistenceMapper.getInstance().getDeviceIndex();
+        List<Device> devices = index.find(desiredDeviceType, desiredModelType, desiredFeatures, false);
+        return(devices.toArray(new Device[devices.size()]));
     }
 
     /**
@@ -2167,27 +2387,10 @@ public class Manager extends WorkArea implements Persistable {
      * @see Device#getSerialNumber()
      */
     public Device[] getDevicesBySerialNumber(String targetSerialNumber) throws DeletedException {
-        Device[] resultArray = null;
-        Vector <StoredDevice> result = new Vector<StoredDevice>(); 
-        StoredDevice[] storedDevice = this.repository.getDevices();
-        for ( int i=0; i < storedDevice.length; i++ ) {
-        	if ( storedDevice[i].getSerialNumber().equals(targetSerialNumber) ) {
-        		result.add(storedDevice[i]);
-        	}
-        }        
-        
-        int iSize = result.size();
-        if ( iSize > 0 ) {
-        	resultArray = new Device[iSize];
-        	for ( int i=0; i < iSize; i++ ) {
-        		PersistenceMapper mapper = PersistenceMapper.getInstance();
-        		resultArray[i] = mapper.getVia(result.get(i));
-        	}
-        }
-        else {
-        	resultArray = new Device[0];
-        }
-        return(resultArray);
+        // notifications look up their device by serial number, so use the index
+        DeviceIndex index = PersistenceMapper.getInstance().getDeviceIndex();
+        List<Device> devices = index.findBySerialNumber(targetSerialNumber);
+        return(devices.toArray(new Device[devices.size()]));
     }
     
 
@@ -2558,35 +2761,9 @@ public class Manager extends WorkArea implements Persistable {
         final String METHOD_NAME = "getFirmware"; //$NON-NLS-1$
         logger.entering(CLASS_NAME, METHOD_NAME,
                         new Object[] {deviceType, modelType, strictFeatures, nonstrictFeatures});
-        Firmware result = null;
-        
-        StoredFirmware[] storedFirmwares = this.repository.getFirmwares();
-        PersistenceMapper mapper = PersistenceMapper.getInstance();
-        for (int i=0; i<storedFirmwares.length; i++) {
-            Firmware firmware = null;
-            try {
-                firmware = mapper.getVia(storedFirmwares[i]);
-            } catch (DeletedException e) {
-                logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME, 
-                            storedFirmwares[i] + 
-                            " has been deleted from mapper but not from datastore"); //$NON-NLS-1$
-                firmware = null;
-            }
-            try {
-                if ((firmware != null) && 
-                    (firmware.getDeviceType().isCompatibleWith(deviceType)) && 
-                    (firmware.getModelType().isCompatibleWith(modelType)) &&
-                    (firmware.getStrictFeatures().equals(strictFeatures)) &&
-                    (firmware.getNonstrictFeatures().equals(nonstrictFeatures))) {
-                    result = firmware;
-                    break;
-                }
-            } catch (DeletedException e) {
-                logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME,
-                            "Came across a deleted firmware while looping through the set, continuing.", //$NON-NLS-1$
-                            e);
-            }
-        }
+        // the catalog indexes the Firmwares by profile, see FirmwareCatalog
+        FirmwareCatalog catalog = PersistenceMapper.getInstance().getFirmwareCatalog();
+        Firmware result = catalog.getFirmware(deviceType, modelType, strictFeatures, nonstrictFeatures);
 
         logger.exiting(CLASS_NAME, METHOD_NAME, result);
         return(result);
@@ -2624,82 +2801,11 @@ public class Manager extends WorkArea implements Persistable {
         final String METHOD_NAME = "getBestFirmware"; //$NON-NLS-1$
         logger.entering(CLASS_NAME, METHOD_NAME,
                         new Object[] {deviceType, modelType, deviceFeatures, level});
-        Firmware result = null;
-        
-        // build a collection of candidate Firmware objects
-        ArrayList<Firmware> candidates = new ArrayList<Firmware>();
-        StoredFirmware[] storedFirmwares = this.repository.getFirmwares();
-        PersistenceMapper mapper = PersistenceMapper.getInstance();
-        for (int i=0; i<storedFirmwares.length; i++) {
-            Firmware firmware = null;
-            try {
-                firmware = mapper.getVia(storedFirmwares[i]);
-            } catch (DeletedException e) {
-                logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME, 
-                            storedFirmwares[i] + 
-                            " has been deleted from mapper but not from datastore"); //$NON-NLS-1$
-                firmware = null;
-            }
-            if ( firmware != null && firmware.isCompatibleWith(deviceType, modelType, deviceFeatures)) {
-                if (level == null) {
-                    // we don't care about the level
-                	logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME,
-                			"don't care about level, adding as candidate"); //$NON-NLS-1$
-                    candidates.add(firmware);
-                } else {
-                    // we know we want a particular level and it is discovered, 
-                    // so work to make sure that version is present for consolidation purposes
-                    FirmwareVersion firmwareVersion = null;
-                    try {
-                        firmwareVersion = firmware.getLevel(level);
-                    } catch (DeletedException e1) {
-                        firmwareVersion = null;
-                    }
-                    if (firmwareVersion != null) {
-                    	logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME,
-                    			"care about level and found it, adding as candidate"); //$NON-NLS-1$
-                        candidates.add(firmware);
-                    } else {
-                    	logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME,
-                    			"care about level and didn't find it, not adding as candidate"); //$NON-NLS-1$
-                    }
-                }
-            }
-        }
-        logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME,
-                    "found " + candidates.size() + " candidate(s)."); //$NON-NLS-1$ //$NON-NLS-2$
-        
-        // now pick the best candidate
-        for (int i=0; i<candidates.size(); i++) {
-            Firmware candidate = (Firmware) candidates.get(i);
-        
-            // if none found yet, grab this one as a default
-            if (result == null) {
-                result = candidate;
-            }
-            
-            // otherwise "best" is defined as the most non-strict features
-            int numCandidateFeatures = 0;
-            int numResultFeatures = 0;
-            
-            try {
-                numCandidateFeatures = candidate.getNonstrictFeatures().size();
-            } catch (DeletedException e) {
-                // assume zero
-                numCandidateFeatures = 0;
-            }
-            
-            try {
-                numResultFeatures = result.getNonstrictFeatures().size();
-            } catch (DeletedException e) {
-                // assume zero
-                numResultFeatures = 0;
-            }
-            
-            if (numCandidateFeatures > numResultFeatures) {
-                result = candidate;
-            }
-        }
+        // the catalog only tests the Firmwares whose types and strict features
+        // can match, and remembers the answer until a Firmware or
+        // FirmwareVersion is added or removed
+        FirmwareCatalog catalog = PersistenceMapper.getInstance().getFirmwareCatalog();
+        Firmware result = catalog.getBestFirmware(deviceType, modelType, deviceFeatures, level);
         
         logger.exiting(CLASS_NAME, METHOD_NAME, result);
         return(result);
@@ -2783,17 +2889,57 @@ public class Manager extends WorkArea implements Persistable {
      * @param backgroundTask the background task which needs to be performed.
      * @param workArea the workArea that the device is in. There is one queue
      *        per work area.
+     * <p>
+     * If an equal task is already waiting, for example a subscription to the
+     * same device, the task is not queued again. Its ProgressContainer gets
+     * the outcome of the waiting task instead. If the queue is full, this
+     * waits for room as long as {@link Configuration#KEY_TASK_QUEUE_OFFER_TIMEOUT}
+     * says.
+     * 
+     * @param backgroundTask the background task which needs to be performed.
+     * @param workArea the workArea that the device is in. There is one queue
+     *        per work area.
      * @throws FullException the queue for the background tasks for the work
      *         area is already full. The background task was not queued. Try
      *         again later when there are fewer background tasks on the queue of
      *         this work area.
+     * @see #enqueue(BackgroundTask, WorkArea, long)
      */
     public void enqueue(BackgroundTask backgroundTask, WorkArea workArea) throws FullException {
         final String METHOD_NAME = "enqueue(BackgroundTask)"; //$NON-NLS-1$
         logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
                     "enqueuing (non-privileged) BackgroundTask " + backgroundTask + //$NON-NLS-1$
                     " to workArea " + workArea); //$NON-NLS-1$
-        this.queueProcessor.enqueue(backgroundTask, workArea);
+        int timeoutMS = Configuration.getSnapshot().getAsInt(Configuration.KEY_TASK_QUEUE_OFFER_TIMEOUT, 0);
+        if (timeoutMS > 0) {
+            this.queueProcessor.enqueue(backgroundTask, workArea, timeoutMS);
+        } else {
+            this.queueProcessor.enqueue(backgroundTask, workArea);
+        }
+    }
+    
+    /**
+     * Enqueue a BackgroundTask object to be processed by the Manager, waiting
+     * for room if the queue of the work area is full. Otherwise it is the
+     * same as {@link #enqueue(BackgroundTask, WorkArea)}. The wait does not
+     * hold any lock of the Manager, but the caller should not hold a lock that
+     * the queued tasks need, or they cannot run to make room. When called from
+     * a task that the Manager is running, this does not wait.
+     * 
+     * @param backgroundTask the background task which needs to be performed.
+     * @param workArea the workArea that the device is in. There is one queue
+     *        per work area.
+     * @param timeoutMS the number of milliseconds to wait for room
+     * @throws FullException the queue was still full when the time ran out.
+     *         The background task was not queued.
+     */
+    public void enqueue(BackgroundTask backgroundTask, WorkArea workArea, long timeoutMS) 
+    throws FullException {
+        final String METHOD_NAME = "enqueue(BackgroundTask, long)"; //$NON-NLS-1$
+        logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
+                    "enqueuing (non-privileged, " + timeoutMS + "ms) BackgroundTask " + backgroundTask + //$NON-NLS-1$ //$NON-NLS-2$
+                    " to workArea " + workArea); //$NON-NLS-1$
+        this.queueProcessor.enqueue(backgroundTask, workArea, timeoutMS);
     }
     
     void privilegedEnqueue(BackgroundTask backgroundTask, WorkArea workArea) {
@@ -2825,6 +2971,38 @@ public class Manager extends WorkArea implements Persistable {
         }
     }
     
+    /**
+     * Change Manager options while the Manager is running. The options are
+     * checked and merged the same way as the options given to
+     * {@link #getInstance(Map)}. Options that are not in the Map keep their
+     * values, and a value in the properties file still takes precedence. The
+     * daemons pick up new thread pool sizes and intervals straight away, see
+     * {@link Configuration}. Other options take effect when the component
+     * that reads them is next started. A Credential in the Map is ignored.
+     * 
+     * @param options the options to change, keyed by the <code>OPTION_</code>
+     *        constants of this class
+     * @return true if the configuration changed
+     * @throws InvalidParameterException an option has a value of the wrong
+     *         type
+     */
+    public boolean updateOptions(Map<String, ?> options) throws InvalidParameterException {
+        final String METHOD_NAME = "updateOptions"; //$NON-NLS-1$
+        logger.entering(CLASS_NAME, METHOD_NAME);
+        Map<String, Object> checkedOptions = new HashMap<String, Object>();
+        if (options != null) {
+            checkedOptions.putAll(options);
+        }
+        if (!checkedOptions.containsKey(OPTION_CREDENTIAL)) {
+            // checkOptions requires one, it is not used here
+            checkedOptions.put(OPTION_CREDENTIAL, new Credential());
+        }
+        checkOptions(checkedOptions);
+        boolean result = Configuration.updateFromManagerMap(checkedOptions);
+        logger.exiting(CLASS_NAME, METHOD_NAME, Boolean.valueOf(result));
+        return(result);
+    }
+    
     /**
      * Get the sleep interval of the heartbeat daemon in milliseconds.
      * 
@@ -2874,6 +3052,106 @@ public class Manager extends WorkArea implements Persistable {
         return(this.domainSynchDaemon.getIntervalMS());
     }
     
+    /**
+     * Get the scheduler that the DomainSynchronization daemon uses to synchronize
+     * dirty managed domains. The scheduler reports the backlog of domains waiting to 
+     * be synchronized and how long it took them to converge.
+     * 
+     * @return the DomainSynchronizationScheduler, or null if the DomainSynchronization
+     *         daemon is not running
+     * @see DomainSynchronizationScheduler#getBacklog()
+     * @see DomainSynchronizationScheduler#getAverageTimeToConvergeMS()
+     */
+    public DomainSynchronizationScheduler getDomainSynchronizationScheduler() {
+        return(this.internalGetDomainSynchronizationScheduler());
+    }
+    
+    DomainSynchronizationScheduler internalGetDomainSynchronizationScheduler() {
+        DomainSynchronizationDaemon daemon = this.domainSynchDaemon;
+        if (daemon == null) {
+            return(null);
+        }
+        return(daemon.getScheduler());
+    }
+    
+    /**
+     * Get the queue latency and run time counters for heartbeat tasks. These
+     * are kept in both the <code>platform</code> and <code>virtual</code>
+     * values of {@link Configuration#KEY_THREAD_EXECUTION_MODE}.
+     * 
+     * @return the heartbeat task metrics, or null if the heartbeat daemon is
+     *         not running
+     */
+    public TaskMetrics getHeartbeatTaskMetrics() {
+        HeartbeatDaemon daemon = this.heartbeatDaemon;
+        return((daemon == null) ? null : daemon.getMetrics());
+    }
+    
+    /**
+     * Get the queue latency and run time counters for domain synchronization
+     * tasks.
+     * 
+     * @return the domain synchronization task metrics, or null if the
+     *         DomainSynchronization daemon is not running
+     * @see #getHeartbeatTaskMetrics()
+     */
+    public TaskMetrics getDomainSynchronizationTaskMetrics() {
+        DomainSynchronizationDaemon daemon = this.domainSynchDaemon;
+        return((daemon == null) ? null : daemon.getMetrics());
+    }
+    
+    /**
+     * Get the number of carrier threads backing the virtual threads that run
+     * heartbeat, synchronization and event tasks.
+     * 
+     * @return the number of live carrier threads, or 0 if tasks run on
+     *         platform threads
+     * @see Configuration#KEY_THREAD_EXECUTION_MODE
+     * @see ThreadExecutionMode#getCarrierThreadCount()
+     */
+    public int getCarrierThreadCount() {
+        return(ThreadExecutionMode.getCarrierThreadCount());
+    }
+    
+    /**
+     * Get the counters for device notifications: the queue latency is the
+     * time from when the NotificationCatcher queued a notification until the
+     * QueueProcessor picked it up, and the run time is how long processing
+     * it took. Notifications thrown away because their device left its
+     * ManagedSet are counted as discarded.
+     * 
+     * @return the notification metrics of all the ManagedSets
+     * @see #getHeartbeatTaskMetrics()
+     */
+    public TaskMetrics getNotificationTaskMetrics() {
+        return(QueueCollection.getMetrics());
+    }
+    
+    /**
+     * Get the counters for {@link #save(boolean)}. Only the run time is
+     * meaningful, since a save is not queued.
+     * 
+     * @return the repository save metrics
+     * @see #getHeartbeatTaskMetrics()
+     */
+    public TaskMetrics getRepositorySaveTaskMetrics() {
+        return(this.repositorySaveMetrics);
+    }
+    
+    /**
+     * Get the counters for one class of background tasks in the queues of all
+     * the work areas, including how many were refused because a queue was
+     * full and how many were folded into an equal task that was already
+     * waiting.
+     * 
+     * @param priority the class of background tasks
+     * @return the background task metrics
+     * @see #getHeartbeatTaskMetrics()
+     */
+    public TaskMetrics getBackgroundTaskMetrics(TaskPriority priority) {
+        return(BackgroundTaskQueue.getMetrics(priority));
+    }
+    
     /**
      * This should not be used except by JUnit test cases.
      * 
@@ -0,0 +1,169 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.clientAPI;
+
+import java.lang.management.ManagementFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.ibm.datapower.amt.CommandMetrics;
+import com.ibm.datapower.amt.Constants;
+import com.ibm.datapower.amt.TaskMetrics;
+import com.ibm.datapower.amt.logging.LoggerHelper;
+
+/**
+ * Publishes the Manager's measurements on the platform MBean server, and keeps
+ * the collection of command metrics in step with
+ * {@link Configuration#KEY_METRICS_ENABLED}. The Manager creates one of these
+ * when it starts and shuts it down when it stops.
+ * <p>
+ *
+ * @see ManagerMetricsMXBean
+ */
+class ManagerMetrics implements ManagerMetricsMXBean {
+
+    static final String OBJECT_NAME = "com.ibm.datapower.amt:type=Manager,name=Metrics"; //$NON-NLS-1$
+
+    private final Manager manager;
+    private volatile ObjectName objectName = null;
+
+    private final Configuration.Listener configurationListener = new Configuration.Listener() {
+        public void configurationChanged(Configuration.Snapshot previous, Configuration.Snapshot current) {
+            if (current.isChanged(previous, Configuration.KEY_METRICS_ENABLED)) {
+                CommandMetrics.setEnabled(current.getAsBoolean(Configuration.KEY_METRICS_ENABLED));
+            }
+        }
+    };
+
+    public static final String COPYRIGHT_2009_2013 = Constants.COPYRIGHT_2009_2013;
+
+    private static final String CLASS_NAME = ManagerMetrics.class.getName();
+    protected final static Logger logger = Logger.getLogger(CLASS_NAME);
+    static {
+        LoggerHelper.addLoggerToGroup(logger, Manager.getLoggerGroupName());
+    }
+
+    ManagerMetrics(Manager manager) {
+        this.manager = manager;
+    }
+
+    /**
+     * Apply the configured collection setting and register with the platform
+     * MBean server, replacing the bean of an earlier Manager if it is still
+     * there. Failing to register is logged but does not stop the Manager.
+     */
+    void startup() {
+        final String METHOD_NAME = "startup"; //$NON-NLS-1$
+        logger.entering(CLASS_NAME, METHOD_NAME);
+
+        CommandMetrics.setEnabled(Configuration.getSnapshot().getAsBoolean(Configuration.KEY_METRICS_ENABLED));
+        Configuration.addListener(this.configurationListener);
+
+        try {
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(this, name);
+            this.objectName = name;
+        } catch (JMException e) {
+            logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
+                    "Unable to register " + OBJECT_NAME, e); //$NON-NLS-1$
+        } catch (SecurityException e) {
+            logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
+                    "Not permitted to register " + OBJECT_NAME, e); //$NON-NLS-1$
+        }
+
+        logger.exiting(CLASS_NAME, METHOD_NAME);
+    }
+
+    /**
+     * Unregister from the platform MBean server and stop following the
+     * configuration. The counters and the collection setting are left as they
+     * are, since the commands can still be used without a Manager.
+     */
+    void shutdown() {
+        final String METHOD_NAME = "shutdown"; //$NON-NLS-1$
+        logger.entering(CLASS_NAME, METHOD_NAME);
+
+        Configuration.removeListener(this.configurationListener);
+
+        ObjectName name = this.objectName;
+        this.objectName = null;
+        if (name != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            } catch (JMException e) {
+                // a later Manager may have replaced it already
+                logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME,
+                        "Unable to unregister " + OBJECT_NAME, e); //$NON-NLS-1$
+            }
+        }
+
+        logger.exiting(CLASS_NAME, METHOD_NAME);
+    }
+
+    public boolean isEnabled() {
+        return(CommandMetrics.isEnabled());
+    }
+
+    public void setEnabled(boolean enabled) {
+        CommandMetrics.setEnabled(enabled);
+    }
+
+    public CommandMetrics[] getCommandMetrics() {
+        return(CommandMetrics.listAll());
+    }
+
+    public TaskMetrics getHeartbeatTaskMetrics() {
+        return(this.manager.getHeartbeatTaskMetrics());
+    }
+
+    public TaskMetrics getDomainSynchronizationTaskMetrics() {
+        return(this.manager.getDomainSynchronizationTaskMetrics());
+    }
+
+    public int getCarrierThreadCount() {
+        return(this.manager.getCarrierThreadCount());
+    }
+
+    public TaskMetrics getNotificationTaskMetrics() {
+        return(this.manager.getNotificationTaskMetrics());
+    }
+
+    public TaskMetrics getRepositorySaveTaskMetrics() {
+        return(this.manager.getRepositorySaveTaskMetrics());
+    }
+
+    public TaskMetrics getInteractiveTaskMetrics() {
+        return(this.manager.getBackgroundTaskMetrics(TaskPriority.INTERACTIVE));
+    }
+
+    public TaskMetrics getAutomaticTaskMetrics() {
+        return(this.manager.getBackgroundTaskMetrics(TaskPriority.AUTOMATIC));
+    }
+
+    public void resetCommandMetrics() {
+        CommandMetrics.reset();
+    }
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.clientAPI;
+
+import com.ibm.datapower.amt.CommandMetrics;
+import com.ibm.datapower.amt.TaskMetrics;
+
+/**
+ * The measurements the Manager keeps about the work it does, published on the
+ * platform MBean server under the name
+ * <code>com.ibm.datapower.amt:type=Manager,name=Metrics</code> while the
+ * Manager is running. A JMX console such as jconsole shows each counter set as
+ * a composite value.
+ * <p>
+ * Command metrics are collected only while
+ * {@link Configuration#KEY_METRICS_ENABLED} is true or {@link #setEnabled(boolean)}
+ * turns them on. The task metrics are always kept.
+ */
+public interface ManagerMetricsMXBean {
+
+    /**
+     * @return true if the latency and size of AMP and SOMA commands are being
+     *         measured
+     */
+    boolean isEnabled();
+
+    /**
+     * Turn the measurement of AMP and SOMA commands on or off until the next
+     * change to {@link Configuration#KEY_METRICS_ENABLED}.
+     *
+     * @param enabled true to measure commands
+     */
+    void setEnabled(boolean enabled);
+
+    /**
+     * @return the counters of each command sent to each device, sorted by
+     *         device and then command
+     */
+    CommandMetrics[] getCommandMetrics();
+
+    /**
+     * @return the heartbeat task counters, or null if the heartbeat daemon is
+     *         not running
+     * @see Manager#getHeartbeatTaskMetrics()
+     */
+    TaskMetrics getHeartbeatTaskMetrics();
+
+    /**
+     * @return the domain synchronization task counters, or null if the
+     *         DomainSynchronization daemon is not running
+     * @see Manager#getDomainSynchronizationTaskMetrics()
+     */
+    TaskMetrics getDomainSynchronizationTaskMetrics();
+
+    /**
+     * @return the number of carrier threads running virtual threads, or 0 if
+     *         tasks run on platform threads
+     * @see Manager#getCarrierThreadCount()
+     */
+    int getCarrierThreadCount();
+
+    /**
+     * @return the time device notifications waited to be processed and the
+     *         time it took to process them
+     * @see Manager#getNotificationTaskMetrics()
+     */
+    TaskMetrics getNotificationTaskMetrics();
+
+    /**
+     * @return the time it took to save the repository
+     * @see Manager#getRepositorySaveTaskMetrics()
+     */
+    TaskMetrics getRepositorySaveTaskMetrics();
+
+    /**
+     * @return the counters of the background tasks users asked for
+     * @see Manager#getBackgroundTaskMetrics(TaskPriority)
+     */
+    TaskMetrics getInteractiveTaskMetrics();
+
+    /**
+     * @return the counters of the background tasks the Manager queued on its
+     *         own
+     * @see Manager#getBackgroundTaskMetrics(TaskPriority)
+     */
+    TaskMetrics getAutomaticTaskMetrics();
+
+    /**
+     * Discard the command counters collected so far.
+     */
+    void resetCommandMetrics();
+}
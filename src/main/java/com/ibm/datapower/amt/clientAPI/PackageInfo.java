@@ -57,6 +57,7 @@ public class PackageInfo extends AbstractPackageInfo {
 		this.add(AddFirmwareTask.class);
 		this.add(AlreadyExistsException.class);
 		this.add(BackgroundTask.class);
+		this.add(BackgroundTaskQueue.class);
 		this.add(Blob.class);
 		this.add(ClientAPIException.class);
         this.add(Configuration.class);
@@ -67,16 +68,20 @@ public class PackageInfo extends AbstractPackageInfo {
 		this.add(DeploymentPolicy.class);
 		this.add(DeploymentPolicyVersion.class);
 		this.add(Device.class);
+		this.add(DeviceIndex.class);
+		this.add(DeviceTaskLimiter.class);
 		this.add(DeviceTypeIncompatibilityException.class);
 		this.add(Domain.class);
 		this.add(DomainSynchronizationDaemon.class);
 		this.add(DomainSynchronizationMode.class);
 		this.add(DomainSynchronizationQueue.class);
+		this.add(DomainSynchronizationScheduler.class);
 		this.add(DomainSynchronizationTask.class);
 		this.add(DomainVersion.class);
         this.add(ExportAllTask.class);
 		this.add(FeaturesNotEqualException.class);
 		this.add(Firmware.class);
+		this.add(FirmwareCatalog.class);
 		this.add(FirmwareVersion.class);
 		this.add(FullException.class);
 		this.add(GetDiffURLTask.class);
@@ -95,6 +100,8 @@ public class PackageInfo extends AbstractPackageInfo {
 		this.add(ManagedSet.class);
 		this.add(ManagementStatus.class);
 		this.add(Manager.class);
+		this.add(ManagerMetrics.class);
+		this.add(ManagerMetricsMXBean.class);
         this.add(ManagerStatus.class);
 		this.add(MissingFeaturesInFirmwareException.class);
 		this.add(ModelTypeIncompatibilityException.class);
@@ -113,10 +120,12 @@ public class PackageInfo extends AbstractPackageInfo {
         this.add(SetFirmwareVersionTask.class);
 //        this.add(SetVersionsDirectoryTask.class);
         this.add(ShutdownException.class);
+        this.add(SignalDispatcher.class);
         this.add(Signaler.class);
 		this.add(SubscribeTask.class);
 		this.add(SubscriptionToAnotherManagerException.class);
 		this.add(Task.class);
+		this.add(TaskPriority.class);
 		this.add(UndeployableVersionException.class);
 		this.add(UnlicensedFeaturesInFirmwareException.class);
         this.add(UnsubscribeAllTask.class);
@@ -18,9 +18,10 @@
 
 package com.ibm.datapower.amt.clientAPI;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Vector;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -35,6 +36,7 @@ import com.ibm.datapower.amt.dataAPI.StoredDomainVersion;
 import com.ibm.datapower.amt.dataAPI.StoredFirmware;
 import com.ibm.datapower.amt.dataAPI.StoredFirmwareVersion;
 import com.ibm.datapower.amt.dataAPI.StoredManagedSet;
+import com.ibm.datapower.amt.dataAPI.StoredVersion;
 import com.ibm.datapower.amt.logging.LoggerHelper;
 
 /**
@@ -81,8 +83,15 @@ import com.ibm.datapower.amt.logging.LoggerHelper;
  * object is captured here. Invoke the <code>remove</code> method here when
  * objects are deleted.
  * <p>
- * In the HashMap, the key is the dataAPI object and the value is the clientAPI
- * object
+ * In the maps, the key is the dataAPI object and the value is the clientAPI
+ * object. The Stored* classes don't override <code>equals</code> or 
+ * <code>hashCode</code>, so the maps are identity maps.
+ * <p>
+ * The heartbeat, domain synchronization, notification and user threads all 
+ * use this mapper concurrently, and <code>getVia</code> is on nearly every 
+ * path through the clientAPI. So the maps are ConcurrentHashMaps: lookups 
+ * don't take a lock and always see the result of a completed 
+ * <code>add</code> or <code>remove</code>, and adds and removes are atomic.
  * <p>
  * Should have a Map and corresponding methods here for every class that
  * implements Persistable.
@@ -96,15 +105,19 @@ import com.ibm.datapower.amt.logging.LoggerHelper;
 class PersistenceMapper {
     private volatile static PersistenceMapper singleton = null;
     
-    private volatile Map deviceMap = null;
-    private volatile Map domainMap = null;
-    private volatile Map domainVersionMap = null;
-    private volatile Map deploymentPolicyMap = null;
-    private volatile Map deploymentPolicyVersionMap = null;
-    private volatile Map firmwareMap = null;
-    private volatile Map firmwareVersionMap = null;
-    private volatile Map managedSetMap = null;
-    private volatile Map managerMap = null;
+    private final ConcurrentMap<Object, Object> deviceMap;
+    private final ConcurrentMap<Object, Object> domainMap;
+    private final ConcurrentMap<Object, Object> domainVersionMap;
+    private final ConcurrentMap<Object, Object> deploymentPolicyMap;
+    private final ConcurrentMap<Object, Object> deploymentPolicyVersionMap;
+    private final ConcurrentMap<Object, Object> firmwareMap;
+    private final ConcurrentMap<Object, Object> firmwareVersionMap;
+    private final ConcurrentMap<Object, Object> managedSetMap;
+    private final ConcurrentMap<Object, Object> managerMap;
+    private final FirmwareCatalog firmwareCatalog;
+    private final DeviceIndex deviceIndex;
+    /* the Domains and DeploymentPolicies whose versions have all been created */
+    private final Set<Object> materialized;
     
     /* flag to suppress misleading trace messages - defect 13242 */
     private volatile boolean initialised = false;
@@ -118,22 +131,32 @@ class PersistenceMapper {
     }
 
     private PersistenceMapper() {
-        this.deviceMap = new HashMap(); 
-        this.domainMap = new HashMap(); 
-        this.domainVersionMap = new HashMap(); 
-        this.deploymentPolicyMap = new HashMap(); 
-        this.deploymentPolicyVersionMap = new HashMap(); 
-        this.firmwareMap = new HashMap(); 
-        this.firmwareVersionMap = new HashMap(); 
-        this.managedSetMap = new HashMap(); 
-        this.managerMap = new HashMap();
+        this.deviceMap = new ConcurrentHashMap<Object, Object>(); 
+        this.domainMap = new ConcurrentHashMap<Object, Object>(); 
+        this.domainVersionMap = new ConcurrentHashMap<Object, Object>(); 
+        this.deploymentPolicyMap = new ConcurrentHashMap<Object, Object>(); 
+        this.deploymentPolicyVersionMap = new ConcurrentHashMap<Object, Object>(); 
+        this.firmwareMap = new ConcurrentHashMap<Object, Object>(); 
+        this.firmwareVersionMap = new ConcurrentHashMap<Object, Object>(); 
+        this.managedSetMap = new ConcurrentHashMap<Object, Object>(); 
+        this.managerMap = new ConcurrentHashMap<Object, Object>();
+        this.firmwareCatalog = new FirmwareCatalog();
+        this.deviceIndex = new DeviceIndex();
+        this.materialized = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
     }
     
     static PersistenceMapper getInstance() {
-        if (singleton == null) {
-            singleton = new PersistenceMapper();
+        PersistenceMapper result = singleton;
+        if (result == null) {
+            synchronized (PersistenceMapper.class) {
+                result = singleton;
+                if (result == null) {
+                    result = new PersistenceMapper();
+                    singleton = result;
+                }
+            }
         }
-        return(singleton);
+        return(result);
     }
     
     void destroy() {
@@ -146,11 +169,14 @@ class PersistenceMapper {
         firmwareVersionMap.clear();
         managedSetMap.clear();
         managerMap.clear();
+        firmwareCatalog.clear();
+        deviceIndex.clear();
+        materialized.clear();
     }
 
-    private void genericAdd(Object key, Object value, Map map) {
+    private void genericAdd(Object key, Object value, ConcurrentMap<Object, Object> map) {
         final String METHOD_NAME = "genericAdd"; //$NON-NLS-1$
-        if (key != null) {
+        if ((key != null) && (value != null)) {
             if (value instanceof Persistable) {
                 Persistable persistable = (Persistable) value;
                 try {
@@ -179,6 +205,9 @@ class PersistenceMapper {
     
     void add(StoredDevice storedDevice, Device device) {
         this.genericAdd(storedDevice, device, this.deviceMap);
+        if ((storedDevice != null) && (device != null)) {
+            this.deviceIndex.add(device);
+        }
     }
     
     void add(StoredDomain storedDomain, Domain domain) {
@@ -199,10 +228,16 @@ class PersistenceMapper {
 
     void add(StoredFirmware storedFirmware, Firmware firmware) {
         this.genericAdd(storedFirmware, firmware, this.firmwareMap);
+        if ((storedFirmware != null) && (firmware != null)) {
+            this.firmwareCatalog.add(firmware);
+        }
     }
 
     void add(StoredFirmwareVersion storedFirmwareVersion, FirmwareVersion firmwareVersion) {
         this.genericAdd(storedFirmwareVersion, firmwareVersion, this.firmwareVersionMap);
+        if ((storedFirmwareVersion != null) && (firmwareVersion != null)) {
+            this.firmwareCatalog.addVersion(firmwareVersion);
+        }
     }
 
     void add(StoredManagedSet storedManagedSet, ManagedSet managedSet) {
@@ -215,7 +250,7 @@ class PersistenceMapper {
   
     //////////////////////////////////////////////////////////////////////////////////
     
-    private Object genericGetViaKey(Object key, Map map) throws DeletedException {
+    private Object genericGetViaKey(Object key, ConcurrentMap<Object, Object> map) throws DeletedException {
         final String METHOD_NAME = "genericGetViaKey"; //$NON-NLS-1$
         Object result = null;
         if (key != null) {
@@ -242,20 +277,101 @@ class PersistenceMapper {
     }
     
     DomainVersion getVia(StoredDomainVersion storedDomainVersion) throws DeletedException {
+        if ((storedDomainVersion != null) && !this.domainVersionMap.containsKey(storedDomainVersion)) {
+            this.materialize(storedDomainVersion.getDomain());
+        }
         Object object = genericGetViaKey(storedDomainVersion, this.domainVersionMap);
         return((DomainVersion) object);
     }
     
     DeploymentPolicy getVia(StoredDeploymentPolicy storedDeploymentPolicy) throws DeletedException {
+        if ((storedDeploymentPolicy != null) && !this.deploymentPolicyMap.containsKey(storedDeploymentPolicy)) {
+            this.materialize(storedDeploymentPolicy.getDomain());
+        }
         Object object = genericGetViaKey(storedDeploymentPolicy, this.deploymentPolicyMap);
         return((DeploymentPolicy) object);
     }
     
     DeploymentPolicyVersion getVia(StoredDeploymentPolicyVersion storedDeploymentPolicyVersion) throws DeletedException {
+        if ((storedDeploymentPolicyVersion != null) && 
+            !this.deploymentPolicyVersionMap.containsKey(storedDeploymentPolicyVersion)) {
+            this.materialize(storedDeploymentPolicyVersion.getDeploymentPolicy());
+        }
         Object object = genericGetViaKey(storedDeploymentPolicyVersion, this.deploymentPolicyVersionMap);
         return((DeploymentPolicyVersion) object);
     }
     
+    /*
+     * Manager.loadFromDatastore creates the Domains but not their
+     * DeploymentPolicies or version histories, which are most of a repository
+     * and are rarely all used. They are created here the first time one of
+     * them is asked for or removed. All the children of a Domain or
+     * DeploymentPolicy are created at once and the container is remembered,
+     * so afterwards a child that is not in its map really has been deleted
+     * and is never brought back. Nothing is created for a container that is
+     * no longer in the mapper.
+     */
+    private void materialize(StoredDomain storedDomain) {
+        final String METHOD_NAME = "materialize(StoredDomain)"; //$NON-NLS-1$
+        if ((storedDomain == null) || !this.domainMap.containsKey(storedDomain)) {
+            return;
+        }
+        synchronized (this.materialized) {
+            if (!this.materialized.add(storedDomain)) {
+                return;
+            }
+            StoredDeploymentPolicy storedDeploymentPolicy = storedDomain.getDeploymentPolicy();
+            if ((storedDeploymentPolicy != null) && 
+                !this.deploymentPolicyMap.containsKey(storedDeploymentPolicy)) {
+                new DeploymentPolicy(storedDeploymentPolicy);
+            }
+            StoredVersion[] storedVersions = storedDomain.getVersions();
+            int count = 0;
+            for (int i=0; i<storedVersions.length; i++) {
+                if (!this.domainVersionMap.containsKey(storedVersions[i])) {
+                    new DomainVersion((StoredDomainVersion) storedVersions[i]);
+                    count++;
+                }
+            }
+            logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME,
+                        "created " + count + " DomainVersions of " + storedDomain); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+    }
+    
+    private void materialize(StoredDeploymentPolicy storedDeploymentPolicy) {
+        final String METHOD_NAME = "materialize(StoredDeploymentPolicy)"; //$NON-NLS-1$
+        if (storedDeploymentPolicy == null) {
+            return;
+        }
+        this.materialize(storedDeploymentPolicy.getDomain());
+        if (!this.deploymentPolicyMap.containsKey(storedDeploymentPolicy)) {
+            return;
+        }
+        synchronized (this.materialized) {
+            if (!this.materialized.add(storedDeploymentPolicy)) {
+                return;
+            }
+            StoredDeploymentPolicyVersion[] storedVersions = storedDeploymentPolicy.getVersions();
+            int count = 0;
+            for (int i=0; i<storedVersions.length; i++) {
+                if (!this.deploymentPolicyVersionMap.containsKey(storedVersions[i])) {
+                    new DeploymentPolicyVersion(storedVersions[i]);
+                    count++;
+                }
+            }
+            logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME,
+                        "created " + count + " DeploymentPolicyVersions of " + storedDeploymentPolicy); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+    }
+
+    /**
+     * @param storedContainer a StoredDomain or StoredDeploymentPolicy
+     * @return true if the versions of the container have been created
+     */
+    boolean isMaterialized(Object storedContainer) {
+        return(this.materialized.contains(storedContainer));
+    }
+
     Firmware getVia(StoredFirmware storedFirmware) throws DeletedException {
         Object object = genericGetViaKey(storedFirmware, this.firmwareMap);
         return((Firmware) object);
@@ -276,12 +392,42 @@ class PersistenceMapper {
         return((Manager) object);
     }
     
+    /**
+     * Get the index of the Firmware and FirmwareVersion objects in this
+     * mapper, which is kept up to date by the <code>add</code> and
+     * <code>remove</code> methods for those classes.
+     * 
+     * @return the firmware catalog
+     */
+    FirmwareCatalog getFirmwareCatalog() {
+        return(this.firmwareCatalog);
+    }
+    
+    /**
+     * Get the index of the Device objects in this mapper. It is kept up to
+     * date by the <code>add</code> and <code>remove</code> methods for
+     * Device, and by {@link DeviceIndex#update(Device)} when a Device's
+     * ManagedSet membership or feature licenses change.
+     * 
+     * @return the device index
+     */
+    DeviceIndex getDeviceIndex() {
+        return(this.deviceIndex);
+    }
+    
     //////////////////////////////////////////////////////////////////////////////////
     
-    private void genericRemove(Object key, Map map) {
+    private void genericRemove(Object key, ConcurrentMap<Object, Object> map) {
         final String METHOD_NAME = "genericRemove"; //$NON-NLS-1$
-        Object object = map.get(key);
-        if (object instanceof Persistable) {
+        if (key == null) {
+            return;
+        }
+        Object object = map.remove(key);
+        if (object == null) {
+            logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
+                        "duplicate attempt to put object with key " +  //$NON-NLS-1$
+                        key + " into trash"); //$NON-NLS-1$
+        } else if (object instanceof Persistable) {
             Persistable persistable = (Persistable) object;
             try {
                 logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME,
@@ -299,35 +445,64 @@ class PersistenceMapper {
                         "putting " + object.getClass().getName() + //$NON-NLS-1$
                         " with key " + key + " into trash"); //$NON-NLS-1$ //$NON-NLS-2$
         }
-        map.remove(key);
     }
     
     void remove(StoredDevice storedDevice) {
+        Object device = (storedDevice == null) ? null : this.deviceMap.get(storedDevice);
         genericRemove(storedDevice, this.deviceMap);
+        if (device != null) {
+            this.deviceIndex.remove((Device) device);
+        }
     }
     
     void remove(StoredDomain storedDomain) {
         genericRemove(storedDomain, this.domainMap);
+        if (storedDomain != null) {
+            this.materialized.remove(storedDomain);
+        }
     }
 
     void remove(StoredDomainVersion storedDomainVersion) {
+        // create the siblings first, so this one can't be created again
+        if (storedDomainVersion != null) {
+            this.materialize(storedDomainVersion.getDomain());
+        }
         genericRemove(storedDomainVersion, this.domainVersionMap);
     }
     
     void remove(StoredDeploymentPolicy storedDeploymentPolicy) {
+        // create the siblings first, so this one can't be created again
+        if (storedDeploymentPolicy != null) {
+            this.materialize(storedDeploymentPolicy.getDomain());
+        }
         genericRemove(storedDeploymentPolicy, this.deploymentPolicyMap);
+        if (storedDeploymentPolicy != null) {
+            this.materialized.remove(storedDeploymentPolicy);
+        }
     }
 
     void remove(StoredDeploymentPolicyVersion storedDeploymentPolicyVersion) {
+        // create the siblings first, so this one can't be created again
+        if (storedDeploymentPolicyVersion != null) {
+            this.materialize(storedDeploymentPolicyVersion.getDeploymentPolicy());
+        }
         genericRemove(storedDeploymentPolicyVersion, this.deploymentPolicyVersionMap);
     }
     
     void remove(StoredFirmware storedFirmware) {
+        Object firmware = (storedFirmware == null) ? null : this.firmwareMap.get(storedFirmware);
         genericRemove(storedFirmware, this.firmwareMap);
+        if (firmware != null) {
+            this.firmwareCatalog.remove((Firmware) firmware);
+        }
     }
     
     void remove(StoredFirmwareVersion storedFirmwareVersion) {
+        Object firmwareVersion = (storedFirmwareVersion == null) ? null : this.firmwareVersionMap.get(storedFirmwareVersion);
         genericRemove(storedFirmwareVersion, this.firmwareVersionMap);
+        if (firmwareVersion != null) {
+            this.firmwareCatalog.removeVersion((FirmwareVersion) firmwareVersion);
+        }
     }
     
     void remove(StoredManagedSet storedManagedSet) {
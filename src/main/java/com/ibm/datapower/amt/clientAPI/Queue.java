@@ -135,17 +135,35 @@ public class Queue {
      */
     synchronized public Object removeQuick() throws NotExistException {
         final String METHOD_NAME = "removeQuick"; //$NON-NLS-1$
+        Object result = this.poll();
+        if (result == null) {
+            // an empty queue is expected, so keep the exception cheap
+            NotExistException e = new NotExistException("wamt.clientAPI.Queue.queueEmpty", //$NON-NLS-1$
+                    new Object[] {Thread.currentThread().getName()}, false);
+            logger.throwing(CLASS_NAME, METHOD_NAME, e);
+            throw(e);
+        }
+        return(result);
+    }
+    
+    /**
+     * Remove an object from the queue without blocking and without throwing
+     * an exception if the Queue is empty.
+     * 
+     * @return the oldest object on the Queue (FIFO), or null if the Queue is
+     *         empty
+     * @see #removeQuick()
+     */
+    synchronized Object poll() {
+        final String METHOD_NAME = "poll"; //$NON-NLS-1$
         Object result = null;
         if (this.vector.size() > 0) {
             result = this.vector.remove(0);
-            logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME,
-                        "thread " + Thread.currentThread().getName() + //$NON-NLS-1$
-                        " removed from queue: " + result); //$NON-NLS-1$
-        } else {
-            String message = Messages.getString("wamt.clientAPI.Queue.queueEmpty",Thread.currentThread().getName());
-            NotExistException e = new NotExistException(message,"wamt.clientAPI.Queue.queueEmpty",Thread.currentThread().getName());
-            logger.throwing(CLASS_NAME, METHOD_NAME, e);
-            throw(e);
+            if (logger.isLoggable(Level.FINER)) {
+                logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME,
+                            "thread " + Thread.currentThread().getName() + //$NON-NLS-1$
+                            " removed from queue: " + result); //$NON-NLS-1$
+            }
         }
         return(result);
     }
@@ -28,6 +28,7 @@ import java.util.Vector;
 import java.util.logging.Logger;
 
 import com.ibm.datapower.amt.Constants;
+import com.ibm.datapower.amt.TaskMetrics;
 import com.ibm.datapower.amt.amp.Notification;
 import com.ibm.datapower.amt.logging.LoggerHelper;
 
@@ -62,6 +63,11 @@ public class QueueCollection {
 
     Map deviceQueues = null;
     Vector arrivalSequence = null;
+    // the time each entry of arrivalSequence was added, from TaskMetrics
+    Vector<Long> arrivalTimes = null;
+
+    // shared by the queues of all the ManagedSets
+    private static final TaskMetrics metrics = new TaskMetrics("Notification"); //$NON-NLS-1$
     
     protected static final String CLASS_NAME = QueueCollection.class.getName();
     protected final static Logger logger = Logger.getLogger(CLASS_NAME);
@@ -74,6 +80,7 @@ public class QueueCollection {
     QueueCollection() {
         deviceQueues = new HashMap();
         arrivalSequence = new Vector();
+        arrivalTimes = new Vector<Long>();
     }
    
     /**
@@ -105,6 +112,7 @@ public class QueueCollection {
         deviceQueue.add(sequenceNumber, notification);
         // indicate the order of which queue had an notification
         arrivalSequence.add(deviceQueue);
+        arrivalTimes.add(Long.valueOf(metrics.taskSubmitted()));
     }
     
     /**
@@ -163,13 +171,13 @@ public class QueueCollection {
         for (int i=0; i<this.arrivalSequence.size(); i++) {
             ReorderableQueue queue = (ReorderableQueue) this.arrivalSequence.get(i);
             if (!queue.isEmpty()) {
-                try {
-                    result = queue.removeQuick();
+                // a queue waiting for an out-of-sequence item is common, so don't use exceptions
+                result = queue.removeIfReady();
+                if (result != null) {
                     this.arrivalSequence.remove(i);
+                    long submittedAt = this.arrivalTimes.remove(i).longValue();
+                    result.setStartedAt(metrics.taskStarted(submittedAt));
                     break;
-                } catch (NotExistException e) {
-                    result = null;
-                    continue;
                 }
             }
         }
@@ -208,13 +216,39 @@ public class QueueCollection {
             String serialNumber = keys[i];
             if (!seen.contains(serialNumber)) {
                 ReorderableQueue deviceQueue = (ReorderableQueue) this.deviceQueues.remove(serialNumber);
-                while (this.arrivalSequence.contains(deviceQueue)) {
-                    this.arrivalSequence.remove(deviceQueue);
+                int index;
+                while ((index = this.arrivalSequence.indexOf(deviceQueue)) >= 0) {
+                    this.arrivalSequence.remove(index);
+                    this.arrivalTimes.remove(index);
+                    metrics.taskDiscarded();
                 }
             }
         }
     }
 
+    /**
+     * Record that a Notification returned by {@link #removeQuick()} has been
+     * processed or thrown away.
+     * 
+     * @param sequencedObject
+     *            the item returned by <code>removeQuick()</code>
+     */
+    static void finished(ReorderableQueue.SequencedObject sequencedObject) {
+        if ((sequencedObject != null) && (sequencedObject.getStartedAt() != 0)) {
+            metrics.taskFinished(sequencedObject.getStartedAt());
+        }
+    }
+
+    /**
+     * Get the queue latency and processing time counters of the Notifications
+     * of all the ManagedSets.
+     * 
+     * @return the Notification metrics
+     */
+    static TaskMetrics getMetrics() {
+        return(metrics);
+    }
+
     /**
      * See {@link WorkArea#setReorderingWindowSizeMS(long)}.
      * 
@@ -59,6 +59,8 @@ class QueueProcessor implements Runnable {
     private boolean shutdownRequested = false;
     // a Collection that I want to reuse instead of creating on each loop
     private Vector workAreas = null;
+    // where waitForTask() starts looking, so each WorkArea gets its turn
+    private int nextWorkArea = 0;
     private Thread thread = null;
     private String activeMethodName = null;
     public static final String COPYRIGHT_2009_2013 = Constants.COPYRIGHT_2009_2013;
@@ -184,12 +186,7 @@ class QueueProcessor implements Runnable {
 
                 // get all items from the BackgroundTask Queue
                 while (!workArea.isBackgroundTaskQueueEmpty()) {
-                    Object object = null;
-                    try {
-                        object = workArea.backgroundTaskQueueRemoveQuick();
-                    } catch (NotExistException e1) {
-                        object = null;
-                    }
+                    Object object = workArea.backgroundTaskQueuePoll();
                     if ((object != null) && (object instanceof BackgroundTask)) {
                         BackgroundTask backgroundTask = (BackgroundTask) object;
                         // we do want an UnsubscribeAll to run so there is a clean exit
@@ -218,6 +215,7 @@ class QueueProcessor implements Runnable {
                             progressContainer.setError(shutdownException);
                             // clean up the task since we aren't invoking execute()
                             backgroundTask.cleanup();
+                            BackgroundTaskQueue.finished(backgroundTask);
                         }
                     }
                 }
@@ -234,7 +232,7 @@ class QueueProcessor implements Runnable {
                  * sufficient.
                  */
                 while (!workArea.isNotificationQueueEmpty()) {
-                    workArea.notificationQueueRemoveQuick();
+                    QueueCollection.finished(workArea.notificationQueueRemoveQuick());
                 }
             }
         }
@@ -275,6 +273,24 @@ class QueueProcessor implements Runnable {
         this.notifyAll();
     }
     
+    /**
+     * Like {@link #enqueue(BackgroundTask, WorkArea)}, but wait up to a time
+     * limit for room if the queue is full. This is not synchronized, because
+     * this thread has to be able to take tasks off the queue while the caller
+     * waits.
+     */
+    void enqueue(BackgroundTask backgroundTask, WorkArea workArea, long timeoutMS) 
+    throws FullException {
+        if (Thread.currentThread() == this.thread) {
+            // only this thread can make room, so waiting would be pointless
+            timeoutMS = 0;
+        }
+        workArea.internalEnqueue(backgroundTask, timeoutMS);
+        synchronized (this) {
+            this.notifyAll();
+        }
+    }
+    
     synchronized void privilegedEnqueue(BackgroundTask backgroundTask, WorkArea workArea) {
         workArea.internalPrivilegedEnqueue(backgroundTask);
         this.notifyAll();
@@ -308,35 +324,32 @@ class QueueProcessor implements Runnable {
         outer: while ((result == null) && (!this.shutdownRequested)) {
             // the list of workAreas can change while waiting, so rebuild the list
             this.determineWorkAreas();
-            // look for BackgroundTask
-            Iterator iterator = this.workAreas.iterator();
-            inner: while (iterator.hasNext()) {
-                WorkArea workArea = (WorkArea) iterator.next();
-                
-                /*
-                 * Note that for each WorkArea, we look for one BackgroundTask,
-                 * and if none found then look for one Notification. This has
-                 * the effect of giving each WorkArea an equal chance to get one
-                 * thing done before going on to the next WorkArea, so that a
-                 * single WorkArea with a long queue doesn't hog the system. It
-                 * also places BackgroundTasks as a higher priority than
-                 * Notifications.
-                 */
-                
-                // look for something on the BackgroundTask Queue
-                if ((result == null) && 
-                        (!workArea.isBackgroundTaskQueueEmpty()) &&
-                        (!this.shutdownRequested)) {
-                    Object object = null;
-                    // pull the item from the Queue so it can be executed
-                    try {
-                        object = workArea.backgroundTaskQueueRemoveQuick();
-                    } catch (NotExistException e1) {
-                        // wow, this shouldn't happen, we just checked
-                        logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME, 
-                            "BackgroundTask queue was not empty but now it is"); //$NON-NLS-1$
-                        // just check again
+            int count = this.workAreas.size();
+
+            /*
+             * Look in every WorkArea for a BackgroundTask, INTERACTIVE ones
+             * first, before looking in any of them for a Notification. That
+             * way a burst of Notifications for one WorkArea can not hold up the
+             * tasks that users queued in another. Each scan starts after the
+             * WorkArea that was served last, which gives each WorkArea an equal
+             * chance to get one thing done before going on to the next
+             * WorkArea, so that a single WorkArea with a long queue doesn't hog
+             * the system. It also places BackgroundTasks as a higher priority
+             * than Notifications.
+             */
+            TaskPriority[] priorities = TaskPriority.values();
+            inner: for (int p=0; p<priorities.length; p++) {
+                for (int i=0; i<count; i++) {
+                    int index = (this.nextWorkArea + i) % count;
+                    WorkArea workArea = (WorkArea) this.workAreas.get(index);
+                    if (this.shutdownRequested) {
+                        break inner;
+                    }
+                    if (!workArea.hasBackgroundTasks(priorities[p])) {
+                        continue;
                     }
+                    // pull the item from the Queue so it can be executed
+                    Object object = workArea.backgroundTaskQueuePoll();
                     if (object instanceof BackgroundTask) {
                         logger.log(Level.FINE, 
                                 "Popped " +  //$NON-NLS-1$
@@ -344,36 +357,42 @@ class QueueProcessor implements Runnable {
                                 " from BackgroundTask queue: " + //$NON-NLS-1$ 
                                 workArea);
                         result = object; 
+                        this.nextWorkArea = index + 1;
                         break inner;
                     } else {
+                        // the queue was not empty but now it is, just check again
                         logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME, 
-                                "object is not instanceof BackgroundTask: " + object); //$NON-NLS-1$
-                        /*
-                         * This is a potential deadlock situation, because
-                         * we have received a work request that we don't
-                         * know how to complete, and the sender is probably
-                         * waiting for a result that we will never return to
-                         * them. Oh, what to do, what to do?
-                         */
+                            "BackgroundTask queue was not empty but now it is"); //$NON-NLS-1$
                     }
                 }
-                
-                // look for something on the Notification Queue if no result thus far
-                if ((result == null) && 
-                        (!workArea.isNotificationQueueEmpty()) &&
-                        (!this.shutdownRequested)) {
+            }
+
+            // look for something on the Notification Queues if no result thus far
+            if (result == null) {
+                for (int i=0; i<count; i++) {
+                    int index = (this.nextWorkArea + i) % count;
+                    WorkArea workArea = (WorkArea) this.workAreas.get(index);
+                    if (this.shutdownRequested) {
+                        break;
+                    }
+                    if (workArea.isNotificationQueueEmpty()) {
+                        continue;
+                    }
                     // retrieve the queue item
                     ReorderableQueue.SequencedObject sequencedObject = 
                         workArea.notificationQueueRemoveQuick();
+                    if (sequencedObject == null) {
+                        // the Notifications that are there are hiding, see below
+                        continue;
+                    }
                     logger.log(Level.FINE, 
                             "Popped from Notification queue " +  //$NON-NLS-1$ 
                             sequencedObject.toString() + 
                             " from " + workArea); //$NON-NLS-1$
                     result = sequencedObject;
-                    break inner;
+                    this.nextWorkArea = index + 1;
+                    break;
                 }
-                
-                // if nothing on either queue, then go to next WorkArea
             }
             
             // We looked in BackgroundTaskQueue and NotificationQueue in all WorkAreas.
@@ -393,7 +412,7 @@ class QueueProcessor implements Runnable {
                  * instead of a real task.
                  */
                 boolean isHidingItems = false;
-                iterator = this.workAreas.iterator();
+                Iterator iterator = this.workAreas.iterator();
                 while (iterator.hasNext()) {
                     WorkArea workArea = (WorkArea) iterator.next();
                     if (workArea.isNotificationQueueHidingItems()) {
@@ -450,7 +469,11 @@ class QueueProcessor implements Runnable {
         this.activeMethodName = METHOD_NAME + ": " + backgroundTask;  //$NON-NLS-1$
 
         // execute it. Doesn't get much easier than that.
-        backgroundTask.execute();
+        try {
+            backgroundTask.execute();
+        } finally {
+            BackgroundTaskQueue.finished(backgroundTask);
+        }
 
         this.activeMethodName = oldMethodName;
     }
@@ -473,11 +496,16 @@ class QueueProcessor implements Runnable {
                     "About to process: " + object.toString()); //$NON-NLS-1$
             Notification notification = (Notification) object;
             boolean isInSequence = sequencedObject.isInSequence();
-            this.process(notification, isInSequence);
+            try {
+                this.process(notification, isInSequence);
+            } finally {
+                QueueCollection.finished(sequencedObject);
+            }
         } else {
             logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME, 
                     "object is not instanceof Notification: " + object); //$NON-NLS-1$
             // just discard any objects that are malformed
+            QueueCollection.finished(sequencedObject);
         }
 
         this.activeMethodName = oldMethodName;
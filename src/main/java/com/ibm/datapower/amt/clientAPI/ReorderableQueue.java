@@ -27,7 +27,6 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.ibm.datapower.amt.Constants;
-import com.ibm.datapower.amt.Messages;
 import com.ibm.datapower.amt.amp.Notification;
 import com.ibm.datapower.amt.logging.LoggerHelper;
 
@@ -221,9 +220,31 @@ class ReorderableQueue {
      */
     synchronized public SequencedObject removeQuick() throws NotExistException {
         final String METHOD_NAME = "removeQuick"; //$NON-NLS-1$
+        SequencedObject result = this.removeIfReady();
+        if (result == null) {
+            // not ready for pop, which is expected, so keep the exception cheap
+            NotExistException e = new NotExistException("wamt.clientAPI.Queue.queueEmpty", //$NON-NLS-1$
+                    new Object[] {Thread.currentThread().getName()}, false);
+            logger.throwing(CLASS_NAME, METHOD_NAME, e);
+            throw(e);
+        }
+        return(result);
+    }
+    
+    /**
+     * Remove an object from the queue if one is ready, without throwing an
+     * exception when none is. This is the same as {@link #removeQuick()},
+     * except that the lack of a ready item is reported by returning null.
+     * 
+     * @return a container for the object removed from the queue plus some
+     *         metadata, or null if there are no items in the queue or the
+     *         item at the front is not in sequence and the window has not yet
+     *         expired
+     */
+    synchronized SequencedObject removeIfReady() {
+        final String METHOD_NAME = "removeIfReady"; //$NON-NLS-1$
         SequencedObject result = null;
-        Date nowTimestamp = new Date();
-        long nowTime = nowTimestamp.getTime();
+        long nowTime = System.currentTimeMillis();
         if (this.windowStartTime == 0) {
             this.windowStartTime = nowTime;
         }
@@ -242,30 +263,16 @@ class ReorderableQueue {
                 logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME, 
                         "object on " + this.name +  //$NON-NLS-1$
                         " is in sequence: " + expectedKey);  //$NON-NLS-1$
-            } else {
-                // is out of sequence, return object with lowest sequence number (key)
-                if (lowestKey != null) {
-                    // found the lowest, return it
-                    Object object = this.pop(lowestKey, nowTime);
-                    result = new SequencedObject(lowestKey.intValue(), false, object);
-                    logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME,
-                            "object on " + this.name +                     //$NON-NLS-1$
-                            " out of sequence, expected " + expectedKey +  //$NON-NLS-1$
-                            " but found " + lowestKey);                    //$NON-NLS-1$
-                } else {
-                    // this is strange, we just checked that size() > 0
-                    String message = Messages.getString("wamt.clientAPI.Queue.queueEmpty", Thread.currentThread().getName());
-                    NotExistException e = new NotExistException(message, "wamt.clientAPI.Queue.queueEmpty", Thread.currentThread().getName());
-                    logger.throwing(CLASS_NAME, METHOD_NAME, e);
-                    throw(e);
-                }
+            } else if (lowestKey != null) {
+                // is out of sequence, found the lowest, return it
+                Object object = this.pop(lowestKey, nowTime);
+                result = new SequencedObject(lowestKey.intValue(), false, object);
+                logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME,
+                        "object on " + this.name +                     //$NON-NLS-1$
+                        " out of sequence, expected " + expectedKey +  //$NON-NLS-1$
+                        " but found " + lowestKey);                    //$NON-NLS-1$
             }
-        } else {
-            // not ready for pop
-            String message = Messages.getString("wamt.clientAPI.Queue.queueEmpty", Thread.currentThread().getName());
-            NotExistException e = new NotExistException(message, "wamt.clientAPI.Queue.queueEmpty", Thread.currentThread().getName());
-            logger.throwing(CLASS_NAME, METHOD_NAME, e);
-            throw(e);
+            // else this is strange, we just checked that size() > 0
         }
         
         return(result);
@@ -434,6 +441,7 @@ class ReorderableQueue {
         private int sequenceNumber = 0;
         private boolean isInSequence = false;
         private Object object = null;
+        private long startedAt = 0;
         
         SequencedObject(int sequenceNumber, boolean isInSequence, Object object) {
             this.sequenceNumber = sequenceNumber;
@@ -453,6 +461,14 @@ class ReorderableQueue {
             return(this.object);
         }
 
+        void setStartedAt(long startedAt) {
+            this.startedAt = startedAt;
+        }
+
+        long getStartedAt() {
+            return(this.startedAt);
+        }
+
     }
 
 }
@@ -18,7 +18,10 @@
 package com.ibm.datapower.amt.clientAPI;
 
 import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -45,6 +48,12 @@ import com.ibm.datapower.amt.logging.LoggerHelper;
  * {@link ServiceDeployment#getInterDependentServices()}, and 
  * {@link ServiceDeployment#getObjectsToBeOverwritten()} are cached at the same time. 
  * Consequently, those returns could be a slight difference when the service is deploying to device.
+ * <p>
+ * The source configuration is read from the {@link URLSource} once and kept with its digest. The 
+ * interdependent service report is requested from the device once for each combination of source 
+ * digest, firmware level of the device and services selected for deployment. A source with the 
+ * <code>file</code> scheme is read again when its modification time changes; for other schemes call 
+ * {@link ServiceDeployment#invalidateAnalysis()} after the source has changed.
  */
 public class ServiceDeployment {
 	
@@ -61,7 +70,7 @@ public class ServiceDeployment {
 	private DeploymentPolicyService depPol = null;
 	private boolean importAllFiles = false;
 	
-	private InterDependentServiceCollection depService = null;	
+	private Analysis analysis = null;
 	
 	/*
 	 * Construct object and try to get the InterDependentSvcCollection object
@@ -75,11 +84,8 @@ public class ServiceDeployment {
 		this.depPol = depPol;
 		this.importAllFiles = importAllFiles;
 		
-		byte[] byteArray = svcConfig.getURLSource().getBlob().getByteArray();
-		if ( this.isPresentOn(domain.getDevice()) ) {
-			// Try to get the InterDependentServiceCollection if domain is on the device
-			this.getInterDependentSvcCollection(domain, byteArray);
-		}
+		// Try to get the InterDependentServiceCollection if domain is on the device
+		this.getDependencyReport();
 	}	
 		
 	ServiceDeployment(Domain domain, ServiceConfiguration svcConfig, boolean importAllFiles) 
@@ -88,11 +94,8 @@ public class ServiceDeployment {
 		this.svcConfig = svcConfig;
 		this.importAllFiles = importAllFiles;
 		
-		byte[] byteArray = svcConfig.getURLSource().getBlob().getByteArray();
-		if ( this.isPresentOn(domain.getDevice()) ) {
-			// Try to get the InterDependentServiceCollection if domain is on the device
-			this.getInterDependentSvcCollection(domain, byteArray);
-		}
+		// Try to get the InterDependentServiceCollection if domain is on the device
+		this.getDependencyReport();
 	}	
 
 	/**
@@ -108,19 +111,11 @@ public class ServiceDeployment {
 	 */
 	public RuntimeService[] getInterDependentServices() 
 		throws DeletedException, NotExistException, InUseException, InvalidParameterException, AMPException, IOException {
-		if ( this.depService != null ) {
-			return ( this.depService.getInterDependentServices() );
-		}
-		// try to getInterDependentServices via amp call again, because the domain could be deployed to device after this class is instantiated.
-		if ( this.isPresentOn(domain.getDevice()) ) {
-			byte[] byteArray = svcConfig.getURLSource().getBlob().getByteArray();
-			this.getInterDependentSvcCollection(this.domain, byteArray);
-			
-			if ( this.depService != null ) // if not null
-				return ( this.depService.getInterDependentServices() );
-			else // no dependent Service
-				return ( new RuntimeService[0]);
+		InterDependentServiceCollection depService = this.getDependencyReport();
+		if ( depService != null ) {
+			return ( depService.getInterDependentServices() );
 		}
+		// no dependent Service
 		return (new RuntimeService[0]);
 	}
 	
@@ -140,19 +135,11 @@ public class ServiceDeployment {
 		if ( this.importAllFiles ) // just return empty StringCollection, because user wants to import all files.
 			return (new StringCollection());
 		
-		if ( this.depService != null ) {
-			return ( this.depService.getFilesToBeOverwritten() );
+		InterDependentServiceCollection depService = this.getDependencyReport();
+		if ( depService != null ) {
+			return ( depService.getFilesToBeOverwritten() );
 		}		
-		// try to getInterDependentServices via amp call again, because the domain could be deployed to device after this class is instantiated
-		if ( this.isPresentOn(domain.getDevice()) ) {
-			byte[] byteArray = svcConfig.getURLSource().getBlob().getByteArray();
-			this.getInterDependentSvcCollection(this.domain, byteArray);
-					
-			if ( this.depService != null ) // if not null
-				return ( this.depService.getFilesToBeOverwritten() );
-			else // no dependent Service
-				return (new StringCollection());
-		}
+		// no dependent Service
 		return (new StringCollection()); 
 	}
 	
@@ -169,22 +156,26 @@ public class ServiceDeployment {
 	 */
 	public ConfigObject[] getObjectsToBeOverwritten()
 		throws DeletedException, NotExistException, InUseException, InvalidParameterException, AMPException, IOException {
-		if ( this.depService != null ) {
-			return ( this.depService.getObjectToBeOverwritten() );
-		}
-		// try to getInterDependentServices via amp call again, because the domain could be deployed to device after this class is instantiated
-		if ( this.isPresentOn(domain.getDevice()) ) {
-			byte[] byteArray = svcConfig.getURLSource().getBlob().getByteArray();
-			this.getInterDependentSvcCollection(this.domain, byteArray);
-			
-			if ( this.depService != null ) // if not null
-				return ( this.depService.getObjectToBeOverwritten() );
-			else  // no dependent Service
-				return (new ConfigObject[0]);
+		InterDependentServiceCollection depService = this.getDependencyReport();
+		if ( depService != null ) {
+			return ( depService.getObjectToBeOverwritten() );
 		}
+		// no dependent Service
 		return (new ConfigObject[0]);
 	}
 	
+	/**
+	 * Discard the cached source configuration and interdependent service report, so that the next call 
+	 * reads the {@link URLSource} again and, if the domain is on the device, asks the device for a new report. 
+	 * Call this after the configuration referenced by the URLSource has changed. Sources with the 
+	 * <code>file</code> scheme are checked for changes automatically.
+	 */
+	public synchronized void invalidateAnalysis() {
+		final String METHOD_NAME = "invalidateAnalysis"; //$NON-NLS-1$
+		logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME, "discarding cached analysis"); //$NON-NLS-1$
+		this.analysis = null;
+	}
+	
 	/**
 	 * Push a service source configuration onto the device.
 	 * @return the ProgressContainer object for this long running task
@@ -247,7 +238,7 @@ public class ServiceDeployment {
                     "call setDomain on " + device.getSymbolicName() + " with domain " + this.domain.getName()); //$NON-NLS-1$
             
 			Commands commands = device.getCommands();
-			bytes = this.svcConfig.getURLSource().getBlob().getByteArray();
+			bytes = this.getPayload();
 			
 			// retrieve the deployment policy from the URLSource, if the deployment policy is set
 			if ( this.depPol != null ) { 
@@ -317,16 +308,106 @@ public class ServiceDeployment {
 		logger.exiting(CLASS_NAME, METHOD_NAME);
 	}
 	
+	/*
+	 * Get the InterDependentServiceCollection, from the cache if the source, the firmware level of the 
+	 * device and the selected services are the same as when it was last requested. Returns null if the 
+	 * domain is not on the device or the device could not produce the report.
+	 */
+	private synchronized InterDependentServiceCollection getDependencyReport() 
+		throws DeletedException, NotExistException, InUseException, InvalidParameterException, AMPException, IOException {
+		final String METHOD_NAME = "getDependencyReport"; //$NON-NLS-1$
+		Device device = this.domain.getDevice();
+		String firmwareLevel = device.getActualFirmwareLevel();
+		String selection = this.getServiceSelection();
+		if ( this.analysis != null && this.analysis.depService != null ) {
+			// make sure the cached source is still current before using what was derived from it
+			this.getPayload();
+			if ( this.analysis.depService != null && selection.equals(this.analysis.selection) &&
+					((firmwareLevel == null) ? this.analysis.firmwareLevel == null : firmwareLevel.equals(this.analysis.firmwareLevel)) ) {
+				logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME, "using cached InterDependentServiceCollection"); //$NON-NLS-1$
+				return ( this.analysis.depService );
+			}
+		}
+		// try to getInterDependentServices via amp call again, because the domain could be deployed to device after this class is instantiated
+		if ( !this.isPresentOn(device) ) {
+			return ( null );
+		}
+		byte[] byteArray = this.getPayload();
+		InterDependentServiceCollection depService = this.getInterDependentSvcCollection(this.domain, byteArray);
+		if ( depService != null ) {
+			this.analysis.depService = depService;
+			this.analysis.firmwareLevel = firmwareLevel;
+			this.analysis.selection = selection;
+		}
+		return ( depService );
+	}
+	
+	/*
+	 * Get the source configuration, reading it from the URLSource only if it is not cached or a file
+	 * source has been modified since it was read. If the content read again has the same digest, the
+	 * interdependent service report derived from it is kept.
+	 */
+	private synchronized byte[] getPayload() 
+		throws DeletedException, NotExistException, InUseException, InvalidParameterException, AMPException, IOException {
+		final String METHOD_NAME = "getPayload"; //$NON-NLS-1$
+		URLSource urlSource = this.svcConfig.getURLSource();
+		long lastModified = 0;
+		if ( URLSource.SCHEME_FILE.equalsIgnoreCase(urlSource.getScheme()) ) {
+			lastModified = urlSource.getLastModified();
+		}
+		if ( this.analysis == null || this.analysis.lastModified != lastModified ) {
+			byte[] payload = urlSource.getBlob().getByteArray();
+			String digest = digest(payload);
+			if ( this.analysis != null && this.analysis.digest.equals(digest) ) {
+				logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME, "source is unchanged: " + digest); //$NON-NLS-1$
+				this.analysis.lastModified = lastModified;
+			} else {
+				logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME, "read source " + urlSource.getURL() + ": " + digest); //$NON-NLS-1$ //$NON-NLS-2$
+				this.analysis = new Analysis(payload, digest, lastModified);
+			}
+		}
+		return ( this.analysis.payload );
+	}
+	
+	/*
+	 * The services selected for deployment, which are also part of the request for the report.
+	 */
+	private String getServiceSelection() {
+		ConfigService[] svcConfigList = svcConfig.getServicesForDeployment();
+		if ( svcConfigList == null ) {
+			return ( "" ); //$NON-NLS-1$
+		}
+		StringBuffer buf = new StringBuffer();
+		for ( int i=0; i < svcConfigList.length; i++ ) {
+			buf.append(svcConfigList[i].getClassName()).append(':').append(svcConfigList[i].getName()).append(';');
+		}
+		return ( buf.toString() );
+	}
+	
+	private static String digest(byte[] payload) {
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-1").digest(payload); //$NON-NLS-1$
+			StringBuffer buf = new StringBuffer();
+			for ( int i=0; i < hash.length; i++ ) {
+				buf.append(Integer.toHexString((hash[i] & 0xff) | 0x100).substring(1));
+			}
+			return ( buf.toString() );
+		} catch ( NoSuchAlgorithmException e ) {
+			return ( payload.length + "/" + Arrays.hashCode(payload) ); //$NON-NLS-1$
+		}
+	}
+	
 	/*
 	 * Try to get the InterDependentServiceCollection
 	 */
-	private void getInterDependentSvcCollection(Domain domain, byte[] byteArray) throws DeletedException, AMPException {
+	private InterDependentServiceCollection getInterDependentSvcCollection(Domain domain, byte[] byteArray) throws DeletedException, AMPException {
 		final String METHOD_NAME = "getInterDependentSvcCollection"; //$NON-NLS-1$
         logger.entering(CLASS_NAME, METHOD_NAME);
 		
 		Device device = domain.getDevice();
 		Commands commands = device.getCommands();
 		DeviceContext deviceContext = device.getDeviceContext();
+		InterDependentServiceCollection depService = null;
 		
 		try {
 			ConfigService[] svcConfigList = svcConfig.getServicesForDeployment();
@@ -360,6 +441,7 @@ public class ServiceDeployment {
 		}catch ( AMPException e ) {
 			logger.logp(Level.WARNING, CLASS_NAME, METHOD_NAME, "Exception thrown" ,e);
 		} 
+		return ( depService );
 	}
 	
 	/*
@@ -395,4 +477,22 @@ public class ServiceDeployment {
         logger.exiting(CLASS_NAME, METHOD_NAME, Boolean.valueOf(result));
         return(result);
     }
+
+	/*
+	 * The source configuration and what has been derived from it for one ServiceDeployment.
+	 */
+	private static class Analysis {
+		final byte[] payload;
+		final String digest;
+		long lastModified;
+		InterDependentServiceCollection depService = null;
+		String firmwareLevel = null;
+		String selection = null;
+		
+		Analysis(byte[] payload, String digest, long lastModified) {
+			this.payload = payload;
+			this.digest = digest;
+			this.lastModified = lastModified;
+		}
+	}
 }
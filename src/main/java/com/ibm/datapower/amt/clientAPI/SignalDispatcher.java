@@ -0,0 +1,552 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.clientAPI;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.ibm.datapower.amt.Constants;
+import com.ibm.datapower.amt.Messages;
+import com.ibm.datapower.amt.logging.LoggerHelper;
+
+/**
+ * Delivers the messages created by {@link Signaler} to the third-party SOAP
+ * service. Signals are put on a queue for their URL and sent by a daemon
+ * thread for that URL, so they reach each service in the order they were
+ * raised, for every device, a slow service does not hold up the signals for
+ * another one, and the thread that raised them does not wait for the network.
+ * A thread that has had nothing to send for a while stops, and is started
+ * again by the next signal for its URL.
+ * <p>
+ * The connection to the service is HTTP/1.1 and is kept open between signals,
+ * so a deployment to many devices does not connect twice per device. If
+ * {@link Configuration#KEY_SIGNAL_BATCH_WINDOW} is greater than 0, signals that
+ * are raised within that window are written to the connection together and
+ * their responses are read afterwards (HTTP pipelining). The content of each
+ * signal is not changed by batching, so the service sees the same requests as
+ * it would without it.
+ * <p>
+ * Failures are logged and otherwise ignored, as signals are informational. A
+ * signal is delivered only if the service answers it with a 2xx status. Before
+ * a connection is reused it is checked for having been closed by the service
+ * while idle, and a new one is opened instead. A POST is not idempotent, so a
+ * signal that may have reached the service is never sent again after a
+ * failure: the only signals sent again are those the service did not read
+ * because it announced that it closes the connection after a response.
+ */
+class SignalDispatcher implements Runnable {
+
+    public static final String COPYRIGHT_2009_2013 = Constants.COPYRIGHT_2009_2013;
+
+    private static final String CLASS_NAME = SignalDispatcher.class.getName();
+    protected final static Logger logger = Logger.getLogger(CLASS_NAME);
+    static {
+        LoggerHelper.addLoggerToGroup(logger, Manager.getLoggerGroupName());
+    }
+
+    private static final int MAX_BATCH_SIZE = 32;
+    private static final long IDLE_CLOSE_MS = 30000;
+    private static final long SHUTDOWN_WAIT_MS = 10000;
+    private static final int STALE_CHECK_MS = 1;
+    private static final byte[] NEWLINE = new byte[] { '\r', '\n' };
+
+    // one dispatcher per URL, guarded by SignalDispatcher.class
+    private static final Map<String, SignalDispatcher> dispatchers = new HashMap<String, SignalDispatcher>();
+
+    private final String url;
+    private final LinkedBlockingQueue<Signal> queue = new LinkedBlockingQueue<Signal>();
+    private final Thread thread;
+    private volatile boolean shutdownRequested = false;
+
+    // only used by the dispatcher thread
+    private Socket socket = null;
+    private InputStream socketInput = null;
+    private OutputStream socketOutput = null;
+    private int acknowledged = 0;
+
+    private SignalDispatcher(String url) {
+        this.url = url;
+        this.thread = new Thread(this, "WAMT signal dispatcher " + url); //$NON-NLS-1$
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Queue a signal for delivery, starting the thread for its URL if there
+     * is none.
+     *
+     * @param signal the signal to send
+     */
+    static void dispatch(Signal signal) {
+        synchronized (SignalDispatcher.class) {
+            SignalDispatcher dispatcher = dispatchers.get(signal.url);
+            if (dispatcher == null) {
+                dispatcher = new SignalDispatcher(signal.url);
+                dispatchers.put(signal.url, dispatcher);
+            }
+            // under the lock, so the dispatcher cannot stop for being idle
+            // before it sees the signal
+            dispatcher.queue.add(signal);
+        }
+    }
+
+    /**
+     * Stop the dispatcher threads after the signals already queued have been
+     * sent, waiting a bounded time for that. They are started again if
+     * another signal is sent.
+     */
+    static void shutdown() {
+        final String METHOD_NAME = "shutdown"; //$NON-NLS-1$
+        List<SignalDispatcher> stopping = null;
+        synchronized (SignalDispatcher.class) {
+            stopping = new ArrayList<SignalDispatcher>(dispatchers.values());
+            dispatchers.clear();
+        }
+        for (SignalDispatcher dispatcher : stopping) {
+            logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
+                    "stopping " + dispatcher.url + ", " + dispatcher.queue.size() + " signals still queued"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            dispatcher.shutdownRequested = true;
+            dispatcher.thread.interrupt();
+        }
+        // they send what is left at the same time
+        long deadline = System.currentTimeMillis() + SHUTDOWN_WAIT_MS;
+        try {
+            for (SignalDispatcher dispatcher : stopping) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                dispatcher.thread.join(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public void run() {
+        final String METHOD_NAME = "run"; //$NON-NLS-1$
+        logger.entering(CLASS_NAME, METHOD_NAME, this.url);
+        List<Signal> batch = new ArrayList<Signal>();
+        while (true) {
+            batch.clear();
+            try {
+                if (!this.nextBatch(batch)) {
+                    break;
+                }
+            } catch (InterruptedException e) {
+                if (this.shutdownRequested) {
+                    // send what is left without waiting for more
+                    this.queue.drainTo(batch);
+                    this.drainOnShutdown(batch);
+                    break;
+                }
+                // send what was collected, the window is cut short
+            }
+            if (!batch.isEmpty()) {
+                this.deliver(batch);
+            }
+        }
+        this.closeConnection();
+        logger.exiting(CLASS_NAME, METHOD_NAME);
+    }
+
+    /*
+     * Collect the next signals to send together. Returns false if the
+     * dispatcher should stop.
+     */
+    private boolean nextBatch(List<Signal> batch) throws InterruptedException {
+        Signal first = null;
+        while (first == null) {
+            if (this.shutdownRequested && this.queue.isEmpty()) {
+                return(false);
+            }
+            first = this.queue.poll(IDLE_CLOSE_MS, TimeUnit.MILLISECONDS);
+            if (first == null) {
+                // nothing to send for a while, don't hold the connection
+                // or the thread
+                this.closeConnection();
+                if (this.retireIfIdle()) {
+                    return(false);
+                }
+            }
+        }
+        batch.add(first);
+        if (first.batchWindow <= 0) {
+            return(true);
+        }
+        long deadline = System.currentTimeMillis() + first.batchWindow;
+        while (batch.size() < MAX_BATCH_SIZE) {
+            long remaining = deadline - System.currentTimeMillis();
+            Signal next = (remaining > 0) ?
+                    this.queue.poll(remaining, TimeUnit.MILLISECONDS) : this.queue.poll();
+            if (next == null) {
+                break;
+            }
+            batch.add(next);
+        }
+        return(true);
+    }
+
+    /*
+     * Stop for being idle, unless a signal was queued in the meantime.
+     */
+    private boolean retireIfIdle() {
+        synchronized (SignalDispatcher.class) {
+            if (!this.queue.isEmpty()) {
+                return(false);
+            }
+            if (dispatchers.get(this.url) == this) {
+                dispatchers.remove(this.url);
+            }
+            return(true);
+        }
+    }
+
+    private void drainOnShutdown(List<Signal> signals) {
+        for (int start = 0; start < signals.size(); start += MAX_BATCH_SIZE) {
+            this.deliver(signals.subList(start, Math.min(start + MAX_BATCH_SIZE, signals.size())));
+        }
+    }
+
+    /*
+     * Send the batch. If the service closes the connection after a response,
+     * the signals it has not read go on a new connection. Any other failure
+     * leaves the rest of the batch undelivered, since the service may have
+     * acted on them. Every signal in the batch is marked as done when this
+     * returns.
+     */
+    private void deliver(List<Signal> batch) {
+        final String METHOD_NAME = "deliver"; //$NON-NLS-1$
+        Signal first = batch.get(0);
+        this.acknowledged = 0;
+        try {
+            URL url = new URL(this.url);
+            while (this.acknowledged < batch.size()) {
+                this.connect(url, first.connectTimeout);
+                this.exchange(url, batch.subList(this.acknowledged, batch.size()), first.responseTimeout);
+            }
+            logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
+                    "posted " + batch.size() + " signal messages to " + this.url);  //$NON-NLS-1$ //$NON-NLS-2$
+        } catch (Throwable e) {
+            // log it and keep going. This should be passive.
+            this.closeConnection();
+            String message = Messages.getString("wamt.clientAPI.Signal.sendErr", this.url);  //$NON-NLS-1$
+            logger.logp(Level.INFO, CLASS_NAME, METHOD_NAME, message, e);
+        } finally {
+            for (int i = this.acknowledged; i < batch.size(); i++) {
+                batch.get(i).done(false);
+            }
+        }
+    }
+
+    /*
+     * Make sure there is an open connection to the host and port of the URL,
+     * replacing one that the service has closed while it was idle.
+     */
+    private void connect(URL url, int connectTimeout) throws IOException {
+        final String METHOD_NAME = "connect"; //$NON-NLS-1$
+        if (this.socket != null) {
+            if (!this.isStale()) {
+                return;
+            }
+            logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME,
+                    "connection to " + this.url + " was closed while idle, reconnecting"); //$NON-NLS-1$ //$NON-NLS-2$
+            this.closeConnection();
+        }
+        int port = url.getPort();
+        if (port < 0) {
+            port = url.getDefaultPort();
+        }
+        // a plain socket, so both the connect and the response have a timeout
+        Socket newSocket = new Socket();
+        newSocket.connect(new InetSocketAddress(url.getHost(), port), connectTimeout);
+        newSocket.setTcpNoDelay(true);
+        this.socket = newSocket;
+        this.socketInput = new BufferedInputStream(newSocket.getInputStream());
+        this.socketOutput = newSocket.getOutputStream();
+    }
+
+    /*
+     * An idle connection has nothing to read. If the service has closed it,
+     * the read returns end of stream; anything else it sent is not an answer
+     * to a request either. Either way the connection is not used again.
+     */
+    private boolean isStale() {
+        if (this.socket.isClosed()) {
+            return(true);
+        }
+        try {
+            this.socket.setSoTimeout(STALE_CHECK_MS);
+            this.socketInput.read();
+            return(true);
+        } catch (SocketTimeoutException e) {
+            // nothing to read, which is what an open idle connection looks like
+            return(false);
+        } catch (IOException e) {
+            return(true);
+        }
+    }
+
+    /*
+     * Write all the requests, then read one response per request, marking
+     * each signal done as its response is read and counting it in
+     * this.acknowledged. If the service closes the connection early, it has
+     * not read the rest of the signals.
+     */
+    private void exchange(URL url, List<Signal> signals, int responseTimeout) throws IOException {
+        final String METHOD_NAME = "exchange"; //$NON-NLS-1$
+        ByteArrayOutputStream requests = new ByteArrayOutputStream();
+        for (int i = 0; i < signals.size(); i++) {
+            writeRequest(requests, url, signals.get(i));
+        }
+        logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
+                "attempting to post " + signals.size() + " signal messages to " + this.url);  //$NON-NLS-1$ //$NON-NLS-2$
+        requests.writeTo(this.socketOutput);
+        this.socketOutput.flush();
+
+        this.socket.setSoTimeout(responseTimeout);
+        for (int i = 0; i < signals.size(); i++) {
+            String statusLine = this.readResponse();
+            int status = statusCode(statusLine);
+            boolean accepted = (status >= 200) && (status < 300);
+            if (!accepted) {
+                String message = Messages.getString("wamt.clientAPI.Signal.sendErr", this.url);  //$NON-NLS-1$
+                logger.logp(Level.INFO, CLASS_NAME, METHOD_NAME, message,
+                        new IOException("the service answered " + statusLine)); //$NON-NLS-1$
+            }
+            signals.get(i).done(accepted);
+            this.acknowledged++;
+            if (this.socket == null) {
+                // closed after this response
+                break;
+            }
+        }
+    }
+
+    /*
+     * The status code of an HTTP status line, such as "HTTP/1.1 200 OK".
+     */
+    private static int statusCode(String statusLine) throws IOException {
+        int space = statusLine.indexOf(' ');
+        if (!statusLine.startsWith("HTTP/") || (space < 0) || (statusLine.length() < space + 4)) { //$NON-NLS-1$
+            throw new IOException("not an HTTP status line: " + statusLine); //$NON-NLS-1$
+        }
+        try {
+            return(Integer.parseInt(statusLine.substring(space + 1, space + 4)));
+        } catch (NumberFormatException e) {
+            throw new IOException("not an HTTP status line: " + statusLine); //$NON-NLS-1$
+        }
+    }
+
+    private static void writeRequest(OutputStream out, URL url, Signal signal) throws IOException {
+        String path = url.getPath();
+        if (path == null || path.length() == 0) {
+            path = "/"; //$NON-NLS-1$
+        }
+        if (url.getQuery() != null) {
+            path = path + "?" + url.getQuery(); //$NON-NLS-1$
+        }
+        StringBuffer headers = new StringBuffer(256);
+        headers.append("POST ").append(path).append(" HTTP/1.1\r\n"); //$NON-NLS-1$ //$NON-NLS-2$
+        headers.append("Host: ").append(url.getHost()); //$NON-NLS-1$
+        if (url.getPort() >= 0) {
+            headers.append(':').append(url.getPort());
+        }
+        headers.append("\r\n"); //$NON-NLS-1$
+        headers.append("Content-Type: text/xml; charset=UTF-8\r\n"); //$NON-NLS-1$
+        headers.append("Content-Length: ").append(signal.body.length).append("\r\n"); //$NON-NLS-1$ //$NON-NLS-2$
+        if (signal.soapAction != null) {
+            headers.append("SOAPAction: ").append(signal.soapAction).append("\r\n"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        headers.append("Connection: keep-alive\r\n"); //$NON-NLS-1$
+        out.write(headers.toString().getBytes("ISO-8859-1")); //$NON-NLS-1$
+        out.write(NEWLINE);
+        out.write(signal.body);
+    }
+
+    /*
+     * Read and discard one HTTP response, closing the connection if it can
+     * not be used for another request. Returns the status line.
+     */
+    private String readResponse() throws IOException {
+        String statusLine = this.readLine();
+        if (statusLine == null) {
+            throw new IOException("connection closed before a response was read"); //$NON-NLS-1$
+        }
+        boolean keepOpen = statusLine.startsWith("HTTP/1.1"); //$NON-NLS-1$
+        long contentLength = -1;
+        boolean chunked = false;
+        String line = null;
+        while ((line = this.readLine()) != null && line.length() > 0) {
+            int colon = line.indexOf(':');
+            if (colon < 0) {
+                continue;
+            }
+            String name = line.substring(0, colon).trim();
+            String value = line.substring(colon + 1).trim();
+            if (name.equalsIgnoreCase("Content-Length")) { //$NON-NLS-1$
+                try {
+                    contentLength = Long.parseLong(value);
+                } catch (NumberFormatException e) {
+                    keepOpen = false;
+                }
+            } else if (name.equalsIgnoreCase("Transfer-Encoding")) { //$NON-NLS-1$
+                chunked = value.toLowerCase().indexOf("chunked") >= 0; //$NON-NLS-1$
+            } else if (name.equalsIgnoreCase("Connection")) { //$NON-NLS-1$
+                if (value.equalsIgnoreCase("close")) { //$NON-NLS-1$
+                    keepOpen = false;
+                } else if (value.equalsIgnoreCase("keep-alive")) { //$NON-NLS-1$
+                    keepOpen = true;
+                }
+            }
+        }
+        if (chunked) {
+            while (true) {
+                String size = this.readLine();
+                if (size == null) {
+                    throw new IOException("connection closed inside a chunked response"); //$NON-NLS-1$
+                }
+                int semicolon = size.indexOf(';');
+                long chunkLength = Long.parseLong((semicolon < 0 ? size : size.substring(0, semicolon)).trim(), 16);
+                if (chunkLength == 0) {
+                    // trailers end with an empty line
+                    while ((line = this.readLine()) != null && line.length() > 0) {
+                    }
+                    break;
+                }
+                this.skip(chunkLength);
+                this.readLine();
+            }
+        } else if (contentLength >= 0) {
+            this.skip(contentLength);
+        } else {
+            // the body runs until the service closes the connection
+            while (this.socketInput.read() >= 0) {
+            }
+            keepOpen = false;
+        }
+        if (!keepOpen) {
+            this.closeConnection();
+        }
+        return(statusLine);
+    }
+
+    private String readLine() throws IOException {
+        StringBuffer result = new StringBuffer(80);
+        int c;
+        while ((c = this.socketInput.read()) >= 0) {
+            if (c == '\n') {
+                int length = result.length();
+                if (length > 0 && result.charAt(length - 1) == '\r') {
+                    result.setLength(length - 1);
+                }
+                return(result.toString());
+            }
+            result.append((char) c);
+        }
+        return(result.length() == 0 ? null : result.toString());
+    }
+
+    private void skip(long count) throws IOException {
+        while (count > 0) {
+            long skipped = this.socketInput.skip(count);
+            if (skipped <= 0) {
+                if (this.socketInput.read() < 0) {
+                    throw new IOException("connection closed inside a response"); //$NON-NLS-1$
+                }
+                skipped = 1;
+            }
+            count -= skipped;
+        }
+    }
+
+    private void closeConnection() {
+        if (this.socket != null) {
+            try {
+                this.socket.close();
+            } catch (IOException e) {
+                // nothing more to do with it
+            }
+        }
+        this.socket = null;
+        this.socketInput = null;
+        this.socketOutput = null;
+    }
+
+    /**
+     * One message to send. The body is serialized by the thread that raised
+     * the signal, so its content reflects the time of the event rather than
+     * the time of delivery.
+     */
+    static class Signal {
+        final String url;
+        final String soapAction;
+        final byte[] body;
+        final int connectTimeout;
+        final int responseTimeout;
+        final int batchWindow;
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile boolean delivered = false;
+
+        Signal(String url, String soapAction, byte[] body,
+                int connectTimeout, int responseTimeout, int batchWindow) throws MalformedURLException {
+            // fail here rather than in the dispatcher if the URL is not valid
+            new URL(url);
+            this.url = url;
+            this.soapAction = soapAction;
+            this.body = body;
+            this.connectTimeout = connectTimeout;
+            this.responseTimeout = responseTimeout;
+            this.batchWindow = batchWindow;
+        }
+
+        void done(boolean wasDelivered) {
+            this.delivered = wasDelivered;
+            this.done.countDown();
+        }
+
+        /**
+         * Wait until the dispatcher has tried to send this signal.
+         *
+         * @param timeout the longest time to wait, in milliseconds
+         * @return true if the service acknowledged the signal
+         * @throws InterruptedException the thread was interrupted while waiting
+         */
+        boolean awaitDelivery(long timeout) throws InterruptedException {
+            this.done.await(timeout, TimeUnit.MILLISECONDS);
+            return(this.delivered);
+        }
+    }
+}
@@ -18,31 +18,14 @@
 
 package com.ibm.datapower.amt.clientAPI;
 
-import java.io.CharArrayWriter;
-import java.io.InputStream;
-import java.io.OutputStream;
-import java.net.InetSocketAddress;
-import java.net.Socket;
+import java.io.UnsupportedEncodingException;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Text;
-
 import com.ibm.datapower.amt.Constants;
 import com.ibm.datapower.amt.Messages;
 import com.ibm.datapower.amt.logging.LoggerHelper;
@@ -58,6 +41,12 @@ import com.ibm.datapower.amt.logging.LoggerHelper;
  * don't care about the response. We just want to tell someone what we are
  * doing.
  * <p>
+ * The signals are delivered in order by the {@link SignalDispatcher}, so the
+ * deployment does not wait for the network. The exception is a start signal
+ * when a delay time is configured: the deployment waits until the start
+ * signal has been delivered and the delay has passed, so the third party has
+ * time to act before the device is changed.
+ * <p>
  * 
  * @version SCM ID: $Id: Signaler.java,v 1.5 2010/09/02 16:24:52 wjong Exp $
  */
@@ -71,6 +60,7 @@ public class Signaler {
     private int destinationConnectTimeout = 0;
     private int destinationResponseTimeout = 0;
     private int destinationDelayTime = 0;
+    private int destinationBatchWindow = 0;
     
     static private final boolean START = true;
     static private final boolean END = false;
@@ -107,6 +97,8 @@ public class Signaler {
         this.destinationResponseTimeout = destinationResponseTimeoutInteger.intValue();
         Integer destinationDelayTimeInteger = Configuration.getAsInteger(Configuration.KEY_SIGNAL_DELAY_TIME);
         this.destinationDelayTime = destinationDelayTimeInteger.intValue();
+        Integer destinationBatchWindowInteger = Configuration.getAsInteger(Configuration.KEY_SIGNAL_BATCH_WINDOW);
+        this.destinationBatchWindow = destinationBatchWindowInteger.intValue();
     }
     
 
@@ -145,66 +137,22 @@ public class Signaler {
         }
         
         try {
-            String messageString = this.createDocument(isStart, wasSuccessful);
-            int messageLength = messageString.getBytes().length;
-            
-            // because HttpUrlConnection doesn't support timeouts in 1.4.2, use a plain socket.
-            Socket socket = new Socket();
-            URL url = new URL(this.destinationURL);
-            String hostname = url.getHost();
-            int port = url.getPort();
-            if (port < 0) {
-                port = url.getDefaultPort();
-            }
-            InetSocketAddress endpoint = new InetSocketAddress(hostname, port);
-            socket.connect(endpoint, this.destinationConnectTimeout);
-            OutputStream outputStream = socket.getOutputStream();
-            final String newline = "\r\n";   //$NON-NLS-1$
-            logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
-                    "attempting to post signal message to " + url.toExternalForm());  //$NON-NLS-1$
+            byte[] message = this.createDocument(isStart, wasSuccessful).getBytes("UTF-8");  //$NON-NLS-1$
+            SignalDispatcher.Signal signal = new SignalDispatcher.Signal(this.destinationURL, 
+                    this.destinationSOAPAction, message, this.destinationConnectTimeout, 
+                    this.destinationResponseTimeout, this.destinationBatchWindow);
+            SignalDispatcher.dispatch(signal);
             
-            // send the headers
-            outputStream.write("Content-Type: text/xml".getBytes());   //$NON-NLS-1$
-            outputStream.write(newline.getBytes());
-            outputStream.write("Content-Length: ".getBytes());   //$NON-NLS-1$
-            outputStream.write(String.valueOf(messageLength).getBytes());
-            outputStream.write(newline.getBytes());
-            if (this.destinationSOAPAction != null) {
-                outputStream.write("SOAPAction: ".getBytes());   //$NON-NLS-1$
-                outputStream.write(this.destinationSOAPAction.getBytes());
-                outputStream.write(newline.getBytes());
+            if (isStart && this.destinationDelayTime > 0) {
+                // wait for delivery, and then for propogation by 3rd party
+                long maxWait = 2L * (this.destinationConnectTimeout + this.destinationResponseTimeout) + 
+                    this.destinationBatchWindow;
+                boolean delivered = signal.awaitDelivery(maxWait);
+                logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
+                        "start signal delivered=" + delivered + ", sleeping " + this.destinationDelayTime + "ms");  //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                Thread.sleep(this.destinationDelayTime);
             }
             
-            // send the command
-            outputStream.write(newline.getBytes());
-            outputStream.write("POST ".getBytes());   //$NON-NLS-1$
-            String path = url.getPath();
-            outputStream.write(path.getBytes());
-            outputStream.write(" HTTP/1.0".getBytes());   //$NON-NLS-1$
-            outputStream.write(newline.getBytes());
-            
-            // send the document
-            outputStream.write(messageString.getBytes());
-            outputStream.flush();
-            // read the response, in case the server cares that it was successfully received by us
-            socket.setSoTimeout(this.destinationResponseTimeout);
-            InputStream inputStream = socket.getInputStream();
-            // block until read one byte and discard it
-            inputStream.read();
-            // acknowledge and discard all other input.
-            // I don't think we need to specifically read the whole message
-            socket.shutdownInput();
-            
-            // close the socket
-            outputStream.close();
-            inputStream.close();
-            socket.close();
-            logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME,
-                    "successfully posted signal message to " + url.toExternalForm());  //$NON-NLS-1$
-            
-            // sleep for propogation by 3rd party
-            Thread.sleep(this.destinationDelayTime);
-            
         } catch (Throwable e) {
             // log it and keep going. This should be passive.
             String message = Messages.getString("wamt.clientAPI.Signal.sendErr", this.destinationURL);  //$NON-NLS-1$
@@ -213,159 +161,116 @@ public class Signaler {
         logger.exiting(CLASS_NAME, METHOD_NAME);
     }
     
+    /*
+     * The parts of the message that never change, so that only the values
+     * need to be formatted for each signal.
+     */
+    private static final String MESSAGE_PREFIX = 
+        "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +  //$NON-NLS-1$
+        "<soapenv:Envelope xmlns:soapenv=\"http://schemas.xmlsoap.org/soap/envelope/\">\n" +  //$NON-NLS-1$
+        "<soapenv:Body>\n" +  //$NON-NLS-1$
+        "<signal xmlns=\"http://www.ibm.com/datapower/wamt/signal/1.0\">\n";  //$NON-NLS-1$
+    private static final String MESSAGE_SUFFIX = 
+        "</signal>\n" +  //$NON-NLS-1$
+        "</soapenv:Body>\n" +  //$NON-NLS-1$
+        "</soapenv:Envelope>\n";  //$NON-NLS-1$
+    
     private String createDocument(boolean isStart, Boolean wasSuccessful) 
-    throws ParserConfigurationException, DeletedException, TransformerException {
+    throws DeletedException, UnsupportedEncodingException, MalformedURLException {
         // TODO: this should really be a CBE event instead of a proprietary one
-        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance(); 
-        DocumentBuilder builder = factory.newDocumentBuilder();
-        Document document = builder.newDocument();
-        
-        final String soapEnvNs = "http://schemas.xmlsoap.org/soap/envelope/";  //$NON-NLS-1$
-        
-        Element envElement = document.createElementNS(soapEnvNs, "soapenv:Envelope");  //$NON-NLS-1$
-        document.appendChild(envElement);
-        Element bodyElement = document.createElementNS(soapEnvNs, "soapenv:Body");  //$NON-NLS-1$
-        envElement.appendChild(bodyElement);
-
-        Element signalElement = document.createElement("signal");  //$NON-NLS-1$
-        signalElement.setAttribute("xmlns", "http://www.ibm.com/datapower/wamt/signal/1.0");  //$NON-NLS-1$
-        bodyElement.appendChild(signalElement);
+        StringBuffer document = new StringBuffer(1024);
+        document.append(MESSAGE_PREFIX);
         
         Calendar timestamp = GregorianCalendar.getInstance();
-        Element timestampElement = document.createElement("timestamp");  //$NON-NLS-1$
-        signalElement.appendChild(timestampElement);
-        
-        Element yearElement = document.createElement("year");  //$NON-NLS-1$
-        timestampElement.appendChild(yearElement);
-        Text yearText = document.createTextNode(String.valueOf(timestamp.get(Calendar.YEAR)));
-        yearElement.appendChild(yearText);
-        
-        Element monthElement = document.createElement("month");  //$NON-NLS-1$
-        timestampElement.appendChild(monthElement);
-        Text monthText = document.createTextNode(String.valueOf(timestamp.get(Calendar.MONTH)+1));
-        monthElement.appendChild(monthText);
-        
-        Element dayElement = document.createElement("day");  //$NON-NLS-1$
-        timestampElement.appendChild(dayElement);
-        Text dayText = document.createTextNode(String.valueOf(timestamp.get(Calendar.DAY_OF_MONTH)));
-        dayElement.appendChild(dayText);
-
-        Element hourElement = document.createElement("hour");  //$NON-NLS-1$
-        timestampElement.appendChild(hourElement);
-        Text hourText = document.createTextNode(String.valueOf(timestamp.get(Calendar.HOUR_OF_DAY)));
-        hourElement.appendChild(hourText);
-
-        Element minuteElement = document.createElement("minute");  //$NON-NLS-1$
-        timestampElement.appendChild(minuteElement);
-        Text minuteText = document.createTextNode(String.valueOf(timestamp.get(Calendar.MINUTE)));
-        minuteElement.appendChild(minuteText);
+        document.append("<timestamp>\n");  //$NON-NLS-1$
+        appendElement(document, "year", String.valueOf(timestamp.get(Calendar.YEAR)));  //$NON-NLS-1$
+        appendElement(document, "month", String.valueOf(timestamp.get(Calendar.MONTH)+1));  //$NON-NLS-1$
+        appendElement(document, "day", String.valueOf(timestamp.get(Calendar.DAY_OF_MONTH)));  //$NON-NLS-1$
+        appendElement(document, "hour", String.valueOf(timestamp.get(Calendar.HOUR_OF_DAY)));  //$NON-NLS-1$
+        appendElement(document, "minute", String.valueOf(timestamp.get(Calendar.MINUTE)));  //$NON-NLS-1$
+        appendElement(document, "second", String.valueOf(timestamp.get(Calendar.SECOND)));  //$NON-NLS-1$
+        appendElement(document, "millisecond", String.valueOf(timestamp.get(Calendar.MILLISECOND)));  //$NON-NLS-1$
+        appendElement(document, "zone-offset", String.valueOf(timestamp.get(Calendar.ZONE_OFFSET) / (60*60*1000)));  //$NON-NLS-1$
+        appendElement(document, "dst-offset", String.valueOf(timestamp.get(Calendar.DST_OFFSET) / (60*60*1000)));  //$NON-NLS-1$
+        document.append("</timestamp>\n");  //$NON-NLS-1$
 
-        Element secondElement = document.createElement("second");  //$NON-NLS-1$
-        timestampElement.appendChild(secondElement);
-        Text secondText = document.createTextNode(String.valueOf(timestamp.get(Calendar.SECOND)));
-        secondElement.appendChild(secondText);
-
-        Element millisecondElement = document.createElement("millisecond");  //$NON-NLS-1$
-        timestampElement.appendChild(millisecondElement);
-        Text millisecondText = document.createTextNode(String.valueOf(timestamp.get(Calendar.MILLISECOND)));
-        millisecondElement.appendChild(millisecondText);
-
-        Element zoneElement = document.createElement("zone-offset");  //$NON-NLS-1$
-        timestampElement.appendChild(zoneElement);
-        Text zoneText = document.createTextNode(String.valueOf(timestamp.get(Calendar.ZONE_OFFSET) / (60*60*1000)));
-        zoneElement.appendChild(zoneText);
-
-        Element dstElement = document.createElement("dst-offset");  //$NON-NLS-1$
-        timestampElement.appendChild(dstElement);
-        Text dstText = document.createTextNode(String.valueOf(timestamp.get(Calendar.DST_OFFSET) / (60*60*1000)));
-        dstElement.appendChild(dstText);
-
-        Element managerElement = document.createElement("manager");  //$NON-NLS-1$
-        signalElement.appendChild(managerElement);
         Manager manager = Manager.internalGetInstance();
         URL managerURL = manager.getNotificationCatcherURL();
-        String managerURLString = managerURL.toExternalForm();
-        Text managerText = document.createTextNode(managerURLString);
-        managerElement.appendChild(managerText);
+        appendElement(document, "manager", managerURL.toExternalForm());  //$NON-NLS-1$
 
-        Element phaseElement = null;
-        if (isStart) {
-            phaseElement = document.createElement("start");  //$NON-NLS-1$
-        } else {
-            phaseElement = document.createElement("end");  //$NON-NLS-1$
-        }
-        signalElement.appendChild(phaseElement);
-        
-        Element delayTimeElement = document.createElement("delayTime");  //$NON-NLS-1$
-        delayTimeElement.setAttribute("unit", "ms");  //$NON-NLS-1$  //$NON-NLS-2$
-        phaseElement.appendChild(delayTimeElement);
-        Text delayTimeNode = document.createTextNode(String.valueOf(this.destinationDelayTime));
-        delayTimeElement.appendChild(delayTimeNode);
+        String phase = isStart ? "start" : "end";  //$NON-NLS-1$ //$NON-NLS-2$
+        document.append('<').append(phase).append(">\n");  //$NON-NLS-1$
+        document.append("<delayTime unit=\"ms\">").append(this.destinationDelayTime).append("</delayTime>\n");  //$NON-NLS-1$ //$NON-NLS-2$
         
-        Element deviceElement = document.createElement("device");  //$NON-NLS-1$
+        document.append("<device");  //$NON-NLS-1$
         ManagedSet managedSet = this.device.getManagedSet();
         if (managedSet != null) {
-            deviceElement.setAttribute("managedSet", managedSet.getName());  //$NON-NLS-1$
+            document.append(" managedSet=\"").append(escape(managedSet.getName())).append('"');  //$NON-NLS-1$
         }
-        phaseElement.appendChild(deviceElement);
-        
-        Element nameElement = document.createElement("name");  //$NON-NLS-1$
-        deviceElement.appendChild(nameElement);
-        Text nameNode = document.createTextNode(this.device.getSymbolicName());
-        nameElement.appendChild(nameNode);
-        
-        Element hostnameElement = document.createElement("hostname");  //$NON-NLS-1$
-        deviceElement.appendChild(hostnameElement);
-        Text hostnameNode = document.createTextNode(this.device.getHostname());
-        hostnameElement.appendChild(hostnameNode);
+        document.append(">\n");  //$NON-NLS-1$
+        appendElement(document, "name", this.device.getSymbolicName());  //$NON-NLS-1$
+        appendElement(document, "hostname", this.device.getHostname());  //$NON-NLS-1$
         
         if (this.firmwareVersion != null) {
-            Element firmwareElement = document.createElement("firmware");  //$NON-NLS-1$
-            deviceElement.appendChild(firmwareElement);
-            Element levelElement = document.createElement("level");   //$NON-NLS-1$
-            firmwareElement.appendChild(levelElement);
-            Text levelNode = document.createTextNode(this.firmwareVersion.getLevel());
-            levelElement.appendChild(levelNode);
+            document.append("<firmware>\n");  //$NON-NLS-1$
+            appendElement(document, "level", this.firmwareVersion.getLevel());  //$NON-NLS-1$
             if (wasSuccessful != null) {
-                Element successElement = document.createElement("wasSuccessful");  //$NON-NLS-1$
-                firmwareElement.appendChild(successElement);
-                Text successNode = document.createTextNode(wasSuccessful.toString());
-                successElement.appendChild(successNode);
+                appendElement(document, "wasSuccessful", wasSuccessful.toString());  //$NON-NLS-1$
             }
+            document.append("</firmware>\n");  //$NON-NLS-1$
         }
         
-//        if (this.domainVersion != null) {
         if (this.domainName != null) {
-            Element domainElement = document.createElement("domain");  //$NON-NLS-1$
-            deviceElement.appendChild(domainElement);
-            Element domainNameElement = document.createElement("name");  //$NON-NLS-1$
-            domainElement.appendChild(domainNameElement);
-//            Domain domain = this.domainVersion.getDomain();
-//            Text domainNameNode = document.createTextNode(domain.getRelativeDisplayName());
-            Text domainNameNode = document.createTextNode(this.domainName);
-            domainNameElement.appendChild(domainNameNode);
-            Element versionElement = document.createElement("version");   //$NON-NLS-1$
-            domainElement.appendChild(versionElement);
-//            Text versionNode = document.createTextNode(String.valueOf(this.domainVersion.getVersionNumber()));
-            Text versionNode = document.createTextNode(String.valueOf("0"));  //$NON-NLS-1$   "0" indicates no version
-            versionElement.appendChild(versionNode);
+            document.append("<domain>\n");  //$NON-NLS-1$
+            appendElement(document, "name", this.domainName);  //$NON-NLS-1$
+            // "0" indicates no version
+            appendElement(document, "version", "0");  //$NON-NLS-1$ //$NON-NLS-2$
             if (wasSuccessful != null) {
-                Element successElement = document.createElement("wasSuccessful");  //$NON-NLS-1$
-                domainElement.appendChild(successElement);
-                Text successNode = document.createTextNode(wasSuccessful.toString());
-                successElement.appendChild(successNode);
+                appendElement(document, "wasSuccessful", wasSuccessful.toString());  //$NON-NLS-1$
             }
+            document.append("</domain>\n");  //$NON-NLS-1$
         }
+        document.append("</device>\n");  //$NON-NLS-1$
+        document.append("</").append(phase).append(">\n");  //$NON-NLS-1$ //$NON-NLS-2$
         
-        TransformerFactory transformerFactory = TransformerFactory.newInstance();
-        Transformer transformer = transformerFactory.newTransformer();
-        transformer.setOutputProperty(OutputKeys.INDENT, "yes");  //$NON-NLS-1$
-        CharArrayWriter writer = new CharArrayWriter(512);
-        transformer.transform(
-                new DOMSource(document),
-                new StreamResult(writer));
-        String result = writer.toString();
-        return(result);
+        document.append(MESSAGE_SUFFIX);
+        return(document.toString());
+    }
+    
+    private static void appendElement(StringBuffer document, String name, String value) {
+        document.append('<').append(name).append('>');
+        document.append(escape(value));
+        document.append("</").append(name).append(">\n");  //$NON-NLS-1$ //$NON-NLS-2$
+    }
+    
+    private static String escape(String value) {
+        if (value == null) {
+            return("");  //$NON-NLS-1$
+        }
+        StringBuffer result = null;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            String replacement = null;
+            switch (c) {
+            case '<': replacement = "&lt;"; break;  //$NON-NLS-1$
+            case '>': replacement = "&gt;"; break;  //$NON-NLS-1$
+            case '&': replacement = "&amp;"; break;  //$NON-NLS-1$
+            case '"': replacement = "&quot;"; break;  //$NON-NLS-1$
+            default: break;
+            }
+            if (replacement != null && result == null) {
+                result = new StringBuffer(value.length() + 16);
+                result.append(value, 0, i);
+            }
+            if (result != null) {
+                if (replacement != null) {
+                    result.append(replacement);
+                } else {
+                    result.append(c);
+                }
+            }
+        }
+        return(result == null ? value : result.toString());
     }
     
 }
\ No newline at end of file
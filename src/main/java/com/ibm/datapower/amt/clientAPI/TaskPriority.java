@@ -0,0 +1,33 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+package com.ibm.datapower.amt.clientAPI;
+
+/**
+ * <p>TaskPriority is an enumeration of the classes of {@link BackgroundTask}
+ * that wait on the queue of a {@link WorkArea}.
+ *
+ * <p>INTERACTIVE tasks are the ones a user asked for through the clientAPI, such
+ * as deploying a domain or firmware. They are run first.
+ * <p>AUTOMATIC tasks are the ones the Manager queues on its own, such as
+ * refreshing the subscription and domain status of every device when the
+ * Manager starts. They run when no INTERACTIVE task is waiting.
+ *
+ * @see Manager#getBackgroundTaskMetrics(TaskPriority)
+ */
+public enum TaskPriority {
+	INTERACTIVE,
+	AUTOMATIC
+}
@@ -259,6 +259,11 @@ public class URLSource {
      * source referenced by this object. This is useful to compare 
      * persisted time stamps to see if the blob should be retrieved 
      * again
+     * <p>
+     * The DomainSynchronizationDaemon asks for this for every managed domain
+     * on each of its sweeps, so connecting to and reading from an http or
+     * https source is bounded by the
+     * {@link Configuration#KEY_AMP_CONNECT_TIMEOUT}.
      * 
      * @return long - can be used to build a Date object  
      * @throws IOException 
@@ -267,6 +272,14 @@ public class URLSource {
      * 
      */
 	public long getLastModified() throws IOException {
+		return getLastModified(Configuration.getAsInteger(Configuration.KEY_AMP_CONNECT_TIMEOUT).intValue());
+	}
+
+	/*
+	 * getLastModified() with the given connect and read timeout in
+	 * milliseconds.
+	 */
+	long getLastModified(int timeoutMS) throws IOException {
 		
 		long lastModified = 0;
 		
@@ -283,6 +296,10 @@ public class URLSource {
 		} else if ((SCHEME_HTTP.equals(scheme)) || (SCHEME_HTTPS.equals(scheme))  ) {
 			try {
 				URLConnection urlConn = uri.toURL().openConnection();
+				if (timeoutMS > 0) {
+					urlConn.setConnectTimeout(timeoutMS);
+					urlConn.setReadTimeout(timeoutMS);
+				}
 				lastModified = urlConn.getHeaderFieldDate("Last-Modified", 0); //$NON-NLS-1$
 			} catch (MalformedURLException e) {
 				//It is unlikely that this exception will ever happen 
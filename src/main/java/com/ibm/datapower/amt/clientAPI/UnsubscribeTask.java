@@ -128,6 +128,7 @@ class UnsubscribeTask extends BackgroundTask {
             StoredDevice storedDevice = device.getStoredInstance();
             if (ms != null){
                 ms.getStoredInstance().remove(storedDevice);
+                ms.deviceRemoved(device);
             }            
             Manager manager = Manager.internalGetInstance();
             manager.save(Manager.SAVE_UNFORCED);
@@ -0,0 +1,112 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.clientAPI;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import com.ibm.datapower.amt.Constants;
+import com.ibm.datapower.amt.dataAPI.StoredVersion;
+
+/**
+ * Removes the versions that {@link Domain#trimExcessVersions()},
+ * {@link DeploymentPolicy#trimExcessVersions()} and
+ * {@link Firmware#trimExcessVersions()} remove. Those used to look up every
+ * version number from 1 to the highest one, which scanned the whole history
+ * for each number and saved the repository after each removal. Now the
+ * history is ordered once, the oldest versions are removed together and the
+ * repository is saved once. A version that cannot be removed is kept and the
+ * next newer one is removed in its place.
+ */
+final class VersionRetention {
+
+    public static final String COPYRIGHT_2009_2013 = Constants.COPYRIGHT_2009_2013;
+
+    private static final Comparator<StoredVersion> OLDEST_FIRST = new Comparator<StoredVersion>() {
+        public int compare(StoredVersion a, StoredVersion b) {
+            int first = a.getVersionNumber();
+            int second = b.getVersionNumber();
+            return((first < second) ? -1 : ((first == second) ? 0 : 1));
+        }
+    };
+
+    private VersionRetention() {
+    }
+
+    /**
+     * Removes one version for {@link VersionRetention#trim(StoredVersion[], int, Trimmer)}.
+     */
+    interface Trimmer {
+        /**
+         * Remove the version from the history.
+         *
+         * @param version the version to remove
+         * @return true if the version was removed, false if it has to be kept,
+         *         for example because it could not be locked or destroyed
+         */
+        boolean trim(StoredVersion version);
+    }
+
+    /**
+     * Get the number of versions that exceed the number allowed to be kept.
+     *
+     * @param versions the versions of one object, in any order
+     * @param allowed the number of versions to keep, see
+     *        {@link Manager#getMaxVersionsToStore()}. A value less than 1
+     *        means there is no limit.
+     * @return the number of versions to remove, 0 if there are no more than
+     *         <code>allowed</code> versions
+     */
+    static int excess(StoredVersion[] versions, int allowed) {
+        int count = versions.length - allowed;
+        if ((allowed < 1) || (count <= 0)) {
+            return(0);
+        }
+        return(count);
+    }
+
+    /**
+     * Remove the oldest versions until no more than the allowed number are
+     * left. A version that the trimmer has to keep is skipped and the next
+     * newer one is tried instead, as the lookup of every number from 1 up
+     * did, so the history is still brought down to the limit when it can be.
+     *
+     * @param versions the versions of one object, in any order. The datastore
+     *        usually returns them oldest first, in which case ordering them
+     *        is a single pass. The array is not modified.
+     * @param allowed the number of versions to keep, see
+     *        {@link #excess(StoredVersion[], int)}
+     * @param trimmer removes each version, oldest first
+     * @return the number of versions removed
+     */
+    static int trim(StoredVersion[] versions, int allowed, Trimmer trimmer) {
+        int count = excess(versions, allowed);
+        if (count == 0) {
+            return(0);
+        }
+        StoredVersion[] ordered = versions.clone();
+        Arrays.sort(ordered, OLDEST_FIRST);
+        int trimmed = 0;
+        for (int i=0; (i<ordered.length) && (trimmed<count); i++) {
+            if (trimmer.trim(ordered[i])) {
+                trimmed++;
+            }
+        }
+        return(trimmed);
+    }
+}
@@ -36,7 +36,7 @@ import com.ibm.datapower.amt.amp.Notification;
  */
 //* Created on Oct 23, 2006
 abstract class WorkArea {
-    protected volatile Queue backgroundTaskQueue = null;
+    protected volatile BackgroundTaskQueue backgroundTaskQueue = null;
     protected volatile QueueCollection notificationQueue = null;
     
     public static final String COPYRIGHT_2009_2010 = Constants.COPYRIGHT_2009_2010;
@@ -45,7 +45,7 @@ abstract class WorkArea {
     
     WorkArea(Integer backgroundTaskQueueSize) {
         // BackgroundTask queue may have a size limit, it is OK to use null here
-        this.backgroundTaskQueue = new Queue(backgroundTaskQueueSize);
+        this.backgroundTaskQueue = new BackgroundTaskQueue(backgroundTaskQueueSize);
         // Notification queue has no size limit    
         this.notificationQueue = new QueueCollection();
     }
@@ -54,6 +54,10 @@ abstract class WorkArea {
         return(this.backgroundTaskQueue.isEmpty());
     }
     
+    boolean hasBackgroundTasks(TaskPriority priority) {
+        return(this.backgroundTaskQueue.getSize(priority) > 0);
+    }
+    
     boolean isNotificationQueueEmpty() {
         return(this.notificationQueue.isEmpty());
     }
@@ -74,8 +78,8 @@ abstract class WorkArea {
         return(this.notificationQueue.removeQuick());
     }
     
-    Object backgroundTaskQueueRemoveQuick() throws NotExistException {
-        return(this.backgroundTaskQueue.removeQuick());
+    Object backgroundTaskQueuePoll() {
+        return(this.backgroundTaskQueue.poll());
     }
 
     /**
@@ -100,7 +104,27 @@ abstract class WorkArea {
      * @see #internalEnqueue(Notification)
      */
     void internalEnqueue(BackgroundTask backgroundTask) throws FullException {
-        this.backgroundTaskQueue.add(backgroundTask);
+        this.backgroundTaskQueue.offer(backgroundTask, 0);
+    }
+
+    /**
+     * Add a BackgroundTask to the queue, waiting up to a time limit for room
+     * if the queue is full. Like {@link #internalEnqueue(BackgroundTask)},
+     * this should be called only by QueueProcessor, and it must not be called
+     * while holding the QueueProcessor's monitor, since the QueueProcessor
+     * needs it to make room.
+     * 
+     * @param backgroundTask
+     *            the BackgroundTask to add to the queue to be later handled by
+     *            the QueueProcessor thread
+     * @param timeoutMS
+     *            how long to wait for room
+     * @throws FullException
+     *             if the queue is still full after the wait
+     * @see QueueProcessor#enqueue(BackgroundTask, WorkArea, long)
+     */
+    void internalEnqueue(BackgroundTask backgroundTask, long timeoutMS) throws FullException {
+        this.backgroundTaskQueue.offer(backgroundTask, timeoutMS);
     }
 
     /**
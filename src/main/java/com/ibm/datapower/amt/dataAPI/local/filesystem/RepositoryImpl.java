@@ -17,14 +17,18 @@
 
 package com.ibm.datapower.amt.dataAPI.local.filesystem;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
 import java.util.Enumeration;
@@ -35,8 +39,26 @@ import java.util.List;
 import java.util.Vector;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipInputStream;
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.apache.xmlbeans.SimpleValue;
+import org.apache.xmlbeans.XmlError;
+import org.apache.xmlbeans.XmlException;
+import org.apache.xmlbeans.XmlObject;
 import org.apache.xmlbeans.XmlOptions;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 
 import com.ibm.datapower.amt.Constants;
 import com.ibm.datapower.amt.Credential;
@@ -61,6 +83,7 @@ import com.ibm.datapower.amt.dataAPI.StoredFirmware;
 import com.ibm.datapower.amt.dataAPI.StoredFirmwareVersion;
 import com.ibm.datapower.amt.dataAPI.StoredManagedSet;
 import com.ibm.datapower.amt.dataAPI.StoredTag;
+import com.ibm.datapower.amt.dataAPI.utils.ExportImport;
 import com.ibm.datapower.amt.logging.LoggerHelper;
 import com.ibm.datapower.lfs.schemas.x70.datapowermgr.DPDevice;
 import com.ibm.datapower.lfs.schemas.x70.datapowermgr.DPFirmware;
@@ -115,7 +138,14 @@ public class RepositoryImpl implements Repository
 
    // The collection contains all the in-use blob files' names
    // It will be used for garbage collection
-   static private Collection inUseBlobFiles = null;
+   static private Collection<String> inUseBlobFiles = null;
+
+   // The blob files of deleted versions. A file is removed once neither the
+   // repository file nor the last version of it refers to it, which is after
+   // the second save that follows the delete. They are removed in one batch.
+   static private final Object discardedBlobFilesLock = new Object();
+   static private List<String> discardedBlobFiles = new ArrayList<String>();
+   static private List<String> unreferencedBlobFiles = new ArrayList<String>();
 
    private volatile static RepositoryImpl singleton = null;
 
@@ -128,10 +158,20 @@ public class RepositoryImpl implements Repository
 
    static private final String BLOB_FILE_PREFIX = "Blob";
    static private final String BLOB_FILE_SUFFIX = "bin";
+   static private final String BLOB_REFERENCE_PATH = "$this//@versionImageFileLocation";
+   static private final int IMPORT_BUFFER_SIZE = 65536;
+   static private final String MANAGER_ELEMENT = "DPManager";
+   static private final String DEVICES_ELEMENT = "devices";
+   static private final String FIRMWARES_ELEMENT = "firmwares";
+   static private final String MANAGED_SETS_ELEMENT = "managedSets";
+   static private final String TAG_ELEMENT = "tag";
+   static private final String VERSIONS_STORED_LIMIT_ATTRIBUTE = "VersionsStoredLimit";
 
    static private final String REPOSITORY_FILE_NAME = "WAMT.repository.xml";
    static private final String LAST_VERSION_REPOSITORY_FILE_NAME = "lastVersion_WAMT.repository.xml";
    static private final String TEMPORARY_REPOSITORY_FILE_NAME = "temp_WAMT.repository.xml";
+   static private final String EXPORT_REPOSITORY_FILE_NAME = "export_WAMT.repository.xml";
+   static private final String IMPORT_REPOSITORY_FILE_NAME = "import_WAMT.repository.xml";
    static private final String REPOSITORY_DIRECTORY_PROPERTY_NAME = "RepositoryDirectory";
 
 
@@ -236,6 +276,11 @@ public class RepositoryImpl implements Repository
       repository_dir = (String)credential.getProperty(REPOSITORY_DIRECTORY_PROPERTY_NAME);
       if ( repository_dir != null ) {
     	  System.setProperty(WAMT_REPOS_HOME, repository_dir);
+    	  // init() only adds the separator when the singleton is created or loaded, 
+    	  // but startup() builds the repository file path before it loads
+    	  if (!repository_dir.endsWith(File.separator)){
+    		  repository_dir = repository_dir + File.separator;
+    	  }
       }
       return getInstance();
   }
@@ -250,32 +295,245 @@ public class RepositoryImpl implements Repository
    }
    /**
     * <p>
-    * Note:  The Local File System implementation does not implement this method. To
-    * backup the repository, make copies of all the files in configured repository directory. 
+    * Note:  The Local File System implementation writes a zip file that holds the current 
+    * repository file as DPManager.xml, followed by the blob file of every stored version, 
+    * as written by {@link ExportImport#exportFiles(OutputStream, File, File[], boolean)}. 
+    * Blob files that are no longer referenced by the repository are not exported. The 
+    * repository is locked only while the repository file is written, not while the zip 
+    * file is streamed.
     * </p>
     * <inheritDoc /> 
     */
-   public void exportAll(OutputStream outputStream)
+   public void exportAll(OutputStream outputStream) throws DatastoreException
    {
-	   final String METHOD_NAME = "exportAll()";
-       logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME, 
-    		   "exportAll is not implemented!!!"); //$NON-NLS-1$ 
-       return;
+      final String METHOD_NAME = "exportAll";
+      logger.entering(CLASS_NAME, METHOD_NAME, outputStream);
+
+      File exportFile = new File(repository_dir + EXPORT_REPOSITORY_FILE_NAME);
+      String[] blobFileNames = null;
+      synchronized (this)
+      {
+         // Reuse the garbage collection bookkeeping to learn which blob files
+         // the saved repository file refers to
+         boolean wasCollectingGarbage = collectingGarbage;
+         Collection<String> wasInUseBlobFiles = inUseBlobFiles;
+         collectingGarbage = true;
+         inUseBlobFiles = new HashSet<String>();
+         try
+         {
+            save(exportFile.getPath());
+            blobFileNames = inUseBlobFiles.toArray(new String[inUseBlobFiles.size()]);
+         }
+         finally
+         {
+            collectingGarbage = wasCollectingGarbage;
+            inUseBlobFiles = wasInUseBlobFiles;
+         }
+      }
+
+      Arrays.sort(blobFileNames);
+      File[] blobFiles = new File[blobFileNames.length];
+      for (int i=0; i<blobFileNames.length; i++)
+      {
+         blobFiles[i] = new File(repository_dir + blobFileNames[i]);
+      }
+      logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME, 
+            "Exporting " + blobFiles.length + " blob files"); //$NON-NLS-1$ //$NON-NLS-2$
+
+      try
+      {
+         ExportImport.exportFiles(outputStream, exportFile, blobFiles, false);
+      }
+      catch (IOException e)
+      {
+         logger.throwing(CLASS_NAME, METHOD_NAME, e);
+         String message = Messages.getString("DataStoreException");          
+         throw new DatastoreException(message, e, "DataStoreException");
+      }
+      finally
+      {
+         if (!exportFile.delete())
+            logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME, "Unable to delete file " + exportFile.getPath());
+      }
+
+      logger.exiting(CLASS_NAME, METHOD_NAME);
    }
 
    /**
     * <p>
-    * Note:  The Local File System implementation does not implement this method. 
+    * Note:  The Local File System implementation reads a zip file written by 
+    * {@link #exportAll(OutputStream)}. The zip file is validated while it is streamed: 
+    * the repository file must come first and must be valid against the schema, the CRC 
+    * of every entry is checked, and every blob file that the repository file refers to 
+    * must be present. The blob files are written to the repository directory under new 
+    * names so they cannot collide with existing ones. The import is committed by 
+    * replacing the repository file only once everything has been validated; if the 
+    * import fails, the repository is left as it was.
     * </p>
     * <inheritDoc /> 
     */
-   public void importAll(InputStream inputStream) throws DatastoreException
+   public synchronized void importAll(InputStream inputStream) throws DatastoreException
    {
-	   final String METHOD_NAME = "importAll()";
-       logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME, 
-    		   "importAll is not implemented!!!"); //$NON-NLS-1$ 
-       return;
+      final String METHOD_NAME = "importAll";
+      logger.entering(CLASS_NAME, METHOD_NAME, inputStream);
+
+      File reposDir = new File(repository_dir);
+      File importFile = new File(repository_dir + IMPORT_REPOSITORY_FILE_NAME);
+      // archive entry name -> name of the blob file created for it
+      Hashtable<String, String> importedBlobFiles = new Hashtable<String, String>();
+      boolean committed = false;
+      // The caller owns the stream, so closing the zip stream must not close it
+      ZipInputStream zipIS = new ZipInputStream(new BufferedInputStream(
+            new UnclosableInputStream(inputStream), IMPORT_BUFFER_SIZE));
+      try
+      {
+         ZipEntry entry = zipIS.getNextEntry();
+         if (entry == null || !ExportImport.CONFIG_FILE_NAME_IN_ZIPFILE.equals(entry.getName()))
+         {
+            throw badImport(METHOD_NAME, "the first entry is not " + ExportImport.CONFIG_FILE_NAME_IN_ZIPFILE);
+         }
+         DPManagerDocument dpmDoc = DPManagerDocument.Factory.parse(new UnclosableInputStream(zipIS));
+         List<XmlError> errors = new Vector<XmlError>();
+         if (!dpmDoc.validate(new XmlOptions().setErrorListener(errors)))
+         {
+            throw badImport(METHOD_NAME, "the repository file is not valid: " + errors);
+         }
+         XmlObject[] references = dpmDoc.selectPath(BLOB_REFERENCE_PATH);
+         HashSet<String> referencedBlobFiles = new HashSet<String>();
+         for (int i=0; i<references.length; i++)
+         {
+            referencedBlobFiles.add(((SimpleValue) references[i]).getStringValue());
+         }
+
+         byte[] buffer = new byte[IMPORT_BUFFER_SIZE];
+         while ((entry = zipIS.getNextEntry()) != null)
+         {
+            String name = entry.getName();
+            if (!referencedBlobFiles.contains(name))
+            {
+               logger.logp(Level.FINE, CLASS_NAME, METHOD_NAME, 
+                     "Skipping entry that the repository file does not refer to: " + name); //$NON-NLS-1$
+               continue;
+            }
+            if (importedBlobFiles.containsKey(name))
+            {
+               throw badImport(METHOD_NAME, "duplicate entry " + name);
+            }
+            File blobFile = File.createTempFile(BLOB_FILE_PREFIX, "." + BLOB_FILE_SUFFIX, reposDir);
+            importedBlobFiles.put(name, blobFile.getName());
+            FileOutputStream blobOS = new FileOutputStream(blobFile);
+            try
+            {
+               // ZipInputStream verifies the size and CRC when it reaches the end of the entry
+               int readLength;
+               while ((readLength = zipIS.read(buffer)) > -1)
+               {
+                  blobOS.write(buffer, 0, readLength);
+               }
+            }
+            finally
+            {
+               blobOS.close();
+            }
+            if (entry.getTime() != -1 && !blobFile.setLastModified(entry.getTime()))
+               logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME, "Unable to set the time of " + blobFile.getPath());
+         }
 
+         referencedBlobFiles.removeAll(importedBlobFiles.keySet());
+         if (!referencedBlobFiles.isEmpty())
+         {
+            throw badImport(METHOD_NAME, "missing blob files " + referencedBlobFiles);
+         }
+         for (int i=0; i<references.length; i++)
+         {
+            SimpleValue reference = (SimpleValue) references[i];
+            reference.setStringValue(importedBlobFiles.get(reference.getStringValue()));
+         }
+         dpmDoc.save(importFile, new XmlOptions().setSavePrettyPrint());
+
+         // Commit by putting the new repository file in place
+         if (!replaceRepositoryFile(importFile))
+         {
+            String message = Messages.getString("DataStoreException");          
+            throw new DatastoreException(message, "DataStoreException");
+         }
+         committed = true;
+      }
+      catch (DatastoreException e)
+      {
+         logger.throwing(CLASS_NAME, METHOD_NAME, e);
+         throw e;
+      }
+      catch (ZipException e)
+      {
+         throw badImport(METHOD_NAME, e.toString());
+      }
+      catch (XmlException e)
+      {
+         throw badImport(METHOD_NAME, e.toString());
+      }
+      catch (IOException e)
+      {
+         logger.throwing(CLASS_NAME, METHOD_NAME, e);
+         String message = Messages.getString("DataStoreException");          
+         throw new DatastoreException(message, e, "DataStoreException");
+      }
+      finally
+      {
+         try
+         {
+            zipIS.close();
+         }
+         catch (IOException e)
+         {
+            // only releases the inflater
+         }
+         if (!committed)
+         {
+            Enumeration<String> e = importedBlobFiles.elements();
+            while (e.hasMoreElements())
+            {
+               File blobFile = new File(repository_dir + e.nextElement());
+               if (!blobFile.delete())
+                  logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME, "Unable to delete file " + blobFile.getPath());
+            }
+            if (importFile.exists() && !importFile.delete())
+               logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME, "Unable to delete file " + importFile.getPath());
+         }
+      }
+
+      logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME, 
+            "Imported " + importedBlobFiles.size() + " blob files"); //$NON-NLS-1$ //$NON-NLS-2$
+      try
+      {
+         load(repository_dir + REPOSITORY_FILE_NAME);
+      }
+      catch (DatastoreException e)
+      {
+         // Go back to the repository file as it was before the import
+         File repositoryFile = new File(repository_dir + REPOSITORY_FILE_NAME);
+         File lastVersionRepositoryFile = new File(repository_dir + LAST_VERSION_REPOSITORY_FILE_NAME);
+         if (lastVersionRepositoryFile.exists() && repositoryFile.delete() 
+               && lastVersionRepositoryFile.renameTo(repositoryFile))
+         {
+            load(repository_dir + REPOSITORY_FILE_NAME);
+         }
+         throw e;
+      }
+
+      logger.exiting(CLASS_NAME, METHOD_NAME);
+   }
+
+   /*
+    * Log why an import was rejected and create the exception for it
+    */
+   private static DatastoreException badImport(String methodName, String reason)
+   {
+      String message = Messages.getString("wamt.dataAPI.ExportImport.badImport"); //$NON-NLS-1$
+      logger.logp(Level.WARNING, CLASS_NAME, methodName, message + " (" + reason + ")"); //$NON-NLS-1$ //$NON-NLS-2$
+      DatastoreException e = new DatastoreException(message, "wamt.dataAPI.ExportImport.badImport", null); //$NON-NLS-1$
+      logger.throwing(CLASS_NAME, methodName, e);
+      return e;
    }
 
    /**
@@ -291,16 +549,113 @@ public class RepositoryImpl implements Repository
       final String METHOD_NAME = "save";
       logger.entering(CLASS_NAME, METHOD_NAME);
 
-      String lastVersionRepositoryFilePath = repository_dir + LAST_VERSION_REPOSITORY_FILE_NAME;
       String tempFilePath = repository_dir + TEMPORARY_REPOSITORY_FILE_NAME;
-      String repostoryFilePath = repository_dir + REPOSITORY_FILE_NAME;
 
-      //Save to a temporary file
-      save(tempFilePath);
+      // the versions deleted before this point are not in the file being saved
+      List<String> discarded = takeDiscardedBlobFiles();
+      boolean replaced = false;
+      try
+      {
+         //Save to a temporary file
+         save(tempFilePath);
 
-      File repositoryFile = new File(repostoryFilePath);
-      File lastVersionRepositoryFile = new File(lastVersionRepositoryFilePath);
-      File tempFile = new File(tempFilePath);
+         replaced = replaceRepositoryFile(new File(tempFilePath));
+      }
+      finally
+      {
+         if (replaced)
+         {
+            removeUnreferencedBlobFiles(discarded);
+         }
+         else
+         {
+            restoreDiscardedBlobFiles(discarded);
+         }
+      }
+
+      logger.exiting(CLASS_NAME, METHOD_NAME);
+   }
+
+   /*
+    * Remember the blob file of a deleted version, so it can be removed when it
+    * is no longer referenced. See discardedBlobFiles.
+    */
+   static void discardBlobFile(String blobFileName)
+   {
+      if (blobFileName == null)
+      {
+         return;
+      }
+      synchronized (discardedBlobFilesLock)
+      {
+         discardedBlobFiles.add(blobFileName);
+      }
+   }
+
+   private static List<String> takeDiscardedBlobFiles()
+   {
+      synchronized (discardedBlobFilesLock)
+      {
+         List<String> result = discardedBlobFiles;
+         discardedBlobFiles = new ArrayList<String>();
+         return result;
+      }
+   }
+
+   private static void restoreDiscardedBlobFiles(List<String> discarded)
+   {
+      synchronized (discardedBlobFilesLock)
+      {
+         discardedBlobFiles.addAll(discarded);
+      }
+   }
+
+   /*
+    * Called after a save has replaced the repository file. The files discarded
+    * before the previous save are now referenced by neither the repository
+    * file nor the last version of it. The ones discarded before this save are
+    * still referenced by the last version, so they wait for the next save.
+    */
+   private void removeUnreferencedBlobFiles(List<String> discarded)
+   {
+      final String METHOD_NAME = "removeUnreferencedBlobFiles";
+      List<String> unreferenced = null;
+      synchronized (discardedBlobFilesLock)
+      {
+         unreferenced = unreferencedBlobFiles;
+         unreferencedBlobFiles = discarded;
+      }
+      if (unreferenced.isEmpty())
+      {
+         return;
+      }
+      int removed = 0;
+      for (int i = 0; i < unreferenced.size(); i++)
+      {
+         File blobFile = new File(repository_dir + unreferenced.get(i));
+         if (blobFile.delete())
+         {
+            removed++;
+         }
+         else
+         {
+            logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME, "Unable to delete file " + blobFile.getPath()); //$NON-NLS-1$
+         }
+      }
+      logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME,
+            "Removed " + removed + " of " + unreferenced.size() + " blob files of deleted versions"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+   }
+
+   /*
+    * Make a new file the current repository file, keeping the current one as the
+    * last version. Return true if the new file is in place.
+    */
+   private boolean replaceRepositoryFile(File newFile)
+   {
+      final String METHOD_NAME = "replaceRepositoryFile";
+
+      File repositoryFile = new File(repository_dir + REPOSITORY_FILE_NAME);
+      File lastVersionRepositoryFile = new File(repository_dir + LAST_VERSION_REPOSITORY_FILE_NAME);
 
       if (lastVersionRepositoryFile.exists())
       {
@@ -309,14 +664,16 @@ public class RepositoryImpl implements Repository
       }
 
       // Keep the last version of repository file
-      if ( !repositoryFile.renameTo(lastVersionRepositoryFile) )
-    	  logger.logp(Level.WARNING, CLASS_NAME, METHOD_NAME, "Unable to rename file " + repostoryFilePath);
+      if ( repositoryFile.exists() && !repositoryFile.renameTo(lastVersionRepositoryFile) )
+    	  logger.logp(Level.WARNING, CLASS_NAME, METHOD_NAME, "Unable to rename file " + repositoryFile.getPath());
 
-      // Rename the temporary file to make it be the current repository file
-      if ( !tempFile.renameTo(repositoryFile) )
-    	  logger.logp(Level.WARNING, CLASS_NAME, METHOD_NAME, "Unable to rename file " + tempFilePath);
-
-      logger.exiting(CLASS_NAME, METHOD_NAME);
+      // Rename the new file to make it be the current repository file
+      if ( !newFile.renameTo(repositoryFile) )
+      {
+    	  logger.logp(Level.WARNING, CLASS_NAME, METHOD_NAME, "Unable to rename file " + newFile.getPath());
+    	  return false;
+      }
+      return true;
    }
 
    /*
@@ -369,6 +726,12 @@ public class RepositoryImpl implements Repository
       
       // Initialize the hash tables
       this.init();
+      // the loaded repository may refer to any blob file
+      synchronized (discardedBlobFilesLock)
+      {
+         discardedBlobFiles = new ArrayList<String>();
+         unreferencedBlobFiles = new ArrayList<String>();
+      }
       
       File repositoryFile = new java.io.File(repositoryFilePath);
 
@@ -385,11 +748,8 @@ public class RepositoryImpl implements Repository
       {
          // Initialize the mapping table
          this.mapXmlObjectsToMemObjects = new Hashtable();
-         // Parse the XML repository file
-         DPManagerDocument dpmDoc =
-            DPManagerDocument.Factory.parse(repositoryFile);
-         // Transform the XML object into a RepositoryImpl object
-         fromXMLObject(dpmDoc.getDPManager());
+         // Parse and transform the XML repository file one element at a time
+         fromXMLFile(repositoryFile);
          // delete the mapping table
          this.mapXmlObjectsToMemObjects = null;
       }
@@ -962,7 +1322,7 @@ public class RepositoryImpl implements Repository
       {
          // Enable garbage collection
          collectingGarbage = true;
-         inUseBlobFiles = new HashSet();
+         inUseBlobFiles = new HashSet<String>();
 
          // Save the repository
          save(true);
@@ -1280,6 +1640,208 @@ public class RepositoryImpl implements Repository
       logger.exiting(CLASS_NAME,METHOD_NAME, this);
    }
 
+   /*
+    * Transform the XML repository file into a RepositoryImpl object without
+    * holding the whole document in memory, which for a repository with long
+    * version histories is many times the size of the file. The children of
+    * the DPManager element are read with a streaming parser and each one is
+    * parsed into its XML object and transformed on its own, so the peak is a
+    * single device with its domains and versions. Managed sets and tags refer
+    * to devices and domains by id, so they are transformed last, in the same
+    * order as fromXMLObject.
+    */
+   private void fromXMLFile(File repositoryFile) throws IOException, XMLStreamException, XmlException, ParserConfigurationException, DatastoreException
+   {
+      final String METHOD_NAME = "fromXMLFile";
+      logger.entering(CLASS_NAME, METHOD_NAME, repositoryFile);
+
+      InputStream inputStream = new BufferedInputStream(new FileInputStream(repositoryFile), IMPORT_BUFFER_SIZE);
+      XMLStreamReader reader = null;
+      try
+      {
+         XMLInputFactory factory = XMLInputFactory.newInstance();
+         factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+         reader = factory.createXMLStreamReader(inputStream);
+
+         reader.nextTag();
+         if (!MANAGER_ELEMENT.equals(reader.getLocalName()))
+         {
+            throw new XmlException("unexpected root element " + reader.getName());
+         }
+         String limit = reader.getAttributeValue(null, VERSIONS_STORED_LIMIT_ATTRIBUTE);
+         this.maxVersionsToStore = (limit == null) ? 0 : Integer.parseInt(limit.trim());
+
+         // each child is copied under an empty DPManager carrying the
+         // namespaces declared on the real one, so xsi:type resolves the same
+         // way it does when the whole document is parsed
+         DocumentBuilderFactory builderFactory = DocumentBuilderFactory.newInstance();
+         builderFactory.setNamespaceAware(true);
+         DocumentBuilder builder = builderFactory.newDocumentBuilder();
+         String managerNamespace = reader.getNamespaceURI();
+         String managerName = qualifiedName(reader.getPrefix(), reader.getLocalName());
+         String[][] namespaces = new String[reader.getNamespaceCount()][];
+         for (int i = 0; i < namespaces.length; i++)
+         {
+            namespaces[i] = new String[] { reader.getNamespacePrefix(i), reader.getNamespaceURI(i) };
+         }
+         List<DPManagedSet> managedSets = new ArrayList<DPManagedSet>();
+         List<DPTag> tags = new ArrayList<DPTag>();
+         int devices = 0;
+         int firmwares = 0;
+         // each copy leaves the reader on the end tag of the element it read
+         while (reader.nextTag() == XMLStreamConstants.START_ELEMENT)
+         {
+            String name = reader.getLocalName();
+            if (!DEVICES_ELEMENT.equals(name) && !FIRMWARES_ELEMENT.equals(name) &&
+                  !MANAGED_SETS_ELEMENT.equals(name) && !TAG_ELEMENT.equals(name))
+            {
+               // properties and extensions are not used
+               skipElement(reader);
+               continue;
+            }
+            Document document = builder.newDocument();
+            Element root = document.createElementNS(managerNamespace, managerName);
+            for (int i = 0; i < namespaces.length; i++)
+            {
+               root.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                     qualifiedName(XMLConstants.XMLNS_ATTRIBUTE, namespaces[i][0]), namespaces[i][1]);
+            }
+            document.appendChild(root);
+            copyElement(reader, document, root);
+            DPManager manager = DPManagerDocument.Factory.parse(document).getDPManager();
+            if (DEVICES_ELEMENT.equals(name))
+            {
+               StoredDeviceImpl.fromXMLObject(manager.getDevicesArray(0));
+               devices++;
+            }
+            else if (FIRMWARES_ELEMENT.equals(name))
+            {
+               StoredFirmwareImpl.fromXMLObject(manager.getFirmwaresArray(0));
+               firmwares++;
+            }
+            else if (MANAGED_SETS_ELEMENT.equals(name))
+            {
+               managedSets.add(manager.getManagedSetsArray(0));
+            }
+            else
+            {
+               tags.add(manager.getTagArray(0));
+            }
+         }
+
+         for (int i = 0; i < managedSets.size(); i++)
+         {
+            StoredManagedSetImpl.fromXMLObject(managedSets.get(i));
+         }
+         for (int i = 0; i < tags.size(); i++)
+         {
+            StoredTagImpl.fromXMLObject(tags.get(i));
+         }
+         logger.logp(Level.FINER, CLASS_NAME, METHOD_NAME,
+               "loaded " + devices + " devices, " + firmwares + " firmwares, " + //$NON-NLS-1$ //$NON-NLS-2$
+               managedSets.size() + " managed sets and " + tags.size() + " tags"); //$NON-NLS-1$ //$NON-NLS-2$
+      }
+      finally
+      {
+         if (reader != null)
+         {
+            try
+            {
+               reader.close();
+            }
+            catch (XMLStreamException e)
+            {
+               // the stream is closed below
+            }
+         }
+         inputStream.close();
+      }
+      logger.exiting(CLASS_NAME, METHOD_NAME, this);
+   }
+
+   /*
+    * Copies the element the reader is positioned on into the DOM under
+    * <code>parent</code>, leaving the reader on its end tag.
+    */
+   private static void copyElement(XMLStreamReader reader, Document document, Node parent) throws XMLStreamException
+   {
+      Node current = parent;
+      int depth = 0;
+      while (true)
+      {
+         switch (reader.getEventType())
+         {
+         case XMLStreamConstants.START_ELEMENT:
+            Element element = document.createElementNS(emptyToNull(reader.getNamespaceURI()),
+                  qualifiedName(reader.getPrefix(), reader.getLocalName()));
+            for (int i = 0; i < reader.getNamespaceCount(); i++)
+            {
+               String prefix = reader.getNamespacePrefix(i);
+               element.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI,
+                     (prefix == null || prefix.length() == 0) ? XMLConstants.XMLNS_ATTRIBUTE : XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix, //$NON-NLS-1$
+                     reader.getNamespaceURI(i));
+            }
+            for (int i = 0; i < reader.getAttributeCount(); i++)
+            {
+               element.setAttributeNS(emptyToNull(reader.getAttributeNamespace(i)),
+                     qualifiedName(reader.getAttributePrefix(i), reader.getAttributeLocalName(i)),
+                     reader.getAttributeValue(i));
+            }
+            current.appendChild(element);
+            current = element;
+            depth++;
+            break;
+         case XMLStreamConstants.END_ELEMENT:
+            current = current.getParentNode();
+            depth--;
+            break;
+         case XMLStreamConstants.CHARACTERS:
+         case XMLStreamConstants.CDATA:
+         case XMLStreamConstants.SPACE:
+            current.appendChild(document.createTextNode(reader.getText()));
+            break;
+         default:
+            // comments and processing instructions are not kept
+            break;
+         }
+         if (depth == 0)
+         {
+            return;
+         }
+         reader.next();
+      }
+   }
+
+   private static String qualifiedName(String prefix, String localName)
+   {
+      return (prefix == null || prefix.length() == 0) ? localName : prefix + ":" + localName; //$NON-NLS-1$
+   }
+
+   private static String emptyToNull(String namespace)
+   {
+      return (namespace == null || namespace.length() == 0) ? null : namespace;
+   }
+
+   /*
+    * Skip the element the reader is on, leaving the reader on its end tag
+    */
+   private static void skipElement(XMLStreamReader reader) throws XMLStreamException
+   {
+      int depth = 1;
+      while (depth > 0)
+      {
+         int event = reader.next();
+         if (event == XMLStreamConstants.START_ELEMENT)
+         {
+            depth++;
+         }
+         else if (event == XMLStreamConstants.END_ELEMENT)
+         {
+            depth--;
+         }
+      }
+   }
+
    /*
     * Save the blob data into a file under the repostory directory
     * return the file name
@@ -1327,7 +1889,7 @@ public class RepositoryImpl implements Repository
    }
 
 
-   static Collection getinUseBlobFiles()
+   static Collection<String> getinUseBlobFiles()
    {
       return inUseBlobFiles;
    }
@@ -1387,5 +1949,19 @@ public class RepositoryImpl implements Repository
 //}
    
    
+   /*
+    * Keeps the parsers and the zip stream from closing a stream they do not own
+    */
+   private static class UnclosableInputStream extends FilterInputStream
+   {
+      UnclosableInputStream(InputStream in)
+      {
+         super(in);
+      }
+
+      public void close()
+      {
+      }
+   }
 }
 
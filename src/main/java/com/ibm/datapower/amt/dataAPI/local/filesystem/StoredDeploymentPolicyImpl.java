@@ -69,7 +69,7 @@ public class StoredDeploymentPolicyImpl implements StoredDeploymentPolicy
    private String policyDomainName = null;
    private String policyName = null;
    private DeploymentPolicyType policyType = null;
-   private Hashtable versions = null;
+   private VersionHistory versions = null;
    private long synchDate =0;   
   
    // The corresponding XML object. It is created when this object 
@@ -92,7 +92,7 @@ public class StoredDeploymentPolicyImpl implements StoredDeploymentPolicy
    StoredDeploymentPolicyImpl(StoredDomain sdomain,
              String policyName) throws AlreadyExistsInRepositoryException, DatastoreException
    {
-      versions = new Hashtable();
+      versions = new VersionHistory();
 
       if (sdomain instanceof StoredDomainImpl)
           this.domain = (StoredDomainImpl) sdomain;
@@ -240,14 +240,7 @@ public class StoredDeploymentPolicyImpl implements StoredDeploymentPolicy
     */   
    public StoredDeploymentPolicyVersion getVersion (int versionNumber)
    {
-	  StoredDeploymentPolicyVersion result = null;
-	  StoredDeploymentPolicyVersion[] versions  = this.getVersions();
-	  for(StoredDeploymentPolicyVersion version: versions){
-		  if (version.getVersionNumber() == versionNumber){
-			  result = version;
-		  }
-	  }
-      return result;
+      return (StoredDeploymentPolicyVersion) this.versions.get(versionNumber);
    }
    
    /* (non-Javadoc)
@@ -228,6 +228,7 @@ public class StoredDeploymentPolicyVersionImpl implements StoredDeploymentPolicy
       final String METHOD_NAME = "delete";
       logger.entering(CLASS_NAME,METHOD_NAME);
       this.deploymentPolicy.removeVersion(this);
+      RepositoryImpl.discardBlobFile(this.versionImageFileLocation);
       logger.exiting(CLASS_NAME,METHOD_NAME);
 
    }
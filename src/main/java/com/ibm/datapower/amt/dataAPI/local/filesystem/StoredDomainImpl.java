@@ -84,7 +84,7 @@ public class StoredDomainImpl implements StoredDomain
    
    private Hashtable allDomains = null; 
 
-   private Hashtable versions = null;
+   private VersionHistory versions = null;
    private URLSource sourceURL = null;
    private URLSource deployedSourceURL = null;   
    private DomainSynchronizationMode synchMode = DomainSynchronizationMode.MANUAL;
@@ -115,7 +115,7 @@ public class StoredDomainImpl implements StoredDomain
      public StoredDomainImpl(Hashtable allDomains, StoredDevice device,
              String domainName) throws AlreadyExistsInRepositoryException
    {	 
-      versions = new Hashtable();
+      versions = new VersionHistory();
       this.deploymentPolicyImpl = null;
       if (device instanceof StoredDeviceImpl)
           this.device = (StoredDeviceImpl) device;
@@ -275,6 +275,19 @@ public class StoredDomainImpl implements StoredDomain
       return(result);
    }
 
+   /**
+    * Get the version with the specified version number, without a scan of the
+    * history. This is not part of StoredDomain, so that other repository
+    * implementations do not have to provide it.
+    *
+    * @param versionNumber
+    * @return the version, or null if there is none
+    */
+   public StoredDomainVersion getVersion(int versionNumber)
+   {
+      return (StoredDomainVersion) this.versions.get(versionNumber);
+   }
+
    /* (non-Javadoc)
     * @see com.ibm.datapower.amt.dataAPI.StoredDeployableConfiguration#getHighestVersionNumber()
     */
@@ -263,6 +263,7 @@ public class StoredDomainVersionImpl implements StoredDomainVersion
       final String METHOD_NAME = "delete";
       logger.entering(CLASS_NAME,METHOD_NAME);
       this.domain.removeVersion(this);
+      RepositoryImpl.discardBlobFile(this.versionImageFileLocation);
       logger.exiting(CLASS_NAME,METHOD_NAME);
 
    }
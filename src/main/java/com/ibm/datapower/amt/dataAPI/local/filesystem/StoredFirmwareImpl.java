@@ -71,7 +71,7 @@ public class StoredFirmwareImpl implements StoredFirmware
    private StringCollection nonstrictFeatures = null;
 
    private Hashtable allFirmware = null;
-   private Hashtable versions = null;
+   private VersionHistory versions = null;
    
    private static final char FEATURES_DELIMITER = ';';
    
@@ -96,7 +96,7 @@ public class StoredFirmwareImpl implements StoredFirmware
          ModelType modelType, StringCollection strictFeatures,
          StringCollection nonstrictFeatures) throws AlreadyExistsInRepositoryException
    {
-      versions = new Hashtable();
+      versions = new VersionHistory();
       this.deviceType = deviceType;
       this.allFirmware = allFirmware;
       this.modelType = modelType;
@@ -211,6 +211,19 @@ public class StoredFirmwareImpl implements StoredFirmware
       return(result);
    }
 
+   /**
+    * Get the version with the specified version number, without a scan of the
+    * history. This is not part of StoredFirmware, so that other repository
+    * implementations do not have to provide it.
+    *
+    * @param versionNumber
+    * @return the version, or null if there is none
+    */
+   public StoredFirmwareVersion getVersion(int versionNumber)
+   {
+      return (StoredFirmwareVersion) this.versions.get(versionNumber);
+   }
+
   
 
    
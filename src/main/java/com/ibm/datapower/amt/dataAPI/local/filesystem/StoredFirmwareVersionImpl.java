@@ -250,18 +250,11 @@ public class StoredFirmwareVersionImpl implements StoredFirmwareVersion
       logger.entering(CLASS_NAME,methodName);
       this.storedFirmware.removeVersion(this);
       // 9933: [3661] WAMT Repository contains firmware images that have been deleted from WAMC
-      String sFilePath = RepositoryImpl.getRepositoryDir() + this.versionImageFileLocation;
-      File file = new File( sFilePath );
+      // The blob file is removed with the other discarded ones once the saved
+      // repository no longer refers to it.
       logger.logp(Level.FINER, CLASS_NAME, methodName, 
-   		   "Removing deleted blob file, " + sFilePath, " on disk"); //$NON-NLS-1$
-      if ( file.delete() ) {
-    	  logger.logp(Level.FINER, CLASS_NAME, methodName, 
-   	   		   "Removing deleted blob file, " + sFilePath + " on disk is successful"); //$NON-NLS-1$
-      }
-      else {
-    	  logger.logp(Level.FINER, CLASS_NAME, methodName, 
-    	   		   "Removing deleted blob file, " + sFilePath + "on disk is failed"); //$NON-NLS-1$
-      }
+   	   "Discarding blob file " + this.versionImageFileLocation); //$NON-NLS-1$
+      RepositoryImpl.discardBlobFile(this.versionImageFileLocation);
       logger.exiting(CLASS_NAME,methodName);
 
    }
@@ -0,0 +1,157 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.dataAPI.local.filesystem;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.ibm.datapower.amt.Constants;
+import com.ibm.datapower.amt.dataAPI.StoredVersion;
+
+/**
+ * The versions of a StoredDomainImpl, StoredDeploymentPolicyImpl or
+ * StoredFirmwareImpl. Versions are looked up by primary key, as the Hashtable
+ * this replaces did, and also by version number. They are enumerated oldest
+ * first, so the history is written to the repository in order and the oldest
+ * versions can be found without a search.
+ * <p>
+ * All methods are synchronized, as the Hashtable was. The enumerations are
+ * taken from a copy, so the history may be changed while one is in use.
+ */
+class VersionHistory
+{
+   public static final String COPYRIGHT_2009_2013 = Constants.COPYRIGHT_2009_2013;
+
+   private final Map<String, StoredVersion> byKey = new HashMap<String, StoredVersion>();
+   private final TreeMap<Position, StoredVersion> byNumber = new TreeMap<Position, StoredVersion>();
+
+   synchronized boolean containsKey(String key)
+   {
+      return byKey.containsKey(key);
+   }
+
+   synchronized StoredVersion get(String key)
+   {
+      return byKey.get(key);
+   }
+
+   /**
+    * Get the version with the specified version number.
+    *
+    * @param versionNumber
+    * @return the version, or null if there is none. If several versions have
+    *         the number, the one with the lowest primary key is returned.
+    */
+   synchronized StoredVersion get(int versionNumber)
+   {
+      Map.Entry<Position, StoredVersion> entry = byNumber.ceilingEntry(new Position(versionNumber, ""));
+      if (entry == null || entry.getKey().versionNumber != versionNumber)
+      {
+         return null;
+      }
+      return entry.getValue();
+   }
+
+   synchronized void put(String key, StoredVersion version)
+   {
+      StoredVersion replaced = byKey.put(key, version);
+      if (replaced != null)
+      {
+         byNumber.remove(new Position(replaced.getVersionNumber(), key));
+      }
+      byNumber.put(new Position(version.getVersionNumber(), key), version);
+   }
+
+   synchronized StoredVersion remove(String key)
+   {
+      StoredVersion removed = byKey.remove(key);
+      if (removed != null)
+      {
+         byNumber.remove(new Position(removed.getVersionNumber(), key));
+      }
+      return removed;
+   }
+
+   synchronized int size()
+   {
+      return byKey.size();
+   }
+
+   /**
+    * @return the primary keys, in the order of the version numbers
+    */
+   synchronized Enumeration<String> keys()
+   {
+      List<String> keys = new ArrayList<String>(byNumber.size());
+      Iterator<Position> iterator = byNumber.keySet().iterator();
+      while (iterator.hasNext())
+      {
+         keys.add(iterator.next().key);
+      }
+      return Collections.enumeration(keys);
+   }
+
+   /**
+    * @return the versions, oldest first
+    */
+   synchronized Enumeration<StoredVersion> elements()
+   {
+      return Collections.enumeration(new ArrayList<StoredVersion>(byNumber.values()));
+   }
+
+   /*
+    * Where a version sits in the history. The primary key only separates
+    * versions that share a number.
+    */
+   private static final class Position implements Comparable<Position>
+   {
+      final int versionNumber;
+      final String key;
+
+      Position(int versionNumber, String key)
+      {
+         this.versionNumber = versionNumber;
+         this.key = key;
+      }
+
+      public int compareTo(Position that)
+      {
+         if (this.versionNumber != that.versionNumber)
+         {
+            return (this.versionNumber < that.versionNumber) ? -1 : 1;
+         }
+         return this.key.compareTo(that.key);
+      }
+
+      public boolean equals(Object that)
+      {
+         return (that instanceof Position) && (compareTo((Position) that) == 0);
+      }
+
+      public int hashCode()
+      {
+         return 31 * versionNumber + key.hashCode();
+      }
+   }
+}
@@ -16,20 +16,31 @@
 
 package com.ibm.datapower.amt.dataAPI.utils;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.text.DateFormat;
 import java.util.Date;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipInputStream;
-import java.util.zip.ZipOutputStream;
 
 import com.ibm.datapower.amt.Constants;
 import com.ibm.datapower.amt.Messages;
@@ -61,12 +72,20 @@ public class ExportImport {
     /**
      * The name of the config file in the export
      */
-    static final String CONFIG_FILE_NAME_IN_ZIPFILE = "DPManager.xml";
+    public static final String CONFIG_FILE_NAME_IN_ZIPFILE = "DPManager.xml";
 
     static final String EXPORT_COMMENT_PREFIX = "DPManager export file";
 
     static final int IO_BUFFER_SIZE = 1048576 * 16; // 16MB
 
+    /**
+     * The amount of compressed data of one file that is kept in memory during
+     * an export before it is spooled to a temporary file
+     */
+    static final int SPOOL_MEMORY_LIMIT = 1048576; // 1MB
+
+    static final int SPOOL_BUFFER_SIZE = 65536; // 64KB
+
     /**
      * Creates an output stream containing a zip of the passed config file and
      * versions.
@@ -76,83 +95,102 @@ public class ExportImport {
      * @param configFile
      *            The DPManger config file. Saved as DPManager.xml in the zip
      * @param versions
-     *            An array of version files. Each file is saved uncompressed in
+     *            An array of version files. Each file is saved compressed in
      *            the zip.
      * @throws IOException
+     * @see #exportFiles(OutputStream, File, File[], boolean)
      */
     public static final void exportFiles(OutputStream os, File configFile,
             File[] versions) throws IOException {
+        exportFiles(os, configFile, versions, true);
+    }
+
+    /**
+     * Writes a zip of the passed config file and versions to an output stream.
+     * <p>
+     * Each file is read only once. A worker thread deflates it into a spool
+     * while computing its CRC and size, so that the entry header can be
+     * written with all its fields known, without reading the file a second
+     * time. Independent version files are compressed in parallel, with at most
+     * two spools per thread outstanding at any time. A spool is held in memory
+     * up to {@link #SPOOL_MEMORY_LIMIT} bytes and in a temporary file beyond
+     * that, so the heap used does not depend on the size of the versions. The
+     * entries are written in the order of the array, after the config file.
+     * 
+     * @param os
+     *            Output stream the zip is written to
+     * @param configFile
+     *            The DPManger config file. Saved as DPManager.xml in the zip
+     * @param versions
+     *            An array of version files, saved under their own names in
+     *            the zip
+     * @param closeStream
+     *            true if the output stream should be closed at exit, false if
+     *            it is left open for the caller
+     * @throws IOException
+     */
+    public static final void exportFiles(OutputStream os, File configFile,
+            File[] versions, boolean closeStream) throws IOException {
         final String METHOD_NAME = "exportFiles";
         Object[] args = { os, configFile, versions };
         logger.entering(CLASS_NAME, METHOD_NAME, args);
-        ZipOutputStream zipOS = null;
-        FileInputStream configFileIS = null, versionIS = null;
+
+        DeflatedFile[] files = new DeflatedFile[versions.length + 1];
+        // the config file goes first, importers expect it there
+        files[0] = new DeflatedFile(configFile, CONFIG_FILE_NAME_IN_ZIPFILE);
+        for (int i = 0; i < versions.length; i++) {
+            files[i + 1] = new DeflatedFile(versions[i], versions[i].getName());
+        }
+        int threads = Math.max(1, Math.min(files.length,
+                Runtime.getRuntime().availableProcessors()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads,
+                new DaemonThreadFactory());
+        LinkedList<Future<DeflatedFile>> pending = new LinkedList<Future<DeflatedFile>>();
         try {
-            zipOS = new ZipOutputStream(os);
+            ZipArchiveWriter zipOS = new ZipArchiveWriter(os);
+            int next = 0;
+            while (next < files.length || !pending.isEmpty()) {
+                while (next < files.length && pending.size() < 2 * threads) {
+                    pending.add(executor.submit(files[next++]));
+                }
+                // left pending on failure, so that the finally block waits for it
+                DeflatedFile file = waitFor(pending.getFirst());
+                pending.removeFirst();
+                try {
+                    logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME, "exporting "
+                            + file.file.getAbsolutePath() + " as " + file.name);
+                    file.writeTo(zipOS);
+                } finally {
+                    file.dispose();
+                }
+            }
             String comment = EXPORT_COMMENT_PREFIX
                     + " "
                     + DateFormat.getDateInstance(DateFormat.LONG).format(
                             new Date());
-            zipOS.setComment(comment);
-
-            // put configfile in the zip
-            // gets IOException naming missing file if file ! exist
-            configFileIS = new FileInputStream(configFile);
-            // String cfName = configFile.getName();
-            logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME, "exporting "
-                    + configFile.getAbsolutePath() + " as "
-                    + CONFIG_FILE_NAME_IN_ZIPFILE);
-            ZipEntry cfZipEntry = new ZipEntry(CONFIG_FILE_NAME_IN_ZIPFILE);
-            cfZipEntry.setTime(configFile.lastModified()); // default is now
-            zipOS.putNextEntry(cfZipEntry);
-            copyStream(configFileIS, zipOS);
-            configFileIS.close();
-            configFileIS = null;
-            zipOS.closeEntry();
-
-            // put versions in the zip file{
-            for (int i = 0; i < versions.length; i++) {
-                File version = versions[i];
-                // gets IOException naming missing file if file ! exist
-                versionIS = new FileInputStream(version);
-                String vName = version.getName();
-                logger.logp(Level.FINEST, CLASS_NAME, METHOD_NAME, "exporting "
-                        + version.getAbsolutePath() + " as " + vName);
-                ZipEntry vZipEntry = new ZipEntry(vName);
-                vZipEntry.setTime(version.lastModified()); // default is now
-                /*
-                 * domains & settings versions are compressed already. firmware
-                 * version are base64. Let's not bother compressing versions. If
-                 * you don't take the defaults you have to set length and crc
-                 */
-                vZipEntry.setMethod(ZipEntry.STORED);
-                vZipEntry.setCompressedSize(version.length());
-                vZipEntry.setSize(version.length());
-                vZipEntry.setCrc(getCRC(versionIS).getValue());
-                versionIS.close();
-
-                versionIS = new FileInputStream(version); // reopen file
-                zipOS.putNextEntry(vZipEntry);
-                copyStream(versionIS, zipOS);
-                zipOS.closeEntry();
-                versionIS.close();
-                versionIS = null;
-            }
+            zipOS.finish(comment);
         } finally {
-            // close streams in case something went wrong
-            if (zipOS != null)
+            // let the outstanding workers finish so their spools can be removed
+            executor.shutdown();
+            boolean interrupted = Thread.interrupted();
+            while (!pending.isEmpty()) {
                 try {
-                    zipOS.close();
+                    pending.getFirst().get().dispose();
+                    pending.removeFirst();
+                } catch (InterruptedException e) {
+                    // the spool would be left behind, so wait for it anyway
+                    interrupted = true;
                 } catch (Throwable t) {
+                    // a failed worker has removed its own spool
+                    pending.removeFirst();
                 }
-            if (configFileIS != null)
-                try {
-                    configFileIS.close();
-                } catch (Throwable t) {
-                }
-            if (versionIS != null)
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (closeStream)
                 try {
-                    versionIS.close();
+                    os.close();
                 } catch (Throwable t) {
                 }
         }
@@ -282,21 +320,22 @@ public class ExportImport {
         return retVal;
     }
 
-    /**
-     * Copy an InputStream to an OutputStream
-     * 
-     * @param is
-     * @param os
-     * @throws IOException
-     */
-    private static CRC32 getCRC(InputStream is) throws IOException {
-        byte[] buffer = new byte[IO_BUFFER_SIZE];
-        int readLength;
-        CRC32 crc = new CRC32();
-        while ((readLength = is.read(buffer)) > -1) {
-            crc.update(buffer, 0, readLength);
+    private static DeflatedFile waitFor(Future<DeflatedFile> future)
+            throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(e.getMessage());
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            IOException ioe = new IOException(cause.getMessage());
+            ioe.initCause(cause);
+            throw ioe;
         }
-        return crc;
     }
 
     /**
@@ -315,4 +354,145 @@ public class ExportImport {
         }
     }
 
+    /**
+     * A file that is deflated into a spool by a worker thread, with the CRC
+     * and size of its content computed in the same pass.
+     */
+    private static final class DeflatedFile implements Callable<DeflatedFile> {
+        private final File file;
+        private final String name;
+        private long time = 0;
+        private long crc = 0;
+        private long size = 0;
+        private long compressedSize = 0;
+        private ByteArrayOutputStream memory = null;
+        private File spool = null;
+
+        DeflatedFile(File file, String name) {
+            this.file = file;
+            this.name = name;
+        }
+
+        public DeflatedFile call() throws IOException {
+            this.time = this.file.lastModified();
+            CRC32 crc32 = new CRC32();
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            SpoolOutputStream spoolOS = new SpoolOutputStream();
+            // gets IOException naming missing file if file ! exist
+            FileInputStream is = new FileInputStream(this.file);
+            boolean complete = false;
+            try {
+                try {
+                    DeflaterOutputStream deflaterOS = new DeflaterOutputStream(
+                            spoolOS, deflater, SPOOL_BUFFER_SIZE);
+                    byte[] buffer = new byte[SPOOL_BUFFER_SIZE];
+                    int readLength;
+                    while ((readLength = is.read(buffer)) > -1) {
+                        crc32.update(buffer, 0, readLength);
+                        this.size += readLength;
+                        deflaterOS.write(buffer, 0, readLength);
+                    }
+                    deflaterOS.finish();
+                } finally {
+                    deflater.end();
+                    try {
+                        spoolOS.close();
+                    } finally {
+                        is.close();
+                    }
+                }
+                complete = true;
+            } finally {
+                // a failed file is never handed out, so nobody else can dispose of it
+                if (!complete) {
+                    this.dispose();
+                }
+            }
+            this.crc = crc32.getValue();
+            this.compressedSize = spoolOS.count;
+            return this;
+        }
+
+        void writeTo(ZipArchiveWriter zipOS) throws IOException {
+            zipOS.putNextEntry(this.name, this.time, ZipEntry.DEFLATED,
+                    this.crc, this.size, this.compressedSize);
+            if (this.spool == null) {
+                this.memory.writeTo(zipOS);
+            } else {
+                FileInputStream spoolIS = new FileInputStream(this.spool);
+                try {
+                    byte[] buffer = new byte[SPOOL_BUFFER_SIZE];
+                    int readLength;
+                    while ((readLength = spoolIS.read(buffer)) > -1) {
+                        zipOS.write(buffer, 0, readLength);
+                    }
+                } finally {
+                    spoolIS.close();
+                }
+            }
+            zipOS.closeEntry();
+        }
+
+        void dispose() {
+            this.memory = null;
+            if (this.spool != null) {
+                if (!this.spool.delete()) {
+                    logger.logp(Level.FINEST, CLASS_NAME, "dispose",
+                            "Unable to delete spool file " + this.spool.getAbsolutePath());
+                }
+                this.spool = null;
+            }
+        }
+
+        /**
+         * Collects the compressed data in memory, and moves it to a temporary
+         * file once it grows beyond {@link ExportImport#SPOOL_MEMORY_LIMIT}.
+         */
+        private final class SpoolOutputStream extends OutputStream {
+            private OutputStream target;
+            private long count = 0;
+
+            SpoolOutputStream() {
+                DeflatedFile.this.memory = new ByteArrayOutputStream(SPOOL_BUFFER_SIZE);
+                this.target = DeflatedFile.this.memory;
+            }
+
+            public void write(int b) throws IOException {
+                this.write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (DeflatedFile.this.spool == null
+                        && this.count + len > SPOOL_MEMORY_LIMIT) {
+                    /*
+                     * dispose() deletes the file as soon as it is known, and
+                     * close() closes it as soon as it is open, so that a
+                     * failure here does not leave it behind.
+                     */
+                    File spoolFile = File.createTempFile("export", ".spool");
+                    DeflatedFile.this.spool = spoolFile;
+                    ByteArrayOutputStream memoryOS = DeflatedFile.this.memory;
+                    this.target = new BufferedOutputStream(
+                            new FileOutputStream(spoolFile), SPOOL_BUFFER_SIZE);
+                    DeflatedFile.this.memory = null;
+                    memoryOS.writeTo(this.target);
+                }
+                this.target.write(b, off, len);
+                this.count += len;
+            }
+
+            public void close() throws IOException {
+                this.target.close();
+            }
+        }
+    }
+
+    private static final class DaemonThreadFactory implements ThreadFactory {
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "ExportImport"); //$NON-NLS-1$
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
 }
@@ -46,6 +46,7 @@ public class PackageInfo extends AbstractPackageInfo {
 		// make sure this list is complete for this package
         this.add(ExportImport.class);
 		this.add(PackageInfo.class);
+        this.add(ZipArchiveWriter.class);
 	}
 	
 	protected Field getDeclaredField(String fieldName, Class cl) 
@@ -0,0 +1,305 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.dataAPI.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.List;
+
+import com.ibm.datapower.amt.Constants;
+
+/**
+ * A minimal writer of zip archives whose entries were compressed beforehand.
+ * Unlike {@link java.util.zip.ZipOutputStream}, the CRC and the sizes of an
+ * entry are passed in with its header and the entry data written to this
+ * stream is copied to the archive as is. This allows the entries to be
+ * deflated elsewhere, for example on several threads, while the archive can
+ * still be read by {@link java.util.zip.ZipInputStream}. The zip64 extensions
+ * are used only when an entry, the archive or the number of entries is too
+ * large for the original format.
+ * <p>
+ * Closing this stream does not close the underlying stream.
+ */
+class ZipArchiveWriter extends OutputStream {
+
+    public static final String COPYRIGHT_2009_2013 = Constants.COPYRIGHT_2009_2013;
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+
+    private static final int VERSION_DEFAULT = 20;
+    private static final int VERSION_ZIP64 = 45;
+    private static final int FLAG_UTF8 = 0x0800;
+
+    private final OutputStream out;
+    private final byte[] scratch = new byte[8];
+    private final List<Entry> entries = new ArrayList<Entry>();
+    private long written = 0;
+    private Entry current = null;
+    private long remaining = 0;
+    private boolean finished = false;
+
+    /**
+     * @param out where the archive is written
+     */
+    ZipArchiveWriter(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Start a new entry, closing the current one. Exactly
+     * <code>compressedSize</code> bytes of entry data must be written before
+     * the next entry is started or the archive is finished.
+     *
+     * @param name the name of the entry
+     * @param time the modification time of the entry, in milliseconds since
+     *        the epoch
+     * @param method {@link java.util.zip.ZipEntry#DEFLATED} or
+     *        {@link java.util.zip.ZipEntry#STORED}
+     * @param crc the CRC-32 of the uncompressed data
+     * @param size the size of the uncompressed data
+     * @param compressedSize the size of the entry data that will be written
+     * @throws IOException the header could not be written, or the current
+     *         entry is incomplete
+     */
+    void putNextEntry(String name, long time, int method, long crc, long size, long compressedSize)
+        throws IOException {
+        this.closeEntry();
+        Entry entry = new Entry();
+        entry.name = encode(name);
+        entry.dosTime = toDosTime(time);
+        entry.method = method;
+        entry.crc = crc;
+        entry.size = size;
+        entry.compressedSize = compressedSize;
+        entry.offset = this.written;
+
+        boolean zip64 = (size >= ZIP64_MAGIC) || (compressedSize >= ZIP64_MAGIC);
+        this.writeInt(LOCAL_HEADER_SIGNATURE);
+        this.writeShort(zip64 ? VERSION_ZIP64 : VERSION_DEFAULT);
+        this.writeShort(FLAG_UTF8);
+        this.writeShort(method);
+        this.writeInt(entry.dosTime);
+        this.writeInt(crc);
+        this.writeInt(zip64 ? ZIP64_MAGIC : compressedSize);
+        this.writeInt(zip64 ? ZIP64_MAGIC : size);
+        this.writeShort(entry.name.length);
+        this.writeShort(zip64 ? 20 : 0);
+        this.writeBytes(entry.name, entry.name.length);
+        if (zip64) {
+            // the local header of a zip64 entry carries both sizes
+            this.writeShort(ZIP64_EXTRA_ID);
+            this.writeShort(16);
+            this.writeLong(size);
+            this.writeLong(compressedSize);
+        }
+        this.current = entry;
+        this.remaining = compressedSize;
+    }
+
+    /**
+     * Close the current entry, if any.
+     *
+     * @throws IOException less entry data was written than announced
+     */
+    void closeEntry() throws IOException {
+        if (this.current == null) {
+            return;
+        }
+        if (this.remaining != 0) {
+            throw new IOException("entry " + new String(this.current.name, "UTF-8") //$NON-NLS-1$ //$NON-NLS-2$
+                                  + " is missing " + this.remaining + " bytes"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        this.entries.add(this.current);
+        this.current = null;
+    }
+
+    public void write(int b) throws IOException {
+        this.scratch[0] = (byte) b;
+        this.write(this.scratch, 0, 1);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (this.current == null || len > this.remaining) {
+            throw new IOException("more entry data written than announced"); //$NON-NLS-1$
+        }
+        this.out.write(b, off, len);
+        this.written += len;
+        this.remaining -= len;
+    }
+
+    public void flush() throws IOException {
+        this.out.flush();
+    }
+
+    /**
+     * Close the current entry and write the central directory. No more
+     * entries can be added afterwards.
+     *
+     * @param comment the archive comment, or null
+     * @throws IOException the central directory could not be written
+     */
+    void finish(String comment) throws IOException {
+        if (this.finished) {
+            return;
+        }
+        this.closeEntry();
+        long directoryOffset = this.written;
+        for (int i = 0; i < this.entries.size(); i++) {
+            this.writeCentralHeader(this.entries.get(i));
+        }
+        long directorySize = this.written - directoryOffset;
+        int count = this.entries.size();
+
+        if (count >= ZIP64_MAGIC_COUNT || directoryOffset >= ZIP64_MAGIC || directorySize >= ZIP64_MAGIC) {
+            long zip64EndOffset = this.written;
+            this.writeInt(ZIP64_END_SIGNATURE);
+            this.writeLong(44);
+            this.writeShort(VERSION_ZIP64);
+            this.writeShort(VERSION_ZIP64);
+            this.writeInt(0);
+            this.writeInt(0);
+            this.writeLong(count);
+            this.writeLong(count);
+            this.writeLong(directorySize);
+            this.writeLong(directoryOffset);
+            this.writeInt(ZIP64_LOCATOR_SIGNATURE);
+            this.writeInt(0);
+            this.writeLong(zip64EndOffset);
+            this.writeInt(1);
+        }
+
+        byte[] commentBytes = (comment == null) ? new byte[0] : encode(comment);
+        int commentLength = Math.min(commentBytes.length, 0xFFFF);
+        this.writeInt(END_SIGNATURE);
+        this.writeShort(0);
+        this.writeShort(0);
+        this.writeShort(Math.min(count, ZIP64_MAGIC_COUNT));
+        this.writeShort(Math.min(count, ZIP64_MAGIC_COUNT));
+        this.writeInt(Math.min(directorySize, ZIP64_MAGIC));
+        this.writeInt(Math.min(directoryOffset, ZIP64_MAGIC));
+        this.writeShort(commentLength);
+        this.writeBytes(commentBytes, commentLength);
+        this.out.flush();
+        this.finished = true;
+    }
+
+    private void writeCentralHeader(Entry entry) throws IOException {
+        // the zip64 extra field holds only the values that do not fit
+        int extraValues = 0;
+        if (entry.size >= ZIP64_MAGIC) extraValues++;
+        if (entry.compressedSize >= ZIP64_MAGIC) extraValues++;
+        if (entry.offset >= ZIP64_MAGIC) extraValues++;
+        int version = (extraValues > 0) ? VERSION_ZIP64 : VERSION_DEFAULT;
+
+        this.writeInt(CENTRAL_HEADER_SIGNATURE);
+        this.writeShort(version);
+        this.writeShort(version);
+        this.writeShort(FLAG_UTF8);
+        this.writeShort(entry.method);
+        this.writeInt(entry.dosTime);
+        this.writeInt(entry.crc);
+        this.writeInt(Math.min(entry.compressedSize, ZIP64_MAGIC));
+        this.writeInt(Math.min(entry.size, ZIP64_MAGIC));
+        this.writeShort(entry.name.length);
+        this.writeShort((extraValues > 0) ? 4 + 8 * extraValues : 0);
+        this.writeShort(0); // comment length
+        this.writeShort(0); // disk number
+        this.writeShort(0); // internal attributes
+        this.writeInt(0); // external attributes
+        this.writeInt(Math.min(entry.offset, ZIP64_MAGIC));
+        this.writeBytes(entry.name, entry.name.length);
+        if (extraValues > 0) {
+            this.writeShort(ZIP64_EXTRA_ID);
+            this.writeShort(8 * extraValues);
+            if (entry.size >= ZIP64_MAGIC) this.writeLong(entry.size);
+            if (entry.compressedSize >= ZIP64_MAGIC) this.writeLong(entry.compressedSize);
+            if (entry.offset >= ZIP64_MAGIC) this.writeLong(entry.offset);
+        }
+    }
+
+    private void writeShort(int value) throws IOException {
+        this.scratch[0] = (byte) value;
+        this.scratch[1] = (byte) (value >>> 8);
+        this.writeBytes(this.scratch, 2);
+    }
+
+    private void writeInt(long value) throws IOException {
+        for (int i = 0; i < 4; i++) {
+            this.scratch[i] = (byte) (value >>> (8 * i));
+        }
+        this.writeBytes(this.scratch, 4);
+    }
+
+    private void writeLong(long value) throws IOException {
+        for (int i = 0; i < 8; i++) {
+            this.scratch[i] = (byte) (value >>> (8 * i));
+        }
+        this.writeBytes(this.scratch, 8);
+    }
+
+    private void writeBytes(byte[] bytes, int length) throws IOException {
+        this.out.write(bytes, 0, length);
+        this.written += length;
+    }
+
+    private static byte[] encode(String value) {
+        try {
+            return(value.getBytes("UTF-8")); //$NON-NLS-1$
+        } catch (UnsupportedEncodingException e) {
+            // every JVM supports UTF-8
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long toDosTime(long time) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            // the earliest date that can be represented, 1 January 1980
+            return((1 << 21) | (1 << 16));
+        }
+        return(((long) (year - 1980) << 25)
+               | ((calendar.get(Calendar.MONTH) + 1) << 21)
+               | (calendar.get(Calendar.DAY_OF_MONTH) << 16)
+               | (calendar.get(Calendar.HOUR_OF_DAY) << 11)
+               | (calendar.get(Calendar.MINUTE) << 5)
+               | (calendar.get(Calendar.SECOND) >> 1));
+    }
+
+    private static class Entry {
+        byte[] name;
+        long dosTime;
+        int method;
+        long crc;
+        long size;
+        long compressedSize;
+        long offset;
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Measure commands the way the SOAP helpers do, with a
+ * {@link CommandMetrics.Call}, and check what ends up in the counters: the
+ * operation taken from the request, the bytes sent and read, and a failure
+ * for a call that never reached {@link CommandMetrics.Call#succeeded()}.
+ */
+public class CommandMetricsTest {
+
+    private static final String DEVICE = "metrics"; //$NON-NLS-1$
+    private static final int PORT = 5550;
+    private static final String REQUEST =
+        "<?xml version=\"1.0\"?><amp:GetDomainListRequest xmlns:amp=\"urn:test\"/>"; //$NON-NLS-1$
+
+    private boolean wasEnabled = false;
+
+    @Before
+    public void setUp() {
+        this.wasEnabled = CommandMetrics.isEnabled();
+        CommandMetrics.setEnabled(true);
+        CommandMetrics.reset();
+    }
+
+    @After
+    public void tearDown() {
+        CommandMetrics.setEnabled(this.wasEnabled);
+        CommandMetrics.reset();
+    }
+
+    @Test
+    public void testCallIsRecorded() throws Exception {
+        CommandMetrics.Call metrics = CommandMetrics.begin(new StringBuffer(REQUEST));
+        metrics.sent(100);
+        metrics.sent(20);
+        InputStream in = metrics.receive(new ByteArrayInputStream(new byte[300]));
+        in.read();
+        in.read(new byte[99]);
+        in.skip(50);
+        metrics.succeeded();
+        metrics.end(DEVICE, PORT);
+
+        CommandMetrics[] all = CommandMetrics.listAll();
+        assertEquals(1, all.length);
+        assertEquals("GetDomainListRequest", all[0].getOperation()); //$NON-NLS-1$
+        assertEquals(DEVICE + ":" + PORT, all[0].getDevice()); //$NON-NLS-1$
+        assertEquals(1, all[0].getCount());
+        assertEquals(0, all[0].getFailureCount());
+        assertEquals(120, all[0].getBytesSent());
+        assertEquals(150, all[0].getBytesReceived());
+    }
+
+    @Test
+    public void testUnfinishedCallFails() {
+        CommandMetrics.Call metrics = CommandMetrics.begin(REQUEST.getBytes());
+        metrics.sent(10);
+        metrics.received(5);
+        metrics.end(DEVICE, PORT);
+
+        CommandMetrics[] all = CommandMetrics.listAll();
+        assertEquals(1, all.length);
+        assertEquals("GetDomainListRequest", all[0].getOperation()); //$NON-NLS-1$
+        assertEquals(1, all[0].getFailureCount());
+        assertEquals(5, all[0].getBytesReceived());
+    }
+
+    @Test
+    public void testDisabledCallRecordsNothing() {
+        CommandMetrics.setEnabled(false);
+        CommandMetrics.Call metrics = CommandMetrics.begin(REQUEST);
+        assertSame(CommandMetrics.Call.OFF, metrics);
+        InputStream in = new ByteArrayInputStream(new byte[1]);
+        assertSame(in, metrics.receive(in));
+        metrics.succeeded();
+        metrics.end(DEVICE, PORT);
+        assertEquals(0, CommandMetrics.listAll().length);
+    }
+}
@@ -0,0 +1,408 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Push logs to a {@link DeviceLogger} from hundreds of concurrent local
+ * clients, as appliances do with Content-Length, chunked and read-until-close
+ * bodies, and check that every push arrives whole, once. A connection that
+ * waits for the file of its appliance behind a slow push is not idle, and a
+ * push that is cut off in the middle of a line does not run into the next.
+ */
+public class DeviceLoggerTest {
+
+    private static final int CLIENTS = 300;
+    private static final int PUSHES = 10;
+    private static final int LINES = 3;
+    private static final int TIMEOUT_MS = 60000;
+    private static final long IDLE_TIMEOUT_MS = 500;
+    private static final int SLOW_LINES = 30;
+    private static final long SLOW_LINE_MS = 100;
+    private static final String CUT_OFF = "<log-entry client=\"0\" push=\"0\""; //$NON-NLS-1$
+    private static final String[] MODES = { "length", "chunked", "close" }; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private DeviceLogger deviceLogger = null;
+
+    @After
+    public void tearDown() throws IOException {
+        if (this.deviceLogger != null) {
+            this.deviceLogger.serverChannel.close();
+        }
+    }
+
+    @Test
+    public void testManyClientsToLogger() throws Exception {
+        Logger target = Logger.getAnonymousLogger();
+        target.setUseParentHandlers(false);
+        final ConcurrentLinkedQueue<String> messages = new ConcurrentLinkedQueue<String>();
+        target.addHandler(new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                messages.add(record.getMessage());
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        this.start(target, 512, null);
+
+        this.pushAll(CLIENTS, PUSHES);
+
+        assertEquals(CLIENTS * PUSHES, messages.size());
+        Set<String> expected = new HashSet<String>();
+        for (int client = 0; client < CLIENTS; client++) {
+            for (int push = 0; push < PUSHES; push++) {
+                expected.add("Request logged\n" + body(client, push)); //$NON-NLS-1$
+            }
+        }
+        assertEquals(expected, new HashSet<String>(messages));
+    }
+
+    @Test
+    public void testMoreClientsThanConnections() throws Exception {
+        File directory = this.folder.newFolder("logs"); //$NON-NLS-1$
+        this.start(Logger.getAnonymousLogger(), 4, new DeviceLogFiles(directory, Long.MAX_VALUE, 1));
+
+        // the rest wait in the listen backlog
+        this.pushAll(200, 3);
+
+        assertPushesWhole(new File(directory, "127.0.0.1.log"), 200, 3); //$NON-NLS-1$
+    }
+
+    @Test
+    public void testPushesAreNotInterleaved() throws Exception {
+        File directory = this.folder.newFolder("logs"); //$NON-NLS-1$
+        this.start(Logger.getAnonymousLogger(), 512, new DeviceLogFiles(directory, Long.MAX_VALUE, 1));
+
+        // every local client is the same appliance, so they share one file
+        this.pushAll(CLIENTS, PUSHES);
+
+        assertPushesWhole(new File(directory, "127.0.0.1.log"), CLIENTS, PUSHES); //$NON-NLS-1$
+    }
+
+    @Test
+    public void testWaitingConnectionIsNotIdle() throws Exception {
+        File directory = this.folder.newFolder("logs"); //$NON-NLS-1$
+        this.start(Logger.getAnonymousLogger(), 512, new DeviceLogFiles(directory, Long.MAX_VALUE, 1), IDLE_TIMEOUT_MS);
+        final int port = this.deviceLogger.serverChannel.socket().getLocalPort();
+
+        // a push that takes many idle timeouts, one line at a time
+        String slow = body(0, 0, SLOW_LINES);
+        byte[] slowBody = slow.getBytes("UTF-8"); //$NON-NLS-1$
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        socket.setSoTimeout(TIMEOUT_MS);
+        OutputStream out = socket.getOutputStream();
+        out.write(("POST / HTTP/1.1\r\nHost: manager\r\nContent-Length: " + slowBody.length + "\r\n\r\n").getBytes("US-ASCII")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        int sent = writeLine(out, slowBody, 0);
+        Thread.sleep(SLOW_LINE_MS);
+
+        // the same appliance pushes again and waits for the file
+        final ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<Throwable>();
+        Thread waiting = new Thread("waiting") { //$NON-NLS-1$
+            @Override
+            public void run() {
+                try {
+                    push(port, 1, 1, "length"); //$NON-NLS-1$
+                } catch (Throwable t) {
+                    failures.add(t);
+                }
+            }
+        };
+        waiting.start();
+        while (sent < slowBody.length) {
+            Thread.sleep(SLOW_LINE_MS);
+            sent = writeLine(out, slowBody, sent);
+        }
+        String status = readResponse(socket.getInputStream());
+        assertTrue(status, status.startsWith("HTTP/1.1 200")); //$NON-NLS-1$
+        socket.close();
+        waiting.join(TIMEOUT_MS);
+        assertTrue("the waiting push did not finish", !waiting.isAlive()); //$NON-NLS-1$
+        if (!failures.isEmpty()) {
+            throw new AssertionError(failures.peek());
+        }
+
+        assertEquals(slow + body(1, 0), read(new File(directory, "127.0.0.1.log"))); //$NON-NLS-1$
+    }
+
+    @Test
+    public void testCutOffLineIsEnded() throws Exception {
+        File directory = this.folder.newFolder("logs"); //$NON-NLS-1$
+        this.start(Logger.getAnonymousLogger(), 512, new DeviceLogFiles(directory, Long.MAX_VALUE, 1));
+        int port = this.deviceLogger.serverChannel.socket().getLocalPort();
+
+        Socket socket = this.pushCutOff(port);
+        // the appliance goes away before the end of its body
+        socket.shutdownOutput();
+        assertEquals(-1, socket.getInputStream().read());
+        socket.close();
+        push(port, 1, 1, "length"); //$NON-NLS-1$
+
+        assertEquals(CUT_OFF + "\n" + body(1, 0), read(new File(directory, "127.0.0.1.log"))); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    @Test
+    public void testIdleCutOffLineIsEnded() throws Exception {
+        File directory = this.folder.newFolder("logs"); //$NON-NLS-1$
+        this.start(Logger.getAnonymousLogger(), 512, new DeviceLogFiles(directory, Long.MAX_VALUE, 1), IDLE_TIMEOUT_MS);
+        int port = this.deviceLogger.serverChannel.socket().getLocalPort();
+
+        Socket socket = this.pushCutOff(port);
+        // the appliance stops sending, and the connection is closed as idle
+        assertEquals(-1, socket.getInputStream().read());
+        socket.close();
+        push(port, 1, 1, "length"); //$NON-NLS-1$
+
+        assertEquals(CUT_OFF + "\n" + body(1, 0), read(new File(directory, "127.0.0.1.log"))); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    private void start(Logger target, int maxConnections, DeviceLogFiles files) {
+        this.start(target, maxConnections, files, DeviceLogger.IDLE_TIMEOUT_MS);
+    }
+
+    private void start(Logger target, int maxConnections, DeviceLogFiles files, long idleTimeout) {
+        this.deviceLogger = new DeviceLogger(0, target, maxConnections, files);
+        this.deviceLogger.setIdleTimeout(idleTimeout);
+        this.deviceLogger.setDaemon(true);
+        this.deviceLogger.start();
+    }
+
+    /*
+     * Run the clients at the same time, each on its own connection, and wait
+     * for every response.
+     */
+    private void pushAll(int clients, final int pushes) throws Exception {
+        final int port = this.deviceLogger.serverChannel.socket().getLocalPort();
+        final ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<Throwable>();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int c = 0; c < clients; c++) {
+            final int client = c;
+            Thread thread = new Thread("client" + c) { //$NON-NLS-1$
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        push(port, client, pushes, MODES[client % MODES.length]);
+                    } catch (Throwable t) {
+                        failures.add(t);
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(TIMEOUT_MS);
+            assertTrue(thread.getName() + " did not finish", !thread.isAlive()); //$NON-NLS-1$
+        }
+        if (!failures.isEmpty()) {
+            throw new AssertionError(failures.peek());
+        }
+    }
+
+    private static void push(int port, int client, int pushes, String mode) throws IOException {
+        Socket socket = null;
+        for (int push = 0; push < pushes; push++) {
+            if (socket == null) {
+                socket = new Socket(InetAddress.getLoopbackAddress(), port);
+                socket.setSoTimeout(TIMEOUT_MS);
+            }
+            OutputStream out = socket.getOutputStream();
+            byte[] body = body(client, push).getBytes("UTF-8"); //$NON-NLS-1$
+            if (mode.equals("length")) { //$NON-NLS-1$
+                out.write(("POST / HTTP/1.1\r\nHost: manager\r\nContent-Length: " + body.length + "\r\n\r\n").getBytes("US-ASCII")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                out.write(body);
+            } else if (mode.equals("chunked")) { //$NON-NLS-1$
+                out.write("POST / HTTP/1.1\r\nHost: manager\r\nTransfer-Encoding: chunked\r\n\r\n".getBytes("US-ASCII")); //$NON-NLS-1$ //$NON-NLS-2$
+                int half = body.length / 2;
+                writeChunk(out, body, 0, half);
+                writeChunk(out, body, half, body.length - half);
+                out.write("0\r\n\r\n".getBytes("US-ASCII")); //$NON-NLS-1$ //$NON-NLS-2$
+            } else {
+                out.write("POST / HTTP/1.0\r\n\r\n".getBytes("US-ASCII")); //$NON-NLS-1$ //$NON-NLS-2$
+                out.write(body);
+                socket.shutdownOutput();
+            }
+            out.flush();
+            String status = readResponse(socket.getInputStream());
+            assertTrue(status, status.startsWith("HTTP/1.1 200") || status.startsWith("HTTP/1.0 200")); //$NON-NLS-1$ //$NON-NLS-2$
+            if (mode.equals("close")) { //$NON-NLS-1$
+                assertEquals(-1, socket.getInputStream().read());
+                socket.close();
+                socket = null;
+            }
+        }
+        if (socket != null) {
+            socket.close();
+        }
+    }
+
+    /*
+     * Start a push whose body is longer than what is sent, which stops in
+     * the middle of a line.
+     */
+    private Socket pushCutOff(int port) throws IOException {
+        Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        socket.setSoTimeout(TIMEOUT_MS);
+        OutputStream out = socket.getOutputStream();
+        out.write("POST / HTTP/1.1\r\nHost: manager\r\nContent-Length: 1000\r\n\r\n".getBytes("US-ASCII")); //$NON-NLS-1$ //$NON-NLS-2$
+        out.write(CUT_OFF.getBytes("UTF-8")); //$NON-NLS-1$
+        out.flush();
+        return(socket);
+    }
+
+    /*
+     * Send the line that starts at offset, and return where the next one
+     * starts.
+     */
+    private static int writeLine(OutputStream out, byte[] data, int offset) throws IOException {
+        int end = offset;
+        while (data[end++] != '\n') {
+            // to the end of the line
+        }
+        out.write(data, offset, end - offset);
+        out.flush();
+        return(end);
+    }
+
+    private static void writeChunk(OutputStream out, byte[] data, int offset, int length) throws IOException {
+        out.write((Integer.toHexString(length) + "\r\n").getBytes("US-ASCII")); //$NON-NLS-1$ //$NON-NLS-2$
+        out.write(data, offset, length);
+        out.write("\r\n".getBytes("US-ASCII")); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    /*
+     * Read the status line and headers. The responses have no body.
+     */
+    private static String readResponse(InputStream in) throws IOException {
+        ByteArrayOutputStream headers = new ByteArrayOutputStream();
+        int matched = 0;
+        while (matched < 4) {
+            int c = in.read();
+            if (c < 0) {
+                throw new IOException("no response: " + headers.toString("US-ASCII")); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+            headers.write(c);
+            matched = (c == "\r\n\r\n".charAt(matched)) ? matched + 1 : ((c == '\r') ? 1 : 0); //$NON-NLS-1$
+        }
+        return(headers.toString("US-ASCII")); //$NON-NLS-1$
+    }
+
+    private static String body(int client, int push) {
+        return(body(client, push, LINES));
+    }
+
+    private static String body(int client, int push, int lines) {
+        StringBuilder body = new StringBuilder();
+        for (int line = 0; line < lines; line++) {
+            body.append("<log-entry client=\"").append(client).append("\" push=\"").append(push) //$NON-NLS-1$ //$NON-NLS-2$
+                .append("\" line=\"").append(line).append("\"/>\n"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        return(body.toString());
+    }
+
+    private static String read(File file) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) > -1) {
+                content.write(buffer, 0, count);
+            }
+        } finally {
+            in.close();
+        }
+        return(content.toString("UTF-8")); //$NON-NLS-1$
+    }
+
+    /*
+     * Each push must be in the file once, with its lines together.
+     */
+    private static void assertPushesWhole(File file, int clients, int pushes) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8")); //$NON-NLS-1$
+        try {
+            String line = null;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        assertEquals(clients * pushes * LINES, lines.size());
+        Set<String> seen = new HashSet<String>();
+        for (int i = 0; i < lines.size(); i += LINES) {
+            StringBuilder push = new StringBuilder();
+            for (int line = 0; line < LINES; line++) {
+                push.append(lines.get(i + line)).append('\n');
+            }
+            seen.add(push.toString());
+        }
+        List<String> missing = new ArrayList<String>();
+        for (int client = 0; client < clients; client++) {
+            for (int push = 0; push < pushes; push++) {
+                if (!seen.contains(body(client, push))) {
+                    missing.add(client + "/" + push); //$NON-NLS-1$
+                }
+            }
+        }
+        Collections.sort(missing);
+        assertEquals("pushes missing or interleaved", Collections.<String>emptyList(), missing); //$NON-NLS-1$
+    }
+}
@@ -0,0 +1,171 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Locale;
+import java.util.ResourceBundle;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.ibm.datapower.amt.clientAPI.Configuration;
+
+/**
+ * Check that the messages {@link Messages} formats from the formats it keeps
+ * are the ones that parsing the bundle string every time gave, for every
+ * message in the bundle and from many threads at once, and that a change of
+ * the default locale or of the message prefix is seen by the next call.
+ */
+public class MessagesTest {
+
+    private static final long TIMEOUT_MS = 10000;
+    private static final int THREADS = 8;
+    private static final int CALLS = 2000;
+
+    private final Locale locale = Locale.getDefault();
+
+    @After
+    public void tearDown() {
+        Locale.setDefault(this.locale);
+        Messages.setMessagePrefix(Configuration.DEFAULT_MESSAGE_PREFIX);
+    }
+
+    @Test
+    public void testEveryMessageMatchesParse() {
+        Object[] args = { "first", Integer.valueOf(2), "third", new Date(0), "fifth" }; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        List<String> keys = keys();
+        assertTrue(keys.size() > 100);
+        // twice, to use what the first round kept
+        for (int round = 0; round < 2; round++) {
+            for (String key : keys) {
+                assertEquals(key, parse(key, args), format(key, args));
+            }
+        }
+    }
+
+    @Test
+    public void testMissingKey() {
+        assertEquals("!no.such.key!", Messages.getString("no.such.key")); //$NON-NLS-1$ //$NON-NLS-2$
+        assertEquals("!no.such.key!", Messages.getString("no.such.key", "arg")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    }
+
+    @Test
+    public void testPrefixChange() {
+        String key = keys().get(0);
+        assertTrue(Messages.getString(key, "arg").startsWith(Configuration.DEFAULT_MESSAGE_PREFIX)); //$NON-NLS-1$
+        Messages.setMessagePrefix("TEST"); //$NON-NLS-1$
+        assertEquals(parse(key, new Object[] { "arg" }), Messages.getString(key, "arg")); //$NON-NLS-1$ //$NON-NLS-2$
+        assertTrue(Messages.getString(key, "arg").startsWith("TEST")); //$NON-NLS-1$ //$NON-NLS-2$
+        assertTrue(Messages.getString(key).startsWith("TEST")); //$NON-NLS-1$
+    }
+
+    @Test
+    public void testLocaleChange() {
+        // a number argument is formatted for the locale
+        String key = "wamt.clientAPI.Queue.full"; //$NON-NLS-1$
+        Object[] args = { Integer.valueOf(1234567), Integer.valueOf(7654321) };
+        Locale.setDefault(Locale.US);
+        String us = Messages.getString(key, args);
+        assertEquals(parse(key, args), us);
+        Locale.setDefault(Locale.GERMANY);
+        assertEquals(parse(key, args), Messages.getString(key, args));
+        assertFalse(us.equals(Messages.getString(key, args)));
+        Locale.setDefault(Locale.US);
+        assertEquals(us, Messages.getString(key, args));
+    }
+
+    @Test
+    public void testConcurrentFormat() throws Exception {
+        final List<String> keys = keys();
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicReference<String> wrong = new AtomicReference<String>();
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final int first = t;
+            threads[t] = new Thread("MessagesTest " + t) { //$NON-NLS-1$
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < CALLS; i++) {
+                        // each thread its own arguments for the same keys
+                        String key = keys.get(i % keys.size());
+                        Object[] args = { Integer.valueOf(first * CALLS + i), new Date(i), "arg" + first }; //$NON-NLS-1$
+                        String expected = parse(key, args);
+                        String actual = format(key, args);
+                        if (!expected.equals(actual)) {
+                            wrong.compareAndSet(null, key + ": " + actual + " not " + expected); //$NON-NLS-1$ //$NON-NLS-2$
+                        }
+                    }
+                }
+            };
+            threads[t].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join(TIMEOUT_MS);
+            assertFalse(thread.isAlive());
+        }
+        assertNull(wrong.get(), wrong.get());
+    }
+
+    private static List<String> keys() {
+        List<String> result = new ArrayList<String>();
+        Enumeration<String> keys = ResourceBundle.getBundle(Messages.BUNDLE_NAME).getKeys();
+        while (keys.hasMoreElements()) {
+            result.add(keys.nextElement());
+        }
+        Collections.sort(result);
+        return(result);
+    }
+
+    /*
+     * What Messages.getString(String, Object[]) did before it kept the
+     * formats, or the name of the exception it threw.
+     */
+    private static String parse(String key, Object[] args) {
+        try {
+            return(MessageFormat.format(Messages.getString(key), args));
+        } catch (IllegalArgumentException e) {
+            return(e.getClass().getName());
+        }
+    }
+
+    private static String format(String key, Object[] args) {
+        try {
+            return(Messages.getString(key, args));
+        } catch (IllegalArgumentException e) {
+            return(e.getClass().getName());
+        }
+    }
+}
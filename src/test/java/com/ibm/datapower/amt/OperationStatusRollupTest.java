@@ -0,0 +1,173 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Drive {@link OperationStatusRollup} with random status transitions and
+ * compare it after each one with {@link OperationStatus#rollupFrom(OperationStatus[])}
+ * over the same values. The two levels mirror a ManagedSet that counts the
+ * rollups of its Devices, each of which counts its managed domains.
+ */
+public class OperationStatusRollupTest {
+
+    private static final OperationStatus.Enumerated[] VALUES = new OperationStatus.Enumerated[] {
+        OperationStatus.Enumerated.UP, OperationStatus.Enumerated.PARTIAL,
+        OperationStatus.Enumerated.UNKNOWN, OperationStatus.Enumerated.DOWN };
+
+    private static final int TRANSITIONS = 20000;
+
+    @Test
+    public void testEmpty() {
+        assertEquals(OperationStatus.Enumerated.UP,
+                new OperationStatusRollup(OperationStatus.Enumerated.UP).getStatus());
+        assertEquals(OperationStatus.Enumerated.UNKNOWN,
+                new OperationStatusRollup(OperationStatus.Enumerated.UNKNOWN).getStatus());
+    }
+
+    @Test
+    public void testSingleLevel() {
+        Random random = new Random(34);
+        OperationStatusRollup rollup = new OperationStatusRollup(OperationStatus.Enumerated.UNKNOWN);
+        List<OperationStatus.Enumerated> items = new ArrayList<OperationStatus.Enumerated>();
+
+        for (int i = 0; i < TRANSITIONS; i++) {
+            int action = random.nextInt(4);
+            if ((action == 0) || items.isEmpty()) {
+                OperationStatus.Enumerated value = randomValue(random);
+                items.add(value);
+                rollup.add(value);
+            } else if (action == 1) {
+                rollup.remove(items.remove(random.nextInt(items.size())));
+            } else {
+                int index = random.nextInt(items.size());
+                OperationStatus.Enumerated value = randomValue(random);
+                rollup.replace(items.set(index, value), value);
+            }
+            assertRollup("transition " + i, items, rollup, OperationStatus.Enumerated.UNKNOWN); //$NON-NLS-1$
+        }
+    }
+
+    @Test
+    public void testTwoLevels() {
+        Random random = new Random(3434);
+        int deviceCount = 8;
+        List<List<OperationStatus.Enumerated>> domains = new ArrayList<List<OperationStatus.Enumerated>>();
+        List<OperationStatusRollup> devices = new ArrayList<OperationStatusRollup>();
+        List<OperationStatus.Enumerated> deviceValues = new ArrayList<OperationStatus.Enumerated>();
+        OperationStatusRollup managedSet = new OperationStatusRollup(OperationStatus.Enumerated.UNKNOWN);
+        for (int i = 0; i < deviceCount; i++) {
+            domains.add(new ArrayList<OperationStatus.Enumerated>());
+            OperationStatusRollup device = new OperationStatusRollup(OperationStatus.Enumerated.UP);
+            devices.add(device);
+            deviceValues.add(device.getStatus());
+            managedSet.add(device.getStatus());
+        }
+
+        for (int i = 0; i < TRANSITIONS; i++) {
+            int d = random.nextInt(deviceCount);
+            List<OperationStatus.Enumerated> items = domains.get(d);
+            OperationStatusRollup device = devices.get(d);
+            OperationStatus.Enumerated before = device.getStatus();
+            int action = random.nextInt(3);
+            if ((action == 0) || items.isEmpty()) {
+                OperationStatus.Enumerated value = randomDomainValue(random);
+                items.add(value);
+                device.add(value);
+            } else if (action == 1) {
+                device.remove(items.remove(random.nextInt(items.size())));
+            } else {
+                int index = random.nextInt(items.size());
+                OperationStatus.Enumerated value = randomDomainValue(random);
+                device.replace(items.set(index, value), value);
+            }
+            // like Device.updateRollup, the set is told only when a device rollup changes
+            OperationStatus.Enumerated after = device.getStatus();
+            if (!after.equals(before)) {
+                managedSet.replace(before, after);
+                deviceValues.set(d, after);
+            }
+
+            String message = "transition " + i; //$NON-NLS-1$
+            assertRollup(message, items, device, OperationStatus.Enumerated.UP);
+            assertRollup(message, deviceValues, managedSet, OperationStatus.Enumerated.UNKNOWN);
+            List<OperationStatus.Enumerated> recomputed = new ArrayList<OperationStatus.Enumerated>();
+            for (int j = 0; j < deviceCount; j++) {
+                recomputed.add(recompute(domains.get(j), OperationStatus.Enumerated.UP));
+            }
+            assertEquals(message, recompute(recomputed, OperationStatus.Enumerated.UNKNOWN),
+                    managedSet.getStatus());
+        }
+    }
+
+    private static void assertRollup(String message, List<OperationStatus.Enumerated> items,
+            OperationStatusRollup rollup, OperationStatus.Enumerated emptyStatus) {
+        assertEquals(message, items.size(), rollup.size());
+        for (OperationStatus.Enumerated value : VALUES) {
+            int count = 0;
+            for (OperationStatus.Enumerated item : items) {
+                if (item.equals(value)) {
+                    count++;
+                }
+            }
+            assertEquals(message + " " + value, count, rollup.getCount(value)); //$NON-NLS-1$
+        }
+        assertEquals(message, recompute(items, emptyStatus), rollup.getStatus());
+    }
+
+    /*
+     * The full recompute, done the way the Device and the ManagedSet did it
+     * before the rollups were kept up to date.
+     */
+    private static OperationStatus.Enumerated recompute(List<OperationStatus.Enumerated> items,
+            OperationStatus.Enumerated emptyStatus) {
+        if (items.isEmpty()) {
+            return(emptyStatus);
+        }
+        OperationStatus[] lowerLevel = new OperationStatus[items.size()];
+        for (int i = 0; i < lowerLevel.length; i++) {
+            lowerLevel[i] = new OperationStatus(items.get(i));
+        }
+        OperationStatus result = new OperationStatus(OperationStatus.Enumerated.UNKNOWN);
+        result.rollupFrom(lowerLevel);
+        return(result.getEnumerated());
+    }
+
+    private static OperationStatus.Enumerated randomValue(Random random) {
+        return(VALUES[random.nextInt(VALUES.length)]);
+    }
+
+    /*
+     * A domain is up, down or unknown. Favour up, so that the device rollups
+     * keep moving in and out of the all-up state.
+     */
+    private static OperationStatus.Enumerated randomDomainValue(Random random) {
+        int n = random.nextInt(6);
+        if (n < 4) {
+            return(OperationStatus.Enumerated.UP);
+        }
+        return((n == 4) ? OperationStatus.Enumerated.DOWN : OperationStatus.Enumerated.UNKNOWN);
+    }
+}
@@ -0,0 +1,255 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Compare StringCollections of feature licenses in random orders, with and
+ * without duplicates, and check that {@link StringCollection#equals(Object)},
+ * {@link StringCollection#isSupersetOf(StringCollection)} and
+ * {@link StringCollection#contains(String)} answer as the scans they
+ * replaced did, also after the collections change. The {@link FeatureSet}
+ * behind them must ignore order and duplicates and be interned. Two threads
+ * that compare the same collections the opposite way around must not
+ * deadlock.
+ */
+public class StringCollectionTest {
+
+    private static final String[] LICENSES = {
+        "MQ", "TAM", "DataGlue", "JAXP-API", "PKCS7-SMIME", "HSM", "XG4", "Compact-Flash", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$
+        "iSCSI", "RaidVolume", "LocateLED", "AppOpt", "WebSphere-JMS", "Tibco-EMS", "ODBC", "SQL-Oracle", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$
+    };
+    private static final int PAIRS = 5000;
+    private static final int COMPARISONS = 200000;
+    private static final long TIMEOUT_MS = 10000;
+
+    private final Random random = new Random(20140101L);
+
+    @Test
+    public void testComparisonsMatchScan() {
+        for (int i = 0; i < PAIRS; i++) {
+            List<String> first = randomLicenses();
+            // often the same licenses in another order, so equal pairs are tested too
+            List<String> second = this.random.nextBoolean() ? shuffled(first) : randomLicenses();
+            assertSameAnswers(new StringCollection(array(first)), new StringCollection(array(second)));
+        }
+    }
+
+    @Test
+    public void testComparisonsMatchScanAfterChanges() {
+        StringCollection first = new StringCollection(array(randomLicenses()));
+        StringCollection second = new StringCollection(array(randomLicenses()));
+        for (int i = 0; i < PAIRS; i++) {
+            // compare first, so that the remembered sets are stale if not dropped
+            assertSameAnswers(first, second);
+            StringCollection changed = this.random.nextBoolean() ? first : second;
+            String license = LICENSES[this.random.nextInt(LICENSES.length)];
+            if (this.random.nextBoolean()) {
+                changed.add(license);
+            } else {
+                changed.remove(license);
+            }
+        }
+    }
+
+    @Test
+    public void testEmptyIsUnchanged() {
+        StringCollection.EMPTY.add("MQ"); //$NON-NLS-1$
+        assertEquals(0, StringCollection.EMPTY.size());
+        assertSame(FeatureSet.EMPTY, StringCollection.EMPTY.toFeatureSet());
+        assertTrue(new StringCollection(new String[] { "MQ" }).isSupersetOf(StringCollection.EMPTY)); //$NON-NLS-1$
+        assertFalse(StringCollection.EMPTY.isSupersetOf(new StringCollection(new String[] { "MQ" }))); //$NON-NLS-1$
+    }
+
+    @Test
+    public void testMergeDropsDuplicates() {
+        StringCollection merged = new StringCollection(new StringCollection(new String[] { "MQ", "TAM", "MQ" }), //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                new StringCollection(new String[] { "TAM", "HSM" })); //$NON-NLS-1$ //$NON-NLS-2$
+        assertEquals(3, merged.size());
+        assertEquals("MQ", merged.get(0)); //$NON-NLS-1$
+        assertEquals("TAM", merged.get(1)); //$NON-NLS-1$
+        assertEquals("HSM", merged.get(2)); //$NON-NLS-1$
+        assertEquals(2, new StringCollection(null, new StringCollection(new String[] { "MQ", "TAM" })).size()); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    @Test
+    public void testFeatureSetIgnoresOrderAndDuplicates() {
+        for (int i = 0; i < PAIRS / 10; i++) {
+            List<String> licenses = randomLicenses();
+            List<String> other = shuffled(licenses);
+            if (!licenses.isEmpty()) {
+                other.add(licenses.get(0));
+            }
+            FeatureSet set = FeatureSet.valueOf(array(licenses));
+            assertSame(set, FeatureSet.valueOf(array(other)));
+            assertEquals(set.hashCode(), FeatureSet.valueOf(array(other)).hashCode());
+            assertEquals(set, new StringCollection(array(other)).toFeatureSet());
+            for (int j = 1; j < set.size(); j++) {
+                assertTrue(set.toString(), set.get(j - 1).compareTo(set.get(j)) < 0);
+            }
+        }
+        assertSame(FeatureSet.EMPTY, FeatureSet.valueOf((String[]) null));
+        assertSame(FeatureSet.EMPTY, FeatureSet.valueOf(new String[] { null, "" })); //$NON-NLS-1$
+        assertSame(FeatureSet.EMPTY, FeatureSet.valueOf((StringCollection) null));
+        assertFalse(FeatureSet.valueOf(new String[] { "MQ" }).contains(null)); //$NON-NLS-1$
+    }
+
+    @Test
+    public void testFeatureSetContainsAll() {
+        FeatureSet all = FeatureSet.valueOf(LICENSES);
+        for (int i = 0; i < PAIRS / 10; i++) {
+            List<String> licenses = randomLicenses();
+            FeatureSet set = FeatureSet.valueOf(array(licenses));
+            assertTrue(all.containsAll(set));
+            assertTrue(set.containsAll(set));
+            assertTrue(set.containsAll(FeatureSet.EMPTY));
+            List<String> missing = new ArrayList<String>();
+            for (String license : LICENSES) {
+                if (!licenses.contains(license)) {
+                    missing.add(license);
+                }
+            }
+            if (!missing.isEmpty()) {
+                List<String> more = new ArrayList<String>(licenses);
+                more.add(missing.get(this.random.nextInt(missing.size())));
+                assertFalse(set.containsAll(FeatureSet.valueOf(array(more))));
+                assertNotSame(set, FeatureSet.valueOf(array(more)));
+            }
+        }
+    }
+
+    @Test
+    public void testOppositeComparisonsDoNotDeadlock() throws Exception {
+        StringCollection first = new StringCollection(new String[] { "MQ", "TAM" }); //$NON-NLS-1$ //$NON-NLS-2$
+        StringCollection second = new StringCollection(new String[] { "TAM", "MQ" }); //$NON-NLS-1$ //$NON-NLS-2$
+        Thread forward = new Comparer(first, second);
+        Thread backward = new Comparer(second, first);
+        forward.start();
+        backward.start();
+        forward.join(TIMEOUT_MS);
+        backward.join(TIMEOUT_MS);
+        assertFalse("deadlocked", forward.isAlive() || backward.isAlive()); //$NON-NLS-1$
+    }
+
+    private static void assertSameAnswers(StringCollection first, StringCollection second) {
+        String pair = first + " " + second; //$NON-NLS-1$
+        assertEquals(pair, scanEquals(first, second), first.equals(second));
+        assertEquals(pair, scanEquals(second, first), second.equals(first));
+        assertEquals(pair, scanSuperset(first, second), first.isSupersetOf(second));
+        assertEquals(pair, scanSuperset(second, first), second.isSupersetOf(first));
+        for (String license : LICENSES) {
+            assertEquals(pair + " " + license, scanContains(first, license), first.contains(license)); //$NON-NLS-1$
+        }
+    }
+
+    /*
+     * What StringCollection.equals did before FeatureSet.
+     */
+    private static boolean scanEquals(StringCollection first, StringCollection second) {
+        if (first.size() != second.size()) {
+            return(false);
+        }
+        for (int i = 0; i < first.size(); i++) {
+            if (!scanContains(second, first.get(i))) {
+                return(false);
+            }
+        }
+        return(true);
+    }
+
+    private static boolean scanSuperset(StringCollection first, StringCollection second) {
+        for (int i = 0; i < second.size(); i++) {
+            if (!scanContains(first, second.get(i))) {
+                return(false);
+            }
+        }
+        return(true);
+    }
+
+    private static boolean scanContains(StringCollection collection, String target) {
+        for (int i = 0; i < collection.size(); i++) {
+            if (collection.get(i).equals(target)) {
+                return(true);
+            }
+        }
+        return(false);
+    }
+
+    /*
+     * Up to eight licenses in any order, now and then one twice, and now and
+     * then none.
+     */
+    private List<String> randomLicenses() {
+        List<String> licenses = new ArrayList<String>();
+        int count = this.random.nextInt(9);
+        for (int i = 0; i < count; i++) {
+            licenses.add(LICENSES[this.random.nextInt(count + 2)]);
+        }
+        return(licenses);
+    }
+
+    private List<String> shuffled(List<String> licenses) {
+        List<String> result = new ArrayList<String>(licenses);
+        Collections.shuffle(result, this.random);
+        return(result);
+    }
+
+    private static String[] array(List<String> licenses) {
+        return(licenses.toArray(new String[licenses.size()]));
+    }
+
+    /*
+     * Compares one collection with another, and changes it now and then so
+     * that its set must be built again. A daemon, so that a deadlock does not
+     * keep the JVM running.
+     */
+    private static final class Comparer extends Thread {
+        private final StringCollection mine;
+        private final StringCollection other;
+
+        Comparer(StringCollection mine, StringCollection other) {
+            super("StringCollectionTest comparer"); //$NON-NLS-1$
+            this.mine = mine;
+            this.other = other;
+            this.setDaemon(true);
+        }
+
+        public void run() {
+            for (int i = 0; i < COMPARISONS; i++) {
+                this.mine.equals(this.other);
+                this.mine.isSupersetOf(this.other);
+                if (i % 100 == 0) {
+                    this.mine.add("HSM"); //$NON-NLS-1$
+                    this.mine.remove("HSM"); //$NON-NLS-1$
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeFalse;
+import static org.junit.Assume.assumeTrue;
+
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ibm.datapower.amt.clientAPI.Manager;
+import com.ibm.datapower.amt.simulator.ApplianceSimulator;
+
+/**
+ * Switch {@link Manager#OPTION_THREAD_EXECUTION_MODE} on a running Manager
+ * and check the threads {@link ThreadExecutionMode#newThread(Runnable, String)}
+ * creates: virtual threads on carrier threads that
+ * {@link Manager#getCarrierThreadCount()} counts when the JDK has them, and
+ * platform daemon threads otherwise, also when <code>virtual</code> was asked
+ * for on a JDK that does not have them. A pool resized with
+ * {@link ThreadExecutionMode#resizePool(ThreadPoolExecutor, int)} must take
+ * its new size whether it grows or shrinks.
+ */
+public class ThreadExecutionModeTest {
+
+    private static final long TIMEOUT_MS = 10000;
+
+    @ClassRule
+    public static final TemporaryFolder folder = new TemporaryFolder();
+
+    private static Manager manager = null;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        manager = ApplianceSimulator.startManager(folder.newFolder("repository"));
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        if (manager != null) {
+            manager.shutdown();
+        }
+        ApplianceSimulator.reset();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        // the options outlive the Manager, so later tests get the default back
+        setMode(ThreadExecutionMode.MODE_PLATFORM);
+    }
+
+    @Test
+    public void testPlatformMode() throws Exception {
+        setMode(ThreadExecutionMode.MODE_PLATFORM);
+        assertFalse(ThreadExecutionMode.isVirtual());
+        assertPlatformThreadRuns();
+        assertEquals(0, manager.getCarrierThreadCount());
+    }
+
+    @Test
+    public void testVirtualMode() throws Exception {
+        assumeTrue(ThreadExecutionMode.isVirtualThreadSupported());
+        setMode(ThreadExecutionMode.MODE_VIRTUAL);
+        assertTrue(ThreadExecutionMode.isVirtual());
+
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+        final boolean[] virtual = new boolean[1];
+        Thread thread = ThreadExecutionMode.newThread(new Runnable() {
+            public void run() {
+                virtual[0] = isVirtual(Thread.currentThread());
+                running.countDown();
+                try {
+                    finish.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    // finish anyway
+                }
+            }
+        }, "virtualTask"); //$NON-NLS-1$
+        assertEquals("virtualTask", thread.getName()); //$NON-NLS-1$
+        assertTrue(isVirtual(thread));
+        thread.start();
+        assertTrue(running.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+        assertTrue(virtual[0]);
+        // it ran on a carrier, which stays around for the next one
+        assertTrue(manager.getCarrierThreadCount() >= 1);
+        finish.countDown();
+        thread.join(TIMEOUT_MS);
+        assertFalse(thread.isAlive());
+    }
+
+    @Test
+    public void testVirtualModeFallsBack() throws Exception {
+        assumeFalse(ThreadExecutionMode.isVirtualThreadSupported());
+        setMode(ThreadExecutionMode.MODE_VIRTUAL);
+        assertFalse(ThreadExecutionMode.isVirtual());
+        assertPlatformThreadRuns();
+        assertEquals(0, manager.getCarrierThreadCount());
+    }
+
+    @Test
+    public void testResizePool() throws Exception {
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(2, 2, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>());
+        try {
+            pool.prestartAllCoreThreads();
+            ThreadExecutionMode.resizePool(pool, 5);
+            assertSize(pool, 5);
+            pool.prestartAllCoreThreads();
+            assertEquals(5, pool.getPoolSize());
+
+            // the idle threads above the new size stop
+            ThreadExecutionMode.resizePool(pool, 1);
+            assertSize(pool, 1);
+            long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+            while (pool.getPoolSize() > 1) {
+                assertTrue(System.currentTimeMillis() < deadline);
+                Thread.sleep(10);
+            }
+
+            ThreadExecutionMode.resizePool(pool, 3);
+            assertSize(pool, 3);
+            ThreadExecutionMode.resizePool(pool, 3);
+            assertSize(pool, 3);
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void assertSize(ThreadPoolExecutor pool, int size) {
+        assertEquals(size, pool.getCorePoolSize());
+        assertEquals(size, pool.getMaximumPoolSize());
+    }
+
+    private static void assertPlatformThreadRuns() throws InterruptedException {
+        final CountDownLatch ran = new CountDownLatch(1);
+        Thread thread = ThreadExecutionMode.newThread(new Runnable() {
+            public void run() {
+                ran.countDown();
+            }
+        }, "platformTask"); //$NON-NLS-1$
+        assertEquals("platformTask", thread.getName()); //$NON-NLS-1$
+        assertTrue(thread.isDaemon());
+        assertFalse(isVirtual(thread));
+        thread.start();
+        assertTrue(ran.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+    }
+
+    private static void setMode(String mode) throws Exception {
+        manager.updateOptions(Collections.singletonMap(Manager.OPTION_THREAD_EXECUTION_MODE, mode));
+    }
+
+    /*
+     * Thread.isVirtual() is not there before the JDKs that have virtual
+     * threads.
+     */
+    private static boolean isVirtual(Thread thread) {
+        try {
+            return(((Boolean) Thread.class.getMethod("isVirtual").invoke(thread)).booleanValue()); //$NON-NLS-1$
+        } catch (NoSuchMethodException e) {
+            return(false);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,185 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.amp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.codec.binary.Base64;
+import org.junit.Test;
+
+/**
+ * Compare synthetic configuration exports with the {@link DomainDiffEngine}.
+ */
+public class DomainDiffEngineTest {
+
+    @Test
+    public void testExportDetailsAreIgnored() throws Exception {
+        String objects = object("XMLFirewallService", "fw0", "<LocalPort>2000</LocalPort>"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        DomainDifferences differences = DomainDiffEngine.compare(
+                export("Mon Jan 06 10:00:00 2014", objects, ""), //$NON-NLS-1$ //$NON-NLS-2$
+                export("Tue Jan 07 11:00:00 2014", objects, "")); //$NON-NLS-1$ //$NON-NLS-2$
+        assertTrue(differences.toString(), differences.isEmpty());
+        assertEquals(1, differences.getObjectCount1());
+        assertEquals(1, differences.getObjectCount2());
+    }
+
+    @Test
+    public void testObjectChanges() throws Exception {
+        byte[] before = export("a", //$NON-NLS-1$
+                object("XMLFirewallService", "kept", "<LocalPort>2000</LocalPort>") //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                + object("XMLFirewallService", "changed", "<LocalPort>2001</LocalPort><RequestType>soap</RequestType>") //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                + object("XMLManager", "removed", "<CacheSize>256</CacheSize>"), ""); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+        byte[] after = export("b", //$NON-NLS-1$
+                object("XMLFirewallService", "kept", "<LocalPort>2000</LocalPort>") //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                + object("XMLFirewallService", "changed", "<LocalPort>2002</LocalPort><UserSummary>new</UserSummary>") //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                + object("XMLFirewallService", "added", "<LocalPort>2003</LocalPort>"), ""); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+        DomainDifferences differences = DomainDiffEngine.compare(before, after);
+
+        assertEquals(1, differences.getCount(DomainDifferences.ADDED));
+        assertEquals(1, differences.getCount(DomainDifferences.REMOVED));
+        assertEquals(1, differences.getCount(DomainDifferences.MODIFIED));
+        Map<String, DomainDifferences.ObjectChange> changes = byName(differences);
+        assertEquals(DomainDifferences.ADDED, changes.get("added").getChangeType()); //$NON-NLS-1$
+        assertEquals("XMLManager", changes.get("removed").getClassName()); //$NON-NLS-1$ //$NON-NLS-2$
+
+        Map<String, DomainDifferences.PropertyChange> properties = new HashMap<String, DomainDifferences.PropertyChange>();
+        for (DomainDifferences.PropertyChange change : changes.get("changed").getPropertyChanges()) { //$NON-NLS-1$
+            properties.put(change.getName(), change);
+        }
+        assertEquals(3, properties.size());
+        assertEquals("2001", properties.get("LocalPort").getOldValue()); //$NON-NLS-1$ //$NON-NLS-2$
+        assertEquals("2002", properties.get("LocalPort").getNewValue()); //$NON-NLS-1$ //$NON-NLS-2$
+        assertNull(properties.get("RequestType").getNewValue()); //$NON-NLS-1$
+        assertNull(properties.get("UserSummary").getOldValue()); //$NON-NLS-1$
+    }
+
+    @Test
+    public void testFileContents() throws Exception {
+        String objects = object("XMLFirewallService", "fw0", "<LocalPort>2000</LocalPort>"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        byte[] before = export("a", objects, file("local:///same.xsl", "PHhzbDpzdHlsZXNoZWV0Lz4=") //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                + file("local:///changed.xsl", "PHhzbDpzdHlsZXNoZWV0Lz4=")); //$NON-NLS-1$ //$NON-NLS-2$
+        // the same base64 wrapped differently is the same file
+        byte[] after = export("b", objects, file("local:///same.xsl", "PHhzbDpzdHls\nZXNoZWV0Lz4=") //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                + file("local:///changed.xsl", "PHhzbDp0ZW1wbGF0ZS8+")); //$NON-NLS-1$ //$NON-NLS-2$
+        DomainDifferences differences = DomainDiffEngine.compare(before, after);
+
+        assertEquals(differences.toString(), 1, differences.getChanges().size());
+        DomainDifferences.ObjectChange change = differences.getChanges().get(0);
+        assertEquals(DomainDifferences.MODIFIED, change.getChangeType());
+        assertEquals(DomainDifferences.FILE_CLASS_NAME, change.getClassName());
+        assertEquals("local:///changed.xsl", change.getName()); //$NON-NLS-1$
+        assertEquals(DomainDifferences.FILE_CONTENT_PROPERTY, change.getPropertyChanges().get(0).getName());
+    }
+
+    @Test
+    public void testImagesAreStreamed() throws Exception {
+        final int objects = 20000;
+        StringBuilder before = new StringBuilder();
+        StringBuilder after = new StringBuilder();
+        for (int i = 0; i < objects; i++) {
+            String summary = "<UserSummary>service " + i + "</UserSummary>"; //$NON-NLS-1$ //$NON-NLS-2$
+            before.append(object("XMLFirewallService", "fw" + i, "<LocalPort>" + i + "</LocalPort>" + summary)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+            int port = ((i % 1000) == 0) ? i + 1 : i;
+            after.append(object("XMLFirewallService", "fw" + i, "<LocalPort>" + port + "</LocalPort>" + summary)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+        }
+        CountingSource image1 = new CountingSource(export("a", before.toString(), "")); //$NON-NLS-1$ //$NON-NLS-2$
+        CountingSource image2 = new CountingSource(export("b", after.toString(), "")); //$NON-NLS-1$ //$NON-NLS-2$
+        DomainDifferences differences = DomainDiffEngine.compare(image1, image2);
+
+        assertEquals(objects, differences.getObjectCount1());
+        assertEquals(objects / 1000, differences.getCount(DomainDifferences.MODIFIED));
+        assertEquals(objects / 1000, differences.getChanges().size());
+        // the older image is read again only for the old values
+        assertEquals(2, image1.opened);
+        assertEquals(1, image2.opened);
+
+        image1.opened = 0;
+        image2.opened = 0;
+        assertTrue(DomainDiffEngine.compare(image1, image1).isEmpty());
+        assertEquals(2, image1.opened);
+    }
+
+    @Test
+    public void testBase64Images() throws Exception {
+        byte[] before = export("a", object("XMLFirewallService", "fw0", "<LocalPort>2000</LocalPort>"), ""); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+        byte[] after = export("b", object("XMLFirewallService", "fw0", "<LocalPort>2001</LocalPort>"), ""); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+        // as getDomain returns them, and as a DomainVersion keeps them
+        byte[] encodedBefore = Base64.encodeBase64(before);
+        byte[] wrappedAfter = Base64.encodeBase64Chunked(after);
+
+        assertTrue(DomainDiffEngine.compare(encodedBefore, before).isEmpty());
+        assertEquals(1, DomainDiffEngine.compare(encodedBefore, wrappedAfter).getCount(DomainDifferences.MODIFIED));
+        assertEquals(DomainDiffEngine.compare(before, after).toString(),
+                DomainDiffEngine.compare(encodedBefore, wrappedAfter).toString());
+    }
+
+    @Test(expected = AMPException.class)
+    public void testNotAnExport() throws Exception {
+        DomainDiffEngine.compare(export("a", "", ""), "not xml".getBytes("UTF-8")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+    }
+
+    private static Map<String, DomainDifferences.ObjectChange> byName(DomainDifferences differences) {
+        Map<String, DomainDifferences.ObjectChange> result = new HashMap<String, DomainDifferences.ObjectChange>();
+        List<DomainDifferences.ObjectChange> changes = differences.getChanges();
+        for (DomainDifferences.ObjectChange change : changes) {
+            result.put(change.getName(), change);
+        }
+        return(result);
+    }
+
+    private static String object(String className, String name, String properties) {
+        return("<" + className + " name=\"" + name + "\">" + properties + "</" + className + ">\n"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+    }
+
+    private static String file(String name, String contents) {
+        return("<file name=\"" + name + "\" src=\"" + name + "\" location=\"local\">" + contents + "</file>\n"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+    }
+
+    private static byte[] export(String currentDate, String objects, String files) throws UnsupportedEncodingException {
+        return(("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" //$NON-NLS-1$
+                + "<datapower-configuration version=\"3\">\n" //$NON-NLS-1$
+                + "<export-details><current-date>" + currentDate + "</current-date></export-details>\n" //$NON-NLS-1$ //$NON-NLS-2$
+                + "<configuration domain=\"test\">\n" + objects + "</configuration>\n" //$NON-NLS-1$ //$NON-NLS-2$
+                + "<files>\n" + files + "</files>\n" //$NON-NLS-1$ //$NON-NLS-2$
+                + "</datapower-configuration>\n").getBytes("UTF-8")); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    private static class CountingSource implements DomainDiffEngine.ImageSource {
+        private final byte[] image;
+        int opened = 0;
+
+        CountingSource(byte[] image) {
+            this.image = image;
+        }
+
+        public InputStream open() throws IOException {
+            this.opened++;
+            return(new ByteArrayInputStream(this.image));
+        }
+    }
+}
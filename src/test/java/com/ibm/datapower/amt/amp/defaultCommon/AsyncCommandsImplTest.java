@@ -0,0 +1,233 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.amp.defaultCommon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ibm.datapower.amt.amp.Commands;
+import com.ibm.datapower.amt.amp.DeviceContext;
+import com.ibm.datapower.amt.amp.PingResponse;
+import com.ibm.datapower.amt.clientAPI.Configuration;
+import com.ibm.datapower.amt.clientAPI.Manager;
+import com.ibm.datapower.amt.simulator.ApplianceSimulator;
+
+/**
+ * Run calls through {@link AsyncCommandsImpl} over a provider whose
+ * pingDevice blocks until the test lets it go, and check that a device gets
+ * no more than its limit of worker threads, that the calls waiting in its
+ * lane start in the order they were submitted, and that shutting down the
+ * shared pool cancels the waiting calls and leaves the device usable. The
+ * shared pool must take a new size when its Manager option changes.
+ */
+public class AsyncCommandsImplTest {
+
+    private static final long TIMEOUT_MS = 10000;
+
+    private static final int PLENTY = 1000;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final Semaphore release = new Semaphore(0);
+    private final List<String> started = Collections.synchronizedList(new ArrayList<String>());
+
+    @After
+    public void tearDown() {
+        this.release.release(PLENTY);
+        AsyncCommandsImpl.shutdownSharedPool();
+    }
+
+    @Test
+    public void testLaneLimitAndOrder() throws Exception {
+        AsyncCommandsImpl async = new AsyncCommandsImpl(this.blockingCommands());
+        DeviceContext device = new DeviceContext("host0", 5550, "admin", "admin"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        int limit = maxPerDevice();
+        List<Future<PingResponse>> futures = new ArrayList<Future<PingResponse>>();
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < limit + 3; i++) {
+            futures.add(async.pingDevice(device, "call" + i)); //$NON-NLS-1$
+            expected.add("call" + i); //$NON-NLS-1$
+        }
+        this.awaitRunning(async, limit);
+        assertEquals(3, async.getQueuedCount());
+        assertEquals(new HashSet<String>(expected.subList(0, limit)), new HashSet<String>(this.startedSoFar()));
+
+        // each call that returns lets the oldest waiting one start
+        for (int i = limit; i < limit + 3; i++) {
+            this.release.release();
+            this.awaitStarted(i + 1);
+            assertEquals(expected.get(i), this.startedSoFar().get(i));
+            assertEquals(limit + 2 - i, async.getQueuedCount());
+        }
+        this.release.release(PLENTY);
+        for (Future<PingResponse> future : futures) {
+            future.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+        assertEquals(0, async.getQueuedCount());
+    }
+
+    @Test
+    public void testShutdownCancelsPendingCalls() throws Exception {
+        AsyncCommandsImpl async = new AsyncCommandsImpl(this.blockingCommands());
+        DeviceContext device = new DeviceContext("host0", 5550, "admin", "admin"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        int limit = maxPerDevice();
+        List<Future<PingResponse>> running = new ArrayList<Future<PingResponse>>();
+        for (int i = 0; i < limit; i++) {
+            running.add(async.pingDevice(device, "running" + i)); //$NON-NLS-1$
+        }
+        Future<PingResponse> pending = async.pingDevice(device, "pending"); //$NON-NLS-1$
+        this.awaitRunning(async, limit);
+        assertEquals(1, async.getQueuedCount());
+
+        AsyncCommandsImpl.shutdownSharedPool();
+        try {
+            pending.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            fail("a pending call survived the shutdown"); //$NON-NLS-1$
+        } catch (CancellationException e) {
+            // expected
+        }
+        assertEquals(0, async.getQueuedCount());
+        // the running calls were interrupted out of the provider
+        for (Future<PingResponse> future : running) {
+            try {
+                future.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                fail("a running call was not interrupted"); //$NON-NLS-1$
+            } catch (ExecutionException e) {
+                // pingDevice does not declare it, so the proxy wraps it
+                Throwable cause = e.getCause();
+                if (cause instanceof UndeclaredThrowableException) {
+                    cause = cause.getCause();
+                }
+                assertTrue(cause.toString(), cause instanceof InterruptedException);
+            }
+        }
+        assertEquals(-1, this.startedSoFar().indexOf("pending")); //$NON-NLS-1$
+
+        // the device is not left with the slots of the old pool
+        this.release.release(PLENTY);
+        List<Future<PingResponse>> after = new ArrayList<Future<PingResponse>>();
+        for (int i = 0; i < limit + 1; i++) {
+            after.add(async.pingDevice(device, "after" + i)); //$NON-NLS-1$
+        }
+        for (Future<PingResponse> future : after) {
+            future.get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        }
+        assertEquals(-1, this.startedSoFar().indexOf("pending")); //$NON-NLS-1$
+    }
+
+    @Test
+    public void testPoolFollowsConfiguration() throws Exception {
+        Manager manager = ApplianceSimulator.startManager(this.folder.newFolder("repository"));
+        String original = Configuration.get(Configuration.KEY_ASYNC_COMMANDS_THREAD_POOL_SIZE);
+        try {
+            // the first call creates the pool
+            AsyncCommandsImpl async = new AsyncCommandsImpl(this.blockingCommands());
+            DeviceContext device = new DeviceContext("host0", 5550, "admin", "admin"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            this.release.release();
+            async.pingDevice(device, "first").get(TIMEOUT_MS, TimeUnit.MILLISECONDS); //$NON-NLS-1$
+            int size = Configuration.getAsInteger(Configuration.KEY_ASYNC_COMMANDS_THREAD_POOL_SIZE).intValue();
+            assertEquals(size, AsyncCommandsImpl.getPoolSize());
+
+            setPoolSize(manager, Integer.toString(size + 2));
+            assertEquals(size + 2, AsyncCommandsImpl.getPoolSize());
+            setPoolSize(manager, "1"); //$NON-NLS-1$
+            assertEquals(1, AsyncCommandsImpl.getPoolSize());
+
+            // and the pool still runs calls
+            this.release.release();
+            async.pingDevice(device, "after").get(TIMEOUT_MS, TimeUnit.MILLISECONDS); //$NON-NLS-1$
+        } finally {
+            // the options outlive the Manager, so later tests get the default back
+            setPoolSize(manager, original);
+            manager.shutdown();
+            ApplianceSimulator.reset();
+        }
+    }
+
+    private static void setPoolSize(Manager manager, String size) throws Exception {
+        manager.updateOptions(Collections.singletonMap(Manager.OPTION_ASYNC_COMMANDS_THREAD_POOL_SIZE, size));
+    }
+
+    private static int maxPerDevice() {
+        return(Math.max(Configuration.getAsInteger(Configuration.KEY_ASYNC_COMMANDS_MAX_PER_DEVICE).intValue(), 1));
+    }
+
+    private void awaitRunning(AsyncCommandsImpl async, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (async.getRunningCount() < count || this.started.size() < count) {
+            assertTrue("calls did not start", System.currentTimeMillis() < deadline); //$NON-NLS-1$
+            Thread.sleep(10);
+        }
+        // give a call beyond the limit the chance to start, if it could
+        Thread.sleep(100);
+        assertEquals(count, async.getRunningCount());
+    }
+
+    private void awaitStarted(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (this.started.size() < count) {
+            assertTrue("call did not start", System.currentTimeMillis() < deadline); //$NON-NLS-1$
+            Thread.sleep(10);
+        }
+    }
+
+    private List<String> startedSoFar() {
+        synchronized (this.started) {
+            return(new ArrayList<String>(this.started));
+        }
+    }
+
+    /*
+     * Only pingDevice is called. It records the subscription ID it was given
+     * and waits for a permit.
+     */
+    private Commands blockingCommands() {
+        return((Commands) Proxy.newProxyInstance(Commands.class.getClassLoader(),
+                new Class<?>[] { Commands.class }, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (!method.getName().equals("pingDevice")) { //$NON-NLS-1$
+                            throw new UnsupportedOperationException(method.getName());
+                        }
+                        started.add((String) args[1]);
+                        release.acquire();
+                        return(null);
+                    }
+                }));
+    }
+}
@@ -0,0 +1,234 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.amp.defaultCommon;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.ibm.datapower.amt.clientAPI.Configuration;
+
+/**
+ * Connect through {@link CustomURLConnection} to a local stub that accepts
+ * connections and never writes a byte. An http connect completes as soon as
+ * the stub accepts it, and must not start a thread of its own. An https
+ * connect waits for a handshake that never comes, and must end with an
+ * InterruptedIOException at the connect limit, also when many connects wait
+ * on the shared deadline timer at once. A refused connect is passed on as it
+ * is. A read from the stub ends at the read limit.
+ */
+public class CustomURLConnectionTest {
+
+    private static final int CONNECTS = 200;
+    private static final int LIMIT = 500;
+    // how late a deadline may fire on a loaded machine
+    private static final int SLACK = 2000;
+    private static final int CONCURRENT = 16;
+
+    private ServerSocket stub = null;
+    private final List<Socket> accepted = new ArrayList<Socket>();
+    private Thread acceptor = null;
+
+    @Before
+    public void setUp() throws Exception {
+        this.stub = new ServerSocket(0, 64, InetAddress.getByName("127.0.0.1")); //$NON-NLS-1$
+        this.acceptor = new Thread("stub") { //$NON-NLS-1$
+            public void run() {
+                try {
+                    while (true) {
+                        Socket socket = stub.accept();
+                        // held open, so the client waits for the server
+                        synchronized (accepted) {
+                            accepted.add(socket);
+                        }
+                    }
+                } catch (IOException e) {
+                    // closed by tearDown
+                }
+            }
+        };
+        this.acceptor.setDaemon(true);
+        this.acceptor.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.stub.close();
+        this.acceptor.join();
+        synchronized (this.accepted) {
+            for (Socket socket : this.accepted) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test
+    public void testConnectLimitIsTheConnectTimeout() throws Exception {
+        CustomURLConnection custom = new CustomURLConnection(url("http")); //$NON-NLS-1$
+        assertEquals(Configuration.getAsInteger(Configuration.KEY_AMP_CONNECT_TIMEOUT).intValue(),
+                custom.getConnectLimit());
+        custom.setConnectLimit(1234);
+        assertEquals(1234, custom.openConnection().getConnectTimeout());
+        custom.setConnectLimit(0);
+        assertEquals(Integer.parseInt(Configuration.DEFAULT_AMP_CONNECT_TIMEOUT),
+                custom.openConnection().getConnectTimeout());
+    }
+
+    @Test
+    public void testReadLimitIsTheReadTimeout() throws Exception {
+        CustomURLConnection custom = new CustomURLConnection(url("http")); //$NON-NLS-1$
+        assertEquals(Configuration.getAsInteger(Configuration.KEY_ASYNC_COMMANDS_TIMEOUT).intValue(),
+                custom.getReadLimit());
+        custom.setReadLimit(LIMIT);
+        HttpURLConnection connection = (HttpURLConnection) custom.openConnection();
+        assertEquals(LIMIT, connection.getReadTimeout());
+        custom.connect();
+        long start = System.currentTimeMillis();
+        try {
+            // the stub never answers
+            connection.getResponseCode();
+            fail("read a response from the stub"); //$NON-NLS-1$
+        } catch (SocketTimeoutException e) {
+            long elapsed = System.currentTimeMillis() - start;
+            assertTrue(Long.toString(elapsed), elapsed >= LIMIT && elapsed < LIMIT + SLACK);
+        } finally {
+            connection.disconnect();
+        }
+        custom.setReadLimit(0);
+        assertEquals(0, custom.openConnection().getReadTimeout());
+    }
+
+    @Test
+    public void testConnectDoesNotStartThreads() throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        // the first connect may start the deadline timer
+        connect(url("http"), LIMIT); //$NON-NLS-1$
+        long started = threads.getTotalStartedThreadCount();
+        long elapsed = 0;
+        for (int i = 0; i < CONNECTS; i++) {
+            elapsed += connect(url("http"), LIMIT); //$NON-NLS-1$
+        }
+        assertTrue(Long.toString(threads.getTotalStartedThreadCount() - started),
+                threads.getTotalStartedThreadCount() - started <= 1);
+        // a connect used to take at least one 100 ms poll
+        assertTrue(Long.toString(elapsed), elapsed < CONNECTS * 10L);
+    }
+
+    @Test
+    public void testHandshakeThatNeverCompletesTimesOut() throws Exception {
+        CustomURLConnection custom = new CustomURLConnection(url("https")); //$NON-NLS-1$
+        custom.setConnectLimit(LIMIT);
+        custom.openConnection();
+        long start = System.currentTimeMillis();
+        try {
+            custom.connect();
+            fail("connected without a handshake"); //$NON-NLS-1$
+        } catch (InterruptedIOException e) {
+            long elapsed = System.currentTimeMillis() - start;
+            assertTrue(Long.toString(elapsed), elapsed >= LIMIT && elapsed < LIMIT + SLACK);
+            assertTrue(Integer.toString(custom.getConnectElapsed()), custom.getConnectElapsed() >= LIMIT);
+        }
+    }
+
+    @Test
+    public void testConcurrentTimeoutsShareTheTimer() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(CONCURRENT);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < CONCURRENT; i++) {
+                results.add(pool.submit(new Callable<Boolean>() {
+                    public Boolean call() throws Exception {
+                        CustomURLConnection custom = new CustomURLConnection(url("https")); //$NON-NLS-1$
+                        custom.setConnectLimit(LIMIT);
+                        custom.openConnection();
+                        try {
+                            custom.connect();
+                            return(Boolean.FALSE);
+                        } catch (InterruptedIOException e) {
+                            return(Boolean.TRUE);
+                        }
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get().booleanValue());
+            }
+            // one timer thread ends them all at about the same time
+            long elapsed = System.currentTimeMillis() - start;
+            assertTrue(Long.toString(elapsed), elapsed < LIMIT + SLACK);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testRefusedConnectIsPassedOn() throws Exception {
+        URL url = url("http"); //$NON-NLS-1$
+        this.stub.close();
+        this.acceptor.join();
+        CustomURLConnection custom = new CustomURLConnection(url);
+        custom.setConnectLimit(LIMIT * 20);
+        custom.openConnection();
+        long start = System.currentTimeMillis();
+        try {
+            custom.connect();
+            fail("connected to a closed port"); //$NON-NLS-1$
+        } catch (IOException e) {
+            assertFalse(e.toString(), e instanceof InterruptedIOException);
+            assertTrue(System.currentTimeMillis() - start < LIMIT * 20);
+        }
+    }
+
+    private URL url(String protocol) throws IOException {
+        return(new URL(protocol, "127.0.0.1", this.stub.getLocalPort(), "/service/mgmt/amp/3.0")); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    private static long connect(URL url, int limit) throws IOException {
+        CustomURLConnection custom = new CustomURLConnection(url);
+        custom.setConnectLimit(limit);
+        HttpURLConnection connection = (HttpURLConnection) custom.openConnection();
+        long start = System.nanoTime();
+        custom.connect();
+        long elapsed = (System.nanoTime() - start) / 1000000L;
+        connection.disconnect();
+        return(elapsed);
+    }
+}
@@ -0,0 +1,231 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.clientAPI;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import com.ibm.datapower.amt.TaskMetrics;
+
+/**
+ * Check the order in which a {@link BackgroundTaskQueue} hands out tasks,
+ * that a redundant task is folded into the equal one that waits and moves it
+ * up to its own priority, counters included, and that
+ * {@link BackgroundTaskQueue#offer(BackgroundTask, long)} waits for room for
+ * as long as it was told to.
+ */
+public class BackgroundTaskQueueTest {
+
+    private static final long TIMEOUT_MS = 10000;
+    private static final long SLACK_MS = 2000;
+    private static final long OFFER_MS = 300;
+
+    @Test
+    public void testPriorityOrder() {
+        BackgroundTaskQueue queue = new BackgroundTaskQueue(null);
+        Job a1 = new Job(null, TaskPriority.AUTOMATIC);
+        Job i1 = new Job(null, TaskPriority.INTERACTIVE);
+        Job a2 = new Job(null, TaskPriority.AUTOMATIC);
+        Job i2 = new Job(null, TaskPriority.INTERACTIVE);
+        queue.privilegedAdd(a1);
+        queue.privilegedAdd(i1);
+        queue.privilegedAdd(a2);
+        queue.privilegedAdd(i2);
+        assertEquals(4, queue.getSize());
+        assertEquals(2, queue.getSize(TaskPriority.INTERACTIVE));
+
+        BackgroundTask[] expected = { i1, i2, a1, a2 };
+        for (int i = 0; i < expected.length; i++) {
+            assertSame(expected[i], queue.peek(i));
+        }
+        assertNull(queue.peek(expected.length));
+        for (int i = 0; i < expected.length; i++) {
+            assertSame(expected[i], queue.poll());
+        }
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testPromotionAndMergedResult() throws Exception {
+        TaskMetrics automatic = BackgroundTaskQueue.getMetrics(TaskPriority.AUTOMATIC);
+        TaskMetrics interactive = BackgroundTaskQueue.getMetrics(TaskPriority.INTERACTIVE);
+        long automaticWaiting = automatic.getWaitingCount();
+        long interactiveWaiting = interactive.getWaitingCount();
+        long coalesced = interactive.getCoalescedCount();
+
+        BackgroundTaskQueue queue = new BackgroundTaskQueue(null);
+        Job other = new Job(null, TaskPriority.INTERACTIVE);
+        Job waiting = new Job("key", TaskPriority.AUTOMATIC); //$NON-NLS-1$
+        Job redundant = new Job("key", TaskPriority.INTERACTIVE); //$NON-NLS-1$
+        queue.privilegedAdd(other);
+        queue.privilegedAdd(waiting);
+        queue.offer(redundant, 0);
+
+        // the waiting task moved up, behind the INTERACTIVE one already there
+        assertEquals(2, queue.getSize());
+        assertEquals(2, queue.getSize(TaskPriority.INTERACTIVE));
+        assertEquals(0, queue.getSize(TaskPriority.AUTOMATIC));
+        assertSame(TaskPriority.INTERACTIVE, waiting.getPriority());
+        assertEquals(coalesced + 1, interactive.getCoalescedCount());
+        assertEquals(automaticWaiting, automatic.getWaitingCount());
+        assertEquals(interactiveWaiting + 2, interactive.getWaitingCount());
+
+        // a redundant task of a lower priority does not move it back down
+        Job late = new Job("key", TaskPriority.AUTOMATIC); //$NON-NLS-1$
+        queue.privilegedAdd(late);
+        assertSame(TaskPriority.INTERACTIVE, waiting.getPriority());
+        assertEquals(2, queue.getSize());
+
+        assertSame(other, queue.poll());
+        BackgroundTaskQueue.finished(other);
+        assertSame(waiting, queue.poll());
+        assertEquals(automaticWaiting, automatic.getWaitingCount());
+        assertEquals(interactiveWaiting, interactive.getWaitingCount());
+        waiting.execute();
+        BackgroundTaskQueue.finished(waiting);
+        assertTrue(redundant.getProgressContainer().isComplete());
+        assertSame(waiting, redundant.getProgressContainer().getResult());
+        assertTrue(late.getProgressContainer().isComplete());
+        assertSame(waiting, late.getProgressContainer().getResult());
+        assertEquals(0, waiting.mergeCoalesced());
+    }
+
+    @Test
+    public void testTimedOfferGetsRoom() throws Exception {
+        final BackgroundTaskQueue queue = new BackgroundTaskQueue(Integer.valueOf(1));
+        Job first = new Job(null, TaskPriority.INTERACTIVE);
+        queue.offer(first, 0);
+        Offer offer = new Offer(queue, new Job(null, TaskPriority.INTERACTIVE), TIMEOUT_MS);
+        offer.start();
+        offer.awaitWaiting();
+        assertEquals(1, queue.getSize());
+
+        assertSame(first, queue.poll());
+        offer.join(TIMEOUT_MS);
+        assertNull(offer.error);
+        assertSame(offer.task, queue.poll());
+    }
+
+    @Test
+    public void testTimedOfferTimesOut() throws Exception {
+        TaskMetrics metrics = BackgroundTaskQueue.getMetrics(TaskPriority.INTERACTIVE);
+        long rejected = metrics.getRejectedCount();
+        BackgroundTaskQueue queue = new BackgroundTaskQueue(Integer.valueOf(1));
+        Job first = new Job(null, TaskPriority.INTERACTIVE);
+        queue.offer(first, 0);
+
+        long start = System.currentTimeMillis();
+        try {
+            queue.offer(new Job(null, TaskPriority.INTERACTIVE), OFFER_MS);
+            fail("offered to a full queue"); //$NON-NLS-1$
+        } catch (FullException e) {
+            long elapsed = System.currentTimeMillis() - start;
+            assertTrue(Long.toString(elapsed), elapsed >= OFFER_MS);
+            assertTrue(Long.toString(elapsed), elapsed < OFFER_MS + SLACK_MS);
+        }
+        assertEquals(rejected + 1, metrics.getRejectedCount());
+        assertEquals(1, queue.getSize());
+        assertSame(first, queue.poll());
+    }
+
+    @Test
+    public void testWaitingOfferCoalesces() throws Exception {
+        BackgroundTaskQueue queue = new BackgroundTaskQueue(Integer.valueOf(1));
+        Job first = new Job(null, TaskPriority.INTERACTIVE);
+        queue.offer(first, 0);
+        Offer offer = new Offer(queue, new Job("key", TaskPriority.INTERACTIVE), TIMEOUT_MS); //$NON-NLS-1$
+        offer.start();
+        offer.awaitWaiting();
+
+        // an equal task gets in while the offer waits for room
+        Job equal = new Job("key", TaskPriority.INTERACTIVE); //$NON-NLS-1$
+        queue.privilegedAdd(equal);
+        assertSame(first, queue.poll());
+        offer.join(TIMEOUT_MS);
+        assertNull(offer.error);
+        assertEquals(1, queue.getSize());
+        assertSame(equal, queue.poll());
+        equal.execute();
+        BackgroundTaskQueue.finished(equal);
+        assertSame(equal, offer.task.getProgressContainer().getResult());
+    }
+
+    /*
+     * Completes with itself as the result.
+     */
+    private static class Job extends BackgroundTask {
+        private final Object key;
+
+        Job(Object key, TaskPriority priority) {
+            this.key = key;
+            this.setPriority(priority);
+        }
+
+        Object getCoalescingKey() {
+            return(this.key);
+        }
+
+        protected int estimateSteps() {
+            return(1);
+        }
+
+        protected void execute() {
+            this.progressContainer.setComplete(this);
+        }
+    }
+
+    /*
+     * Offers a task on a thread of its own.
+     */
+    private static class Offer extends Thread {
+        final BackgroundTaskQueue queue;
+        final BackgroundTask task;
+        final long timeoutMS;
+        volatile FullException error = null;
+
+        Offer(BackgroundTaskQueue queue, BackgroundTask task, long timeoutMS) {
+            super("offer"); //$NON-NLS-1$
+            this.queue = queue;
+            this.task = task;
+            this.timeoutMS = timeoutMS;
+            this.setDaemon(true);
+        }
+
+        public void run() {
+            try {
+                this.queue.offer(this.task, this.timeoutMS);
+            } catch (FullException e) {
+                this.error = e;
+            }
+        }
+
+        void awaitWaiting() throws InterruptedException {
+            long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+            while (this.getState() != Thread.State.TIMED_WAITING) {
+                assertTrue("offer did not wait", System.currentTimeMillis() < deadline); //$NON-NLS-1$
+                Thread.sleep(10);
+            }
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.clientAPI;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ibm.datapower.amt.simulator.ApplianceSimulator;
+
+/**
+ * Change Manager options at run time and check that {@link Configuration}
+ * swaps in a new snapshot and leaves the old one as it was, that readers see
+ * options changed together in the same snapshot, and that listeners are
+ * called one at a time with snapshots that follow on from each other, however
+ * many threads publish at once. A running {@link HeartbeatDaemon} must resize
+ * its pool when its option changes.
+ */
+public class ConfigurationTest {
+
+    private static final long TIMEOUT_MS = 10000;
+
+    private static final int PUBLISHERS = 4;
+    private static final int CHANGES = 200;
+
+    @ClassRule
+    public static final TemporaryFolder folder = new TemporaryFolder();
+
+    private static Manager manager = null;
+
+    private final Map<String, String> original = new HashMap<String, String>();
+    private final List<Configuration.Listener> added = new ArrayList<Configuration.Listener>();
+    private HeartbeatDaemon daemon = null;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        manager = ApplianceSimulator.startManager(folder.newFolder("repository"));
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        if (manager != null) {
+            manager.shutdown();
+        }
+        ApplianceSimulator.reset();
+    }
+
+    @After
+    public void tearDown() {
+        for (Configuration.Listener listener : this.added) {
+            Configuration.removeListener(listener);
+        }
+        // the options outlive the Manager, so later tests get theirs back
+        if (!this.original.isEmpty()) {
+            Configuration.updateFromManagerMap(this.original);
+        }
+        // after the daemon has put its pool size back
+        if (this.daemon != null) {
+            this.daemon.shutdown();
+        }
+    }
+
+    @Test
+    public void testSnapshotSwap() {
+        this.remember(Manager.OPTION_SIGNAL_DELAY_TIME, Configuration.KEY_SIGNAL_DELAY_TIME);
+        this.remember(Manager.OPTION_SIGNAL_BATCH_WINDOW, Configuration.KEY_SIGNAL_BATCH_WINDOW);
+        Configuration.Snapshot before = Configuration.getSnapshot();
+        String delay = before.get(Configuration.KEY_SIGNAL_DELAY_TIME);
+        String changed = Integer.toString(Integer.parseInt(delay) + 1);
+
+        assertTrue(Configuration.updateFromManagerMap(options(Manager.OPTION_SIGNAL_DELAY_TIME, changed)));
+        Configuration.Snapshot after = Configuration.getSnapshot();
+        assertNotSame(before, after);
+        assertEquals(before.getGeneration() + 1, after.getGeneration());
+        // the old snapshot does not change under its readers
+        assertEquals(delay, before.get(Configuration.KEY_SIGNAL_DELAY_TIME));
+        assertEquals(changed, after.get(Configuration.KEY_SIGNAL_DELAY_TIME));
+        assertEquals(changed, Configuration.get(Configuration.KEY_SIGNAL_DELAY_TIME));
+        assertTrue(after.isChanged(before, Configuration.KEY_SIGNAL_DELAY_TIME));
+        assertFalse(after.isChanged(before, Configuration.KEY_SIGNAL_BATCH_WINDOW));
+
+        // the same values again publish nothing
+        assertFalse(Configuration.updateFromManagerMap(options(Manager.OPTION_SIGNAL_DELAY_TIME, changed)));
+        assertSame(after, Configuration.getSnapshot());
+    }
+
+    @Test
+    public void testChangesAreSeenTogether() throws Exception {
+        this.remember(Manager.OPTION_SIGNAL_DELAY_TIME, Configuration.KEY_SIGNAL_DELAY_TIME);
+        this.remember(Manager.OPTION_SIGNAL_BATCH_WINDOW, Configuration.KEY_SIGNAL_BATCH_WINDOW);
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final AtomicReference<String> torn = new AtomicReference<String>();
+        Thread reader = new Thread("ConfigurationTest reader") { //$NON-NLS-1$
+            public void run() {
+                while (!done.get()) {
+                    Configuration.Snapshot snapshot = Configuration.getSnapshot();
+                    String delay = snapshot.get(Configuration.KEY_SIGNAL_DELAY_TIME);
+                    String window = snapshot.get(Configuration.KEY_SIGNAL_BATCH_WINDOW);
+                    if (!delay.equals(window)) {
+                        torn.compareAndSet(null, delay + " and " + window); //$NON-NLS-1$
+                    }
+                }
+            }
+        };
+        Map<String, String> both = new HashMap<String, String>();
+        both.put(Manager.OPTION_SIGNAL_DELAY_TIME, "1"); //$NON-NLS-1$
+        both.put(Manager.OPTION_SIGNAL_BATCH_WINDOW, "1"); //$NON-NLS-1$
+        Configuration.updateFromManagerMap(both);
+        reader.start();
+        try {
+            for (int i = 2; i < CHANGES; i++) {
+                both.put(Manager.OPTION_SIGNAL_DELAY_TIME, Integer.toString(i));
+                both.put(Manager.OPTION_SIGNAL_BATCH_WINDOW, Integer.toString(i));
+                Configuration.updateFromManagerMap(both);
+            }
+        } finally {
+            done.set(true);
+            reader.join(TIMEOUT_MS);
+        }
+        assertNull(torn.get(), torn.get());
+    }
+
+    @Test
+    public void testListenersSeeChangesInOrder() throws Exception {
+        this.remember(Manager.OPTION_SIGNAL_DELAY_TIME, Configuration.KEY_SIGNAL_DELAY_TIME);
+        Recorder recorder = new Recorder();
+        this.listen(recorder);
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread[] publishers = new Thread[PUBLISHERS];
+        for (int p = 0; p < PUBLISHERS; p++) {
+            final int first = p;
+            publishers[p] = new Thread("ConfigurationTest publisher " + p) { //$NON-NLS-1$
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = first; i < CHANGES; i += PUBLISHERS) {
+                        Configuration.updateFromManagerMap(options(Manager.OPTION_SIGNAL_DELAY_TIME,
+                                Integer.toString(1000 + i)));
+                    }
+                }
+            };
+            publishers[p].start();
+        }
+        Configuration.Snapshot before = Configuration.getSnapshot();
+        start.countDown();
+        for (Thread publisher : publishers) {
+            publisher.join(TIMEOUT_MS);
+            assertFalse(publisher.isAlive());
+        }
+
+        assertFalse("a listener was called while another call was running", recorder.overlapped); //$NON-NLS-1$
+        List<Configuration.Snapshot[]> calls = recorder.getCalls();
+        assertTrue(calls.size() > 0);
+        // each call takes up where the one before left off
+        Configuration.Snapshot expected = before;
+        for (Configuration.Snapshot[] call : calls) {
+            assertSame(expected, call[0]);
+            assertTrue(call[1].getGeneration() > call[0].getGeneration());
+            expected = call[1];
+        }
+        // and the last one delivered the latest snapshot
+        assertSame(Configuration.getSnapshot(), expected);
+    }
+
+    @Test
+    public void testHeartbeatPoolResizesLive() throws Exception {
+        this.remember(Manager.OPTION_HEARTBEAT_THREAD_POOL_SIZE, Configuration.KEY_HEARTBEAT_THREAD_POOL_SIZE);
+        this.daemon = new HeartbeatDaemon();
+        this.daemon.startup();
+        int size = Configuration.getAsInteger(Configuration.KEY_HEARTBEAT_THREAD_POOL_SIZE).intValue();
+        assertEquals(size, this.daemon.getPoolSize());
+
+        Configuration.updateFromManagerMap(options(Manager.OPTION_HEARTBEAT_THREAD_POOL_SIZE, Integer.toString(size + 3)));
+        assertEquals(size + 3, this.daemon.getPoolSize());
+        // new threads start right away
+        this.awaitPoolThreads(size + 3);
+
+        Configuration.updateFromManagerMap(options(Manager.OPTION_HEARTBEAT_THREAD_POOL_SIZE, "1")); //$NON-NLS-1$
+        assertEquals(1, this.daemon.getPoolSize());
+        // and idle ones stop
+        this.awaitPoolThreads(1);
+    }
+
+    private static Map<String, String> options(String option, String value) {
+        Map<String, String> result = new HashMap<String, String>();
+        result.put(option, value);
+        return(result);
+    }
+
+    private void remember(String option, String canonicalKey) {
+        this.original.put(option, Configuration.get(canonicalKey));
+    }
+
+    private void listen(Configuration.Listener listener) {
+        Configuration.addListener(listener);
+        this.added.add(listener);
+    }
+
+    private void awaitPoolThreads(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (poolThreads() != count) {
+            assertTrue(poolThreads() + " heartbeat threads, not " + count, //$NON-NLS-1$
+                    System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static int poolThreads() {
+        int result = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive() && thread.getName().startsWith("HeartbeatQueue PoolWorker")) { //$NON-NLS-1$
+                result++;
+            }
+        }
+        return(result);
+    }
+
+    /*
+     * Remembers the snapshots of each call, and whether a call started while
+     * another one was still running.
+     */
+    private static final class Recorder implements Configuration.Listener {
+        private final List<Configuration.Snapshot[]> calls = new ArrayList<Configuration.Snapshot[]>();
+        private final AtomicBoolean running = new AtomicBoolean(false);
+        volatile boolean overlapped = false;
+
+        public void configurationChanged(Configuration.Snapshot previous, Configuration.Snapshot current) {
+            if (!this.running.compareAndSet(false, true)) {
+                this.overlapped = true;
+            }
+            try {
+                synchronized (this.calls) {
+                    this.calls.add(new Configuration.Snapshot[] { previous, current });
+                }
+                // give another publisher the chance to get in
+                Thread.yield();
+            } finally {
+                this.running.set(false);
+            }
+        }
+
+        List<Configuration.Snapshot[]> getCalls() {
+            synchronized (this.calls) {
+                return(new ArrayList<Configuration.Snapshot[]>(this.calls));
+            }
+        }
+    }
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.clientAPI;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ibm.datapower.amt.amp.AMPConstants;
+import com.ibm.datapower.amt.amp.Commands;
+import com.ibm.datapower.amt.simulator.ApplianceSimulator;
+import com.ibm.datapower.amt.simulator.SimulatedDevice;
+
+/**
+ * Check when {@link Device#getCommands()} resolves its commands
+ * implementation again. The Commands are singletons of the factory, so the
+ * tests change the AMP version in the repository behind the Device's back: a
+ * Device that still speaks the old version is using what it resolved before.
+ * That must last until the device reports another AMP version or firmware
+ * level, or the configuration changes.
+ */
+public class DeviceCommandsTest {
+
+    private static final String FIRMWARE_LEVEL = "5.0.0.0"; //$NON-NLS-1$
+
+    @ClassRule
+    public static final TemporaryFolder folder = new TemporaryFolder();
+
+    private static Manager manager = null;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        manager = ApplianceSimulator.startManager(folder.newFolder("repository")); //$NON-NLS-1$
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        if (manager != null) {
+            manager.shutdown();
+        }
+        ApplianceSimulator.reset();
+    }
+
+    @Test
+    public void testCommandsAreKept() throws Exception {
+        Device device = createDevice("commands-kept"); //$NON-NLS-1$
+        Commands commands = device.getCommands();
+        assertEquals(AMPConstants.AMP_V2_0, device.getNegotiatedAMPVersion());
+
+        device.getStoredInstance().setCurrentAMPVersion(AMPConstants.AMP_V3_0);
+        assertEquals(AMPConstants.AMP_V2_0, device.getNegotiatedAMPVersion());
+        assertEquals(commands, device.getCommands());
+        // the same level again is no change
+        device.setActualFirmwareLevel(FIRMWARE_LEVEL);
+        assertEquals(AMPConstants.AMP_V2_0, device.getNegotiatedAMPVersion());
+    }
+
+    @Test
+    public void testAMPVersionChange() throws Exception {
+        SimulatedDevice simulated = ApplianceSimulator.addDevice("commands-amp", //$NON-NLS-1$
+                ApplianceSimulator.DEFAULT_AMP_PORT, "COMMANDSAMP", AMPConstants.AMP_V2_0); //$NON-NLS-1$
+        Device device = ApplianceSimulator.createDevice(simulated.getHostname());
+        Commands commands = device.getCommands();
+        assertEquals(AMPConstants.AMP_V2_0, device.getNegotiatedAMPVersion());
+
+        // the device is upgraded, and the Manager reads its info again
+        simulated.setAMPVersion(AMPConstants.AMP_V3_0);
+        device.recoverFromLostSubscription(new ProgressContainer(null));
+        assertEquals(AMPConstants.AMP_V3_0, device.getCurrentAMPVersion());
+        assertEquals(AMPConstants.AMP_V3_0, device.getNegotiatedAMPVersion());
+        assertNotSame(commands, device.getCommands());
+    }
+
+    @Test
+    public void testFirmwareLevelChange() throws Exception {
+        Device device = createDevice("commands-firmware"); //$NON-NLS-1$
+        assertEquals(AMPConstants.AMP_V2_0, device.getNegotiatedAMPVersion());
+
+        device.getStoredInstance().setCurrentAMPVersion(AMPConstants.AMP_V3_0);
+        device.setActualFirmwareLevel("6.0.0.0"); //$NON-NLS-1$
+        assertEquals(AMPConstants.AMP_V3_0, device.getNegotiatedAMPVersion());
+    }
+
+    @Test
+    public void testConfigurationChange() throws Exception {
+        Device device = createDevice("commands-configuration"); //$NON-NLS-1$
+        assertEquals(AMPConstants.AMP_V2_0, device.getNegotiatedAMPVersion());
+
+        device.getStoredInstance().setCurrentAMPVersion(AMPConstants.AMP_V3_0);
+        String delay = Configuration.get(Configuration.KEY_SIGNAL_DELAY_TIME);
+        try {
+            // any option will do, the implementations are not told apart
+            assertTrue(Configuration.updateFromManagerMap(options(Manager.OPTION_SIGNAL_DELAY_TIME,
+                    Integer.toString(Integer.parseInt(delay) + 1))));
+            assertEquals(AMPConstants.AMP_V3_0, device.getNegotiatedAMPVersion());
+        } finally {
+            // the options outlive the Manager, so later tests get theirs back
+            Configuration.updateFromManagerMap(options(Manager.OPTION_SIGNAL_DELAY_TIME, delay));
+        }
+        assertFalse(Configuration.updateFromManagerMap(options(Manager.OPTION_SIGNAL_DELAY_TIME, delay)));
+    }
+
+    private static Device createDevice(String hostname) throws Exception {
+        ApplianceSimulator.addDevice(hostname, ApplianceSimulator.DEFAULT_AMP_PORT,
+                hostname.toUpperCase(), AMPConstants.AMP_V2_0);
+        return(ApplianceSimulator.createDevice(hostname));
+    }
+
+    private static Map<String, String> options(String option, String value) {
+        Map<String, String> result = new HashMap<String, String>();
+        result.put(option, value);
+        return(result);
+    }
+}
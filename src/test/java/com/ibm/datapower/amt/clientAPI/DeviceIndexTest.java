@@ -0,0 +1,242 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.clientAPI;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ibm.datapower.amt.DeviceType;
+import com.ibm.datapower.amt.ModelType;
+import com.ibm.datapower.amt.StringCollection;
+import com.ibm.datapower.amt.amp.AMPConstants;
+import com.ibm.datapower.amt.simulator.ApplianceSimulator;
+import com.ibm.datapower.amt.simulator.DeviceProfile;
+import com.ibm.datapower.amt.simulator.SimulatedDevice;
+
+/**
+ * Answer random device queries from a fleet of {@link ApplianceSimulator}
+ * devices of several types, models, feature licenses and ManagedSet
+ * memberships, through the {@link DeviceIndex} behind
+ * {@link Manager#getDevices(DeviceType, ModelType, StringCollection)} and
+ * {@link Manager#getUnmanagedDevices(DeviceType, ModelType, StringCollection)},
+ * and compare every answer with a scan of {@link Manager#getAllDevices()}
+ * that makes the checks the index replaced. The comparison is repeated after
+ * memberships and licenses change.
+ */
+public class DeviceIndexTest {
+
+    private static final String PREFIX = "fleet"; //$NON-NLS-1$
+    private static final int FLEET = 60;
+    private static final int SETS = 3;
+    private static final int QUERIES = 500;
+    private static final int CHURN = 40;
+
+    private static final String[][] MODELS = {
+        { "XI50", "9001-XI50-01" }, //$NON-NLS-1$ //$NON-NLS-2$
+        { "XI50", "9002-XI50-02" }, //$NON-NLS-1$ //$NON-NLS-2$
+        { "XS40", "9003-XS40-03" }, //$NON-NLS-1$ //$NON-NLS-2$
+        { "XI52", "7199-XI52-8XX" }, //$NON-NLS-1$ //$NON-NLS-2$
+        { "XB62", "7199-XB62-8XX" }, //$NON-NLS-1$ //$NON-NLS-2$
+    };
+    private static final DeviceType[] DEVICE_TYPES = {
+        null, DeviceType.XI50, DeviceType.XI52, DeviceType.XS40, DeviceType.fromString("XB62"), DeviceType.XG45, //$NON-NLS-1$
+    };
+    private static final ModelType[] MODEL_TYPES = {
+        null, ModelType.TYPE_9001, ModelType.TYPE_9002, ModelType.TYPE_OTHER, ModelType.TYPE_9003,
+        ModelType.TYPE_7199, ModelType.TYPE_9005,
+    };
+    private static final String[] FEATURES = { "MQ", "TAM", "DataGlue", "Tibco-EMS" }; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+
+    @ClassRule
+    public static final TemporaryFolder folder = new TemporaryFolder();
+
+    private static Manager manager = null;
+    private static Device[] fleet = null;
+    private static ManagedSet[] sets = null;
+    private static final Random random = new Random(20140101L);
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        List<SimulatedDevice> simulated = ApplianceSimulator.addFleet(PREFIX, FLEET, AMPConstants.AMP_V3_0,
+                DeviceProfile.IDEAL);
+        for (int i = 0; i < FLEET; i++) {
+            String[] model = MODELS[i % MODELS.length];
+            simulated.get(i).setModel(model[0], model[1]);
+        }
+
+        manager = ApplianceSimulator.startManager(folder.newFolder("repository"));
+
+        fleet = new Device[FLEET];
+        for (int i = 0; i < FLEET; i++) {
+            String hostname = simulated.get(i).getHostname();
+            fleet[i] = ApplianceSimulator.createDevice(hostname);
+            fleet[i].setFeatureLicenses(randomFeatures(true));
+        }
+        sets = new ManagedSet[SETS];
+        for (int i = 0; i < SETS; i++) {
+            sets[i] = new ManagedSet(PREFIX + i);
+        }
+        for (int i = 0; i < FLEET; i += 3) {
+            join(fleet[i], sets[(i / 3) % SETS]);
+        }
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        if (manager != null) {
+            manager.shutdown();
+        }
+        ApplianceSimulator.reset();
+    }
+
+    @Test
+    public void testFleetIsVaried() throws Exception {
+        Set<String> types = new HashSet<String>();
+        for (Device device : fleet) {
+            types.add(device.getDeviceType().getDisplayName() + "/" + device.getModelType().getDisplayName()); //$NON-NLS-1$
+        }
+        assertTrue(types.toString(), types.size() >= 4);
+        assertEquals(FLEET, manager.getDevices(null, null, null).length);
+    }
+
+    @Test
+    public void testQueriesMatchScan() throws Exception {
+        assertQueriesMatchScan();
+    }
+
+    @Test
+    public void testQueriesMatchScanAfterChurn() throws Exception {
+        for (int i = 0; i < CHURN; i++) {
+            Device device = fleet[random.nextInt(FLEET)];
+            ManagedSet managedSet = device.getManagedSet();
+            if (managedSet != null) {
+                leave(device, managedSet);
+            } else {
+                join(device, sets[random.nextInt(SETS)]);
+            }
+            fleet[random.nextInt(FLEET)].setFeatureLicenses(randomFeatures(true));
+        }
+        assertQueriesMatchScan();
+    }
+
+    @Test
+    public void testSerialNumbers() throws Exception {
+        for (Device device : fleet) {
+            assertArrayEquals(new Device[] { device }, manager.getDevicesBySerialNumber(device.getSerialNumber()));
+        }
+        assertEquals(0, manager.getDevicesBySerialNumber("NOSUCHSERIAL").length); //$NON-NLS-1$
+    }
+
+    @Test
+    public void testRemovedDeviceIsNotFound() throws Exception {
+        SimulatedDevice simulated = ApplianceSimulator.addDevice("removed", ApplianceSimulator.DEFAULT_AMP_PORT, //$NON-NLS-1$
+                "REMOVED1", AMPConstants.AMP_V3_0); //$NON-NLS-1$
+        Device device = ApplianceSimulator.createDevice("removed"); //$NON-NLS-1$
+        assertEquals(1, manager.getDevicesBySerialNumber(simulated.getSerialNumber()).length);
+        assertTrue(Arrays.asList(manager.getDevices(null, null, null)).contains(device));
+
+        manager.remove(device);
+        assertEquals(0, manager.getDevicesBySerialNumber(simulated.getSerialNumber()).length);
+        assertEquals(scan(null, null, null, false), set(manager.getDevices(null, null, null)));
+    }
+
+    private static void assertQueriesMatchScan() throws Exception {
+        int answered = 0;
+        for (int i = 0; i < QUERIES; i++) {
+            DeviceType deviceType = DEVICE_TYPES[random.nextInt(DEVICE_TYPES.length)];
+            ModelType modelType = MODEL_TYPES[random.nextInt(MODEL_TYPES.length)];
+            StringCollection features = random.nextInt(4) == 0 ? null : randomFeatures(false);
+            String query = deviceType + " " + modelType + " " + features; //$NON-NLS-1$ //$NON-NLS-2$
+            assertEquals(query, scan(deviceType, modelType, features, false),
+                    set(manager.getDevices(deviceType, modelType, features)));
+            Set<Device> unmanaged = scan(deviceType, modelType, features, true);
+            assertEquals(query, unmanaged, set(manager.getUnmanagedDevices(deviceType, modelType, features)));
+            if (!unmanaged.isEmpty()) {
+                answered++;
+            }
+        }
+        // most queries find nothing, but enough of them must find something
+        assertTrue(Integer.toString(answered), answered > QUERIES / 10);
+    }
+
+    /*
+     * What getUnmanagedDevices did before the index, for managed Devices too.
+     */
+    private static Set<Device> scan(DeviceType deviceType, ModelType modelType, StringCollection features,
+            boolean unmanagedOnly) throws DeletedException {
+        Set<Device> result = new HashSet<Device>();
+        for (Device device : manager.getAllDevices()) {
+            if ((!unmanagedOnly || (device.getManagedSet() == null)) &&
+                    ((deviceType == null) || device.getDeviceType().isCompatibleWith(deviceType)) &&
+                    ((modelType == null) || device.getModelType().isCompatibleWith(modelType)) &&
+                    ((features == null) || device.getFeatureLicenses().equals(features))) {
+                result.add(device);
+            }
+        }
+        return(result);
+    }
+
+    private static Set<Device> set(Device[] devices) {
+        return(new HashSet<Device>(Arrays.asList(devices)));
+    }
+
+    /*
+     * A few licenses in any order, and on devices now and then one twice,
+     * which the index cannot hash as a set.
+     */
+    private static StringCollection randomFeatures(boolean duplicates) {
+        List<String> features = new ArrayList<String>();
+        for (String feature : FEATURES) {
+            if (random.nextBoolean()) {
+                features.add(random.nextInt(features.size() + 1), feature);
+            }
+        }
+        if (duplicates && !features.isEmpty() && (random.nextInt(8) == 0)) {
+            features.add(features.get(0));
+        }
+        return(new StringCollection(features.toArray(new String[features.size()])));
+    }
+
+    private static void join(Device device, ManagedSet managedSet) throws Exception {
+        ProgressContainer progress = managedSet.addDevice(device);
+        if (progress != null) {
+            progress.waitForEnd();
+        }
+    }
+
+    private static void leave(Device device, ManagedSet managedSet) throws Exception {
+        ProgressContainer progress = managedSet.removeDevice(device);
+        if (progress != null) {
+            progress.waitForEnd();
+        }
+    }
+}
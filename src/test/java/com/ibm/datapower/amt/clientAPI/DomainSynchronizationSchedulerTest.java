@@ -0,0 +1,248 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.clientAPI;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ibm.datapower.amt.amp.AMPConstants;
+import com.ibm.datapower.amt.simulator.ApplianceSimulator;
+
+/**
+ * Park a {@link DomainSynchronizationTask} on a busy device lock through
+ * {@link DomainSynchronizationScheduler#requeueWhenAvailable(DomainSynchronizationTask, Lock)}
+ * and check that it is put back on the queue exactly once: by the release of
+ * the lock, by its timeout on the timer wheel, or by whichever of the two
+ * wins when they race, and that neither leaves the other behind.
+ */
+public class DomainSynchronizationSchedulerTest {
+
+    private static final String HOSTNAME = "schedulertest"; //$NON-NLS-1$
+    private static final long TIMEOUT_MS = 10000;
+    private static final int RACES = 200;
+    // ticks until a lock wait times out
+    private static final int WAIT_TICKS = (int) (DomainSynchronizationScheduler.LOCK_WAIT_TIMEOUT_MS /
+            DomainSynchronizationScheduler.TICK_MS);
+
+    @ClassRule
+    public static final TemporaryFolder folder = new TemporaryFolder();
+
+    private static Manager manager = null;
+    private static Domain domain = null;
+
+    private RecordingQueue queue = null;
+    private DomainSynchronizationScheduler scheduler = null;
+    private Lock lock = null;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        ApplianceSimulator.addDevice(HOSTNAME, ApplianceSimulator.DEFAULT_AMP_PORT, "SCHEDTEST", AMPConstants.AMP_V3_0); //$NON-NLS-1$
+
+        manager = ApplianceSimulator.startManager(folder.newFolder("repository"));
+
+        Device device = ApplianceSimulator.createDevice(HOSTNAME);
+        new ManagedSet(HOSTNAME).addDevice(device);
+        domain = device.createManagedDomain("app"); //$NON-NLS-1$
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        if (manager != null) {
+            manager.shutdown();
+        }
+        ApplianceSimulator.reset();
+    }
+
+    @Before
+    public void setUp() {
+        this.queue = new RecordingQueue();
+        this.scheduler = new DomainSynchronizationScheduler(this.queue, 1000);
+        this.lock = new Lock("DomainSynchronizationSchedulerTest"); //$NON-NLS-1$
+    }
+
+    @After
+    public void tearDown() {
+        this.scheduler.clear();
+        this.queue.stopAllThreads();
+    }
+
+    @Test
+    public void testReleaseResumesTheTask() throws Exception {
+        DomainSynchronizationTask task = this.task();
+        Holder holder = this.hold();
+        this.scheduler.requeueWhenAvailable(task, this.lock);
+        assertEquals(1, this.lock.getWaiterCount());
+        assertEquals(1, this.scheduler.getDelayedTaskCount());
+        assertEquals(0, this.queue.tasks.size());
+
+        holder.release();
+        assertEquals(1, this.queue.tasks.size());
+        assertSame(task, this.queue.tasks.get(0));
+        // the timeout is taken off the wheel, it does not fire later
+        assertEquals(0, this.scheduler.getDelayedTaskCount());
+        this.tick(WAIT_TICKS + 1);
+        assertEquals(1, this.queue.tasks.size());
+    }
+
+    @Test
+    public void testTimeoutResumesTheTask() throws Exception {
+        DomainSynchronizationTask task = this.task();
+        Holder holder = this.hold();
+        this.scheduler.requeueWhenAvailable(task, this.lock);
+        this.tick(WAIT_TICKS - 1);
+        assertEquals(0, this.queue.tasks.size());
+        this.tick(1);
+        assertEquals(1, this.queue.tasks.size());
+        assertSame(task, this.queue.tasks.get(0));
+        // the waiter is taken off the lock, the release does not resume it
+        assertEquals(0, this.lock.getWaiterCount());
+        holder.release();
+        assertEquals(1, this.queue.tasks.size());
+        assertEquals(0, this.scheduler.getDelayedTaskCount());
+    }
+
+    @Test
+    public void testFullLockFallsBackToRetry() throws Exception {
+        Holder holder = this.hold();
+        for (int i = 0; i < Lock.MAX_WAITERS; i++) {
+            assertTrue(this.lock.resumeWhenAvailable(new Lock.Waiter() {
+                public boolean resume() {
+                    return(true);
+                }
+            }));
+        }
+        DomainSynchronizationTask task = this.task();
+        this.scheduler.requeueWhenAvailable(task, this.lock);
+        assertEquals(Lock.MAX_WAITERS, this.lock.getWaiterCount());
+        assertEquals(1, this.scheduler.getDelayedTaskCount());
+        this.tick((int) (DomainSynchronizationScheduler.LOCK_BUSY_RETRY_MS / DomainSynchronizationScheduler.TICK_MS));
+        assertEquals(1, this.queue.tasks.size());
+        assertEquals(0, this.scheduler.getDelayedTaskCount());
+        holder.release();
+        assertEquals(1, this.queue.tasks.size());
+    }
+
+    @Test
+    public void testTimeoutRacesRelease() throws Exception {
+        for (int i = 0; i < RACES; i++) {
+            this.queue.tasks.clear();
+            final Holder holder = this.hold();
+            this.scheduler.requeueWhenAvailable(this.task(), this.lock);
+            // the timeout is due on the next tick
+            this.tick(WAIT_TICKS - 1);
+            final CountDownLatch start = new CountDownLatch(1);
+            Thread releaser = new Thread("releaser") { //$NON-NLS-1$
+                public void run() {
+                    try {
+                        start.await();
+                        holder.release();
+                    } catch (InterruptedException e) {
+                        // the test fails on its own
+                    }
+                }
+            };
+            releaser.start();
+            start.countDown();
+            this.tick(1);
+            releaser.join(TIMEOUT_MS);
+
+            assertEquals("race " + i, 1, this.queue.tasks.size()); //$NON-NLS-1$
+            assertEquals("race " + i, 0, this.lock.getWaiterCount()); //$NON-NLS-1$
+            assertEquals("race " + i, 0, this.scheduler.getDelayedTaskCount()); //$NON-NLS-1$
+        }
+    }
+
+    private DomainSynchronizationTask task() {
+        DomainSynchronizationTask task = new DomainSynchronizationTask(domain, Boolean.FALSE);
+        task.setScheduler(this.scheduler);
+        return(task);
+    }
+
+    private void tick(int count) {
+        for (int i = 0; i < count; i++) {
+            this.scheduler.tick();
+        }
+    }
+
+    private Holder hold() throws InterruptedException {
+        Holder holder = new Holder(this.lock);
+        holder.start();
+        assertTrue("holder did not lock", holder.locked.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)); //$NON-NLS-1$
+        return(holder);
+    }
+
+    /*
+     * Records the tasks it is given instead of running them.
+     */
+    private static class RecordingQueue extends DomainSynchronizationQueue {
+        final List<BackgroundTask> tasks = new CopyOnWriteArrayList<BackgroundTask>();
+
+        RecordingQueue() {
+            super(1);
+        }
+
+        public void execute(BackgroundTask task) {
+            this.tasks.add(task);
+        }
+    }
+
+    /*
+     * Holds the lock on a thread of its own until it is released.
+     */
+    private static class Holder extends Thread {
+        final CountDownLatch locked = new CountDownLatch(1);
+        private final CountDownLatch go = new CountDownLatch(1);
+        private final Lock lock;
+
+        Holder(Lock lock) {
+            super("holder"); //$NON-NLS-1$
+            this.lock = lock;
+            this.setDaemon(true);
+        }
+
+        public void run() {
+            this.lock.lockWait();
+            this.locked.countDown();
+            try {
+                this.go.await();
+            } catch (InterruptedException e) {
+                // unlock anyway
+            }
+            this.lock.unlock();
+        }
+
+        void release() throws InterruptedException {
+            this.go.countDown();
+            this.join(TIMEOUT_MS);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.clientAPI;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.InputStream;
+import java.net.URL;
+import java.util.Date;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ibm.datapower.amt.amp.AMPConstants;
+import com.ibm.datapower.amt.amp.DomainDiffEngine;
+import com.ibm.datapower.amt.amp.DomainDifferences;
+import com.ibm.datapower.amt.simulator.ApplianceSimulator;
+import com.ibm.datapower.amt.simulator.SimulatedDevice;
+
+/**
+ * Take two versions of a domain from an {@link ApplianceSimulator} device,
+ * one round trip each, and compare them on the manager: neither
+ * {@link DomainVersion#getDifferences(DomainVersion)} nor
+ * {@link DomainVersion#diff(DomainVersion)} may call the device.
+ */
+public class DomainVersionDiffTest {
+
+    private static final String HOSTNAME = "difftest"; //$NON-NLS-1$
+    private static final String DOMAIN_NAME = "app"; //$NON-NLS-1$
+    private static final String GET_DOMAIN_EXPORT = "GetDomainExport"; //$NON-NLS-1$
+
+    @ClassRule
+    public static final TemporaryFolder folder = new TemporaryFolder();
+
+    private static Manager manager = null;
+    private static SimulatedDevice simulated = null;
+    private static Device device = null;
+    private static Domain domain = null;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        simulated = ApplianceSimulator.addDevice(HOSTNAME, ApplianceSimulator.DEFAULT_AMP_PORT, "DIFFTEST", AMPConstants.AMP_V3_0); //$NON-NLS-1$
+        simulated.putDomain(DOMAIN_NAME, ApplianceSimulator.syntheticConfig(DOMAIN_NAME, 1));
+
+        manager = ApplianceSimulator.startManager(folder.newFolder("repository"));
+
+        device = ApplianceSimulator.createDevice(HOSTNAME);
+        new ManagedSet(HOSTNAME).addDevice(device);
+        domain = device.createManagedDomain(DOMAIN_NAME);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        if (manager != null) {
+            manager.shutdown();
+        }
+        ApplianceSimulator.reset();
+    }
+
+    @Before
+    public void setUp() {
+        simulated.resetCallCounts();
+    }
+
+    @Test
+    public void testDiffDoesNotCallTheDevice() throws Exception {
+        simulated.putDomain(DOMAIN_NAME, ApplianceSimulator.syntheticConfig(DOMAIN_NAME, 1));
+        byte[] image1 = fromDevice();
+        DomainVersion version1 = new DomainVersion(domain, new Date(), "before", new Blob(image1)); //$NON-NLS-1$
+        simulated.putDomain(DOMAIN_NAME, ApplianceSimulator.syntheticConfig(DOMAIN_NAME, 2));
+        byte[] image2 = fromDevice();
+        DomainVersion version2 = new DomainVersion(domain, new Date(), "after", new Blob(image2)); //$NON-NLS-1$
+        assertEquals(2, simulated.getCallCount(GET_DOMAIN_EXPORT));
+        int calls = simulated.getCallCount();
+
+        DomainDifferences differences = version1.getDifferences(version2);
+        assertFalse(differences.isEmpty());
+        assertEquals(DomainDiffEngine.compare(image1, image2).toString(), differences.toString());
+        assertTrue(version1.getDifferences(version1).isEmpty());
+
+        ProgressContainer progress = version1.diff(version2);
+        progress.waitForEnd();
+        if (progress.hasError()) {
+            throw progress.getError();
+        }
+        URL report = (URL) progress.getResult();
+        assertNotNull(report);
+        InputStream in = report.openStream();
+        try {
+            assertTrue(in.read() >= 0);
+        } finally {
+            in.close();
+        }
+
+        assertEquals("device calls", calls, simulated.getCallCount()); //$NON-NLS-1$
+    }
+
+    @Test
+    public void testCommandsDoNotCallTheDevice() throws Exception {
+        byte[] image1 = ApplianceSimulator.syntheticConfig(DOMAIN_NAME, 3);
+        byte[] image2 = ApplianceSimulator.syntheticConfig(DOMAIN_NAME, 4);
+        URL report = device.getCommands().getDomainDifferences(DOMAIN_NAME, image1, image2, device.getDeviceContext());
+        assertNotNull(report);
+        assertEquals("device calls", 0, simulated.getCallCount()); //$NON-NLS-1$
+    }
+
+    /*
+     * The one round trip a version costs.
+     */
+    private static byte[] fromDevice() throws Exception {
+        return(device.getCommands().getDomain(device.getDeviceContext(), DOMAIN_NAME));
+    }
+}
@@ -0,0 +1,172 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.clientAPI;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Date;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ibm.datapower.amt.Credential;
+import com.ibm.datapower.amt.DeviceType;
+import com.ibm.datapower.amt.ModelType;
+import com.ibm.datapower.amt.StringCollection;
+import com.ibm.datapower.amt.amp.AMPConstants;
+import com.ibm.datapower.amt.dataAPI.StoredDeploymentPolicy;
+import com.ibm.datapower.amt.dataAPI.StoredDevice;
+import com.ibm.datapower.amt.dataAPI.StoredDomain;
+import com.ibm.datapower.amt.dataAPI.local.filesystem.RepositoryImpl;
+import com.ibm.datapower.amt.simulator.ApplianceSimulator;
+import com.ibm.datapower.amt.simulator.SimulatedDevice;
+
+/**
+ * Start a Manager on a repository that already holds a managed device with
+ * version histories, and check that a Domain's DomainVersions, its
+ * DeploymentPolicy and that policy's versions are only created when they are
+ * first asked for, except for a history over the limit, which is created and
+ * trimmed at startup.
+ */
+public class DomainVersionLoadTest {
+
+    private static final String HOSTNAME = "loadtest"; //$NON-NLS-1$
+    private static final String SERIAL_NUMBER = "LOADTEST"; //$NON-NLS-1$
+    private static final String SMALL = "small"; //$NON-NLS-1$
+    private static final String LARGE = "large"; //$NON-NLS-1$
+    private static final String UNTOUCHED = "untouched"; //$NON-NLS-1$
+    private static final int MAX_VERSIONS = 8;
+    private static final int SMALL_VERSIONS = 5;
+    private static final int LARGE_VERSIONS = 12;
+    private static final int POLICY_VERSIONS = 3;
+
+    @ClassRule
+    public static final TemporaryFolder folder = new TemporaryFolder();
+
+    private static Manager manager = null;
+    private static Device device = null;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        SimulatedDevice simulated = ApplianceSimulator.addDevice(HOSTNAME, ApplianceSimulator.DEFAULT_AMP_PORT,
+                SERIAL_NUMBER, AMPConstants.AMP_V3_0);
+        File directory = folder.newFolder("repository"); //$NON-NLS-1$
+        Credential credential = new Credential();
+        credential.setProperty("RepositoryDirectory", directory.getPath()); //$NON-NLS-1$
+
+        // what an earlier Manager left behind
+        RepositoryImpl repository = RepositoryImpl.getInstance(credential);
+        repository.startup();
+        repository.setMaxVersionsToStore(MAX_VERSIONS);
+        StoredDevice storedDevice = repository.createDevice(simulated.getDeviceID(), SERIAL_NUMBER, HOSTNAME,
+                DeviceType.fromString(simulated.getDeviceType()), ModelType.TYPE_7199, HOSTNAME, "admin", "admin", //$NON-NLS-1$ //$NON-NLS-2$
+                ApplianceSimulator.DEFAULT_AMP_PORT, simulated.getWebGUIPort(), AMPConstants.AMP_V3_0);
+        storedDevice.setFeatureLicenses(new StringCollection(new String[] { "MQ", "TAM" })); //$NON-NLS-1$ //$NON-NLS-2$
+        repository.createManagedSet(HOSTNAME).add(storedDevice);
+        populate(repository, storedDevice, simulated, SMALL, SMALL_VERSIONS);
+        populate(repository, storedDevice, simulated, LARGE, LARGE_VERSIONS);
+        populate(repository, storedDevice, simulated, UNTOUCHED, SMALL_VERSIONS);
+        repository.save(true);
+        repository.shutdown();
+
+        manager = ApplianceSimulator.startManager(directory);
+        device = manager.getDeviceBySerialNumber(SERIAL_NUMBER);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        if (manager != null) {
+            manager.shutdown();
+        }
+        ApplianceSimulator.reset();
+    }
+
+    @Test
+    public void testVersionsAreCreatedOnFirstUse() throws Exception {
+        Domain domain = device.getManagedDomain(SMALL);
+        PersistenceMapper mapper = PersistenceMapper.getInstance();
+        StoredDomain storedDomain = domain.getStoredInstance();
+        StoredDeploymentPolicy storedPolicy = storedDomain.getDeploymentPolicy();
+        assertFalse(mapper.isMaterialized(storedDomain));
+        assertFalse(mapper.isMaterialized(storedPolicy));
+
+        Version[] versions = domain.getVersions();
+        assertTrue(mapper.isMaterialized(storedDomain));
+        assertFalse(mapper.isMaterialized(storedPolicy));
+        assertEquals(SMALL_VERSIONS, versions.length);
+        for (int i = 1; i <= SMALL_VERSIONS; i++) {
+            DomainVersion version = (DomainVersion) domain.getVersion(i);
+            assertArrayEquals(image(SMALL, i), version.getBlob().getByteArray());
+        }
+        // the same objects the second time
+        assertEquals(versions[0], domain.getVersion(versions[0].getVersionNumber()));
+
+        assertEquals(POLICY_VERSIONS, domain.getDeploymentPolicy().getVersions().length);
+        assertTrue(mapper.isMaterialized(storedPolicy));
+    }
+
+    @Test
+    public void testHistoryOverTheLimitIsTrimmedAtStartup() throws Exception {
+        Domain domain = device.getManagedDomain(LARGE);
+        assertTrue(PersistenceMapper.getInstance().isMaterialized(domain.getStoredInstance()));
+        Version[] versions = domain.getVersions();
+        assertEquals(MAX_VERSIONS, versions.length);
+        // the oldest are trimmed
+        for (Version version : versions) {
+            assertTrue(version.getVersionNumber() > LARGE_VERSIONS - MAX_VERSIONS);
+        }
+        assertEquals(MAX_VERSIONS, domain.getStoredInstance().getVersions().length);
+    }
+
+    @Test
+    public void testRemovedVersionIsNotCreatedAgain() throws Exception {
+        Domain domain = device.getManagedDomain(UNTOUCHED);
+        Version oldest = domain.getVersion(1);
+        domain.remove(oldest);
+        assertEquals(SMALL_VERSIONS - 1, domain.getVersions().length);
+        assertEquals(null, domain.getVersion(1));
+        assertEquals(SMALL_VERSIONS - 1, domain.getStoredInstance().getVersions().length);
+    }
+
+    private static void populate(RepositoryImpl repository, StoredDevice storedDevice, SimulatedDevice simulated,
+            String name, int versions) throws Exception {
+        simulated.putDomain(name, ApplianceSimulator.syntheticConfig(name, 0));
+        StoredDomain domain = repository.createDomain(storedDevice, name);
+        StoredDeploymentPolicy policy = repository.createDeploymentPolicy(domain, null, null, null,
+                DeploymentPolicyType.NONE);
+        for (int i = 1; i <= versions; i++) {
+            repository.createDomainVersion(domain, new Blob(image(name, i)), "version " + i, //$NON-NLS-1$
+                    new Date(i * 60000L));
+        }
+        for (int i = 1; i <= POLICY_VERSIONS; i++) {
+            repository.createDeploymentPolicyVersion(policy, new Blob(image(name, -i)), "policy " + i, //$NON-NLS-1$
+                    new Date(i * 60000L));
+        }
+    }
+
+    private static byte[] image(String name, long seed) {
+        return(ApplianceSimulator.syntheticConfig(name, seed));
+    }
+}
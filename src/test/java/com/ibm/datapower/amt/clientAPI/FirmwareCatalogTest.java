@@ -0,0 +1,288 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.clientAPI;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ibm.datapower.amt.DeviceType;
+import com.ibm.datapower.amt.ModelType;
+import com.ibm.datapower.amt.StringCollection;
+import com.ibm.datapower.amt.dataAPI.StoredFirmware;
+import com.ibm.datapower.amt.dataAPI.StoredFirmwareVersion;
+import com.ibm.datapower.amt.simulator.ApplianceSimulator;
+
+/**
+ * Add Firmwares of random device types, model types and strict and
+ * non-strict features, with a few levels each, and answer random queries
+ * through the {@link FirmwareCatalog} behind
+ * {@link Manager#getBestFirmware(DeviceType, ModelType, StringCollection, String)}
+ * and
+ * {@link Manager#getFirmware(DeviceType, ModelType, StringCollection, StringCollection)}.
+ * Every answer is compared with the scan of the repository that the catalog
+ * replaced, which may pick another of several equally good Firmwares. The
+ * comparison is repeated after Firmwares and levels are added and removed,
+ * which must drop the answers the catalog remembers.
+ */
+public class FirmwareCatalogTest {
+
+    private static final int FIRMWARES = 80;
+    private static final int QUERIES = 500;
+    private static final int CHURN = 30;
+
+    private static final DeviceType[] DEVICE_TYPES = {
+        DeviceType.XI50, DeviceType.XI52, DeviceType.XS40, DeviceType.XG45,
+    };
+    private static final ModelType[] MODEL_TYPES = {
+        ModelType.TYPE_9001, ModelType.TYPE_9002, ModelType.TYPE_OTHER, ModelType.TYPE_9003, ModelType.TYPE_7199,
+    };
+    // the features after the underscore are versions, which compatibility ignores
+    private static final String[] FEATURES = {
+        "MQ", "MQ_7", "TAM", "TAM_6", "DataGlue", "Tibco-EMS", "ODBC", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$
+    };
+    private static final String[] LEVELS = { "3.8.0.1", "3.8.1.0", "3.8.2.3", "4.0.1.0" }; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+
+    @ClassRule
+    public static final TemporaryFolder folder = new TemporaryFolder();
+
+    private static Manager manager = null;
+    private static final Random random = new Random(20140101L);
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        manager = ApplianceSimulator.startManager(folder.newFolder("repository")); //$NON-NLS-1$
+        for (int i = 0; i < FIRMWARES; i++) {
+            addRandomFirmware();
+        }
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        if (manager != null) {
+            manager.shutdown();
+        }
+        ApplianceSimulator.reset();
+    }
+
+    @Test
+    public void testQueriesMatchScan() throws Exception {
+        assertQueriesMatchScan();
+    }
+
+    @Test
+    public void testQueriesMatchScanAfterChurn() throws Exception {
+        // the answers are remembered, so ask before the changes too
+        assertQueriesMatchScan();
+        for (int i = 0; i < CHURN; i++) {
+            Firmware[] firmwares = firmwares();
+            Firmware firmware = firmwares[random.nextInt(firmwares.length)];
+            Version[] versions = firmware.getVersions();
+            switch (random.nextInt(3)) {
+            case 0:
+                manager.remove(firmware);
+                break;
+            case 1:
+                if (versions.length > 0) {
+                    firmware.remove(versions[random.nextInt(versions.length)]);
+                }
+                break;
+            default:
+                addVersion(firmware, LEVELS[random.nextInt(LEVELS.length)]);
+                break;
+            }
+            addRandomFirmware();
+        }
+        assertQueriesMatchScan();
+    }
+
+    @Test
+    public void testLevelIsIndexed() throws Exception {
+        for (Firmware firmware : firmwares()) {
+            for (String level : LEVELS) {
+                FirmwareVersion expected = null;
+                for (Version version : firmware.getVersions()) {
+                    if (((FirmwareVersion) version).getLevel().equals(level)) {
+                        expected = (FirmwareVersion) version;
+                    }
+                }
+                assertSame(expected, firmware.getLevel(level));
+            }
+        }
+        assertNull(firmwares()[0].getLevel("9.9.9.9")); //$NON-NLS-1$
+    }
+
+    private static void assertQueriesMatchScan() throws Exception {
+        int answered = 0;
+        for (int i = 0; i < QUERIES; i++) {
+            DeviceType deviceType = DEVICE_TYPES[random.nextInt(DEVICE_TYPES.length)];
+            ModelType modelType = MODEL_TYPES[random.nextInt(MODEL_TYPES.length)];
+            StringCollection features = randomFeatures(3 + random.nextInt(FEATURES.length - 2));
+            String level = random.nextInt(3) == 0 ? null : LEVELS[random.nextInt(LEVELS.length)];
+            String query = deviceType + " " + modelType + " " + features + " " + level; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            List<Firmware> expected = scanBest(deviceType, modelType, features, level);
+            Firmware actual = manager.getBestFirmware(deviceType, modelType, features, level);
+            if (expected.isEmpty()) {
+                assertNull(query, actual);
+            } else {
+                assertTrue(query + " " + expected + " not " + actual, expected.contains(actual)); //$NON-NLS-1$ //$NON-NLS-2$
+                answered++;
+            }
+        }
+        // enough of them must find something
+        assertTrue(Integer.toString(answered), answered > QUERIES / 10);
+
+        Firmware[] firmwares = firmwares();
+        for (int i = 0; i < QUERIES; i++) {
+            // the exact profile of a Firmware, now and then on a compatible type
+            Firmware firmware = firmwares[random.nextInt(firmwares.length)];
+            DeviceType deviceType = firmware.getDeviceType();
+            if (deviceType.equals(DeviceType.XI50) && random.nextBoolean()) {
+                deviceType = DeviceType.XI52;
+            }
+            StringCollection strict = firmware.getStrictFeatures();
+            StringCollection nonstrict = random.nextInt(4) == 0 ? randomFeatures(2) : firmware.getNonstrictFeatures();
+            String query = deviceType + " " + firmware.getModelType() + " " + strict + " " + nonstrict; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            List<Firmware> expected = scanExact(deviceType, firmware.getModelType(), strict, nonstrict);
+            Firmware actual = manager.getFirmware(deviceType, firmware.getModelType(), strict, nonstrict);
+            if (expected.isEmpty()) {
+                assertNull(query, actual);
+            } else {
+                assertTrue(query + " " + expected + " not " + actual, expected.contains(actual)); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+        }
+    }
+
+    /*
+     * What getBestFirmware did before the catalog: the compatible Firmwares
+     * with the level and with the most non-strict features. The scan took the
+     * first of them in the order of the repository's hash table, so any one of
+     * them is a right answer.
+     */
+    private static List<Firmware> scanBest(DeviceType deviceType, ModelType modelType, StringCollection features,
+            String level) throws DeletedException {
+        List<Firmware> result = new ArrayList<Firmware>();
+        int most = -1;
+        for (StoredFirmware storedFirmware : manager.getRepository().getFirmwares()) {
+            Firmware firmware = PersistenceMapper.getInstance().getVia(storedFirmware);
+            if (!firmware.isCompatibleWith(deviceType, modelType, features)) {
+                continue;
+            }
+            if ((level != null) && !hasLevel(firmware, level)) {
+                continue;
+            }
+            int count = firmware.getNonstrictFeatures().size();
+            if (count > most) {
+                result.clear();
+                most = count;
+            }
+            if (count == most) {
+                result.add(firmware);
+            }
+        }
+        return(result);
+    }
+
+    /*
+     * What getFirmware did before the catalog. An XI52 may match an XI50
+     * Firmware as well as its own, so again any match is a right answer.
+     */
+    private static List<Firmware> scanExact(DeviceType deviceType, ModelType modelType, StringCollection strict,
+            StringCollection nonstrict) throws DeletedException {
+        List<Firmware> result = new ArrayList<Firmware>();
+        for (StoredFirmware storedFirmware : manager.getRepository().getFirmwares()) {
+            Firmware firmware = PersistenceMapper.getInstance().getVia(storedFirmware);
+            if (firmware.getDeviceType().isCompatibleWith(deviceType) &&
+                    firmware.getModelType().isCompatibleWith(modelType) &&
+                    firmware.getStrictFeatures().equals(strict) &&
+                    firmware.getNonstrictFeatures().equals(nonstrict)) {
+                result.add(firmware);
+            }
+        }
+        return(result);
+    }
+
+    private static boolean hasLevel(Firmware firmware, String level) throws DeletedException {
+        for (Version version : firmware.getVersions()) {
+            if (((FirmwareVersion) version).getLevel().equals(level)) {
+                return(true);
+            }
+        }
+        return(false);
+    }
+
+    private static Firmware[] firmwares() throws Exception {
+        return(manager.getFirmwares());
+    }
+
+    private static void addRandomFirmware() throws Exception {
+        DeviceType deviceType = DEVICE_TYPES[random.nextInt(DEVICE_TYPES.length)];
+        ModelType modelType = MODEL_TYPES[random.nextInt(MODEL_TYPES.length)];
+        Firmware firmware = null;
+        try {
+            firmware = new Firmware(deviceType, modelType, randomFeatures(2), randomFeatures(4));
+        } catch (AlreadyExistsException e) {
+            // the same profile came up twice
+            return;
+        }
+        for (String level : LEVELS) {
+            if (random.nextBoolean()) {
+                addVersion(firmware, level);
+            }
+        }
+    }
+
+    /*
+     * A FirmwareVersion as loading the repository creates it, so that the
+     * test needs no firmware image.
+     */
+    private static void addVersion(Firmware firmware, String level) throws Exception {
+        if (hasLevel(firmware, level)) {
+            return;
+        }
+        Date now = new Date();
+        StoredFirmwareVersion stored = manager.getRepository().createFirmwareVersion(firmware.getStoredInstance(),
+                new Blob(level.getBytes()), level, now, "level " + level, now); //$NON-NLS-1$
+        new FirmwareVersion(firmware, stored);
+    }
+
+    /*
+     * Up to count features, some with versions, in any order.
+     */
+    private static StringCollection randomFeatures(int count) {
+        List<String> features = new ArrayList<String>();
+        for (int i = 0; i < count; i++) {
+            String feature = FEATURES[random.nextInt(FEATURES.length)];
+            if (!features.contains(feature)) {
+                features.add(random.nextInt(features.size() + 1), feature);
+            }
+        }
+        return(new StringCollection(features.toArray(new String[features.size()])));
+    }
+}
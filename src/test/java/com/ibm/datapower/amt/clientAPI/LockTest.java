@@ -0,0 +1,250 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.clientAPI;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Check the waiters of a {@link Lock}: they are resumed one per release in
+ * the order they registered, no more than {@link Lock#MAX_WAITERS} are
+ * accepted, and one that declines its turn passes it to the next. Also check
+ * that {@link Lock#lockWait(long)} gives up at its timeout or on an interrupt
+ * and acquires the lock when it is released in time.
+ */
+public class LockTest {
+
+    private static final long TIMEOUT_MS = 10000;
+    private static final long WAIT_MS = 200;
+    // how late a timed wait may end on a loaded machine
+    private static final long SLACK_MS = 2000;
+
+    private final Lock lock = new Lock("LockTest"); //$NON-NLS-1$
+    private Holder holder = null;
+
+    @After
+    public void tearDown() throws InterruptedException {
+        if (this.holder != null) {
+            this.holder.release();
+        }
+        // an interrupt a test left behind must not reach the next one
+        Thread.interrupted();
+    }
+
+    @Test
+    public void testWaitersResumeInOrder() throws Exception {
+        List<Integer> resumed = Collections.synchronizedList(new ArrayList<Integer>());
+        this.hold();
+        for (int i = 0; i < 5; i++) {
+            assertTrue(this.lock.resumeWhenAvailable(new Recorder(resumed, i, true)));
+        }
+        assertEquals(5, this.lock.getWaiterCount());
+        this.holder.release();
+        // each release resumes one waiter, on the releasing thread
+        assertEquals(Arrays.asList(0), resumed);
+        for (int i = 1; i < 5; i++) {
+            assertTrue(this.lock.tryLock());
+            this.lock.unlock();
+            assertEquals(i + 1, resumed.size());
+        }
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), resumed);
+        assertEquals(0, this.lock.getWaiterCount());
+    }
+
+    @Test
+    public void testFreeLockResumesAtOnce() {
+        List<Integer> resumed = new ArrayList<Integer>();
+        assertTrue(this.lock.resumeWhenAvailable(new Recorder(resumed, 0, true)));
+        assertEquals(Arrays.asList(0), resumed);
+        assertEquals(0, this.lock.getWaiterCount());
+    }
+
+    @Test
+    public void testRejectedAtMaxWaiters() throws Exception {
+        List<Integer> resumed = Collections.synchronizedList(new ArrayList<Integer>());
+        this.hold();
+        for (int i = 0; i < Lock.MAX_WAITERS; i++) {
+            assertTrue(this.lock.resumeWhenAvailable(new Recorder(resumed, i, true)));
+        }
+        assertFalse(this.lock.resumeWhenAvailable(new Recorder(resumed, Lock.MAX_WAITERS, true)));
+        assertEquals(Lock.MAX_WAITERS, this.lock.getWaiterCount());
+        assertEquals(0, resumed.size());
+        // there is room again once one is resumed
+        this.holder.release();
+        assertEquals(Lock.MAX_WAITERS - 1, this.lock.getWaiterCount());
+        assertTrue(this.lock.tryLock());
+        assertTrue(this.lock.resumeWhenAvailable(new Recorder(resumed, Lock.MAX_WAITERS, true)));
+        this.lock.unlock();
+    }
+
+    @Test
+    public void testDeclinedWaiterIsSkipped() throws Exception {
+        List<Integer> resumed = Collections.synchronizedList(new ArrayList<Integer>());
+        this.hold();
+        // the first two already gave up, for example at their own timeout
+        assertTrue(this.lock.resumeWhenAvailable(new Recorder(resumed, 0, false)));
+        assertTrue(this.lock.resumeWhenAvailable(new Recorder(resumed, 1, false)));
+        assertTrue(this.lock.resumeWhenAvailable(new Recorder(resumed, 2, true)));
+        assertTrue(this.lock.resumeWhenAvailable(new Recorder(resumed, 3, true)));
+        this.holder.release();
+        assertEquals(Arrays.asList(0, 1, 2), resumed);
+        assertEquals(1, this.lock.getWaiterCount());
+    }
+
+    @Test
+    public void testCancelledWaiterIsNotResumed() throws Exception {
+        List<Integer> resumed = Collections.synchronizedList(new ArrayList<Integer>());
+        this.hold();
+        Recorder cancelled = new Recorder(resumed, 0, true);
+        assertTrue(this.lock.resumeWhenAvailable(cancelled));
+        assertTrue(this.lock.resumeWhenAvailable(new Recorder(resumed, 1, true)));
+        assertTrue(this.lock.cancelWaiter(cancelled));
+        assertFalse(this.lock.cancelWaiter(cancelled));
+        this.holder.release();
+        assertEquals(Arrays.asList(1), resumed);
+    }
+
+    @Test
+    public void testLockWaitTimesOut() throws Exception {
+        this.hold();
+        long start = System.currentTimeMillis();
+        assertFalse(this.lock.lockWait(WAIT_MS));
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue(Long.toString(elapsed), elapsed >= WAIT_MS && elapsed < WAIT_MS + SLACK_MS);
+        assertFalse(this.lock.isAvailable());
+        // no wait at all
+        assertFalse(this.lock.lockWait(0));
+    }
+
+    @Test
+    public void testLockWaitInterrupted() throws Exception {
+        this.hold();
+        final Thread waiting = Thread.currentThread();
+        Thread interrupter = new Thread("interrupter") { //$NON-NLS-1$
+            public void run() {
+                try {
+                    Thread.sleep(WAIT_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                waiting.interrupt();
+            }
+        };
+        interrupter.start();
+        long start = System.currentTimeMillis();
+        assertFalse(this.lock.lockWait(TIMEOUT_MS));
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue(Long.toString(elapsed), elapsed < TIMEOUT_MS);
+        // the interrupt is kept for the caller
+        assertTrue(Thread.interrupted());
+        interrupter.join();
+    }
+
+    @Test
+    public void testLockWaitAcquiresOnRelease() throws Exception {
+        this.hold();
+        Thread releaser = new Thread("releaser") { //$NON-NLS-1$
+            public void run() {
+                try {
+                    Thread.sleep(WAIT_MS);
+                    holder.release();
+                } catch (InterruptedException e) {
+                    // the test fails on its own
+                }
+            }
+        };
+        releaser.start();
+        assertTrue(this.lock.lockWait(TIMEOUT_MS));
+        assertTrue(this.lock.isAvailable());
+        // reentrant
+        assertTrue(this.lock.lockWait(0));
+        this.lock.unlock();
+        this.lock.unlock();
+        releaser.join();
+    }
+
+    private void hold() throws InterruptedException {
+        this.holder = new Holder(this.lock);
+        this.holder.start();
+        assertTrue("holder did not lock", this.holder.locked.await(TIMEOUT_MS, TimeUnit.MILLISECONDS)); //$NON-NLS-1$
+        assertFalse(this.lock.isAvailable());
+    }
+
+    /*
+     * Holds the lock on a thread of its own until it is released. The
+     * waiters are resumed on this thread before release() returns.
+     */
+    private static class Holder extends Thread {
+        final CountDownLatch locked = new CountDownLatch(1);
+        private final CountDownLatch go = new CountDownLatch(1);
+        private final Lock lock;
+
+        Holder(Lock lock) {
+            super("holder"); //$NON-NLS-1$
+            this.lock = lock;
+            this.setDaemon(true);
+        }
+
+        public void run() {
+            this.lock.lockWait();
+            this.locked.countDown();
+            try {
+                this.go.await();
+            } catch (InterruptedException e) {
+                // unlock anyway
+            }
+            this.lock.unlock();
+        }
+
+        void release() throws InterruptedException {
+            this.go.countDown();
+            this.join(TIMEOUT_MS);
+        }
+    }
+
+    /*
+     * Records its number when resumed, or declines its turn.
+     */
+    private static class Recorder implements Lock.Waiter {
+        private final List<Integer> resumed;
+        private final int number;
+        private final boolean accept;
+
+        Recorder(List<Integer> resumed, int number, boolean accept) {
+            this.resumed = resumed;
+            this.number = number;
+            this.accept = accept;
+        }
+
+        public boolean resume() {
+            this.resumed.add(Integer.valueOf(this.number));
+            return(this.accept);
+        }
+    }
+}
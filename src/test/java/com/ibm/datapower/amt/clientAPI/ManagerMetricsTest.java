@@ -0,0 +1,148 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.clientAPI;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.Attribute;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ibm.datapower.amt.amp.AMPConstants;
+import com.ibm.datapower.amt.amp.AMPException;
+import com.ibm.datapower.amt.simulator.ApplianceSimulator;
+import com.ibm.datapower.amt.simulator.SimulatedDevice;
+
+/**
+ * Send commands to an {@link ApplianceSimulator} device and read what the
+ * SOAP helper recorded about them back from the {@link ManagerMetricsMXBean}
+ * the Manager registered with the platform MBean server: one entry per
+ * operation and device, with the count, the failures and the sizes.
+ */
+public class ManagerMetricsTest {
+
+    private static final String HOSTNAME = "metricstest"; //$NON-NLS-1$
+    private static final String DOMAIN_NAME = "app"; //$NON-NLS-1$
+    private static final String OPERATION = "GetDomainExportRequest"; //$NON-NLS-1$
+
+    @ClassRule
+    public static final TemporaryFolder folder = new TemporaryFolder();
+
+    private static Manager manager = null;
+    private static SimulatedDevice simulated = null;
+    private static Device device = null;
+
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    private ObjectName name = null;
+    private Object wasEnabled = null;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        simulated = ApplianceSimulator.addDevice(HOSTNAME, ApplianceSimulator.DEFAULT_AMP_PORT, "METRICSTEST", AMPConstants.AMP_V3_0); //$NON-NLS-1$
+        simulated.putDomain(DOMAIN_NAME, ApplianceSimulator.syntheticConfig(DOMAIN_NAME, 1));
+
+        manager = ApplianceSimulator.startManager(folder.newFolder("repository"));
+
+        device = ApplianceSimulator.createDevice(HOSTNAME);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        if (manager != null) {
+            manager.shutdown();
+        }
+        ApplianceSimulator.reset();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        this.name = new ObjectName(ManagerMetrics.OBJECT_NAME);
+        this.wasEnabled = this.server.getAttribute(this.name, "Enabled"); //$NON-NLS-1$
+        this.server.setAttribute(this.name, new Attribute("Enabled", Boolean.TRUE)); //$NON-NLS-1$
+        this.server.invoke(this.name, "resetCommandMetrics", null, null); //$NON-NLS-1$
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        simulated.setReachable(true);
+        this.server.setAttribute(this.name, new Attribute("Enabled", this.wasEnabled)); //$NON-NLS-1$
+    }
+
+    @Test
+    public void testCallIsRecorded() throws Exception {
+        byte[] image = device.getCommands().getDomain(device.getDeviceContext(), DOMAIN_NAME);
+        device.getCommands().getDomain(device.getDeviceContext(), DOMAIN_NAME);
+
+        CompositeData metrics = this.find(OPERATION);
+        assertNotNull(metrics);
+        assertEquals(Long.valueOf(2), metrics.get("count")); //$NON-NLS-1$
+        assertEquals(Long.valueOf(0), metrics.get("failureCount")); //$NON-NLS-1$
+        assertTrue(((Long) metrics.get("bytesSent")).longValue() > 0); //$NON-NLS-1$
+        // the image comes base64 encoded inside the SOAP envelope
+        assertTrue(((Long) metrics.get("bytesReceived")).longValue() > 2L * image.length); //$NON-NLS-1$
+    }
+
+    @Test
+    public void testFailureIsRecorded() throws Exception {
+        simulated.setReachable(false);
+        try {
+            device.getCommands().getDomain(device.getDeviceContext(), DOMAIN_NAME);
+            fail("called an unreachable device"); //$NON-NLS-1$
+        } catch (AMPException e) {
+            // expected
+        }
+        CompositeData metrics = this.find(OPERATION);
+        assertNotNull(metrics);
+        assertEquals(Long.valueOf(1), metrics.get("count")); //$NON-NLS-1$
+        assertEquals(Long.valueOf(1), metrics.get("failureCount")); //$NON-NLS-1$
+        assertEquals(Long.valueOf(0), metrics.get("bytesReceived")); //$NON-NLS-1$
+    }
+
+    @Test
+    public void testDisabledRecordsNothing() throws Exception {
+        this.server.setAttribute(this.name, new Attribute("Enabled", Boolean.FALSE)); //$NON-NLS-1$
+        device.getCommands().getDomain(device.getDeviceContext(), DOMAIN_NAME);
+        assertNull(this.find(OPERATION));
+    }
+
+    private CompositeData find(String operation) throws Exception {
+        String where = HOSTNAME + ":" + ApplianceSimulator.DEFAULT_AMP_PORT; //$NON-NLS-1$
+        CompositeData[] all = (CompositeData[]) this.server.getAttribute(this.name, "CommandMetrics"); //$NON-NLS-1$
+        for (CompositeData metrics : all) {
+            if (operation.equals(metrics.get("operation")) && where.equals(metrics.get("device"))) { //$NON-NLS-1$ //$NON-NLS-2$
+                return(metrics);
+            }
+        }
+        return(null);
+    }
+}
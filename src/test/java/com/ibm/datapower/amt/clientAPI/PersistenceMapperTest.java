@@ -0,0 +1,184 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.clientAPI;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ibm.datapower.amt.dataAPI.StoredManagedSet;
+import com.ibm.datapower.amt.simulator.ApplianceSimulator;
+
+/**
+ * Read the {@link PersistenceMapper} from many threads while another thread
+ * removes and adds entries, the way the heartbeat, queue and user threads
+ * share it, and check that the readers always find the object they mapped.
+ */
+public class PersistenceMapperTest {
+
+    private static final int READERS = 64;
+    private static final int STABLE = 64;
+    private static final int CHURNED = 16;
+    private static final int ROUNDS = 2000;
+
+    @ClassRule
+    public static final TemporaryFolder folder = new TemporaryFolder();
+
+    private static Manager manager = null;
+    private static final List<ManagedSet> stableSets = new ArrayList<ManagedSet>();
+    private static final List<StoredManagedSet> stableKeys = new ArrayList<StoredManagedSet>();
+    private static final List<ManagedSet> churnedSets = new ArrayList<ManagedSet>();
+    private static final List<StoredManagedSet> churnedKeys = new ArrayList<StoredManagedSet>();
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        manager = ApplianceSimulator.startManager(folder.newFolder("repository"));
+
+        for (int i = 0; i < STABLE; i++) {
+            ManagedSet managedSet = new ManagedSet("stable" + i); //$NON-NLS-1$
+            stableSets.add(managedSet);
+            stableKeys.add(managedSet.getStoredInstance());
+        }
+        for (int i = 0; i < CHURNED; i++) {
+            ManagedSet managedSet = new ManagedSet("churned" + i); //$NON-NLS-1$
+            churnedSets.add(managedSet);
+            churnedKeys.add(managedSet.getStoredInstance());
+        }
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        if (manager != null) {
+            manager.shutdown();
+        }
+    }
+
+    @Test
+    public void testReadersDuringChurn() throws Exception {
+        final PersistenceMapper mapper = PersistenceMapper.getInstance();
+        final ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<Throwable>();
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch running = new CountDownLatch(READERS);
+
+        List<Thread> readers = new ArrayList<Thread>();
+        for (int r = 0; r < READERS; r++) {
+            final int reader = r;
+            Thread thread = new Thread("reader" + r) { //$NON-NLS-1$
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        int i = reader;
+                        while (!done.get()) {
+                            int index = i++ % STABLE;
+                            assertSame(stableSets.get(index), mapper.getVia(stableKeys.get(index)));
+                            if (i == reader + 1) {
+                                running.countDown();
+                            }
+                            // leave the writer some time on small machines
+                            Thread.yield();
+                        }
+                    } catch (Throwable t) {
+                        failures.add(t);
+                    }
+                }
+            };
+            thread.start();
+            readers.add(thread);
+        }
+
+        start.countDown();
+        try {
+            // churn only once every reader is reading
+            assertTrue(running.await(30, TimeUnit.SECONDS));
+            for (int round = 0; round < ROUNDS; round++) {
+                int index = round % CHURNED;
+                StoredManagedSet key = churnedKeys.get(index);
+                mapper.remove(key);
+                try {
+                    mapper.getVia(key);
+                    fail("a removed key is still mapped"); //$NON-NLS-1$
+                } catch (DeletedException e) {
+                    // expected
+                }
+                // removing it again is a no-op
+                mapper.remove(key);
+                mapper.add(key, churnedSets.get(index));
+                assertSame(churnedSets.get(index), mapper.getVia(key));
+            }
+        } finally {
+            done.set(true);
+            for (Thread thread : readers) {
+                thread.join(TimeUnit.SECONDS.toMillis(30));
+            }
+        }
+
+        if (!failures.isEmpty()) {
+            throw new AssertionError(failures.peek());
+        }
+        for (int i = 0; i < CHURNED; i++) {
+            assertSame(churnedSets.get(i), mapper.getVia(churnedKeys.get(i)));
+        }
+    }
+
+    @Test
+    public void testSingleInstance() throws Exception {
+        final PersistenceMapper expected = PersistenceMapper.getInstance();
+        final ConcurrentLinkedQueue<PersistenceMapper> seen = new ConcurrentLinkedQueue<PersistenceMapper>();
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < READERS; i++) {
+            Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        seen.add(PersistenceMapper.getInstance());
+                    } catch (InterruptedException e) {
+                        // not added, so the count below fails
+                    }
+                }
+            };
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(READERS, seen.size());
+        for (PersistenceMapper mapper : seen) {
+            assertSame(expected, mapper);
+        }
+    }
+}
@@ -0,0 +1,148 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.clientAPI;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ibm.datapower.amt.simulator.ApplianceSimulator;
+
+/**
+ * Queue tasks in several WorkAreas while the QueueProcessor is busy, and
+ * check the order it runs them in: every INTERACTIVE task before any
+ * AUTOMATIC one, and one task of each WorkArea in turn, so that a long queue
+ * in one WorkArea does not hold up the others.
+ */
+public class QueueProcessorTest {
+
+    private static final long TIMEOUT_MS = 10000;
+
+    @ClassRule
+    public static final TemporaryFolder folder = new TemporaryFolder();
+
+    private static Manager manager = null;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        manager = ApplianceSimulator.startManager(folder.newFolder("repository"));
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        if (manager != null) {
+            manager.shutdown();
+        }
+        ApplianceSimulator.reset();
+    }
+
+    @Test
+    public void testWorkAreasTakeTurns() throws Exception {
+        ManagedSet a = new ManagedSet("turnsA"); //$NON-NLS-1$
+        ManagedSet b = new ManagedSet("turnsB"); //$NON-NLS-1$
+        List<String> ran = new CopyOnWriteArrayList<String>();
+        CountDownLatch done = new CountDownLatch(7);
+
+        // hold the QueueProcessor until everything is queued
+        Blocker blocker = new Blocker();
+        manager.enqueue(blocker, manager);
+        assertTrue(blocker.running.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+        manager.enqueue(new Recorder("M1", TaskPriority.AUTOMATIC, ran, done), manager); //$NON-NLS-1$
+        for (int i = 1; i <= 3; i++) {
+            manager.enqueue(new Recorder("A" + i, TaskPriority.INTERACTIVE, ran, done), a); //$NON-NLS-1$
+        }
+        for (int i = 1; i <= 2; i++) {
+            manager.enqueue(new Recorder("B" + i, TaskPriority.INTERACTIVE, ran, done), b); //$NON-NLS-1$
+        }
+        manager.enqueue(new Recorder("B3", TaskPriority.AUTOMATIC, ran, done), b); //$NON-NLS-1$
+        blocker.go.countDown();
+        assertTrue(done.await(TIMEOUT_MS, TimeUnit.MILLISECONDS));
+
+        // A and B alternate, whichever comes first in the scan
+        List<String> expected = ran.get(0).startsWith("A") ? //$NON-NLS-1$
+                Arrays.asList("A1", "B1", "A2", "B2", "A3") : //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+                Arrays.asList("B1", "A1", "B2", "A2", "A3"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+        assertEquals(expected, new ArrayList<String>(ran.subList(0, 5)));
+        // then the AUTOMATIC ones
+        List<String> automatic = new ArrayList<String>(ran.subList(5, 7));
+        Collections.sort(automatic);
+        assertEquals(Arrays.asList("B3", "M1"), automatic); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    /*
+     * Runs until it is told to finish.
+     */
+    private static class Blocker extends BackgroundTask {
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch go = new CountDownLatch(1);
+
+        protected int estimateSteps() {
+            return(1);
+        }
+
+        protected void execute() {
+            this.running.countDown();
+            try {
+                this.go.await(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                // finish anyway
+            }
+            this.progressContainer.setComplete();
+        }
+    }
+
+    /*
+     * Records its name when it runs.
+     */
+    private static class Recorder extends BackgroundTask {
+        private final String name;
+        private final List<String> ran;
+        private final CountDownLatch done;
+
+        Recorder(String name, TaskPriority priority, List<String> ran, CountDownLatch done) {
+            this.name = name;
+            this.ran = ran;
+            this.done = done;
+            this.setPriority(priority);
+        }
+
+        protected int estimateSteps() {
+            return(1);
+        }
+
+        protected void execute() {
+            this.ran.add(this.name);
+            this.progressContainer.setComplete();
+            this.done.countDown();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.clientAPI;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ibm.datapower.amt.amp.AMPConstants;
+import com.ibm.datapower.amt.simulator.ApplianceSimulator;
+import com.ibm.datapower.amt.simulator.SimulatedDevice;
+
+/**
+ * Run a {@link ServiceDeployment} against a Manager whose device is an
+ * {@link ApplianceSimulator} device, and count the AMP calls: the source is
+ * read once and the device is asked for the interdependent services once,
+ * however many times the getters are called, until the source changes or the
+ * analysis is invalidated.
+ */
+public class ServiceDeploymentTest {
+
+    private static final String HOSTNAME = "sdtest"; //$NON-NLS-1$
+    private static final String DOMAIN_NAME = "app"; //$NON-NLS-1$
+    private static final String GET_INTERDEPENDENT_SERVICES = "GetInterDependentServices"; //$NON-NLS-1$
+    private static final String GET_DOMAIN_EXPORT = "GetDomainExport"; //$NON-NLS-1$
+    private static final int READS = 5;
+
+    @ClassRule
+    public static final TemporaryFolder folder = new TemporaryFolder();
+
+    private static Manager manager = null;
+    private static SimulatedDevice simulated = null;
+    private static Domain domain = null;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        simulated = ApplianceSimulator.addDevice(HOSTNAME, ApplianceSimulator.DEFAULT_AMP_PORT, "SDTEST", AMPConstants.AMP_V3_0); //$NON-NLS-1$
+        simulated.putDomain(DOMAIN_NAME, ApplianceSimulator.syntheticConfig(DOMAIN_NAME, 1));
+        simulated.putDomain("source", ApplianceSimulator.syntheticConfig(DOMAIN_NAME, 3)); //$NON-NLS-1$
+
+        manager = ApplianceSimulator.startManager(folder.newFolder("repository"));
+
+        Device device = ApplianceSimulator.createDevice(HOSTNAME);
+        new ManagedSet(HOSTNAME).addDevice(device);
+        domain = device.createManagedDomain(DOMAIN_NAME);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        if (manager != null) {
+            manager.shutdown();
+        }
+        ApplianceSimulator.reset();
+    }
+
+    @Before
+    public void setUp() {
+        simulated.resetCallCounts();
+    }
+
+    @Test
+    public void testFileSourceIsAnalyzedOnce() throws Exception {
+        File source = folder.newFile("source.xml"); //$NON-NLS-1$
+        write(source, 1, 1000000);
+        ServiceDeployment deployment = domain.createServiceDeployment(
+                new ServiceConfiguration(new URLSource(source.toURI().toString())), false);
+        assertEquals(1, simulated.getCallCount(GET_INTERDEPENDENT_SERVICES));
+
+        for (int i = 0; i < READS; i++) {
+            assertFalse(deployment.getInterDependentServices().length == 0);
+            assertFalse(deployment.getObjectsToBeOverwritten().length == 0);
+            assertNotNull(deployment.getFilesToBeOverwritten());
+        }
+        assertEquals(1, simulated.getCallCount(GET_INTERDEPENDENT_SERVICES));
+
+        // a newer file with the same content keeps the report
+        write(source, 1, 2000000);
+        deployment.getInterDependentServices();
+        assertEquals(1, simulated.getCallCount(GET_INTERDEPENDENT_SERVICES));
+
+        // new content asks the device again, once
+        write(source, 2, 3000000);
+        for (int i = 0; i < READS; i++) {
+            deployment.getObjectsToBeOverwritten();
+        }
+        assertEquals(2, simulated.getCallCount(GET_INTERDEPENDENT_SERVICES));
+
+        deployment.invalidateAnalysis();
+        deployment.getInterDependentServices();
+        deployment.getInterDependentServices();
+        assertEquals(3, simulated.getCallCount(GET_INTERDEPENDENT_SERVICES));
+    }
+
+    @Test
+    public void testDeviceSourceIsReadOnce() throws Exception {
+        ServiceDeployment deployment = domain.createServiceDeployment(
+                new ServiceConfiguration(new URLSource("device://" + HOSTNAME + "/source")), false); //$NON-NLS-1$ //$NON-NLS-2$
+        assertEquals(1, simulated.getCallCount(GET_DOMAIN_EXPORT));
+        assertEquals(1, simulated.getCallCount(GET_INTERDEPENDENT_SERVICES));
+
+        for (int i = 0; i < READS; i++) {
+            deployment.getInterDependentServices();
+            deployment.getObjectsToBeOverwritten();
+            deployment.getFilesToBeOverwritten();
+        }
+        assertEquals(1, simulated.getCallCount(GET_DOMAIN_EXPORT));
+        assertEquals(1, simulated.getCallCount(GET_INTERDEPENDENT_SERVICES));
+
+        // a device source is not checked for changes until it is invalidated
+        simulated.putDomain("source", ApplianceSimulator.syntheticConfig(DOMAIN_NAME, 4)); //$NON-NLS-1$
+        deployment.getInterDependentServices();
+        assertEquals(1, simulated.getCallCount(GET_DOMAIN_EXPORT));
+
+        deployment.invalidateAnalysis();
+        deployment.getInterDependentServices();
+        deployment.getObjectsToBeOverwritten();
+        assertEquals(2, simulated.getCallCount(GET_DOMAIN_EXPORT));
+        assertEquals(2, simulated.getCallCount(GET_INTERDEPENDENT_SERVICES));
+    }
+
+    /*
+     * File times are compared, so give each write its own time rather than
+     * relying on the resolution of the clock.
+     */
+    private static void write(File file, long seed, long lastModified) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(ApplianceSimulator.syntheticConfig(DOMAIN_NAME, seed));
+        } finally {
+            out.close();
+        }
+        file.setLastModified(lastModified * 1000);
+    }
+}
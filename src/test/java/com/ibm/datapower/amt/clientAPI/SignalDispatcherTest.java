@@ -0,0 +1,326 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.clientAPI;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Run the {@link SignalDispatcher} against a receiver on a local
+ * ServerSocket, and check that the signals arrive in the order they were
+ * sent, on one persistent connection, that the dispatcher reconnects when
+ * the receiver closes the connection, that only a 2xx answer counts as
+ * delivered, that a signal the receiver may have read is not sent twice, and
+ * that a stalled receiver does not hold up the signals for another one.
+ */
+public class SignalDispatcherTest {
+
+    private static final int SIGNALS = 20;
+    private static final int TIMEOUT_MS = 10000;
+
+    private Receiver receiver = null;
+    private Receiver other = null;
+
+    @Before
+    public void setUp() throws IOException {
+        this.receiver = new Receiver();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        if (this.other != null) {
+            this.other.stall.release(SIGNALS);
+            this.other.close();
+        }
+        SignalDispatcher.shutdown();
+        this.receiver.close();
+    }
+
+    @Test
+    public void testOrderOnOneConnection() throws Exception {
+        this.sendAll(0);
+        this.receiver.assertReceivedInOrder(SIGNALS);
+        assertEquals("connections", 1, this.receiver.connections.get()); //$NON-NLS-1$
+    }
+
+    @Test
+    public void testOrderWhenPipelined() throws Exception {
+        this.sendAll(200);
+        this.receiver.assertReceivedInOrder(SIGNALS);
+        assertEquals("connections", 1, this.receiver.connections.get()); //$NON-NLS-1$
+    }
+
+    @Test
+    public void testReconnectAfterConnectionClose() throws Exception {
+        // the receiver answers "Connection: close" to every third request
+        this.receiver.closeAfter = 3;
+        this.sendAll(200);
+        this.receiver.assertReceivedInOrder(SIGNALS);
+        assertEquals("connections", (SIGNALS + 2) / 3, this.receiver.connections.get()); //$NON-NLS-1$
+    }
+
+    @Test
+    public void testReconnectAfterIdleClose() throws Exception {
+        // the receiver drops the connection after each response without
+        // saying so, the dispatcher notices before it sends the next signal
+        this.receiver.dropAfterResponse = true;
+        for (int i = 0; i < 5; i++) {
+            SignalDispatcher.Signal signal = this.signal(i, 0);
+            SignalDispatcher.dispatch(signal);
+            assertTrue("signal " + i + " delivered", signal.awaitDelivery(TIMEOUT_MS)); //$NON-NLS-1$ //$NON-NLS-2$
+            assertTrue("receiver closed", this.receiver.dropped.tryAcquire(TIMEOUT_MS, TimeUnit.MILLISECONDS)); //$NON-NLS-1$
+        }
+        this.receiver.assertReceivedInOrder(5);
+        assertEquals("connections", 5, this.receiver.connections.get()); //$NON-NLS-1$
+    }
+
+    @Test
+    public void testErrorStatusIsNotDelivered() throws Exception {
+        this.receiver.failAt = 1;
+        List<SignalDispatcher.Signal> signals = new ArrayList<SignalDispatcher.Signal>();
+        for (int i = 0; i < 3; i++) {
+            SignalDispatcher.Signal signal = this.signal(i, 0);
+            signals.add(signal);
+            SignalDispatcher.dispatch(signal);
+        }
+        assertTrue(signals.get(0).awaitDelivery(TIMEOUT_MS));
+        assertFalse(signals.get(1).awaitDelivery(TIMEOUT_MS));
+        assertTrue(signals.get(2).awaitDelivery(TIMEOUT_MS));
+        this.receiver.assertReceivedInOrder(3);
+        assertEquals("connections", 1, this.receiver.connections.get()); //$NON-NLS-1$
+    }
+
+    @Test
+    public void testNoReplayAfterFailure() throws Exception {
+        // the receiver reads the second signal, on a connection that is
+        // being reused, and drops it without answering. It may have acted on
+        // the signal, so neither it nor the ones after it are sent again.
+        this.receiver.dropAt = 1;
+        List<SignalDispatcher.Signal> signals = new ArrayList<SignalDispatcher.Signal>();
+        for (int i = 0; i < 4; i++) {
+            SignalDispatcher.Signal signal = this.signal(i, 200);
+            signals.add(signal);
+            SignalDispatcher.dispatch(signal);
+            if (i == 0) {
+                assertTrue(signal.awaitDelivery(TIMEOUT_MS));
+            }
+        }
+        for (int i = 1; i < 4; i++) {
+            assertFalse("signal " + i, signals.get(i).awaitDelivery(TIMEOUT_MS)); //$NON-NLS-1$
+        }
+        this.receiver.assertReceivedInOrder(2);
+        assertEquals("connections", 1, this.receiver.connections.get()); //$NON-NLS-1$
+    }
+
+    @Test
+    public void testStalledReceiverDoesNotBlockOthers() throws Exception {
+        this.other = new Receiver();
+        this.other.stalled = true;
+        SignalDispatcher.Signal stalled = this.signal(this.other, 0, 0);
+        SignalDispatcher.dispatch(stalled);
+        assertTrue("stalled receiver read", this.other.reading.tryAcquire(TIMEOUT_MS, TimeUnit.MILLISECONDS)); //$NON-NLS-1$
+
+        SignalDispatcher.Signal signal = this.signal(0, 0);
+        SignalDispatcher.dispatch(signal);
+        assertTrue(signal.awaitDelivery(TIMEOUT_MS));
+        assertFalse(stalled.awaitDelivery(0));
+
+        this.other.stall.release();
+        assertTrue(stalled.awaitDelivery(TIMEOUT_MS));
+    }
+
+    private void sendAll(int batchWindow) throws Exception {
+        List<SignalDispatcher.Signal> signals = new ArrayList<SignalDispatcher.Signal>();
+        for (int i = 0; i < SIGNALS; i++) {
+            SignalDispatcher.Signal signal = this.signal(i, batchWindow);
+            signals.add(signal);
+            SignalDispatcher.dispatch(signal);
+        }
+        for (int i = 0; i < SIGNALS; i++) {
+            assertTrue("signal " + i + " delivered", signals.get(i).awaitDelivery(TIMEOUT_MS)); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+    }
+
+    private SignalDispatcher.Signal signal(int number, int batchWindow) throws Exception {
+        return(this.signal(this.receiver, number, batchWindow));
+    }
+
+    private SignalDispatcher.Signal signal(Receiver to, int number, int batchWindow) throws Exception {
+        String url = "http://127.0.0.1:" + to.serverSocket.getLocalPort() + "/signal"; //$NON-NLS-1$ //$NON-NLS-2$
+        byte[] body = ("<signal>" + number + "</signal>").getBytes("UTF-8"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        return(new SignalDispatcher.Signal(url, "\"signal\"", body, TIMEOUT_MS, TIMEOUT_MS, batchWindow)); //$NON-NLS-1$
+    }
+
+    /**
+     * A minimal HTTP/1.1 receiver. It records the body of each request in
+     * the order it was read and answers each one with an empty 200 response,
+     * or 500 for the request numbered failAt. It closes the connection
+     * without answering the request numbered dropAt. If stalled, it waits
+     * for a permit before each answer.
+     */
+    private static class Receiver implements Runnable {
+        final ServerSocket serverSocket;
+        final List<String> bodies = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicInteger connections = new AtomicInteger();
+        final Semaphore dropped = new Semaphore(0);
+        final Semaphore reading = new Semaphore(0);
+        final Semaphore stall = new Semaphore(0);
+        volatile int closeAfter = 0;
+        volatile boolean dropAfterResponse = false;
+        volatile int failAt = -1;
+        volatile int dropAt = -1;
+        volatile boolean stalled = false;
+        private final Thread thread;
+
+        Receiver() throws IOException {
+            this.serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1")); //$NON-NLS-1$
+            this.thread = new Thread(this, "SignalDispatcherTest receiver"); //$NON-NLS-1$
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        public void run() {
+            while (!this.serverSocket.isClosed()) {
+                try {
+                    Socket socket = this.serverSocket.accept();
+                    this.connections.incrementAndGet();
+                    this.serve(socket);
+                } catch (IOException e) {
+                    // closed by the test, or the dispatcher went away
+                }
+            }
+        }
+
+        private void serve(Socket socket) throws IOException {
+            try {
+                InputStream in = new BufferedInputStream(socket.getInputStream());
+                OutputStream out = socket.getOutputStream();
+                int served = 0;
+                while (true) {
+                    int contentLength = readHeaders(in);
+                    if (contentLength < 0) {
+                        return;
+                    }
+                    byte[] body = new byte[contentLength];
+                    int read = 0;
+                    while (read < contentLength) {
+                        int count = in.read(body, read, contentLength - read);
+                        if (count < 0) {
+                            return;
+                        }
+                        read += count;
+                    }
+                    this.bodies.add(new String(body, "UTF-8")); //$NON-NLS-1$
+                    int number = this.bodies.size() - 1;
+                    this.reading.release();
+                    if (number == this.dropAt) {
+                        return;
+                    }
+                    if (this.stalled) {
+                        this.stall.acquireUninterruptibly();
+                    }
+                    served++;
+                    boolean close = (this.closeAfter > 0) && (served % this.closeAfter == 0);
+                    String status = (number == this.failAt) ? "500 Internal Server Error" : "200 OK"; //$NON-NLS-1$ //$NON-NLS-2$
+                    String response = "HTTP/1.1 " + status + "\r\nContent-Length: 0\r\n" + //$NON-NLS-1$ //$NON-NLS-2$
+                        (close ? "Connection: close\r\n" : "") + "\r\n"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                    out.write(response.getBytes("ISO-8859-1")); //$NON-NLS-1$
+                    out.flush();
+                    if (close || this.dropAfterResponse) {
+                        return;
+                    }
+                }
+            } catch (SocketException e) {
+                // the dispatcher closed the connection
+            } finally {
+                socket.close();
+                if (this.dropAfterResponse) {
+                    this.dropped.release();
+                }
+            }
+        }
+
+        /*
+         * Read the request line and headers. Returns the Content-Length, or
+         * -1 if the connection was closed before a request.
+         */
+        private static int readHeaders(InputStream in) throws IOException {
+            String requestLine = readLine(in);
+            if (requestLine == null) {
+                return(-1);
+            }
+            assertTrue(requestLine, requestLine.startsWith("POST /signal HTTP/1.1")); //$NON-NLS-1$
+            int contentLength = 0;
+            String line = null;
+            while ((line = readLine(in)) != null && line.length() > 0) {
+                if (line.toLowerCase().startsWith("content-length:")) { //$NON-NLS-1$
+                    contentLength = Integer.parseInt(line.substring(line.indexOf(':') + 1).trim());
+                }
+            }
+            return(contentLength);
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int c;
+            while ((c = in.read()) >= 0) {
+                if (c == '\n') {
+                    String result = line.toString("ISO-8859-1"); //$NON-NLS-1$
+                    return(result.endsWith("\r") ? result.substring(0, result.length() - 1) : result); //$NON-NLS-1$
+                }
+                line.write(c);
+            }
+            return(null);
+        }
+
+        void assertReceivedInOrder(int count) {
+            List<String> expected = new ArrayList<String>();
+            for (int i = 0; i < count; i++) {
+                expected.add("<signal>" + i + "</signal>"); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+            synchronized (this.bodies) {
+                assertEquals(expected, new ArrayList<String>(this.bodies));
+            }
+        }
+
+        void close() throws IOException {
+            this.serverSocket.close();
+        }
+    }
+}
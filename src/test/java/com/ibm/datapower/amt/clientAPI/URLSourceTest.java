@@ -0,0 +1,128 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.clientAPI;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Check {@link URLSource#getLastModified()}, which the
+ * DomainSynchronizationDaemon calls for every managed domain on each sweep,
+ * against a local stub. A source that accepts the connection and never
+ * answers must not hold up the sweep for longer than the timeout, and a
+ * source that answers must still give its Last-Modified time.
+ */
+public class URLSourceTest {
+
+    private static final int LIMIT = 500;
+    // how late a timeout may fire on a loaded machine
+    private static final int SLACK = 2000;
+    private static final long MODIFIED = 1388534400000L;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private ServerSocket stub = null;
+    private final List<Socket> accepted = new ArrayList<Socket>();
+    private volatile boolean answer = false;
+    private Thread acceptor = null;
+
+    @Before
+    public void setUp() throws Exception {
+        this.stub = new ServerSocket(0, 16, InetAddress.getByName("127.0.0.1")); //$NON-NLS-1$
+        this.acceptor = new Thread("stub") { //$NON-NLS-1$
+            public void run() {
+                try {
+                    while (true) {
+                        Socket socket = stub.accept();
+                        synchronized (accepted) {
+                            accepted.add(socket);
+                        }
+                        if (answer) {
+                            OutputStream out = socket.getOutputStream();
+                            out.write(("HTTP/1.1 200 OK\r\n" + //$NON-NLS-1$
+                                    "Last-Modified: Wed, 01 Jan 2014 00:00:00 GMT\r\n" + //$NON-NLS-1$
+                                    "Content-Length: 0\r\n" + //$NON-NLS-1$
+                                    "Connection: close\r\n\r\n").getBytes("ISO-8859-1")); //$NON-NLS-1$ //$NON-NLS-2$
+                            out.flush();
+                            socket.shutdownOutput();
+                        }
+                        // otherwise held open without a word
+                    }
+                } catch (IOException e) {
+                    // closed by tearDown
+                }
+            }
+        };
+        this.acceptor.setDaemon(true);
+        this.acceptor.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        this.stub.close();
+        this.acceptor.join();
+        synchronized (this.accepted) {
+            for (Socket socket : this.accepted) {
+                socket.close();
+            }
+        }
+    }
+
+    @Test
+    public void testSilentSourceTimesOut() throws Exception {
+        URLSource source = new URLSource(this.url());
+        long start = System.currentTimeMillis();
+        assertEquals(0, source.getLastModified(LIMIT));
+        long elapsed = System.currentTimeMillis() - start;
+        assertTrue(Long.toString(elapsed), elapsed >= LIMIT && elapsed < LIMIT + SLACK);
+    }
+
+    @Test
+    public void testAnsweringSource() throws Exception {
+        this.answer = true;
+        assertEquals(MODIFIED, new URLSource(this.url()).getLastModified(LIMIT));
+        assertEquals(MODIFIED, new URLSource(this.url()).getLastModified());
+    }
+
+    @Test
+    public void testFileSource() throws Exception {
+        File file = this.folder.newFile("config.zip"); //$NON-NLS-1$
+        assertTrue(file.setLastModified(MODIFIED));
+        assertEquals(MODIFIED, new URLSource(file.toURI().toString()).getLastModified());
+    }
+
+    private String url() {
+        return("http://127.0.0.1:" + this.stub.getLocalPort() + "/config.zip"); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+}
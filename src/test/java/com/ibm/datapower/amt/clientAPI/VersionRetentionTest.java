@@ -0,0 +1,195 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.clientAPI;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.ibm.datapower.amt.dataAPI.StoredVersion;
+
+/**
+ * Check that {@link VersionRetention#trim(StoredVersion[], int, VersionRetention.Trimmer)}
+ * removes the versions that trimExcessVersions used to remove when it probed
+ * every number from 1 up: the oldest ones, oldest first, however the history
+ * is ordered and whatever gaps earlier removals left in it, and newer ones in
+ * place of those that cannot be removed.
+ */
+public class VersionRetentionTest {
+
+    private static final int HISTORIES = 2000;
+
+    private final Random random = new Random(20140101L);
+
+    @Test
+    public void testTrimMatchesProbe() {
+        for (int i = 0; i < HISTORIES; i++) {
+            List<StoredVersion> history = new ArrayList<StoredVersion>();
+            int highest = 1 + this.random.nextInt(40);
+            for (int number = 1; number <= highest; number++) {
+                // gaps where versions were removed before
+                if (this.random.nextInt(4) != 0) {
+                    // and some that are in use and cannot be removed
+                    history.add(new Version(number, this.random.nextInt(5) != 0));
+                }
+            }
+            Collections.shuffle(history, this.random);
+            StoredVersion[] versions = history.toArray(new StoredVersion[history.size()]);
+            StoredVersion[] unchanged = versions.clone();
+            int allowed = this.random.nextInt(highest + 2) - 1;
+
+            Recorder recorder = new Recorder();
+            int trimmed = VersionRetention.trim(versions, allowed, recorder);
+            List<StoredVersion> expected = probe(versions, highest, allowed);
+            assertEquals(expected.size(), trimmed);
+            assertEquals(expected, recorder.removed);
+            // the caller's array is left as it was
+            assertEquals(Arrays.asList(unchanged), Arrays.asList(versions));
+        }
+    }
+
+    @Test
+    public void testFailedRemovalTriesNewerVersions() {
+        StoredVersion[] versions = new StoredVersion[6];
+        for (int v = 1; v <= versions.length; v++) {
+            // versions 1 and 3 cannot be removed
+            versions[v - 1] = new Version(v, (v != 1) && (v != 3));
+        }
+        Recorder recorder = new Recorder();
+        assertEquals(3, VersionRetention.trim(versions, 3, recorder));
+        assertEquals(Arrays.asList(versions[1], versions[3], versions[4]), recorder.removed);
+        assertEquals(Arrays.asList(versions[0], versions[1], versions[2], versions[3], versions[4]),
+                recorder.tried);
+
+        // when nothing newer can go either, the history stays over the limit
+        for (int v = 1; v <= versions.length; v++) {
+            versions[v - 1] = new Version(v, v == 2);
+        }
+        recorder = new Recorder();
+        assertEquals(1, VersionRetention.trim(versions, 3, recorder));
+        assertEquals(Arrays.asList(versions[1]), recorder.removed);
+        assertEquals(Arrays.asList(versions), recorder.tried);
+    }
+
+    @Test
+    public void testNoLimitKeepsEverything() {
+        StoredVersion[] versions = { new Version(1, true), new Version(2, true), new Version(3, true) };
+        assertEquals(0, VersionRetention.excess(versions, 0));
+        assertEquals(0, VersionRetention.excess(versions, -1));
+        assertEquals(0, VersionRetention.excess(versions, 3));
+        assertEquals(0, VersionRetention.excess(new StoredVersion[0], 1));
+        Recorder recorder = new Recorder();
+        assertEquals(0, VersionRetention.trim(versions, 0, recorder));
+        assertEquals(0, VersionRetention.trim(versions, 3, recorder));
+        assertEquals(0, recorder.tried.size());
+    }
+
+    /*
+     * What trimExcessVersions did before VersionRetention: look up each
+     * number from 1 up until few enough are left, skipping the versions that
+     * could not be destroyed.
+     */
+    private static List<StoredVersion> probe(StoredVersion[] versions, int highest, int allowed) {
+        List<StoredVersion> result = new ArrayList<StoredVersion>();
+        int have = versions.length;
+        if ((allowed < 1) || (have <= allowed)) {
+            return(result);
+        }
+        for (int number = 1; (number <= highest) && (have > allowed); number++) {
+            for (int i = 0; i < versions.length; i++) {
+                if (versions[i].getVersionNumber() == number) {
+                    if (((Version) versions[i]).removable) {
+                        result.add(versions[i]);
+                        have--;
+                    }
+                    break;
+                }
+            }
+        }
+        return(result);
+    }
+
+    /*
+     * Removes the versions that are removable and remembers what it was
+     * asked to do.
+     */
+    private static final class Recorder implements VersionRetention.Trimmer {
+        final List<StoredVersion> tried = new ArrayList<StoredVersion>();
+        final List<StoredVersion> removed = new ArrayList<StoredVersion>();
+
+        public boolean trim(StoredVersion version) {
+            this.tried.add(version);
+            if (!((Version) version).removable) {
+                return(false);
+            }
+            this.removed.add(version);
+            return(true);
+        }
+    }
+
+    /*
+     * Only the version number matters to the retention, and whether the
+     * version can be destroyed to the trimmer.
+     */
+    private static final class Version implements StoredVersion {
+        private final int versionNumber;
+        final boolean removable;
+
+        Version(int versionNumber, boolean removable) {
+            this.versionNumber = versionNumber;
+            this.removable = removable;
+        }
+
+        public int getVersionNumber() {
+            return(this.versionNumber);
+        }
+
+        public String getPrimaryKey() {
+            return("DPDomainVersion_" + this.versionNumber); //$NON-NLS-1$
+        }
+
+        public Object getVersionedObject() {
+            return(null);
+        }
+
+        public Date getTimestamp() {
+            return(null);
+        }
+
+        public String getUserComment() {
+            return(null);
+        }
+
+        public void setUserComment(String comment) {
+        }
+
+        public Blob getBlob() {
+            return(null);
+        }
+
+        public void delete() {
+        }
+    }
+}
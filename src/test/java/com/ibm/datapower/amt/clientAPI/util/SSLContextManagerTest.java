@@ -0,0 +1,214 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.clientAPI.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.KeyStore;
+import java.security.cert.CertificateFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.net.ssl.SSLContext;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Check the {@link SSLContextManager}: the AMP providers and the SOMA
+ * provider get contexts of their own, each trusting the appliance
+ * certificates its provider always trusted; a changed trust store is loaded
+ * again, by {@link SSLContextManager#reload()} or by the watcher, without a
+ * new SSLContext; and a context that could not be built is built on the next
+ * use once the cause is gone.
+ */
+public class SSLContextManagerTest {
+
+    private static final long TIMEOUT_MS = 10000;
+    private static final String PASSWORD = "changeit"; //$NON-NLS-1$
+
+    // a self-signed certificate that no JRE trusts
+    private static final String TEST_CERT_PEM =
+        "-----BEGIN CERTIFICATE-----\n" + //$NON-NLS-1$
+        "MIIB+jCCAWOgAwIBAgIESPazQTANBgkqhkiG9w0BAQsFADAvMQ0wCwYDVQQKEwRU\n" + //$NON-NLS-1$
+        "ZXN0MR4wHAYDVQQDExVTU0xDb250ZXh0TWFuYWdlclRlc3QwIBcNMjYxMDE5MDU1\n" + //$NON-NLS-1$
+        "MTIzWhgPMjEyNjA5MjUwNTUxMjNaMC8xDTALBgNVBAoTBFRlc3QxHjAcBgNVBAMT\n" + //$NON-NLS-1$
+        "FVNTTENvbnRleHRNYW5hZ2VyVGVzdDCBnzANBgkqhkiG9w0BAQEFAAOBjQAwgYkC\n" + //$NON-NLS-1$
+        "gYEAj/EN/0yLu0SBWtIDcEC8M2sULI50bEFgC/9yxC+Dgifi47ReJ+uI+YZ+fkLN\n" + //$NON-NLS-1$
+        "sS41qfqv8BhFbVI3zm/yVVIArCRFY3GHCKd6BzLA+C85GuZeuGfJVmimGQqQYMZt\n" + //$NON-NLS-1$
+        "a088bGjxmYU4nfq5GWN1ULdYbiw30cx5X7SY7sA8exfT7/kCAwEAAaMhMB8wHQYD\n" + //$NON-NLS-1$
+        "VR0OBBYEFIe6tLLgFv29WmZ+1ySM1uBuAwG3MA0GCSqGSIb3DQEBCwUAA4GBABJP\n" + //$NON-NLS-1$
+        "vtlXghY8Jo+CkEtYZVW11why2SSKyRDMETRCE4aG1fEZmJt/iWkw/gbqBON3Og0R\n" + //$NON-NLS-1$
+        "nT3aVOPE9n4dDTCYoXOp/pGFDAWNv7PLlEWi8zuSTxiR+x19JmZhzrv3RBaeVTRJ\n" + //$NON-NLS-1$
+        "FxX2Z1bfkOfQx9+gb15ZCWLN7XAHzmwnlkWn3EDW\n" + //$NON-NLS-1$
+        "-----END CERTIFICATE-----\n"; //$NON-NLS-1$
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final List<SSLContextManager> managers = new ArrayList<SSLContextManager>();
+    private final List<String> properties = new ArrayList<String>();
+    private final List<String> originals = new ArrayList<String>();
+
+    @After
+    public void tearDown() {
+        for (SSLContextManager manager : this.managers) {
+            manager.close();
+        }
+        // put the system properties back, last set first
+        for (int i = this.properties.size() - 1; i >= 0; i--) {
+            if (this.originals.get(i) == null) {
+                System.clearProperty(this.properties.get(i));
+            } else {
+                System.setProperty(this.properties.get(i), this.originals.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testAMPAndSOMAAreApart() throws Exception {
+        assertSame(SSLContextManager.getAMPInstance(), SSLContextManager.getAMPInstance());
+        assertSame(SSLContextManager.getSOMAInstance(), SSLContextManager.getSOMAInstance());
+        assertNotSame(SSLContextManager.getAMPInstance(), SSLContextManager.getSOMAInstance());
+        // no session cache in common
+        assertNotSame(SSLContextManager.getAMPInstance().getSSLContext(),
+                SSLContextManager.getSOMAInstance().getSSLContext());
+
+        // the saved appliance certificates of each provider
+        assertEquals(new File(KeyStoreInfo.keyStoreFile), this.create(false).getApplianceCertFile());
+        File somaFile = this.create(true).getApplianceCertFile();
+        assertEquals("dpcacerts", somaFile.getName()); //$NON-NLS-1$
+        assertEquals(new File(System.getProperty("java.home")).getCanonicalFile(), //$NON-NLS-1$
+                somaFile.getParentFile().getParentFile().getParentFile().getCanonicalFile());
+    }
+
+    @Test
+    public void testReloadKeepsContext() throws Exception {
+        File trustStore = this.folder.newFile("truststore.jks"); //$NON-NLS-1$
+        writeStore(trustStore, false);
+        this.setProperty(SSLContextManager.SYSTEM_PROPERTY_TRUSTSTORE_FILENAME_NAME, trustStore.getPath());
+        SSLContextManager manager = this.create(false);
+        SSLContext context = manager.getSSLContext();
+        int trusted = manager.getTrustedCertificateCount();
+
+        writeStore(trustStore, true);
+        assertTrue(manager.reload());
+        assertEquals(1, manager.getReloadCount());
+        assertEquals(trusted + 1, manager.getTrustedCertificateCount());
+        // the cached sessions are kept
+        assertSame(context, manager.getSSLContext());
+    }
+
+    @Test
+    public void testWatcherReloadsChangedStore() throws Exception {
+        File trustStore = this.folder.newFile("truststore.jks"); //$NON-NLS-1$
+        writeStore(trustStore, false);
+        this.setProperty(SSLContextManager.SYSTEM_PROPERTY_TRUSTSTORE_FILENAME_NAME, trustStore.getPath());
+        SSLContextManager amp = this.create(false);
+        SSLContextManager soma = this.create(true);
+        int ampTrusted = amp.getTrustedCertificateCount();
+        int somaTrusted = soma.getTrustedCertificateCount();
+
+        writeStore(trustStore, true);
+        // the JSSE trust store is trusted by both
+        awaitTrusted(amp, ampTrusted + 1);
+        awaitTrusted(soma, somaTrusted + 1);
+        assertTrue(amp.getReloadCount() > 0);
+        assertEquals(0, amp.getReloadFailureCount());
+    }
+
+    @Test
+    public void testFailedContextIsRetried() throws Exception {
+        File keyStore = this.folder.newFile("keystore.jks"); //$NON-NLS-1$
+        OutputStream out = new FileOutputStream(keyStore);
+        try {
+            out.write("not a key store".getBytes("UTF-8")); //$NON-NLS-1$ //$NON-NLS-2$
+        } finally {
+            out.close();
+        }
+        this.setProperty(SSLContextManager.SYSTEM_PROPERTY_KEYSTORE_FILENAME_NAME, keyStore.getPath());
+        this.setProperty(SSLContextManager.SYSTEM_PROPERTY_KEYSTORE_PASSWORD_NAME, PASSWORD);
+        SSLContextManager manager = this.create(false);
+        for (int i = 0; i < 2; i++) {
+            // every use tries again, and fails the same way
+            try {
+                manager.getSocketFactory();
+                fail("the key store is not readable"); //$NON-NLS-1$
+            } catch (IOException e) {
+                // expected
+            }
+        }
+
+        writeStore(keyStore, false);
+        assertNotNull(manager.getSocketFactory());
+        assertNotNull(manager.getServerSocketFactory());
+        assertSame(manager.getSSLContext(), manager.getSSLContext());
+    }
+
+    private SSLContextManager create(boolean soma) {
+        SSLContextManager result = new SSLContextManager(soma);
+        this.managers.add(result);
+        return(result);
+    }
+
+    private void setProperty(String name, String value) {
+        this.properties.add(name);
+        this.originals.add(System.getProperty(name));
+        System.setProperty(name, value);
+    }
+
+    private static void awaitTrusted(SSLContextManager manager, int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (manager.getTrustedCertificateCount() != count) {
+            assertTrue(manager.getTrustedCertificateCount() + " trusted, not " + count, //$NON-NLS-1$
+                    System.currentTimeMillis() < deadline);
+            Thread.sleep(50);
+        }
+    }
+
+    /*
+     * Write an empty JKS store, or one that holds the test certificate.
+     */
+    private static void writeStore(File file, boolean withCert) throws Exception {
+        KeyStore store = KeyStore.getInstance("JKS"); //$NON-NLS-1$
+        store.load(null, null);
+        if (withCert) {
+            CertificateFactory factory = CertificateFactory.getInstance("X.509"); //$NON-NLS-1$
+            store.setCertificateEntry("test", factory.generateCertificate( //$NON-NLS-1$
+                    new ByteArrayInputStream(TEST_CERT_PEM.getBytes("US-ASCII")))); //$NON-NLS-1$
+        }
+        OutputStream out = new FileOutputStream(file);
+        try {
+            store.store(out, PASSWORD.toCharArray());
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,400 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.dataAPI.local.filesystem;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ibm.datapower.amt.Credential;
+import com.ibm.datapower.amt.DeviceType;
+import com.ibm.datapower.amt.ModelType;
+import com.ibm.datapower.amt.StringCollection;
+import com.ibm.datapower.amt.amp.AMPConstants;
+import com.ibm.datapower.amt.clientAPI.Blob;
+import com.ibm.datapower.amt.clientAPI.DeploymentPolicyType;
+import com.ibm.datapower.amt.dataAPI.DatastoreException;
+import com.ibm.datapower.amt.dataAPI.StoredDevice;
+import com.ibm.datapower.amt.dataAPI.StoredDomain;
+import com.ibm.datapower.amt.dataAPI.StoredFirmware;
+import com.ibm.datapower.amt.dataAPI.StoredFirmwareVersion;
+
+/**
+ * Export a repository with many firmware versions and a managed domain,
+ * import it into an empty repository directory and check that every version
+ * comes back with the same image. An archive that is damaged on the way must
+ * be rejected and leave the repository it was imported into as it was.
+ * Images too large to compress in memory must not leave their temporary
+ * spool files behind, whether the export works or fails.
+ */
+public class RepositoryImplExportImportTest {
+
+    private static final int FIRMWARE_VERSIONS = 500;
+    private static final int DOMAIN_VERSIONS = 5;
+    private static final int IMAGE_SIZE = 20 * 1024;
+    private static final int LARGE_VERSIONS = 4;
+    // beyond the spool memory limit of the export even when compressed
+    private static final int LARGE_IMAGE_SIZE = 3 * 1024 * 1024;
+    private static final String DOMAIN_NAME = "app"; //$NON-NLS-1$
+    private static final long TIMEOUT_MS = 10000;
+    private static final String SERIAL_NUMBER = "EXPIMP0001"; //$NON-NLS-1$
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private RepositoryImpl repository = null;
+
+    @After
+    public void tearDown() {
+        // later tests in this JVM point the singleton at their own directory
+        if (this.repository != null) {
+            this.repository.shutdown();
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        this.repository = open(this.folder.newFolder("source")); //$NON-NLS-1$
+        populate(this.repository);
+        byte[] archive = export(this.repository);
+        // the repository file and one entry per version image
+        assertEquals(1 + FIRMWARE_VERSIONS + DOMAIN_VERSIONS, countEntries(archive));
+
+        this.repository = open(this.folder.newFolder("target")); //$NON-NLS-1$
+        assertEquals(0, this.repository.getFirmwares().length);
+        this.repository.importAll(new ByteArrayInputStream(archive));
+        verify(this.repository);
+
+        // and again after the imported repository is read back from disk
+        this.repository.startup();
+        verify(this.repository);
+    }
+
+    @Test
+    public void testReopen() throws Exception {
+        File source = this.folder.newFolder("source"); //$NON-NLS-1$
+        this.repository = open(source);
+        populate(this.repository);
+        this.repository = open(this.folder.newFolder("target")); //$NON-NLS-1$
+        assertEquals(0, this.repository.getFirmwares().length);
+        // the singleton loads the repository in the directory it is pointed back at
+        this.repository = open(source);
+        verify(this.repository);
+    }
+
+    @Test
+    public void testRemovedVersionsAreNotExported() throws Exception {
+        this.repository = open(this.folder.newFolder("source")); //$NON-NLS-1$
+        populate(this.repository);
+        StoredFirmwareImpl firmware = (StoredFirmwareImpl) this.repository.getFirmwares()[0];
+        for (int i = 1; i <= FIRMWARE_VERSIONS / 2; i++) {
+            firmware.getVersion(i).delete();
+        }
+        byte[] archive = export(this.repository);
+        assertEquals(1 + FIRMWARE_VERSIONS / 2 + DOMAIN_VERSIONS, countEntries(archive));
+
+        this.repository = open(this.folder.newFolder("target")); //$NON-NLS-1$
+        this.repository.importAll(new ByteArrayInputStream(archive));
+        firmware = (StoredFirmwareImpl) this.repository.getFirmwares()[0];
+        assertEquals(FIRMWARE_VERSIONS / 2, firmware.getVersions().length);
+        assertNull(firmware.getVersion(1));
+        assertArrayEquals(image(FIRMWARE_VERSIONS), firmware.getVersion(FIRMWARE_VERSIONS).getBlob().getByteArray());
+    }
+
+    @Test
+    public void testTruncatedArchiveIsRejected() throws Exception {
+        this.repository = open(this.folder.newFolder("source")); //$NON-NLS-1$
+        populate(this.repository);
+        byte[] archive = export(this.repository);
+        assertRejected(Arrays.copyOf(archive, archive.length / 2));
+    }
+
+    @Test
+    public void testCorruptedArchiveIsRejected() throws Exception {
+        this.repository = open(this.folder.newFolder("source")); //$NON-NLS-1$
+        populate(this.repository);
+        byte[] archive = export(this.repository);
+        // the middle of the archive is well inside the compressed images
+        archive[archive.length / 2] ^= 0x5a;
+        assertRejected(archive);
+    }
+
+    @Test
+    public void testSpoolFilesAreRemoved() throws Exception {
+        this.repository = open(this.folder.newFolder("source")); //$NON-NLS-1$
+        populateLarge(this.repository);
+        int spools = countSpools();
+        byte[] archive = export(this.repository);
+        awaitWorkers();
+        assertEquals(spools, countSpools());
+        assertEquals(1 + LARGE_VERSIONS, countEntries(archive));
+
+        this.repository = open(this.folder.newFolder("target")); //$NON-NLS-1$
+        this.repository.importAll(new ByteArrayInputStream(archive));
+        StoredFirmwareImpl firmware = (StoredFirmwareImpl) this.repository.getFirmwares()[0];
+        for (int i = 1; i <= LARGE_VERSIONS; i++) {
+            assertArrayEquals(largeImage(i), firmware.getVersion(i).getBlob().getByteArray());
+        }
+    }
+
+    @Test
+    public void testSpoolFilesAreRemovedOnFailure() throws Exception {
+        this.repository = open(this.folder.newFolder("source")); //$NON-NLS-1$
+        populateLarge(this.repository);
+        int spools = countSpools();
+        try {
+            // fails inside the first large entry, while the others are spooled
+            this.repository.exportAll(new FailingOutputStream(LARGE_IMAGE_SIZE / 2));
+            fail("exported to a failing stream"); //$NON-NLS-1$
+        } catch (DatastoreException e) {
+            // expected
+        }
+        awaitWorkers();
+        assertEquals(spools, countSpools());
+    }
+
+    @Test
+    public void testSpoolFilesAreRemovedOnInterrupt() throws Exception {
+        this.repository = open(this.folder.newFolder("source")); //$NON-NLS-1$
+        populateLarge(this.repository);
+        int spools = countSpools();
+        // the export gives up on the first entry it waits for
+        Thread.currentThread().interrupt();
+        try {
+            this.repository.exportAll(new ByteArrayOutputStream());
+            fail("exported while interrupted"); //$NON-NLS-1$
+        } catch (DatastoreException e) {
+            // expected
+        } finally {
+            assertTrue(Thread.interrupted());
+        }
+        awaitWorkers();
+        assertEquals(spools, countSpools());
+    }
+
+    /*
+     * Import into a repository that already has content, and check that both
+     * the files in its directory and what it holds are unchanged.
+     */
+    private void assertRejected(byte[] archive) throws Exception {
+        File directory = this.folder.newFolder("target"); //$NON-NLS-1$
+        this.repository = open(directory);
+        StoredFirmware firmware = this.repository.createFirmware(DeviceType.fromString("XI52"), //$NON-NLS-1$
+                ModelType.fromString("9005"), StringCollection.EMPTY, StringCollection.EMPTY); //$NON-NLS-1$
+        this.repository.createFirmwareVersion(firmware, new Blob(image(0)), "4.0.2.0", //$NON-NLS-1$
+                new Date(0), "existing", new Date(0)); //$NON-NLS-1$
+        this.repository.save(true);
+        String[] before = list(directory);
+
+        try {
+            this.repository.importAll(new ByteArrayInputStream(archive));
+            fail("imported a damaged archive"); //$NON-NLS-1$
+        } catch (DatastoreException e) {
+            // expected
+        }
+        assertArrayEquals(before, list(directory));
+        assertEquals(1, this.repository.getFirmwares().length);
+        assertEquals(1, this.repository.getFirmwares()[0].getVersions().length);
+        assertEquals(0, this.repository.getDevices().length);
+        StoredFirmwareImpl existing = (StoredFirmwareImpl) this.repository.getFirmwares()[0];
+        assertArrayEquals(image(0), existing.getVersion(1).getBlob().getByteArray());
+    }
+
+    private static RepositoryImpl open(File directory) throws DatastoreException {
+        Credential credential = new Credential();
+        credential.setProperty("RepositoryDirectory", directory.getPath()); //$NON-NLS-1$
+        RepositoryImpl repository = RepositoryImpl.getInstance(credential);
+        repository.startup();
+        return(repository);
+    }
+
+    private static void populate(RepositoryImpl repository) throws Exception {
+        StoredFirmware firmware = repository.createFirmware(DeviceType.fromString("XI52"), //$NON-NLS-1$
+                ModelType.fromString("9005"), StringCollection.EMPTY, StringCollection.EMPTY); //$NON-NLS-1$
+        for (int i = 1; i <= FIRMWARE_VERSIONS; i++) {
+            repository.createFirmwareVersion(firmware, new Blob(image(i)), "5.0.0." + i, //$NON-NLS-1$
+                    new Date(i * 60000L), "version " + i, new Date(i * 60000L)); //$NON-NLS-1$
+        }
+
+        StoredDevice device = repository.createDevice("7199-XI52-1", SERIAL_NUMBER, "device", //$NON-NLS-1$ //$NON-NLS-2$
+                DeviceType.fromString("XI52"), ModelType.fromString("9005"), "device.example.com", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                "admin", "password", 5550, 9090, AMPConstants.AMP_V3_0); //$NON-NLS-1$ //$NON-NLS-2$
+        repository.createManagedSet("set").add(device); //$NON-NLS-1$
+        StoredDomain domain = repository.createDomain(device, DOMAIN_NAME);
+        repository.createDeploymentPolicy(domain, null, null, null, DeploymentPolicyType.NONE);
+        for (int i = 1; i <= DOMAIN_VERSIONS; i++) {
+            repository.createDomainVersion(domain, new Blob(image(-i)), "version " + i, new Date(i * 60000L)); //$NON-NLS-1$
+        }
+        repository.save(true);
+    }
+
+    private static void populateLarge(RepositoryImpl repository) throws Exception {
+        StoredFirmware firmware = repository.createFirmware(DeviceType.fromString("XI52"), //$NON-NLS-1$
+                ModelType.fromString("9005"), StringCollection.EMPTY, StringCollection.EMPTY); //$NON-NLS-1$
+        for (int i = 1; i <= LARGE_VERSIONS; i++) {
+            repository.createFirmwareVersion(firmware, new Blob(largeImage(i)), "5.0.0." + i, //$NON-NLS-1$
+                    new Date(i * 60000L), "version " + i, new Date(i * 60000L)); //$NON-NLS-1$
+        }
+        repository.save(true);
+    }
+
+    private static void verify(RepositoryImpl repository) throws IOException {
+        StoredFirmware[] firmwares = repository.getFirmwares();
+        assertEquals(1, firmwares.length);
+        assertEquals(FIRMWARE_VERSIONS, firmwares[0].getVersions().length);
+        for (int i = 1; i <= FIRMWARE_VERSIONS; i++) {
+            StoredFirmwareVersion version = ((StoredFirmwareImpl) firmwares[0]).getVersion(i);
+            assertNotNull(version);
+            assertEquals("5.0.0." + i, version.getLevel()); //$NON-NLS-1$
+            assertArrayEquals(image(i), version.getBlob().getByteArray());
+        }
+
+        assertEquals(1, repository.getDevices().length);
+        StoredDevice device = repository.getDevices()[0];
+        assertEquals(SERIAL_NUMBER, device.getSerialNumber());
+        assertEquals(1, repository.getManagedSets().length);
+        StoredDomainImpl domain = (StoredDomainImpl) device.getManagedDomains()[0];
+        assertEquals(DOMAIN_NAME, domain.getName());
+        for (int i = 1; i <= DOMAIN_VERSIONS; i++) {
+            assertArrayEquals(image(-i), domain.getVersion(i).getBlob().getByteArray());
+        }
+    }
+
+    private static byte[] export(RepositoryImpl repository) throws DatastoreException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        repository.exportAll(out);
+        return(out.toByteArray());
+    }
+
+    private static int countEntries(byte[] archive) throws IOException {
+        ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(archive));
+        try {
+            int count = 0;
+            for (ZipEntry entry = in.getNextEntry(); entry != null; entry = in.getNextEntry()) {
+                count++;
+            }
+            return(count);
+        } finally {
+            in.close();
+        }
+    }
+
+    /*
+     * A worker the export left running could still create a spool file.
+     */
+    private static void awaitWorkers() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (countWorkers() > 0) {
+            assertTrue(countWorkers() + " export workers", System.currentTimeMillis() < deadline); //$NON-NLS-1$
+            Thread.sleep(10);
+        }
+    }
+
+    private static int countWorkers() {
+        int count = 0;
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.isAlive() && thread.getName().equals("ExportImport")) { //$NON-NLS-1$
+                count++;
+            }
+        }
+        return(count);
+    }
+
+    /*
+     * The spool files of the export in the temporary directory, of this test
+     * or of anything else running.
+     */
+    private static int countSpools() {
+        String[] names = new File(System.getProperty("java.io.tmpdir")).list(); //$NON-NLS-1$
+        int count = 0;
+        for (String name : names) {
+            if (name.startsWith("export") && name.endsWith(".spool")) { //$NON-NLS-1$ //$NON-NLS-2$
+                count++;
+            }
+        }
+        return(count);
+    }
+
+    private static String[] list(File directory) {
+        String[] names = directory.list();
+        Arrays.sort(names);
+        return(names);
+    }
+
+    /*
+     * A compressible image that is different for every version.
+     */
+    private static byte[] image(int version) {
+        Random random = new Random(version);
+        byte[] image = new byte[IMAGE_SIZE];
+        for (int i = 0; i < image.length; i++) {
+            image[i] = (byte) ('a' + random.nextInt(16));
+        }
+        return(image);
+    }
+
+    /*
+     * An image of random bytes, which does not compress.
+     */
+    private static byte[] largeImage(int version) {
+        byte[] image = new byte[LARGE_IMAGE_SIZE];
+        new Random(version).nextBytes(image);
+        return(image);
+    }
+
+    /*
+     * Takes a number of bytes and fails on the next write.
+     */
+    private static final class FailingOutputStream extends OutputStream {
+        private int remaining;
+
+        FailingOutputStream(int limit) {
+            this.remaining = limit;
+        }
+
+        public void write(int b) throws IOException {
+            this.write(new byte[] { (byte) b }, 0, 1);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len > this.remaining) {
+                throw new IOException("the stream is full"); //$NON-NLS-1$
+            }
+            this.remaining -= len;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.dataAPI.local.filesystem;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.Date;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ibm.datapower.amt.Credential;
+import com.ibm.datapower.amt.DeviceType;
+import com.ibm.datapower.amt.ModelType;
+import com.ibm.datapower.amt.StringCollection;
+import com.ibm.datapower.amt.amp.AMPConstants;
+import com.ibm.datapower.amt.clientAPI.Blob;
+import com.ibm.datapower.amt.clientAPI.DeploymentPolicyType;
+import com.ibm.datapower.amt.dataAPI.DatastoreException;
+import com.ibm.datapower.amt.dataAPI.StoredDeploymentPolicy;
+import com.ibm.datapower.amt.dataAPI.StoredDevice;
+import com.ibm.datapower.amt.dataAPI.StoredDomain;
+import com.ibm.datapower.amt.dataAPI.StoredFirmware;
+import com.ibm.datapower.amt.dataAPI.StoredManagedSet;
+import com.ibm.datapower.amt.dataAPI.StoredTag;
+
+/**
+ * Load a repository file written by {@link RepositoryImpl#save(boolean)} with
+ * devices, domains, deployment policies, version histories, firmware, managed
+ * sets and tags, and check that everything comes back and that saving the
+ * loaded repository writes the same file again. A damaged repository file
+ * must be reported rather than loaded in part.
+ */
+public class RepositoryImplLoadTest {
+
+    private static final int DEVICES = 6;
+    private static final int DOMAINS = 3;
+    private static final int DOMAIN_VERSIONS = 4;
+    private static final int POLICY_VERSIONS = 2;
+    private static final int FIRMWARE_VERSIONS = 5;
+    private static final int MAX_VERSIONS = 7;
+    private static final String DOMAIN_PREFIX = "domain"; //$NON-NLS-1$
+    private static final String REPOSITORY_FILE_NAME = "WAMT.repository.xml"; //$NON-NLS-1$
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private RepositoryImpl repository = null;
+
+    @After
+    public void tearDown() {
+        // later tests in this JVM point the singleton at their own directory
+        if (this.repository != null) {
+            this.repository.shutdown();
+        }
+    }
+
+    @Test
+    public void testSaveAfterLoadIsIdentical() throws Exception {
+        File directory = this.folder.newFolder("repository"); //$NON-NLS-1$
+        this.repository = open(directory);
+        populate(this.repository);
+        this.repository.save(true);
+        byte[] saved = read(new File(directory, REPOSITORY_FILE_NAME));
+        this.repository.shutdown();
+
+        this.repository = open(directory);
+        assertEquals(MAX_VERSIONS, this.repository.getMaxVersionsToStore());
+        assertEquals(DEVICES, this.repository.getDevices().length);
+        assertEquals(2, this.repository.getManagedSets().length);
+        assertEquals(2, this.repository.getTags().length);
+        assertEquals(FIRMWARE_VERSIONS, this.repository.getFirmwares()[0].getVersions().length);
+        for (StoredDevice device : this.repository.getDevices()) {
+            assertEquals(DOMAINS, device.getManagedDomains().length);
+            for (StoredDomain domain : device.getManagedDomains()) {
+                assertEquals(DOMAIN_VERSIONS, domain.getVersions().length);
+                StoredDeploymentPolicy policy = domain.getDeploymentPolicy();
+                assertNotNull(domain.getName(), policy);
+                assertEquals(POLICY_VERSIONS, policy.getVersions().length);
+            }
+        }
+        StoredDevice device = this.repository.getDeviceBySerialNumber(serialNumber(1))[0];
+        for (StoredDomain domain : device.getManagedDomains()) {
+            int n = Integer.parseInt(domain.getName().substring(DOMAIN_PREFIX.length()));
+            for (int v = 1; v <= DOMAIN_VERSIONS; v++) {
+                assertArrayEquals(image(1, n, v), ((StoredDomainImpl) domain).getVersion(v).getBlob().getByteArray());
+            }
+        }
+        assertEquals(1, device.getTags().length);
+        assertEquals(2, this.repository.getManagedSet("odd").getDeviceMembers().length); //$NON-NLS-1$
+
+        this.repository.save(true);
+        assertArrayEquals(saved, read(new File(directory, REPOSITORY_FILE_NAME)));
+    }
+
+    @Test
+    public void testTruncatedFileIsRejected() throws Exception {
+        File directory = this.folder.newFolder("repository"); //$NON-NLS-1$
+        this.repository = open(directory);
+        populate(this.repository);
+        this.repository.save(true);
+        this.repository.shutdown();
+
+        File file = new File(directory, REPOSITORY_FILE_NAME);
+        RandomAccessFile truncated = new RandomAccessFile(file, "rw"); //$NON-NLS-1$
+        try {
+            truncated.setLength(truncated.length() * 2 / 3);
+        } finally {
+            truncated.close();
+        }
+        assertRejected(directory);
+    }
+
+    @Test
+    public void testUnknownRootIsRejected() throws Exception {
+        File directory = this.folder.newFolder("repository"); //$NON-NLS-1$
+        OutputStream out = new FileOutputStream(new File(directory, REPOSITORY_FILE_NAME));
+        try {
+            out.write("<?xml version=\"1.0\"?><notARepository/>".getBytes("UTF-8")); //$NON-NLS-1$ //$NON-NLS-2$
+        } finally {
+            out.close();
+        }
+        assertRejected(directory);
+    }
+
+    private void assertRejected(File directory) {
+        try {
+            this.repository = open(directory);
+            fail("loaded a damaged repository file"); //$NON-NLS-1$
+        } catch (DatastoreException e) {
+            // expected
+        }
+    }
+
+    private static void populate(RepositoryImpl repository) throws Exception {
+        repository.setMaxVersionsToStore(MAX_VERSIONS);
+        StoredFirmware firmware = repository.createFirmware(DeviceType.XI52, ModelType.TYPE_7199,
+                new StringCollection(new String[] { "MQ" }), StringCollection.EMPTY); //$NON-NLS-1$
+        for (int i = 1; i <= FIRMWARE_VERSIONS; i++) {
+            repository.createFirmwareVersion(firmware, new Blob(image(0, 0, i)), "5.0.0." + i, //$NON-NLS-1$
+                    date(i), "firmware " + i, date(i)); //$NON-NLS-1$
+        }
+
+        StoredManagedSet odd = repository.createManagedSet("odd"); //$NON-NLS-1$
+        StoredManagedSet even = repository.createManagedSet("even"); //$NON-NLS-1$
+        StoredTag tag = repository.createTag("site", "lab"); //$NON-NLS-1$ //$NON-NLS-2$
+        StoredTag other = repository.createTag("site", "production"); //$NON-NLS-1$ //$NON-NLS-2$
+        for (int d = 0; d < DEVICES; d++) {
+            StoredDevice device = repository.createDevice("7199-XI52-" + d, serialNumber(d), "device" + d, //$NON-NLS-1$ //$NON-NLS-2$
+                    DeviceType.XI52, ModelType.TYPE_7199, "host" + d, "admin", "admin", 5550, 9090, //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                    AMPConstants.AMP_V3_0);
+            device.setFeatureLicenses(new StringCollection(new String[] { "MQ", "TAM" })); //$NON-NLS-1$ //$NON-NLS-2$
+            if (d < 4) {
+                ((d % 2) == 1 ? odd : even).add(device);
+            }
+            StoredTag deviceTag = (d % 2) == 1 ? tag : other;
+            deviceTag.add(device);
+            device.add(deviceTag);
+            for (int n = 0; n < DOMAINS; n++) {
+                StoredDomain domain = repository.createDomain(device, domainName(n));
+                StoredDeploymentPolicy policy = repository.createDeploymentPolicy(domain, null, null, null,
+                        DeploymentPolicyType.NONE);
+                for (int v = 1; v <= DOMAIN_VERSIONS; v++) {
+                    repository.createDomainVersion(domain, new Blob(image(d, n, v)), "version " + v, date(v)); //$NON-NLS-1$
+                }
+                for (int v = 1; v <= POLICY_VERSIONS; v++) {
+                    repository.createDeploymentPolicyVersion(policy, new Blob(image(d, n, -v)), "policy " + v, //$NON-NLS-1$
+                            date(v));
+                }
+            }
+        }
+    }
+
+    private static RepositoryImpl open(File directory) throws DatastoreException {
+        Credential credential = new Credential();
+        credential.setProperty("RepositoryDirectory", directory.getPath()); //$NON-NLS-1$
+        RepositoryImpl repository = RepositoryImpl.getInstance(credential);
+        repository.startup();
+        return(repository);
+    }
+
+    private static String serialNumber(int device) {
+        return("LOAD" + device); //$NON-NLS-1$
+    }
+
+    private static String domainName(int domain) {
+        return(DOMAIN_PREFIX + domain);
+    }
+
+    private static Date date(int minutes) {
+        return(new Date(1388534400000L + minutes * 60000L));
+    }
+
+    private static byte[] image(int device, int domain, int version) {
+        return(("<config device=\"" + device + "\" domain=\"" + domain + "\" version=\"" + version + "\"/>") //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+                .getBytes());
+    }
+
+    private static byte[] read(File file) throws IOException {
+        RandomAccessFile in = new RandomAccessFile(file, "r"); //$NON-NLS-1$
+        try {
+            byte[] bytes = new byte[(int) in.length()];
+            in.readFully(bytes);
+            return(bytes);
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.dataAPI.local.filesystem;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.ibm.datapower.amt.Credential;
+import com.ibm.datapower.amt.DeviceType;
+import com.ibm.datapower.amt.ModelType;
+import com.ibm.datapower.amt.StringCollection;
+import com.ibm.datapower.amt.amp.AMPConstants;
+import com.ibm.datapower.amt.clientAPI.Blob;
+import com.ibm.datapower.amt.dataAPI.StoredDevice;
+import com.ibm.datapower.amt.dataAPI.StoredDomainVersion;
+import com.ibm.datapower.amt.dataAPI.StoredVersion;
+
+/**
+ * Add and remove versions at random and check that a {@link VersionHistory}
+ * answers lookups by key and by version number as a scan of its versions
+ * would, and enumerates them oldest first. The blob files of deleted versions
+ * must stay until the second save after the delete, when the last version of
+ * the repository file no longer refers to them either.
+ */
+public class VersionHistoryTest {
+
+    private static final int CHANGES = 5000;
+    private static final int NUMBERS = 40;
+    private static final int VERSIONS = 10;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    private final Random random = new Random(20140101L);
+    private RepositoryImpl repository = null;
+
+    @After
+    public void tearDown() {
+        // later tests in this JVM point the singleton at their own directory
+        if (this.repository != null) {
+            this.repository.shutdown();
+        }
+    }
+
+    @Test
+    public void testLookupsMatchScan() {
+        VersionHistory history = new VersionHistory();
+        Map<String, StoredVersion> scanned = new HashMap<String, StoredVersion>();
+        for (int i = 0; i < CHANGES; i++) {
+            // few keys and numbers, so that keys are replaced and numbers shared
+            String key = "DPDomainVersion_" + this.random.nextInt(NUMBERS); //$NON-NLS-1$
+            if (this.random.nextInt(3) == 0) {
+                assertSame(scanned.remove(key), history.remove(key));
+            } else {
+                StoredVersion version = new Version(1 + this.random.nextInt(NUMBERS));
+                history.put(key, version);
+                scanned.put(key, version);
+            }
+            assertEquals(scanned.size(), history.size());
+            String other = "DPDomainVersion_" + this.random.nextInt(NUMBERS); //$NON-NLS-1$
+            assertEquals(scanned.containsKey(other), history.containsKey(other));
+            assertSame(scanned.get(other), history.get(other));
+            int number = 1 + this.random.nextInt(NUMBERS);
+            assertSame(Integer.toString(number), scan(scanned, number), history.get(number));
+        }
+
+        Enumeration<String> keys = history.keys();
+        Enumeration<StoredVersion> elements = history.elements();
+        int previous = 0;
+        while (elements.hasMoreElements()) {
+            StoredVersion version = elements.nextElement();
+            assertTrue(version.getVersionNumber() >= previous);
+            previous = version.getVersionNumber();
+            assertSame(scanned.get(keys.nextElement()), version);
+        }
+    }
+
+    @Test
+    public void testEnumerationIsACopy() {
+        VersionHistory history = new VersionHistory();
+        for (int i = 1; i <= VERSIONS; i++) {
+            history.put("DPDomainVersion_" + i, new Version(i)); //$NON-NLS-1$
+        }
+        Enumeration<String> keys = history.keys();
+        int count = 0;
+        while (keys.hasMoreElements()) {
+            history.remove(keys.nextElement());
+            count++;
+        }
+        assertEquals(VERSIONS, count);
+        assertEquals(0, history.size());
+        assertNull(history.get(1));
+    }
+
+    @Test
+    public void testStoredDomainIsOrderedAndIndexed() throws Exception {
+        this.repository = open(this.folder.newFolder("repository")); //$NON-NLS-1$
+        StoredDomainImpl domain = createDomain(this.repository);
+        List<StoredDomainVersion> versions = new ArrayList<StoredDomainVersion>();
+        for (int v = 1; v <= VERSIONS; v++) {
+            versions.add(this.repository.createDomainVersion(domain, new Blob(image(v)), "version " + v, date(v))); //$NON-NLS-1$
+        }
+        List<StoredDomainVersion> doomed = new ArrayList<StoredDomainVersion>(versions);
+        Collections.shuffle(doomed, this.random);
+        for (StoredDomainVersion version : doomed.subList(0, VERSIONS / 2)) {
+            version.delete();
+            versions.remove(version);
+        }
+        StoredVersion[] remaining = domain.getVersions();
+        assertEquals(versions.size(), remaining.length);
+        for (int i = 0; i < remaining.length; i++) {
+            assertSame(versions.get(i), remaining[i]);
+        }
+        for (int v = 1; v <= VERSIONS; v++) {
+            StoredDomainVersion expected = null;
+            for (StoredDomainVersion version : versions) {
+                if (version.getVersionNumber() == v) {
+                    expected = version;
+                }
+            }
+            assertSame(expected, domain.getVersion(v));
+        }
+    }
+
+    @Test
+    public void testBlobFilesWaitForTheSecondSave() throws Exception {
+        File directory = this.folder.newFolder("repository"); //$NON-NLS-1$
+        this.repository = open(directory);
+        StoredDomainImpl domain = createDomain(this.repository);
+        for (int v = 1; v <= VERSIONS; v++) {
+            this.repository.createDomainVersion(domain, new Blob(image(v)), "version " + v, date(v)); //$NON-NLS-1$
+        }
+        this.repository.save(true);
+        assertEquals(VERSIONS, blobFiles(directory));
+
+        domain.getVersion(1).delete();
+        domain.getVersion(2).delete();
+        assertEquals(VERSIONS, blobFiles(directory));
+        this.repository.save(true);
+        // the last version of the repository file refers to them
+        assertEquals(VERSIONS, blobFiles(directory));
+        this.repository.save(true);
+        assertEquals(VERSIONS - 2, blobFiles(directory));
+        for (int v = 3; v <= VERSIONS; v++) {
+            assertArrayEquals(image(v), domain.getVersion(v).getBlob().getByteArray());
+        }
+    }
+
+    private static StoredVersion scan(Map<String, StoredVersion> versions, int number) {
+        // the lowest primary key among the versions with the number
+        String lowest = null;
+        for (Map.Entry<String, StoredVersion> entry : versions.entrySet()) {
+            if ((entry.getValue().getVersionNumber() == number)
+                    && ((lowest == null) || (entry.getKey().compareTo(lowest) < 0))) {
+                lowest = entry.getKey();
+            }
+        }
+        return((lowest == null) ? null : versions.get(lowest));
+    }
+
+    private static RepositoryImpl open(File directory) throws Exception {
+        Credential credential = new Credential();
+        credential.setProperty("RepositoryDirectory", directory.getPath()); //$NON-NLS-1$
+        RepositoryImpl repository = RepositoryImpl.getInstance(credential);
+        repository.startup();
+        return(repository);
+    }
+
+    private static StoredDomainImpl createDomain(RepositoryImpl repository) throws Exception {
+        StoredDevice device = repository.createDevice("7199-XI52-0", "HISTORY0", "device0", DeviceType.XI52, //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                ModelType.TYPE_7199, "host0", "admin", "admin", 5550, 9090, AMPConstants.AMP_V3_0); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        device.setFeatureLicenses(StringCollection.EMPTY);
+        return((StoredDomainImpl) repository.createDomain(device, "domain0")); //$NON-NLS-1$
+    }
+
+    private static int blobFiles(File directory) {
+        return(directory.list(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return(name.startsWith("Blob") && name.endsWith(".bin")); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+        }).length);
+    }
+
+    private static Date date(int minutes) {
+        return(new Date(1388534400000L + minutes * 60000L));
+    }
+
+    private static byte[] image(int version) {
+        return(("<config version=\"" + version + "\"/>").getBytes()); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    /*
+     * Only the version number matters to the history.
+     */
+    private static final class Version implements StoredVersion {
+        private final int versionNumber;
+
+        Version(int versionNumber) {
+            this.versionNumber = versionNumber;
+        }
+
+        public int getVersionNumber() {
+            return(this.versionNumber);
+        }
+
+        public String getPrimaryKey() {
+            return(null);
+        }
+
+        public Object getVersionedObject() {
+            return(null);
+        }
+
+        public Date getTimestamp() {
+            return(null);
+        }
+
+        public String getUserComment() {
+            return(null);
+        }
+
+        public void setUserComment(String comment) {
+        }
+
+        public Blob getBlob() {
+            return(null);
+        }
+
+        public void delete() {
+        }
+    }
+}
@@ -0,0 +1,351 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.simulator;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.xmlbeans.impl.util.Base64;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import com.ibm.datapower.amt.amp.AMPConstants;
+
+/**
+ * Build the answer of a {@link SimulatedDevice} to one AMP request. The three
+ * AMP versions share the element names of the operations simulated here and
+ * differ only in the namespace and a few optional elements, so one responder
+ * answers all of them in the namespace of the request. The answer is the
+ * response element, which is what the real SOAPHelpers return once they have
+ * taken off the SOAP envelope.
+ * <p>
+ * The operations answered are the ones the Manager uses to manage a device:
+ * Subscribe, Unsubscribe, Ping, GetDeviceInfo, Reboot, GetDomainList,
+ * GetDomainStatus, GetDomainExport (GetDomainConfig in AMP 1.0),
+ * SetDomainExport (SetDomainConfig in AMP 1.0), DeleteDomain, Start-, Stop-
+ * and RestartDomain, SetFirmware and CompareConfig, and in AMP 3.0 the
+ * GetInterDependentServices request of a service deployment.
+ */
+class AMPResponder {
+
+    static final String AMP_NAMESPACE_PREFIX = "http://www.datapower.com/schemas/appliance/management/"; //$NON-NLS-1$
+
+    private static final String STATUS_OK = "ok"; //$NON-NLS-1$
+    private static final String STATUS_ERROR = "error"; //$NON-NLS-1$
+
+    private AMPResponder() {
+        // static methods only
+    }
+
+    /**
+     * @param device the device that answers
+     * @param request the request element
+     * @param error true to answer an error status where the response has one
+     * @param firmwareLength the length of the base64 firmware image that was
+     *        streamed separately from the request, or -1 if it is inside the
+     *        request
+     * @return the response element, or null if the operation is not simulated
+     */
+    static Element respond(SimulatedDevice device, Element request, boolean error, long firmwareLength) {
+        String namespace = request.getNamespaceURI();
+        String version = namespace.substring(AMP_NAMESPACE_PREFIX.length());
+        String operation = operationOf(request);
+        Document document = ApplianceSimulator.newDocument();
+        Element response = document.createElementNS(namespace, "amp:" + operation + "Response"); //$NON-NLS-1$ //$NON-NLS-2$
+        document.appendChild(response);
+
+        if (operation.equals("Subscribe")) { //$NON-NLS-1$
+            Element subscription = child(request, "Subscription"); //$NON-NLS-1$
+            String existing = device.subscribe(subscription.getAttribute("id"), text(child(subscription, "URL"))); //$NON-NLS-1$ //$NON-NLS-2$
+            Element state = add(response, "SubscriptionState", (existing == null) ? "active" : "duplicate"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            if (existing != null) {
+                state.setAttribute("URL", existing); //$NON-NLS-1$
+            }
+        } else if (operation.equals("Unsubscribe")) { //$NON-NLS-1$
+            Element subscription = child(request, "Subscription"); //$NON-NLS-1$
+            device.unsubscribe(subscription.getAttribute("id")); //$NON-NLS-1$
+            add(response, "SubscriptionState", "none"); //$NON-NLS-1$ //$NON-NLS-2$
+        } else if (operation.equals("Ping")) { //$NON-NLS-1$
+            String id = text(child(request, "SubscriptionID")); //$NON-NLS-1$
+            boolean active = (id != null) && id.equals(device.getSubscriptionId());
+            add(response, "SubscriptionState", active ? "active" : "none"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        } else if (operation.equals("GetDeviceInfo")) { //$NON-NLS-1$
+            addDeviceInfo(device, response, version);
+        } else if (operation.equals("Reboot")) { //$NON-NLS-1$
+            add(response, "Status", error ? STATUS_ERROR : STATUS_OK); //$NON-NLS-1$
+        } else if (operation.equals("GetDomainList")) { //$NON-NLS-1$
+            for (String name : device.getDomainNames()) {
+                add(response, "Domain", name); //$NON-NLS-1$
+            }
+        } else if (operation.equals("GetDomainStatus")) { //$NON-NLS-1$
+            SimulatedDevice.Domain domain = device.getDomain(text(child(request, "Domain"))); //$NON-NLS-1$
+            if (error || (domain == null)) {
+                add(response, "Status", STATUS_ERROR); //$NON-NLS-1$
+            } else {
+                addDomainStatus(response, text(child(request, "Domain")), domain, version); //$NON-NLS-1$
+            }
+        } else if (operation.equals("GetDomainExport") || operation.equals("GetDomainConfig")) { //$NON-NLS-1$ //$NON-NLS-2$
+            String name = text(child(request, "Domain")); //$NON-NLS-1$
+            SimulatedDevice.Domain domain = device.getDomain(name);
+            String config = (domain == null) ? null : domain.getConfig();
+            if (error || (config == null)) {
+                add(response, "Status", STATUS_ERROR); //$NON-NLS-1$
+            } else {
+                add(response, "Config", config).setAttribute("domain", name); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+        } else if (operation.equals("SetDomainExport") || operation.equals("SetDomainConfig")) { //$NON-NLS-1$ //$NON-NLS-2$
+            Element config = child(request, "Config"); //$NON-NLS-1$
+            if (error || (config == null)) {
+                add(response, "Status", STATUS_ERROR); //$NON-NLS-1$
+            } else {
+                SimulatedDevice.Domain domain = device.getOrCreateDomain(config.getAttribute("domain")); //$NON-NLS-1$
+                synchronized (domain) {
+                    domain.config = text(config);
+                    domain.savedConfig = domain.config;
+                    domain.up = true;
+                }
+                add(response, "Status", STATUS_OK); //$NON-NLS-1$
+            }
+        } else if (operation.equals("DeleteDomain")) { //$NON-NLS-1$
+            String name = text(child(request, "Domain")); //$NON-NLS-1$
+            boolean deleted = !error && !SimulatedDevice.DEFAULT_DOMAIN.equals(name) && (device.removeDomain(name) != null);
+            add(response, "Status", deleted ? STATUS_OK : STATUS_ERROR); //$NON-NLS-1$
+        } else if (operation.equals("StartDomain") || operation.equals("StopDomain") || //$NON-NLS-1$ //$NON-NLS-2$
+                operation.equals("RestartDomain")) { //$NON-NLS-1$
+            SimulatedDevice.Domain domain = device.getDomain(text(child(request, "Domain"))); //$NON-NLS-1$
+            if (error || (domain == null)) {
+                add(response, "Status", STATUS_ERROR); //$NON-NLS-1$
+            } else {
+                synchronized (domain) {
+                    domain.up = !operation.equals("StopDomain"); //$NON-NLS-1$
+                    domain.enabled = domain.up;
+                }
+                add(response, "Status", STATUS_OK); //$NON-NLS-1$
+            }
+        } else if (operation.equals("SetFirmware")) { //$NON-NLS-1$
+            if (error) {
+                add(response, "Status", STATUS_ERROR); //$NON-NLS-1$
+            } else {
+                String image = text(child(request, "Firmware")); //$NON-NLS-1$
+                device.firmwareReceived((firmwareLength >= 0) ? firmwareLength : image.length());
+                add(response, "Status", STATUS_OK); //$NON-NLS-1$
+            }
+        } else if (operation.equals("CompareConfig")) { //$NON-NLS-1$
+            Element compare = child(request, "CompareConfig"); //$NON-NLS-1$
+            String name = compare.getAttribute("domain"); //$NON-NLS-1$
+            String from = text(child(child(compare, "From"), "Config")); //$NON-NLS-1$ //$NON-NLS-2$
+            Element to = child(compare, "To"); //$NON-NLS-1$
+            String other;
+            if (child(to, "Config") != null) { //$NON-NLS-1$
+                other = text(child(to, "Config")); //$NON-NLS-1$
+            } else {
+                SimulatedDevice.Domain domain = device.getDomain(name);
+                if (domain == null) {
+                    other = null;
+                } else {
+                    synchronized (domain) {
+                        other = domain.savedConfig;
+                    }
+                }
+            }
+            Element result = add(response, "CompareConfig", null); //$NON-NLS-1$
+            result.setAttribute("domain", name); //$NON-NLS-1$
+            add(result, "CompareResult", ((from != null) && from.equals(other)) ? "identical" : "different"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        } else if (operation.equals("GetInterDependentServices") && version.equals(AMPConstants.AMP_V3_0)) { //$NON-NLS-1$
+            Element config = child(request, "Config"); //$NON-NLS-1$
+            List<String[]> objects = (config == null) ? null : configObjects(text(config));
+            if (error || (objects == null)) {
+                add(response, "Status", STATUS_ERROR); //$NON-NLS-1$
+            } else {
+                addInterDependentServices(device, response, config.getAttribute("domain"), objects, //$NON-NLS-1$
+                        child(request, "Services")); //$NON-NLS-1$
+            }
+        } else {
+            return(null);
+        }
+        return(response);
+    }
+
+    /**
+     * @return the local name of the request element without the "Request"
+     *         suffix, which is how the calls are counted
+     */
+    static String operationOf(Element request) {
+        String name = request.getLocalName();
+        if (name.endsWith("Request")) { //$NON-NLS-1$
+            name = name.substring(0, name.length() - "Request".length()); //$NON-NLS-1$
+        }
+        return(name);
+    }
+
+    private static void addDeviceInfo(SimulatedDevice device, Element response, String version) {
+        add(response, "DeviceName", device.getHostname()); //$NON-NLS-1$
+        add(response, "DeviceSerialNo", device.getSerialNumber()); //$NON-NLS-1$
+        add(response, "DeviceID", device.getDeviceID()); //$NON-NLS-1$
+        add(response, "DeviceType", device.getDeviceType()); //$NON-NLS-1$
+        add(response, "FirmwareVersion", device.getDeviceType() + "." + device.getFirmwareLevel()); //$NON-NLS-1$ //$NON-NLS-2$
+        add(response, "FailureDetected", "false"); //$NON-NLS-1$ //$NON-NLS-2$
+        if (!version.equals(AMPConstants.AMP_V1_0)) {
+            add(response, "CurrentAMPVersion", device.getAMPVersion()); //$NON-NLS-1$
+        }
+        add(response, "ManagementInterface", Integer.toString(device.getWebGUIPort())).setAttribute("type", "web-mgmt"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        if (version.equals(AMPConstants.AMP_V3_0)) {
+            add(response, "SecureBackup", "disabled"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        add(response, "DeviceFeature", "MQ"); //$NON-NLS-1$ //$NON-NLS-2$
+        add(response, "DeviceFeature", "TAM"); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    /*
+     * Every object of the export that was asked for, or all of them if none
+     * was, is reported as a service that is up. The ones the domain on the
+     * device already has by the same class and name are reported as
+     * overwritten.
+     */
+    private static void addInterDependentServices(SimulatedDevice device, Element response, String domainName,
+            List<String[]> objects, Element requested) {
+        Set<String> selected = new HashSet<String>();
+        for (Node node = (requested == null) ? null : requested.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node.getNodeType() == Node.ELEMENT_NODE) {
+                Element object = (Element) node;
+                selected.add(object.getAttribute("class-name") + "/" + object.getAttribute("name")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            }
+        }
+        Set<String> existing = new HashSet<String>();
+        SimulatedDevice.Domain domain = device.getDomain(domainName);
+        List<String[]> current = (domain == null) ? null : configObjects(domain.getConfig());
+        if (current != null) {
+            for (String[] object : current) {
+                existing.add(object[0] + "/" + object[1]); //$NON-NLS-1$
+            }
+        }
+        Element services = add(response, "Services", null); //$NON-NLS-1$
+        Element overwritten = add(response, "ObjectsToBeOverwritten", null); //$NON-NLS-1$
+        for (String[] object : objects) {
+            String key = object[0] + "/" + object[1]; //$NON-NLS-1$
+            if (selected.isEmpty() || selected.contains(key)) {
+                Element service = addConfigObject(services, object);
+                add(service, "AdminState", "enabled"); //$NON-NLS-1$ //$NON-NLS-2$
+                add(service, "OpState", "up"); //$NON-NLS-1$ //$NON-NLS-2$
+                add(service, "ConfigState", "saved"); //$NON-NLS-1$ //$NON-NLS-2$
+                add(service, "QuiesceState", ""); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+            if (existing.contains(key)) {
+                addConfigObject(overwritten, object);
+            }
+        }
+        add(response, "FilesToBeOverwritten", null); //$NON-NLS-1$
+    }
+
+    private static Element addConfigObject(Element parent, String[] object) {
+        Element element = add(parent, "Object", null); //$NON-NLS-1$
+        element.setAttribute("class-name", object[0]); //$NON-NLS-1$
+        element.setAttribute("name", object[1]); //$NON-NLS-1$
+        element.setAttribute("class-display-name", object[0]); //$NON-NLS-1$
+        return(element);
+    }
+
+    /*
+     * The class and name of each object in the configuration element of an
+     * export, which may be base64 encoded. Null if it is not an export.
+     */
+    private static List<String[]> configObjects(String export) {
+        if (export == null) {
+            return(null);
+        }
+        String xml = export;
+        if (!xml.startsWith("<")) { //$NON-NLS-1$
+            try {
+                xml = new String(Base64.decode(export.getBytes("US-ASCII")), "UTF-8"); //$NON-NLS-1$ //$NON-NLS-2$
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        Element configuration;
+        try {
+            configuration = child(ApplianceSimulator.parse(xml), "configuration"); //$NON-NLS-1$
+        } catch (IOException e) {
+            return(null);
+        }
+        if (configuration == null) {
+            return(null);
+        }
+        List<String[]> objects = new ArrayList<String[]>();
+        for (Node node = configuration.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if (node.getNodeType() == Node.ELEMENT_NODE) {
+                objects.add(new String[] { node.getLocalName(), ((Element) node).getAttribute("name") }); //$NON-NLS-1$
+            }
+        }
+        return(objects);
+    }
+
+    private static void addDomainStatus(Element response, String name, SimulatedDevice.Domain domain, String version) {
+        Element status = add(response, "Domain", null); //$NON-NLS-1$
+        status.setAttribute("name", name); //$NON-NLS-1$
+        synchronized (domain) {
+            if (version.equals(AMPConstants.AMP_V3_0)) {
+                add(status, "AdminState", domain.enabled ? "enabled" : "disabled"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            }
+            add(status, "OpState", domain.up ? "up" : "down"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            boolean saved = (domain.config == null) ? (domain.savedConfig == null) : domain.config.equals(domain.savedConfig);
+            add(status, "ConfigState", saved ? "saved" : "modified"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            add(status, "DebugState", "false"); //$NON-NLS-1$ //$NON-NLS-2$
+            if (!version.equals(AMPConstants.AMP_V1_0)) {
+                add(status, "CurrentCommand", ""); //$NON-NLS-1$ //$NON-NLS-2$
+                add(status, "QuiesceState", ""); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+        }
+    }
+
+    /*
+     * Append a child in the namespace of the parent, with the text if it is
+     * not null.
+     */
+    private static Element add(Element parent, String localName, String text) {
+        Element element = parent.getOwnerDocument().createElementNS(parent.getNamespaceURI(), "amp:" + localName); //$NON-NLS-1$
+        if (text != null) {
+            element.appendChild(parent.getOwnerDocument().createTextNode(text));
+        }
+        parent.appendChild(element);
+        return(element);
+    }
+
+    /*
+     * The first child element with the local name, or null.
+     */
+    static Element child(Element parent, String localName) {
+        if (parent == null) {
+            return(null);
+        }
+        for (Node node = parent.getFirstChild(); node != null; node = node.getNextSibling()) {
+            if ((node.getNodeType() == Node.ELEMENT_NODE) && localName.equals(node.getLocalName())) {
+                return((Element) node);
+            }
+        }
+        return(null);
+    }
+
+    static String text(Element element) {
+        return((element == null) ? null : element.getTextContent().trim());
+    }
+}
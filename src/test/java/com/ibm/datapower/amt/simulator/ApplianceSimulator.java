@@ -0,0 +1,304 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.simulator;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.transform.TransformerException;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.apache.xmlbeans.impl.util.Base64;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import com.ibm.datapower.amt.Credential;
+import com.ibm.datapower.amt.DMgrException;
+import com.ibm.datapower.amt.clientAPI.Device;
+import com.ibm.datapower.amt.clientAPI.Manager;
+import com.ibm.datapower.amt.clientAPI.ProgressContainer;
+
+/**
+ * An in-process stand-in for a fleet of appliances. The simulated SOAPHelpers
+ * plug in where the Manager and the CommandsImpl classes load their
+ * SOAPHelper by name, so everything above the HTTPS transport runs as it does
+ * against real devices: the XMLBeans requests, the parsing of the answers, the
+ * heartbeats and the domain synchronization. The devices answer AMP 1.0, 2.0
+ * and 3.0 and the SOMA get-status request, each with its own latency and
+ * failure {@link DeviceProfile}, and push notifications to the
+ * NotificationCatcher.
+ * <p>
+ * To run a Manager against the simulator, add the devices here and call
+ * {@link #startManager(File)}, or pass {@link #getManagerOptions()} to
+ * {@link Manager#getInstance(Map)} together with the other options the
+ * Manager needs. {@link #createDevice(String)} adds a simulated device to
+ * the Manager. The hostnames need not resolve, nothing is sent over the
+ * network except the notifications.
+ * <p>
+ * The registry is static, since the SOAPHelpers are created by the factories
+ * with no arguments. Tests should call {@link #reset()} when they finish.
+ */
+public final class ApplianceSimulator {
+
+    /**
+     * The AMP port given to the devices created by
+     * {@link #addFleet(String, int, String, DeviceProfile)}.
+     */
+    public static final int DEFAULT_AMP_PORT = 5550;
+
+    private static final ConcurrentHashMap<String, SimulatedDevice> devices = new ConcurrentHashMap<String, SimulatedDevice>();
+
+    private static final ThreadLocal<DocumentBuilder> builders = new ThreadLocal<DocumentBuilder>() {
+        protected DocumentBuilder initialValue() {
+            DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+            factory.setNamespaceAware(true);
+            try {
+                return(factory.newDocumentBuilder());
+            } catch (ParserConfigurationException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    };
+
+    private ApplianceSimulator() {
+        // static methods only
+    }
+
+    /**
+     * Create a device and make it reachable at its hostname and AMP port.
+     *
+     * @param hostname the hostname the Manager uses for the device
+     * @param ampPort the AMP port the Manager uses for the device
+     * @param serialNumber the serial number the device reports
+     * @param ampVersion the AMP version the device speaks
+     * @return the new device
+     * @throws IllegalStateException if there is a device at that address
+     */
+    public static SimulatedDevice addDevice(String hostname, int ampPort, String serialNumber, String ampVersion) {
+        SimulatedDevice device = new SimulatedDevice(hostname, ampPort, serialNumber, ampVersion);
+        String key = key(hostname, ampPort);
+        if (devices.putIfAbsent(key, device) != null) {
+            throw new IllegalStateException("A simulated device is already at " + key); //$NON-NLS-1$
+        }
+        return(device);
+    }
+
+    /**
+     * Create <code>count</code> devices named <code>prefix-0</code>,
+     * <code>prefix-1</code> and so on, all at {@link #DEFAULT_AMP_PORT}, with
+     * serial numbers made from the same prefix.
+     *
+     * @param prefix the start of the hostnames and serial numbers
+     * @param count the number of devices
+     * @param ampVersion the AMP version the devices speak
+     * @param profile the profile of every device
+     * @return the devices in the order of their number
+     */
+    public static List<SimulatedDevice> addFleet(String prefix, int count, String ampVersion, DeviceProfile profile) {
+        List<SimulatedDevice> fleet = new ArrayList<SimulatedDevice>(count);
+        for (int i = 0; i < count; i++) {
+            SimulatedDevice device = addDevice(prefix + "-" + i, DEFAULT_AMP_PORT, //$NON-NLS-1$
+                    (prefix + i).toUpperCase(), ampVersion);
+            device.setProfile(profile);
+            fleet.add(device);
+        }
+        return(fleet);
+    }
+
+    /**
+     * @return the device at the address, or null if there is none, which the
+     *         SOAPHelpers report as an I/O failure
+     */
+    public static SimulatedDevice getDevice(String hostname, int ampPort) {
+        return(devices.get(key(hostname, ampPort)));
+    }
+
+    public static SimulatedDevice removeDevice(String hostname, int ampPort) {
+        return(devices.remove(key(hostname, ampPort)));
+    }
+
+    public static int getDeviceCount() {
+        return(devices.size());
+    }
+
+    /**
+     * Forget all the devices.
+     */
+    public static void reset() {
+        devices.clear();
+    }
+
+    /**
+     * @return the Manager options that load the simulated SOAPHelpers for
+     *         every AMP version and for SOMA. The default CommandsImpl classes
+     *         are kept.
+     */
+    public static Map<String, Object> getManagerOptions() {
+        Map<String, Object> options = new HashMap<String, Object>();
+        options.put(Manager.OPTION_SOAPHELPER_IMPL, SimulatedSOAPHelperV1.class.getName());
+        options.put(Manager.OPTION_SOAPHELPER_V2_IMPL, SimulatedSOAPHelperV2.class.getName());
+        options.put(Manager.OPTION_SOAPHELPER_V3_IMPL, SimulatedSOAPHelperV3.class.getName());
+        options.put(Manager.OPTION_SOAPHELPER_SOMA_IMPL, SimulatedSOMAHelper.class.getName());
+        return(options);
+    }
+
+    /**
+     * Start a Manager that runs against the simulator: the simulated
+     * SOAPHelpers, a repository in the directory, a NotificationCatcher
+     * without SSL on a free port, and no heartbeats, so that a test decides
+     * when the devices are called.
+     *
+     * @param repositoryDirectory the directory of the repository, which may
+     *        hold one an earlier Manager left behind
+     * @return the Manager, which the caller shuts down
+     */
+    public static Manager startManager(File repositoryDirectory) throws DMgrException {
+        Map<String, Object> options = getManagerOptions();
+        Credential credential = new Credential();
+        credential.setProperty("RepositoryDirectory", repositoryDirectory.getPath()); //$NON-NLS-1$
+        options.put(Manager.OPTION_CREDENTIAL, credential);
+        options.put(Manager.OPTION_NOTIFICATION_CATCHER_NO_SSL, "true"); //$NON-NLS-1$
+        options.put(Manager.OPTION_NOTIFICATION_CATCHER_PORT, "0"); //$NON-NLS-1$
+        options.put(Manager.OPTION_DEBUG_DISABLE_HEARTBEAT, Boolean.TRUE);
+        return(Manager.getInstance(options));
+    }
+
+    /**
+     * Add a simulated device to the running Manager under its hostname, at
+     * {@link #DEFAULT_AMP_PORT}, and wait until it is added.
+     *
+     * @param hostname the hostname of a device added here
+     * @return the Manager's device
+     * @throws Exception the Manager could not add the device
+     */
+    public static Device createDevice(String hostname) throws Exception {
+        ProgressContainer progress = Device.createDevice(hostname, hostname, "admin", "admin", //$NON-NLS-1$ //$NON-NLS-2$
+                DEFAULT_AMP_PORT);
+        progress.waitForEnd();
+        if (progress.hasError()) {
+            throw progress.getError();
+        }
+        return((Device) progress.getResult());
+    }
+
+    /**
+     * A domain configuration export that looks like one a device produces:
+     * the same domain and seed always give the same bytes, and a different
+     * seed gives a different configuration of about the same size.
+     *
+     * @param domainName the domain the export is for
+     * @param seed selects the objects and their settings
+     * @return the export, not encoded
+     */
+    public static byte[] syntheticConfig(String domainName, long seed) {
+        Random random = new Random(seed ^ domainName.hashCode());
+        StringBuilder config = new StringBuilder();
+        config.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"); //$NON-NLS-1$
+        config.append("<datapower-configuration version=\"3\">\n"); //$NON-NLS-1$
+        config.append("  <export-details><description>Simulated export</description>"); //$NON-NLS-1$
+        config.append("<domain>").append(escape(domainName)).append("</domain></export-details>\n"); //$NON-NLS-1$ //$NON-NLS-2$
+        config.append("  <configuration domain=\"").append(escape(domainName)).append("\">\n"); //$NON-NLS-1$ //$NON-NLS-2$
+        int objects = 8 + random.nextInt(8);
+        for (int i = 0; i < objects; i++) {
+            config.append("    <XMLFirewallService name=\"fw").append(i).append("\">"); //$NON-NLS-1$ //$NON-NLS-2$
+            config.append("<mAdminState>enabled</mAdminState>"); //$NON-NLS-1$
+            config.append("<LocalPort>").append(2000 + random.nextInt(6000)).append("</LocalPort>"); //$NON-NLS-1$ //$NON-NLS-2$
+            config.append("<RequestType>").append(random.nextBoolean() ? "soap" : "xml").append("</RequestType>"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+            config.append("<UserSummary>").append(Long.toHexString(random.nextLong())).append("</UserSummary>"); //$NON-NLS-1$ //$NON-NLS-2$
+            config.append("</XMLFirewallService>\n"); //$NON-NLS-1$
+        }
+        config.append("  </configuration>\n  <files/>\n</datapower-configuration>\n"); //$NON-NLS-1$
+        try {
+            return(config.toString().getBytes("UTF-8")); //$NON-NLS-1$
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String encode(byte[] bytes) {
+        try {
+            return(new String(Base64.encode(bytes), "US-ASCII")); //$NON-NLS-1$
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    static String escape(String text) {
+        StringBuilder escaped = new StringBuilder(text.length());
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+            case '&': escaped.append("&amp;"); break; //$NON-NLS-1$
+            case '<': escaped.append("&lt;"); break; //$NON-NLS-1$
+            case '>': escaped.append("&gt;"); break; //$NON-NLS-1$
+            case '"': escaped.append("&quot;"); break; //$NON-NLS-1$
+            default: escaped.append(c);
+            }
+        }
+        return(escaped.toString());
+    }
+
+    static Document newDocument() {
+        return(builders.get().newDocument());
+    }
+
+    static Element parse(String xml) throws IOException {
+        try {
+            return(builders.get().parse(new InputSource(new StringReader(xml))).getDocumentElement());
+        } catch (SAXException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /*
+     * The size of the response a device would have sent, for the command
+     * metrics.
+     */
+    static long length(Node node) {
+        try {
+            StringWriter writer = new StringWriter();
+            TransformerFactory.newInstance().newTransformer().transform(new DOMSource(node), new StreamResult(writer));
+            return(writer.toString().getBytes("UTF-8").length); //$NON-NLS-1$
+        } catch (TransformerException e) {
+            return(0);
+        } catch (UnsupportedEncodingException e) {
+            return(0);
+        }
+    }
+
+    private static String key(String hostname, int ampPort) {
+        return(hostname + ":" + ampPort); //$NON-NLS-1$
+    }
+}
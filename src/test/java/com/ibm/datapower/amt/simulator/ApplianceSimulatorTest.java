@@ -0,0 +1,430 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.simulator;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.ibm.datapower.amt.OperationStatus;
+import com.ibm.datapower.amt.StringCollection;
+import com.ibm.datapower.amt.amp.AMPConstants;
+import com.ibm.datapower.amt.amp.AMPIOException;
+import com.ibm.datapower.amt.amp.Commands;
+import com.ibm.datapower.amt.amp.DeviceContext;
+import com.ibm.datapower.amt.amp.DeviceExecutionException;
+import com.ibm.datapower.amt.amp.DeviceMetaInfo;
+import com.ibm.datapower.amt.amp.InvalidCredentialsException;
+import com.ibm.datapower.amt.amp.NotExistException;
+import com.ibm.datapower.amt.amp.Notification;
+import com.ibm.datapower.amt.amp.SubscriptionResponseCode;
+import com.ibm.datapower.amt.amp.SubscriptionState;
+import com.ibm.datapower.amt.soma.SOMACommands;
+import com.ibm.datapower.amt.soma.Status;
+
+/**
+ * Drive the real CommandsImpl of each AMP version, and the SOMACommandsImpl,
+ * against the {@link ApplianceSimulator}: the management operations across a
+ * fleet of a few hundred devices, the notifications to a subscriber, and the
+ * latency and failure profiles.
+ */
+public class ApplianceSimulatorTest {
+
+    private static final int FLEET_SIZE = 300;
+    private static final int TIMEOUT_MS = 10000;
+
+    private static final String V1_COMMANDS = "com.ibm.datapower.amt.amp.defaultProvider.CommandsImpl"; //$NON-NLS-1$
+    private static final String V2_COMMANDS = "com.ibm.datapower.amt.amp.defaultV2Provider.CommandsImpl"; //$NON-NLS-1$
+    private static final String V3_COMMANDS = "com.ibm.datapower.amt.amp.defaultV3Provider.CommandsImpl"; //$NON-NLS-1$
+    private static final String SOMA_COMMANDS = "com.ibm.datapower.amt.soma.defaultProvider.SOMACommandsImpl"; //$NON-NLS-1$
+
+    @After
+    public void tearDown() {
+        ApplianceSimulator.reset();
+    }
+
+    @Test
+    public void testV3Fleet() throws Exception {
+        final Commands commands = commands(V3_COMMANDS, SimulatedSOAPHelperV3.class);
+        List<SimulatedDevice> fleet = ApplianceSimulator.addFleet("sim3", FLEET_SIZE, AMPConstants.AMP_V3_0, //$NON-NLS-1$
+                new DeviceProfile(1, 2, 0.0, 0.0));
+        ExecutorService pool = Executors.newFixedThreadPool(32);
+        try {
+            List<Future<Void>> results = new ArrayList<Future<Void>>();
+            for (final SimulatedDevice device : fleet) {
+                results.add(pool.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        exercise(commands, device);
+                        return(null);
+                    }
+                }));
+            }
+            for (Future<Void> result : results) {
+                result.get(TIMEOUT_MS * 6, TimeUnit.MILLISECONDS);
+            }
+        } finally {
+            pool.shutdown();
+        }
+        for (SimulatedDevice device : fleet) {
+            assertEquals(device.toString(), 2, device.getCallCount("GetDeviceInfo")); //$NON-NLS-1$
+            assertEquals(device.toString(), 2, device.getCallCount("GetDomainExport")); //$NON-NLS-1$
+            assertEquals(device.toString(), 1, device.getCallCount("SetDomainExport")); //$NON-NLS-1$
+        }
+    }
+
+    @Test
+    public void testV2() throws Exception {
+        Commands commands = commands(V2_COMMANDS, SimulatedSOAPHelperV2.class);
+        for (SimulatedDevice device : ApplianceSimulator.addFleet("sim2", 5, AMPConstants.AMP_V2_0, DeviceProfile.IDEAL)) { //$NON-NLS-1$
+            exercise(commands, device);
+            assertEquals(1, device.getCallCount("SetDomainExport")); //$NON-NLS-1$
+        }
+    }
+
+    @Test
+    public void testV1() throws Exception {
+        Commands commands = commands(V1_COMMANDS, SimulatedSOAPHelperV1.class);
+        for (SimulatedDevice device : ApplianceSimulator.addFleet("sim1", 5, AMPConstants.AMP_V1_0, DeviceProfile.IDEAL)) { //$NON-NLS-1$
+            exercise(commands, device);
+            assertEquals(1, device.getCallCount("SetDomainConfig")); //$NON-NLS-1$
+        }
+    }
+
+    @Test
+    public void testSOMAStatus() throws Exception {
+        SOMACommands commands = com.ibm.datapower.amt.soma.SOMACommandFactory.getCommands(
+                SOMA_COMMANDS, SimulatedSOMAHelper.class.getName());
+        SimulatedDevice device = ApplianceSimulator.addDevice("soma", 5550, "SOMA1", AMPConstants.AMP_V3_0); //$NON-NLS-1$ //$NON-NLS-2$
+        device.putDomain("app", ApplianceSimulator.syntheticConfig("app", 1)); //$NON-NLS-1$ //$NON-NLS-2$
+        DeviceContext context = context(device);
+
+        Map<String, List<Status>> all = commands.getAllStatus(context, "app"); //$NON-NLS-1$
+        assertEquals(1, all.get(SimulatedSOMAHelper.CLASS_DOMAIN_STATUS).size());
+        assertEquals(3, all.get(SimulatedSOMAHelper.CLASS_OBJECT_STATUS).size());
+
+        device.setDomainUp("app", false); //$NON-NLS-1$
+        List<Status> objects = commands.getStatus(context, "app", SimulatedSOMAHelper.CLASS_OBJECT_STATUS); //$NON-NLS-1$
+        assertEquals(3, objects.size());
+        for (Status status : objects) {
+            assertEquals("down", status.getValue("OpState")); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        try {
+            commands.getStatus(context, "missing", SimulatedSOMAHelper.CLASS_OBJECT_STATUS); //$NON-NLS-1$
+            fail("status of a missing domain"); //$NON-NLS-1$
+        } catch (com.ibm.datapower.amt.soma.SOMAException expected) {
+            // answered with dp:result
+        }
+        assertEquals(3, device.getCallCount("get-status")); //$NON-NLS-1$
+    }
+
+    @Test
+    public void testNotifications() throws Exception {
+        Commands commands = commands(V3_COMMANDS, SimulatedSOAPHelperV3.class);
+        List<SimulatedDevice> fleet = ApplianceSimulator.addFleet("notify", 3, AMPConstants.AMP_V3_0, DeviceProfile.IDEAL); //$NON-NLS-1$
+        Catcher catcher = new Catcher();
+        try {
+            URL callback = new URL("http://127.0.0.1:" + catcher.serverSocket.getLocalPort() + "/"); //$NON-NLS-1$ //$NON-NLS-2$
+            StringCollection topics = new StringCollection();
+            topics.add("*"); //$NON-NLS-1$
+            for (SimulatedDevice device : fleet) {
+                assertFalse(device.pushNotification(SimulatedDevice.EVENT_TEST, "Domain", "default")); //$NON-NLS-1$ //$NON-NLS-2$
+                SubscriptionResponseCode code = commands.subscribeToDevice(context(device), "sub-" + device.getSerialNumber(), //$NON-NLS-1$
+                        topics, callback);
+                assertEquals(SubscriptionResponseCode.ACTIVE, code);
+            }
+            SimulatedDevice first = fleet.get(0);
+            assertEquals(SubscriptionState.ACTIVE, commands.pingDevice(context(first), "sub-" + first.getSerialNumber()).getSubscriptionState()); //$NON-NLS-1$
+            SubscriptionResponseCode duplicate = commands.subscribeToDevice(context(first), "other", topics, callback); //$NON-NLS-1$
+            assertTrue(duplicate.isDuplicate());
+
+            for (SimulatedDevice device : fleet) {
+                assertTrue(device.setDomainUp(SimulatedDevice.DEFAULT_DOMAIN, false));
+                assertTrue(device.changeDomainConfig(SimulatedDevice.DEFAULT_DOMAIN,
+                        ApplianceSimulator.syntheticConfig(SimulatedDevice.DEFAULT_DOMAIN, 7), true));
+            }
+            for (SimulatedDevice device : fleet) {
+                Notification down = catcher.take();
+                assertEquals(device.getSerialNumber(), down.getDeviceSerialNumber());
+                assertTrue(down.isOpStateChangeDown());
+                assertEquals(SimulatedDevice.DEFAULT_DOMAIN, down.getObjectName());
+                Notification saved = catcher.take();
+                assertEquals(device.getSerialNumber(), saved.getDeviceSerialNumber());
+                assertTrue(saved.isSaveConfigOfSettings());
+                assertEquals(down.getSequenceNumber() + 1, saved.getSequenceNumber());
+                assertEquals("127.0.0.1", saved.getClientIPAddress()); //$NON-NLS-1$
+            }
+
+            commands.unsubscribeFromDevice(context(first), "sub-" + first.getSerialNumber(), topics); //$NON-NLS-1$
+            assertEquals(SubscriptionState.NONE, commands.pingDevice(context(first), "sub-" + first.getSerialNumber()).getSubscriptionState()); //$NON-NLS-1$
+            assertFalse(first.pushNotification(SimulatedDevice.EVENT_TEST, "Domain", "default")); //$NON-NLS-1$ //$NON-NLS-2$
+        } finally {
+            catcher.close();
+        }
+    }
+
+    @Test
+    public void testLatency() throws Exception {
+        Commands commands = commands(V3_COMMANDS, SimulatedSOAPHelperV3.class);
+        SimulatedDevice device = ApplianceSimulator.addDevice("slow", 5550, "SLOW1", AMPConstants.AMP_V3_0); //$NON-NLS-1$ //$NON-NLS-2$
+        device.setProfile(new DeviceProfile(30, 20, 0.0, 0.0));
+        for (int i = 0; i < 5; i++) {
+            long start = System.nanoTime();
+            commands.getDomainList(context(device));
+            long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            assertTrue("call took " + elapsedMillis + "ms", elapsedMillis >= 30); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+    }
+
+    @Test
+    public void testFailures() throws Exception {
+        Commands commands = commands(V3_COMMANDS, SimulatedSOAPHelperV3.class);
+        SimulatedDevice device = ApplianceSimulator.addDevice("flaky", 5550, "FLAKY1", AMPConstants.AMP_V3_0); //$NON-NLS-1$ //$NON-NLS-2$
+        DeviceContext context = context(device);
+
+        device.setProfile(new DeviceProfile(0, 0, 1.0, 0.0));
+        try {
+            commands.getDomainList(context);
+            fail("I/O failure expected"); //$NON-NLS-1$
+        } catch (AMPIOException expected) {
+            // profile
+        }
+
+        device.setProfile(new DeviceProfile(0, 0, 0.0, 1.0));
+        try {
+            commands.getDomainStatus(context, SimulatedDevice.DEFAULT_DOMAIN);
+            fail("error status expected"); //$NON-NLS-1$
+        } catch (NotExistException expected) {
+            // an error status is how a device reports a missing domain
+        }
+        try {
+            commands.setDomain(context, "app", encoded("app", 1), null); //$NON-NLS-1$ //$NON-NLS-2$
+            fail("error status expected"); //$NON-NLS-1$
+        } catch (DeviceExecutionException expected) {
+            // profile
+        }
+
+        device.setProfile(DeviceProfile.IDEAL);
+        try {
+            commands.getDomainList(new DeviceContext(device.getHostname(), device.getAMPPort(), "admin", "wrong")); //$NON-NLS-1$ //$NON-NLS-2$
+            fail("invalid credentials expected"); //$NON-NLS-1$
+        } catch (InvalidCredentialsException expected) {
+            // wrong password
+        }
+
+        device.setReachable(false);
+        try {
+            commands.getDomainList(context);
+            fail("I/O failure expected"); //$NON-NLS-1$
+        } catch (AMPIOException expected) {
+            // powered off
+        }
+        device.setReachable(true);
+        assertEquals(1, commands.getDomainList(context).length);
+        assertEquals(4, device.getCallCount("GetDomainList")); //$NON-NLS-1$
+    }
+
+    @Test
+    public void testFailureRateIsRepeatable() throws Exception {
+        Commands commands = commands(V3_COMMANDS, SimulatedSOAPHelperV3.class);
+        DeviceProfile profile = new DeviceProfile(0, 0, 0.25, 0.0);
+        // the same serial number seeds the same draws
+        SimulatedDevice one = ApplianceSimulator.addDevice("one", 5550, "REPEAT", AMPConstants.AMP_V3_0); //$NON-NLS-1$ //$NON-NLS-2$
+        SimulatedDevice two = ApplianceSimulator.addDevice("two", 5550, "REPEAT", AMPConstants.AMP_V3_0); //$NON-NLS-1$ //$NON-NLS-2$
+        one.setProfile(profile);
+        two.setProfile(profile);
+        boolean[] first = pings(commands, one, 1000);
+        boolean[] second = pings(commands, two, 1000);
+        assertTrue(Arrays.equals(first, second));
+        int failures = 0;
+        for (boolean failed : first) {
+            failures += failed ? 1 : 0;
+        }
+        assertTrue("failures " + failures, (failures > 150) && (failures < 350)); //$NON-NLS-1$
+    }
+
+    /*
+     * The operations the Manager uses to manage a device, checked against the
+     * state of the simulated device.
+     */
+    private static void exercise(Commands commands, SimulatedDevice device) throws Exception {
+        DeviceContext context = context(device);
+        assertEquals(SubscriptionState.NONE, commands.pingDevice(context, "none").getSubscriptionState()); //$NON-NLS-1$
+
+        DeviceMetaInfo info = commands.getDeviceMetaInfo(context);
+        assertEquals(device.getSerialNumber(), info.getSerialNumber());
+        assertEquals(device.getFirmwareLevel(), info.getFirmwareLevel());
+        assertEquals(device.getWebGUIPort(), info.getWebGUIPort());
+
+        assertArrayEquals(new String[] { SimulatedDevice.DEFAULT_DOMAIN }, commands.getDomainList(context));
+
+        byte[] image = encoded("app", 1); //$NON-NLS-1$
+        commands.setDomain(context, "app", image, null); //$NON-NLS-1$
+        assertArrayEquals(new String[] { SimulatedDevice.DEFAULT_DOMAIN, "app" }, commands.getDomainList(context)); //$NON-NLS-1$
+        assertArrayEquals(image, commands.getDomain(context, "app")); //$NON-NLS-1$
+        assertEquals(OperationStatus.Enumerated.UP,
+                commands.getDomainStatus(context, "app").getOperationStatus().getEnumerated()); //$NON-NLS-1$
+        try {
+            commands.getDomain(context, "missing"); //$NON-NLS-1$
+            fail("getDomain of a missing domain"); //$NON-NLS-1$
+        } catch (DeviceExecutionException expected) {
+            // error status
+        }
+
+        assertFalse(commands.isDomainDifferent("app", image, null, context)); //$NON-NLS-1$
+        assertTrue(commands.isDomainDifferent("app", encoded("app", 2), null, context)); //$NON-NLS-1$ //$NON-NLS-2$
+        assertFalse(commands.isDomainDifferent("app", encoded("app", 2), encoded("app", 2), context)); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+        device.setNextFirmwareLevel("6.0.1.0"); //$NON-NLS-1$
+        commands.setFirmware(context, ApplianceSimulator.encode(new byte[4096]).getBytes("US-ASCII")); //$NON-NLS-1$
+        assertEquals("6.0.1.0", commands.getDeviceMetaInfo(context).getFirmwareLevel()); //$NON-NLS-1$
+        assertTrue(device.getFirmwareBytesReceived() > 0);
+    }
+
+    private static boolean[] pings(Commands commands, SimulatedDevice device, int count) throws Exception {
+        boolean[] failed = new boolean[count];
+        for (int i = 0; i < count; i++) {
+            try {
+                commands.pingDevice(context(device), "none"); //$NON-NLS-1$
+            } catch (AMPIOException e) {
+                failed[i] = true;
+            }
+        }
+        return(failed);
+    }
+
+    private static Commands commands(String commandsClass, Class<?> soapHelperClass) throws Exception {
+        return(com.ibm.datapower.amt.amp.CommandFactory.getCommands(commandsClass, soapHelperClass.getName()));
+    }
+
+    private static DeviceContext context(SimulatedDevice device) {
+        return(new DeviceContext(device.getHostname(), device.getAMPPort(), "admin", "admin")); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+
+    private static byte[] encoded(String domainName, long seed) throws IOException {
+        return(ApplianceSimulator.encode(ApplianceSimulator.syntheticConfig(domainName, seed)).getBytes("US-ASCII")); //$NON-NLS-1$
+    }
+
+    /**
+     * Reads the notifications the way the NotificationCatcher does: one POST
+     * per connection, answered with HTTP/1.0 200 and closed.
+     */
+    private static class Catcher implements Runnable {
+        final ServerSocket serverSocket;
+        final BlockingQueue<Notification> received = new LinkedBlockingQueue<Notification>();
+
+        Catcher() throws IOException {
+            this.serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1")); //$NON-NLS-1$
+            Thread thread = new Thread(this, "ApplianceSimulatorTest catcher"); //$NON-NLS-1$
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        public void run() {
+            while (!this.serverSocket.isClosed()) {
+                try {
+                    Socket socket = this.serverSocket.accept();
+                    try {
+                        this.serve(socket);
+                    } finally {
+                        socket.close();
+                    }
+                } catch (IOException e) {
+                    // closed by the test
+                }
+            }
+        }
+
+        private void serve(Socket socket) throws IOException {
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            String line = readLine(in);
+            assertNotNull(line);
+            assertTrue(line, line.startsWith("POST ")); //$NON-NLS-1$
+            int contentLength = 0;
+            while (((line = readLine(in)) != null) && (line.length() > 0)) {
+                if (line.toLowerCase().startsWith("content-length:")) { //$NON-NLS-1$
+                    contentLength = Integer.parseInt(line.substring(line.indexOf(':') + 1).trim());
+                }
+            }
+            byte[] body = new byte[contentLength];
+            int read = 0;
+            while (read < contentLength) {
+                int count = in.read(body, read, contentLength - read);
+                if (count < 0) {
+                    throw new IOException("short body"); //$NON-NLS-1$
+                }
+                read += count;
+            }
+            this.received.add(new Notification(new BufferedReader(new StringReader(new String(body, "UTF-8"))))); //$NON-NLS-1$
+            OutputStream out = socket.getOutputStream();
+            out.write("HTTP/1.0 200 OK\r\nContent-Length: 0\r\n\r\n".getBytes("ISO-8859-1")); //$NON-NLS-1$ //$NON-NLS-2$
+            out.flush();
+        }
+
+        private static String readLine(InputStream in) throws IOException {
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int c;
+            while ((c = in.read()) >= 0) {
+                if (c == '\n') {
+                    String result = line.toString("ISO-8859-1"); //$NON-NLS-1$
+                    return(result.endsWith("\r") ? result.substring(0, result.length() - 1) : result); //$NON-NLS-1$
+                }
+                line.write(c);
+            }
+            return(null);
+        }
+
+        Notification take() throws InterruptedException {
+            Notification notification = this.received.poll(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            assertNotNull("notification", notification); //$NON-NLS-1$
+            return(notification);
+        }
+
+        void close() throws IOException {
+            this.serverSocket.close();
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.simulator;
+
+import java.util.Random;
+
+/**
+ * How a {@link SimulatedDevice} answers: how long each call takes, and how
+ * often it fails. A profile holds no state of its own, so one profile can be
+ * shared by a whole fleet; the random draws come from the seeded Random of
+ * each device, which keeps a run repeatable.
+ * <p>
+ * A call is delayed by <code>latencyMillis</code> plus a uniform draw of up
+ * to <code>jitterMillis</code>. It then fails as if the connection was lost
+ * with probability <code>ioFailureRate</code>, or, for the operations whose
+ * response can carry a status, answers <code>error</code> with probability
+ * <code>errorRate</code>.
+ */
+public class DeviceProfile {
+
+    /**
+     * Answer at once and never fail.
+     */
+    public static final DeviceProfile IDEAL = new DeviceProfile(0, 0, 0.0, 0.0);
+
+    private final long latencyMillis;
+    private final long jitterMillis;
+    private final double ioFailureRate;
+    private final double errorRate;
+
+    /**
+     * @param latencyMillis the least time a call takes
+     * @param jitterMillis the most time added to <code>latencyMillis</code>
+     * @param ioFailureRate the fraction of calls that fail with an I/O error,
+     *        between 0 and 1
+     * @param errorRate the fraction of calls that answer an error status,
+     *        between 0 and 1
+     */
+    public DeviceProfile(long latencyMillis, long jitterMillis, double ioFailureRate, double errorRate) {
+        if ((latencyMillis < 0) || (jitterMillis < 0)) {
+            throw new IllegalArgumentException("negative latency"); //$NON-NLS-1$
+        }
+        if ((ioFailureRate < 0.0) || (ioFailureRate > 1.0) || (errorRate < 0.0) || (errorRate > 1.0)) {
+            throw new IllegalArgumentException("rate outside 0..1"); //$NON-NLS-1$
+        }
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+        this.ioFailureRate = ioFailureRate;
+        this.errorRate = errorRate;
+    }
+
+    public long getLatencyMillis() {
+        return(this.latencyMillis);
+    }
+
+    public long getJitterMillis() {
+        return(this.jitterMillis);
+    }
+
+    public double getIOFailureRate() {
+        return(this.ioFailureRate);
+    }
+
+    public double getErrorRate() {
+        return(this.errorRate);
+    }
+
+    /*
+     * The draws for one call. The caller holds the lock on the Random.
+     */
+    long nextDelay(Random random) {
+        if (this.jitterMillis == 0) {
+            return(this.latencyMillis);
+        }
+        return(this.latencyMillis + (long) (random.nextDouble() * (this.jitterMillis + 1)));
+    }
+
+    boolean nextIOFailure(Random random) {
+        return((this.ioFailureRate > 0.0) && (random.nextDouble() < this.ioFailureRate));
+    }
+
+    boolean nextError(Random random) {
+        return((this.errorRate > 0.0) && (random.nextDouble() < this.errorRate));
+    }
+
+    public String toString() {
+        return("DeviceProfile[latency=" + this.latencyMillis + "+" + this.jitterMillis + //$NON-NLS-1$ //$NON-NLS-2$
+                "ms, ioFailureRate=" + this.ioFailureRate + ", errorRate=" + this.errorRate + "]"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    }
+}
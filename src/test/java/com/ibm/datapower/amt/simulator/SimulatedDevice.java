@@ -0,0 +1,527 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.simulator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.net.ssl.HostnameVerifier;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.X509TrustManager;
+
+/**
+ * The state of one simulated appliance: its identity, its domains, the
+ * subscription the Manager made, and a count of the calls made to it. The
+ * simulated SOAPHelpers find the device by the hostname and AMP port of the
+ * DeviceContext in the {@link ApplianceSimulator} registry, and the
+ * {@link AMPResponder} reads and changes the state below while it builds the
+ * answer. A device holds no threads or sockets, so hundreds of them fit in one
+ * JVM.
+ * <p>
+ * When the Manager has subscribed, {@link #pushNotification(String, String, String)}
+ * posts a Common Base Event to the callback URL the way an appliance does, so
+ * it arrives at the NotificationCatcher.
+ */
+public class SimulatedDevice {
+
+    public static final String EVENT_FIRMWARE_CHANGE = "0x8100006c"; //$NON-NLS-1$
+    public static final String EVENT_OP_STATE_DOWN = "0x8100006a"; //$NON-NLS-1$
+    public static final String EVENT_OP_STATE_UP = "0x8100006b"; //$NON-NLS-1$
+    public static final String EVENT_BOOT_SCHEDULED = "0x80400003"; //$NON-NLS-1$
+    public static final String EVENT_CONFIG_SAVED = "0x81000040"; //$NON-NLS-1$
+    public static final String EVENT_CONFIG_MODIFIED = "0x8100003f"; //$NON-NLS-1$
+    public static final String EVENT_TEST = "0x54455354"; //$NON-NLS-1$
+
+    public static final String DEFAULT_DOMAIN = "default"; //$NON-NLS-1$
+
+    private static final int PUSH_TIMEOUT_MS = 10000;
+
+    /*
+     * What happens to one call, drawn from the profile before the answer is
+     * built.
+     */
+    enum Outcome { OK, IO_FAILURE, AUTH_FAILURE, ERROR }
+
+    /**
+     * One domain on the device. The configuration is kept as the base64 text
+     * the Manager sent, which is also what it expects back.
+     */
+    public static class Domain {
+        String config;
+        String savedConfig;
+        boolean up = true;
+        boolean enabled = true;
+
+        Domain(String config) {
+            this.config = config;
+            this.savedConfig = config;
+        }
+
+        public synchronized String getConfig() {
+            return(this.config);
+        }
+
+        public synchronized boolean isUp() {
+            return(this.up);
+        }
+
+        public synchronized boolean isEnabled() {
+            return(this.enabled);
+        }
+
+        public synchronized boolean isSaved() {
+            return((this.config == null) ? (this.savedConfig == null) : this.config.equals(this.savedConfig));
+        }
+    }
+
+    private final String hostname;
+    private final int ampPort;
+    private final String serialNumber;
+    private volatile String ampVersion;
+    private final Random random;
+    private volatile DeviceProfile profile = DeviceProfile.IDEAL;
+    private volatile boolean reachable = true;
+
+    private String deviceType = "XI52"; //$NON-NLS-1$
+    private String deviceID = "7199-XI52-8XX"; //$NON-NLS-1$
+    private String firmwareLevel = "5.0.0.0"; //$NON-NLS-1$
+    private String nextFirmwareLevel = null;
+    private int webGUIPort = 9090;
+    private String userid = "admin"; //$NON-NLS-1$
+    private String password = "admin"; //$NON-NLS-1$
+    private final Map<String, Domain> domains = new LinkedHashMap<String, Domain>();
+
+    private String subscriptionId = null;
+    private String callbackURL = null;
+    private final AtomicInteger sequenceNumber = new AtomicInteger();
+    private long firmwareBytesReceived = 0;
+
+    private final ConcurrentHashMap<String, AtomicInteger> calls = new ConcurrentHashMap<String, AtomicInteger>();
+
+    /**
+     * Create a device with only the default domain. Use
+     * {@link ApplianceSimulator#addDevice(String, int, String, String)} to make
+     * it reachable.
+     *
+     * @param hostname the hostname the Manager uses for the device
+     * @param ampPort the AMP port the Manager uses for the device
+     * @param serialNumber the serial number the device reports
+     * @param ampVersion the AMP version the device speaks, one of the
+     *        AMPConstants versions
+     */
+    public SimulatedDevice(String hostname, int ampPort, String serialNumber, String ampVersion) {
+        this.hostname = hostname;
+        this.ampPort = ampPort;
+        this.serialNumber = serialNumber;
+        this.ampVersion = ampVersion;
+        this.random = new Random(serialNumber.hashCode());
+        this.domains.put(DEFAULT_DOMAIN, new Domain(ApplianceSimulator.encode(
+                ApplianceSimulator.syntheticConfig(DEFAULT_DOMAIN, 0))));
+    }
+
+    public String getHostname() {
+        return(this.hostname);
+    }
+
+    public int getAMPPort() {
+        return(this.ampPort);
+    }
+
+    public String getSerialNumber() {
+        return(this.serialNumber);
+    }
+
+    public String getAMPVersion() {
+        return(this.ampVersion);
+    }
+
+    /**
+     * @param ampVersion the AMP version the device reports from now on, as
+     *        after a firmware change. The requests are still answered in the
+     *        namespace they were sent in.
+     */
+    public void setAMPVersion(String ampVersion) {
+        this.ampVersion = ampVersion;
+    }
+
+    public DeviceProfile getProfile() {
+        return(this.profile);
+    }
+
+    public void setProfile(DeviceProfile profile) {
+        this.profile = profile;
+    }
+
+    public boolean isReachable() {
+        return(this.reachable);
+    }
+
+    /**
+     * @param reachable false to fail every call as if the device was powered
+     *        off, without waiting for the profile latency
+     */
+    public void setReachable(boolean reachable) {
+        this.reachable = reachable;
+    }
+
+    public synchronized void setCredentials(String userid, String password) {
+        this.userid = userid;
+        this.password = password;
+    }
+
+    public synchronized void setModel(String deviceType, String deviceID) {
+        this.deviceType = deviceType;
+        this.deviceID = deviceID;
+    }
+
+    public synchronized String getDeviceType() {
+        return(this.deviceType);
+    }
+
+    public synchronized String getDeviceID() {
+        return(this.deviceID);
+    }
+
+    public synchronized String getFirmwareLevel() {
+        return(this.firmwareLevel);
+    }
+
+    public synchronized void setFirmwareLevel(String firmwareLevel) {
+        this.firmwareLevel = firmwareLevel;
+    }
+
+    /**
+     * @param nextFirmwareLevel the level the device reports after the next
+     *        firmware upload, or null to keep the current level
+     */
+    public synchronized void setNextFirmwareLevel(String nextFirmwareLevel) {
+        this.nextFirmwareLevel = nextFirmwareLevel;
+    }
+
+    public synchronized long getFirmwareBytesReceived() {
+        return(this.firmwareBytesReceived);
+    }
+
+    public synchronized int getWebGUIPort() {
+        return(this.webGUIPort);
+    }
+
+    /**
+     * Add a domain, or replace the configuration of an existing one.
+     *
+     * @param name the domain name
+     * @param config the configuration export, it is base64 encoded here
+     */
+    public synchronized void putDomain(String name, byte[] config) {
+        this.domains.put(name, new Domain(ApplianceSimulator.encode(config)));
+    }
+
+    public synchronized Domain getDomain(String name) {
+        return(this.domains.get(name));
+    }
+
+    public synchronized String[] getDomainNames() {
+        return(this.domains.keySet().toArray(new String[this.domains.size()]));
+    }
+
+    synchronized Domain removeDomain(String name) {
+        return(this.domains.remove(name));
+    }
+
+    synchronized Domain getOrCreateDomain(String name) {
+        Domain domain = this.domains.get(name);
+        if (domain == null) {
+            domain = new Domain(null);
+            this.domains.put(name, domain);
+        }
+        return(domain);
+    }
+
+    public synchronized String getSubscriptionId() {
+        return(this.subscriptionId);
+    }
+
+    public synchronized String getCallbackURL() {
+        return(this.callbackURL);
+    }
+
+    /*
+     * Record a subscription. Returns the URL of a different subscription that
+     * is already there, or null if this one was taken.
+     */
+    synchronized String subscribe(String id, String url) {
+        if ((this.subscriptionId != null) && !this.subscriptionId.equals(id)) {
+            return(this.callbackURL);
+        }
+        this.subscriptionId = id;
+        this.callbackURL = url;
+        return(null);
+    }
+
+    synchronized boolean unsubscribe(String id) {
+        if ((this.subscriptionId == null) || !this.subscriptionId.equals(id)) {
+            return(false);
+        }
+        this.subscriptionId = null;
+        this.callbackURL = null;
+        return(true);
+    }
+
+    synchronized void firmwareReceived(long base64Length) {
+        this.firmwareBytesReceived += base64Length;
+        if (this.nextFirmwareLevel != null) {
+            this.firmwareLevel = this.nextFirmwareLevel;
+            this.nextFirmwareLevel = null;
+        }
+    }
+
+    /**
+     * @param operation the request element name without the "Request"
+     *        suffix, such as "GetDomainStatus", or "get-status" for SOMA
+     * @return the number of calls made for the operation, including the
+     *         ones that failed
+     */
+    public int getCallCount(String operation) {
+        AtomicInteger count = this.calls.get(operation);
+        return((count == null) ? 0 : count.get());
+    }
+
+    /**
+     * @return the number of calls made to this device, including the ones
+     *         that failed
+     */
+    public int getCallCount() {
+        int total = 0;
+        for (AtomicInteger count : this.calls.values()) {
+            total += count.get();
+        }
+        return(total);
+    }
+
+    public void resetCallCounts() {
+        this.calls.clear();
+    }
+
+    /*
+     * Count the call, wait out the latency and decide how it ends.
+     */
+    Outcome enter(String operation, String userid, String password) {
+        AtomicInteger count = this.calls.get(operation);
+        if (count == null) {
+            AtomicInteger created = new AtomicInteger();
+            count = this.calls.putIfAbsent(operation, created);
+            if (count == null) {
+                count = created;
+            }
+        }
+        count.incrementAndGet();
+        if (!this.reachable) {
+            return(Outcome.IO_FAILURE);
+        }
+
+        DeviceProfile current = this.profile;
+        long delay;
+        boolean ioFailure;
+        boolean error;
+        synchronized (this.random) {
+            delay = current.nextDelay(this.random);
+            ioFailure = current.nextIOFailure(this.random);
+            error = current.nextError(this.random);
+        }
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return(Outcome.IO_FAILURE);
+            }
+        }
+        if (ioFailure) {
+            return(Outcome.IO_FAILURE);
+        }
+        synchronized (this) {
+            if (!this.userid.equals(userid) || !this.password.equals(password)) {
+                return(Outcome.AUTH_FAILURE);
+            }
+        }
+        return(error ? Outcome.ERROR : Outcome.OK);
+    }
+
+    /**
+     * Change the operational state of a domain and tell the subscriber, the
+     * way a domain that goes down or comes back does.
+     *
+     * @param name the domain name
+     * @param up the new operational state
+     * @return true if the subscriber was told
+     * @throws IOException if the notification could not be delivered
+     */
+    public boolean setDomainUp(String name, boolean up) throws IOException {
+        Domain domain = this.getDomain(name);
+        if (domain == null) {
+            throw new IllegalArgumentException(name);
+        }
+        synchronized (domain) {
+            domain.up = up;
+        }
+        return(this.pushNotification(up ? EVENT_OP_STATE_UP : EVENT_OP_STATE_DOWN, "Domain", name)); //$NON-NLS-1$
+    }
+
+    /**
+     * Change the running configuration of a domain, as a user of the WebGUI
+     * would, and tell the subscriber.
+     *
+     * @param name the domain name
+     * @param config the new configuration export
+     * @param save true to save the change, which sends the saved event
+     *        instead of the modified event
+     * @return true if the subscriber was told
+     * @throws IOException if the notification could not be delivered
+     */
+    public boolean changeDomainConfig(String name, byte[] config, boolean save) throws IOException {
+        Domain domain = this.getOrCreateDomain(name);
+        synchronized (domain) {
+            domain.config = ApplianceSimulator.encode(config);
+            if (save) {
+                domain.savedConfig = domain.config;
+            }
+        }
+        return(this.pushNotification(save ? EVENT_CONFIG_SAVED : EVENT_CONFIG_MODIFIED, "Domain", name)); //$NON-NLS-1$
+    }
+
+    /**
+     * Post one Common Base Event to the subscriber.
+     *
+     * @param eventCode one of the <code>EVENT_</code> codes
+     * @param objectClass the class of the configuration object that changed
+     * @param objectName the name of the object that changed, the domain name
+     *        for the domain events
+     * @return false if there is no subscription, true once the subscriber
+     *         answered
+     * @throws IOException if the subscriber could not be reached or did not
+     *         answer 200
+     */
+    public boolean pushNotification(String eventCode, String objectClass, String objectName) throws IOException {
+        String url = this.getCallbackURL();
+        if (url == null) {
+            return(false);
+        }
+        byte[] body = this.buildEvent(eventCode, objectClass, objectName).getBytes("UTF-8"); //$NON-NLS-1$
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        if (connection instanceof HttpsURLConnection) {
+            trustAnyCatcher((HttpsURLConnection) connection);
+        }
+        try {
+            connection.setConnectTimeout(PUSH_TIMEOUT_MS);
+            connection.setReadTimeout(PUSH_TIMEOUT_MS);
+            connection.setDoOutput(true);
+            connection.setRequestMethod("POST"); //$NON-NLS-1$
+            connection.setRequestProperty("Content-Type", "text/xml; charset=utf-8"); //$NON-NLS-1$ //$NON-NLS-2$
+            connection.setFixedLengthStreamingMode(body.length);
+            OutputStream out = connection.getOutputStream();
+            out.write(body);
+            out.close();
+            int code = connection.getResponseCode();
+            InputStream in = connection.getInputStream();
+            while (in.read() >= 0) {
+                // drain the answer
+            }
+            in.close();
+            if (code != HttpURLConnection.HTTP_OK) {
+                throw new IOException("HTTP " + code + " from " + url); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+        } finally {
+            connection.disconnect();
+        }
+        return(true);
+    }
+
+    /*
+     * The event in the SOAP envelope an appliance sends. The Notification
+     * parser looks for the elements by their unprefixed names.
+     */
+    String buildEvent(String eventCode, String objectClass, String objectName) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'"); //$NON-NLS-1$
+        format.setTimeZone(TimeZone.getTimeZone("UTC")); //$NON-NLS-1$
+        StringBuilder event = new StringBuilder();
+        event.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"); //$NON-NLS-1$
+        event.append("<env:Envelope xmlns:env=\"http://schemas.xmlsoap.org/soap/envelope/\"><env:Body>"); //$NON-NLS-1$
+        event.append("<CommonBaseEvent creationTime=\"").append(format.format(new Date())); //$NON-NLS-1$
+        event.append("\" sequenceNumber=\"").append(this.sequenceNumber.incrementAndGet()); //$NON-NLS-1$
+        event.append("\" version=\"1.0.1\">"); //$NON-NLS-1$
+        event.append("<extendedDataElements name=\"ClientIP\" type=\"string\"><values>127.0.0.1</values></extendedDataElements>"); //$NON-NLS-1$
+        event.append("<sourceComponentId component=\"DataPower\" componentIdType=\"ProductName\" location=\""); //$NON-NLS-1$
+        event.append(ApplianceSimulator.escape(this.serialNumber));
+        event.append("\" locationType=\"SNA\" subComponent=\"").append(ApplianceSimulator.escape(objectName)); //$NON-NLS-1$
+        event.append("\" componentType=\"").append(ApplianceSimulator.escape(objectClass)).append("\"/>"); //$NON-NLS-1$ //$NON-NLS-2$
+        event.append("<msgDataElement msgLocale=\"en-US\"><msgId>").append(eventCode).append("</msgId></msgDataElement>"); //$NON-NLS-1$ //$NON-NLS-2$
+        event.append("</CommonBaseEvent></env:Body></env:Envelope>"); //$NON-NLS-1$
+        return(event.toString());
+    }
+
+    /*
+     * The NotificationCatcher presents the Manager's certificate, which the
+     * simulator has no reason to check.
+     */
+    private static void trustAnyCatcher(HttpsURLConnection connection) throws IOException {
+        TrustManager trustAll = new X509TrustManager() {
+            public void checkClientTrusted(X509Certificate[] chain, String authType) {
+                // trusted
+            }
+            public void checkServerTrusted(X509Certificate[] chain, String authType) {
+                // trusted
+            }
+            public X509Certificate[] getAcceptedIssuers() {
+                return(new X509Certificate[0]);
+            }
+        };
+        try {
+            SSLContext context = SSLContext.getInstance("TLS"); //$NON-NLS-1$
+            context.init(null, new TrustManager[] { trustAll }, null);
+            connection.setSSLSocketFactory(context.getSocketFactory());
+        } catch (GeneralSecurityException e) {
+            throw new IOException(e);
+        }
+        connection.setHostnameVerifier(new HostnameVerifier() {
+            public boolean verify(String host, SSLSession session) {
+                return(true);
+            }
+        });
+    }
+
+    public String toString() {
+        return("SimulatedDevice[" + this.hostname + ":" + this.ampPort + ", " + //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                this.serialNumber + ", AMP " + this.ampVersion + "]"); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+}
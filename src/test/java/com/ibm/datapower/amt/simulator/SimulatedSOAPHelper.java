@@ -0,0 +1,168 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.simulator;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.xmlbeans.XmlOptions;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import com.ibm.datapower.amt.CommandMetrics;
+import com.ibm.datapower.amt.amp.AMPException;
+import com.ibm.datapower.amt.amp.AMPIOException;
+import com.ibm.datapower.amt.amp.DeviceContext;
+import com.ibm.datapower.amt.amp.InvalidCredentialsException;
+import com.ibm.datapower.amt.amp.SOAPHelper;
+
+/**
+ * An AMP SOAPHelper that answers from the {@link ApplianceSimulator} instead
+ * of a device. The real CommandsImpl of each AMP version still builds the
+ * request with XMLBeans and parses the answer, only the HTTPS round trip is
+ * replaced. Like the real SOAPHelper it records each call in the
+ * {@link CommandMetrics}, with the sizes of the documents without the SOAP
+ * envelope. Name one of the subclasses in the Manager options, see
+ * {@link ApplianceSimulator#getManagerOptions()}.
+ */
+public abstract class SimulatedSOAPHelper implements SOAPHelper {
+
+    private final String namespace;
+    private XmlOptions options = null;
+
+    protected SimulatedSOAPHelper(String ampVersion) {
+        this.namespace = AMPResponder.AMP_NAMESPACE_PREFIX + ampVersion;
+    }
+
+    /*
+     * The same options as the real SOAPHelper, so the requests are written
+     * the same way.
+     */
+    public synchronized XmlOptions getOptions() {
+        if (this.options == null) {
+            this.options = new XmlOptions();
+            this.options.setSavePrettyPrint();
+            Map<String, String> suggestedPrefixes = new HashMap<String, String>();
+            suggestedPrefixes.put(this.namespace, "amp"); //$NON-NLS-1$
+            this.options.setSaveSuggestedPrefixes(suggestedPrefixes);
+        }
+        return(this.options);
+    }
+
+    public Node call(DeviceContext device, StringBuffer requestDocument)
+            throws AMPIOException, InvalidCredentialsException, AMPException {
+        String text = requestDocument.toString();
+        CommandMetrics.Call metrics = CommandMetrics.begin(text);
+        try {
+            metrics.sent(text.length());
+            Node response = this.answer(device, text, -1);
+            if (CommandMetrics.isEnabled()) {
+                metrics.received(ApplianceSimulator.length(response));
+            }
+            metrics.succeeded();
+            return(response);
+        } finally {
+            metrics.end(device.getHostname(), device.getAMPPort());
+        }
+    }
+
+    /*
+     * The firmware image is streamed between the header and the footer. Read
+     * it through without keeping it, and answer the request with an empty
+     * image in its place.
+     */
+    public Node call(DeviceContext device, byte[] header, byte[] footer, InputStream requestDocument)
+            throws AMPIOException, InvalidCredentialsException, AMPException {
+        CommandMetrics.Call metrics = CommandMetrics.begin(header);
+        try {
+            Node response = this.stream(device, header, footer, requestDocument, metrics);
+            if (CommandMetrics.isEnabled()) {
+                metrics.received(ApplianceSimulator.length(response));
+            }
+            metrics.succeeded();
+            return(response);
+        } finally {
+            metrics.end(device.getHostname(), device.getAMPPort());
+        }
+    }
+
+    private Node stream(DeviceContext device, byte[] header, byte[] footer, InputStream requestDocument,
+            CommandMetrics.Call metrics) throws AMPIOException, InvalidCredentialsException, AMPException {
+        long length = 0;
+        try {
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = requestDocument.read(buffer)) >= 0) {
+                length += count;
+            }
+        } catch (IOException e) {
+            throw new AMPIOException("Unable to read the request for " + device, e); //$NON-NLS-1$
+        }
+        metrics.sent(header.length + length + footer.length);
+        ByteArrayOutputStream request = new ByteArrayOutputStream();
+        request.write(header, 0, header.length);
+        request.write(footer, 0, footer.length);
+        String text;
+        try {
+            text = request.toString("UTF-8"); //$NON-NLS-1$
+        } catch (IOException e) {
+            throw new AMPException(e);
+        }
+        return(this.answer(device, text, length));
+    }
+
+    private Node answer(DeviceContext context, String requestText, long firmwareLength)
+            throws AMPIOException, InvalidCredentialsException, AMPException {
+        SimulatedDevice device = ApplianceSimulator.getDevice(context.getHostname(), context.getAMPPort());
+        if (device == null) {
+            throw new AMPIOException("No simulated device at " + context.getHostname() + ":" + context.getAMPPort()); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        Element request;
+        try {
+            request = ApplianceSimulator.parse(requestText);
+        } catch (IOException e) {
+            throw new AMPException("Request is not well formed", e); //$NON-NLS-1$
+        }
+        if (!this.namespace.equals(request.getNamespaceURI())) {
+            throw new AMPException("Request namespace " + request.getNamespaceURI() + " sent to a helper for " + this.namespace); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        String operation = AMPResponder.operationOf(request);
+        switch (device.enter(operation, context.getUserId(), context.getPassword())) {
+        case IO_FAILURE:
+            throw new AMPIOException("Simulated I/O failure calling " + operation + " on " + device); //$NON-NLS-1$ //$NON-NLS-2$
+        case AUTH_FAILURE:
+            throw new InvalidCredentialsException("Authentication failure calling " + operation + " on " + device); //$NON-NLS-1$ //$NON-NLS-2$
+        case ERROR:
+            return(this.respond(device, request, operation, true, firmwareLength));
+        default:
+            return(this.respond(device, request, operation, false, firmwareLength));
+        }
+    }
+
+    private Node respond(SimulatedDevice device, Element request, String operation, boolean error,
+            long firmwareLength) throws AMPException {
+        Element response = AMPResponder.respond(device, request, error, firmwareLength);
+        if (response == null) {
+            throw new AMPException(operation + " is not simulated"); //$NON-NLS-1$
+        }
+        return(response);
+    }
+}
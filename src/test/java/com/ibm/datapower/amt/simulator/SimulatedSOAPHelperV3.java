@@ -0,0 +1,31 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.simulator;
+
+import com.ibm.datapower.amt.amp.AMPConstants;
+
+/**
+ * The simulated SOAPHelper for AMP 3.0 devices, named by
+ * {@link com.ibm.datapower.amt.clientAPI.Manager#OPTION_SOAPHELPER_V3_IMPL}.
+ */
+public class SimulatedSOAPHelperV3 extends SimulatedSOAPHelper {
+
+    public SimulatedSOAPHelperV3() {
+        super(AMPConstants.AMP_V3_0);
+    }
+}
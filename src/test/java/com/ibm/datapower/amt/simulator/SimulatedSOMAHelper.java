@@ -0,0 +1,193 @@
+/**
+ * Copyright 2014 IBM Corp.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ **/
+
+
+package com.ibm.datapower.amt.simulator;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.xmlbeans.XmlOptions;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import com.ibm.datapower.amt.CommandMetrics;
+import com.ibm.datapower.amt.amp.DeviceContext;
+import com.ibm.datapower.amt.soma.SOAPHelper;
+import com.ibm.datapower.amt.soma.SOMAException;
+import com.ibm.datapower.amt.soma.SOMAIOException;
+
+/**
+ * A SOMA SOAPHelper that answers the <code>get-status</code> requests of
+ * the SOMACommandsImpl from the {@link ApplianceSimulator}, named by
+ * {@link com.ibm.datapower.amt.clientAPI.Manager#OPTION_SOAPHELPER_SOMA_IMPL}.
+ * <p>
+ * Two status classes are simulated: <code>DomainStatus</code>, one entry for
+ * the domain, and <code>ObjectStatus</code>, one entry for each of a few
+ * services in the domain whose state follows the domain. A request without a
+ * class answers both. Any other class, or a domain the device does not have,
+ * answers a <code>dp:result</code> error as a device does. Each call is
+ * recorded in the {@link CommandMetrics}, as the real SOMA SOAPHelper does.
+ */
+public class SimulatedSOMAHelper implements SOAPHelper {
+
+    static final String SOMA_NAMESPACE = "http://www.datapower.com/schemas/management"; //$NON-NLS-1$
+
+    static final String CLASS_DOMAIN_STATUS = "DomainStatus"; //$NON-NLS-1$
+    static final String CLASS_OBJECT_STATUS = "ObjectStatus"; //$NON-NLS-1$
+
+    private static final String[][] SERVICES = new String[][] {
+        { "XMLFirewallService", "-fw" }, //$NON-NLS-1$ //$NON-NLS-2$
+        { "MultiProtocolGateway", "-mpgw" }, //$NON-NLS-1$ //$NON-NLS-2$
+        { "WSGateway", "-wsp" } }; //$NON-NLS-1$ //$NON-NLS-2$
+
+    private XmlOptions options = null;
+
+    public SimulatedSOMAHelper() {
+        // named by class in the Manager options
+    }
+
+    public synchronized XmlOptions getOptions() {
+        if (this.options == null) {
+            this.options = new XmlOptions();
+            this.options.setSavePrettyPrint();
+        }
+        return(this.options);
+    }
+
+    public Node call(DeviceContext context, StringBuffer requestDocument) throws SOMAIOException, SOMAException {
+        String text = requestDocument.toString();
+        CommandMetrics.Call metrics = CommandMetrics.begin(text);
+        try {
+            metrics.sent(text.length());
+            Node response = this.answer(context, text);
+            if (CommandMetrics.isEnabled()) {
+                metrics.received(ApplianceSimulator.length(response));
+            }
+            metrics.succeeded();
+            return(response);
+        } finally {
+            metrics.end(context.getHostname(), context.getAMPPort());
+        }
+    }
+
+    private Node answer(DeviceContext context, String requestText) throws SOMAIOException, SOMAException {
+        SimulatedDevice device = ApplianceSimulator.getDevice(context.getHostname(), context.getAMPPort());
+        if (device == null) {
+            throw new SOMAIOException("No simulated device at " + context.getHostname() + ":" + context.getAMPPort()); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        Element request;
+        try {
+            request = ApplianceSimulator.parse(requestText);
+        } catch (IOException e) {
+            throw new SOMAException("Request is not well formed", e); //$NON-NLS-1$
+        }
+        Element getStatus = AMPResponder.child(request, "get-status"); //$NON-NLS-1$
+        if (!SOMA_NAMESPACE.equals(request.getNamespaceURI()) || (getStatus == null)) {
+            throw new SOMAException("Only get-status is simulated"); //$NON-NLS-1$
+        }
+        switch (device.enter("get-status", context.getUserId(), context.getPassword())) { //$NON-NLS-1$
+        case IO_FAILURE:
+            throw new SOMAIOException("Simulated I/O failure calling get-status on " + device); //$NON-NLS-1$
+        case AUTH_FAILURE:
+            throw new SOMAException("Authentication failure calling get-status on " + device); //$NON-NLS-1$
+        case ERROR:
+            return(result("Simulated error")); //$NON-NLS-1$
+        default:
+            return(respond(device, request.getAttribute("domain"), getStatus.getAttribute("class"))); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+    }
+
+    public Node call(DeviceContext device, byte[] header, byte[] footer, InputStream requestDocument)
+            throws SOMAIOException, SOMAException {
+        throw new SOMAException("Streamed SOMA requests are not simulated"); //$NON-NLS-1$
+    }
+
+    /*
+     * The answer has no whitespace between the elements, since the
+     * SOMACommandsImpl takes every child of dp:status to be a status entry.
+     */
+    private static Element respond(SimulatedDevice device, String domainName, String statusClass) {
+        SimulatedDevice.Domain domain = device.getDomain(domainName);
+        if (domain == null) {
+            return(result("Domain " + domainName + " does not exist")); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        boolean all = (statusClass.length() == 0);
+        if (!all && !statusClass.equals(CLASS_DOMAIN_STATUS) && !statusClass.equals(CLASS_OBJECT_STATUS)) {
+            return(result("Unknown status class " + statusClass)); //$NON-NLS-1$
+        }
+        boolean up;
+        boolean enabled;
+        boolean saved = domain.isSaved();
+        synchronized (domain) {
+            up = domain.up;
+            enabled = domain.enabled;
+        }
+
+        Element response = response();
+        Element status = add(response, "dp:status", null); //$NON-NLS-1$
+        if (all || statusClass.equals(CLASS_DOMAIN_STATUS)) {
+            Element entry = add(status, CLASS_DOMAIN_STATUS, null);
+            add(entry, "Domain", domainName); //$NON-NLS-1$
+            add(entry, "SaveNeeded", saved ? "off" : "on"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            add(entry, "TraceEnabled", "off"); //$NON-NLS-1$ //$NON-NLS-2$
+            add(entry, "DebugEnabled", "off"); //$NON-NLS-1$ //$NON-NLS-2$
+            add(entry, "ProbeEnabled", "off"); //$NON-NLS-1$ //$NON-NLS-2$
+            add(entry, "DiagEnabled", "off"); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        if (all || statusClass.equals(CLASS_OBJECT_STATUS)) {
+            for (String[] service : SERVICES) {
+                Element entry = add(status, CLASS_OBJECT_STATUS, null);
+                add(entry, "Class", service[0]); //$NON-NLS-1$
+                add(entry, "OpState", up ? "up" : "down"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                add(entry, "AdminState", enabled ? "enabled" : "disabled"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                add(entry, "Name", domainName + service[1]); //$NON-NLS-1$
+                add(entry, "EventCode", "0x00000000"); //$NON-NLS-1$ //$NON-NLS-2$
+                add(entry, "ErrorCode", null); //$NON-NLS-1$
+                add(entry, "ConfigState", saved ? "saved" : "modified"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            }
+        }
+        return(response);
+    }
+
+    private static Element result(String reason) {
+        Element response = response();
+        add(response, "dp:result", reason); //$NON-NLS-1$
+        return(response);
+    }
+
+    private static Element response() {
+        Document document = ApplianceSimulator.newDocument();
+        Element response = document.createElementNS(SOMA_NAMESPACE, "dp:response"); //$NON-NLS-1$
+        document.appendChild(response);
+        return(response);
+    }
+
+    /*
+     * The dp: elements are in the SOMA namespace, the status entries are not.
+     */
+    private static Element add(Element parent, String name, String text) {
+        Document document = parent.getOwnerDocument();
+        Element element = name.startsWith("dp:") ? //$NON-NLS-1$
+                document.createElementNS(SOMA_NAMESPACE, name) : document.createElement(name);
+        if (text != null) {
+            element.appendChild(document.createTextNode(text));
+        }
+        parent.appendChild(element);
+        return(element);
+    }
+}